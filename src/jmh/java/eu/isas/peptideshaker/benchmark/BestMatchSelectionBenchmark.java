@@ -0,0 +1,114 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the selection of the best hit of all the spectrum matches of the
+ * synthetic project.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BestMatchSelectionBenchmark {
+
+    /**
+     * The synthetic project.
+     */
+    private SyntheticProject project;
+    /**
+     * The spectrum matches with a best hit.
+     */
+    private ArrayList<SpectrumMatch> spectrumMatches;
+    /**
+     * The best match selection.
+     */
+    private BestMatchSelection bestMatchSelection;
+
+    /**
+     * Processes the synthetic project until the PSMs are processed.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, TimeoutException, IOException {
+
+        project = new SyntheticProject();
+        project.processUntil(SyntheticProject.Step.psmsProcessed);
+
+        spectrumMatches = project.getIdentifiedSpectrumMatches();
+        bestMatchSelection = new BestMatchSelection(
+                project.getProteinCount(),
+                project.getFmIndex(),
+                project.getSpectrumProvider(),
+                project.getIdentificationParameters(),
+                new PeptideSpectrumAnnotator()
+        );
+
+    }
+
+    /**
+     * Closes the synthetic project.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the project
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        project.close();
+
+    }
+
+    /**
+     * Benchmarks the selection of the best hit of every spectrum match.
+     *
+     * @return the PSM target decoy map filled during the selection
+     */
+    @Benchmark
+    public TargetDecoyMap selectBestHit() {
+
+        TargetDecoyMap psmMap = new TargetDecoyMap();
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            bestMatchSelection.selectBestHit(
+                    spectrumMatch,
+                    project.getInputMap(),
+                    psmMap,
+                    project.getIdentification()
+            );
+
+        }
+
+        return psmMap;
+
+    }
+}
@@ -0,0 +1,91 @@
+package eu.isas.peptideshaker.benchmark;
+
+import eu.isas.peptideshaker.protein_inference.GroupSimplification;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the simplification of the protein groups of the synthetic
+ * project. The simplification modifies the project, a new project is
+ * therefore processed before every iteration.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GroupSimplificationBenchmark {
+
+    /**
+     * The synthetic project.
+     */
+    private SyntheticProject project;
+
+    /**
+     * Processes a new synthetic project until the proteins are built.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    @Setup(Level.Iteration)
+    public void setUp() throws InterruptedException, TimeoutException, IOException {
+
+        project = new SyntheticProject();
+        project.processUntil(SyntheticProject.Step.proteinsBuilt);
+
+    }
+
+    /**
+     * Closes the synthetic project.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the project
+     */
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+
+        project.close();
+
+    }
+
+    /**
+     * Benchmarks the removal of the redundant protein groups.
+     *
+     * @return the group simplification
+     */
+    @Benchmark
+    public GroupSimplification removeRedundantGroups() {
+
+        GroupSimplification groupSimplification = new GroupSimplification();
+        groupSimplification.removeRedundantGroups(
+                project.getIdentification(),
+                project.getIdentificationParameters(),
+                project.getFmIndex(),
+                project.getFmIndex(),
+                project.getProcessingParameters().getnThreads(),
+                project.getWaitingHandler()
+        );
+
+        return groupSimplification;
+
+    }
+}
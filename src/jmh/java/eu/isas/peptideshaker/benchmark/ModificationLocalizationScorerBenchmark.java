@@ -0,0 +1,108 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import eu.isas.peptideshaker.ptm.ModificationLocalizationScorer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the scoring of the modification localization of all the
+ * spectrum matches of the synthetic project.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ModificationLocalizationScorerBenchmark {
+
+    /**
+     * The synthetic project.
+     */
+    private SyntheticProject project;
+    /**
+     * The spectrum matches with a best hit.
+     */
+    private ArrayList<SpectrumMatch> spectrumMatches;
+    /**
+     * The modification localization scorer.
+     */
+    private final ModificationLocalizationScorer modificationLocalizationScorer = new ModificationLocalizationScorer();
+    /**
+     * The spectrum annotator.
+     */
+    private final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+
+    /**
+     * Processes the synthetic project until the PSMs are processed.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, TimeoutException, IOException {
+
+        project = new SyntheticProject();
+        project.processUntil(SyntheticProject.Step.psmsProcessed);
+
+        spectrumMatches = project.getIdentifiedSpectrumMatches();
+
+    }
+
+    /**
+     * Closes the synthetic project.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the project
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        project.close();
+
+    }
+
+    /**
+     * Benchmarks the scoring of the modification localization of every
+     * spectrum match.
+     */
+    @Benchmark
+    public void scorePTMs() {
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            modificationLocalizationScorer.scorePTMs(
+                    project.getIdentification(),
+                    spectrumMatch,
+                    project.getFmIndex(),
+                    project.getSpectrumProvider(),
+                    project.getModificationFactory(),
+                    project.getIdentificationParameters(),
+                    project.getWaitingHandler(),
+                    peptideSpectrumAnnotator
+            );
+
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import eu.isas.peptideshaker.utils.PercolatorUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the computation of the Percolator features of the candidate
+ * peptides of all the spectrum matches of the synthetic project.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PercolatorUtilsBenchmark {
+
+    /**
+     * The synthetic project.
+     */
+    private SyntheticProject project;
+    /**
+     * The spectrum matches with a best hit.
+     */
+    private ArrayList<SpectrumMatch> spectrumMatches;
+
+    /**
+     * Processes the synthetic project until the PSMs are processed.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, TimeoutException, IOException {
+
+        project = new SyntheticProject();
+        project.processUntil(SyntheticProject.Step.psmsProcessed);
+
+        spectrumMatches = project.getIdentifiedSpectrumMatches();
+
+    }
+
+    /**
+     * Closes the synthetic project.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the project
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        project.close();
+
+    }
+
+    /**
+     * Benchmarks the computation of the Percolator features of all the
+     * candidate peptides of every spectrum match, without retention time and
+     * spectrum predictions.
+     *
+     * @param blackhole the blackhole consuming the features
+     */
+    @Benchmark
+    public void getPeptideData(
+            Blackhole blackhole
+    ) {
+
+        IdentificationParameters identificationParameters = project.getIdentificationParameters();
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            spectrumMatch.getAllPeptideAssumptions()
+                    .forEach(
+                            peptideAssumption -> blackhole.consume(
+                                    PercolatorUtils.getPeptideData(
+                                            spectrumMatch,
+                                            peptideAssumption,
+                                            null,
+                                            null,
+                                            searchParameters,
+                                            project.getFmIndex(),
+                                            identificationParameters.getSequenceMatchingParameters(),
+                                            identificationParameters.getAnnotationParameters(),
+                                            identificationParameters.getModificationLocalizationParameters(),
+                                            project.getModificationFactory(),
+                                            project.getSpectrumProvider(),
+                                            searchParameters.getModificationParameters()
+                                    )
+                            )
+                    );
+
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.io.export.ExportFeature;
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.features.peptideshaker.PsPsmFeature;
+import eu.isas.peptideshaker.export.sections.PsPsmSection;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the export of all the PSM features of the synthetic project to
+ * a text report.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PsPsmSectionBenchmark {
+
+    /**
+     * The synthetic project.
+     */
+    private SyntheticProject project;
+    /**
+     * The keys of the spectrum matches to export.
+     */
+    private long[] keys;
+    /**
+     * The features to export.
+     */
+    private ArrayList<ExportFeature> exportFeatures;
+    /**
+     * The file to write the report to.
+     */
+    private File reportFile;
+
+    /**
+     * Processes the synthetic project until the matches are validated.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException, TimeoutException, IOException {
+
+        project = new SyntheticProject();
+        project.processUntil(SyntheticProject.Step.validated);
+
+        keys = project.getIdentification().getSpectrumIdentification().values().stream()
+                .flatMap(spectrumKeys -> spectrumKeys.stream())
+                .mapToLong(Long::longValue)
+                .sorted()
+                .toArray();
+
+        exportFeatures = new ArrayList<>(Arrays.asList(PsPsmFeature.values()));
+        reportFile = File.createTempFile("psm_report", ".txt");
+
+    }
+
+    /**
+     * Closes the synthetic project and deletes the report.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the project
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        project.close();
+        reportFile.delete();
+
+    }
+
+    /**
+     * Benchmarks the export of the PSM section.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the report
+     */
+    @Benchmark
+    public void writeSection() throws IOException {
+
+        ExportWriter exportWriter = ExportWriter.getExportWriter(
+                ExportFormat.text,
+                reportFile,
+                "\t",
+                1,
+                false
+        );
+
+        PsPsmSection psPsmSection = new PsPsmSection(
+                exportFeatures,
+                true,
+                true,
+                exportWriter
+        );
+        psPsmSection.writeSection(
+                project.getIdentification(),
+                project.getIdentificationFeaturesGenerator(),
+                project.getFmIndex(),
+                project.getFmIndex(),
+                project.getSpectrumProvider(),
+                project.getIdentificationParameters(),
+                keys,
+                "",
+                10,
+                false,
+                true,
+                project.getWaitingHandler()
+        );
+
+        exportWriter.close();
+
+    }
+}
@@ -0,0 +1,1033 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.db.object.ObjectsDB;
+import com.compomics.util.exceptions.ExceptionHandler;
+import com.compomics.util.exceptions.exception_handlers.CommandLineExceptionHandler;
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.biology.modifications.ModificationFactory;
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.peptide_shaker.Metrics;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.protein_inference.PeptideAndProteinBuilder;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.experiment.io.mass_spectrometry.MsFileHandler;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.io.IoUtil;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import com.compomics.util.parameters.peptide_shaker.ProjectType;
+import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.fileimport.PsmImporter;
+import eu.isas.peptideshaker.processing.PsmProcessor;
+import eu.isas.peptideshaker.protein_inference.GroupSimplification;
+import eu.isas.peptideshaker.protein_inference.ProteinInference;
+import eu.isas.peptideshaker.ptm.ModificationLocalizationScorer;
+import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.validation.MatchesValidator;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A synthetic project used by the benchmarks. A target-decoy FASTA file and
+ * an mgf file with theoretical fragment spectra are generated from a seeded
+ * random generator, search engine results are simulated for every spectrum,
+ * and the project is processed through the same steps as PeptideShaker up to
+ * the step needed by a benchmark.
+ *
+ * @author Marc Vaudel
+ */
+public class SyntheticProject {
+
+    /**
+     * The processing steps of the project, in order.
+     */
+    public enum Step {
+
+        /**
+         * The PSMs are imported and the search engine scores probabilities
+         * estimated.
+         */
+        psmsImported,
+        /**
+         * The best hits are selected, the modifications localized, and the PSM
+         * probabilities estimated.
+         */
+        psmsProcessed,
+        /**
+         * The peptides and proteins are built and the peptide probabilities
+         * estimated.
+         */
+        proteinsBuilt,
+        /**
+         * The protein groups are simplified, the shared peptides distributed
+         * and the protein map filled.
+         */
+        groupsSimplified,
+        /**
+         * The protein inference status is inferred, the protein probabilities
+         * estimated, and the matches validated.
+         */
+        validated;
+
+    }
+
+    /**
+     * The default number of target proteins.
+     */
+    public static final int DEFAULT_PROTEINS = 500;
+    /**
+     * The default number of spectra.
+     */
+    public static final int DEFAULT_SPECTRA = 5000;
+    /**
+     * The default seed.
+     */
+    public static final long DEFAULT_SEED = 20211022L;
+    /**
+     * The amino acids used to build the sequences. K and R are only used at
+     * the C-terminus of the tryptic peptides, C and P are not used.
+     */
+    private static final char[] AMINO_ACIDS = "ADEFGHILMNQSTVWY".toCharArray();
+    /**
+     * The decoy flag.
+     */
+    private static final String DECOY_FLAG = "_REVERSED";
+    /**
+     * The mass of a proton.
+     */
+    private static final double PROTON = 1.007276;
+    /**
+     * The mass of water.
+     */
+    private static final double WATER = 18.010565;
+    /**
+     * The mass of an oxygen atom.
+     */
+    private static final double OXYGEN = 15.994915;
+    /**
+     * The name of the variable modification.
+     */
+    private static final String OXIDATION = "Oxidation of M";
+    /**
+     * The number of candidate peptides per spectrum.
+     */
+    private static final int N_CANDIDATES = 3;
+    /**
+     * The share of spectra matching their true peptide.
+     */
+    private static final double TRUE_MATCH_SHARE = 0.7;
+    /**
+     * The share of peptides shared with another protein.
+     */
+    private static final double SHARED_PEPTIDE_SHARE = 0.2;
+    /**
+     * The number of noise peaks per spectrum.
+     */
+    private static final int N_NOISE_PEAKS = 30;
+    /**
+     * The random generator.
+     */
+    private final Random random;
+    /**
+     * The folder where the files of the project are written.
+     */
+    private final File folder;
+    /**
+     * The target peptide sequences.
+     */
+    private final ArrayList<String> targetPeptides = new ArrayList<>();
+    /**
+     * The decoy peptide sequences.
+     */
+    private final ArrayList<String> decoyPeptides = new ArrayList<>();
+    /**
+     * The simulated spectrum matches.
+     */
+    private final ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<>();
+    /**
+     * The waiting handler.
+     */
+    private final WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+    /**
+     * The exception handler.
+     */
+    private final ExceptionHandler exceptionHandler = new CommandLineExceptionHandler();
+    /**
+     * The modification factory.
+     */
+    private final ModificationFactory modificationFactory = ModificationFactory.getInstance();
+    /**
+     * The identification parameters.
+     */
+    private final IdentificationParameters identificationParameters;
+    /**
+     * The processing parameters.
+     */
+    private final ProcessingParameters processingParameters = new ProcessingParameters();
+    /**
+     * The FM index providing the sequences and protein details.
+     */
+    private FMIndex fmIndex;
+    /**
+     * The spectrum provider.
+     */
+    private MsFileHandler spectrumProvider;
+    /**
+     * The objects database.
+     */
+    private ObjectsDB objectsDB;
+    /**
+     * The identification.
+     */
+    private Identification identification;
+    /**
+     * The input map.
+     */
+    private final InputMap inputMap = new InputMap();
+    /**
+     * The matches validator.
+     */
+    private final MatchesValidator matchesValidator = new MatchesValidator(
+            new TargetDecoyMap(),
+            new TargetDecoyMap(),
+            new TargetDecoyMap()
+    );
+    /**
+     * The metrics.
+     */
+    private final Metrics metrics = new Metrics();
+    /**
+     * The protein occurrence in the search engine results.
+     */
+    private HashMap<String, Integer> proteinCount;
+    /**
+     * The identification features generator.
+     */
+    private IdentificationFeaturesGenerator identificationFeaturesGenerator;
+    /**
+     * The last step processed, null if none.
+     */
+    private Step currentStep = null;
+
+    /**
+     * Constructor. Generates the files of a project of default size.
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the files
+     */
+    public SyntheticProject() throws IOException {
+
+        this(DEFAULT_PROTEINS, DEFAULT_SPECTRA, DEFAULT_SEED);
+
+    }
+
+    /**
+     * Constructor. Generates the files of the project.
+     *
+     * @param nProteins the number of target proteins
+     * @param nSpectra the number of spectra
+     * @param seed the seed of the random generator
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the files
+     */
+    public SyntheticProject(
+            int nProteins,
+            int nSpectra,
+            long seed
+    ) throws IOException {
+
+        random = new Random(seed);
+        folder = Files.createTempDirectory("peptide-shaker-benchmark").toFile();
+
+        SearchParameters searchParameters = new SearchParameters();
+        ModificationParameters modificationParameters = searchParameters.getModificationParameters();
+        modificationParameters.addVariableModification(modificationFactory.getModification(OXIDATION));
+
+        identificationParameters = new IdentificationParameters(searchParameters);
+
+        FastaParameters fastaParameters = new FastaParameters();
+        fastaParameters.setTargetDecoy(true);
+        fastaParameters.setDecoyFlag(DECOY_FLAG);
+        fastaParameters.setDecoySuffix(true);
+        identificationParameters.setFastaParameters(fastaParameters);
+
+        processingParameters.setnThreads(Runtime.getRuntime().availableProcessors());
+
+        File fastaFile = new File(folder, "synthetic.fasta");
+        writeFasta(fastaFile, nProteins);
+
+        File mgfFile = new File(folder, "synthetic.mgf");
+        writeSpectra(mgfFile, nSpectra);
+
+        fmIndex = new FMIndex(
+                fastaFile,
+                fastaParameters,
+                waitingHandler,
+                false,
+                identificationParameters.getPeptideVariantsParameters(),
+                searchParameters
+        );
+
+        spectrumProvider = new MsFileHandler();
+        spectrumProvider.register(mgfFile, folder, waitingHandler);
+
+    }
+
+    /**
+     * Processes the project until the given step, included. Steps already
+     * processed are skipped.
+     *
+     * @param step the last step to process
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if a step times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void processUntil(
+            Step step
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        while (currentStep == null || currentStep.compareTo(step) < 0) {
+
+            Step nextStep = currentStep == null ? Step.psmsImported : Step.values()[currentStep.ordinal() + 1];
+
+            switch (nextStep) {
+                case psmsImported:
+                    importPsms();
+                    break;
+                case psmsProcessed:
+                    processPsms();
+                    break;
+                case proteinsBuilt:
+                    buildProteins();
+                    break;
+                case groupsSimplified:
+                    simplifyGroups();
+                    break;
+                case validated:
+                    validate();
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Step " + nextStep + " not implemented.");
+            }
+
+            identification.getObjectsDB().commit();
+            currentStep = nextStep;
+
+        }
+    }
+
+    /**
+     * Creates the database and imports the simulated spectrum matches.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the import times out
+     */
+    private void importPsms() throws InterruptedException, TimeoutException {
+
+        objectsDB = new ObjectsDB(folder.getAbsolutePath(), "synthetic.psdb");
+        identification = new Identification(objectsDB);
+
+        for (String fileName : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
+
+            identification.addFraction(fileName);
+
+        }
+
+        PsmImporter psmImporter = new PsmImporter();
+        psmImporter.importPsms(
+                spectrumMatches,
+                identification,
+                identificationParameters,
+                inputMap,
+                null,
+                fmIndex,
+                spectrumProvider,
+                fmIndex,
+                processingParameters,
+                waitingHandler,
+                exceptionHandler
+        );
+
+        proteinCount = new HashMap<>(psmImporter.getProteinCount());
+
+        inputMap.estimateProbabilities(waitingHandler);
+
+    }
+
+    /**
+     * Selects the best hits, scores the modification localization, and
+     * estimates the PSM probabilities.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the processing times out
+     */
+    private void processPsms() throws InterruptedException, TimeoutException {
+
+        PsmProcessor psmProcessor = new PsmProcessor(identification);
+        psmProcessor.processPsms(
+                inputMap,
+                identificationParameters,
+                matchesValidator,
+                new ModificationLocalizationScorer(),
+                fmIndex,
+                spectrumProvider,
+                modificationFactory,
+                proteinCount,
+                processingParameters.getnThreads(),
+                waitingHandler,
+                exceptionHandler
+        );
+
+        matchesValidator.getPsmMap().estimateProbabilities(waitingHandler);
+
+    }
+
+    /**
+     * Attaches the PSM probabilities, builds the peptides and proteins, and
+     * estimates the peptide probabilities.
+     */
+    private void buildProteins() {
+
+        PeptideAndProteinBuilder peptideAndProteinBuilder = new PeptideAndProteinBuilder(identification);
+
+        identification.getSpectrumIdentification().values().stream()
+                .flatMap(keys -> keys.stream())
+                .map(key -> identification.getSpectrumMatch(key))
+                .filter(spectrumMatch -> spectrumMatch.getBestPeptideAssumption() != null)
+                .forEach(
+                        spectrumMatch -> {
+
+                            PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+                            psParameter.setProbability(matchesValidator.getPsmMap().getProbability(psParameter.getScore()));
+
+                            peptideAndProteinBuilder.buildPeptidesAndProteins(
+                                    spectrumMatch,
+                                    identificationParameters.getSequenceMatchingParameters(),
+                                    fmIndex,
+                                    true
+                            );
+
+                            identification.updateObject(spectrumMatch.getKey(), spectrumMatch);
+
+                        }
+                );
+
+        matchesValidator.fillPeptideMaps(
+                identification,
+                metrics,
+                waitingHandler,
+                identificationParameters,
+                fmIndex,
+                spectrumProvider
+        );
+        matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
+        matchesValidator.attachPeptideProbabilities(
+                identification,
+                identificationParameters.getFastaParameters(),
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Simplifies the protein groups, distributes the shared peptides and
+     * fills the protein map.
+     */
+    private void simplifyGroups() {
+
+        GroupSimplification groupSimplification = new GroupSimplification();
+        groupSimplification.removeRedundantGroups(
+                identification,
+                identificationParameters,
+                fmIndex,
+                fmIndex,
+                processingParameters.getnThreads(),
+                waitingHandler
+        );
+
+        ProteinInference proteinInference = new ProteinInference();
+        proteinInference.distributeSharedPeptides(
+                identification,
+                waitingHandler
+        );
+
+        matchesValidator.fillProteinMap(
+                identification,
+                spectrumProvider,
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Infers the protein inference status, estimates the protein
+     * probabilities, and validates the matches.
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the validation times out
+     */
+    private void validate() throws InterruptedException, TimeoutException {
+
+        ProteinInference proteinInference = new ProteinInference();
+        proteinInference.inferPiStatus(
+                identification,
+                metrics,
+                matchesValidator.getProteinMap(),
+                identificationParameters,
+                fmIndex,
+                fmIndex,
+                waitingHandler
+        );
+
+        matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+        matchesValidator.attachProteinProbabilities(
+                identification,
+                fmIndex,
+                identificationParameters.getFastaParameters(),
+                metrics,
+                waitingHandler,
+                identificationParameters.getFractionParameters()
+        );
+
+        identificationFeaturesGenerator = new IdentificationFeaturesGenerator(
+                identification,
+                identificationParameters,
+                fmIndex,
+                spectrumProvider,
+                metrics,
+                new SpectrumCountingParameters()
+        );
+
+        matchesValidator.validateIdentifications(
+                identification,
+                metrics,
+                inputMap,
+                waitingHandler,
+                exceptionHandler,
+                identificationFeaturesGenerator,
+                fmIndex,
+                fmIndex,
+                spectrumProvider,
+                new GeneMaps(),
+                identificationParameters,
+                ProjectType.protein,
+                processingParameters
+        );
+
+    }
+
+    /**
+     * Writes a FASTA file with target proteins made of tryptic peptides, some
+     * of which are shared between proteins, followed by the reversed decoy
+     * proteins.
+     *
+     * @param fastaFile the FASTA file
+     * @param nProteins the number of target proteins
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeFasta(
+            File fastaFile,
+            int nProteins
+    ) throws IOException {
+
+        ArrayList<String> accessions = new ArrayList<>(nProteins);
+        ArrayList<String> sequences = new ArrayList<>(nProteins);
+
+        for (int i = 0; i < nProteins; i++) {
+
+            int nPeptides = 5 + random.nextInt(11);
+            StringBuilder sequence = new StringBuilder();
+
+            for (int j = 0; j < nPeptides; j++) {
+
+                String peptide;
+
+                if (!targetPeptides.isEmpty() && random.nextDouble() < SHARED_PEPTIDE_SHARE) {
+
+                    peptide = targetPeptides.get(random.nextInt(targetPeptides.size()));
+
+                } else {
+
+                    peptide = getRandomPeptide();
+                    targetPeptides.add(peptide);
+
+                }
+
+                sequence.append(peptide);
+
+            }
+
+            accessions.add(String.format("SYN%05d", i));
+            sequences.add(sequence.toString());
+
+        }
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile))) {
+
+            for (int i = 0; i < nProteins; i++) {
+
+                bw.write(">" + accessions.get(i) + " Synthetic protein " + i);
+                bw.newLine();
+                bw.write(sequences.get(i));
+                bw.newLine();
+
+            }
+
+            for (int i = 0; i < nProteins; i++) {
+
+                String decoySequence = new StringBuilder(sequences.get(i)).reverse().toString();
+
+                bw.write(">" + accessions.get(i) + DECOY_FLAG + " Synthetic protein " + i + "-REVERSED");
+                bw.newLine();
+                bw.write(decoySequence);
+                bw.newLine();
+
+                addDecoyPeptides(decoySequence);
+
+            }
+        }
+    }
+
+    /**
+     * Returns a random tryptic peptide.
+     *
+     * @return a random tryptic peptide
+     */
+    private String getRandomPeptide() {
+
+        int length = 7 + random.nextInt(13);
+        StringBuilder peptide = new StringBuilder(length + 1);
+
+        for (int i = 0; i < length; i++) {
+
+            peptide.append(AMINO_ACIDS[random.nextInt(AMINO_ACIDS.length)]);
+
+        }
+
+        peptide.append(random.nextBoolean() ? 'K' : 'R');
+
+        return peptide.toString();
+
+    }
+
+    /**
+     * Adds the peptides obtained by cutting the given decoy sequence after K
+     * and R to the decoy peptides.
+     *
+     * @param decoySequence the decoy protein sequence
+     */
+    private void addDecoyPeptides(
+            String decoySequence
+    ) {
+
+        int start = 0;
+
+        for (int i = 0; i < decoySequence.length(); i++) {
+
+            char aa = decoySequence.charAt(i);
+
+            if (aa == 'K' || aa == 'R' || i == decoySequence.length() - 1) {
+
+                if (i - start + 1 >= 8) {
+
+                    decoyPeptides.add(decoySequence.substring(start, i + 1));
+
+                }
+
+                start = i + 1;
+
+            }
+        }
+    }
+
+    /**
+     * Writes the spectra of randomly selected target peptides to an mgf file
+     * and simulates the search engine results.
+     *
+     * @param mgfFile the mgf file
+     * @param nSpectra the number of spectra
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeSpectra(
+            File mgfFile,
+            int nSpectra
+    ) throws IOException {
+
+        String spectrumFile = IoUtil.removeExtension(mgfFile.getName());
+
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile))) {
+
+            for (int i = 0; i < nSpectra; i++) {
+
+                String title = "Synthetic spectrum " + i;
+                String sequence = targetPeptides.get(random.nextInt(targetPeptides.size()));
+                int oxidationSite = getRandomOxidationSite(sequence);
+                int charge = 2 + random.nextInt(2);
+
+                writeSpectrum(bw, title, sequence, oxidationSite, charge, i);
+
+                SpectrumMatch spectrumMatch = new SpectrumMatch(spectrumFile, title);
+                int advocateId = Advocate.comet.getIndex();
+                boolean trueMatch = random.nextDouble() < TRUE_MATCH_SHARE;
+
+                TreeMap<Double, Peptide> candidates = new TreeMap<>();
+
+                if (trueMatch) {
+
+                    candidates.put(Math.pow(10, -2 - 6 * random.nextDouble()), getPeptide(sequence, oxidationSite));
+
+                }
+
+                while (candidates.size() < N_CANDIDATES) {
+
+                    String candidateSequence = random.nextBoolean()
+                            ? decoyPeptides.get(random.nextInt(decoyPeptides.size()))
+                            : targetPeptides.get(random.nextInt(targetPeptides.size()));
+
+                    candidates.put(
+                            Math.pow(10, -2.5 * random.nextDouble()),
+                            getPeptide(candidateSequence, getRandomOxidationSite(candidateSequence))
+                    );
+
+                }
+
+                int rank = 1;
+
+                for (double eValue : candidates.keySet()) {
+
+                    spectrumMatch.addPeptideAssumption(
+                            advocateId,
+                            new PeptideAssumption(
+                                    candidates.get(eValue),
+                                    rank++,
+                                    advocateId,
+                                    charge,
+                                    eValue,
+                                    eValue
+                            )
+                    );
+
+                }
+
+                spectrumMatches.add(spectrumMatch);
+
+            }
+        }
+    }
+
+    /**
+     * Writes the theoretical b and y ions of a peptide, mixed with noise
+     * peaks, as an mgf spectrum.
+     *
+     * @param bw the writer
+     * @param title the spectrum title
+     * @param sequence the peptide sequence
+     * @param oxidationSite the oxidized site, 1-based, -1 if none
+     * @param charge the precursor charge
+     * @param index the index of the spectrum
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    private void writeSpectrum(
+            BufferedWriter bw,
+            String title,
+            String sequence,
+            int oxidationSite,
+            int charge,
+            int index
+    ) throws IOException {
+
+        double[] residueMasses = new double[sequence.length()];
+
+        for (int i = 0; i < sequence.length(); i++) {
+
+            residueMasses[i] = AminoAcid.getAminoAcid(sequence.charAt(i)).getMonoisotopicMass();
+
+            if (i + 1 == oxidationSite) {
+
+                residueMasses[i] += OXYGEN;
+
+            }
+        }
+
+        double peptideMass = Arrays.stream(residueMasses).sum() + WATER;
+        double precursorMz = (peptideMass + charge * PROTON) / charge;
+
+        TreeMap<Double, Double> peaks = new TreeMap<>();
+        double bIon = PROTON;
+
+        for (int i = 0; i < residueMasses.length - 1; i++) {
+
+            bIon += residueMasses[i];
+            double yIon = peptideMass - bIon + 2 * PROTON;
+
+            peaks.put(bIon, 1e4 * (1 + random.nextDouble()));
+            peaks.put(yIon, 2e4 * (1 + random.nextDouble()));
+
+        }
+
+        for (int i = 0; i < N_NOISE_PEAKS; i++) {
+
+            peaks.put(100 + random.nextDouble() * (peptideMass - 100), 5e3 * random.nextDouble());
+
+        }
+
+        bw.write("BEGIN IONS");
+        bw.newLine();
+        bw.write("TITLE=" + title);
+        bw.newLine();
+        bw.write("PEPMASS=" + precursorMz + " " + 1e6);
+        bw.newLine();
+        bw.write("CHARGE=" + charge + "+");
+        bw.newLine();
+        bw.write("RTINSECONDS=" + (0.5 * index));
+        bw.newLine();
+
+        for (double mz : peaks.keySet()) {
+
+            bw.write(mz + " " + peaks.get(mz));
+            bw.newLine();
+
+        }
+
+        bw.write("END IONS");
+        bw.newLine();
+        bw.newLine();
+
+    }
+
+    /**
+     * Returns a random oxidation site on the given sequence, -1 if not
+     * oxidized. Half of the peptides containing a methionine are oxidized.
+     *
+     * @param sequence the peptide sequence
+     *
+     * @return a random oxidation site, 1-based, -1 if not oxidized
+     */
+    private int getRandomOxidationSite(
+            String sequence
+    ) {
+
+        int site = sequence.indexOf('M');
+
+        if (site == -1 || random.nextBoolean()) {
+            return -1;
+        }
+
+        int nextSite = sequence.indexOf('M', site + 1);
+
+        while (nextSite != -1 && random.nextBoolean()) {
+
+            site = nextSite;
+            nextSite = sequence.indexOf('M', site + 1);
+
+        }
+
+        return site + 1;
+
+    }
+
+    /**
+     * Returns a peptide with the given sequence and oxidation site.
+     *
+     * @param sequence the peptide sequence
+     * @param oxidationSite the oxidized site, 1-based, -1 if none
+     *
+     * @return a peptide
+     */
+    private Peptide getPeptide(
+            String sequence,
+            int oxidationSite
+    ) {
+
+        ModificationMatch[] modificationMatches = oxidationSite == -1
+                ? new ModificationMatch[0]
+                : new ModificationMatch[]{new ModificationMatch(OXIDATION, oxidationSite)};
+
+        return new Peptide(sequence, modificationMatches);
+
+    }
+
+    /**
+     * Closes the database and deletes the files of the project.
+     *
+     * @throws IOException exception thrown if an error occurred while closing
+     * the database
+     */
+    public void close() throws IOException {
+
+        if (identification != null) {
+
+            identification.close(false);
+
+        }
+
+        spectrumProvider.close();
+        IoUtil.deleteDir(folder);
+
+    }
+
+    /**
+     * Returns the identification.
+     *
+     * @return the identification
+     */
+    public Identification getIdentification() {
+        return identification;
+    }
+
+    /**
+     * Returns the identification parameters.
+     *
+     * @return the identification parameters
+     */
+    public IdentificationParameters getIdentificationParameters() {
+        return identificationParameters;
+    }
+
+    /**
+     * Returns the processing parameters.
+     *
+     * @return the processing parameters
+     */
+    public ProcessingParameters getProcessingParameters() {
+        return processingParameters;
+    }
+
+    /**
+     * Returns the FM index, used as sequence provider, protein details
+     * provider and FASTA mapper.
+     *
+     * @return the FM index
+     */
+    public FMIndex getFmIndex() {
+        return fmIndex;
+    }
+
+    /**
+     * Returns the spectrum provider.
+     *
+     * @return the spectrum provider
+     */
+    public SpectrumProvider getSpectrumProvider() {
+        return spectrumProvider;
+    }
+
+    /**
+     * Returns the input map.
+     *
+     * @return the input map
+     */
+    public InputMap getInputMap() {
+        return inputMap;
+    }
+
+    /**
+     * Returns the matches validator.
+     *
+     * @return the matches validator
+     */
+    public MatchesValidator getMatchesValidator() {
+        return matchesValidator;
+    }
+
+    /**
+     * Returns the metrics.
+     *
+     * @return the metrics
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the protein occurrence in the search engine results.
+     *
+     * @return the protein occurrence in the search engine results
+     */
+    public HashMap<String, Integer> getProteinCount() {
+        return proteinCount;
+    }
+
+    /**
+     * Returns the identification features generator, null before
+     * validation.
+     *
+     * @return the identification features generator
+     */
+    public IdentificationFeaturesGenerator getIdentificationFeaturesGenerator() {
+        return identificationFeaturesGenerator;
+    }
+
+    /**
+     * Returns the modification factory.
+     *
+     * @return the modification factory
+     */
+    public ModificationFactory getModificationFactory() {
+        return modificationFactory;
+    }
+
+    /**
+     * Returns the waiting handler.
+     *
+     * @return the waiting handler
+     */
+    public WaitingHandler getWaitingHandler() {
+        return waitingHandler;
+    }
+
+    /**
+     * Returns the spectrum matches with a best peptide assumption. The
+     * project must be processed up to psmsProcessed.
+     *
+     * @return the spectrum matches with a best peptide assumption
+     */
+    public ArrayList<SpectrumMatch> getIdentifiedSpectrumMatches() {
+
+        ArrayList<SpectrumMatch> result = new ArrayList<>(identification.getSpectrumIdentificationSize());
+
+        identification.getSpectrumIdentification().values().stream()
+                .flatMap(keys -> keys.stream())
+                .map(key -> identification.getSpectrumMatch(key))
+                .filter(spectrumMatch -> spectrumMatch.getBestPeptideAssumption() != null)
+                .forEach(result::add);
+
+        return result;
+
+    }
+}
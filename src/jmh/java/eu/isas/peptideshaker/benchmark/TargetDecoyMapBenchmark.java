@@ -0,0 +1,178 @@
+package eu.isas.peptideshaker.benchmark;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the filling of a target decoy map, the estimation of the
+ * probabilities, and the probability lookup.
+ *
+ * @author Marc Vaudel
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TargetDecoyMapBenchmark {
+
+    /**
+     * The number of hits in the map.
+     */
+    @Param({"10000", "1000000"})
+    public int nHits;
+    /**
+     * The scores of the hits.
+     */
+    private double[] scores;
+    /**
+     * Indicates for every hit whether it is a decoy.
+     */
+    private boolean[] decoys;
+    /**
+     * A map filled with the hits and its probabilities estimated.
+     */
+    private TargetDecoyMap estimatedMap;
+    /**
+     * The waiting handler.
+     */
+    private final WaitingHandler waitingHandler = new WaitingHandlerCLIImpl();
+
+    /**
+     * Generates the hits. A third of the hits are correct target hits scoring
+     * higher, the rest are evenly distributed between target and decoy. The
+     * scores are rounded to mimic the limited resolution of search engine
+     * scores.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+
+        Random random = new Random(SyntheticProject.DEFAULT_SEED);
+
+        scores = new double[nHits];
+        decoys = new boolean[nHits];
+
+        for (int i = 0; i < nHits; i++) {
+
+            boolean correct = random.nextInt(3) == 0;
+            double score = correct ? 3 + random.nextGaussian() : random.nextGaussian();
+
+            scores[i] = Math.round(1000 * score) / 1000.0;
+            decoys[i] = !correct && random.nextBoolean();
+
+        }
+
+        estimatedMap = fillMap();
+        estimatedMap.estimateProbabilities(waitingHandler);
+
+    }
+
+    /**
+     * Returns a new map filled with the hits.
+     *
+     * @return a new map filled with the hits
+     */
+    private TargetDecoyMap fillMap() {
+
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+
+        for (int i = 0; i < nHits; i++) {
+
+            targetDecoyMap.put(scores[i], decoys[i]);
+
+        }
+
+        return targetDecoyMap;
+
+    }
+
+    /**
+     * Benchmarks the filling of a map.
+     *
+     * @return the filled map
+     */
+    @Benchmark
+    public TargetDecoyMap put() {
+
+        return fillMap();
+
+    }
+
+    /**
+     * Benchmarks the estimation of the probabilities.
+     *
+     * @param filledMap the freshly filled map
+     *
+     * @return the map
+     */
+    @Benchmark
+    public TargetDecoyMap estimateProbabilities(
+            FilledMap filledMap
+    ) {
+
+        filledMap.targetDecoyMap.estimateProbabilities(waitingHandler);
+
+        return filledMap.targetDecoyMap;
+
+    }
+
+    /**
+     * Benchmarks the probability lookup of every hit.
+     *
+     * @param blackhole the blackhole consuming the probabilities
+     */
+    @Benchmark
+    public void getProbability(
+            Blackhole blackhole
+    ) {
+
+        for (double score : scores) {
+
+            blackhole.consume(estimatedMap.getProbability(score));
+
+        }
+    }
+
+    /**
+     * A map freshly filled with the hits before every invocation.
+     */
+    @State(Scope.Thread)
+    public static class FilledMap {
+
+        /**
+         * The map.
+         */
+        private TargetDecoyMap targetDecoyMap;
+
+        /**
+         * Fills a new map.
+         *
+         * @param benchmark the benchmark state containing the hits
+         */
+        @Setup(Level.Invocation)
+        public void setUp(
+                TargetDecoyMapBenchmark benchmark
+        ) {
+
+            targetDecoyMap = benchmark.fillMap();
+
+        }
+    }
+}
@@ -42,8 +42,11 @@ import com.compomics.util.experiment.quantification.spectrumcounting.ScalingFact
 import com.compomics.util.parameters.peptide_shaker.ProjectType;
 import eu.isas.peptideshaker.processing.ProteinProcessor;
 import eu.isas.peptideshaker.processing.PsmProcessor;
+import eu.isas.peptideshaker.processing.StageMetrics;
+import eu.isas.peptideshaker.processing.StageScheduler;
 import eu.isas.peptideshaker.protein_inference.GroupSimplification;
 import com.compomics.util.experiment.identification.peptide_inference.PeptideInference;
+import eu.isas.peptideshaker.utils.PeptideSequenceIndex;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 
 import java.io.File;
@@ -53,6 +56,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
 
 /**
  * This class will be responsible for the identification import and the
@@ -155,6 +159,21 @@ public class PeptideShaker {
      * The input map.
      */
     private InputMap inputMap;
+    /**
+     * The maximal number of spectrum matches to import at once per
+     * identification file. If zero or negative, all the matches of a file are
+     * imported at once.
+     */
+    private int importBatchSize = 0;
+    /**
+     * The scheduler running the processing stages of the project.
+     */
+    private StageScheduler stageScheduler = null;
+    /**
+     * If true, the resources used by every processing stage are appended to
+     * the report.
+     */
+    private boolean reportStageMetrics = false;
 
     /**
      * Empty constructor for instantiation purposes.
@@ -220,10 +239,32 @@ public class PeptideShaker {
                 waitingHandler,
                 exceptionHandler
         );
+        fileImporter.setStreamingBatchSize(importBatchSize);
 
-        int outcome = fileImporter.importFiles(idFiles);
+        stageScheduler = new StageScheduler(
+                identification,
+                waitingHandler,
+                processingParameters.getnThreads()
+        );
+
+        int[] outcome = new int[1];
 
-        if (outcome == 0) {
+        try {
+
+            stageScheduler.run(
+                    "Import",
+                    () -> identification.getSpectrumIdentificationSize(),
+                    () -> outcome[0] = fileImporter.importFiles(idFiles)
+            );
+
+        } catch (InterruptedException | TimeoutException | IOException e) {
+
+            exceptionHandler.catchException(e);
+            outcome[0] = 1;
+
+        }
+
+        if (outcome[0] == 0) {
 
             geneMaps = fileImporter.getGeneMaps();
             sequenceProvider = fileImporter.getSequenceProvider();
@@ -293,7 +334,6 @@ public class PeptideShaker {
             return;
         }
 
-        PsmScoringParameters psmScoringPreferences = identificationParameters.getPsmScoringParameters();
         FastaParameters fastaParameters = identificationParameters.getFastaParameters();
 
         FastaSummary fastaSummary = FastaSummary.getSummary(
@@ -307,547 +347,692 @@ public class PeptideShaker {
 
         ArrayList<Integer> usedAlgorithms = projectDetails.getIdentificationAlgorithms();
 
-        if (psmScoringPreferences.isScoringNeeded(usedAlgorithms)) {
-
-            waitingHandler.appendReport("Estimating PSM scores.", true, true);
-
-            PsmScorer psmScorer = new PsmScorer(
-                    fastaParameters,
-                    sequenceProvider,
-                    spectrumProvider
-            );
+        try {
 
-            psmScorer.estimateIntermediateScores(
-                    identification,
-                    inputMap,
-                    processingParameters,
+            if (!runProcessingStages(
                     identificationParameters,
+                    processingParameters,
+                    spectrumCountingParameters,
+                    spectrumProvider,
+                    projectType,
+                    usedAlgorithms,
                     waitingHandler,
                     exceptionHandler
-            );
-
-            if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
-
-                if (fastaParameters.isTargetDecoy()) {
-
-                    waitingHandler.appendReport("Estimating intermediate scores probabilities.", true, true);
-                    psmScorer.estimateIntermediateScoreProbabilities(
-                            identification,
-                            inputMap,
-                            processingParameters,
-                            waitingHandler
-                    );
+            )) {
+                return;
+            }
 
-                } else {
+            if (!stageScheduler.run(
+                    "Peptide sequence index",
+                    () -> {
 
-                    waitingHandler.appendReport(
-                            "No decoy sequences found. Impossible to "
-                            + "estimate intermediate scores probabilities.",
-                            true,
-                            true
-                    );
+                        waitingHandler.appendReport("Indexing peptide sequences.", true, true);
 
-                }
+                        identification.addUrParam(
+                                new PeptideSequenceIndex(
+                                        identification,
+                                        sequenceProvider,
+                                        waitingHandler
+                                )
+                        );
+                    }
+            )) {
+                return;
             }
 
-            waitingHandler.appendReport("Scoring PSMs.", true, true);
-            psmScorer.scorePsms(
-                    identification,
-                    inputMap,
-                    processingParameters,
-                    identificationParameters,
-                    waitingHandler
-            );
-        }
-
-        identification.getObjectsDB().commit();
-        System.gc();
+        } finally {
 
-        if (fastaParameters.isTargetDecoy()) {
+            stageScheduler.shutdown();
 
-            waitingHandler.appendReport(
-                    "Computing assumptions probabilities.",
-                    true,
-                    true
-            );
+        }
 
-        } else {
+        if (reportStageMetrics) {
 
-            waitingHandler.appendReport(
-                    "Importing assumptions scores.",
-                    true,
-                    true
-            );
+            for (StageMetrics stageMetrics : stageScheduler.getStageMetrics()) {
 
-        }
-
-        inputMap.estimateProbabilities(waitingHandler);
-        waitingHandler.increasePrimaryProgressCounter();
+                waitingHandler.appendReport(
+                        stageMetrics.toString(),
+                        true,
+                        true
+                );
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
+            }
         }
 
-        identification.getObjectsDB().commit();
-        System.gc();
+        projectCreationDuration.end();
+        String report = "Identification processing completed (" + projectCreationDuration.toString() + ").";
 
         waitingHandler.appendReport(
-                "Saving assumptions probabilities, selecting best match, scoring modification localization.",
+                report,
                 true,
                 true
         );
-
-        PsmProcessor psmProcessor = new PsmProcessor(identification);
-        psmProcessor.processPsms(
-                inputMap,
-                identificationParameters,
-                matchesValidator,
-                modificationLocalizationScorer,
-                sequenceProvider,
-                spectrumProvider,
-                modificationFactory,
-                proteinCount,
-                processingParameters.getnThreads(),
-                waitingHandler,
-                exceptionHandler
+        waitingHandler.appendReportEndLine();
+        waitingHandler.appendReportEndLine();
+        identification.addUrParam(
+                new PSMaps(
+                        inputMap,
+                        matchesValidator.getPsmMap(),
+                        matchesValidator.getPeptideMap(),
+                        matchesValidator.getProteinMap()
+                )
         );
-        waitingHandler.increasePrimaryProgressCounter();
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
+        if (setWaitingHandlerFinshedWhenDone) {
+            waitingHandler.setRunFinished();
         }
+    }
 
-        identification.getObjectsDB().commit();
-        System.gc();
+    /**
+     * Runs the processing stages of the project creation.
+     *
+     * @param identificationParameters the identification parameters
+     * @param processingParameters the processing parameters
+     * @param spectrumCountingParameters the spectrum counting parameters
+     * @param spectrumProvider the spectrum provider
+     * @param projectType the project type
+     * @param usedAlgorithms the identification algorithms used
+     * @param waitingHandler the handler displaying feedback to the user
+     * @param exceptionHandler handler for exceptions
+     *
+     * @return a boolean indicating whether all stages were run, false if the
+     * process was canceled
+     *
+     * @throws java.lang.InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws java.util.concurrent.TimeoutException exception thrown if a
+     * process times out
+     * @throws java.io.IOException if an exception occurs when parsing files
+     */
+    private boolean runProcessingStages(
+            IdentificationParameters identificationParameters,
+            ProcessingParameters processingParameters,
+            SpectrumCountingParameters spectrumCountingParameters,
+            SpectrumProvider spectrumProvider,
+            ProjectType projectType,
+            ArrayList<Integer> usedAlgorithms,
+            WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler
+    ) throws InterruptedException, TimeoutException, IOException {
 
-        waitingHandler.appendReport(
-                "Computing PSM probabilities.",
-                true,
-                true
-        );
+        PsmScoringParameters psmScoringPreferences = identificationParameters.getPsmScoringParameters();
+        LongSupplier nPsms = () -> identification.getSpectrumIdentificationSize();
+        LongSupplier nPeptides = () -> identification.getPeptideIdentification().size();
+        LongSupplier nProteins = () -> identification.getProteinIdentification().size();
+        FastaParameters fastaParameters = identificationParameters.getFastaParameters();
 
-        matchesValidator.getPsmMap().estimateProbabilities(waitingHandler);
+        if (psmScoringPreferences.isScoringNeeded(usedAlgorithms)) {
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
-        }
+            boolean proceed = stageScheduler.run(
+                    "PSM scoring",
+                    nPsms,
+                    () -> {
 
-        identification.getObjectsDB().commit();
-        System.gc();
+                        waitingHandler.appendReport("Estimating PSM scores.", true, true);
 
-        if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
+                        PsmScorer psmScorer = new PsmScorer(
+                                fastaParameters,
+                                sequenceProvider,
+                                spectrumProvider
+                        );
+
+                        psmScorer.estimateIntermediateScores(
+                                identification,
+                                inputMap,
+                                processingParameters,
+                                identificationParameters,
+                                waitingHandler,
+                                exceptionHandler
+                        );
+
+                        if (psmScoringPreferences.isTargetDecoyNeededForPsmScoring(usedAlgorithms)) {
+
+                            if (fastaParameters.isTargetDecoy()) {
+
+                                waitingHandler.appendReport("Estimating intermediate scores probabilities.", true, true);
+                                psmScorer.estimateIntermediateScoreProbabilities(
+                                        identification,
+                                        inputMap,
+                                        processingParameters,
+                                        waitingHandler
+                                );
+
+                            } else {
+
+                                waitingHandler.appendReport(
+                                        "No decoy sequences found. Impossible to "
+                                        + "estimate intermediate scores probabilities.",
+                                        true,
+                                        true
+                                );
+
+                            }
+                        }
+
+                        waitingHandler.appendReport("Scoring PSMs.", true, true);
+                        psmScorer.scorePsms(
+                                identification,
+                                inputMap,
+                                processingParameters,
+                                identificationParameters,
+                                waitingHandler
+                        );
+                    }
+            );
 
-            PeptideInference peptideInference = new PeptideInference();
+            if (!proceed) {
+                return false;
+            }
+        }
 
-            ModificationLocalizationParameters modificationScoringPreferences = identificationParameters.getModificationLocalizationParameters();
+        if (!stageScheduler.run(
+                "Assumptions probabilities",
+                nPsms,
+                () -> {
 
-            if (modificationScoringPreferences.getAlignNonConfidentModifications()) {
+                    if (fastaParameters.isTargetDecoy()) {
 
-                waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
+                        waitingHandler.appendReport(
+                                "Computing assumptions probabilities.",
+                                true,
+                                true
+                        );
 
-                peptideInference.peptideInference(
-                        identification,
-                        identificationParameters,
-                        sequenceProvider,
-                        modificationFactory,
-                        waitingHandler
-                );
+                    } else {
 
-                waitingHandler.increasePrimaryProgressCounter();
+                        waitingHandler.appendReport(
+                                "Importing assumptions scores.",
+                                true,
+                                true
+                        );
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
-            }
+                    }
 
-            identification.getObjectsDB().commit();
-            System.gc();
+                    inputMap.estimateProbabilities(waitingHandler);
+                    waitingHandler.increasePrimaryProgressCounter();
 
+                }
+        )) {
+            return false;
         }
 
-        String reportTxt = "Saving probabilities";
-        String waitingTitle = "Saving Probabilities.";;
-        switch (projectType) {
-            case psm:
-                reportTxt += ".";
-                break;
-            case peptide:
-                reportTxt += ", building peptides.";
-                waitingTitle += " Building Peptides.";
-                break;
-            default:
-                reportTxt += ", building peptides and proteins.";
-                waitingTitle += " Building Peptides and Proteins.";
-        }
+        if (!stageScheduler.run(
+                "PSM processing",
+                nPsms,
+                () -> {
 
-        waitingHandler.appendReport(reportTxt, true, true);
-        waitingHandler.setWaitingText(waitingTitle + " Please Wait...");
+                    waitingHandler.appendReport(
+                            "Saving assumptions probabilities, selecting best match, scoring modification localization.",
+                            true,
+                            true
+                    );
 
-        attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(
-                sequenceProvider,
-                identificationParameters.getSequenceMatchingParameters(),
-                projectType,
-                fastaParameters,
-                waitingHandler
-        );
-        waitingHandler.increasePrimaryProgressCounter();
+                    PsmProcessor psmProcessor = new PsmProcessor(identification);
+                    psmProcessor.processPsms(
+                            inputMap,
+                            identificationParameters,
+                            matchesValidator,
+                            modificationLocalizationScorer,
+                            sequenceProvider,
+                            spectrumProvider,
+                            modificationFactory,
+                            proteinCount,
+                            processingParameters.getnThreads(),
+                            waitingHandler,
+                            exceptionHandler
+                    );
+                    waitingHandler.increasePrimaryProgressCounter();
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
+                }
+        )) {
+            return false;
         }
 
-        identification.getObjectsDB().commit();
-        System.gc();
-
-        if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
+        if (!stageScheduler.run(
+                "PSM probabilities",
+                nPsms,
+                () -> {
 
-            waitingHandler.appendReport(
-                    "Generating peptide map.",
-                    true,
-                    true
-            );
-            matchesValidator.fillPeptideMaps(
-                    identification,
-                    metrics,
-                    waitingHandler,
-                    identificationParameters,
-                    sequenceProvider,
-                    spectrumProvider
-            );
+                    waitingHandler.appendReport(
+                            "Computing PSM probabilities.",
+                            true,
+                            true
+                    );
 
-            if (waitingHandler.isRunCanceled()) {
+                    matchesValidator.getPsmMap().estimateProbabilities(waitingHandler);
 
-                return;
+                }
+        )) {
+            return false;
+        }
 
-            }
+        if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
 
-            identification.getObjectsDB().commit();
-            System.gc();
+            ModificationLocalizationParameters modificationScoringPreferences = identificationParameters.getModificationLocalizationParameters();
 
-            waitingHandler.appendReport(
-                    "Computing peptide probabilities.",
-                    true,
-                    true
-            );
+            if (modificationScoringPreferences.getAlignNonConfidentModifications()) {
 
-            matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
+                if (!stageScheduler.run(
+                        "Peptide inference",
+                        nPeptides,
+                        () -> {
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
+                            waitingHandler.appendReport("Resolving peptide inference issues.", true, true);
 
-            identification.getObjectsDB().commit();
-            System.gc();
+                            PeptideInference peptideInference = new PeptideInference();
+                            peptideInference.peptideInference(
+                                    identification,
+                                    identificationParameters,
+                                    sequenceProvider,
+                                    modificationFactory,
+                                    waitingHandler
+                            );
 
-            waitingHandler.appendReport(
-                    "Saving peptide probabilities.",
-                    true,
-                    true
-            );
-            matchesValidator.attachPeptideProbabilities(
-                    identification,
-                    fastaParameters,
-                    waitingHandler
-            );
-            waitingHandler.increasePrimaryProgressCounter();
+                            waitingHandler.increasePrimaryProgressCounter();
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
+                        }
+                )) {
+                    return false;
+                }
             }
+        }
 
-            identification.getObjectsDB().commit();
-            System.gc();
-
-            if (projectType == ProjectType.protein) {
-
-                if (identificationParameters.getProteinInferenceParameters().getSimplifyGroups()) {
+        if (!stageScheduler.run(
+                "Peptide and protein building",
+                nPsms,
+                () -> {
+
+                    String reportTxt = "Saving probabilities";
+                    String waitingTitle = "Saving Probabilities.";
+                    switch (projectType) {
+                        case psm:
+                            reportTxt += ".";
+                            break;
+                        case peptide:
+                            reportTxt += ", building peptides.";
+                            waitingTitle += " Building Peptides.";
+                            break;
+                        default:
+                            reportTxt += ", building peptides and proteins.";
+                            waitingTitle += " Building Peptides and Proteins.";
+                    }
 
-                    waitingHandler.appendReport(
-                            "Simplifying protein groups.",
-                            true,
-                            true
-                    );
+                    waitingHandler.appendReport(reportTxt, true, true);
+                    waitingHandler.setWaitingText(waitingTitle + " Please Wait...");
 
-                    GroupSimplification groupSimplification = new GroupSimplification();
-                    groupSimplification.removeRedundantGroups(
-                            identification,
-                            identificationParameters,
+                    attachSpectrumProbabilitiesAndBuildPeptidesAndProteins(
                             sequenceProvider,
-                            proteinDetailsProvider,
+                            identificationParameters.getSequenceMatchingParameters(),
+                            projectType,
+                            fastaParameters,
                             waitingHandler
                     );
                     waitingHandler.increasePrimaryProgressCounter();
 
-                    if (waitingHandler.isRunCanceled()) {
-                        return;
-                    }
                 }
+        )) {
+            return false;
+        }
 
-                identification.getObjectsDB().commit();
-                System.gc();
-
-                ProteinInference proteinInference = new ProteinInference();
-                waitingHandler.appendReport(
-                        "Mapping shared peptides.",
-                        true,
-                        true
-                );
-                proteinInference.distributeSharedPeptides(
-                        identification,
-                        waitingHandler
-                );
-                waitingHandler.increasePrimaryProgressCounter();
+        if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+            if (!stageScheduler.run(
+                    "Peptide map",
+                    nPeptides,
+                    () -> {
+
+                        waitingHandler.appendReport(
+                                "Generating peptide map.",
+                                true,
+                                true
+                        );
+                        matchesValidator.fillPeptideMaps(
+                                identification,
+                                metrics,
+                                waitingHandler,
+                                identificationParameters,
+                                sequenceProvider,
+                                spectrumProvider
+                        );
 
-                identification.getObjectsDB().commit();
-                System.gc();
+                    }
+            )) {
+                return false;
+            }
 
-                waitingHandler.appendReport(
-                        "Generating protein map.",
-                        true,
-                        true
-                );
-                matchesValidator.fillProteinMap(
-                        identification,
-                        spectrumProvider,
-                        waitingHandler
-                );
-                waitingHandler.increasePrimaryProgressCounter();
+            if (!stageScheduler.run(
+                    "Peptide probabilities",
+                    nPeptides,
+                    () -> {
+
+                        waitingHandler.appendReport(
+                                "Computing peptide probabilities.",
+                                true,
+                                true
+                        );
+
+                        matchesValidator.getPeptideMap().estimateProbabilities(waitingHandler);
+
+                        if (waitingHandler.isRunCanceled()) {
+                            return;
+                        }
+
+                        waitingHandler.appendReport(
+                                "Saving peptide probabilities.",
+                                true,
+                                true
+                        );
+                        matchesValidator.attachPeptideProbabilities(
+                                identification,
+                                fastaParameters,
+                                waitingHandler
+                        );
+                        waitingHandler.increasePrimaryProgressCounter();
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+                    }
+            )) {
+                return false;
+            }
 
-                identification.getObjectsDB().commit();
-                System.gc();
+            if (projectType == ProjectType.protein) {
 
-                waitingHandler.appendReport(
-                        "Selecting leading proteins, inferring peptide and protein inference status.",
-                        true,
-                        true
-                );
-                proteinInference.inferPiStatus(
-                        identification,
-                        metrics,
-                        matchesValidator.getProteinMap(),
-                        identificationParameters,
-                        sequenceProvider,
-                        proteinDetailsProvider,
-                        waitingHandler
-                );
-                waitingHandler.increasePrimaryProgressCounter();
+                if (identificationParameters.getProteinInferenceParameters().getSimplifyGroups()) {
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                    if (!stageScheduler.run(
+                            "Protein group simplification",
+                            nProteins,
+                            () -> {
+
+                                waitingHandler.appendReport(
+                                        "Simplifying protein groups.",
+                                        true,
+                                        true
+                                );
+
+                                GroupSimplification groupSimplification = new GroupSimplification();
+                                groupSimplification.removeRedundantGroups(
+                                        identification,
+                                        identificationParameters,
+                                        sequenceProvider,
+                                        proteinDetailsProvider,
+                                        processingParameters.getnThreads(),
+                                        waitingHandler
+                                );
+                                waitingHandler.increasePrimaryProgressCounter();
+
+                            }
+                    )) {
+                        return false;
+                    }
                 }
 
-                identification.getObjectsDB().commit();
-                System.gc();
-
-                waitingHandler.appendReport(
-                        "Computing protein probabilities.",
-                        true,
-                        true
-                );
-
-                matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+                ProteinInference proteinInference = new ProteinInference();
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                if (!stageScheduler.run(
+                        "Shared peptides mapping",
+                        nProteins,
+                        () -> {
+
+                            waitingHandler.appendReport(
+                                    "Mapping shared peptides.",
+                                    true,
+                                    true
+                            );
+                            proteinInference.distributeSharedPeptides(
+                                    identification,
+                                    waitingHandler
+                            );
+                            waitingHandler.increasePrimaryProgressCounter();
+
+                        }
+                )) {
+                    return false;
                 }
 
-                identification.getObjectsDB().commit();
-                System.gc();
-
-                waitingHandler.appendReport(
-                        "Saving protein probabilities.",
-                        true,
-                        true
-                );
-                matchesValidator.attachProteinProbabilities(
-                        identification,
-                        sequenceProvider,
-                        fastaParameters,
-                        metrics,
-                        waitingHandler,
-                        identificationParameters.getFractionParameters()
-                );
-                waitingHandler.increasePrimaryProgressCounter();
-
-                if (waitingHandler.isRunCanceled()) {
-                    return;
+                if (!stageScheduler.run(
+                        "Protein map",
+                        nProteins,
+                        () -> {
+
+                            waitingHandler.appendReport(
+                                    "Generating protein map.",
+                                    true,
+                                    true
+                            );
+                            matchesValidator.fillProteinMap(
+                                    identification,
+                                    spectrumProvider,
+                                    waitingHandler
+                            );
+                            waitingHandler.increasePrimaryProgressCounter();
+
+                        }
+                )) {
+                    return false;
                 }
 
-                identification.getObjectsDB().commit();
-                System.gc();
+                if (!stageScheduler.run(
+                        "Protein inference",
+                        nProteins,
+                        () -> {
+
+                            waitingHandler.appendReport(
+                                    "Selecting leading proteins, inferring peptide and protein inference status.",
+                                    true,
+                                    true
+                            );
+                            proteinInference.inferPiStatus(
+                                    identification,
+                                    metrics,
+                                    matchesValidator.getProteinMap(),
+                                    identificationParameters,
+                                    sequenceProvider,
+                                    proteinDetailsProvider,
+                                    waitingHandler
+                            );
+                            waitingHandler.increasePrimaryProgressCounter();
+
+                        }
+                )) {
+                    return false;
+                }
 
+                if (!stageScheduler.run(
+                        "Protein probabilities",
+                        nProteins,
+                        () -> {
+
+                            waitingHandler.appendReport(
+                                    "Computing protein probabilities.",
+                                    true,
+                                    true
+                            );
+
+                            matchesValidator.getProteinMap().estimateProbabilities(waitingHandler);
+
+                            if (waitingHandler.isRunCanceled()) {
+                                return;
+                            }
+
+                            waitingHandler.appendReport(
+                                    "Saving protein probabilities.",
+                                    true,
+                                    true
+                            );
+                            matchesValidator.attachProteinProbabilities(
+                                    identification,
+                                    sequenceProvider,
+                                    fastaParameters,
+                                    metrics,
+                                    waitingHandler,
+                                    identificationParameters.getFractionParameters()
+                            );
+                            waitingHandler.increasePrimaryProgressCounter();
+
+                        }
+                )) {
+                    return false;
+                }
             }
         }
 
-        if (fastaParameters.isTargetDecoy()) {
+        if (!stageScheduler.run(
+                "Validation",
+                nPsms,
+                () -> {
 
-            IdMatchValidationParameters idMatchValidationParameters = identificationParameters.getIdValidationParameters();
+                    if (fastaParameters.isTargetDecoy()) {
 
-            if (idMatchValidationParameters.getDefaultPsmFDR() == 1
-                    && idMatchValidationParameters.getDefaultPeptideFDR() == 1
-                    && idMatchValidationParameters.getDefaultProteinFDR() == 1) {
+                        IdMatchValidationParameters idMatchValidationParameters = identificationParameters.getIdValidationParameters();
 
-                waitingHandler.appendReport(
-                        "Validating identifications at 1% FDR, quality control of matches.",
-                        true,
-                        true
-                );
+                        if (idMatchValidationParameters.getDefaultPsmFDR() == 1
+                                && idMatchValidationParameters.getDefaultPeptideFDR() == 1
+                                && idMatchValidationParameters.getDefaultProteinFDR() == 1) {
 
-            } else {
+                            waitingHandler.appendReport(
+                                    "Validating identifications at 1% FDR, quality control of matches.",
+                                    true,
+                                    true
+                            );
 
-                waitingHandler.appendReport(
-                        "Validating identifications, quality control of matches.",
-                        true,
-                        true
-                );
+                        } else {
 
-            }
-        } else {
+                            waitingHandler.appendReport(
+                                    "Validating identifications, quality control of matches.",
+                                    true,
+                                    true
+                            );
 
-            waitingHandler.appendReport(
-                    "Quality control of matches.",
-                    true,
-                    true
-            );
+                        }
+                    } else {
 
-        }
+                        waitingHandler.appendReport(
+                                "Quality control of matches.",
+                                true,
+                                true
+                        );
 
-        matchesValidator.validateIdentifications(
-                identification,
-                metrics,
-                inputMap,
-                waitingHandler,
-                exceptionHandler,
-                identificationFeaturesGenerator,
-                sequenceProvider,
-                proteinDetailsProvider,
-                spectrumProvider,
-                geneMaps,
-                identificationParameters,
-                projectType,
-                processingParameters
-        );
-        waitingHandler.increasePrimaryProgressCounter();
+                    }
 
-        if (waitingHandler.isRunCanceled()) {
-            return;
-        }
+                    matchesValidator.validateIdentifications(
+                            identification,
+                            metrics,
+                            inputMap,
+                            waitingHandler,
+                            exceptionHandler,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            geneMaps,
+                            identificationParameters,
+                            projectType,
+                            processingParameters
+                    );
+                    waitingHandler.increasePrimaryProgressCounter();
 
-        identification.getObjectsDB().commit();
-        System.gc();
+                }
+        )) {
+            return false;
+        }
 
         if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
 
-            waitingHandler.appendReport(
-                    "Scoring PTMs in peptides.",
-                    true,
-                    true
-            );
-            modificationLocalizationScorer.scorePeptidePtms(
-                    identification,
-                    modificationFactory,
-                    sequenceProvider,
-                    waitingHandler,
-                    identificationParameters
-            );
-            waitingHandler.increasePrimaryProgressCounter();
+            StageScheduler.ConcurrentStage peptidePtmScoring = stageWaitingHandler -> {
 
-            if (waitingHandler.isRunCanceled()) {
-                return;
-            }
-
-            identification.getObjectsDB().commit();
-            System.gc();
-
-            if (projectType == ProjectType.protein) {
-
-                waitingHandler.appendReport(
-                        "Estimating spectrum counting scaling values.",
+                stageWaitingHandler.appendReport(
+                        "Scoring PTMs in peptides.",
                         true,
                         true
                 );
-
-                ScalingFactorsEstimators scalingFactors = new ScalingFactorsEstimators(spectrumCountingParameters);
-                scalingFactors.estimateScalingFactors(
+                modificationLocalizationScorer.scorePeptidePtms(
                         identification,
-                        metrics,
+                        modificationFactory,
                         sequenceProvider,
-                        identificationFeaturesGenerator,
-                        waitingHandler,
-                        exceptionHandler,
-                        processingParameters
+                        stageWaitingHandler,
+                        identificationParameters
                 );
+                stageWaitingHandler.increasePrimaryProgressCounter();
 
-                waitingHandler.increasePrimaryProgressCounter();
+            };
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+            if (projectType == ProjectType.peptide) {
 
-                identification.getObjectsDB().commit();
-                System.gc();
+                return stageScheduler.run(
+                        "Peptide PTM scoring",
+                        nPeptides,
+                        () -> peptidePtmScoring.run(waitingHandler)
+                );
 
-                waitingHandler.appendReport(
-                        "Scoring PTMs in proteins, gathering summary metrics.",
+            }
+
+            // the spectrum counting scaling factors do not depend on the
+            // modification localization and are estimated concurrently, each
+            // stage reporting its progress on its own waiting handler
+            StageScheduler.ConcurrentStage spectrumCountingScaling = stageWaitingHandler -> {
+
+                stageWaitingHandler.appendReport(
+                        "Estimating spectrum counting scaling values.",
                         true,
                         true
                 );
-                ProteinProcessor proteinProcessor = new ProteinProcessor(
+
+                ScalingFactorsEstimators scalingFactors = new ScalingFactorsEstimators(spectrumCountingParameters);
+                scalingFactors.estimateScalingFactors(
                         identification,
-                        identificationParameters,
-                        identificationFeaturesGenerator,
-                        sequenceProvider
-                );
-                proteinProcessor.processProteins(
-                        modificationLocalizationScorer,
                         metrics,
-                        modificationFactory,
-                        waitingHandler,
+                        sequenceProvider,
+                        identificationFeaturesGenerator,
+                        stageWaitingHandler,
                         exceptionHandler,
                         processingParameters
                 );
-                waitingHandler.increasePrimaryProgressCounter();
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+                stageWaitingHandler.increasePrimaryProgressCounter();
 
-                identification.getObjectsDB().commit();
-                System.gc();
+            };
 
+            if (!stageScheduler.runConcurrently(
+                    "Peptide PTM scoring and spectrum counting scaling",
+                    nPeptides,
+                    peptidePtmScoring,
+                    spectrumCountingScaling
+            )) {
+                return false;
             }
-        }
 
-        projectCreationDuration.end();
-        String report = "Identification processing completed (" + projectCreationDuration.toString() + ").";
+            return stageScheduler.run(
+                    "Protein processing",
+                    nProteins,
+                    () -> {
+
+                        waitingHandler.appendReport(
+                                "Scoring PTMs in proteins, gathering summary metrics.",
+                                true,
+                                true
+                        );
+                        ProteinProcessor proteinProcessor = new ProteinProcessor(
+                                identification,
+                                identificationParameters,
+                                identificationFeaturesGenerator,
+                                sequenceProvider
+                        );
+                        proteinProcessor.processProteins(
+                                modificationLocalizationScorer,
+                                metrics,
+                                modificationFactory,
+                                waitingHandler,
+                                exceptionHandler,
+                                processingParameters
+                        );
+                        waitingHandler.increasePrimaryProgressCounter();
 
-        waitingHandler.appendReport(
-                report,
-                true,
-                true
-        );
-        waitingHandler.appendReportEndLine();
-        waitingHandler.appendReportEndLine();
-        identification.addUrParam(
-                new PSMaps(
-                        inputMap,
-                        matchesValidator.getPsmMap(),
-                        matchesValidator.getPeptideMap(),
-                        matchesValidator.getProteinMap()
-                )
-        );
-
-        if (setWaitingHandlerFinshedWhenDone) {
-            waitingHandler.setRunFinished();
+                    }
+            );
         }
+
+        return true;
+
     }
 
     /**
@@ -914,6 +1099,15 @@ public class PeptideShaker {
                 waitingHandler,
                 fractionParameters
         );
+
+        // the peptides were rebuilt
+        identification.addUrParam(
+                new PeptideSequenceIndex(
+                        identification,
+                        sequenceProvider,
+                        waitingHandler
+                )
+        );
     }
 
     /**
@@ -1095,6 +1289,45 @@ public class PeptideShaker {
 
     }
 
+    /**
+     * Sets the maximal number of spectrum matches to import at once per
+     * identification file. Zero or negative to import all the matches of a
+     * file at once.
+     *
+     * @param importBatchSize the maximal number of spectrum matches to import
+     * at once
+     */
+    public void setImportBatchSize(int importBatchSize) {
+
+        this.importBatchSize = importBatchSize;
+
+    }
+
+    /**
+     * Returns the resources used by the processing stages of the last project
+     * created.
+     *
+     * @return the resources used by the processing stages
+     */
+    public ArrayList<StageMetrics> getStageMetrics() {
+
+        return stageScheduler == null ? new ArrayList<>(0) : stageScheduler.getStageMetrics();
+
+    }
+
+    /**
+     * Sets whether the resources used by every processing stage should be
+     * appended to the report.
+     *
+     * @param reportStageMetrics a boolean indicating whether the resources
+     * used by every processing stage should be appended to the report
+     */
+    public void setReportStageMetrics(boolean reportStageMetrics) {
+
+        this.reportStageMetrics = reportStageMetrics;
+
+    }
+
     /**
      * Returns the metrics picked-up while loading the files.
      *
@@ -14,6 +14,7 @@ import com.compomics.util.io.export.ExportScheme;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.export.MultiReportExport;
 import eu.isas.peptideshaker.export.MzIdentMLExport;
 import eu.isas.peptideshaker.followup.FastaExport;
 import eu.isas.peptideshaker.followup.InclusionListExport;
@@ -57,6 +58,7 @@ public class CLIExportMethods {
      * @param sequenceProvider the sequence provider
      * @param spectrumProvider The spectrum provider.
      * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use
      * @param waitingHandler a waiting handler to display progress
      * @return ArrayList files containing the recalibrated spectra
      *
@@ -69,6 +71,7 @@ public class CLIExportMethods {
             SequenceProvider sequenceProvider,
             SpectrumProvider spectrumProvider,
             IdentificationParameters identificationParameters,
+            int nThreads,
             WaitingHandler waitingHandler
     ) throws IOException {
 
@@ -91,6 +94,7 @@ public class CLIExportMethods {
                 sequenceProvider,
                 spectrumProvider,
                 identificationParameters,
+                nThreads,
                 waitingHandler
         );
         return recalibratedSpectra;
@@ -632,6 +636,7 @@ public class CLIExportMethods {
      * @param nSurroundingAA the number of amino acids to export on the side of
      * peptide sequences
      * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
      * @param waitingHandler waiting handler displaying feedback to the user
      * @return File file containing the exported report
      *
@@ -652,6 +657,7 @@ public class CLIExportMethods {
             SpectrumProvider spectrumProvider,
             int nSurroundingAA,
             SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
             WaitingHandler waitingHandler
     ) throws IOException {
 
@@ -686,12 +692,101 @@ public class CLIExportMethods {
                 proteinDetailsProvider,
                 spectrumProvider,
                 spectrumCountingPreferences,
+                nThreads,
                 waitingHandler
         );
 
         return reportFile;
     }
 
+    /**
+     * Writes the exports according to the command line settings contained in
+     * the reportCLIInputBean. The matches of every level are iterated once for
+     * all reports.
+     *
+     * @param reportCLIInputBean the command line settings
+     * @param reportTypes the report types
+     * @param experiment the experiment of the project
+     * @param projectDetails the project details of the project
+     * @param identification the identification of the project
+     * @param geneMaps the gene maps
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param identificationParameters the identification parameters used
+     * @param sequenceProvider the sequence provider
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider The spectrum provider.
+     * @param nSurroundingAA the number of amino acids to export on the side of
+     * peptide sequences
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying feedback to the user
+     * @return the files containing the exported reports in the order of the
+     * report types
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static ArrayList<File> exportReports(
+            ReportCLIInputBean reportCLIInputBean,
+            ArrayList<String> reportTypes,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            GeneMaps geneMaps,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            int nSurroundingAA,
+            SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        PSExportFactory exportFactory = PSExportFactory.getInstance();
+        ArrayList<ExportScheme> exportSchemes = new ArrayList<>(reportTypes.size());
+        ArrayList<File> reportFiles = new ArrayList<>(reportTypes.size());
+
+        for (String reportType : reportTypes) {
+
+            exportSchemes.add(exportFactory.getExportScheme(reportType));
+
+            String reportName = reportType.replaceAll(" ", "_");
+            reportName = PSExportFactory.getDefaultReportName(experiment, reportName, reportCLIInputBean.isGzip());
+            if (reportCLIInputBean.getReportNamePrefix() != null) {
+                reportName = reportCLIInputBean.getReportNamePrefix() + reportName;
+            }
+
+            reportFiles.add(new File(reportCLIInputBean.getReportOutputFolder(), reportName));
+
+        }
+
+        //@TODO: allow format selection
+        MultiReportExport.writeExports(
+                exportSchemes,
+                reportFiles,
+                ExportFormat.text,
+                reportCLIInputBean.isGzip(),
+                experiment,
+                projectDetails,
+                identification,
+                identificationFeaturesGenerator,
+                geneMaps,
+                nSurroundingAA,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                spectrumCountingPreferences,
+                nThreads,
+                waitingHandler
+        );
+
+        return reportFiles;
+    }
+
     /**
      * Writes the documentation corresponding to an export given the command
      * line arguments.
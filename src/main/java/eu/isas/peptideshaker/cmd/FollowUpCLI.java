@@ -6,6 +6,7 @@ import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import java.io.File;
@@ -78,6 +79,9 @@ public class FollowUpCLI extends PsdbParent {
 
         setDbFolder(PeptideShaker.getMatchesFolder());
 
+        // the project is only read, no need to copy it to the matches folder
+        setOpenInPlace(true);
+
         // Load user preferences
         utilitiesUserPreferences = UtilitiesUserParameters.loadUserParameters();
 
@@ -247,6 +251,8 @@ public class FollowUpCLI extends PsdbParent {
 
             waitingHandler.appendReport("Recalibration of spectra.", true, true);
 
+            int nThreads = followUpCLIInputBean.getnThreads() != null ? followUpCLIInputBean.getnThreads() : new ProcessingParameters().getnThreads();
+
             try {
 
                 CLIExportMethods.recalibrateSpectra(
@@ -255,6 +261,7 @@ public class FollowUpCLI extends PsdbParent {
                         sequenceProvider,
                         msFileHandler,
                         identificationParameters,
+                        nThreads,
                         waitingHandler
                 );
                 waitingHandler.appendReport(
@@ -139,6 +139,10 @@ public class FollowUpCLIInputBean {
      * The models to export ms2pip config files for.
      */
     private String[] ms2pipModels = new String[]{"CID", "HCD", "HCDch2", "CIDch2"};
+    /**
+     * The number of threads to use. Null if not set.
+     */
+    private Integer nThreads = null;
     
     /**
      * The path settings.
@@ -329,6 +333,10 @@ public class FollowUpCLIInputBean {
             
         }
         
+        if (aLine.hasOption(FollowUpCLIParams.THREADS.id)) {
+            nThreads = Integer.valueOf(aLine.getOptionValue(FollowUpCLIParams.THREADS.id).trim());
+        }
+
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
         
     }
@@ -770,6 +778,15 @@ public class FollowUpCLIInputBean {
         return psmIdentifiersFile != null;
     }
 
+    /**
+     * Returns the number of threads to use. Null if not set.
+     *
+     * @return the number of threads to use
+     */
+    public Integer getnThreads() {
+        return nThreads;
+    }
+
     /**
      * Returns the path settings provided by the user.
      *
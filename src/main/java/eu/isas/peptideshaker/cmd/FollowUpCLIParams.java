@@ -49,7 +49,9 @@ public enum FollowUpCLIParams {
     
     PERCOLATOR_BENCHMARK_RESULTS("percolator_benchmark_results", "Path to the file containing Percolator results for each PSM. (Existing file will be overwritten.)", true, false),
 
-    PSM_IDENTIFIERS_EXPORT("psm_identifiers_file", "Path to the file where to write the existing identifiers for each PSM. (Existing file will be overwritten.)", true, false);
+    PSM_IDENTIFIERS_EXPORT("psm_identifiers_file", "Path to the file where to write the existing identifiers for each PSM. (Existing file will be overwritten.)", true, false),
+
+    THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", true, false);
     
     /**
      * Short Id for the CLI parameter.
@@ -115,6 +117,9 @@ public enum FollowUpCLIParams {
         output += "\n\nOptional Output Parameters:\n";
         output += getOutputOptionsAsString();
 
+        output += "\n\nOptional Processing Parameters:\n\n";
+        output += "-" + String.format(formatter, THREADS.id) + " " + THREADS.description + "\n";
+
         output += "\n\nOptional Temporary Folder:\n\n";
         output += "-" + String.format(formatter, PathSettingsCLIParams.ALL.id) + " " + PathSettingsCLIParams.ALL.description + "\n";
 
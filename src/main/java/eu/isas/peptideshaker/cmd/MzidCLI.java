@@ -84,6 +84,9 @@ public class MzidCLI extends PsdbParent {
 
         setDbFolder(PeptideShaker.getMatchesFolder());
 
+        // the project is only read, no need to copy it to the matches folder
+        setOpenInPlace(true);
+
         // Load user preferences
         utilitiesUserPreferences = UtilitiesUserParameters.loadUserParameters();
 
@@ -29,6 +29,7 @@ import com.compomics.util.parameters.tools.ProcessingParameters;
 import com.compomics.util.parameters.UtilitiesUserParameters;
 import com.compomics.util.parameters.identification.advanced.ValidationQcParameters;
 import eu.isas.peptideshaker.export.ProjectExport;
+import eu.isas.peptideshaker.processing.StageMetrics;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
@@ -92,6 +93,10 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
      * The log folder given on the command line. Null if not set.
      */
     private static File logFolder = null;
+    /**
+     * The resources used by the processing steps of the project.
+     */
+    private ArrayList<StageMetrics> stageMetrics = null;
 
     /**
      * Construct a new PeptideShakerCLI runnable. When initialization is
@@ -314,6 +319,28 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
                     waitingHandler.appendReport("Saving results.", true, true);
                     saveProject(waitingHandler, true);
                     waitingHandler.appendReport("Results saved to " + psdbFile.getAbsolutePath() + ".", true, true);
+
+                    if (cliInputBean.isStageMetrics() && stageMetrics != null) {
+
+                        File metricsFile = new File(
+                                psdbFile.getAbsoluteFile().getParentFile(),
+                                IoUtil.removeExtension(psdbFile.getName()) + ".metrics.json"
+                        );
+
+                        try {
+
+                            StageMetrics.saveToJson(stageMetrics, metricsFile);
+                            waitingHandler.appendReport("Processing metrics saved to " + metricsFile.getAbsolutePath() + ".", true, true);
+
+                        } catch (IOException e) {
+
+                            waitingHandler.appendReport("An error occurred while saving the processing metrics.", true, true);
+                            e.printStackTrace();
+
+                        }
+
+                    }
+
                     waitingHandler.appendReportEndLine();
 
                 } catch (Exception e) {
@@ -361,6 +388,7 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
                                         sequenceProvider,
                                         msFileHandler,
                                         identificationParameters,
+                                        cliInputBean.getnThreads() != null ? cliInputBean.getnThreads() : new ProcessingParameters().getnThreads(),
                                         waitingHandler
                                 )
                         );
@@ -679,44 +707,43 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
                     if (reportCLIInputBean.exportNeeded()) {
 
                         int nSurroundingAAs = 2; //@TODO: this shall not be hard coded //peptideShakerGUI.getDisplayPreferences().getnAASurroundingPeptides()
+                        int nThreads = cliInputBean.getnThreads() != null ? cliInputBean.getnThreads() : new ProcessingParameters().getnThreads();
 
-                        for (String reportType : reportCLIInputBean.getReportTypes()) {
-
-                            waitingHandler.appendReport("Exporting " + reportType + ".", true, true);
+                        waitingHandler.appendReport("Exporting " + String.join(", ", reportCLIInputBean.getReportTypes()) + ".", true, true);
 
-                            try {
+                        try {
 
-                                reportFiles.add(
-                                        CLIExportMethods.exportReport(
-                                                reportCLIInputBean,
-                                                reportType,
-                                                projectParameters.getProjectUniqueName(),
-                                                projectDetails,
-                                                identification,
-                                                geneMaps,
-                                                identificationFeaturesGenerator,
-                                                identificationParameters,
-                                                sequenceProvider,
-                                                proteinDetailsProvider,
-                                                msFileHandler,
-                                                nSurroundingAAs,
-                                                spectrumCountingParameters,
-                                                waitingHandler
-                                        )
-                                );
+                            reportFiles.addAll(
+                                    CLIExportMethods.exportReports(
+                                            reportCLIInputBean,
+                                            reportCLIInputBean.getReportTypes(),
+                                            projectParameters.getProjectUniqueName(),
+                                            projectDetails,
+                                            identification,
+                                            geneMaps,
+                                            identificationFeaturesGenerator,
+                                            identificationParameters,
+                                            sequenceProvider,
+                                            proteinDetailsProvider,
+                                            msFileHandler,
+                                            nSurroundingAAs,
+                                            spectrumCountingParameters,
+                                            nThreads,
+                                            waitingHandler
+                                    )
+                            );
 
-                            } catch (Exception e) {
+                        } catch (Exception e) {
 
-                                waitingHandler.appendReport(
-                                        "An error occurred while exporting the " + reportType + ". " + getLogFileMessage(),
-                                        true,
-                                        true
-                                );
+                            waitingHandler.appendReport(
+                                    "An error occurred while exporting the reports. " + getLogFileMessage(),
+                                    true,
+                                    true
+                            );
 
-                                e.printStackTrace();
-                                waitingHandler.setRunCanceled();
+                            e.printStackTrace();
+                            waitingHandler.setRunCanceled();
 
-                            }
                         }
                     }
 
@@ -1464,6 +1491,14 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
         // create a shaker which will perform the analysis
         PeptideShaker peptideShaker = new PeptideShaker(projectParameters);
 
+        Integer importBatchSize = cliInputBean.getImportBatchSize();
+
+        if (importBatchSize != null) {
+            peptideShaker.setImportBatchSize(importBatchSize);
+        }
+
+        peptideShaker.setReportStageMetrics(cliInputBean.isStageMetrics());
+
         // import the files
         int outcome = peptideShaker.importFiles(
                 waitingHandler,
@@ -1496,6 +1531,9 @@ public class PeptideShakerCLI extends PsdbParent implements Callable {
             // identification as created by PeptideShaker
             identification = peptideShaker.getIdentification();
 
+            // resources used by the processing steps
+            stageMetrics = peptideShaker.getStageMetrics();
+
             // metrics saved while processing the data
             metrics = peptideShaker.getMetrics();
 
@@ -96,6 +96,14 @@ public class PeptideShakerCLIInputBean {
      * The Percolator feature cache option.
      */
     private Boolean cachePercolatorFeatures = null;
+    /**
+     * The maximal number of PSMs to import at once per identification file.
+     */
+    private Integer importBatchSize = null;
+    /**
+     * The stage metrics option.
+     */
+    private boolean stageMetrics = false;
 
     /**
      * Construct a PeptideShakerCLIInputBean from an Apache CLI instance.
@@ -191,6 +199,17 @@ public class PeptideShakerCLIInputBean {
             }
         }
 
+        // import batch size
+        if (aLine.hasOption(PeptideShakerCLIParams.IMPORT_BATCH_SIZE.id)) {
+            importBatchSize = Integer.valueOf(aLine.getOptionValue(PeptideShakerCLIParams.IMPORT_BATCH_SIZE.id));
+        }
+
+        // stage metrics
+        if (aLine.hasOption(PeptideShakerCLIParams.STAGE_METRICS.id)) {
+            String option = aLine.getOptionValue(PeptideShakerCLIParams.STAGE_METRICS.id);
+            stageMetrics = option.trim().equals("1");
+        }
+
         followUpCLIInputBean = new FollowUpCLIInputBean(aLine);
         reportCLIInputBean = new ReportCLIInputBean(aLine);
         mzidCLIInputBean = new MzidCLIInputBean(aLine);
@@ -492,6 +511,28 @@ public class PeptideShakerCLIInputBean {
         return cachePercolatorFeatures;
     }
 
+    /**
+     * Returns the maximal number of PSMs to import at once per identification
+     * file. Null if not set.
+     *
+     * @return the maximal number of PSMs to import at once per identification
+     * file
+     */
+    public Integer getImportBatchSize() {
+        return importBatchSize;
+    }
+
+    /**
+     * Indicates whether the time and memory used by every processing step
+     * should be reported and saved.
+     *
+     * @return a boolean indicating whether the time and memory used by every
+     * processing step should be reported and saved
+     */
+    public boolean isStageMetrics() {
+        return stageMetrics;
+    }
+
     /**
      * Verifies the command line start parameters.
      *
@@ -595,6 +636,26 @@ public class PeptideShakerCLIInputBean {
             }
         }
 
+        // Import batch size
+        if (aLine.hasOption(PeptideShakerCLIParams.IMPORT_BATCH_SIZE.id)) {
+            String option = aLine.getOptionValue(PeptideShakerCLIParams.IMPORT_BATCH_SIZE.id);
+            try {
+                Integer.parseInt(option.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("\nThe value for the \'" + PeptideShakerCLIParams.IMPORT_BATCH_SIZE.id + "\' option should be an integer, \'" + option + "\' found.\n");
+                return false;
+            }
+        }
+
+        // Stage metrics
+        if (aLine.hasOption(PeptideShakerCLIParams.STAGE_METRICS.id)) {
+            String option = aLine.getOptionValue(PeptideShakerCLIParams.STAGE_METRICS.id);
+            if (!option.trim().equals("1") && !option.trim().equals("0")) {
+                System.out.println("\nThe value for the \'" + PeptideShakerCLIParams.STAGE_METRICS.id + "\' option should be \'0\' or \'1\', \'" + option + "\' found.\n");
+                return false;
+            }
+        }
+
 //        // Check the identification parameters
 //        if (!IdentificationParametersInputBean.isValidStartup(aLine, false)) { // @TODO: ok to add?
 //            return false;
@@ -29,6 +29,8 @@ public enum PeptideShakerCLIParams {
     OUTPUT_MGF("output_mgf", "When using zipped output, exports mgf file(s) out of the zip file into the same folder in addition (0: no, 1: yes, default is '0').", false),
     THREADS("threads", "The number of threads to use. Defaults to the number of available CPUs.", false),
     PERCOLATOR_CACHE("percolator_cache", "Enable the caching of Percolator features (1: true, 0: false, default is '0').", false),
+    IMPORT_BATCH_SIZE("import_batch_size", "The maximal number of PSMs to import at once per identification file. Default: '0', all PSMs of a file at once.", false),
+    STAGE_METRICS("stage_metrics", "Reports the time and memory used by every processing step and saves them as json next to the output file (1: true, 0: false, default is '0').", false),
     CONFIG_FOLDER("config_folder", "The complete path to the config folder. Default resources\\conf.", false);
 
     /**
@@ -113,6 +115,8 @@ public enum PeptideShakerCLIParams {
         output += "-" + String.format(formatter, GUI.id) + " " + GUI.description + "\n";
         output += "-" + String.format(formatter, THREADS.id) + " " + THREADS.description + "\n";
         output += "-" + String.format(formatter, PERCOLATOR_CACHE.id) + " " + PERCOLATOR_CACHE.description + "\n";
+        output += "-" + String.format(formatter, IMPORT_BATCH_SIZE.id) + " " + IMPORT_BATCH_SIZE.description + "\n";
+        output += "-" + String.format(formatter, STAGE_METRICS.id) + " " + STAGE_METRICS.description + "\n";
 
         output += "\n\nOptional Export Parameters:\n\n";
         output += "-" + String.format(formatter, ZIP.id) + " " + ZIP.description + "\n";
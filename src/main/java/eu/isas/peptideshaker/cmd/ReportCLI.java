@@ -7,6 +7,7 @@ import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.parameters.tools.ProcessingParameters;
 import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.utils.PsdbParent;
 import java.io.File;
@@ -84,6 +85,9 @@ public class ReportCLI extends PsdbParent {
 
         setDbFolder(PeptideShaker.getMatchesFolder());
 
+        // the project is only read, no need to copy it to the matches folder
+        setOpenInPlace(true);
+
         // Load user preferences
         utilitiesUserPreferences = UtilitiesUserParameters.loadUserParameters();
 
@@ -248,39 +252,39 @@ public class ReportCLI extends PsdbParent {
         // export report(s)
         if (reportCLIInputBean.exportNeeded()) {
 
-            for (String reportType : reportCLIInputBean.getReportTypes()) {
+            int nThreads = reportCLIInputBean.getnThreads() != null ? reportCLIInputBean.getnThreads() : new ProcessingParameters().getnThreads();
 
-                try {
+            try {
 
-                    CLIExportMethods.exportReport(
-                            reportCLIInputBean,
-                            reportType,
-                            projectParameters.getProjectUniqueName(),
-                            projectDetails,
-                            identification,
-                            geneMaps,
-                            identificationFeaturesGenerator,
-                            identificationParameters,
-                            sequenceProvider,
-                            proteinDetailsProvider,
-                            msFileHandler,
-                            displayParameters.getnAASurroundingPeptides(),
-                            spectrumCountingParameters,
-                            waitingHandler
-                    );
+                CLIExportMethods.exportReports(
+                        reportCLIInputBean,
+                        reportCLIInputBean.getReportTypes(),
+                        projectParameters.getProjectUniqueName(),
+                        projectDetails,
+                        identification,
+                        geneMaps,
+                        identificationFeaturesGenerator,
+                        identificationParameters,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        msFileHandler,
+                        displayParameters.getnAASurroundingPeptides(),
+                        spectrumCountingParameters,
+                        nThreads,
+                        waitingHandler
+                );
 
-                } catch (Exception e) {
+            } catch (Exception e) {
 
-                    waitingHandler.appendReport(
-                            "An error occurred while exporting the " + reportType + ".",
-                            true,
-                            true
-                    );
+                waitingHandler.appendReport(
+                        "An error occurred while exporting the reports.",
+                        true,
+                        true
+                );
 
-                    e.printStackTrace();
-                    waitingHandler.setRunCanceled();
+                e.printStackTrace();
+                waitingHandler.setRunCanceled();
 
-                }
             }
         }
 
@@ -35,6 +35,10 @@ public class ReportCLIInputBean {
      * Boolean indicating whether the export should be gzipped.
      */
     private boolean gzip = false;
+    /**
+     * The number of threads to use. Null if not set.
+     */
+    private Integer nThreads = null;
     /**
      * The report types required by the user.
      */
@@ -99,6 +103,10 @@ public class ReportCLIInputBean {
             gzip = index == 1;
         }
 
+        if (aLine.hasOption(ReportCLIParams.THREADS.id)) {
+            nThreads = Integer.valueOf(aLine.getOptionValue(ReportCLIParams.THREADS.id).trim());
+        }
+
         pathSettingsCLIInputBean = new PathSettingsCLIInputBean(aLine);
 
     }
@@ -220,4 +228,13 @@ public class ReportCLIInputBean {
         return gzip;
     }
 
+    /**
+     * Returns the number of threads to use. Null if not set.
+     *
+     * @return the number of threads to use
+     */
+    public Integer getnThreads() {
+        return nThreads;
+    }
+
 }
@@ -0,0 +1,218 @@
+package eu.isas.peptideshaker.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies a file to a destination through a temporary file that is atomically
+ * renamed, so that a crash during the copy never leaves a partial destination
+ * file. Updates of a destination that already has the content of the source
+ * are skipped, otherwise the entire file is copied.
+ *
+ * @author Marc Vaudel
+ */
+public class AtomicFileCopy {
+
+    /**
+     * The size of the blocks compared.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Empty default constructor.
+     */
+    private AtomicFileCopy() {
+
+    }
+
+    /**
+     * Copies the entire source file to the destination file. The content is
+     * written to a temporary file in the destination folder which then
+     * replaces the destination file.
+     *
+     * @param source the source file
+     * @param destination the destination file
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static void copy(
+            File source,
+            File destination
+    ) throws IOException {
+
+        File folder = destination.getAbsoluteFile().getParentFile();
+        File tempFile = File.createTempFile(destination.getName(), ".tmp", folder);
+
+        try {
+
+            try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                    FileChannel tempChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                long length = sourceChannel.size();
+                long position = 0;
+
+                while (position < length) {
+
+                    position += sourceChannel.transferTo(position, length - position, tempChannel);
+
+                }
+
+                tempChannel.force(true);
+
+            }
+
+            try {
+
+                Files.move(
+                        tempFile.toPath(),
+                        destination.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE
+                );
+
+            } catch (AtomicMoveNotSupportedException e) {
+
+                Files.move(
+                        tempFile.toPath(),
+                        destination.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                );
+
+            }
+
+        } finally {
+
+            if (tempFile.exists()) {
+
+                tempFile.delete();
+
+            }
+        }
+    }
+
+    /**
+     * Updates the destination file with the content of the source file. The
+     * files are compared byte by byte, and if they differ the source is
+     * copied to the destination using copy.
+     *
+     * @param source the source file
+     * @param destination the destination file
+     *
+     * @return true if the destination was written, false if it already had
+     * the content of the source
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public static boolean update(
+            File source,
+            File destination
+    ) throws IOException {
+
+        if (destination.exists() && haveSameContent(source, destination)) {
+
+            return false;
+
+        }
+
+        copy(source, destination);
+
+        return true;
+
+    }
+
+    /**
+     * Indicates whether the two given files have the same content. The
+     * comparison stops at the first differing block.
+     *
+     * @param file1 the first file
+     * @param file2 the second file
+     *
+     * @return a boolean indicating whether the two given files have the same
+     * content
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * a file
+     */
+    public static boolean haveSameContent(
+            File file1,
+            File file2
+    ) throws IOException {
+
+        try (FileChannel channel1 = FileChannel.open(file1.toPath(), StandardOpenOption.READ);
+                FileChannel channel2 = FileChannel.open(file2.toPath(), StandardOpenOption.READ)) {
+
+            long length = channel1.size();
+
+            if (channel2.size() != length) {
+
+                return false;
+
+            }
+
+            ByteBuffer buffer1 = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            ByteBuffer buffer2 = ByteBuffer.allocateDirect(BLOCK_SIZE);
+
+            for (long position = 0; position < length; position += BLOCK_SIZE) {
+
+                int blockLength = (int) Math.min(BLOCK_SIZE, length - position);
+
+                readBlock(channel1, buffer1, position, blockLength);
+                readBlock(channel2, buffer2, position, blockLength);
+
+                if (!buffer1.equals(buffer2)) {
+
+                    return false;
+
+                }
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Reads a block from the given channel. The buffer is flipped and ready
+     * to be read when the method returns.
+     *
+     * @param channel the channel
+     * @param buffer the buffer
+     * @param position the position of the block in the file
+     * @param blockLength the length of the block
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private static void readBlock(
+            FileChannel channel,
+            ByteBuffer buffer,
+            long position,
+            int blockLength
+    ) throws IOException {
+
+        buffer.clear();
+        buffer.limit(blockLength);
+
+        while (buffer.hasRemaining()) {
+
+            int read = channel.read(buffer, position + buffer.position());
+
+            if (read == -1) {
+
+                throw new IOException("Unexpected end of file.");
+
+            }
+        }
+
+        buffer.flip();
+
+    }
+}
@@ -10,6 +10,11 @@ import java.util.HashSet;
  */
 public class ExportUtils {
 
+    /**
+     * The number of matches of a report section for which the rows are
+     * computed together before being written.
+     */
+    public static final int CHUNK_SIZE = 1000;
     /**
      * Placeholder for the names of phosphorylations.
      */
@@ -0,0 +1,1051 @@
+package eu.isas.peptideshaker.export;
+
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
+import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.io.export.ExportFormat;
+import com.compomics.util.io.export.ExportScheme;
+import com.compomics.util.io.export.ExportWriter;
+import com.compomics.util.io.export.features.peptideshaker.PsPeptideFeature;
+import com.compomics.util.io.export.features.peptideshaker.PsProteinFeature;
+import com.compomics.util.io.export.features.peptideshaker.PsPsmFeature;
+import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.export.sections.PsPeptideSection;
+import eu.isas.peptideshaker.export.sections.PsProteinSection;
+import eu.isas.peptideshaker.export.sections.PsPsmSection;
+import eu.isas.peptideshaker.preferences.ProjectDetails;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes multiple reports while iterating the matches of every level only
+ * once. The reports are written section by section in their order, and the
+ * protein, peptide and PSM sections awaiting the same level of matches are
+ * written together, every match loaded being passed to all of them.
+ *
+ * @author Marc Vaudel
+ */
+public class MultiReportExport {
+
+    /**
+     * The types of the sections iterating the matches of a level.
+     */
+    private static final String[] MATCH_SECTIONS = new String[]{
+        PsProteinFeature.type,
+        PsPeptideFeature.type,
+        PsPsmFeature.type
+    };
+
+    /**
+     * Empty default constructor.
+     */
+    private MultiReportExport() {
+
+    }
+
+    /**
+     * Writes the desired exports.
+     *
+     * @param exportSchemes the schemes of the exports
+     * @param destinationFiles the destination files in the same order as the
+     * schemes
+     * @param exportFormat the format of export to use
+     * @param gzip if true export text as gzipped files
+     * @param experiment the experiment corresponding to this project
+     * @param projectDetails the project details
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param geneMaps the gene maps
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use to compute the lines of the
+     * protein, peptide and PSM sections, the features of the matches of a
+     * chunk are then retrieved concurrently, see the getFeature methods of
+     * the sections
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writeExports(
+            ArrayList<ExportScheme> exportSchemes,
+            ArrayList<File> destinationFiles,
+            ExportFormat exportFormat,
+            boolean gzip,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        int nReports = exportSchemes.size();
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+
+        try (ExportWriters exportWriters = new ExportWriters(nReports)) {
+
+            for (int i = 0; i < nReports; i++) {
+
+                exportWriters.writers[i] = PSExportFactory.getExportWriter(
+                        exportSchemes.get(i),
+                        destinationFiles.get(i),
+                        exportFormat,
+                        gzip
+                );
+
+            }
+
+            writeSections(
+                    exportSchemes,
+                    exportWriters.writers,
+                    experiment,
+                    projectDetails,
+                    identification,
+                    identificationFeaturesGenerator,
+                    geneMaps,
+                    nSurroundingAA,
+                    identificationParameters,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    spectrumCountingPreferences,
+                    nThreads,
+                    pool,
+                    waitingHandler
+            );
+
+        } finally {
+
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * The writers of the reports, closed together whether the export
+     * succeeded or not.
+     */
+    private static class ExportWriters implements Closeable {
+
+        /**
+         * The writers in the order of the reports, null for the writers not
+         * created yet.
+         */
+        private final ExportWriter[] writers;
+
+        /**
+         * Constructor.
+         *
+         * @param nReports the number of reports
+         */
+        private ExportWriters(
+                int nReports
+        ) {
+
+            writers = new ExportWriter[nReports];
+
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            IOException exception = null;
+
+            for (ExportWriter writer : writers) {
+
+                if (writer != null) {
+
+                    try {
+
+                        writer.close();
+
+                    } catch (IOException e) {
+
+                        if (exception == null) {
+
+                            exception = e;
+
+                        } else {
+
+                            exception.addSuppressed(e);
+
+                        }
+                    }
+                }
+            }
+
+            if (exception != null) {
+
+                throw exception;
+
+            }
+        }
+    }
+
+    /**
+     * Writes the sections of the reports in their order, the protein, peptide
+     * and PSM sections awaiting the same level of matches being written
+     * together.
+     *
+     * @param exportSchemes the schemes of the exports
+     * @param exportWriters the writers of the exports
+     * @param experiment the experiment corresponding to this project
+     * @param projectDetails the project details
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param geneMaps the gene maps
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * @param nThreads the number of threads to use
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    private static void writeSections(
+            ArrayList<ExportScheme> exportSchemes,
+            ExportWriter[] exportWriters,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        int nReports = exportSchemes.size();
+        int[] sectionIndexes = new int[nReports];
+
+        while (true) {
+
+            // write the sections that do not iterate the matches
+            for (int i = 0; i < nReports; i++) {
+
+                ExportScheme exportScheme = exportSchemes.get(i);
+                ArrayList<String> sections = exportScheme.getSections();
+
+                while (sectionIndexes[i] < sections.size()
+                        && !isMatchSection(sections.get(sectionIndexes[i]))) {
+
+                    PSExportFactory.writeSection(
+                            sections.get(sectionIndexes[i]),
+                            exportScheme,
+                            exportWriters[i],
+                            experiment,
+                            projectDetails,
+                            identification,
+                            identificationFeaturesGenerator,
+                            geneMaps,
+                            null,
+                            null,
+                            null,
+                            nSurroundingAA,
+                            identificationParameters,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            spectrumCountingPreferences,
+                            nThreads,
+                            waitingHandler
+                    );
+
+                    sectionIndexes[i]++;
+
+                }
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+
+            // select the level awaited by most reports
+            String level = null;
+            ArrayList<Integer> reports = new ArrayList<>(0);
+
+            for (String sectionType : MATCH_SECTIONS) {
+
+                ArrayList<Integer> awaitingReports = new ArrayList<>(nReports);
+
+                for (int i = 0; i < nReports; i++) {
+
+                    ArrayList<String> sections = exportSchemes.get(i).getSections();
+
+                    if (sectionIndexes[i] < sections.size()
+                            && sections.get(sectionIndexes[i]).equals(sectionType)) {
+
+                        awaitingReports.add(i);
+
+                    }
+                }
+
+                if (awaitingReports.size() > reports.size()) {
+
+                    level = sectionType;
+                    reports = awaitingReports;
+
+                }
+            }
+
+            if (level == null) {
+                break;
+            }
+
+            switch (level) {
+
+                case PsProteinFeature.type:
+
+                    writeProteinSections(
+                            reports,
+                            exportSchemes,
+                            exportWriters,
+                            identification,
+                            identificationFeaturesGenerator,
+                            geneMaps,
+                            nSurroundingAA,
+                            identificationParameters,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            pool,
+                            waitingHandler
+                    );
+                    break;
+
+                case PsPeptideFeature.type:
+
+                    writePeptideSections(
+                            reports,
+                            exportSchemes,
+                            exportWriters,
+                            identification,
+                            identificationFeaturesGenerator,
+                            nSurroundingAA,
+                            identificationParameters,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            pool,
+                            waitingHandler
+                    );
+                    break;
+
+                default:
+
+                    writePsmSections(
+                            reports,
+                            exportSchemes,
+                            exportWriters,
+                            identification,
+                            identificationFeaturesGenerator,
+                            nSurroundingAA,
+                            identificationParameters,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            pool,
+                            waitingHandler
+                    );
+                    break;
+
+            }
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                break;
+            }
+
+            for (int i : reports) {
+
+                sectionIndexes[i]++;
+
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the given section iterates the matches of a level.
+     *
+     * @param sectionName the name of the section
+     *
+     * @return a boolean indicating whether the given section iterates the
+     * matches of a level
+     */
+    private static boolean isMatchSection(
+            String sectionName
+    ) {
+
+        for (String sectionType : MATCH_SECTIONS) {
+
+            if (sectionType.equals(sectionName)) {
+
+                return true;
+
+            }
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Writes the protein sections of the given reports while iterating the
+     * protein matches once.
+     *
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param exportWriters the writers of the exports
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param geneMaps the gene maps
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writeProteinSections(
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ExportWriter[] exportWriters,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        PsProteinSection[] sections = new PsProteinSection[reports.size()];
+        int[] lines = new int[reports.size()];
+
+        for (int j = 0; j < reports.size(); j++) {
+
+            int i = reports.get(j);
+            ExportScheme exportScheme = exportSchemes.get(i);
+
+            PSExportFactory.startNewSection(
+                    PsProteinFeature.type,
+                    exportScheme,
+                    exportWriters[i]
+            );
+
+            sections[j] = new PsProteinSection(
+                    exportScheme.getExportFeatures(PsProteinFeature.type),
+                    exportScheme.isIndexes(),
+                    exportScheme.isHeader(),
+                    exportWriters[i]
+            );
+
+            if (exportScheme.isHeader()) {
+
+                sections[j].writeHeader(identification.getFractions());
+
+            }
+
+            lines[j] = 1;
+
+        }
+
+        long[] keys = identification.getProteinIdentification().stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+
+        setUpProgress(waitingHandler, keys.length);
+
+        ArrayList<ProteinMatch> proteinMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+
+        for (long key : keys) {
+
+            if (waitingHandler != null) {
+
+                if (waitingHandler.isRunCanceled()) {
+
+                    return;
+
+                }
+
+                waitingHandler.increaseSecondaryProgressCounter();
+
+            }
+
+            proteinMatches.add(identification.getProteinMatch(key));
+
+            if (proteinMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                writeProteinMatches(
+                        sections,
+                        lines,
+                        reports,
+                        exportSchemes,
+                        proteinMatches,
+                        identification,
+                        identificationFeaturesGenerator,
+                        geneMaps,
+                        nSurroundingAA,
+                        identificationParameters,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        pool,
+                        waitingHandler
+                );
+
+                proteinMatches.clear();
+
+            }
+        }
+
+        writeProteinMatches(
+                sections,
+                lines,
+                reports,
+                exportSchemes,
+                proteinMatches,
+                identification,
+                identificationFeaturesGenerator,
+                geneMaps,
+                nSurroundingAA,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                pool,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Writes the given protein matches to the protein sections of the given
+     * reports and updates the line indexes.
+     *
+     * @param sections the protein sections
+     * @param lines the index of the next line of every section
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param proteinMatches the protein matches
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param geneMaps the gene maps
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writeProteinMatches(
+            PsProteinSection[] sections,
+            int[] lines,
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ArrayList<ProteinMatch> proteinMatches,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        for (int j = 0; j < sections.length; j++) {
+
+            ExportScheme exportScheme = exportSchemes.get(reports.get(j));
+
+            lines[j] = sections[j].writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    geneMaps,
+                    identificationParameters,
+                    proteinMatches,
+                    lines[j],
+                    nSurroundingAA,
+                    exportScheme.isValidatedOnly(),
+                    exportScheme.isIncludeDecoy(),
+                    pool,
+                    waitingHandler
+            );
+
+        }
+    }
+
+    /**
+     * Writes the peptide sections of the given reports while iterating the
+     * peptide matches once.
+     *
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param exportWriters the writers of the exports
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writePeptideSections(
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ExportWriter[] exportWriters,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        PsPeptideSection[] sections = new PsPeptideSection[reports.size()];
+        int[] lines = new int[reports.size()];
+
+        for (int j = 0; j < reports.size(); j++) {
+
+            int i = reports.get(j);
+            ExportScheme exportScheme = exportSchemes.get(i);
+
+            PSExportFactory.startNewSection(
+                    PsPeptideFeature.type,
+                    exportScheme,
+                    exportWriters[i]
+            );
+
+            sections[j] = new PsPeptideSection(
+                    exportScheme.getExportFeatures(PsPeptideFeature.type),
+                    exportScheme.isIndexes(),
+                    exportScheme.isHeader(),
+                    exportWriters[i]
+            );
+
+            if (exportScheme.isHeader()) {
+
+                sections[j].writeHeader();
+
+            }
+
+            lines[j] = 1;
+
+        }
+
+        setUpProgress(waitingHandler, identification.getPeptideIdentification().size());
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
+        ArrayList<PeptideMatch> peptideMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            if (waitingHandler != null) {
+
+                if (waitingHandler.isRunCanceled()) {
+
+                    return;
+
+                }
+
+                waitingHandler.increaseSecondaryProgressCounter();
+
+            }
+
+            peptideMatches.add(peptideMatch);
+
+            if (peptideMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                writePeptideMatches(
+                        sections,
+                        lines,
+                        reports,
+                        exportSchemes,
+                        peptideMatches,
+                        identification,
+                        identificationFeaturesGenerator,
+                        nSurroundingAA,
+                        identificationParameters,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        pool,
+                        waitingHandler
+                );
+
+                peptideMatches.clear();
+
+            }
+        }
+
+        writePeptideMatches(
+                sections,
+                lines,
+                reports,
+                exportSchemes,
+                peptideMatches,
+                identification,
+                identificationFeaturesGenerator,
+                nSurroundingAA,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                pool,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Writes the given peptide matches to the peptide sections of the given
+     * reports and updates the line indexes.
+     *
+     * @param sections the peptide sections
+     * @param lines the index of the next line of every section
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param peptideMatches the peptide matches
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writePeptideMatches(
+            PsPeptideSection[] sections,
+            int[] lines,
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ArrayList<PeptideMatch> peptideMatches,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        for (int j = 0; j < sections.length; j++) {
+
+            ExportScheme exportScheme = exportSchemes.get(reports.get(j));
+
+            lines[j] = sections[j].writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    peptideMatches,
+                    lines[j],
+                    nSurroundingAA,
+                    "",
+                    exportScheme.isValidatedOnly(),
+                    exportScheme.isIncludeDecoy(),
+                    pool,
+                    waitingHandler
+            );
+
+        }
+    }
+
+    /**
+     * Writes the PSM sections of the given reports while iterating the
+     * spectrum matches once.
+     *
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param exportWriters the writers of the exports
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writePsmSections(
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ExportWriter[] exportWriters,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        PsPsmSection[] sections = new PsPsmSection[reports.size()];
+        int[] lines = new int[reports.size()];
+
+        for (int j = 0; j < reports.size(); j++) {
+
+            int i = reports.get(j);
+            ExportScheme exportScheme = exportSchemes.get(i);
+
+            PSExportFactory.startNewSection(
+                    PsPsmFeature.type,
+                    exportScheme,
+                    exportWriters[i]
+            );
+
+            sections[j] = new PsPsmSection(
+                    exportScheme.getExportFeatures(PsPsmFeature.type),
+                    exportScheme.isIndexes(),
+                    exportScheme.isHeader(),
+                    exportWriters[i]
+            );
+
+            if (exportScheme.isHeader()) {
+
+                sections[j].writeHeader();
+
+            }
+
+            lines[j] = 1;
+
+        }
+
+        setUpProgress(waitingHandler, identification.getNumber(SpectrumMatch.class));
+
+        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(waitingHandler);
+        ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+        SpectrumMatch spectrumMatch;
+
+        while ((spectrumMatch = psmIterator.next()) != null) {
+
+            if (waitingHandler != null) {
+
+                if (waitingHandler.isRunCanceled()) {
+
+                    return;
+
+                }
+
+                waitingHandler.increaseSecondaryProgressCounter();
+
+            }
+
+            spectrumMatches.add(spectrumMatch);
+
+            if (spectrumMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                writeSpectrumMatches(
+                        sections,
+                        lines,
+                        reports,
+                        exportSchemes,
+                        spectrumMatches,
+                        identification,
+                        identificationFeaturesGenerator,
+                        nSurroundingAA,
+                        identificationParameters,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        pool,
+                        waitingHandler
+                );
+
+                spectrumMatches.clear();
+
+            }
+        }
+
+        writeSpectrumMatches(
+                sections,
+                lines,
+                reports,
+                exportSchemes,
+                spectrumMatches,
+                identification,
+                identificationFeaturesGenerator,
+                nSurroundingAA,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                pool,
+                waitingHandler
+        );
+    }
+
+    /**
+     * Writes the given spectrum matches to the PSM sections of the given
+     * reports and updates the line indexes.
+     *
+     * @param sections the PSM sections
+     * @param lines the index of the next line of every section
+     * @param reports the indexes of the reports
+     * @param exportSchemes the schemes of the exports
+     * @param spectrumMatches the spectrum matches
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param pool the pool to use to compute the lines, null to compute them
+     * on the calling thread
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to a file
+     */
+    private static void writeSpectrumMatches(
+            PsPsmSection[] sections,
+            int[] lines,
+            ArrayList<Integer> reports,
+            ArrayList<ExportScheme> exportSchemes,
+            ArrayList<SpectrumMatch> spectrumMatches,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
+
+        for (int j = 0; j < sections.length; j++) {
+
+            ExportScheme exportScheme = exportSchemes.get(reports.get(j));
+
+            lines[j] = sections[j].writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    spectrumMatches,
+                    lines[j],
+                    "",
+                    nSurroundingAA,
+                    exportScheme.isValidatedOnly(),
+                    exportScheme.isIncludeDecoy(),
+                    pool,
+                    waitingHandler
+            );
+
+        }
+    }
+
+    /**
+     * Sets up the secondary progress of the waiting handler for the iteration
+     * of the given number of matches.
+     *
+     * @param waitingHandler the waiting handler
+     * @param nMatches the number of matches
+     */
+    private static void setUpProgress(
+            WaitingHandler waitingHandler,
+            int nMatches
+    ) {
+
+        if (waitingHandler != null) {
+
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setWaitingText("Exporting. Please Wait...");
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(nMatches);
+
+        }
+    }
+}
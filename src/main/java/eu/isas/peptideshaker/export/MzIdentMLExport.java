@@ -18,18 +18,13 @@ import com.compomics.util.experiment.biology.modifications.ModificationProvider;
 import com.compomics.util.experiment.biology.modifications.ModificationType;
 import com.compomics.util.experiment.identification.*;
 import com.compomics.util.experiment.identification.matches.*;
-import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
-import com.compomics.util.experiment.identification.matches_iterators.SpectrumMatchesIterator;
 import com.compomics.util.experiment.identification.modification.ModificationLocalizationScore;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.parameters.identification.advanced.IdMatchValidationParameters;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.ModificationLocalizationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
-import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
 import com.compomics.util.experiment.identification.utils.PeptideUtils;
 import com.compomics.util.experiment.io.biology.protein.FastaSummary;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
@@ -46,10 +41,12 @@ import eu.isas.peptideshaker.preferences.ProjectDetails;
 import com.compomics.util.experiment.identification.peptide_shaker.ModificationScoring;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyResults;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
+import eu.isas.peptideshaker.utils.SpectrumTitleIndex;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.io.IoUtil;
-import com.compomics.util.io.flat.SimpleFileWriter;
 import java.io.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -60,6 +57,9 @@ import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 import org.apache.commons.text.StringEscapeUtils;
 
 /**
@@ -70,15 +70,34 @@ import org.apache.commons.text.StringEscapeUtils;
  */
 public class MzIdentMLExport {
 
+    /**
+     * The number of items written per chunk.
+     */
+    public static final int CHUNK_SIZE = 1000;
     /**
      * The writer.
      */
-    private SimpleFileWriter writer;
+    private final ParallelFileWriter writer;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The pool used to write the chunks.
+     */
+    private ForkJoinPool pool;
+    /**
+     * The keys of the peptides in the order of writing.
+     */
+    private long[] peptideKeys;
+    /**
+     * The number of peptide evidences written before every peptide.
+     */
+    private int[] peptideEvidenceOffsets;
     /**
-     * Integer keeping track of the number of tabs to include at the beginning
-     * of each line.
+     * The accessions of the proteins referenced by peptide evidences.
      */
-    private int tabCounter = 0;
+    private String[] referencedAccessions;
     /**
      * The provider to use to get modification information.
      */
@@ -129,9 +148,9 @@ public class MzIdentMLExport {
      */
     private final IdentificationFeaturesGenerator identificationFeaturesGenerator;
     /**
-     * The peptide spectrum annotator.
+     * The peptide spectrum annotators of the different threads.
      */
-    private final PeptideSpectrumAnnotator peptideSpectrumAnnotator;
+    private final ThreadLocal<PeptideSpectrumAnnotator> peptideSpectrumAnnotators = ThreadLocal.withInitial(PeptideSpectrumAnnotator::new);
     /**
      * The waiting handler.
      */
@@ -139,23 +158,23 @@ public class MzIdentMLExport {
     /**
      * The peptide evidence IDs.
      */
-    private final HashMap<String, String> pepEvidenceIds = new HashMap<>();
+    private final ConcurrentHashMap<String, String> pepEvidenceIds = new ConcurrentHashMap<>();
     /**
      * The spectrum IDs.
      */
-    private final HashMap<Long, String> spectrumIds = new HashMap<>();
+    private final ConcurrentHashMap<Long, String> spectrumIds = new ConcurrentHashMap<>();
     /**
      * The identification parameters.
      */
     private final IdentificationParameters identificationParameters;
     /**
-     * Map of PTM indexes: PTM mass to index.
+     * The key of the annotation settings in the spectrum annotation cache.
      */
-    private final HashMap<Double, Integer> modIndexMap = new HashMap<>();
+    private final long annotationSettingsKey;
     /**
-     * Map of the spectrum title to index.
+     * Map of PTM indexes: PTM mass to index.
      */
-    private final HashMap<String, HashMap<String, Integer>> spectrumTitleToIndexMap = new HashMap<>(0);
+    private final HashMap<Double, Integer> modIndexMap = new HashMap<>();
     /**
      * If true, the fragment ions will be written to the mzid file.
      */
@@ -204,10 +223,75 @@ public class MzIdentMLExport {
             boolean gzip
     ) {
 
+        this(
+                peptideShakerVersion,
+                identification,
+                projectDetails,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                modificationProvider,
+                fastaSummary,
+                identificationFeaturesGenerator,
+                outputFile,
+                includeProteinSequences,
+                waitingHandler,
+                gzip,
+                Runtime.getRuntime().availableProcessors()
+        );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param peptideShakerVersion The PeptideShaker version.
+     * @param identification The identification object.
+     * @param projectDetails The project details.
+     * @param identificationParameters The identification parameters.
+     * @param sequenceProvider The sequence provider.
+     * @param fastaSummary The summary information on the protein sequences
+     * file.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param modificationProvider The modifications provider.
+     * @param identificationFeaturesGenerator The identification features
+     * generator.
+     * @param outputFile The output file.
+     * @param includeProteinSequences If true, the protein sequences are
+     * included in the output.
+     * @param waitingHandler The waiting handler used to display progress to the
+     * user and interrupt the process.
+     * @param gzip If true export as gzipped file.
+     * @param nThreads The number of threads to use.
+     */
+    public MzIdentMLExport(
+            String peptideShakerVersion,
+            Identification identification,
+            ProjectDetails projectDetails,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            ModificationProvider modificationProvider,
+            FastaSummary fastaSummary,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            File outputFile,
+            boolean includeProteinSequences,
+            WaitingHandler waitingHandler,
+            boolean gzip,
+            int nThreads
+    ) {
+
         this.peptideShakerVersion = peptideShakerVersion;
         this.identification = identification;
         this.projectDetails = projectDetails;
         this.identificationParameters = identificationParameters;
+        this.annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                identificationParameters.getAnnotationParameters(),
+                identificationParameters.getSearchParameters().getModificationParameters(),
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+        );
         this.sequenceProvider = sequenceProvider;
         this.proteinDetailsProvider = proteinDetailsProvider;
         this.spectrumProvider = spectrumProvider;
@@ -216,35 +300,12 @@ public class MzIdentMLExport {
         this.identificationFeaturesGenerator = identificationFeaturesGenerator;
         this.includeProteinSequences = includeProteinSequences;
         this.waitingHandler = waitingHandler;
-        this.peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
-
-        setSpectrumTitlesMap();
+        this.nThreads = nThreads;
 
-        writer = new SimpleFileWriter(outputFile, gzip);
+        writer = new ParallelFileWriter(outputFile, gzip);
 
     }
 
-    /**
-     * Sets the spectrum titles to index map.
-     */
-    private void setSpectrumTitlesMap() {
-
-        for (String fileNameWithoutExtension : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
-
-            String[] spectrumTitles = spectrumProvider.getSpectrumTitles(fileNameWithoutExtension);
-            HashMap<String, Integer> tempMap = new HashMap<>(spectrumTitles.length);
-
-            for (int i = 0; i < spectrumTitles.length; i++) {
-
-                tempMap.put(spectrumTitles[i], i);
-
-            }
-
-            spectrumTitleToIndexMap.put(fileNameWithoutExtension, tempMap);
-
-        }
-    }
-
     /**
      * Creates the mzIdentML file.
      *
@@ -275,6 +336,25 @@ public class MzIdentMLExport {
 
         }
 
+        pool = new ForkJoinPool(nThreads);
+
+        try {
+
+            writeMzIdentMLFile();
+
+        } finally {
+
+            pool.shutdown();
+            writer.close();
+
+        }
+    }
+
+    /**
+     * Writes the content of the mzIdentML file.
+     */
+    private void writeMzIdentMLFile() {
+
         waitingHandler.setPrimaryProgressCounterIndeterminate(true);
 
         // @TODO: use the waiting handler more (especially for command line mode)
@@ -293,10 +373,13 @@ public class MzIdentMLExport {
         // write the AuditCollection details
         writeAuditCollection();
 
+        // index the peptides and the proteins they refer to
+        indexPeptides();
+
         waitingHandler.setPrimaryProgressCounterIndeterminate(false);
         waitingHandler.resetPrimaryProgressCounter();
         waitingHandler.setMaxPrimaryProgressCounter(
-                fastaSummary.nSequences
+                referencedAccessions.length
                 + identification.getPeptideIdentification().size() * 2
                 + identification.getSpectrumIdentificationSize()
                 + identification.getProteinIdentification().size()
@@ -317,8 +400,6 @@ public class MzIdentMLExport {
         // the experiment end tag
         writeMzIdentMLEndTag();
 
-        writer.close();
-
     }
 
     /**
@@ -329,7 +410,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<cvList>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<cv id=\"PSI-MS\" ");
@@ -355,7 +436,7 @@ public class MzIdentMLExport {
         writer.write("fullName=\"PRIDE\"/>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</cvList>");
         writer.newLine();
@@ -370,7 +451,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<AnalysisSoftwareList>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // @TODO: also add SearchGUI and/or search engines used?
         writer.write(getCurrentTabSpace());
@@ -378,17 +459,17 @@ public class MzIdentMLExport {
         writer.write(peptideShakerVersion);
         writer.write("\" id=\"ID_software\" uri=\"https://compomics.github.io/projects/peptide-shaker.html\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<ContactRole contact_ref=\"PS_DEV\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<Role>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -398,12 +479,12 @@ public class MzIdentMLExport {
                         null
                 )
         );
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</Role>");
         writer.newLine();
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</ContactRole>");
@@ -412,7 +493,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<SoftwareName>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -422,7 +503,7 @@ public class MzIdentMLExport {
                         null
                 )
         );
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</SoftwareName>");
@@ -432,12 +513,12 @@ public class MzIdentMLExport {
         writer.write("<Customizations>No customisations</Customizations>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AnalysisSoftware>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AnalysisSoftwareList>");
         writer.newLine();
@@ -452,17 +533,17 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Provider id=\"PROVIDER\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<ContactRole contact_ref=\"PROVIDER\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<Role>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // @TODO: add user defined provider role?
         writeCvTerm(
@@ -473,18 +554,18 @@ public class MzIdentMLExport {
                         null
                 )
         );
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</Role>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</ContactRole>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Provider>");
         writer.newLine();
@@ -499,7 +580,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<AuditCollection>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<Person firstName=\"");
@@ -508,7 +589,7 @@ public class MzIdentMLExport {
         writer.write(StringEscapeUtils.escapeHtml4(projectDetails.getContactLastName()));
         writer.write("\" id=\"PROVIDER\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -546,7 +627,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Affiliation organization_ref=\"ORG_DOC_OWNER\"/>");
         writer.newLine();
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</Person>");
@@ -557,7 +638,7 @@ public class MzIdentMLExport {
         writer.write(StringEscapeUtils.escapeHtml4(projectDetails.getOrganizationName()));
         writer.write("\" id=\"ORG_DOC_OWNER\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -597,7 +678,7 @@ public class MzIdentMLExport {
                         projectDetails.getOrganizationEmail()
                 )
         );
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</Organization>");
@@ -606,7 +687,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Organization name=\"PeptideShaker developers\" id=\"PS_DEV\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -641,13 +722,13 @@ public class MzIdentMLExport {
                 )
         );
 
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</Organization>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AuditCollection>");
         writer.newLine();
@@ -662,7 +743,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<SequenceCollection>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
 //        String dbType = Header.getDatabaseTypeAsString(Header.DatabaseType.Unknown); // @TODO: add database type as cv param? children of MS:1001013 (database name)
 //        FastaIndex fastaIndex = sequenceFactory.getCurrentFastaIndex();
@@ -670,154 +751,193 @@ public class MzIdentMLExport {
 //            dbType = Header.getDatabaseTypeAsString(fastaIndex.getDatabaseType());
 //        }
 //
-        // iterate all the protein sequences
-        for (String accession : sequenceProvider.getAccessions()) { // @TODO: include only protein sequences with at least one PeptideEvidence element referring to it (note: this is a SHOULD rule in the mzid specifications)
+        // iterate the protein sequences referenced by peptide evidences
+        writer.writeChunks(
+                referencedAccessions.length,
+                CHUNK_SIZE,
+                i -> writeDBSequence(referencedAccessions[i]),
+                pool,
+                waitingHandler
+        );
 
-            writer.write(getCurrentTabSpace());
-            writer.write("<DBSequence id=\"");
-            writer.write(accession);
-            writer.write("\" ");
-            writer.write("accession=\"");
-            writer.write(accession);
-            writer.write("\" searchDatabase_ref=\"SearchDB_1\" >");
-            writer.newLine();
-            tabCounter++;
+        if (waitingHandler.isRunCanceled()) {
 
-            if (includeProteinSequences) {
+            return;
 
-                String sequence = sequenceProvider.getSequence(accession);
-                writer.write(getCurrentTabSpace());
-                writer.write("<Seq>");
-                writer.write(sequence);
-                writer.write("</Seq>");
-                writer.newLine();
+        }
 
-            }
+        // Write the peptides
+        writer.writeChunks(
+                peptideKeys.length,
+                CHUNK_SIZE,
+                i -> writePeptide(peptideKeys[i]),
+                pool,
+                waitingHandler
+        );
 
-            String description = proteinDetailsProvider.getDescription(accession);
-            writeCvTerm(
-                    new CvTerm(
-                            "PSI-MS",
-                            "MS:1001088",
-                            "protein description",
-                            StringEscapeUtils.escapeHtml4(description)
-                    )
-            );
+        if (waitingHandler.isRunCanceled()) {
 
-            tabCounter--;
-            writer.write(getCurrentTabSpace());
-            writer.write("</DBSequence>");
-            writer.newLine();
+            return;
 
-            waitingHandler.increasePrimaryProgressCounter();
+        }
 
-            if (waitingHandler.isRunCanceled()) {
+        // write the peptide to protein mapping
+        writer.writeChunks(
+                peptideKeys.length,
+                CHUNK_SIZE,
+                i -> writePeptideEvidences(peptideKeys[i], peptideEvidenceOffsets[i]),
+                pool,
+                waitingHandler
+        );
 
-                return;
+        writer.decreaseIndent();
+        writer.write(getCurrentTabSpace());
+        writer.write("</SequenceCollection>");
+        writer.newLine();
 
-            }
-        }
+    }
 
-        // Write the peptides, store the spectrum key to peptide key mapping.
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
-        PeptideMatch peptideMatch;
+    /**
+     * Indexes the peptides to write, the protein sequences they refer to, and
+     * the index of their first peptide evidence.
+     */
+    private void indexPeptides() {
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        peptideKeys = identification.getPeptideIdentification().stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+        int[] nPeptideEvidences = new int[peptideKeys.length];
+        Set<String> accessions = ConcurrentHashMap.newKeySet();
 
-            long peptideKey = peptideMatch.getKey();
-            Peptide peptide = peptideMatch.getPeptide();
-            String peptideSequence = peptide.getSequence();
+        pool.submit(
+                () -> IntStream.range(0, peptideKeys.length)
+                        .parallel()
+                        .forEach(
+                                i -> {
 
-            writer.write(getCurrentTabSpace());
-            writer.write("<Peptide id=\"");
-            writer.write(Long.toString(peptideKey));
-            writer.write("\">");
-            writer.newLine();
-            tabCounter++;
+                                    Peptide peptide = identification.getPeptideMatch(peptideKeys[i]).getPeptide();
 
-            writer.write(getCurrentTabSpace());
-            writer.write("<PeptideSequence>");
-            writer.write(peptideSequence);
-            writer.write("</PeptideSequence>");
-            writer.newLine();
+                                    for (Entry<String, int[]> entry : peptide.getProteinMapping().entrySet()) {
 
-            String[] fixedModifications = peptide.getFixedModifications(
-                    identificationParameters.getSearchParameters().getModificationParameters(),
-                    sequenceProvider,
-                    identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
-            );
+                                        accessions.add(entry.getKey());
+                                        nPeptideEvidences[i] += entry.getValue().length;
 
-            for (int site = 0; site < fixedModifications.length; site++) {
+                                    }
+                                }
+                        )
+        ).join();
 
-                String modName = fixedModifications[site];
+        peptideEvidenceOffsets = new int[peptideKeys.length];
 
-                if (modName != null) {
+        for (int i = 1; i < peptideKeys.length; i++) {
 
-                    Modification modification = modificationProvider.getModification(modName);
+            peptideEvidenceOffsets[i] = peptideEvidenceOffsets[i - 1] + nPeptideEvidences[i - 1];
 
-                    int aa = Math.min(Math.max(site, 1), peptideSequence.length());
+        }
 
-                    writer.write(getCurrentTabSpace());
-                    writer.write("<Modification monoisotopicMassDelta=\"");
-                    writer.write(Double.toString(modification.getRoundedMass()));
-                    writer.write("\" residues=\"");
-                    writer.write(Character.toString(peptideSequence.charAt(aa - 1)));
-                    writer.write("\" location=\"");
-                    writer.write(Integer.toString(site));
-                    writer.write("\" >");
-                    writer.newLine();
+        // keep the order of the sequence provider
+        ArrayList<String> orderedAccessions = new ArrayList<>(accessions.size());
 
-                    CvTerm ptmCvTerm = modification.getUnimodCvTerm();
+        for (String accession : sequenceProvider.getAccessions()) {
 
-                    if (ptmCvTerm != null) {
+            if (accessions.contains(accession)) {
 
-                        tabCounter++;
-                        writeCvTerm(ptmCvTerm, false);
-                        tabCounter--;
+                orderedAccessions.add(accession);
 
-                    } else {
+            }
+        }
 
-                        // try PSI-MOD instead
-                        ptmCvTerm = modification.getPsiModCvTerm();
+        referencedAccessions = orderedAccessions.toArray(new String[orderedAccessions.size()]);
 
-                        if (ptmCvTerm != null) {
+    }
 
-                            tabCounter++;
+    /**
+     * Writes the database sequence of the given protein.
+     *
+     * @param accession the accession of the protein
+     */
+    private void writeDBSequence(
+            String accession
+    ) {
 
-                            if (ptmCvTerm != null) {
+        writer.write(getCurrentTabSpace());
+        writer.write("<DBSequence id=\"");
+        writer.write(accession);
+        writer.write("\" ");
+        writer.write("accession=\"");
+        writer.write(accession);
+        writer.write("\" searchDatabase_ref=\"SearchDB_1\" >");
+        writer.newLine();
+        writer.increaseIndent();
 
-                                writeCvTerm(ptmCvTerm);
+        if (includeProteinSequences) {
 
-                            } else {
+            String sequence = sequenceProvider.getSequence(accession);
+            writer.write(getCurrentTabSpace());
+            writer.write("<Seq>");
+            writer.write(sequence);
+            writer.write("</Seq>");
+            writer.newLine();
 
-                                writeCvTerm(
-                                        new CvTerm(
-                                                "PSI-MS",
-                                                "MS:1001460",
-                                                "unknown modification",
-                                                null
-                                        )
-                                );
-                            }
+        }
 
-                            tabCounter--;
+        String description = proteinDetailsProvider.getDescription(accession);
+        writeCvTerm(
+                new CvTerm(
+                        "PSI-MS",
+                        "MS:1001088",
+                        "protein description",
+                        StringEscapeUtils.escapeHtml4(description)
+                )
+        );
 
-                        }
+        writer.decreaseIndent();
+        writer.write(getCurrentTabSpace());
+        writer.write("</DBSequence>");
+        writer.newLine();
 
-                    }
+    }
 
-                    writer.write(getCurrentTabSpace());
-                    writer.write("</Modification>");
-                    writer.newLine();
+    /**
+     * Writes the given peptide.
+     *
+     * @param peptideKey the key of the peptide
+     */
+    private void writePeptide(
+            long peptideKey
+    ) {
 
-                }
-            }
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+        Peptide peptide = peptideMatch.getPeptide();
+        String peptideSequence = peptide.getSequence();
+
+        writer.write(getCurrentTabSpace());
+        writer.write("<Peptide id=\"");
+        writer.write(Long.toString(peptideKey));
+        writer.write("\">");
+        writer.newLine();
+        writer.increaseIndent();
+
+        writer.write(getCurrentTabSpace());
+        writer.write("<PeptideSequence>");
+        writer.write(peptideSequence);
+        writer.write("</PeptideSequence>");
+        writer.newLine();
 
-            for (ModificationMatch modMatch : peptide.getVariableModifications()) {
+        String[] fixedModifications = peptide.getFixedModifications(
+                identificationParameters.getSearchParameters().getModificationParameters(),
+                sequenceProvider,
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+        );
+
+        for (int site = 0; site < fixedModifications.length; site++) {
+
+            String modName = fixedModifications[site];
+
+            if (modName != null) {
 
-                Modification modification = modificationProvider.getModification(modMatch.getModification());
+                Modification modification = modificationProvider.getModification(modName);
 
-                int site = modMatch.getSite();
                 int aa = Math.min(Math.max(site, 1), peptideSequence.length());
 
                 writer.write(getCurrentTabSpace());
@@ -834,34 +954,38 @@ public class MzIdentMLExport {
 
                 if (ptmCvTerm != null) {
 
-                    tabCounter++;
+                    writer.increaseIndent();
                     writeCvTerm(ptmCvTerm, false);
-                    tabCounter--;
+                    writer.decreaseIndent();
 
                 } else {
 
                     // try PSI-MOD instead
                     ptmCvTerm = modification.getPsiModCvTerm();
 
-                    tabCounter++;
-
                     if (ptmCvTerm != null) {
 
-                        writeCvTerm(ptmCvTerm);
+                        writer.increaseIndent();
 
-                    } else {
+                        if (ptmCvTerm != null) {
 
-                        writeCvTerm(
-                                new CvTerm(
-                                        "PSI-MS",
-                                        "MS:1001460",
-                                        "unknown modification",
-                                        null
-                                )
-                        );
-                    }
+                            writeCvTerm(ptmCvTerm);
+
+                        } else {
+
+                            writeCvTerm(
+                                    new CvTerm(
+                                            "PSI-MS",
+                                            "MS:1001460",
+                                            "unknown modification",
+                                            null
+                                    )
+                            );
+                        }
+
+                        writer.decreaseIndent();
 
-                    tabCounter--;
+                    }
 
                 }
 
@@ -870,127 +994,170 @@ public class MzIdentMLExport {
                 writer.newLine();
 
             }
+        }
+
+        for (ModificationMatch modMatch : peptide.getVariableModifications()) {
+
+            Modification modification = modificationProvider.getModification(modMatch.getModification());
+
+            int site = modMatch.getSite();
+            int aa = Math.min(Math.max(site, 1), peptideSequence.length());
 
-            tabCounter--;
             writer.write(getCurrentTabSpace());
-            writer.write("</Peptide>");
+            writer.write("<Modification monoisotopicMassDelta=\"");
+            writer.write(Double.toString(modification.getRoundedMass()));
+            writer.write("\" residues=\"");
+            writer.write(Character.toString(peptideSequence.charAt(aa - 1)));
+            writer.write("\" location=\"");
+            writer.write(Integer.toString(site));
+            writer.write("\" >");
             writer.newLine();
 
-            waitingHandler.increasePrimaryProgressCounter();
+            CvTerm ptmCvTerm = modification.getUnimodCvTerm();
 
-            if (waitingHandler.isRunCanceled()) {
+            if (ptmCvTerm != null) {
 
-                break;
+                writer.increaseIndent();
+                writeCvTerm(ptmCvTerm, false);
+                writer.decreaseIndent();
 
-            }
-        }
+            } else {
 
-        int peptideEvidenceCounter = 0;
-        int nAa = 1;
+                // try PSI-MOD instead
+                ptmCvTerm = modification.getPsiModCvTerm();
 
-        // re-iterate the peptides to write peptide to protein mapping
-        peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
+                writer.increaseIndent();
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+                if (ptmCvTerm != null) {
 
-            long peptideKey = peptideMatch.getKey();
-            Peptide peptide = peptideMatch.getPeptide();
+                    writeCvTerm(ptmCvTerm);
 
-            // get the possible proteins
-            TreeMap<String, int[]> proteinMapping = peptide.getProteinMapping();
+                } else {
 
-            // iterate the possible proteins
-            for (Entry<String, int[]> entry : proteinMapping.entrySet()) {
+                    writeCvTerm(
+                            new CvTerm(
+                                    "PSI-MS",
+                                    "MS:1001460",
+                                    "unknown modification",
+                                    null
+                            )
+                    );
+                }
 
-                String accession = entry.getKey();
-                int[] indexes = entry.getValue();
+                writer.decreaseIndent();
 
-                for (int index : indexes) {
+            }
 
-                    String aaBefore = PeptideUtils.getAaBefore(
-                            peptide,
-                            accession,
-                            index,
-                            nAa,
-                            sequenceProvider
-                    );
+            writer.write(getCurrentTabSpace());
+            writer.write("</Modification>");
+            writer.newLine();
 
-                    if (aaBefore.length() == 0) {
+        }
 
-                        aaBefore = "-";
+        writer.decreaseIndent();
+        writer.write(getCurrentTabSpace());
+        writer.write("</Peptide>");
+        writer.newLine();
 
-                    }
+    }
 
-                    String aaAfter = PeptideUtils.getAaAfter(
-                            peptide,
-                            accession,
-                            index,
-                            nAa,
-                            sequenceProvider
-                    );
+    /**
+     * Writes the peptide evidences of the given peptide.
+     *
+     * @param peptideKey the key of the peptide
+     * @param firstPeptideEvidence the number of peptide evidences written
+     * before this peptide
+     */
+    private void writePeptideEvidences(
+            long peptideKey,
+            int firstPeptideEvidence
+    ) {
 
-                    if (aaAfter.length() == 0) {
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+        Peptide peptide = peptideMatch.getPeptide();
+        int peptideEvidenceCounter = firstPeptideEvidence;
+        int nAa = 1;
 
-                        aaAfter = "-";
+        // get the possible proteins
+        TreeMap<String, int[]> proteinMapping = peptide.getProteinMapping();
 
-                    }
+        // iterate the possible proteins
+        for (Entry<String, int[]> entry : proteinMapping.entrySet()) {
 
-                    int peptideStart = index;
-                    int peptideEnd = index + peptide.getSequence().length();
+            String accession = entry.getKey();
+            int[] indexes = entry.getValue();
 
-                    String pepEvidenceKey = getPeptideEvidenceKey(accession, peptideStart, peptideKey);
+            for (int index : indexes) {
 
-                    StringBuilder pepEvidenceValueBuilder = new StringBuilder();
-                    pepEvidenceValueBuilder.append("PepEv_")
-                            .append(++peptideEvidenceCounter);
-                    String pepEvidenceValue = pepEvidenceValueBuilder.toString();
+                String aaBefore = PeptideUtils.getAaBefore(
+                        peptide,
+                        accession,
+                        index,
+                        nAa,
+                        sequenceProvider
+                );
 
-                    pepEvidenceIds.put(pepEvidenceKey, pepEvidenceValue);
+                if (aaBefore.length() == 0) {
 
-                    writer.write(getCurrentTabSpace());
-                    writer.write("<PeptideEvidence isDecoy=\"");
-                    writer.write(
-                            Boolean.toString(
-                                    PeptideUtils.isDecoy(
-                                            peptideMatch.getPeptide(),
-                                            sequenceProvider
-                                    )
-                            )
-                    );
-                    writer.write("\" pre=\"");
-                    writer.write(aaBefore);
-                    writer.write("\" post=\"");
-                    writer.write(aaAfter);
-                    writer.write("\" start=\"");
-                    writer.write(Integer.toString(peptideStart + 1));
-                    writer.write("\" end=\"");
-                    writer.write(Integer.toString(peptideEnd + 1));
-                    writer.write("\" peptide_ref=\"");
-                    writer.write(Long.toString(peptideKey));
-                    writer.write("\" dBSequence_ref=\"");
-                    writer.write(accession);
-                    writer.write("\" id=\"");
-                    writer.write(pepEvidenceValue);
-                    writer.write("\" />");
-                    writer.newLine();
+                    aaBefore = "-";
 
                 }
-            }
 
-            waitingHandler.increasePrimaryProgressCounter();
+                String aaAfter = PeptideUtils.getAaAfter(
+                        peptide,
+                        accession,
+                        index,
+                        nAa,
+                        sequenceProvider
+                );
 
-            if (waitingHandler.isRunCanceled()) {
+                if (aaAfter.length() == 0) {
 
-                break;
+                    aaAfter = "-";
 
-            }
-        }
+                }
 
-        tabCounter--;
-        writer.write(getCurrentTabSpace());
-        writer.write("</SequenceCollection>");
-        writer.newLine();
+                int peptideStart = index;
+                int peptideEnd = index + peptide.getSequence().length();
+
+                String pepEvidenceKey = getPeptideEvidenceKey(accession, peptideStart, peptideKey);
+
+                StringBuilder pepEvidenceValueBuilder = new StringBuilder();
+                pepEvidenceValueBuilder.append("PepEv_")
+                        .append(++peptideEvidenceCounter);
+                String pepEvidenceValue = pepEvidenceValueBuilder.toString();
 
+                pepEvidenceIds.put(pepEvidenceKey, pepEvidenceValue);
+
+                writer.write(getCurrentTabSpace());
+                writer.write("<PeptideEvidence isDecoy=\"");
+                writer.write(
+                        Boolean.toString(
+                                PeptideUtils.isDecoy(
+                                        peptideMatch.getPeptide(),
+                                        sequenceProvider
+                                )
+                        )
+                );
+                writer.write("\" pre=\"");
+                writer.write(aaBefore);
+                writer.write("\" post=\"");
+                writer.write(aaAfter);
+                writer.write("\" start=\"");
+                writer.write(Integer.toString(peptideStart + 1));
+                writer.write("\" end=\"");
+                writer.write(Integer.toString(peptideEnd + 1));
+                writer.write("\" peptide_ref=\"");
+                writer.write(Long.toString(peptideKey));
+                writer.write("\" dBSequence_ref=\"");
+                writer.write(accession);
+                writer.write("\" id=\"");
+                writer.write(pepEvidenceValue);
+                writer.write("\" />");
+                writer.newLine();
+
+            }
+        }
     }
 
     /**
@@ -1037,13 +1204,13 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<AnalysisCollection>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<SpectrumIdentification spectrumIdentificationList_ref=\"SIL_1\" ");
         writer.write("spectrumIdentificationProtocol_ref=\"SearchProtocol_1\" id=\"SpecIdent_1\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // iterate the spectrum files and add the file name refs
         for (String spectrumFileNameWithoutExtension : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
@@ -1060,7 +1227,7 @@ public class MzIdentMLExport {
         writer.write("<SearchDatabaseRef searchDatabase_ref=\"SearchDB_1\"/>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</SpectrumIdentification>");
         writer.newLine();
@@ -1072,17 +1239,17 @@ public class MzIdentMLExport {
         writer.write("proteinDetectionList_ref=\"Protein_groups\" id=\"PD_1\">");
         writer.newLine();
 
-        tabCounter++;
+        writer.increaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("<InputSpectrumIdentifications spectrumIdentificationList_ref=\"SIL_1\"/>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</ProteinDetection>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AnalysisCollection>");
         writer.newLine();
@@ -1097,23 +1264,23 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<AnalysisProtocolCollection>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // add spectrum identification protocol
         writer.write(getCurrentTabSpace());
         writer.write("<SpectrumIdentificationProtocol analysisSoftware_ref=\"ID_software\" id=\"SearchProtocol_1\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // the search type
         writer.write(getCurrentTabSpace());
         writer.write("<SearchType>");
         writer.newLine();
 
-        tabCounter++;
+        writer.increaseIndent();
         writeCvTerm(new CvTerm("PSI-MS", "MS:1001083", "ms-ms search", null));
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</SearchType>");
         writer.newLine();
@@ -1124,7 +1291,7 @@ public class MzIdentMLExport {
         writer.write("<AdditionalSearchParams>");
         writer.newLine();
 
-        tabCounter++;
+        writer.increaseIndent();
         writeCvTerm(
                 new CvTerm(
                         "PSI-MS",
@@ -1188,7 +1355,7 @@ public class MzIdentMLExport {
         }
 
         // @TODO: list all search parameters from the search engines used?
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AdditionalSearchParams>");
         writer.newLine();
@@ -1197,7 +1364,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<ModificationParams>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // create the ptm index map
         switch (mzIdentMLVersion) {
@@ -1267,7 +1434,7 @@ public class MzIdentMLExport {
             writer.write(Boolean.toString(searchParameters.getModificationParameters().getFixedModifications().contains(modName)));
             writer.write("\" >");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             // add modification specificity
             if (modificationType != ModificationType.modaa) {
@@ -1275,7 +1442,7 @@ public class MzIdentMLExport {
                 writer.write(getCurrentTabSpace());
                 writer.write("<SpecificityRules>");
                 writer.newLine();
-                tabCounter++;
+                writer.increaseIndent();
 
                 switch (modificationType) {
 
@@ -1331,7 +1498,7 @@ public class MzIdentMLExport {
                         break;
                 }
 
-                tabCounter--;
+                writer.decreaseIndent();
                 writer.write(getCurrentTabSpace());
                 writer.write("</SpecificityRules>");
                 writer.newLine();
@@ -1397,14 +1564,14 @@ public class MzIdentMLExport {
                     throw new UnsupportedOperationException("mzIdentML version " + mzIdentMLVersion.name + " not supported.");
             }
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</SearchModification>");
             writer.newLine();
 
         }
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</ModificationParams>");
         writer.newLine();
@@ -1418,17 +1585,17 @@ public class MzIdentMLExport {
             writer.write("<Enzymes independent=\"false\">");
             writer.newLine();
 
-            tabCounter++;
+            writer.increaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("<Enzyme name=\"unspecific cleavage\">");
             writer.newLine();
 
-            tabCounter++;
+            writer.increaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("<EnzymeName>");
             writer.newLine();
 
-            tabCounter++;
+            writer.increaseIndent();
             CvTerm enzymeCvTerm = new CvTerm(
                     "PSI-MS",
                     "MS:1001091",
@@ -1437,12 +1604,12 @@ public class MzIdentMLExport {
             );
             writeCvTerm(enzymeCvTerm);
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</EnzymeName>");
             writer.newLine();
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</Enzyme>");
             writer.newLine();
@@ -1452,17 +1619,17 @@ public class MzIdentMLExport {
             writer.write(getCurrentTabSpace());
             writer.write("<Enzymes independent=\"false\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writer.write(getCurrentTabSpace());
             writer.write("<Enzyme name=\"NoEnzyme\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writer.write(getCurrentTabSpace());
             writer.write("<EnzymeName>");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             CvTerm enzymeCvTerm = new CvTerm(
                     "PSI-MS",
@@ -1472,12 +1639,12 @@ public class MzIdentMLExport {
             );
             writeCvTerm(enzymeCvTerm);
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</EnzymeName>");
             writer.newLine();
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</Enzyme>");
             writer.newLine();
@@ -1491,7 +1658,7 @@ public class MzIdentMLExport {
             writer.write(Boolean.toString(enzymes.size() > 1));
             writer.write("\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             for (Enzyme enzyme : enzymes) {
 
@@ -1509,13 +1676,13 @@ public class MzIdentMLExport {
                 writer.write(enzyme.getName());
                 writer.write("\">");
                 writer.newLine();
-                tabCounter++;
+                writer.increaseIndent();
 
                 writer.write(getCurrentTabSpace());
                 writer.write("<EnzymeName>");
                 writer.newLine();
 
-                tabCounter++;
+                writer.increaseIndent();
                 CvTerm enzymeCvTerm = enzyme.getCvTerm();
 
                 if (enzymeCvTerm != null) {
@@ -1528,17 +1695,17 @@ public class MzIdentMLExport {
 
                 }
 
-                tabCounter--;
+                writer.decreaseIndent();
                 writer.write(getCurrentTabSpace());
                 writer.write("</EnzymeName>");
                 writer.newLine();
 
-                tabCounter--;
+                writer.decreaseIndent();
                 writer.write(getCurrentTabSpace());
                 writer.write("</Enzyme>");
                 writer.newLine();
 
-                tabCounter--;
+                writer.decreaseIndent();
 
             }
         }
@@ -1551,7 +1718,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<FragmentTolerance>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         String fragmentIonToleranceUnit;
         String unitAccession;
@@ -1594,7 +1761,7 @@ public class MzIdentMLExport {
         writer.write("\" name=\"search tolerance minus value\" />");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</FragmentTolerance>");
         writer.newLine();
@@ -1603,7 +1770,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<ParentTolerance>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         String precursorIonToleranceUnit;
         switch (searchParameters.getPrecursorAccuracyType()) {
@@ -1636,7 +1803,7 @@ public class MzIdentMLExport {
         writer.write(Double.toString(searchParameters.getPrecursorAccuracy()));
         writer.write("\" name=\"search tolerance minus value\" />");
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.newLine();
         writer.write(getCurrentTabSpace());
         writer.write("</ParentTolerance>");
@@ -1646,7 +1813,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Threshold>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         boolean targetDecoy = identificationParameters.getFastaParameters().isTargetDecoy();
 
@@ -1808,12 +1975,12 @@ public class MzIdentMLExport {
             // @TODO: match quality thresholds?? some are per file...
         }
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Threshold>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</SpectrumIdentificationProtocol>");
         writer.newLine();
@@ -1822,18 +1989,18 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<ProteinDetectionProtocol analysisSoftware_ref=\"ID_software\" id=\"PeptideShaker_1\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
 //        br.write(getCurrentTabSpace() + "<AnalysisParams>" + lineBreak);
-//        tabCounter++;
+//        writer.increaseIndent();
         // @TODO: add cv terms? (children of MS:1001302)
-//        tabCounter--;
+//        writer.decreaseIndent();
 //        br.write(getCurrentTabSpace() + "</AnalysisParams>" + lineBreak);
         // protein level threshold
         writer.write(getCurrentTabSpace());
         writer.write("<Threshold>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         if (!targetDecoy) {
 
@@ -1909,17 +2076,17 @@ public class MzIdentMLExport {
             }
         }
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Threshold>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</ProteinDetectionProtocol>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AnalysisProtocolCollection>");
         writer.newLine();
@@ -1934,12 +2101,12 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<DataCollection>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeInputFileDetails();
         writeDataAnalysis();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</DataCollection>");
         writer.newLine();
@@ -1954,37 +2121,34 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<AnalysisData>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<SpectrumIdentificationList id=\"SIL_1\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeFragmentationTable();
 
-        int psmCount = 0;
-
-        // iterate the PSMs
-        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(waitingHandler);
-
-        SpectrumMatch spectrumMatch;
-        while ((spectrumMatch = psmIterator.next()) != null) {
-
-            writeSpectrumIdentificationResult(
-                    spectrumMatch.getSpectrumFile(),
-                    spectrumMatch.getSpectrumTitle(),
-                    ++psmCount
-            );
-
-            waitingHandler.increasePrimaryProgressCounter();
+        // iterate the PSMs in the order of the spectrum files
+        long[] spectrumKeys = new SpectrumMatchKeysQueue(identification, spectrumProvider).getKeys();
 
-            if (waitingHandler.isRunCanceled()) {
+        writer.writeChunks(
+                spectrumKeys.length,
+                CHUNK_SIZE,
+                i -> {
 
-                break;
+                    SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKeys[i]);
 
-            }
-        }
+                    writeSpectrumIdentificationResult(
+                            spectrumMatch.getSpectrumFile(),
+                            spectrumMatch.getSpectrumTitle(),
+                            i + 1
+                    );
+                },
+                pool,
+                waitingHandler
+        );
 
         if (waitingHandler.isRunCanceled()) {
 
@@ -1993,14 +2157,14 @@ public class MzIdentMLExport {
         }
 
         //writeCvTerm(new CvTerm("PSI-MS", "MS:1002439", "final PSM list", null)); // @TODO: add children of MS:1001184 (search statistics)?
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</SpectrumIdentificationList>");
         writer.newLine();
 
         writeProteinDetectionList();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</AnalysisData>");
         writer.newLine();
@@ -2016,219 +2180,224 @@ public class MzIdentMLExport {
         writer.write("<ProteinDetectionList id=\"Protein_groups\">");
         writer.newLine();
 
-        tabCounter++;
+        writer.increaseIndent();
 
-        int groupCpt = 0;
+        long[] proteinKeys = identification.getProteinIdentification().stream()
+                .mapToLong(Long::longValue)
+                .toArray();
 
-        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(waitingHandler);
+        writer.writeChunks(
+                proteinKeys.length,
+                CHUNK_SIZE,
+                i -> writeProteinAmbiguityGroup(proteinKeys[i], i),
+                pool,
+                waitingHandler
+        );
 
-        ProteinMatch proteinMatch;
-        while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+        writeCvTerm(
+                new CvTerm(
+                        "PSI-MS",
+                        "MS:1002404",
+                        "count of identified proteins",
+                        Integer.toString(
+                                identificationFeaturesGenerator.getNValidatedProteins()
+                        )
+                )
+        );
+        // @TODO: add children of MS:1001184 - search statistics? (date / time search performed, number of molecular hypothesis considered, search time taken)
 
-            long proteinGroupKey = proteinMatch.getKey();
+        writer.decreaseIndent();
+        writer.write(getCurrentTabSpace());
+        writer.write("</ProteinDetectionList>");
+        writer.newLine();
 
-            String proteinGroupId = "PAG_" + groupCpt++;
+    }
 
-            writer.write(getCurrentTabSpace());
-            writer.write("<ProteinAmbiguityGroup id=\"");
-            writer.write(proteinGroupId);
-            writer.write("\">");
-            writer.newLine();
-            tabCounter++;
+    /**
+     * Writes a protein ambiguity group.
+     *
+     * @param proteinKey The key of the protein match.
+     * @param groupIndex The index of the group.
+     */
+    private void writeProteinAmbiguityGroup(
+            long proteinKey,
+            int groupIndex
+    ) {
 
-            PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
 
-            String[] accessions = proteinMatch.getAccessions();
-            String mainAccession = proteinMatch.getLeadingAccession();
+        String proteinGroupId = "PAG_" + groupIndex;
 
-            for (int j = 0; j < accessions.length; j++) {
+        writer.write(getCurrentTabSpace());
+        writer.write("<ProteinAmbiguityGroup id=\"");
+        writer.write(proteinGroupId);
+        writer.write("\">");
+        writer.newLine();
+        writer.increaseIndent();
 
-                String accession = accessions[j];
+        PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
 
-                writer.write(getCurrentTabSpace());
-                writer.write("<ProteinDetectionHypothesis id=\"");
-                writer.write(proteinGroupId);
-                writer.write("_");
-                writer.write(Integer.toString(j + 1));
-                writer.write("\" dBSequence_ref=\"");
-                writer.write(accession);
-                writer.write("\" passThreshold=\"");
-                writer.write(Boolean.toString(psParameter.getMatchValidationLevel().isValidated()));
-                writer.write("\">");
-                writer.newLine();
-                tabCounter++;
+        String[] accessions = proteinMatch.getAccessions();
+        String mainAccession = proteinMatch.getLeadingAccession();
 
-                long[] peptideMatches = proteinMatch.getPeptideMatchesKeys();
-                PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(peptideMatches, waitingHandler);
-                PeptideMatch peptideMatch;
+        for (int j = 0; j < accessions.length; j++) {
 
-                while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+            String accession = accessions[j];
 
-                    long peptideKey = peptideMatch.getKey();
-                    Peptide peptide = peptideMatch.getPeptide();
+            writer.write(getCurrentTabSpace());
+            writer.write("<ProteinDetectionHypothesis id=\"");
+            writer.write(proteinGroupId);
+            writer.write("_");
+            writer.write(Integer.toString(j + 1));
+            writer.write("\" dBSequence_ref=\"");
+            writer.write(accession);
+            writer.write("\" passThreshold=\"");
+            writer.write(Boolean.toString(psParameter.getMatchValidationLevel().isValidated()));
+            writer.write("\">");
+            writer.newLine();
+            writer.increaseIndent();
 
-                    int[] indexes = peptide.getProteinMapping().get(accession);
+            for (long peptideKey : proteinMatch.getPeptideMatchesKeys()) {
 
-                    for (int index : indexes) {
+                PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+                Peptide peptide = peptideMatch.getPeptide();
 
-                        String pepEvidenceKey = getPeptideEvidenceKey(accession, index, peptideKey);
-                        String peptideEvidenceId = pepEvidenceIds.get(pepEvidenceKey);
+                int[] indexes = peptide.getProteinMapping().get(accession);
 
-                        if (peptideEvidenceId != null) {
+                for (int index : indexes) {
 
-                            writer.write(getCurrentTabSpace());
-                            writer.write("<PeptideHypothesis peptideEvidence_ref=\"");
-                            writer.write(peptideEvidenceId);
-                            writer.write("\">");
-                            writer.newLine();
-                            tabCounter++;
+                    String pepEvidenceKey = getPeptideEvidenceKey(accession, index, peptideKey);
+                    String peptideEvidenceId = pepEvidenceIds.get(pepEvidenceKey);
 
-                            for (long spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
+                    if (peptideEvidenceId != null) {
 
-                                writer.write(getCurrentTabSpace());
-                                writer.write("<SpectrumIdentificationItemRef spectrumIdentificationItem_ref=\"");
-                                writer.write(spectrumIds.get(spectrumKey));
-                                writer.write("\"/>");
-                                writer.newLine();
+                        writer.write(getCurrentTabSpace());
+                        writer.write("<PeptideHypothesis peptideEvidence_ref=\"");
+                        writer.write(peptideEvidenceId);
+                        writer.write("\">");
+                        writer.newLine();
+                        writer.increaseIndent();
 
-                            }
+                        for (long spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
 
-                            tabCounter--;
                             writer.write(getCurrentTabSpace());
-                            writer.write("</PeptideHypothesis>");
+                            writer.write("<SpectrumIdentificationItemRef spectrumIdentificationItem_ref=\"");
+                            writer.write(spectrumIds.get(spectrumKey));
+                            writer.write("\"/>");
                             writer.newLine();
 
-                        } else {
+                        }
 
-                            throw new IllegalArgumentException("No peptide evidence id found for key '" + pepEvidenceKey + "'.");
+                        writer.decreaseIndent();
+                        writer.write(getCurrentTabSpace());
+                        writer.write("</PeptideHypothesis>");
+                        writer.newLine();
 
-                        }
-                    }
-                }
+                    } else {
 
-                // add main protein cv terms
-                if (accession.equalsIgnoreCase(mainAccession)) {
+                        throw new IllegalArgumentException("No peptide evidence id found for key '" + pepEvidenceKey + "'.");
 
-                    writeCvTerm(
-                            new CvTerm(
-                                    "PSI-MS",
-                                    "MS:1002403",
-                                    "group representative",
-                                    null
-                            )
-                    );
+                    }
                 }
+            }
+
+            // add main protein cv terms
+            if (accession.equalsIgnoreCase(mainAccession)) {
 
                 writeCvTerm(
                         new CvTerm(
                                 "PSI-MS",
-                                "MS:1002401",
-                                "leading protein",
+                                "MS:1002403",
+                                "group representative",
                                 null
                         )
                 );
-
-                // add protein coverage cv term - main protein only
-                if (accession.equalsIgnoreCase(mainAccession)) {
-
-                    double validatedCoverage = identificationFeaturesGenerator.getValidatedSequenceCoverage(proteinGroupKey);
-                    writeCvTerm(
-                            new CvTerm(
-                                    "PSI-MS",
-                                    "MS:1001093",
-                                    "sequence coverage",
-                                    Double.toString(
-                                            Util.roundDouble(
-                                                    validatedCoverage,
-                                                    CONFIDENCE_DECIMALS
-                                            )
-                                    )
-                            )
-                    );
-                }
-
-                tabCounter--;
-                writer.write(getCurrentTabSpace());
-                writer.write("</ProteinDetectionHypothesis>");
-                writer.newLine();
-
             }
 
-            // add protein group cv terms
-            writeCvTerm(
-                    new CvTerm(
-                            "PSI-MS",
-                            "MS:1002470",
-                            "PeptideShaker protein group score",
-                            Double.toString(
-                                    Util.roundDouble(
-                                            psParameter.getTransformedScore(),
-                                            CONFIDENCE_DECIMALS
-                                    )
-                            )
-                    )
-            );
             writeCvTerm(
                     new CvTerm(
                             "PSI-MS",
-                            "MS:1002471",
-                            "PeptideShaker protein group confidence",
-                            Double.toString(
-                                    Util.roundDouble(
-                                            psParameter.getConfidence(),
-                                            CONFIDENCE_DECIMALS
-                                    )
-                            )
-                    )
-            );
-            writeCvTerm(
-                    new CvTerm(
-                            "PSI-MS",
-                            "MS:1002542",
-                            "PeptideShaker protein confidence type",
-                            psParameter.getMatchValidationLevel().getName()
-                    )
-            );
-            writeCvTerm(
-                    new CvTerm(
-                            "PSI-MS",
-                            "MS:1002415",
-                            "protein group passes threshold",
-                            Boolean.toString(
-                                    psParameter.getMatchValidationLevel().isValidated()
-                            )
+                            "MS:1002401",
+                            "leading protein",
+                            null
                     )
             );
 
-            tabCounter--;
-            writer.write(getCurrentTabSpace());
-            writer.write("</ProteinAmbiguityGroup>");
-            writer.newLine();
-
-            waitingHandler.increasePrimaryProgressCounter();
+            // add protein coverage cv term - main protein only
+            if (accession.equalsIgnoreCase(mainAccession)) {
 
-            if (waitingHandler.isRunCanceled()) {
+                double validatedCoverage = identificationFeaturesGenerator.getValidatedSequenceCoverage(proteinKey);
+                writeCvTerm(
+                        new CvTerm(
+                                "PSI-MS",
+                                "MS:1001093",
+                                "sequence coverage",
+                                Double.toString(
+                                        Util.roundDouble(
+                                                validatedCoverage,
+                                                CONFIDENCE_DECIMALS
+                                        )
+                                )
+                        )
+                );
+            }
 
-                break;
+            writer.decreaseIndent();
+            writer.write(getCurrentTabSpace());
+            writer.write("</ProteinDetectionHypothesis>");
+            writer.newLine();
 
-            }
         }
 
+        // add protein group cv terms
         writeCvTerm(
                 new CvTerm(
                         "PSI-MS",
-                        "MS:1002404",
-                        "count of identified proteins",
-                        Integer.toString(
-                                identificationFeaturesGenerator.getNValidatedProteins()
+                        "MS:1002470",
+                        "PeptideShaker protein group score",
+                        Double.toString(
+                                Util.roundDouble(
+                                        psParameter.getTransformedScore(),
+                                        CONFIDENCE_DECIMALS
+                                )
+                        )
+                )
+        );
+        writeCvTerm(
+                new CvTerm(
+                        "PSI-MS",
+                        "MS:1002471",
+                        "PeptideShaker protein group confidence",
+                        Double.toString(
+                                Util.roundDouble(
+                                        psParameter.getConfidence(),
+                                        CONFIDENCE_DECIMALS
+                                )
+                        )
+                )
+        );
+        writeCvTerm(
+                new CvTerm(
+                        "PSI-MS",
+                        "MS:1002542",
+                        "PeptideShaker protein confidence type",
+                        psParameter.getMatchValidationLevel().getName()
+                )
+        );
+        writeCvTerm(
+                new CvTerm(
+                        "PSI-MS",
+                        "MS:1002415",
+                        "protein group passes threshold",
+                        Boolean.toString(
+                                psParameter.getMatchValidationLevel().isValidated()
                         )
                 )
         );
-        // @TODO: add children of MS:1001184 - search statistics? (date / time search performed, number of molecular hypothesis considered, search time taken)
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
-        writer.write("</ProteinDetectionList>");
+        writer.write("</ProteinAmbiguityGroup>");
         writer.newLine();
 
     }
@@ -2256,16 +2425,28 @@ public class MzIdentMLExport {
 
             String spectrumIdentificationResultItemKey = "SIR_" + spectrumMatchIndex;
 
+            int spectrumIndex = SpectrumTitleIndex.getIndex(
+                    spectrumProvider,
+                    spectrumFile,
+                    spectrumTitle
+            );
+
+            if (spectrumIndex == -1) {
+
+                throw new IllegalArgumentException("Spectrum " + spectrumTitle + " not found in " + spectrumFile + ".");
+
+            }
+
             writer.write(getCurrentTabSpace());
             writer.write("<SpectrumIdentificationResult spectraData_ref=\"");
             writer.write(spectrumFile);
             writer.write("\" spectrumID=\"index=");
-            writer.write(spectrumTitleToIndexMap.get(spectrumFile).get(spectrumTitle).toString());
+            writer.write(Integer.toString(spectrumIndex));
             writer.write("\" id=\"");
             writer.write(spectrumIdentificationResultItemKey);
             writer.write("\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             PSParameter psmParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
@@ -2292,7 +2473,7 @@ public class MzIdentMLExport {
             writer.write(spectrumIdentificationItemKey);
             writer.write("\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             // add the peptide evidence references
             // get all the possible parent proteins
@@ -2324,28 +2505,19 @@ public class MzIdentMLExport {
 
                 // add the fragment ion annotation
                 AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
-                Spectrum spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
                 ModificationParameters modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 SequenceMatchingParameters modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                IonMatch[] matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         bestPeptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                IonMatch[] matches = peptideSpectrumAnnotator.getSpectrumAnnotation(
-                        annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        bestPeptideAssumption.getPeptide(),
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
 
                 // organize the fragment ions by ion type
@@ -2399,7 +2571,7 @@ public class MzIdentMLExport {
                     writer.write(getCurrentTabSpace());
                     writer.write("<Fragmentation>");
                     writer.newLine();
-                    tabCounter++;
+                    writer.increaseIndent();
 
                     // add the fragment ions
                     for (String fragmentType : allFragmentIons.keySet()) {
@@ -2466,7 +2638,7 @@ public class MzIdentMLExport {
                                 writer.write(indexes.toString().trim());
                                 writer.write("\">");
                                 writer.newLine();
-                                tabCounter++;
+                                writer.increaseIndent();
 
                                 writer.write(getCurrentTabSpace());
                                 writer.write("<FragmentArray measure_ref=\"Measure_MZ\" values=\"");
@@ -2508,7 +2680,7 @@ public class MzIdentMLExport {
                                     }
                                 }
 
-                                tabCounter--;
+                                writer.decreaseIndent();
                                 writer.write(getCurrentTabSpace());
                                 writer.write("</IonType>");
                                 writer.newLine();
@@ -2517,7 +2689,7 @@ public class MzIdentMLExport {
                         }
                     }
 
-                    tabCounter--;
+                    writer.decreaseIndent();
                     writer.write(getCurrentTabSpace());
                     writer.write("</Fragmentation>");
                     writer.newLine();
@@ -2981,7 +3153,7 @@ public class MzIdentMLExport {
                             psmParameter.getMatchValidationLevel().getName()
                     )
             );
-            tabCounter--;
+            writer.decreaseIndent();
 
             writer.write(getCurrentTabSpace());
             writer.write("</SpectrumIdentificationItem>");
@@ -3010,7 +3182,7 @@ public class MzIdentMLExport {
 
             }
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</SpectrumIdentificationResult>");
             writer.newLine();
@@ -3026,19 +3198,19 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<FragmentationTable>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         // mz
         writer.write(getCurrentTabSpace());
         writer.write("<Measure id=\"Measure_MZ\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1001225\" name=\"product ion m/z\" unitCvRef=\"PSI-MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\" />");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Measure>");
         writer.newLine();
@@ -3047,13 +3219,13 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Measure id=\"Measure_Int\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1001226\" name=\"product ion intensity\" unitCvRef=\"PSI-MS\" unitAccession=\"MS:1000131\" unitName=\"number of detector counts\"/>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Measure>");
         writer.newLine();
@@ -3062,18 +3234,18 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Measure id=\"Measure_Error\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<cvParam cvRef=\"PSI-MS\" accession=\"MS:1001227\" name=\"product ion m/z error\" unitCvRef=\"PSI-MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Measure>");
         writer.newLine();
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</FragmentationTable>");
         writer.newLine();
@@ -3087,7 +3259,7 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<Inputs>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         int sourceFileCounter = 1;
 
@@ -3107,12 +3279,12 @@ public class MzIdentMLExport {
             writer.write(Integer.toString(sourceFileCounter++));
             writer.write("\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writer.write(getCurrentTabSpace());
             writer.write("<FileFormat>");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             String idFileName = IoUtil.getFileName(idFile);
             HashMap<String, ArrayList<String>> algorithms = projectDetails.getIdentificationAlgorithmsForFile(idFileName);
@@ -3218,12 +3390,12 @@ public class MzIdentMLExport {
             }
 
             // @TODO: add children of MS:1000561 - data file checksum type?
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</FileFormat>");
             writer.newLine();
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</SourceFile>");
             writer.newLine();
@@ -3238,12 +3410,12 @@ public class MzIdentMLExport {
         writer.write(fastaFile.toURI().toString());
         writer.write("\" id=\"" + "SearchDB_1\">");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("<FileFormat>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeCvTerm(
                 new CvTerm(
@@ -3253,7 +3425,7 @@ public class MzIdentMLExport {
                         null
                 )
         );
-        tabCounter--;
+        writer.decreaseIndent();
 
         writer.write(getCurrentTabSpace());
         writer.write("</FileFormat>");
@@ -3262,11 +3434,11 @@ public class MzIdentMLExport {
         writer.write(getCurrentTabSpace());
         writer.write("<DatabaseName>");
         writer.newLine();
-        tabCounter++;
+        writer.increaseIndent();
 
         writeUserParam(fastaFile.getName()); // @TODO: add database type? children of MS:1001013 - database name??? for example: MS:1001104 (database UniProtKB/Swiss-Prot)
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</DatabaseName>");
         writer.newLine();
@@ -3280,7 +3452,7 @@ public class MzIdentMLExport {
                 )
         );
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</SearchDatabase>");
         writer.newLine();
@@ -3300,12 +3472,12 @@ public class MzIdentMLExport {
             writer.write(spectrumFile.getName());
             writer.write("\">");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writer.write(getCurrentTabSpace());
             writer.write("<FileFormat>");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writeCvTerm(
                     new CvTerm(
@@ -3316,7 +3488,7 @@ public class MzIdentMLExport {
                     )
             );
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</FileFormat>");
             writer.newLine();
@@ -3324,7 +3496,7 @@ public class MzIdentMLExport {
             writer.write(getCurrentTabSpace());
             writer.write("<SpectrumIDFormat>");
             writer.newLine();
-            tabCounter++;
+            writer.increaseIndent();
 
             writeCvTerm(
                     new CvTerm(
@@ -3335,19 +3507,19 @@ public class MzIdentMLExport {
                     )
             );
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</SpectrumIDFormat>");
             writer.newLine();
 
-            tabCounter--;
+            writer.decreaseIndent();
             writer.write(getCurrentTabSpace());
             writer.write("</SpectraData>");
             writer.newLine();
 
         }
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write(getCurrentTabSpace());
         writer.write("</Inputs>");
         writer.newLine();
@@ -3392,7 +3564,7 @@ public class MzIdentMLExport {
 
         }
 
-        tabCounter++;
+        writer.increaseIndent();
 
     }
 
@@ -3401,7 +3573,7 @@ public class MzIdentMLExport {
      */
     private void writeMzIdentMLEndTag() {
 
-        tabCounter--;
+        writer.decreaseIndent();
         writer.write("</MzIdentML>");
 
     }
@@ -3414,6 +3586,8 @@ public class MzIdentMLExport {
      */
     private String getCurrentTabSpace() {
 
+        int tabCounter = writer.getIndent();
+
         switch (tabCounter) {
             case 0:
                 return "";
@@ -359,6 +359,156 @@ public class PSExportFactory implements ExportFactory {
     )
             throws IOException {
 
+        writeExport(
+                exportScheme,
+                destinationFile,
+                exportFormat,
+                gzip,
+                experiment,
+                projectDetails,
+                identification,
+                identificationFeaturesGenerator,
+                geneMaps,
+                proteinKeys,
+                peptideKeys,
+                psmKeys,
+                nSurroundingAA,
+                identificationParameters,
+                sequenceProvider,
+                proteinDetailsProvider,
+                spectrumProvider,
+                spectrumCountingPreferences,
+                1,
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Writes the desired export in text format. If an argument is not needed,
+     * provide null (at your own risks).
+     *
+     * @param exportScheme the scheme of the export
+     * @param destinationFile the destination file
+     * @param exportFormat the format of export to use
+     * @param gzip if true export text as gzipped file
+     * @param experiment the experiment corresponding to this project (mandatory
+     * for the Project section)
+     * @param projectDetails the project details (mandatory for the Project
+     * section)
+     * @param identification the identification (mandatory for the Protein,
+     * Peptide and PSM sections)
+     * @param identificationFeaturesGenerator the identification features
+     * generator (mandatory for the Protein, Peptide and PSM sections)
+     * @param geneMaps the gene maps
+     * @param proteinKeys the protein keys to export (mandatory for the Protein
+     * section)
+     * @param peptideKeys the peptide keys to export (mandatory for the Peptide
+     * section)
+     * @param psmKeys the keys of the PSMs to export (mandatory for the PSM
+     * section)
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * (mandatory for the Peptide section)
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to compute the lines of the
+     * Protein, Peptide and PSM sections
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writeExport(
+            ExportScheme exportScheme,
+            File destinationFile,
+            ExportFormat exportFormat,
+            boolean gzip,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            long[] proteinKeys,
+            long[] peptideKeys,
+            long[] psmKeys,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
+            WaitingHandler waitingHandler
+    )
+            throws IOException {
+
+        ExportWriter exportWriter = getExportWriter(
+                exportScheme,
+                destinationFile,
+                exportFormat,
+                gzip
+        );
+
+        try {
+
+            for (String sectionName : exportScheme.getSections()) {
+
+                writeSection(
+                        sectionName,
+                        exportScheme,
+                        exportWriter,
+                        experiment,
+                        projectDetails,
+                        identification,
+                        identificationFeaturesGenerator,
+                        geneMaps,
+                        proteinKeys,
+                        peptideKeys,
+                        psmKeys,
+                        nSurroundingAA,
+                        identificationParameters,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        spectrumCountingPreferences,
+                        nThreads,
+                        waitingHandler
+                );
+
+            }
+
+        } finally {
+
+            exportWriter.close();
+
+        }
+    }
+
+    /**
+     * Returns the writer for the given export, styled for the report and
+     * with the main title written.
+     *
+     * @param exportScheme the scheme of the export
+     * @param destinationFile the destination file
+     * @param exportFormat the format of export to use
+     * @param gzip if true export text as gzipped file
+     *
+     * @return the writer for the given export
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static ExportWriter getExportWriter(
+            ExportScheme exportScheme,
+            File destinationFile,
+            ExportFormat exportFormat,
+            boolean gzip
+    ) throws IOException {
+
         ExportWriter exportWriter = ExportWriter.getExportWriter(
                 exportFormat,
                 destinationFile,
@@ -377,223 +527,308 @@ public class PSExportFactory implements ExportFactory {
 
         exportWriter.writeMainTitle(exportScheme.getMainTitle());
 
-        for (String sectionName : exportScheme.getSections()) {
+        return exportWriter;
 
-            if (exportScheme.isIncludeSectionTitles()) {
+    }
 
-                exportWriter.startNewSection(sectionName);
+    /**
+     * Starts a new section in the given writer and writes the section. If an
+     * argument is not needed, provide null (at your own risks).
+     *
+     * @param sectionName the name of the section
+     * @param exportScheme the scheme of the export
+     * @param exportWriter the writer of the export
+     * @param experiment the experiment corresponding to this project (mandatory
+     * for the Project section)
+     * @param projectDetails the project details (mandatory for the Project
+     * section)
+     * @param identification the identification (mandatory for the Protein,
+     * Peptide and PSM sections)
+     * @param identificationFeaturesGenerator the identification features
+     * generator (mandatory for the Protein, Peptide and PSM sections)
+     * @param geneMaps the gene maps
+     * @param proteinKeys the protein keys to export (mandatory for the Protein
+     * section)
+     * @param peptideKeys the peptide keys to export (mandatory for the Peptide
+     * section)
+     * @param psmKeys the keys of the PSMs to export (mandatory for the PSM
+     * section)
+     * @param nSurroundingAA the number of surrounding amino acids to export
+     * (mandatory for the Peptide section)
+     * @param identificationParameters the identification parameters
+     * @param sequenceProvider a provider for the protein sequences
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumCountingPreferences the spectrum counting preferences
+     * (mandatory for the spectrum counting section)
+     * @param nThreads the number of threads to use to compute the lines of the
+     * Protein, Peptide and PSM sections
+     * @param waitingHandler the waiting handler
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while reading or writing to a file
+     */
+    public static void writeSection(
+            String sectionName,
+            ExportScheme exportScheme,
+            ExportWriter exportWriter,
+            String experiment,
+            ProjectDetails projectDetails,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            GeneMaps geneMaps,
+            long[] proteinKeys,
+            long[] peptideKeys,
+            long[] psmKeys,
+            int nSurroundingAA,
+            IdentificationParameters identificationParameters,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            SpectrumCountingParameters spectrumCountingPreferences,
+            int nThreads,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-            } else {
+        startNewSection(
+                sectionName,
+                exportScheme,
+                exportWriter
+        );
 
-                exportWriter.startNewSection();
+        switch (sectionName) {
 
-            }
+            case PsAnnotationFeature.type:
 
-            switch (sectionName) {
-
-                case PsAnnotationFeature.type:
-
-                    PsAnnotationSection psAnnotationSection = new PsAnnotationSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psAnnotationSection.writeSection(
-                            identificationParameters.getAnnotationParameters(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsInputFilterFeature.type:
-
-                    PsInputFilterSection psInputFilterSection = new PsInputFilterSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psInputFilterSection.writeSection(
-                            identificationParameters.getPeptideAssumptionFilter(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsPeptideFeature.type:
-
-                    PsPeptideSection psPeptideSection = new PsPeptideSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psPeptideSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            proteinDetailsProvider,
-                            spectrumProvider,
-                            identificationParameters,
-                            peptideKeys,
-                            nSurroundingAA,
-                            "",
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsProjectFeature.type:
-
-                    PsProjectSection psProjectSection = new PsProjectSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psProjectSection.writeSection(
-                            experiment,
-                            projectDetails,
-                            waitingHandler
-                    );
-                    break;
-
-                case PsProteinFeature.type:
-
-                    PsProteinSection psProteinSection = new PsProteinSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psProteinSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            proteinDetailsProvider,
-                            spectrumProvider,
-                            geneMaps,
-                            identificationParameters,
-                            proteinKeys,
-                            nSurroundingAA,
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsPsmFeature.type:
-
-                    PsPsmSection psPsmSection = new PsPsmSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psPsmSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            proteinDetailsProvider,
-                            spectrumProvider,
-                            identificationParameters,
-                            psmKeys,
-                            "",
-                            nSurroundingAA,
-                            exportScheme.isValidatedOnly(),
-                            exportScheme.isIncludeDecoy(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsIdentificationAlgorithmMatchesFeature.type:
-
-                    PsIdentificationAlgorithmMatchesSection psIdentificationAlgorithmMatchesSection = new PsIdentificationAlgorithmMatchesSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psIdentificationAlgorithmMatchesSection.writeSection(
-                            identification,
-                            identificationFeaturesGenerator,
-                            sequenceProvider,
-                            proteinDetailsProvider,
-                            spectrumProvider,
-                            identificationParameters,
-                            psmKeys,
-                            "",
-                            nSurroundingAA,
-                            waitingHandler
-                    );
-                    break;
-
-                case PsPtmScoringFeature.type:
-
-                    PsPtmScoringSection psPtmScoringSection = new PsPtmScoringSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psPtmScoringSection.writeSection(
-                            identificationParameters.getModificationLocalizationParameters(),
-                            waitingHandler
-                    );
-                    break;
-
-                case PsSearchFeature.type:
-
-                    PsSearchParametersSection psSearchParametersSection = new PsSearchParametersSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psSearchParametersSection.writeSection(
-                            identificationParameters.getSearchParameters(),
-                            projectDetails,
-                            waitingHandler
-                    );
-                    break;
-
-                case PsSpectrumCountingFeature.type:
-
-                    PsSpectrumCountingSection psSpectrumCountingSection = new PsSpectrumCountingSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    psSpectrumCountingSection.writeSection(
-                            spectrumCountingPreferences,
-                            waitingHandler
-                    );
-                    break;
-
-                case PsValidationFeature.type:
-
-                    PsValidationSection psValidationSection = new PsValidationSection(
-                            exportScheme.getExportFeatures(sectionName),
-                            exportScheme.isIndexes(),
-                            exportScheme.isHeader(),
-                            exportWriter
-                    );
-                    PSMaps psMaps = new PSMaps();
-                    psMaps = (PSMaps) identification.getUrParam(psMaps);
-                    psValidationSection.writeSection(
-                            psMaps,
-                            identificationParameters,
-                            waitingHandler
-                    );
-                    break;
-
-                default:
-                    throw new UnsupportedOperationException("Section " + sectionName + " not implemented.");
-            }
+                PsAnnotationSection psAnnotationSection = new PsAnnotationSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psAnnotationSection.writeSection(
+                        identificationParameters.getAnnotationParameters(),
+                        waitingHandler
+                );
+                break;
+
+            case PsInputFilterFeature.type:
+
+                PsInputFilterSection psInputFilterSection = new PsInputFilterSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psInputFilterSection.writeSection(
+                        identificationParameters.getPeptideAssumptionFilter(),
+                        waitingHandler
+                );
+                break;
+
+            case PsPeptideFeature.type:
+
+                PsPeptideSection psPeptideSection = new PsPeptideSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psPeptideSection.setnThreads(nThreads);
+                psPeptideSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        peptideKeys,
+                        nSurroundingAA,
+                        "",
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+                break;
+
+            case PsProjectFeature.type:
+
+                PsProjectSection psProjectSection = new PsProjectSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psProjectSection.writeSection(
+                        experiment,
+                        projectDetails,
+                        waitingHandler
+                );
+                break;
+
+            case PsProteinFeature.type:
+
+                PsProteinSection psProteinSection = new PsProteinSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psProteinSection.setnThreads(nThreads);
+                psProteinSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        geneMaps,
+                        identificationParameters,
+                        proteinKeys,
+                        nSurroundingAA,
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+                break;
+
+            case PsPsmFeature.type:
+
+                PsPsmSection psPsmSection = new PsPsmSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psPsmSection.setnThreads(nThreads);
+                psPsmSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        psmKeys,
+                        "",
+                        nSurroundingAA,
+                        exportScheme.isValidatedOnly(),
+                        exportScheme.isIncludeDecoy(),
+                        waitingHandler
+                );
+                break;
+
+            case PsIdentificationAlgorithmMatchesFeature.type:
+
+                PsIdentificationAlgorithmMatchesSection psIdentificationAlgorithmMatchesSection = new PsIdentificationAlgorithmMatchesSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psIdentificationAlgorithmMatchesSection.writeSection(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        psmKeys,
+                        "",
+                        nSurroundingAA,
+                        waitingHandler
+                );
+                break;
+
+            case PsPtmScoringFeature.type:
+
+                PsPtmScoringSection psPtmScoringSection = new PsPtmScoringSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psPtmScoringSection.writeSection(
+                        identificationParameters.getModificationLocalizationParameters(),
+                        waitingHandler
+                );
+                break;
+
+            case PsSearchFeature.type:
+
+                PsSearchParametersSection psSearchParametersSection = new PsSearchParametersSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psSearchParametersSection.writeSection(
+                        identificationParameters.getSearchParameters(),
+                        projectDetails,
+                        waitingHandler
+                );
+                break;
+
+            case PsSpectrumCountingFeature.type:
+
+                PsSpectrumCountingSection psSpectrumCountingSection = new PsSpectrumCountingSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                psSpectrumCountingSection.writeSection(
+                        spectrumCountingPreferences,
+                        waitingHandler
+                );
+                break;
+
+            case PsValidationFeature.type:
+
+                PsValidationSection psValidationSection = new PsValidationSection(
+                        exportScheme.getExportFeatures(sectionName),
+                        exportScheme.isIndexes(),
+                        exportScheme.isHeader(),
+                        exportWriter
+                );
+                PSMaps psMaps = new PSMaps();
+                psMaps = (PSMaps) identification.getUrParam(psMaps);
+                psValidationSection.writeSection(
+                        psMaps,
+                        identificationParameters,
+                        waitingHandler
+                );
+                break;
+
+            default:
+                throw new UnsupportedOperationException("Section " + sectionName + " not implemented.");
         }
+    }
 
-        exportWriter.close();
+    /**
+     * Starts a new section in the given writer, with its title if the scheme
+     * includes section titles.
+     *
+     * @param sectionName the name of the section
+     * @param exportScheme the scheme of the export
+     * @param exportWriter the writer of the export
+     *
+     * @throws IOException exception thrown whenever an IO exception occurred
+     * while writing to the file
+     */
+    public static void startNewSection(
+            String sectionName,
+            ExportScheme exportScheme,
+            ExportWriter exportWriter
+    ) throws IOException {
+
+        if (exportScheme.isIncludeSectionTitles()) {
+
+            exportWriter.startNewSection(sectionName);
+
+        } else {
+
+            exportWriter.startNewSection();
+
+        }
     }
 
     /**
@@ -0,0 +1,399 @@
+package eu.isas.peptideshaker.export;
+
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Text file writer assembling the file from chunks written in parallel. The
+ * text written outside chunks is buffered and written by the calling thread.
+ * Chunks of items are written by the threads of a pool in their own buffer,
+ * compressed by these threads if needed, and appended to the file in the
+ * order of the items. Gzipped files are hence made of multiple gzip members,
+ * which is supported by gzip readers.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelFileWriter implements AutoCloseable {
+
+    /**
+     * The size of the output buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * The number of characters over which the main buffer is written to the
+     * file.
+     */
+    private static final int MAIN_BUFFER_SIZE = 1 << 20;
+    /**
+     * The number of chunks per thread waiting to be appended to the file.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+    /**
+     * The line separator.
+     */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    /**
+     * The output stream.
+     */
+    private final OutputStream outputStream;
+    /**
+     * Boolean indicating whether the file is gzipped.
+     */
+    private final boolean gzip;
+    /**
+     * The buffer of the text written outside chunks.
+     */
+    private final Buffer mainBuffer = new Buffer(0);
+    /**
+     * The buffer of the chunk written by the current thread, null outside
+     * chunks.
+     */
+    private final ThreadLocal<Buffer> chunkBuffers = new ThreadLocal<>();
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to write
+     * @param gzip boolean indicating whether the file should be gzipped
+     */
+    public ParallelFileWriter(
+            File file,
+            boolean gzip
+    ) {
+
+        this.gzip = gzip;
+
+        try {
+
+            outputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Writes the given text.
+     *
+     * @param text the text
+     */
+    public void write(
+            String text
+    ) {
+
+        getBuffer().text.append(text);
+
+    }
+
+    /**
+     * Writes the given text followed by a new line.
+     *
+     * @param text the text
+     */
+    public void writeLine(
+            String text
+    ) {
+
+        write(text);
+        newLine();
+
+    }
+
+    /**
+     * Writes a new line.
+     */
+    public void newLine() {
+
+        Buffer buffer = getBuffer();
+        buffer.text.append(LINE_SEPARATOR);
+
+        if (buffer == mainBuffer && buffer.text.length() > MAIN_BUFFER_SIZE) {
+
+            flushMainBuffer();
+
+        }
+    }
+
+    /**
+     * Increases the indentation level.
+     */
+    public void increaseIndent() {
+
+        getBuffer().indent++;
+
+    }
+
+    /**
+     * Decreases the indentation level.
+     */
+    public void decreaseIndent() {
+
+        getBuffer().indent--;
+
+    }
+
+    /**
+     * Returns the indentation level.
+     *
+     * @return the indentation level
+     */
+    public int getIndent() {
+
+        return getBuffer().indent;
+
+    }
+
+    /**
+     * Writes items in chunks using the given pool. Chunks start at the current
+     * indentation level and are appended to the file in the order of the
+     * items. The progress of the waiting handler is increased by one per item
+     * appended, and no new chunk is started once the process is canceled.
+     *
+     * @param nItems the number of items
+     * @param chunkSize the number of items per chunk
+     * @param itemWriter the writer of an item, called with the index of the
+     * item
+     * @param pool the pool to use
+     * @param waitingHandler the waiting handler
+     */
+    public void writeChunks(
+            int nItems,
+            int chunkSize,
+            IntConsumer itemWriter,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) {
+
+        flushMainBuffer();
+
+        int indent = mainBuffer.indent;
+        int maxPending = CHUNKS_PER_THREAD * pool.getParallelism();
+        ArrayDeque<ForkJoinTask<byte[]>> pendingChunks = new ArrayDeque<>(maxPending);
+        ArrayDeque<Integer> pendingSizes = new ArrayDeque<>(maxPending);
+        int nextStart = 0;
+
+        try {
+
+            while (true) {
+
+                while (nextStart < nItems && pendingChunks.size() < maxPending && !waitingHandler.isRunCanceled()) {
+
+                    int start = nextStart;
+                    int end = Math.min(start + chunkSize, nItems);
+
+                    pendingChunks.add(
+                            pool.submit(
+                                    () -> writeChunk(start, end, indent, itemWriter)
+                            )
+                    );
+                    pendingSizes.add(end - start);
+
+                    nextStart = end;
+
+                }
+
+                if (pendingChunks.isEmpty()) {
+                    break;
+                }
+
+                outputStream.write(pendingChunks.poll().join());
+
+                for (int i = pendingSizes.poll(); i > 0; i--) {
+
+                    waitingHandler.increasePrimaryProgressCounter();
+
+                }
+            }
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        } finally {
+
+            for (ForkJoinTask<byte[]> pendingChunk : pendingChunks) {
+
+                pendingChunk.cancel(false);
+
+            }
+        }
+    }
+
+    /**
+     * Writes the items of a chunk in a new buffer and returns the buffer
+     * encoded for the file.
+     *
+     * @param start the index of the first item, inclusive
+     * @param end the index of the last item, exclusive
+     * @param indent the indentation level at the start of the chunk
+     * @param itemWriter the writer of an item
+     *
+     * @return the chunk encoded for the file
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * compressing the chunk
+     */
+    private byte[] writeChunk(
+            int start,
+            int end,
+            int indent,
+            IntConsumer itemWriter
+    ) throws IOException {
+
+        Buffer buffer = new Buffer(indent);
+
+        // the thread might be writing another chunk if it was stolen while waiting
+        Buffer previousBuffer = chunkBuffers.get();
+        chunkBuffers.set(buffer);
+
+        try {
+
+            for (int i = start; i < end; i++) {
+
+                itemWriter.accept(i);
+
+            }
+
+        } finally {
+
+            if (previousBuffer == null) {
+
+                chunkBuffers.remove();
+
+            } else {
+
+                chunkBuffers.set(previousBuffer);
+
+            }
+        }
+
+        return encode(buffer.text);
+
+    }
+
+    /**
+     * Returns the buffer to use for the current thread.
+     *
+     * @return the buffer to use for the current thread
+     */
+    private Buffer getBuffer() {
+
+        Buffer buffer = chunkBuffers.get();
+
+        return buffer == null ? mainBuffer : buffer;
+
+    }
+
+    /**
+     * Writes the main buffer to the file and empties it.
+     */
+    private void flushMainBuffer() {
+
+        if (mainBuffer.text.length() > 0) {
+
+            try {
+
+                outputStream.write(encode(mainBuffer.text));
+
+            } catch (IOException e) {
+
+                throw new RuntimeException(e);
+
+            }
+
+            mainBuffer.text.setLength(0);
+
+        }
+    }
+
+    /**
+     * Encodes the given text for the file, i.e. in UTF-8, gzipped if needed.
+     *
+     * @param text the text
+     *
+     * @return the encoded text
+     *
+     * @throws IOException exception thrown if an error occurred while
+     * compressing the text
+     */
+    private byte[] encode(
+            CharSequence text
+    ) throws IOException {
+
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        if (!gzip) {
+
+            return bytes;
+
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed, BUFFER_SIZE)) {
+
+            gzipOutputStream.write(bytes);
+
+        }
+
+        return compressed.toByteArray();
+
+    }
+
+    @Override
+    public void close() {
+
+        flushMainBuffer();
+
+        try {
+
+            outputStream.close();
+
+        } catch (IOException e) {
+
+            throw new RuntimeException(e);
+
+        }
+    }
+
+    /**
+     * Buffer of text with indentation level.
+     */
+    private static class Buffer {
+
+        /**
+         * The text.
+         */
+        private final StringBuilder text = new StringBuilder();
+        /**
+         * The indentation level.
+         */
+        private int indent;
+
+        /**
+         * Constructor.
+         *
+         * @param indent the indentation level
+         */
+        private Buffer(
+                int indent
+        ) {
+
+            this.indent = indent;
+
+        }
+    }
+}
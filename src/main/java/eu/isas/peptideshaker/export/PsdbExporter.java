@@ -14,10 +14,11 @@ import eu.isas.peptideshaker.parameters.PeptideShakerParameters;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import com.compomics.util.parameters.quantification.spectrum_counting.SpectrumCountingParameters;
 import eu.isas.peptideshaker.scoring.PSMaps;
+import eu.isas.peptideshaker.scoring.QcHistograms;
+import eu.isas.peptideshaker.utils.PeptideSequenceIndex;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesCache;
 import com.compomics.util.experiment.identification.peptide_shaker.Metrics;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
-import com.compomics.util.io.IoUtil;
 import com.compomics.util.parameters.peptide_shaker.ProjectType;
 import java.io.*;
 
@@ -112,6 +113,28 @@ public class PsdbExporter {
             if (!identification.contains(psMapsIdentKey)) {
                 identification.addObject(psMapsIdentKey, identification.getUrParam(psMaps));
             }
+
+            // add the peptide sequence index
+            PeptideSequenceIndex peptideSequenceIndex = (PeptideSequenceIndex) identification.getUrParam(PeptideSequenceIndex.dummy);
+
+            if (peptideSequenceIndex != null) {
+                if (!identification.contains(PeptideSequenceIndex.KEY)) {
+                    identification.addObject(PeptideSequenceIndex.KEY, peptideSequenceIndex);
+                } else {
+                    identification.updateObject(PeptideSequenceIndex.KEY, peptideSequenceIndex);
+                }
+            }
+
+            // add the quality control histograms
+            QcHistograms qcHistograms = (QcHistograms) identification.getUrParam(QcHistograms.dummy);
+
+            if (qcHistograms != null) {
+                if (!identification.contains(QcHistograms.KEY)) {
+                    identification.addObject(QcHistograms.KEY, qcHistograms);
+                } else {
+                    identification.updateObject(QcHistograms.KEY, qcHistograms);
+                }
+            }
             
             
             
@@ -128,7 +151,17 @@ public class PsdbExporter {
                 identification.updateObject(PeptideShakerParameters.KEY, peptideShakerParameters);
 
                 identification.getObjectsDB().lock(waitingHandler);
-                IoUtil.copyFile(identification.getObjectsDB().getDbFile(), destinationFile);
+
+                File dbFile = identification.getObjectsDB().getDbFile();
+
+                // a project opened in place is already at its destination,
+                // otherwise the project is written to a temporary file which
+                // replaces the destination, unless the destination is already
+                // up to date
+                if (!dbFile.getCanonicalFile().equals(destinationFile.getCanonicalFile())) {
+                    AtomicFileCopy.update(dbFile, destinationFile);
+                }
+
                 // @TODO: re-add when the zipping works
 //                GzUtils.gzFile(
 //                        identification.getObjectsDB().getDbFile(),
@@ -16,12 +16,12 @@ import com.compomics.util.experiment.identification.spectrum_annotation.spectrum
 import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import com.compomics.util.parameters.identification.search.ModificationParameters;
 import com.compomics.util.io.export.features.peptideshaker.PsFragmentFeature;
 import static com.compomics.util.io.export.features.peptideshaker.PsFragmentFeature.fragment_number;
 import static com.compomics.util.io.export.features.peptideshaker.PsFragmentFeature.fragment_type;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.EnumSet;
@@ -104,6 +104,8 @@ public class PsFragmentSection {
      * @param sequenceProvider The sequence provider.
      * @param spectrumProvider The spectrum provider.
      * @param identificationParameters The identification parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
      * @param linePrefix The line prefix.
      * @param waitingHandler The waiting handler.
      *
@@ -117,6 +119,7 @@ public class PsFragmentSection {
             SequenceProvider sequenceProvider,
             SpectrumProvider spectrumProvider,
             IdentificationParameters identificationParameters,
+            long annotationSettingsKey,
             String linePrefix,
             WaitingHandler waitingHandler
     ) throws IOException {
@@ -134,10 +137,6 @@ public class PsFragmentSection {
         }
 
         IonMatch[] annotations;
-        Spectrum spectrum = spectrumProvider.getSpectrum(
-                spectrumFile,
-                spectrumTitle
-        );
         AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
         ModificationParameters modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
         SequenceMatchingParameters modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
@@ -145,25 +144,17 @@ public class PsFragmentSection {
         if (spectrumIdentificationAssumption instanceof PeptideAssumption) {
 
             PeptideAssumption peptideAssumption = (PeptideAssumption) spectrumIdentificationAssumption;
-            PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
-            SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+            annotations = SpectrumAnnotationCache.getSpectrumAnnotation(
+                    annotationSettingsKey,
+                    annotationParameters,
                     spectrumFile,
                     spectrumTitle,
-                    spectrumIdentificationAssumption,
+                    peptideAssumption,
                     modificationParameters,
                     sequenceProvider,
                     modificationSequenceMatchingParameters,
-                    spectrumAnnotator
-            );
-            annotations = spectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                    specificAnnotationParameters,
-                    spectrumFile,
-                    spectrumTitle,
-                    spectrum,
-                    peptideAssumption.getPeptide(),
-                    modificationParameters,
-                    sequenceProvider,
-                    modificationSequenceMatchingParameters
+                    spectrumProvider,
+                    new PeptideSpectrumAnnotator()
             );
 
         } else if (spectrumIdentificationAssumption instanceof TagAssumption) {
@@ -186,7 +177,10 @@ public class PsFragmentSection {
                     specificAnnotationParameters,
                     spectrumFile,
                     spectrumTitle,
-                    spectrum,
+                    spectrumProvider.getSpectrum(
+                            spectrumFile,
+                            spectrumTitle
+                    ),
                     tagAssumption.getTag()
             );
 
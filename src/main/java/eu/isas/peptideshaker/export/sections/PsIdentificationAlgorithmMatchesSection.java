@@ -21,7 +21,6 @@ import com.compomics.util.io.export.ExportFeature;
 import com.compomics.util.io.export.ExportWriter;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.parameters.identification.IdentificationParameters;
-import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
@@ -32,6 +31,7 @@ import com.compomics.util.io.export.features.peptideshaker.PsIdentificationAlgor
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -73,9 +73,9 @@ public class PsIdentificationAlgorithmMatchesSection {
      */
     private final ExportWriter writer;
     /**
-     * A peptide spectrum annotator.
+     * A spectrum annotator per thread computing the lines.
      */
-    private static final PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
+    private static final ThreadLocal<PeptideSpectrumAnnotator> peptideSpectrumAnnotators = ThreadLocal.withInitial(PeptideSpectrumAnnotator::new);
 
     /**
      * Constructor.
@@ -174,6 +174,12 @@ public class PsIdentificationAlgorithmMatchesSection {
         PSParameter psParameter = new PSParameter();
         int line = 1;
 
+        long annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                identificationParameters.getAnnotationParameters(),
+                identificationParameters.getSearchParameters().getModificationParameters(),
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+        );
+
         int totalSize = identification.getNumber(SpectrumMatch.class);
 
         if (waitingHandler != null) {
@@ -242,6 +248,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                                     proteinDetailsProvider,
                                     spectrumProvider,
                                     identificationParameters,
+                                    annotationSettingsKey,
                                     linePrefix,
                                     nSurroundingAA,
                                     peptideAssumption,
@@ -275,6 +282,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                                     sequenceProvider,
                                     spectrumProvider,
                                     identificationParameters,
+                                    annotationSettingsKey,
                                     fractionPrefix,
                                     null
                             );
@@ -365,6 +373,7 @@ public class PsIdentificationAlgorithmMatchesSection {
                                     sequenceProvider,
                                     spectrumProvider,
                                     identificationParameters,
+                                    annotationSettingsKey,
                                     fractionPrefix,
                                     null
                             );
@@ -485,6 +494,8 @@ public class PsIdentificationAlgorithmMatchesSection {
      * @param proteinDetailsProvider The provider for protein details.
      * @param spectrumProvider The spectrum provider.
      * @param identificationParameters The identification parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
      * @param linePrefix The line prefix.
      * @param nSurroundingAA The number of surrounding amino acids to export.
      * @param peptideAssumption The assumption for the match to inspect.
@@ -504,6 +515,7 @@ public class PsIdentificationAlgorithmMatchesSection {
             ProteinDetailsProvider proteinDetailsProvider,
             SpectrumProvider spectrumProvider,
             IdentificationParameters identificationParameters,
+            long annotationSettingsKey,
             String linePrefix,
             int nSurroundingAA,
             PeptideAssumption peptideAssumption,
@@ -628,24 +640,17 @@ public class PsIdentificationAlgorithmMatchesSection {
                 AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
                 modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                IonMatch[] matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         peptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                IonMatch[] matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        peptide,
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
                 double coveredIntensity = Arrays.stream(matches)
                         .mapToDouble(
@@ -814,28 +819,20 @@ public class PsIdentificationAlgorithmMatchesSection {
             case sequence_coverage:
 
                 peptide = peptideAssumption.getPeptide();
-                spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
                 annotationParameters = identificationParameters.getAnnotationParameters();
                 modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         peptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        peptide,
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
                 int sequenceLength = peptide.getSequence().length();
                 int[] aaCoverage = new int[sequenceLength];
@@ -852,28 +849,20 @@ public class PsIdentificationAlgorithmMatchesSection {
             case longest_amino_acid_sequence_annotated:
 
                 peptide = peptideAssumption.getPeptide();
-                spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
                 annotationParameters = identificationParameters.getAnnotationParameters();
                 modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         peptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        peptide,
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
                 String sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
@@ -957,28 +946,20 @@ public class PsIdentificationAlgorithmMatchesSection {
             case longest_amino_acid_sequence_annotated_single_serie:
 
                 peptide = peptideAssumption.getPeptide();
-                spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
                 annotationParameters = identificationParameters.getAnnotationParameters();
                 modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         peptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        peptide,
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
@@ -1050,28 +1031,20 @@ public class PsIdentificationAlgorithmMatchesSection {
             case amino_acids_annotated:
 
                 peptide = peptideAssumption.getPeptide();
-                spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
                 annotationParameters = identificationParameters.getAnnotationParameters();
                 modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
                 modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                        annotationSettingsKey,
+                        annotationParameters,
                         spectrumFile,
                         spectrumTitle,
                         peptideAssumption,
                         modificationParameters,
                         sequenceProvider,
                         modificationSequenceMatchingParameters,
-                        peptideSpectrumAnnotator
-                );
-                matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                        specificAnnotationParameters,
-                        spectrumFile,
-                        spectrumTitle,
-                        spectrum,
-                        peptide,
-                        modificationParameters,
-                        sequenceProvider,
-                        modificationSequenceMatchingParameters
+                        spectrumProvider,
+                        peptideSpectrumAnnotators.get()
                 );
                 sequence = peptide.getSequence();
                 sequenceLength = sequence.length();
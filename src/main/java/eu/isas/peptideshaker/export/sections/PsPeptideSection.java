@@ -32,7 +32,9 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class outputs the peptide related export features.
@@ -61,6 +63,10 @@ public class PsPeptideSection {
      * The writer used to send the output to file.
      */
     private final ExportWriter writer;
+    /**
+     * The number of threads to use to compute the lines.
+     */
+    private int nThreads = 1;
 
     /**
      * Constructor.
@@ -118,6 +124,17 @@ public class PsPeptideSection {
 
     }
 
+    /**
+     * Sets the number of threads to use to compute the lines of the section.
+     * The lines are written in the same order whatever the number of
+     * threads.
+     *
+     * @param nThreads The number of threads to use.
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -171,126 +188,388 @@ public class PsPeptideSection {
 
         }
 
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, waitingHandler);
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
 
-        PeptideMatch peptideMatch;
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        try {
+
+            PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(keys, waitingHandler);
+            ArrayList<PeptideMatch> peptideMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+
+            PeptideMatch peptideMatch;
+            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+
+                peptideMatches.add(peptideMatch);
+
+                if (peptideMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                    lineNumber = writeMatches(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            identificationParameters,
+                            peptideMatches,
+                            lineNumber,
+                            nSurroundingAA,
+                            linePrefix,
+                            validatedOnly,
+                            decoys,
+                            pool,
+                            waitingHandler
+                    );
+
+                    peptideMatches.clear();
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
             }
 
-            PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+            writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    peptideMatches,
+                    lineNumber,
+                    nSurroundingAA,
+                    linePrefix,
+                    validatedOnly,
+                    decoys,
+                    pool,
+                    waitingHandler
+            );
 
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        } finally {
 
-                if (decoys || !PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-                    boolean first = true;
+    /**
+     * Writes the lines of the given peptide matches that pass the validation
+     * and decoy criteria, and the lines of their PSMs if a PSM subsection is
+     * included. The content of the lines is computed in parallel on the given
+     * pool, the lines are written in the order of the matches.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param peptideMatches The peptide matches.
+     * @param lineNumber The index of the first line.
+     * @param nSurroundingAA The number of surrounding amino acids to export.
+     * @param linePrefix The line prefix.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param pool The pool to use to compute the lines, null to compute them
+     * on the calling thread.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The index of the next line.
+     *
+     * @throws java.io.IOException exception thrown if an error occurred while
+     * reading or writing a file
+     */
+    public int writeMatches(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ArrayList<PeptideMatch> peptideMatches,
+            int lineNumber,
+            int nSurroundingAA,
+            String linePrefix,
+            boolean validatedOnly,
+            boolean decoys,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                    if (indexes) {
+        String[][] rows = new String[peptideMatches.size()][];
 
-                        if (linePrefix != null) {
+        if (pool == null) {
 
-                            writer.write(linePrefix);
+            for (int i = 0; i < rows.length; i++) {
 
-                        }
+                rows[i] = getRow(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        identificationParameters,
+                        peptideMatches.get(i),
+                        nSurroundingAA,
+                        linePrefix,
+                        validatedOnly,
+                        decoys,
+                        waitingHandler
+                );
 
-                        writer.write(Integer.toString(lineNumber));
-                        first = false;
+            }
 
-                    }
+        } else {
+
+            pool.submit(
+                    () -> IntStream.range(0, rows.length)
+                            .parallel()
+                            .forEach(
+                                    i -> rows[i] = getRow(
+                                            identification,
+                                            identificationFeaturesGenerator,
+                                            sequenceProvider,
+                                            proteinDetailsProvider,
+                                            identificationParameters,
+                                            peptideMatches.get(i),
+                                            nSurroundingAA,
+                                            linePrefix,
+                                            validatedOnly,
+                                            decoys,
+                                            waitingHandler
+                                    )
+                            )
+            ).join();
 
-                    for (ExportFeature exportFeature : peptideFeatures) {
+        }
 
-                        if (!first) {
+        for (int i = 0; i < rows.length; i++) {
 
-                            writer.addSeparator();
+            if (rows[i] != null) {
 
-                        } else {
+                writeRow(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        peptideMatches.get(i),
+                        rows[i],
+                        lineNumber,
+                        nSurroundingAA,
+                        linePrefix,
+                        validatedOnly,
+                        decoys,
+                        waitingHandler
+                );
 
-                            first = false;
+                lineNumber++;
 
-                        }
+            }
+        }
 
-                        PsPeptideFeature peptideFeature = (PsPeptideFeature) exportFeature;
-                        writer.write(
-                                getfeature(
-                                        identification,
-                                        identificationFeaturesGenerator,
-                                        sequenceProvider,
-                                        proteinDetailsProvider,
-                                        identificationParameters,
-                                        nSurroundingAA,
-                                        linePrefix,
-                                        peptideMatch,
-                                        peptideFeature,
-                                        validatedOnly,
-                                        decoys,
-                                        waitingHandler
-                                )
-                        );
+        return lineNumber;
 
-                    }
+    }
+
+    /**
+     * Returns the content of the line of the given peptide match, null if the
+     * match does not pass the validation and decoy criteria.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param identificationParameters The identification parameters.
+     * @param peptideMatch The peptide match.
+     * @param nSurroundingAA The number of surrounding amino acids to export.
+     * @param linePrefix The line prefix.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The features of the line.
+     */
+    private String[] getRow(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            IdentificationParameters identificationParameters,
+            PeptideMatch peptideMatch,
+            int nSurroundingAA,
+            String linePrefix,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) {
 
-                    writer.newLine();
+        PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
 
-                    if (psmSection != null) {
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                        String psmSectionPrefix = "";
+            if (decoys || !PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
 
-                        if (linePrefix != null) {
+                String[] row = new String[peptideFeatures.size()];
+                int column = 0;
 
-                            psmSectionPrefix += linePrefix;
+                for (PsPeptideFeature peptideFeature : peptideFeatures) {
 
-                        }
+                    row[column++] = getfeature(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            identificationParameters,
+                            nSurroundingAA,
+                            linePrefix,
+                            peptideMatch,
+                            peptideFeature,
+                            validatedOnly,
+                            decoys,
+                            waitingHandler
+                    );
 
-                        psmSectionPrefix += lineNumber + ".";
-                        writer.increaseDepth();
+                }
 
-                        if (waitingHandler != null) {
+                return row;
 
-                            waitingHandler.setDisplayProgress(false);
+            }
+        }
 
-                        }
+        return null;
 
-                        psmSection.writeSection(
-                                identification,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                proteinDetailsProvider,
-                                spectrumProvider,
-                                identificationParameters,
-                                peptideMatch.getSpectrumMatchesKeys(),
-                                psmSectionPrefix,
-                                nSurroundingAA,
-                                validatedOnly,
-                                decoys,
-                                waitingHandler
-                        );
+    }
 
-                        if (waitingHandler != null) {
+    /**
+     * Writes the line of the given peptide match, and the lines of its PSMs
+     * if a PSM subsection is included.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param peptideMatch The peptide match.
+     * @param row The features of the line.
+     * @param lineNumber The index of the line.
+     * @param nSurroundingAA The number of surrounding amino acids to export.
+     * @param linePrefix The line prefix.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param waitingHandler The waiting handler.
+     *
+     * @throws java.io.IOException exception thrown if an error occurred while
+     * reading or writing a file
+     */
+    private void writeRow(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            PeptideMatch peptideMatch,
+            String[] row,
+            int lineNumber,
+            int nSurroundingAA,
+            String linePrefix,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                            waitingHandler.setDisplayProgress(true);
+        boolean first = true;
 
-                        }
+        if (indexes) {
 
-                        writer.decreaseDepth();
+            if (linePrefix != null) {
 
-                    }
+                writer.write(linePrefix);
 
-                    lineNumber++;
+            }
+
+            writer.write(Integer.toString(lineNumber));
+            first = false;
+
+        }
+
+        for (String feature : row) {
+
+            if (!first) {
+
+                writer.addSeparator();
+
+            } else {
+
+                first = false;
 
-                }
             }
+
+            writer.write(feature);
+
+        }
+
+        writer.newLine();
+
+        if (psmSection != null) {
+
+            String psmSectionPrefix = "";
+
+            if (linePrefix != null) {
+
+                psmSectionPrefix += linePrefix;
+
+            }
+
+            psmSectionPrefix += lineNumber + ".";
+            writer.increaseDepth();
+
+            if (waitingHandler != null) {
+
+                waitingHandler.setDisplayProgress(false);
+
+            }
+
+            psmSection.writeSection(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    peptideMatch.getSpectrumMatchesKeys(),
+                    psmSectionPrefix,
+                    nSurroundingAA,
+                    validatedOnly,
+                    decoys,
+                    waitingHandler
+            );
+
+            if (waitingHandler != null) {
+
+                waitingHandler.setDisplayProgress(true);
+
+            }
+
+            writer.decreaseDepth();
+
         }
     }
 
     /**
      * Returns the component of the section corresponding to the given feature.
+     * The rows of a chunk are computed in parallel when a pool is given to
+     * writeMatches, this method must therefore not modify the objects it
+     * receives nor keep state between calls.
      *
      * @param identification the identification of the project
      * @param identificationFeaturesGenerator the identification features
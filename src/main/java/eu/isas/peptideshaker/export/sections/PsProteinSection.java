@@ -31,7 +31,9 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import no.uib.jsparklines.data.XYDataPoint;
 
 /**
@@ -62,6 +64,10 @@ public class PsProteinSection {
      * The writer used to send the output to file.
      */
     private final ExportWriter writer;
+    /**
+     * The number of threads to use to compute the lines.
+     */
+    private int nThreads = 1;
 
     /**
      * Constructor.
@@ -122,6 +128,17 @@ public class PsProteinSection {
 
     }
 
+    /**
+     * Sets the number of threads to use to compute the lines of the section.
+     * The lines are written in the same order whatever the number of
+     * threads.
+     *
+     * @param nThreads The number of threads to use.
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -187,78 +204,261 @@ public class PsProteinSection {
 
         }
 
-        for (long key : keys) {
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
 
-            ProteinMatch proteinMatch = identification.getProteinMatch(key);
+        try {
 
-            if (waitingHandler != null) {
+            ArrayList<ProteinMatch> proteinMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+
+            for (long key : keys) {
 
-                if (waitingHandler.isRunCanceled()) {
+                ProteinMatch proteinMatch = identification.getProteinMatch(key);
 
-                    return;
+                if (waitingHandler != null) {
+
+                    if (waitingHandler.isRunCanceled()) {
+
+                        return;
+
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter();
 
                 }
 
-                waitingHandler.increaseSecondaryProgressCounter();
+                proteinMatches.add(proteinMatch);
+
+                if (proteinMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                    line = writeMatches(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            geneMaps,
+                            identificationParameters,
+                            proteinMatches,
+                            line,
+                            nSurroundingAa,
+                            validatedOnly,
+                            decoys,
+                            pool,
+                            waitingHandler
+                    );
+
+                    proteinMatches.clear();
 
+                }
             }
 
-            if (decoys || !proteinMatch.isDecoy()) {
+            writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    geneMaps,
+                    identificationParameters,
+                    proteinMatches,
+                    line,
+                    nSurroundingAa,
+                    validatedOnly,
+                    decoys,
+                    pool,
+                    waitingHandler
+            );
 
-                PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+        } finally {
 
-                if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+            if (pool != null) {
 
-                    boolean first = true;
+                pool.shutdown();
 
-                    if (indexes) {
+            }
+        }
+    }
 
-                        writer.write(Integer.toString(line));
-                        first = false;
+    /**
+     * Writes the lines of the given protein matches that pass the validation
+     * and decoy criteria, and the lines of their peptides if a peptide
+     * subsection is included. The content of the lines is computed in
+     * parallel on the given pool, the lines are written in the order of the
+     * matches.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param geneMaps The gene maps.
+     * @param identificationParameters The identification parameters.
+     * @param proteinMatches The protein matches.
+     * @param line The index of the first line.
+     * @param nSurroundingAa The number of surrounding amino acids to export.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param pool The pool to use to compute the lines, null to compute them
+     * on the calling thread.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The index of the next line.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the file
+     */
+    public int writeMatches(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            GeneMaps geneMaps,
+            IdentificationParameters identificationParameters,
+            ArrayList<ProteinMatch> proteinMatches,
+            int line,
+            int nSurroundingAa,
+            boolean validatedOnly,
+            boolean decoys,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                    }
+        ArrayList<String> fractions = identification.getFractions();
+        String[][] rows = new String[proteinMatches.size()][];
+
+        if (pool == null) {
+
+            for (int i = 0; i < rows.length; i++) {
+
+                rows[i] = getRow(
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        geneMaps,
+                        identificationParameters,
+                        fractions,
+                        proteinMatches.get(i),
+                        nSurroundingAa,
+                        validatedOnly,
+                        decoys,
+                        waitingHandler
+                );
+
+            }
+
+        } else {
+
+            pool.submit(
+                    () -> IntStream.range(0, rows.length)
+                            .parallel()
+                            .forEach(
+                                    i -> rows[i] = getRow(
+                                            identificationFeaturesGenerator,
+                                            sequenceProvider,
+                                            proteinDetailsProvider,
+                                            geneMaps,
+                                            identificationParameters,
+                                            fractions,
+                                            proteinMatches.get(i),
+                                            nSurroundingAa,
+                                            validatedOnly,
+                                            decoys,
+                                            waitingHandler
+                                    )
+                            )
+            ).join();
+
+        }
+
+        for (int i = 0; i < rows.length; i++) {
+
+            if (rows[i] != null) {
+
+                writeRow(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        proteinMatches.get(i),
+                        rows[i],
+                        line,
+                        nSurroundingAa,
+                        validatedOnly,
+                        decoys,
+                        waitingHandler
+                );
+
+                line++;
+
+            }
+        }
+
+        return line;
+
+    }
+
+    /**
+     * Returns the content of the line of the given protein match, null if the
+     * match does not pass the validation and decoy criteria. Features
+     * exported per fraction have one value per fraction, and a null value if
+     * there is no fraction.
+     *
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param geneMaps The gene maps.
+     * @param identificationParameters The identification parameters.
+     * @param fractions The fractions of the project.
+     * @param proteinMatch The protein match.
+     * @param nSurroundingAa The number of surrounding amino acids to export.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The values of the line.
+     */
+    private String[] getRow(
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            GeneMaps geneMaps,
+            IdentificationParameters identificationParameters,
+            ArrayList<String> fractions,
+            ProteinMatch proteinMatch,
+            int nSurroundingAa,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) {
+
+        long key = proteinMatch.getKey();
+
+        if (decoys || !proteinMatch.isDecoy()) {
 
-                    for (ExportFeature exportFeature : proteinFeatures) {
+            PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
 
-                        if (!first) {
+            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                            writer.addSeparator();
+                ArrayList<String> row = new ArrayList<>(proteinFeatures.size());
 
-                        } else {
+                for (PsProteinFeature tempProteinFeature : proteinFeatures) {
 
-                            first = false;
+                    if (tempProteinFeature.isPerFraction()) {
+
+                        if (fractions.isEmpty()) {
+
+                            row.add(null);
 
                         }
 
-                        PsProteinFeature tempProteinFeature = (PsProteinFeature) exportFeature;
-
-                        if (tempProteinFeature.isPerFraction()) {
-                            for (int fractionsCount = 0; fractionsCount < identification.getFractions().size(); fractionsCount++) {
-
-                                String fractionName = identification.getFractions().get(fractionsCount);
-
-                                if (fractionsCount > 0) {
-                                    writer.addSeparator();
-                                }
-
-                                writer.write(getFeature(identificationFeaturesGenerator,
-                                        sequenceProvider,
-                                        proteinDetailsProvider,
-                                        geneMaps,
-                                        identificationParameters,
-                                        nSurroundingAa,
-                                        key,
-                                        proteinMatch,
-                                        fractionName,
-                                        psParameter,
-                                        tempProteinFeature,
-                                        waitingHandler
-                                )
-                                );
-                            }
-                        } else {
+                        for (String fractionName : fractions) {
 
-                            writer.write(getFeature(identificationFeaturesGenerator,
+                            row.add(getFeature(identificationFeaturesGenerator,
                                     sequenceProvider,
                                     proteinDetailsProvider,
                                     geneMaps,
@@ -266,56 +466,142 @@ public class PsProteinSection {
                                     nSurroundingAa,
                                     key,
                                     proteinMatch,
+                                    fractionName,
                                     psParameter,
                                     tempProteinFeature,
                                     waitingHandler
                             )
                             );
-
                         }
+                    } else {
+
+                        row.add(getFeature(identificationFeaturesGenerator,
+                                sequenceProvider,
+                                proteinDetailsProvider,
+                                geneMaps,
+                                identificationParameters,
+                                nSurroundingAa,
+                                key,
+                                proteinMatch,
+                                psParameter,
+                                tempProteinFeature,
+                                waitingHandler
+                        )
+                        );
 
                     }
+                }
 
-                    writer.newLine();
+                return row.toArray(new String[row.size()]);
 
-                    if (peptideSection != null) {
+            }
+        }
 
-                        writer.increaseDepth();
+        return null;
 
-                        if (waitingHandler != null) {
+    }
 
-                            waitingHandler.setDisplayProgress(false);
+    /**
+     * Writes the line of the given protein match, and the lines of its
+     * peptides if a peptide subsection is included. Null values leave the
+     * column empty.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param proteinMatch The protein match.
+     * @param row The values of the line.
+     * @param line The index of the line.
+     * @param nSurroundingAa The number of surrounding amino acids to export.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param waitingHandler The waiting handler.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing to the file
+     */
+    private void writeRow(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ProteinMatch proteinMatch,
+            String[] row,
+            int line,
+            int nSurroundingAa,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                        }
+        boolean first = true;
 
-                        peptideSection.writeSection(identification,
-                                identificationFeaturesGenerator,
-                                sequenceProvider,
-                                proteinDetailsProvider,
-                                spectrumProvider,
-                                identificationParameters,
-                                proteinMatch.getPeptideMatchesKeys(),
-                                nSurroundingAa,
-                                line + ".",
-                                validatedOnly,
-                                decoys,
-                                waitingHandler
-                        );
+        if (indexes) {
 
-                        if (waitingHandler != null) {
+            writer.write(Integer.toString(line));
+            first = false;
 
-                            waitingHandler.setDisplayProgress(true);
+        }
 
-                        }
+        for (String value : row) {
 
-                        writer.decreaseDepth();
+            if (!first) {
 
-                    }
+                writer.addSeparator();
 
-                    line++;
+            } else {
+
+                first = false;
 
-                }
             }
+
+            if (value != null) {
+
+                writer.write(value);
+
+            }
+        }
+
+        writer.newLine();
+
+        if (peptideSection != null) {
+
+            writer.increaseDepth();
+
+            if (waitingHandler != null) {
+
+                waitingHandler.setDisplayProgress(false);
+
+            }
+
+            peptideSection.writeSection(identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    proteinMatch.getPeptideMatchesKeys(),
+                    nSurroundingAa,
+                    line + ".",
+                    validatedOnly,
+                    decoys,
+                    waitingHandler
+            );
+
+            if (waitingHandler != null) {
+
+                waitingHandler.setDisplayProgress(true);
+
+            }
+
+            writer.decreaseDepth();
+
         }
     }
 
@@ -367,7 +653,11 @@ public class PsProteinSection {
     }
 
     /**
-     * Returns the part of the desired section.
+     * Returns the part of the desired section. When the section is written
+     * with a pool, this method is called concurrently for the matches of a
+     * chunk. It is thread safe as long as it only reads the matches, the
+     * providers and the parameters, and the identification features
+     * generator, which is already shared by the protein processing threads.
      *
      * @param identificationFeaturesGenerator the identification features
      * generator of the project
@@ -27,6 +27,7 @@ import com.compomics.util.experiment.identification.peptide_shaker.ModificationS
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import eu.isas.peptideshaker.export.ExportUtils;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -34,8 +35,10 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * This class outputs the PSM level export features.
@@ -69,6 +72,10 @@ public class PsPsmSection {
      * The writer used to send the output to file.
      */
     private final ExportWriter writer;
+    /**
+     * The number of threads to use to compute the lines.
+     */
+    private int nThreads = 1;
 
     /**
      * Constructor.
@@ -130,6 +137,17 @@ public class PsPsmSection {
 
     }
 
+    /**
+     * Sets the number of threads to use to compute the lines of the section.
+     * The lines are written in the same order whatever the number of
+     * threads.
+     *
+     * @param nThreads The number of threads to use.
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
     /**
      * Writes the desired section.
      *
@@ -182,191 +200,454 @@ public class PsPsmSection {
             waitingHandler.setMaxSecondaryProgressCounter(totalSize);
         }
 
-        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(keys, waitingHandler);
-        SpectrumMatch spectrumMatch;
+        ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+
+        try {
+
+            SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(keys, waitingHandler);
+            ArrayList<SpectrumMatch> spectrumMatches = new ArrayList<>(ExportUtils.CHUNK_SIZE);
+            SpectrumMatch spectrumMatch;
 
-        while ((spectrumMatch = psmIterator.next()) != null) {
+            while ((spectrumMatch = psmIterator.next()) != null) {
+
+                if (waitingHandler != null) {
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
+
+                spectrumMatches.add(spectrumMatch);
+
+                if (spectrumMatches.size() == ExportUtils.CHUNK_SIZE) {
+
+                    line = writeMatches(
+                            identification,
+                            identificationFeaturesGenerator,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            spectrumProvider,
+                            identificationParameters,
+                            spectrumMatches,
+                            line,
+                            linePrefix,
+                            nSurroundingAA,
+                            validatedOnly,
+                            decoys,
+                            pool,
+                            waitingHandler
+                    );
+
+                    spectrumMatches.clear();
 
-            if (waitingHandler != null) {
-                if (waitingHandler.isRunCanceled()) {
-                    return;
                 }
-                waitingHandler.increaseSecondaryProgressCounter();
             }
 
-            String spectrumFile = spectrumMatch.getSpectrumFile();
-            String spectrumTitle = spectrumMatch.getSpectrumTitle();
-            PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+            writeMatches(
+                    identification,
+                    identificationFeaturesGenerator,
+                    sequenceProvider,
+                    proteinDetailsProvider,
+                    spectrumProvider,
+                    identificationParameters,
+                    spectrumMatches,
+                    line,
+                    linePrefix,
+                    nSurroundingAA,
+                    validatedOnly,
+                    decoys,
+                    pool,
+                    waitingHandler
+            );
 
-            if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
+        } finally {
 
-                PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
-                TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
 
-                if (peptideAssumption != null || tagAssumption != null) {
+    /**
+     * Writes the lines of the given spectrum matches that pass the validation
+     * and decoy criteria, and the lines of their fragment ions if a fragment
+     * subsection is included. The content of the lines is computed in
+     * parallel on the given pool, the lines are written in the order of the
+     * matches.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param spectrumMatches The spectrum matches.
+     * @param line The index of the first line.
+     * @param linePrefix The line prefix.
+     * @param nSurroundingAA The number of surrounding amino acids to export.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param pool The pool to use to compute the lines, null to compute them
+     * on the calling thread.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The index of the next line.
+     *
+     * @throws java.io.IOException exception thrown if an error occurred while
+     * writing to the file.
+     */
+    public int writeMatches(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ArrayList<SpectrumMatch> spectrumMatches,
+            int line,
+            String linePrefix,
+            int nSurroundingAA,
+            boolean validatedOnly,
+            boolean decoys,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                    if (decoys
-                            || (peptideAssumption != null && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider))
-                            || (tagAssumption != null) // @TODO: check whether the tag is a decoy..?
-                            ) {
+        String[][] rows = new String[spectrumMatches.size()][];
+        long annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                identificationParameters.getAnnotationParameters(),
+                identificationParameters.getSearchParameters().getModificationParameters(),
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+        );
+
+        if (pool == null) {
+
+            for (int i = 0; i < rows.length; i++) {
+
+                rows[i] = getRow(
+                        identification,
+                        identificationFeaturesGenerator,
+                        sequenceProvider,
+                        proteinDetailsProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        annotationSettingsKey,
+                        spectrumMatches.get(i),
+                        linePrefix,
+                        nSurroundingAA,
+                        validatedOnly,
+                        decoys,
+                        waitingHandler
+                );
 
-                        boolean first = true;
+            }
 
-                        if (indexes) {
+        } else {
 
-                            if (linePrefix != null) {
+            pool.submit(
+                    () -> IntStream.range(0, rows.length)
+                            .parallel()
+                            .forEach(
+                                    i -> rows[i] = getRow(
+                                            identification,
+                                            identificationFeaturesGenerator,
+                                            sequenceProvider,
+                                            proteinDetailsProvider,
+                                            spectrumProvider,
+                                            identificationParameters,
+                                            annotationSettingsKey,
+                                            spectrumMatches.get(i),
+                                            linePrefix,
+                                            nSurroundingAA,
+                                            validatedOnly,
+                                            decoys,
+                                            waitingHandler
+                                    )
+                            )
+            ).join();
 
-                                writer.write(linePrefix);
+        }
 
-                            }
+        for (int i = 0; i < rows.length; i++) {
 
-                            writer.write(Integer.toString(line));
-                            first = false;
+            if (rows[i] != null) {
 
-                        }
+                writeRow(
+                        sequenceProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        annotationSettingsKey,
+                        spectrumMatches.get(i),
+                        rows[i],
+                        line,
+                        linePrefix
+                );
 
-                        for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
+                line++;
 
-                            if (!first) {
+            }
+        }
 
-                                writer.addSeparator();
+        return line;
 
-                            } else {
+    }
 
-                                first = false;
+    /**
+     * Returns the content of the line of the given spectrum match, null if
+     * the match does not pass the validation and decoy criteria.
+     *
+     * @param identification The identification of the project.
+     * @param identificationFeaturesGenerator The identification features
+     * generator of the project.
+     * @param sequenceProvider The sequence provider.
+     * @param proteinDetailsProvider The protein details provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
+     * @param spectrumMatch The spectrum match.
+     * @param linePrefix The line prefix.
+     * @param nSurroundingAA The number of surrounding amino acids to export.
+     * @param validatedOnly Whether only validated matches should be exported.
+     * @param decoys Whether decoy matches should be exported as well.
+     * @param waitingHandler The waiting handler.
+     *
+     * @return The features of the line.
+     */
+    private String[] getRow(
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            long annotationSettingsKey,
+            SpectrumMatch spectrumMatch,
+            String linePrefix,
+            int nSurroundingAA,
+            boolean validatedOnly,
+            boolean decoys,
+            WaitingHandler waitingHandler
+    ) {
 
-                            }
+        String spectrumFile = spectrumMatch.getSpectrumFile();
+        String spectrumTitle = spectrumMatch.getSpectrumTitle();
+        PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
-                            String feature;
-
-                            if (peptideAssumption != null) {
-
-                                feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(
-                                        identification,
-                                        identificationFeaturesGenerator,
-                                        sequenceProvider,
-                                        proteinDetailsProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        linePrefix,
-                                        nSurroundingAA,
-                                        peptideAssumption,
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        psParameter,
-                                        identificationAlgorithmMatchesFeature,
-                                        waitingHandler
-                                );
-
-                            } else if (tagAssumption != null) {
-
-                                feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(
-                                        identification,
-                                        identificationFeaturesGenerator,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        linePrefix,
-                                        tagAssumption,
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        psParameter,
-                                        identificationAlgorithmMatchesFeature,
-                                        waitingHandler
-                                );
-
-                            } else {
-
-                                throw new IllegalArgumentException(
-                                        "No best match found for spectrum "
-                                        + spectrumTitle
-                                        + " in "
-                                        + spectrumFile
-                                        + "."
-                                );
+        if (!validatedOnly || psParameter.getMatchValidationLevel().isValidated()) {
 
-                            }
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+            TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
 
-                            writer.write(feature);
+            if (peptideAssumption != null || tagAssumption != null) {
 
-                        }
-                        for (PsPsmFeature psmFeature : psmFeatures) {
-                            if (!first) {
-                                writer.addSeparator();
-                            } else {
-                                first = false;
-                            }
-                            writer.write(
-                                    getFeature(
-                                            identification,
-                                            identificationFeaturesGenerator,
-                                            identificationParameters,
-                                            linePrefix,
-                                            spectrumMatch,
-                                            psParameter,
-                                            psmFeature,
-                                            validatedOnly,
-                                            decoys,
-                                            waitingHandler
-                                    )
-                            );
-                        }
+                if (decoys
+                        || (peptideAssumption != null && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider))
+                        || (tagAssumption != null) // @TODO: check whether the tag is a decoy..?
+                        ) {
 
-                        writer.newLine();
+                    String[] row = new String[identificationAlgorithmMatchesFeatures.size() + psmFeatures.size()];
+                    int column = 0;
 
-                        if (fragmentSection != null) {
+                    for (PsIdentificationAlgorithmMatchesFeature identificationAlgorithmMatchesFeature : identificationAlgorithmMatchesFeatures) {
 
-                            StringBuilder fractionPrefix = new StringBuilder();
+                        String feature;
 
-                            if (linePrefix != null) {
+                        if (peptideAssumption != null) {
 
-                                fractionPrefix.append(linePrefix);
+                            feature = PsIdentificationAlgorithmMatchesSection.getPeptideAssumptionFeature(
+                                    identification,
+                                    identificationFeaturesGenerator,
+                                    sequenceProvider,
+                                    proteinDetailsProvider,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    annotationSettingsKey,
+                                    linePrefix,
+                                    nSurroundingAA,
+                                    peptideAssumption,
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    psParameter,
+                                    identificationAlgorithmMatchesFeature,
+                                    waitingHandler
+                            );
 
-                            }
+                        } else if (tagAssumption != null) {
+
+                            feature = PsIdentificationAlgorithmMatchesSection.getTagAssumptionFeature(
+                                    identification,
+                                    identificationFeaturesGenerator,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    linePrefix,
+                                    tagAssumption,
+                                    spectrumFile,
+                                    spectrumTitle,
+                                    psParameter,
+                                    identificationAlgorithmMatchesFeature,
+                                    waitingHandler
+                            );
 
-                            fractionPrefix.append(line).append(".");
-                            writer.increaseDepth();
-
-                            if (peptideAssumption != null) {
-
-                                fragmentSection.writeSection(
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        peptideAssumption,
-                                        sequenceProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        fractionPrefix.toString(),
-                                        null
-                                );
-
-                            } else if (tagAssumption != null) {
-
-                                fragmentSection.writeSection(
-                                        spectrumFile,
-                                        spectrumTitle,
-                                        tagAssumption,
-                                        sequenceProvider,
-                                        spectrumProvider,
-                                        identificationParameters,
-                                        fractionPrefix.toString(),
-                                        null
-                                );
-                            }
+                        } else {
 
-                            writer.decreaseDepth();
+                            throw new IllegalArgumentException(
+                                    "No best match found for spectrum "
+                                    + spectrumTitle
+                                    + " in "
+                                    + spectrumFile
+                                    + "."
+                            );
 
                         }
 
-                        line++;
+                        row[column++] = feature;
 
                     }
+                    for (PsPsmFeature psmFeature : psmFeatures) {
+                        row[column++] = getFeature(
+                                identification,
+                                identificationFeaturesGenerator,
+                                identificationParameters,
+                                linePrefix,
+                                spectrumMatch,
+                                psParameter,
+                                psmFeature,
+                                validatedOnly,
+                                decoys,
+                                waitingHandler
+                        );
+                    }
+
+                    return row;
+
                 }
             }
         }
+
+        return null;
+
+    }
+
+    /**
+     * Writes the line of the given spectrum match, and the lines of its
+     * fragment ions if a fragment subsection is included.
+     *
+     * @param sequenceProvider The sequence provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param identificationParameters The identification parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
+     * @param spectrumMatch The spectrum match.
+     * @param row The features of the line.
+     * @param line The index of the line.
+     * @param linePrefix The line prefix.
+     *
+     * @throws java.io.IOException exception thrown if an error occurred while
+     * writing to the file.
+     */
+    private void writeRow(
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            long annotationSettingsKey,
+            SpectrumMatch spectrumMatch,
+            String[] row,
+            int line,
+            String linePrefix
+    ) throws IOException {
+
+        boolean first = true;
+
+        if (indexes) {
+
+            if (linePrefix != null) {
+
+                writer.write(linePrefix);
+
+            }
+
+            writer.write(Integer.toString(line));
+            first = false;
+
+        }
+
+        for (String feature : row) {
+
+            if (!first) {
+
+                writer.addSeparator();
+
+            } else {
+
+                first = false;
+
+            }
+
+            writer.write(feature);
+
+        }
+
+        writer.newLine();
+
+        if (fragmentSection != null) {
+
+            String spectrumFile = spectrumMatch.getSpectrumFile();
+            String spectrumTitle = spectrumMatch.getSpectrumTitle();
+            PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+            TagAssumption tagAssumption = spectrumMatch.getBestTagAssumption();
+
+            StringBuilder fractionPrefix = new StringBuilder();
+
+            if (linePrefix != null) {
+
+                fractionPrefix.append(linePrefix);
+
+            }
+
+            fractionPrefix.append(line).append(".");
+            writer.increaseDepth();
+
+            if (peptideAssumption != null) {
+
+                fragmentSection.writeSection(
+                        spectrumFile,
+                        spectrumTitle,
+                        peptideAssumption,
+                        sequenceProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        annotationSettingsKey,
+                        fractionPrefix.toString(),
+                        null
+                );
+
+            } else if (tagAssumption != null) {
+
+                fragmentSection.writeSection(
+                        spectrumFile,
+                        spectrumTitle,
+                        tagAssumption,
+                        sequenceProvider,
+                        spectrumProvider,
+                        identificationParameters,
+                        annotationSettingsKey,
+                        fractionPrefix.toString(),
+                        null
+                );
+            }
+
+            writer.decreaseDepth();
+
+        }
     }
 
     /**
-     * Writes the given feature of the current section.
+     * Writes the given feature of the current section. This method is called
+     * from several threads when the rows are computed on a pool. It only
+     * reads the match and the parameters. The identification algorithm
+     * features of the rows use a thread local spectrum annotator.
      *
      * @param identification the identification of the project
      * @param identificationFeaturesGenerator the identification features
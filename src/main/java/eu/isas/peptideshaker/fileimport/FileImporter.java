@@ -27,6 +27,8 @@ import com.compomics.util.parameters.tools.ProcessingParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import eu.isas.peptideshaker.preferences.ProjectDetails;
 import eu.isas.peptideshaker.protein_inference.TagMapper;
+import eu.isas.peptideshaker.utils.FMIndexCache;
+import eu.isas.peptideshaker.utils.SpectrumTitleIndex;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import com.compomics.util.experiment.identification.peptide_shaker.Metrics;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
@@ -69,9 +71,9 @@ public class FileImporter {
      */
     private final SpectrumProvider spectrumProvider;
     /**
-     * Map of the spectra loaded.
+     * The names of the spectrum files loaded.
      */
-    private final HashMap<String, HashSet<String>> loadedSpectraMap;
+    private final HashSet<String> loadedSpectrumFiles;
     /**
      * Summary information on the FASTA file.
      */
@@ -137,6 +139,12 @@ public class FileImporter {
      * The genes maps.
      */
     private GeneMaps geneMaps;
+    /**
+     * The maximal number of spectrum matches to process at once when
+     * importing a file. If zero or negative, all the matches of a file are
+     * processed at once.
+     */
+    private int streamingBatchSize = 0;
 
     /**
      * Constructor for the importer.
@@ -172,18 +180,10 @@ public class FileImporter {
 
         tagMapper = new TagMapper(identificationParameters, exceptionHandler);
 
-        loadedSpectraMap = new HashMap<>(spectrumProvider.getOrderedFileNamesWithoutExtensions().length);
-
-        for (String fileNameWithoutExtension : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
-
-            loadedSpectraMap.put(
-                    fileNameWithoutExtension,
-                    Arrays.stream(spectrumProvider.getSpectrumTitles(fileNameWithoutExtension))
-                            .collect(
-                                    Collectors.toCollection(HashSet::new)
-                            )
-            );
-        }
+        loadedSpectrumFiles = Arrays.stream(spectrumProvider.getOrderedFileNamesWithoutExtensions())
+                .collect(
+                        Collectors.toCollection(HashSet::new)
+                );
     }
 
     /**
@@ -537,116 +537,63 @@ public class FileImporter {
 
             } else {
 
+                boolean hasDeNovoTags = fileReader.hasDeNovoTags();
+
                 waitingHandler.setSecondaryProgressCounterIndeterminate(false);
                 waitingHandler.resetSecondaryProgressCounter();
-                waitingHandler.setMaxSecondaryProgressCounter(nMatches);
-                waitingHandler.appendReport(
-                        "Checking spectra for " + idFile.getName() + ".",
-                        true,
-                        true
+                waitingHandler.setMaxSecondaryProgressCounter(
+                        (hasDeNovoTags ? 4 : 3) * nMatches
                 );
 
-                HashSet<String> importedFileNames = new HashSet<>(1);
-
-                for (SpectrumMatch spectrumMatch : idFileSpectrumMatches) {
-
-                    HashSet<String> titles = loadedSpectraMap.get(spectrumMatch.getSpectrumFile());
-
-                    if (titles == null) {
-
-                        waitingHandler.appendReport(
-                                "Spectrum file named \'" + spectrumMatch.getSpectrumFile()
-                                + "\' required to parse \'" + IoUtil.getFileName(idFile) + "\' not found.",
-                                true,
-                                true
-                        );
-
-                        waitingHandler.setRunCanceled();
-                        return;
-
-                    }
-
-                    importedFileNames.add(spectrumMatch.getSpectrumFile());
-                    String spectrumTitle = spectrumMatch.getSpectrumTitle();
-
-                    if (!titles.contains(spectrumTitle)) {
-
-                        waitingHandler.appendReport(
-                                "Spectrum with title \'"
-                                + spectrumTitle
-                                + "\' in file named \'"
-                                + spectrumMatch.getSpectrumFile()
-                                + "\' required to parse \'"
-                                + IoUtil.getFileName(idFile)
-                                + "\' not found.",
-                                true,
-                                true
-                        );
-
-                        waitingHandler.setRunCanceled();
-                        return;
-
-                    }
+                PsmImporter psmImporter = new PsmImporter();
 
-                    waitingHandler.increaseSecondaryProgressCounter();
+                int batchSize = streamingBatchSize > 0 ? streamingBatchSize : nMatches;
 
-                }
+                waitingHandler.appendReport(
+                        batchSize < nMatches
+                                ? "Importing PSMs from " + idFile.getName() + " in batches of " + batchSize + "."
+                                : "Importing PSMs from " + idFile.getName(),
+                        true,
+                        true
+                );
 
-                for (String tempSpectrumFileName : importedFileNames) {
+                // the proteins of all the matches are counted before storing the first batch
+                if (!importAssumptions(
+                        idFileSpectrumMatches,
+                        idFile,
+                        fileReader,
+                        hasDeNovoTags,
+                        psmImporter
+                )) {
 
-                    projectDetails.addSpectrumFilePath(spectrumProvider.getFilePaths().get(tempSpectrumFileName));
-                    identification.addFraction(tempSpectrumFileName);
+                    return;
 
                 }
 
-                // if any de novo tag, map spectrum sequence matches to protein sequences
-                if (fileReader.hasDeNovoTags()) {
+                // batches are processed in the order of the file
+                for (int batchStart = 0; batchStart < nMatches; batchStart += batchSize) {
 
-                    waitingHandler.resetSecondaryProgressCounter();
-                    waitingHandler.setMaxSecondaryProgressCounter(nMatches);
-                    waitingHandler.appendReport(
-                            "Mapping tags to peptides.",
-                            true,
-                            true
+                    List<SpectrumMatch> batch = idFileSpectrumMatches.subList(
+                            batchStart,
+                            Math.min(nMatches, batchStart + batchSize)
                     );
 
-                    tagMapper.mapTags(
-                            idFileSpectrumMatches,
-                            fastaMapper,
-                            waitingHandler
-                    );
+                    if (!storeSpectrumMatches(
+                            batch,
+                            psmImporter
+                    )) {
 
-                }
-
-                waitingHandler.setMaxSecondaryProgressCounter(2 * nMatches);
-                waitingHandler.appendReport(
-                        "Importing PSMs from " + idFile.getName(),
-                        true,
-                        true
-                );
-
-                PsmImporter psmImporter = new PsmImporter();
+                        return;
 
-                psmImporter.importPsms(
-                        idFileSpectrumMatches,
-                        identification,
-                        identificationParameters,
-                        inputMap,
-                        fileReader,
-                        sequenceProvider,
-                        spectrumProvider,
-                        fastaMapper,
-                        processingParameters,
-                        waitingHandler,
-                        exceptionHandler
-                );
+                    }
 
-                if (waitingHandler.isRunCanceled()) {
-
-                    return;
+                    // release the matches of the batch before processing the next one
+                    Collections.fill(batch, null);
 
                 }
 
+                // the protein counts of the file are published once all its 
+                // matches are imported and their first hits selected
                 for (Map.Entry<String, Integer> entry : psmImporter.getProteinCount().entrySet()) {
 
                     String accession = entry.getKey();
@@ -939,6 +886,152 @@ public class FileImporter {
 
     }
 
+    /**
+     * Verifies that the spectra of the given spectrum matches are loaded, maps
+     * their de novo tags if any, and imports their assumptions using the given
+     * PSM importer. The spectrum files of the matches are added to the
+     * project. The matches are then stored and their first hits selected
+     * using storeSpectrumMatches.
+     *
+     * @param spectrumMatches the spectrum matches to import
+     * @param idFile the identification file the matches were parsed from
+     * @param fileReader the reader used to parse the identification file
+     * @param hasDeNovoTags boolean indicating whether the file contains de
+     * novo tags to map
+     * @param psmImporter the PSM importer to use
+     *
+     * @return true if the matches were imported, false if a spectrum was not
+     * found or the import was canceled
+     *
+     * @throws java.lang.InterruptedException Exception thrown if a thread is
+     * interrupted.
+     * @throws java.util.concurrent.TimeoutException Exception thrown if the
+     * process timed out.
+     */
+    private boolean importAssumptions(
+            ArrayList<SpectrumMatch> spectrumMatches,
+            File idFile,
+            IdfileReader fileReader,
+            boolean hasDeNovoTags,
+            PsmImporter psmImporter
+    ) throws InterruptedException, TimeoutException {
+
+        HashSet<String> importedFileNames = new HashSet<>(1);
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            if (!loadedSpectrumFiles.contains(spectrumMatch.getSpectrumFile())) {
+
+                waitingHandler.appendReport(
+                        "Spectrum file named \'" + spectrumMatch.getSpectrumFile()
+                        + "\' required to parse \'" + IoUtil.getFileName(idFile) + "\' not found.",
+                        true,
+                        true
+                );
+
+                waitingHandler.setRunCanceled();
+                return false;
+
+            }
+
+            importedFileNames.add(spectrumMatch.getSpectrumFile());
+            String spectrumTitle = spectrumMatch.getSpectrumTitle();
+
+            if (!SpectrumTitleIndex.contains(spectrumProvider, spectrumMatch.getSpectrumFile(), spectrumTitle)) {
+
+                waitingHandler.appendReport(
+                        "Spectrum with title \'"
+                        + spectrumTitle
+                        + "\' in file named \'"
+                        + spectrumMatch.getSpectrumFile()
+                        + "\' required to parse \'"
+                        + IoUtil.getFileName(idFile)
+                        + "\' not found.",
+                        true,
+                        true
+                );
+
+                waitingHandler.setRunCanceled();
+                return false;
+
+            }
+
+            waitingHandler.increaseSecondaryProgressCounter();
+
+        }
+
+        for (String tempSpectrumFileName : importedFileNames) {
+
+            projectDetails.addSpectrumFilePath(spectrumProvider.getFilePaths().get(tempSpectrumFileName));
+            identification.addFraction(tempSpectrumFileName);
+
+        }
+
+        // if any de novo tag, map spectrum sequence matches to protein sequences
+        if (hasDeNovoTags) {
+
+            tagMapper.mapTags(
+                    spectrumMatches,
+                    fastaMapper,
+                    waitingHandler
+            );
+
+        }
+
+        psmImporter.importAssumptions(
+                spectrumMatches,
+                identificationParameters,
+                fileReader,
+                sequenceProvider,
+                fastaMapper,
+                processingParameters,
+                waitingHandler,
+                exceptionHandler
+        );
+
+        return !waitingHandler.isRunCanceled();
+
+    }
+
+    /**
+     * Stores the given spectrum matches in the database and selects their
+     * first hits in a single pass using the given PSM importer. The
+     * assumptions of all the matches of the file must have been imported by
+     * this importer beforehand. Can be called several times on the same PSM
+     * importer to store a file in batches.
+     *
+     * @param spectrumMatches the spectrum matches to process
+     * @param psmImporter the PSM importer used to import the matches
+     *
+     * @return true if the first hits were selected, false if the import was
+     * canceled
+     *
+     * @throws java.lang.InterruptedException Exception thrown if a thread is
+     * interrupted.
+     * @throws java.util.concurrent.TimeoutException Exception thrown if the
+     * process timed out.
+     */
+    private boolean storeSpectrumMatches(
+            List<SpectrumMatch> spectrumMatches,
+            PsmImporter psmImporter
+    ) throws InterruptedException, TimeoutException {
+
+        psmImporter.importPsms(
+                spectrumMatches,
+                identification,
+                identificationParameters,
+                inputMap,
+                sequenceProvider,
+                spectrumProvider,
+                processingParameters,
+                waitingHandler,
+                exceptionHandler
+        );
+
+        return !waitingHandler.isRunCanceled();
+
+    }
+
     /**
      * Imports sequences from a FASTA file and sets the sequence provider and
      * protein details provider fields.
@@ -980,7 +1073,7 @@ public class FileImporter {
                 waitingHandler
         );
 
-        FMIndex fmIndex = new FMIndex(
+        FMIndex fmIndex = FMIndexCache.getFMIndex(
                 fastaFile,
                 fastaParameters,
                 waitingHandler,
@@ -1076,6 +1169,34 @@ public class FileImporter {
         return inputMap;
     }
 
+    /**
+     * Returns the maximal number of spectrum matches to process at once when
+     * importing a file. Zero or negative if all the matches of a file are
+     * processed at once.
+     *
+     * @return the maximal number of spectrum matches to process at once
+     */
+    public int getStreamingBatchSize() {
+        return streamingBatchSize;
+    }
+
+    /**
+     * Sets the maximal number of spectrum matches to process at once when
+     * importing a file. The assumptions of all the matches of the file are
+     * imported and the proteins counted first. The matches are then stored and
+     * their first hits selected batch by batch in the order of the file, each
+     * batch being released before the next one. Zero or negative to process
+     * all the matches of a file at once.
+     *
+     * @param streamingBatchSize the maximal number of spectrum matches to
+     * process at once
+     */
+    public void setStreamingBatchSize(
+            int streamingBatchSize
+    ) {
+        this.streamingBatchSize = streamingBatchSize;
+    }
+
     /**
      * Returns the occurrence of proteins.
      *
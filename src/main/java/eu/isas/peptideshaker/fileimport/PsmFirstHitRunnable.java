@@ -2,6 +2,7 @@ package eu.isas.peptideshaker.fileimport;
 
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.filtering.PeptideAssumptionFilter;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
@@ -24,13 +25,27 @@ import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * This class tries to find a best hit per search engine for each spectrum
- * match.
+ * This class stores the imported spectrum matches in the database and tries to
+ * find a best hit per search engine for each spectrum match in the same pass.
+ * The protein counts used to break ties must be complete before the matches
+ * are processed.
  *
  * @author Marc Vaudel
  */
 public class PsmFirstHitRunnable implements Runnable {
 
+    /**
+     * Size of the batches to use when adding objects to the database.
+     */
+    public static final int BATCH_SIZE = 100000;
+    /**
+     * Map of the objects to add to the database.
+     */
+    private final HashMap<Long, Object> matchesToAdd = new HashMap<>(BATCH_SIZE);
+    /**
+     * The identification object database.
+     */
+    private final Identification identification;
     /**
      * The identification parameters.
      */
@@ -116,6 +131,8 @@ public class PsmFirstHitRunnable implements Runnable {
      * Constructor.
      *
      * @param spectrumMatchQueue The spectrum matches iterator to use.
+     * @param identification The identification object where to store the
+     * matches.
      * @param identificationParameters The identification parameters.
      * @param sequenceProvider The protein sequence provider.
      * @param spectrumProvider The spectrum provider.
@@ -127,6 +144,7 @@ public class PsmFirstHitRunnable implements Runnable {
      */
     public PsmFirstHitRunnable(
             ConcurrentLinkedQueue<SpectrumMatch> spectrumMatchQueue,
+            Identification identification,
             IdentificationParameters identificationParameters,
             SequenceProvider sequenceProvider,
             SpectrumProvider spectrumProvider,
@@ -137,6 +155,7 @@ public class PsmFirstHitRunnable implements Runnable {
     ) {
 
         this.spectrumMatchQueue = spectrumMatchQueue;
+        this.identification = identification;
         this.identificationParameters = identificationParameters;
         this.sequenceProvider = sequenceProvider;
         this.spectrumProvider = spectrumProvider;
@@ -162,6 +181,7 @@ public class PsmFirstHitRunnable implements Runnable {
             SpectrumMatch spectrumMatch;
             while ((spectrumMatch = spectrumMatchQueue.poll()) != null) {
 
+                storePsm(spectrumMatch);
                 processPsm(spectrumMatch);
 
                 if (waitingHandler.isRunCanceled()) {
@@ -172,6 +192,16 @@ public class PsmFirstHitRunnable implements Runnable {
 
             }
 
+            if (!matchesToAdd.isEmpty()) {
+
+                identification.addSpectrumMatches(
+                        matchesToAdd,
+                        waitingHandler,
+                        false
+                );
+
+            }
+
         } catch (Exception e) {
 
             waitingHandler.setRunCanceled();
@@ -180,6 +210,138 @@ public class PsmFirstHitRunnable implements Runnable {
         }
     }
 
+    /**
+     * Stores the given spectrum match in the database, or merges its
+     * assumptions with the match of the same spectrum already in the database.
+     *
+     * @param spectrumMatch the spectrum match to store
+     */
+    private void storePsm(
+            SpectrumMatch spectrumMatch
+    ) {
+
+        if (spectrumMatch.hasPeptideAssumption() || spectrumMatch.hasTagAssumption()) {
+
+            long spectrumMatchKey = spectrumMatch.getKey();
+
+            SpectrumMatch dbMatch = identification.getSpectrumMatch(spectrumMatchKey);
+
+            if (dbMatch != null) {
+
+                mergePeptideAssumptions(
+                        spectrumMatch.getPeptideAssumptionsMap(),
+                        dbMatch.getPeptideAssumptionsMap()
+                );
+                mergeTagAssumptions(
+                        spectrumMatch.getTagAssumptionsMap(),
+                        dbMatch.getTagAssumptionsMap()
+                );
+
+            } else {
+
+                matchesToAdd.put(spectrumMatchKey, spectrumMatch);
+
+                if (matchesToAdd.size() == BATCH_SIZE) {
+
+                    identification.addSpectrumMatches(
+                            matchesToAdd,
+                            waitingHandler,
+                            false
+                    );
+
+                    matchesToAdd.clear();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts the assumptions and adds them to the provided map.
+     *
+     * @param matchAssumptions the match assumptions
+     * @param combinedAssumptions the combined assumptions
+     */
+    private void mergeTagAssumptions(
+            HashMap<Integer, TreeMap<Double, ArrayList<TagAssumption>>> matchAssumptions,
+            HashMap<Integer, TreeMap<Double, ArrayList<TagAssumption>>> combinedAssumptions
+    ) {
+
+        for (Map.Entry<Integer, TreeMap<Double, ArrayList<TagAssumption>>> entry : matchAssumptions.entrySet()) {
+
+            int algorithm = entry.getKey();
+            TreeMap<Double, ArrayList<TagAssumption>> algorithmMap = entry.getValue();
+            TreeMap<Double, ArrayList<TagAssumption>> combinedAlgorithmMap = combinedAssumptions.get(algorithm);
+
+            if (combinedAlgorithmMap == null) {
+
+                combinedAssumptions.put(algorithm, algorithmMap);
+
+            } else {
+
+                for (Map.Entry<Double, ArrayList<TagAssumption>> entry2 : algorithmMap.entrySet()) {
+
+                    double score = entry2.getKey();
+                    ArrayList<TagAssumption> scoreAssumptions = entry2.getValue();
+                    ArrayList<TagAssumption> combinedScoreAssumptions = combinedAlgorithmMap.get(score);
+
+                    if (combinedScoreAssumptions == null) {
+
+                        combinedAlgorithmMap.put(score, scoreAssumptions);
+
+                    } else {
+
+                        combinedScoreAssumptions.addAll(scoreAssumptions);
+
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts the assumptions and adds them to the provided map.
+     *
+     * @param matchAssumptions the match assumptions
+     * @param combinedAssumptions the combined assumptions
+     */
+    private void mergePeptideAssumptions(
+            HashMap<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> matchAssumptions,
+            HashMap<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> combinedAssumptions
+    ) {
+
+        for (Map.Entry<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> entry : matchAssumptions.entrySet()) {
+
+            int algorithm = entry.getKey();
+            TreeMap<Double, ArrayList<PeptideAssumption>> algorithmMap = entry.getValue();
+            TreeMap<Double, ArrayList<PeptideAssumption>> combinedAlgorithmMap = combinedAssumptions.get(algorithm);
+
+            if (combinedAlgorithmMap == null) {
+
+                combinedAssumptions.put(algorithm, algorithmMap);
+
+            } else {
+
+                for (Map.Entry<Double, ArrayList<PeptideAssumption>> entry2 : algorithmMap.entrySet()) {
+
+                    double score = entry2.getKey();
+                    ArrayList<PeptideAssumption> scoreAssumptions = entry2.getValue();
+                    ArrayList<PeptideAssumption> combinedScoreAssumptions = combinedAlgorithmMap.get(score);
+
+                    if (combinedScoreAssumptions == null) {
+
+                        combinedAlgorithmMap.put(score, scoreAssumptions);
+
+                    } else {
+
+                        combinedScoreAssumptions.addAll(scoreAssumptions);
+
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Selects the first hit for the given spectrum match.
      *
@@ -4,7 +4,6 @@ import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.Advocate;
-import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.filtering.PeptideAssumptionFilter;
 import com.compomics.util.experiment.identification.matches.PeptideVariantMatches;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
@@ -12,7 +11,6 @@ import com.compomics.util.experiment.identification.modification.search_engine_m
 import com.compomics.util.experiment.identification.protein_inference.FastaMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
-import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
 import com.compomics.util.experiment.identification.validation.percolator.PercolatorFeature;
 import com.compomics.util.experiment.identification.validation.percolator.PercolatorFeaturesCache;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
@@ -34,16 +32,14 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.IntStream;
 
 /**
- * Runnable for the import of PSMs.
+ * Runnable for the import of the assumptions of PSMs: maps the peptides to the
+ * proteins, maps the modifications, filters the assumptions, and counts the
+ * occurrence of the proteins.
  *
  * @author Marc Vaudel
  */
 public class PsmImportRunnable implements Runnable {
 
-    /**
-     * Size of the batches to use when adding objects to the database.
-     */
-    public static final int BATCH_SIZE = 100000;
     /**
      * The modification factory.
      */
@@ -52,10 +48,6 @@ public class PsmImportRunnable implements Runnable {
      * Iterator for the spectrum matches to import.
      */
     private final ConcurrentLinkedQueue<SpectrumMatch> spectrumMatchQueue;
-    /**
-     * Map of the objects to add to the database.
-     */
-    private final HashMap<Long, Object> matchesToAdd = new HashMap<>(BATCH_SIZE);
     /**
      * The number of first hits.
      */
@@ -81,10 +73,6 @@ public class PsmImportRunnable implements Runnable {
      * Map of the number of times proteins appeared as first hit.
      */
     private final HashMap<String, Integer> proteinCount = new HashMap<>(10000);
-    /**
-     * The identification object database.
-     */
-    private final Identification identification;
     /**
      * The identification parameters.
      */
@@ -118,8 +106,6 @@ public class PsmImportRunnable implements Runnable {
      * @param processingParameters the processing parameters
      * @param fileReader the reader of the file which the matches are imported
      * from
-     * @param identification the identification object where to store the
-     * matches
      * @param sequenceProvider the protein sequence provider
      * @param fastaMapper the FASTA mapper used to map peptides to proteins
      * @param waitingHandler The waiting handler to display feedback to the
@@ -131,7 +117,6 @@ public class PsmImportRunnable implements Runnable {
             IdentificationParameters identificationParameters,
             ProcessingParameters processingParameters,
             IdfileReader fileReader,
-            Identification identification,
             SequenceProvider sequenceProvider,
             FastaMapper fastaMapper,
             WaitingHandler waitingHandler,
@@ -142,7 +127,6 @@ public class PsmImportRunnable implements Runnable {
         this.identificationParameters = identificationParameters;
         this.processingParameters = processingParameters;
         this.fileReader = fileReader;
-        this.identification = identification;
         this.sequenceProvider = sequenceProvider;
         this.fastaMapper = fastaMapper;
         this.waitingHandler = waitingHandler;
@@ -158,7 +142,9 @@ public class PsmImportRunnable implements Runnable {
             SpectrumMatch spectrumMatch;
             while ((spectrumMatch = spectrumMatchQueue.poll()) != null) {
 
-                importPsm(spectrumMatch);
+                nPSMs++;
+
+                importAssumptions(spectrumMatch);
 
                 if (waitingHandler.isRunCanceled()) {
                     return;
@@ -168,16 +154,6 @@ public class PsmImportRunnable implements Runnable {
 
             }
 
-            if (!matchesToAdd.isEmpty()) {
-
-                identification.addSpectrumMatches(
-                        matchesToAdd,
-                        waitingHandler,
-                        false
-                );
-
-            }
-
         } catch (Exception e) {
 
             waitingHandler.setRunCanceled();
@@ -186,142 +162,6 @@ public class PsmImportRunnable implements Runnable {
         }
     }
 
-    /**
-     * Imports a PSM.
-     *
-     * @param spectrumMatch the spectrum match to import
-     */
-    private void importPsm(
-            SpectrumMatch spectrumMatch
-    ) {
-
-        nPSMs++;
-
-        importAssumptions(spectrumMatch);
-
-        if (spectrumMatch.hasPeptideAssumption() || spectrumMatch.hasTagAssumption()) {
-
-            long spectrumMatchKey = spectrumMatch.getKey();
-
-            SpectrumMatch dbMatch = identification.getSpectrumMatch(spectrumMatchKey);
-
-            if (dbMatch != null) {
-
-                mergePeptideAssumptions(
-                        spectrumMatch.getPeptideAssumptionsMap(),
-                        dbMatch.getPeptideAssumptionsMap()
-                );
-                mergeTagAssumptions(
-                        spectrumMatch.getTagAssumptionsMap(),
-                        dbMatch.getTagAssumptionsMap()
-                );
-
-            } else {
-
-                matchesToAdd.put(spectrumMatch.getKey(), spectrumMatch);
-
-                if (matchesToAdd.size() == BATCH_SIZE) {
-
-                    identification.addSpectrumMatches(
-                            matchesToAdd,
-                            waitingHandler,
-                            false
-                    );
-
-                    matchesToAdd.clear();
-
-                }
-
-            }
-        }
-    }
-
-    /**
-     * Extracts the assumptions and adds them to the provided map.
-     *
-     * @param matchAssumptions the match assumptions
-     * @param combinedAssumptions the combined assumptions
-     */
-    private void mergeTagAssumptions(
-            HashMap<Integer, TreeMap<Double, ArrayList<TagAssumption>>> matchAssumptions,
-            HashMap<Integer, TreeMap<Double, ArrayList<TagAssumption>>> combinedAssumptions
-    ) {
-
-        for (Map.Entry<Integer, TreeMap<Double, ArrayList<TagAssumption>>> entry : matchAssumptions.entrySet()) {
-
-            int algorithm = entry.getKey();
-            TreeMap<Double, ArrayList<TagAssumption>> algorithmMap = entry.getValue();
-            TreeMap<Double, ArrayList<TagAssumption>> combinedAlgorithmMap = combinedAssumptions.get(algorithm);
-
-            if (combinedAlgorithmMap == null) {
-
-                combinedAssumptions.put(algorithm, algorithmMap);
-
-            } else {
-
-                for (Map.Entry<Double, ArrayList<TagAssumption>> entry2 : algorithmMap.entrySet()) {
-
-                    double score = entry2.getKey();
-                    ArrayList<TagAssumption> scoreAssumptions = entry2.getValue();
-                    ArrayList<TagAssumption> combinedScoreAssumptions = combinedAlgorithmMap.get(score);
-
-                    if (combinedScoreAssumptions == null) {
-
-                        combinedAlgorithmMap.put(score, scoreAssumptions);
-
-                    } else {
-
-                        combinedScoreAssumptions.addAll(scoreAssumptions);
-
-                    }
-                }
-            }
-        }
-    }
-
-    /**
-     * Extracts the assumptions and adds them to the provided map.
-     *
-     * @param matchAssumptions the match assumptions
-     * @param combinedAssumptions the combined assumptions
-     */
-    private void mergePeptideAssumptions(
-            HashMap<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> matchAssumptions,
-            HashMap<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> combinedAssumptions
-    ) {
-
-        for (Map.Entry<Integer, TreeMap<Double, ArrayList<PeptideAssumption>>> entry : matchAssumptions.entrySet()) {
-
-            int algorithm = entry.getKey();
-            TreeMap<Double, ArrayList<PeptideAssumption>> algorithmMap = entry.getValue();
-            TreeMap<Double, ArrayList<PeptideAssumption>> combinedAlgorithmMap = combinedAssumptions.get(algorithm);
-
-            if (combinedAlgorithmMap == null) {
-
-                combinedAssumptions.put(algorithm, algorithmMap);
-
-            } else {
-
-                for (Map.Entry<Double, ArrayList<PeptideAssumption>> entry2 : algorithmMap.entrySet()) {
-
-                    double score = entry2.getKey();
-                    ArrayList<PeptideAssumption> scoreAssumptions = entry2.getValue();
-                    ArrayList<PeptideAssumption> combinedScoreAssumptions = combinedAlgorithmMap.get(score);
-
-                    if (combinedScoreAssumptions == null) {
-
-                        combinedAlgorithmMap.put(score, scoreAssumptions);
-
-                    } else {
-
-                        combinedScoreAssumptions.addAll(scoreAssumptions);
-
-                    }
-                }
-            }
-        }
-    }
-
     /**
      * Import the assumptions. Maps algorithm specific modifications to the
      * generic objects. Relocates aberrant modifications and removes assumptions
@@ -24,6 +24,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -111,7 +112,7 @@ public class PsmImporter {
      * Map of proteins found several times with the number of times they
      * appeared as first hit.
      */
-    private HashMap<String, Integer> proteinCount = new HashMap<>(10000);
+    private final HashMap<String, Integer> proteinCount = new HashMap<>(10000);
 
     /**
      * Constructor.
@@ -121,15 +122,17 @@ public class PsmImporter {
     }
 
     /**
-     * Imports PSMs.
+     * Imports the assumptions of the given PSMs and counts the occurrence of
+     * the proteins. The peptides are mapped to the proteins and their
+     * modifications are mapped. Can be called several times to import a file
+     * in batches. The PSMs must then be stored using importPsms once the
+     * assumptions of all the PSMs of the file are imported, so that the
+     * protein counts used to break ties are complete.
      *
      * @param spectrumMatches The PSMs to import.
-     * @param identification The identification object.
      * @param identificationParameters The identification parameters.
-     * @param inputMap The input map.
      * @param fileReader The file reader.
      * @param sequenceProvider The sequence provider.
-     * @param spectrumProvider The spectrum provider.
      * @param fastaMapper The sequence mapper.
      * @param processingParameters The processing parameters.
      * @param waitingHandler The waiting handler to display progress and allow
@@ -141,14 +144,11 @@ public class PsmImporter {
      * @throws java.util.concurrent.TimeoutException Exception thrown if the
      * process timed out.
      */
-    public void importPsms(
+    public void importAssumptions(
             ArrayList<SpectrumMatch> spectrumMatches,
-            Identification identification,
             IdentificationParameters identificationParameters,
-            InputMap inputMap,
             IdfileReader fileReader,
             SequenceProvider sequenceProvider,
-            SpectrumProvider spectrumProvider,
             FastaMapper fastaMapper,
             ProcessingParameters processingParameters,
             WaitingHandler waitingHandler,
@@ -172,7 +172,6 @@ public class PsmImporter {
                             identificationParameters,
                             processingParameters,
                             fileReader,
-                            identification,
                             sequenceProvider,
                             fastaMapper,
                             waitingHandler,
@@ -219,10 +218,49 @@ public class PsmImporter {
                 }
             }
         }
+    }
 
-        spectrumMatchQueue = new ConcurrentLinkedQueue<>(spectrumMatches);
+    /**
+     * Stores the given PSMs in the database and selects their first hits in a
+     * single pass. The assumptions of all the PSMs of the file must have been
+     * imported using importAssumptions beforehand. The selection of a PSM only
+     * depends on its assumptions and on the protein counts of all the PSMs
+     * imported, the outcome is hence independent of the number of threads.
+     *
+     * @param spectrumMatches The PSMs to process.
+     * @param identification The identification object.
+     * @param identificationParameters The identification parameters.
+     * @param inputMap The input map.
+     * @param sequenceProvider The sequence provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param processingParameters The processing parameters.
+     * @param waitingHandler The waiting handler to display progress and allow
+     * canceling the import.
+     * @param exceptionHandler The handler of exceptions.
+     *
+     * @throws java.lang.InterruptedException Exception thrown if a thread is
+     * interrupted.
+     * @throws java.util.concurrent.TimeoutException Exception thrown if the
+     * process timed out.
+     */
+    public void importPsms(
+            List<SpectrumMatch> spectrumMatches,
+            Identification identification,
+            IdentificationParameters identificationParameters,
+            InputMap inputMap,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ProcessingParameters processingParameters,
+            WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler
+    )
+            throws InterruptedException, TimeoutException {
+
+        int nThreads = processingParameters.getnThreads();
 
-        ExecutorService firstHitPool = Executors.newFixedThreadPool(nThreads);
+        ConcurrentLinkedQueue<SpectrumMatch> spectrumMatchQueue = new ConcurrentLinkedQueue<>(spectrumMatches);
+
+        ExecutorService importPool = Executors.newFixedThreadPool(nThreads);
 
         ArrayList<PsmFirstHitRunnable> firstHitRunnables = new ArrayList<>(nThreads);
 
@@ -231,6 +269,7 @@ public class PsmImporter {
             firstHitRunnables.add(
                     new PsmFirstHitRunnable(
                             spectrumMatchQueue,
+                            identification,
                             identificationParameters,
                             sequenceProvider,
                             spectrumProvider,
@@ -243,12 +282,12 @@ public class PsmImporter {
         }
 
         firstHitRunnables.forEach(
-                worker -> firstHitPool.submit(worker)
+                worker -> importPool.submit(worker)
         );
 
-        firstHitPool.shutdown();
+        importPool.shutdown();
 
-        if (!firstHitPool.awaitTermination(TIMEOUT_DAYS, TimeUnit.DAYS)) {
+        if (!importPool.awaitTermination(TIMEOUT_DAYS, TimeUnit.DAYS)) {
 
             throw new TimeoutException(
                     "Analysis timed out (time out: " + TIMEOUT_DAYS + " days)"
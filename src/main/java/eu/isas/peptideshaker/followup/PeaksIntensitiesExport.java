@@ -19,6 +19,7 @@ import com.compomics.util.parameters.identification.advanced.SequenceMatchingPar
 import com.compomics.util.parameters.identification.search.ModificationParameters;
 import com.compomics.util.threading.SimpleSemaphore;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.Ms2PipPrediction;
 import eu.isas.peptideshaker.utils.Ms2PipUtils;
 import eu.isas.peptideshaker.utils.PercolatorUtils;
 
@@ -63,13 +64,13 @@ public class PeaksIntensitiesExport {
             WaitingHandler waitingHandler
     ) {
 
-        HashMap<String, ArrayList<Spectrum>> fragmentationPrediction = null;
+        Ms2PipPrediction fragmentationPrediction = null;
 
         if (ms2pipFile != null) {
 
             waitingHandler.setWaitingText("Exporting mass spectra peaks intensities - Parsing ms2pip results");
 
-            fragmentationPrediction = PercolatorExport.getIntensitiesPrediction(ms2pipFile);
+            fragmentationPrediction = Ms2PipPrediction.getPrediction(ms2pipFile);
 
         }
 
@@ -126,8 +127,8 @@ public class PeaksIntensitiesExport {
      * Export the peak intensities.
      *
      * @param peaksIntensitiesFile The file to write the export.
-     * @param fragmentationPrediction the map of predicted spectrum key to
-     * fragmentation predictions.
+     * @param fragmentationPrediction the fragmentation predictions indexed
+     * by peptide key.
      * @param psmIDs the list of PSM ids to be used for the export.
      * @param identification the identification
      * @param modificationParameters The modification parameters.
@@ -141,7 +142,7 @@ public class PeaksIntensitiesExport {
      */
     public static void peaksIntensitiesExport(
             File peaksIntensitiesFile,
-            HashMap<String, ArrayList<Spectrum>> fragmentationPrediction,
+            Ms2PipPrediction fragmentationPrediction,
             ArrayList<String> psmIDs,
             Identification identification,
             ModificationParameters modificationParameters,
@@ -219,8 +220,8 @@ public class PeaksIntensitiesExport {
     /**
      * Writes a peptide candidate to the export if not done already.
      *
-     * @param fragmentationPrediction the map of predicted spectrum key to
-     * fragmentation predictions.
+     * @param fragmentationPrediction the fragmentation predictions indexed
+     * by peptide key.
      * @param peptideAssumption The peptide assumption to write.
      * @param modificationParameters The modification parameters.
      * @param annotationParameters The annotation parameters.
@@ -236,7 +237,7 @@ public class PeaksIntensitiesExport {
      * @param writer The writer to use.
      */
     private static void writePeptideCandidate(
-            HashMap<String, ArrayList<Spectrum>> fragmentationPrediction,
+            Ms2PipPrediction fragmentationPrediction,
             ArrayList<String> psmIDs,
             PeptideAssumption peptideAssumption,
             ModificationParameters modificationParameters,
@@ -272,7 +273,7 @@ public class PeaksIntensitiesExport {
             return;
         }
 
-        ArrayList<Spectrum> predictedSpectra = fragmentationPrediction.get(peptideID);
+        ArrayList<Spectrum> predictedSpectra = fragmentationPrediction.getPredictedSpectra(peptideKey);
 
         if (predictedSpectra == null) {
             System.out.println("No MS2PIP prediction for PSM with ID: " + psmID);
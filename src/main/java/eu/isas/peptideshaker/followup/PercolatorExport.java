@@ -9,25 +9,27 @@ import com.compomics.util.experiment.identification.spectrum_assumptions.Peptide
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
-import com.compomics.util.io.flat.SimpleFileReader;
 import com.compomics.util.io.flat.SimpleFileWriter;
 import com.compomics.util.parameters.identification.advanced.ModificationLocalizationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import com.compomics.util.parameters.identification.search.ModificationParameters;
 import com.compomics.util.parameters.identification.search.SearchParameters;
-import com.compomics.util.threading.SimpleSemaphore;
 import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.DeepLcPrediction;
 import eu.isas.peptideshaker.utils.DeepLcUtils;
+import eu.isas.peptideshaker.utils.Ms2PipPrediction;
 import eu.isas.peptideshaker.utils.Ms2PipUtils;
 import eu.isas.peptideshaker.utils.PercolatorUtils;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,6 +41,15 @@ import java.util.logging.Logger;
  */
 public class PercolatorExport {
 
+    /**
+     * The number of spectrum matches processed together by a thread.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The number of batches per thread that can be waiting to be written.
+     */
+    public static final int QUEUED_BATCHES_PER_THREAD = 2;
+
     /**
      * Exports a Percolator training file for each of the spectrum files.
      * Returns an ArrayList of the files exported.
@@ -75,24 +86,24 @@ public class PercolatorExport {
     ) {
 
         // Parse retention time prediction
-        HashMap<String, ArrayList<Double>> rtPrediction = null;
+        DeepLcPrediction rtPrediction = null;
 
         if (deepLcFile != null) {
 
             waitingHandler.setWaitingText("Exporting Percolator output - Parsing DeepLC results");
 
-            rtPrediction = getRtPrediction(deepLcFile);
+            rtPrediction = DeepLcPrediction.getPrediction(deepLcFile);
 
         }
 
         // Parse fragmentation prediction
-        HashMap<String, ArrayList<Spectrum>> fragmentationPrediction = null;
+        Ms2PipPrediction fragmentationPrediction = null;
 
         if (ms2pipFile != null) {
 
             waitingHandler.setWaitingText("Exporting Percolator output - Parsing ms2pip results");
 
-            fragmentationPrediction = getIntensitiesPrediction(ms2pipFile);
+            fragmentationPrediction = Ms2PipPrediction.getPrediction(ms2pipFile);
 
         }
 
@@ -120,265 +131,6 @@ public class PercolatorExport {
         }
     }
 
-    /**
-     * Parses the Rt prediction from DeepLC.
-     *
-     * Expected format: ,seq,modifications,predicted_tr
-     * 0,NSVNGTFPAEPMKGPIAMQSGPKPLFR,12|Oxidation,3878.9216854262777
-     *
-     * @param deepLcFile File with RT predictions from DeepLC.
-     * @return
-     */
-    private static HashMap<String, ArrayList<Double>> getRtPrediction(
-            File deepLcFile
-    ) {
-
-        HashMap<String, ArrayList<Double>> result = new HashMap<>();
-
-        try ( SimpleFileReader reader = SimpleFileReader.getFileReader(deepLcFile)) {
-
-            String line = reader.readLine();
-
-            while ((line = reader.readLine()) != null) {
-
-                String[] lineSplit = line.split(",");
-
-                String key = String.join(",", lineSplit[1], lineSplit[2]);
-
-                double rt = Double.parseDouble(lineSplit[4]);
-
-                /*ArrayList<Double> rtsForPeptide = result.get(key);
-
-                if (rtsForPeptide == null) {
-
-                    rtsForPeptide = new ArrayList<>(1);
-
-                }
-
-                rtsForPeptide.add(rt);*/
-                if (result.get(key) == null) {
-
-                    ArrayList<Double> rtsForPeptide = new ArrayList<>(1);
-                    rtsForPeptide.add(rt);
-                    result.put(key, rtsForPeptide);
-
-                } else {
-
-                    result.get(key).add(rt);
-
-                }
-
-            }
-        }
-
-        return result;
-
-    }
-
-    /**
-     * Parses the peaks intensities prediction from MS2PIP.
-     *
-     * Expected format:
-     * predicted_spectrum_key,charge,ion,ionnumber,mz,prediction
-     * 2238942014911164193,3,B,1,138.066,0
-     *
-     * @param ms2pipFile File with spectra fragmentation predictions from
-     * MS2PIP.
-     *
-     * @return Map with pairs (Ms2PipKey, [Spectrum, bSpectrum, ySpectrum])
-     */
-    public static HashMap<String, ArrayList<Spectrum>> getIntensitiesPrediction(
-            File ms2pipFile
-    ) {
-
-        HashMap<String, ArrayList<Spectrum>> result = new HashMap<>();
-
-        try ( SimpleFileReader reader = SimpleFileReader.getFileReader(ms2pipFile)) {
-
-            String line = reader.readLine();
-
-            //read 1st line of data outside while loop
-            String firstDataLine = reader.readLine();
-            String[] firstDataLineSplit = firstDataLine.split(",");
-
-            String predictedSpectrumKey = firstDataLineSplit[0];
-
-            String firstIon = firstDataLineSplit[2];
-
-            double firstMz = Double.parseDouble(firstDataLineSplit[4]);
-            double firstPrediction = Double.parseDouble(firstDataLineSplit[5]);
-
-            ArrayList<Double> mzs = new ArrayList<>();
-            ArrayList<Double> predictions = new ArrayList<>();
-            mzs.add(firstMz);
-            predictions.add(firstPrediction);
-
-            ArrayList<Double> mzsB = new ArrayList<>();
-            ArrayList<Double> predictionsB = new ArrayList<>();
-            ArrayList<Double> mzsY = new ArrayList<>();
-            ArrayList<Double> predictionsY = new ArrayList<>();
-
-            if ((firstIon.equals("B")) || (firstIon.equals("B2"))) {
-                mzsB.add(firstMz);
-                predictionsB.add(firstPrediction);
-            } else if ((firstIon.equals("Y")) || (firstIon.equals("Y2"))) {
-                mzsY.add(firstMz);
-                predictionsY.add(firstPrediction);
-            }
-
-            while ((line = reader.readLine()) != null) {
-
-                String[] lineSplit = line.split(",");
-
-                String key = lineSplit[0];
-
-                String ion = lineSplit[2];
-
-                double mz = Double.parseDouble(lineSplit[4]);
-                double prediction = Double.parseDouble(lineSplit[5]);
-
-                if (key.equals(predictedSpectrumKey)) {
-                    mzs.add(mz);
-                    predictions.add(prediction);
-
-                    if ((ion.equals("B")) || (ion.equals("B2"))) {
-                        mzsB.add(mz);
-                        predictionsB.add(prediction);
-                    } else if ((ion.equals("Y")) || (ion.equals("Y2"))) {
-                        mzsY.add(mz);
-                        predictionsY.add(prediction);
-                    }
-
-                } else {
-
-                    //Create Spectrum object with all predicted peaks
-                    ArrayList<Double> mzsUnsorted = new ArrayList<>(mzs);
-                    Collections.sort(mzs);
-
-                    double[] mzsArray = new double[mzs.size()];
-                    double[] predictionsArray = new double[mzs.size()];
-                    for (int i = 0; i < predictionsArray.length; i++) {
-                        mzsArray[i] = mzs.get(i);
-                        int index = mzsUnsorted.indexOf(mzs.get(i));
-                        predictionsArray[i] = predictions.get(index);
-                    }
-
-                    Spectrum predictedSpectrum = new Spectrum(null, mzsArray, predictionsArray, 2);
-
-                    //Create Spectrum object with all B predicted peaks
-                    ArrayList<Double> mzsBUnsorted = new ArrayList<>(mzsB);
-                    Collections.sort(mzsB);
-
-                    double[] mzsBArray = new double[mzsB.size()];
-                    double[] predictionsBArray = new double[mzsB.size()];
-                    for (int i = 0; i < predictionsBArray.length; i++) {
-                        mzsBArray[i] = mzsB.get(i);
-                        int index = mzsBUnsorted.indexOf(mzsB.get(i));
-                        predictionsBArray[i] = predictionsB.get(index);
-                    }
-
-                    Spectrum predictedBionSpectrum = new Spectrum(null, mzsBArray, predictionsBArray, 2);
-
-                    //Create Spectrum object with all Y predicted peaks
-                    ArrayList<Double> mzsYUnsorted = new ArrayList<>(mzsY);
-                    Collections.sort(mzsY);
-
-                    double[] mzsYArray = new double[mzsY.size()];
-                    double[] predictionsYArray = new double[mzsY.size()];
-                    for (int i = 0; i < predictionsYArray.length; i++) {
-                        mzsYArray[i] = mzsY.get(i);
-                        int index = mzsYUnsorted.indexOf(mzsY.get(i));
-                        predictionsYArray[i] = predictionsY.get(index);
-                    }
-
-                    Spectrum predictedYionSpectrum = new Spectrum(null, mzsYArray, predictionsYArray, 2);
-
-                    ArrayList<Spectrum> predictedSpectra = new ArrayList<>();
-                    predictedSpectra.add(predictedSpectrum);
-                    predictedSpectra.add(predictedBionSpectrum);
-                    predictedSpectra.add(predictedYionSpectrum);
-
-                    result.put(predictedSpectrumKey, predictedSpectra);
-
-                    mzs = new ArrayList<>();
-                    predictions = new ArrayList<>();
-
-                    mzs.add(mz);
-                    predictions.add(prediction);
-
-                    mzsB = new ArrayList<>();
-                    predictionsB = new ArrayList<>();
-                    mzsY = new ArrayList<>();
-                    predictionsY = new ArrayList<>();
-
-                    if ((ion.equals("B")) || (ion.equals("B2"))) {
-                        mzsB.add(mz);
-                        predictionsB.add(prediction);
-                    } else if ((ion.equals("Y")) || (ion.equals("Y2"))) {
-                        mzsY.add(mz);
-                        predictionsY.add(prediction);
-                    }
-
-                    predictedSpectrumKey = key;
-                }
-
-            }
-
-            //Create Spectrum object with all predicted peaks
-            ArrayList<Double> mzsUnsorted = new ArrayList<>(mzs);
-            Collections.sort(mzs);
-
-            double[] mzsArray = new double[mzs.size()];
-            double[] predictionsArray = new double[mzs.size()];
-            for (int i = 0; i < predictionsArray.length; i++) {
-                mzsArray[i] = mzs.get(i);
-                int index = mzsUnsorted.indexOf(mzs.get(i));
-                predictionsArray[i] = predictions.get(index);
-            }
-
-            Spectrum predictedSpectrum = new Spectrum(null, mzsArray, predictionsArray, 2);
-
-            //Create Spectrum object with all B predicted peaks
-            ArrayList<Double> mzsBUnsorted = new ArrayList<>(mzsB);
-            Collections.sort(mzsB);
-
-            double[] mzsBArray = new double[mzsB.size()];
-            double[] predictionsBArray = new double[mzsB.size()];
-            for (int i = 0; i < predictionsBArray.length; i++) {
-                mzsBArray[i] = mzsB.get(i);
-                int index = mzsBUnsorted.indexOf(mzsB.get(i));
-                predictionsBArray[i] = predictionsB.get(index);
-            }
-
-            Spectrum predictedBionSpectrum = new Spectrum(null, mzsBArray, predictionsBArray, 2);
-
-            //Create Spectrum object with all Y predicted peaks
-            ArrayList<Double> mzsYUnsorted = new ArrayList<>(mzsY);
-            Collections.sort(mzsY);
-
-            double[] mzsYArray = new double[mzsY.size()];
-            double[] predictionsYArray = new double[mzsY.size()];
-            for (int i = 0; i < predictionsYArray.length; i++) {
-                mzsYArray[i] = mzsY.get(i);
-                int index = mzsYUnsorted.indexOf(mzsY.get(i));
-                predictionsYArray[i] = predictionsY.get(index);
-            }
-
-            Spectrum predictedYionSpectrum = new Spectrum(null, mzsYArray, predictionsYArray, 2);
-
-            ArrayList<Spectrum> predictedSpectra = new ArrayList<>();
-            predictedSpectra.add(predictedSpectrum);
-            predictedSpectra.add(predictedBionSpectrum);
-            predictedSpectra.add(predictedYionSpectrum);
-
-            result.put(predictedSpectrumKey, predictedSpectra);
-
-        }
-
-        return result;
-
-    }
-
     /**
      * Exports a Percolator training file.
      *
@@ -405,8 +157,8 @@ public class PercolatorExport {
     public static void percolatorExport(
             File destinationFile,
             File rtObsPredsFile,
-            HashMap<String, ArrayList<Double>> rtPrediction,
-            HashMap<String, ArrayList<Spectrum>> fragmentationPrediction,
+            DeepLcPrediction rtPrediction,
+            Ms2PipPrediction fragmentationPrediction,
             Identification identification,
             SearchParameters searchParameters,
             SequenceMatchingParameters sequenceMatchingParameters,
@@ -427,165 +179,326 @@ public class PercolatorExport {
 
         ModificationFactory modificationFactory = ModificationFactory.getInstance();
 
-        SimpleSemaphore writingSemaphore = new SimpleSemaphore(1);
-
         try ( SimpleFileWriter writer = new SimpleFileWriter(destinationFile, true)) {
 
             Boolean rtPredictionsAvailable = rtPrediction != null;
             Boolean spectraPredictionsAvailable = fragmentationPrediction != null;
 
-            HashMap<String, ArrayList<Double>> allRTvalues = null;
-            if (rtPredictionsAvailable) {
-                allRTvalues = getAllObservedPredictedRT(
-                        identification,
-                        rtPrediction,
-                        searchParameters,
-                        sequenceProvider,
-                        sequenceMatchingParameters,
-                        modificationFactory,
-                        spectrumProvider,
-                        waitingHandler
-                );
-            }
-            final HashMap<String, ArrayList<Double>> allRTs = allRTvalues;
-
             String header = PercolatorUtils.getHeader(searchParameters, rtPredictionsAvailable, spectraPredictionsAvailable);
 
             writer.writeLine(header);
 
+            writeSpectrumMatches(
+                    identification,
+                    null,
+                    rtPrediction,
+                    false,
+                    fragmentationPrediction,
+                    searchParameters,
+                    sequenceProvider,
+                    sequenceMatchingParameters,
+                    annotationParameters,
+                    modificationLocalizationParameters,
+                    modificationFactory,
+                    modificationParameters,
+                    spectrumProvider,
+                    threadCount,
+                    writer,
+                    waitingHandler
+            );
+        }
+    }
+
+    /**
+     * Writes the lines of all spectrum matches. The matches are streamed in
+     * batches to the pool, the lines of every batch are computed by one thread
+     * and written in the order of the matches. The number of batches in
+     * flight is bounded, hence the number of matches held in memory.
+     *
+     * @param identification The identification object containing the matches.
+     * @param allRTvalues The scaled observed and predicted retention times
+     * per peptide, null if not exported.
+     * @param rtPrediction The retention time prediction, null if not
+     * available. The retention time features of a line are computed from the
+     * spectrum of the line.
+     * @param rtFileWriterFlag If true, the observed and predicted retention
+     * times are written instead of the Percolator features.
+     * @param fragmentationPrediction The mass spectrum predictions for all
+     * peptides.
+     * @param searchParameters The search parameters.
+     * @param sequenceProvider The sequence provider.
+     * @param sequenceMatchingParameters The sequence matching parameters.
+     * @param annotationParameters The annotation parameters.
+     * @param modificationLocalizationParameters The modification localization
+     * parameters.
+     * @param modificationFactory The factory containing the modification
+     * details.
+     * @param modificationParameters The modification parameters.
+     * @param spectrumProvider The spectrum provider.
+     * @param nThreads The number of threads to use.
+     * @param writer The writer to use.
+     * @param waitingHandler The waiting handler.
+     */
+    private static void writeSpectrumMatches(
+            Identification identification,
+            HashMap<String, ArrayList<Double>> allRTvalues,
+            DeepLcPrediction rtPrediction,
+            boolean rtFileWriterFlag,
+            Ms2PipPrediction fragmentationPrediction,
+            SearchParameters searchParameters,
+            SequenceProvider sequenceProvider,
+            SequenceMatchingParameters sequenceMatchingParameters,
+            AnnotationParameters annotationParameters,
+            ModificationLocalizationParameters modificationLocalizationParameters,
+            ModificationFactory modificationFactory,
+            ModificationParameters modificationParameters,
+            SpectrumProvider spectrumProvider,
+            int nThreads,
+            SimpleFileWriter writer,
+            WaitingHandler waitingHandler
+    ) {
+
+        long annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                annotationParameters,
+                modificationParameters,
+                modificationLocalizationParameters.getSequenceMatchingParameters()
+        );
+
+        // create a custom thread pool to manage the number of threads
+        System.out.println("Creating a custom thread pool: " + nThreads + " threads.");
+        ForkJoinPool customThreadPool = new ForkJoinPool(nThreads);
+
+        // the lines of the batches in the order of the matches
+        int queueSize = QUEUED_BATCHES_PER_THREAD * nThreads;
+        ArrayDeque<ForkJoinTask<ArrayList<String>>> outputQueue = new ArrayDeque<>(queueSize);
+
+        try {
+
             SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(waitingHandler);
 
-            // create a custom thread pool to manage the number of threads
-            System.out.println("Creating a custom thread pool: " + threadCount + " threads.");
-            ForkJoinPool customThreadPool = new ForkJoinPool(threadCount);
+            ArrayList<SpectrumMatch> batch = new ArrayList<>(BATCH_SIZE);
+            SpectrumMatch spectrumMatch;
+
+            while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
+
+                // Display progress
+                if (waitingHandler != null) {
+
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                    if (waitingHandler.isRunCanceled()) {
 
-            // aggregate all the spectrum matches into a list -> iterate over it
-            SpectrumMatch match;
-            ArrayList<SpectrumMatch> allSpectrumMatches = new ArrayList<>();
-            while ((match = spectrumMatchesIterator.next()) != null) {
-                allSpectrumMatches.add(match);
-            }
-            System.out.println("Processing " + allSpectrumMatches.size() + " matches");
-
-            //while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
-            // parallelize over all scans
-            try {
-                customThreadPool.submit(() -> allSpectrumMatches.parallelStream().forEach(spectrumMatch -> {
-                    //SpectrumMatch spectrumMatch = spectrumMatchesIterator.next();
-                    if (spectrumMatch == null) {
                         return;
-                    }
 
-                    // Make sure that there is no duplicate in the export
-                    HashSet<Long> processedPsmKeys = new HashSet<>();
+                    }
+                }
 
-                    // Display progress
-                    if (waitingHandler != null) {
+                batch.add(spectrumMatch);
 
-                        waitingHandler.increaseSecondaryProgressCounter();
+                if (batch.size() == BATCH_SIZE) {
 
-                        if (waitingHandler.isRunCanceled()) {
+                    if (outputQueue.size() == queueSize) {
 
-                            return;
+                        writeLines(outputQueue.poll().join(), writer);
 
-                        }
                     }
 
-                    Boolean rtFileWriterFlag = false;
+                    ArrayList<SpectrumMatch> spectrumMatches = batch;
 
-                    // Export all candidate peptides
-                    SpectrumMatch tempSpectrumMatch = spectrumMatch;
-                    tempSpectrumMatch.getAllPeptideAssumptions()
-                            .forEach(
-                                    peptideAssumption -> writePeptideCandidate(
-                                            tempSpectrumMatch,
-                                            peptideAssumption,
-                                            allRTs,
+                    outputQueue.add(
+                            customThreadPool.submit(
+                                    () -> getLines(
+                                            spectrumMatches,
+                                            allRTvalues,
+                                            rtPrediction,
                                             rtFileWriterFlag,
                                             fragmentationPrediction,
                                             searchParameters,
                                             sequenceProvider,
                                             sequenceMatchingParameters,
                                             annotationParameters,
+                                            annotationSettingsKey,
                                             modificationLocalizationParameters,
                                             modificationFactory,
                                             modificationParameters,
-                                            spectrumProvider,
-                                            processedPsmKeys,
-                                            writingSemaphore,
-                                            writer
+                                            spectrumProvider
                                     )
-                            );
-                })).join();
+                            )
+                    );
 
-            } finally {
-                System.out.println("Shutting down thread pool.");
-                customThreadPool.shutdown();
+                    batch = new ArrayList<>(BATCH_SIZE);
+
+                }
             }
 
-        }
+            if (!batch.isEmpty()) {
+
+                ArrayList<SpectrumMatch> spectrumMatches = batch;
+
+                outputQueue.add(
+                        customThreadPool.submit(
+                                () -> getLines(
+                                        spectrumMatches,
+                                        allRTvalues,
+                                        rtPrediction,
+                                        rtFileWriterFlag,
+                                        fragmentationPrediction,
+                                        searchParameters,
+                                        sequenceProvider,
+                                        sequenceMatchingParameters,
+                                        annotationParameters,
+                                        annotationSettingsKey,
+                                        modificationLocalizationParameters,
+                                        modificationFactory,
+                                        modificationParameters,
+                                        spectrumProvider
+                                )
+                        )
+                );
+            }
+
+            while (!outputQueue.isEmpty()) {
 
+                writeLines(outputQueue.poll().join(), writer);
+
+            }
+
+        } finally {
+            System.out.println("Shutting down thread pool.");
+            customThreadPool.shutdown();
+        }
     }
 
     /**
+     * Returns the lines of the candidate peptides of the given spectrum
+     * matches in the order of the matches. Candidates yielding the same PSM
+     * key as a previous candidate of the same match are skipped.
      *
-     * @param identification The identification object containing the matches.
+     * @param spectrumMatches The spectrum matches.
+     * @param allRTvalues The scaled observed and predicted retention times
+     * per peptide, null if not exported.
+     * @param rtPrediction The retention time prediction, null if not
+     * available. The retention time features of a line are computed from the
+     * spectrum of the line.
+     * @param rtFileWriterFlag If true, the observed and predicted retention
+     * times are returned instead of the Percolator features.
+     * @param fragmentationPrediction The mass spectrum predictions for all
+     * peptides.
      * @param searchParameters The search parameters.
+     * @param sequenceProvider The sequence provider.
      * @param sequenceMatchingParameters The sequence matching parameters.
      * @param annotationParameters The annotation parameters.
-     * @param sequenceProvider The sequence provider.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
+     * @param modificationLocalizationParameters The modification localization
+     * parameters.
+     * @param modificationFactory The factory containing the modification
+     * details.
+     * @param modificationParameters The modification parameters.
      * @param spectrumProvider The spectrum provider.
-     * @param waitingHandler The waiting handler.
+     *
+     * @return The lines of the candidate peptides.
      */
-    private static HashMap<String, ArrayList<Double>> getAllObservedPredictedRT(
-            Identification identification,
-            HashMap<String, ArrayList<Double>> rtPrediction,
+    private static ArrayList<String> getLines(
+            ArrayList<SpectrumMatch> spectrumMatches,
+            HashMap<String, ArrayList<Double>> allRTvalues,
+            DeepLcPrediction rtPrediction,
+            boolean rtFileWriterFlag,
+            Ms2PipPrediction fragmentationPrediction,
             SearchParameters searchParameters,
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
+            AnnotationParameters annotationParameters,
+            long annotationSettingsKey,
+            ModificationLocalizationParameters modificationLocalizationParameters,
             ModificationFactory modificationFactory,
-            SpectrumProvider spectrumProvider,
-            WaitingHandler waitingHandler
+            ModificationParameters modificationParameters,
+            SpectrumProvider spectrumProvider
     ) {
 
-        if (rtPrediction == null) {
-            return null;
-        }
+        ArrayList<String> lines = new ArrayList<>(spectrumMatches.size());
+        long[] psmKeys = new long[spectrumMatches.size()];
 
-        HashMap<String, ArrayList<Double>> allRTvalues = new HashMap<>();
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
 
-        SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(waitingHandler);
+            int matchStart = lines.size();
 
-        SpectrumMatch spectrumMatch;
+            Iterator<PeptideAssumption> peptideAssumptions = spectrumMatch.getAllPeptideAssumptions().iterator();
 
-        while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
+            while (peptideAssumptions.hasNext()) {
 
-            final HashMap<String, ArrayList<Double>> rtPreds = rtPrediction;
+                String peptideData = getPeptideCandidateLine(
+                        spectrumMatch,
+                        peptideAssumptions.next(),
+                        allRTvalues,
+                        rtPrediction,
+                        rtFileWriterFlag,
+                        fragmentationPrediction,
+                        searchParameters,
+                        sequenceProvider,
+                        sequenceMatchingParameters,
+                        annotationParameters,
+                        annotationSettingsKey,
+                        modificationLocalizationParameters,
+                        modificationFactory,
+                        modificationParameters,
+                        spectrumProvider
+                );
 
-            // Export all candidate peptides
-            SpectrumMatch tempSpectrumMatch = spectrumMatch;
-            tempSpectrumMatch.getAllPeptideAssumptions()
-                    .parallel()
-                    .forEach(
-                            peptideAssumption -> addPeptideCandidateRT(
-                                    allRTvalues,
-                                    tempSpectrumMatch,
-                                    peptideAssumption,
-                                    rtPreds,
-                                    searchParameters,
-                                    sequenceProvider,
-                                    sequenceMatchingParameters,
-                                    modificationFactory,
-                                    spectrumProvider
-                            )
-                    );
+                if (peptideData != null) {
+
+                    // Make sure that there is no duplicate in the export
+                    long psmKey = PercolatorUtils.getPsmKey(peptideData);
+                    boolean processed = false;
+
+                    for (int i = matchStart; i < lines.size(); i++) {
+
+                        if (psmKeys[i] == psmKey) {
+
+                            processed = true;
+                            break;
+
+                        }
+                    }
+
+                    if (!processed) {
+
+                        if (lines.size() == psmKeys.length) {
+
+                            psmKeys = Arrays.copyOf(psmKeys, 2 * psmKeys.length + 1);
 
+                        }
+
+                        psmKeys[lines.size()] = psmKey;
+                        lines.add(peptideData);
+
+                    }
+                }
+            }
         }
 
-        return allRTvalues;
+        return lines;
 
     }
 
+    /**
+     * Writes the given lines.
+     *
+     * @param lines The lines to write.
+     * @param writer The writer to use.
+     */
+    private static void writeLines(
+            ArrayList<String> lines,
+            SimpleFileWriter writer
+    ) {
+
+        for (String line : lines) {
+
+            writer.writeLine(line);
+
+        }
+    }
+
     /**
      *
      * @param deepLcFile The deepLC results.
@@ -615,16 +528,17 @@ public class PercolatorExport {
             WaitingHandler waitingHandler
     ) {
 
-        Boolean rtPredictionsAvailable = deepLcFile != null;
+        //Hard-coded number of threads;
+        int threadCount = 10;
 
         // Parse retention time prediction
-        HashMap<String, ArrayList<Double>> rtPrediction = new HashMap<>();
+        DeepLcPrediction rtPrediction;
 
         if (deepLcFile != null) {
 
             waitingHandler.setWaitingText("Exporting Percolator output - Parsing DeepLC results");
 
-            rtPrediction = getRtPrediction(deepLcFile);
+            rtPrediction = DeepLcPrediction.getPrediction(deepLcFile);
 
         } else {
             return;
@@ -636,8 +550,6 @@ public class PercolatorExport {
 
         ModificationFactory modificationFactory = ModificationFactory.getInstance();
 
-        SimpleSemaphore writingSemaphore = new SimpleSemaphore(1);
-
         HashMap<String, ArrayList<Double>> allRTvalues = getAllObservedPredictedRTScaled(
                 identification,
                 rtPrediction,
@@ -656,57 +568,25 @@ public class PercolatorExport {
 
             writer.writeLine(header);
 
-            SpectrumMatchesIterator spectrumMatchesIterator = identification.getSpectrumMatchesIterator(waitingHandler);
-
-            SpectrumMatch spectrumMatch;
-
-            while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
-
-                // Make sure that there is no duplicate in the export
-                HashSet<Long> processedPsmKeys = new HashSet<>();
-
-                // Display progress
-                if (waitingHandler != null) {
-
-                    waitingHandler.increaseSecondaryProgressCounter();
-
-                    if (waitingHandler.isRunCanceled()) {
-
-                        return;
-
-                    }
-                }
-
-                Boolean rtFileWriterFlag = true;
-                final HashMap<String, ArrayList<Double>> allRTs = allRTvalues;
-
-                // Export all candidate peptides
-                SpectrumMatch tempSpectrumMatch = spectrumMatch;
-                tempSpectrumMatch.getAllPeptideAssumptions()
-                        .parallel()
-                        .forEach(peptideAssumption -> writePeptideCandidate(tempSpectrumMatch,
-                        peptideAssumption,
-                        //rtPreds,
-                        allRTs,
-                        rtFileWriterFlag,
-                        null,
-                        searchParameters,
-                        sequenceProvider,
-                        sequenceMatchingParameters,
-                        annotationParameters,
-                        modificationLocalizationParameters,
-                        modificationFactory,
-                        modificationParameters,
-                        spectrumProvider,
-                        processedPsmKeys,
-                        writingSemaphore,
-                        writer
-                )
-                        );
-            }
-
+            writeSpectrumMatches(
+                    identification,
+                    allRTvalues,
+                    null,
+                    true,
+                    null,
+                    searchParameters,
+                    sequenceProvider,
+                    sequenceMatchingParameters,
+                    annotationParameters,
+                    modificationLocalizationParameters,
+                    modificationFactory,
+                    modificationParameters,
+                    spectrumProvider,
+                    threadCount,
+                    writer,
+                    waitingHandler
+            );
         }
-
     }
 
     /**
@@ -725,7 +605,7 @@ public class PercolatorExport {
      */
     private static HashMap<String, ArrayList<Double>> getAllObservedPredictedRTScaled(
             Identification identification,
-            HashMap<String, ArrayList<Double>> rtPrediction,
+            DeepLcPrediction rtPrediction,
             SearchParameters searchParameters,
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
@@ -742,12 +622,11 @@ public class PercolatorExport {
 
         while ((spectrumMatch = spectrumMatchesIterator.next()) != null) {
 
-            final HashMap<String, ArrayList<Double>> rtPreds = rtPrediction;
+            final DeepLcPrediction rtPreds = rtPrediction;
 
             // Export all candidate peptides
             SpectrumMatch tempSpectrumMatch = spectrumMatch;
             tempSpectrumMatch.getAllPeptideAssumptions()
-                    .parallel()
                     .forEach(
                             peptideAssumption -> addPeptideCandidateRT(
                                     allRTvalues,
@@ -860,7 +739,7 @@ public class PercolatorExport {
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
             ModificationFactory modificationFactory,
-            HashMap<String, ArrayList<Double>> rtPrediction
+            DeepLcPrediction rtPrediction
     ) {
 
         ArrayList<Double> predictedRts;
@@ -876,7 +755,7 @@ public class PercolatorExport {
                 )
         );
 
-        predictedRts = rtPrediction.get(deepLcKey);
+        predictedRts = rtPrediction.getPredictedRts(deepLcKey);
 
         return predictedRts;
     }
@@ -885,7 +764,7 @@ public class PercolatorExport {
             HashMap<String, ArrayList<Double>> allRTvalues,
             SpectrumMatch spectrumMatch,
             PeptideAssumption peptideAssumption,
-            HashMap<String, ArrayList<Double>> rtPrediction,
+            DeepLcPrediction rtPrediction,
             SearchParameters searchParameters,
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
@@ -932,48 +811,55 @@ public class PercolatorExport {
     }
 
     /**
-     * Writes a peptide candidate to the export if not done already.
+     * Returns the line of a peptide candidate, null if a prediction is missing
+     * for this peptide.
      *
      * @param spectrumMatch The spectrum match where the peptide was found.
      * @param peptideAssumption The peptide assumption.
-     * @param allRTvalues The retention time predictions for all peptides.
+     * @param allRTvalues The scaled observed and predicted retention times
+     * per peptide, null if not exported.
+     * @param rtPrediction The retention time prediction, null if not
+     * available. The retention time features of a line are computed from the
+     * spectrum of the line.
+     * @param rtFileWriterFlag If true, the observed and predicted retention
+     * times are returned instead of the Percolator features.
      * @param fragmentationPrediction The mass spectrum predictions for all
      * peptides.
      * @param searchParameters The parameters of the search.
      * @param sequenceProvider The sequence provider.
      * @param sequenceMatchingParameters The sequence matching parameters.
      * @param annotationParameters The annotation parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
      * @param modificationLocalizationParameters The modification localization
      * parameters.
      * @param modificationFactory The factory containing the modification
      * details.
+     * @param modificationParameters The modification parameters.
      * @param spectrumProvider The spectrum provider.
-     * @param processedPsms The keys of the PSMs already processed.
-     * @param writingSemaphore A semaphore to synchronize the writing to the set
-     * of already processed peptides.
-     * @param writer The writer to use.
+     *
+     * @return The line of the peptide candidate.
      */
-    private static void writePeptideCandidate(
+    private static String getPeptideCandidateLine(
             SpectrumMatch spectrumMatch,
             PeptideAssumption peptideAssumption,
             HashMap<String, ArrayList<Double>> allRTvalues,
-            Boolean rtFileWriterFlag,
-            HashMap<String, ArrayList<Spectrum>> fragmentationPrediction,
+            DeepLcPrediction rtPrediction,
+            boolean rtFileWriterFlag,
+            Ms2PipPrediction fragmentationPrediction,
             SearchParameters searchParameters,
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
             AnnotationParameters annotationParameters,
+            long annotationSettingsKey,
             ModificationLocalizationParameters modificationLocalizationParameters,
             ModificationFactory modificationFactory,
             ModificationParameters modificationParameters,
-            SpectrumProvider spectrumProvider,
-            HashSet<Long> processedPsms,
-            SimpleSemaphore writingSemaphore,
-            SimpleFileWriter writer
+            SpectrumProvider spectrumProvider
     ) {
 
         // Get peptide RTs
-        Boolean rtPredictionsAvailable = allRTvalues != null;
+        Boolean rtPredictionsAvailable = allRTvalues != null || rtPrediction != null;
         ArrayList<Double> peptideRTs = null;
 
         if (rtPredictionsAvailable) {
@@ -989,12 +875,28 @@ public class PercolatorExport {
                     )
             );
 
-            peptideRTs = allRTvalues.get(deepLcKey);
+            if (allRTvalues != null) {
+
+                peptideRTs = allRTvalues.get(deepLcKey);
+
+            } else {
+
+                ArrayList<Double> predictedRts = rtPrediction.getPredictedRts(deepLcKey);
+
+                if (predictedRts != null) {
+
+                    peptideRTs = PercolatorUtils.getPeptideObservedPredictedRT(
+                            spectrumMatch,
+                            predictedRts,
+                            spectrumProvider
+                    );
+                }
+            }
 
             //DeepLC prediction is missing
             if (peptideRTs == null) {
                 System.out.println("Missing DeepLC prediction for peptide: " + deepLcKey);
-                return;
+                return null;
             }
         }
 
@@ -1015,12 +917,12 @@ public class PercolatorExport {
 
             // Get corresponding key
             long peptideKey = Ms2PipUtils.getPeptideKey(peptideData);
-            predictedSpectrum = fragmentationPrediction.get(Long.toString(peptideKey));
+            predictedSpectrum = fragmentationPrediction.getPredictedSpectra(peptideKey);
 
             //MS2PIP prediction is missing
             if (predictedSpectrum == null) {
                 System.out.println("Missing MS2PIP prediction for peptide: " + Long.toString(peptideKey));
-                return;
+                return null;
             }
         }
 
@@ -1051,6 +953,7 @@ public class PercolatorExport {
                     sequenceProvider,
                     sequenceMatchingParameters,
                     annotationParameters,
+                    annotationSettingsKey,
                     modificationLocalizationParameters,
                     modificationFactory,
                     spectrumProvider,
@@ -1058,21 +961,7 @@ public class PercolatorExport {
             );
         }
 
-        // Get identifiers
-        long psmKey = PercolatorUtils.getPsmKey(peptideData);
-
-        // Export if not done already
-        writingSemaphore.acquire();
-
-        if (!processedPsms.contains(psmKey)) {
-
-            writer.writeLine(peptideData);
-
-            processedPsms.add(psmKey);
-
-        }
-
-        writingSemaphore.release();
+        return peptideData;
 
     }
 }
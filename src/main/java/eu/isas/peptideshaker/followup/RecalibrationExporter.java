@@ -5,16 +5,19 @@ import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.io.mass_spectrometry.mgf.MgfFileWriter;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.waiting.WaitingHandler;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import eu.isas.peptideshaker.recalibration.RunMzDeviation;
 import eu.isas.peptideshaker.recalibration.SpectrumRecalibrator;
+import eu.isas.peptideshaker.utils.StageWaitingHandler;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
 /**
  * This class exports recalibrated spectra.
@@ -34,6 +37,10 @@ public class RecalibrationExporter {
      * Suffix for the mgf file containing all recalibrated spectra.
      */
     public static final String SUFFIX = "_recalibrated";
+    /**
+     * The number of spectra recalibrated together before being written.
+     */
+    public static final int CHUNK_SIZE = 1000;
 
     /**
      * Writes the recalibrated spectra in files named according to
@@ -66,166 +73,338 @@ public class RecalibrationExporter {
             WaitingHandler waitingHandler
     ) throws IOException {
 
-        SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
-        ArrayList<File> recalibratedSpectrums = new ArrayList<>();
-        int progress = 1;
+        return writeRecalibratedSpectra(
+                recalibratePrecursors,
+                recalibrateFragmentIons,
+                folder,
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                identificationParameters,
+                Runtime.getRuntime().availableProcessors(),
+                waitingHandler
+        );
 
-        for (String fileNameWithoutExtension : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
-
-            if (waitingHandler != null) {
-
-                if (waitingHandler.isRunCanceled()) {
-
-                    break;
+    }
 
-                }
+    /**
+     * Writes the recalibrated spectra in files named according to
+     * getRecalibratedFileName in the given folder. The mass deviations of a
+     * file are estimated while the spectra of the previous file are written,
+     * and the spectra are recalibrated in chunks using the given number of
+     * threads.
+     *
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param folder folder where recalibrated files shall be written
+     * @param identification identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param identificationParameters the identification parameters
+     * @param nThreads the number of threads to use
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null. The method does not call RunFinished.
+     * @return ArrayList files containing recalibrated spectra
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public static ArrayList<File> writeRecalibratedSpectra(
+            boolean recalibratePrecursors,
+            boolean recalibrateFragmentIons,
+            File folder,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            int nThreads,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                waitingHandler.setWaitingText(
-                        "Recalibrating Spectra. Inspecting Mass Deviations. Please Wait... ("
-                        + progress
-                        + "/"
-                        + spectrumProvider.getOrderedFileNamesWithoutExtensions().length
-                        + ")"
-                );
-                waitingHandler.resetSecondaryProgressCounter();
-                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-                waitingHandler.setMaxSecondaryProgressCounter(2 * spectrumProvider.getSpectrumTitles(fileNameWithoutExtension).length);
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
 
-            }
+        try {
 
-            spectrumRecalibrator.estimateErrors(
-                    fileNameWithoutExtension,
+            return writeRecalibratedSpectra(
+                    recalibratePrecursors,
+                    recalibrateFragmentIons,
+                    folder,
                     identification,
                     sequenceProvider,
                     spectrumProvider,
                     identificationParameters,
+                    pool,
                     waitingHandler
             );
 
-            // Debug part
-            if (DEBUG) {
+        } finally {
 
-                RunMzDeviation runMzDeviation = spectrumRecalibrator.getRunMzDeviations(fileNameWithoutExtension);
+            pool.shutdown();
 
-                File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileNameWithoutExtension) + "_precursors.txt");
-                BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
-                debugWriter.write("rt\tgrade\toffset");
-                debugWriter.newLine();
+        }
+    }
+
+    /**
+     * Writes the recalibrated spectra using the given pool.
+     *
+     * @param recalibratePrecursors boolean indicating whether precursor ions
+     * shall be recalibrated
+     * @param recalibrateFragmentIons boolean indicating whether fragment ions
+     * shall be recalibrated
+     * @param folder folder where recalibrated files shall be written
+     * @param identification identification of the project
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param identificationParameters the identification parameters
+     * @param pool the pool to use to estimate the errors and recalibrate the
+     * spectra
+     * @param waitingHandler waiting handler displaying progress and used to
+     * cancel the process. Can be null.
+     * @return ArrayList files containing recalibrated spectra
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static ArrayList<File> writeRecalibratedSpectra(
+            boolean recalibratePrecursors,
+            boolean recalibrateFragmentIons,
+            File folder,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) throws IOException {
 
-                for (double key : runMzDeviation.getPrecursorRTList()) {
+        SpectrumRecalibrator spectrumRecalibrator = new SpectrumRecalibrator();
+        ArrayList<File> recalibratedSpectrums = new ArrayList<>();
+        String[] fileNamesWithoutExtensions = spectrumProvider.getOrderedFileNamesWithoutExtensions();
+        ForkJoinTask<?> nextEstimation = null;
+        // The progress of the next file is not displayed
+        StageWaitingHandler nextEstimationWaitingHandler = new StageWaitingHandler(
+                waitingHandler,
+                false
+        );
+        int progress = 1;
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+        try {
+
+            for (int fileIndex = 0; fileIndex < fileNamesWithoutExtensions.length; fileIndex++) {
+
+                String fileNameWithoutExtension = fileNamesWithoutExtensions[fileIndex];
+
+                if (waitingHandler != null) {
+
+                    if (waitingHandler.isRunCanceled()) {
 
                         break;
 
                     }
 
-                    debugWriter.write(key + "\t");
-                    debugWriter.write(runMzDeviation.getSlope(key) + "\t");
-                    debugWriter.write(runMzDeviation.getOffset(key) + "\t");
-                    debugWriter.newLine();
+                    waitingHandler.setWaitingText(
+                            "Recalibrating Spectra. Inspecting Mass Deviations. Please Wait... ("
+                            + progress
+                            + "/"
+                            + spectrumProvider.getOrderedFileNamesWithoutExtensions().length
+                            + ")"
+                    );
+                    waitingHandler.resetSecondaryProgressCounter();
+                    waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                    waitingHandler.setMaxSecondaryProgressCounter(2 * spectrumProvider.getSpectrumTitles(fileNameWithoutExtension).length);
 
                 }
 
-                debugWriter.flush();
-                debugWriter.close();
+                if (nextEstimation == null) {
+
+                    spectrumRecalibrator.estimateErrors(
+                            fileNameWithoutExtension,
+                            identification,
+                            sequenceProvider,
+                            spectrumProvider,
+                            identificationParameters,
+                            pool,
+                            waitingHandler
+                    );
+
+                } else {
 
-                debugFile = new File(folder, getRecalibratedFileName(fileNameWithoutExtension) + "_fragments.txt");
-                debugWriter = new BufferedWriter(new FileWriter(debugFile));
+                    nextEstimation.join();
 
-                for (double rtKey : runMzDeviation.getPrecursorRTList()) {
+                }
 
-                    debugWriter.write(rtKey + "\nm/z");
+                // Estimate the errors of the next file while writing this one
+                if (fileIndex + 1 < fileNamesWithoutExtensions.length) {
+
+                    String nextFileNameWithoutExtension = fileNamesWithoutExtensions[fileIndex + 1];
+
+                    nextEstimation = pool.submit(
+                            () -> spectrumRecalibrator.estimateErrors(
+                                    nextFileNameWithoutExtension,
+                                    identification,
+                                    sequenceProvider,
+                                    spectrumProvider,
+                                    identificationParameters,
+                                    pool,
+                                    nextEstimationWaitingHandler
+                            )
+                    );
 
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+                } else {
 
-                        debugWriter.write("\t" + mzKey);
+                    nextEstimation = null;
 
-                    }
+                }
+
+                // Debug part
+                if (DEBUG) {
 
+                    RunMzDeviation runMzDeviation = spectrumRecalibrator.getRunMzDeviations(fileNameWithoutExtension);
+
+                    File debugFile = new File(folder, "debug" + getRecalibratedFileName(fileNameWithoutExtension) + "_precursors.txt");
+                    BufferedWriter debugWriter = new BufferedWriter(new FileWriter(debugFile));
+                    debugWriter.write("rt\tgrade\toffset");
                     debugWriter.newLine();
-                    debugWriter.write("Error");
 
-                    for (double mzKey : runMzDeviation.getFragmentMZList(rtKey)) {
+                    for (double key : runMzDeviation.getPrecursorRts()) {
+
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+
+                            break;
+
+                        }
 
-                        debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
+                        debugWriter.write(key + "\t");
+                        debugWriter.write(runMzDeviation.getSlope(key) + "\t");
+                        debugWriter.write(runMzDeviation.getOffset(key) + "\t");
+                        debugWriter.newLine();
 
                     }
 
-                    debugWriter.newLine();
+                    debugWriter.flush();
+                    debugWriter.close();
 
-                }
+                    debugFile = new File(folder, getRecalibratedFileName(fileNameWithoutExtension) + "_fragments.txt");
+                    debugWriter = new BufferedWriter(new FileWriter(debugFile));
 
-                debugWriter.flush();
-                debugWriter.close();
-                // End of debug part
+                    for (double rtKey : runMzDeviation.getPrecursorRts()) {
 
-            }
+                        debugWriter.write(rtKey + "\nm/z");
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        for (double mzKey : runMzDeviation.getFragmentMzs(rtKey)) {
 
-                return null;
+                            debugWriter.write("\t" + mzKey);
 
-            }
+                        }
 
-            File file = new File(folder, getRecalibratedFileName(fileNameWithoutExtension + ".mgf"));
+                        debugWriter.newLine();
+                        debugWriter.write("Error");
 
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+                        for (double mzKey : runMzDeviation.getFragmentMzs(rtKey)) {
 
-                if (waitingHandler != null) {
+                            debugWriter.write("\t" + runMzDeviation.getFragmentMzError(rtKey, mzKey));
 
-                    waitingHandler.setWaitingText(
-                            "Recalibrating Spectra. Writing Spectra. Please Wait... ("
-                            + progress
-                            + "/"
-                            + spectrumProvider.getOrderedFileNamesWithoutExtensions().length
-                            + ")"
-                    );
-                    waitingHandler.resetSecondaryProgressCounter();
-                    waitingHandler.setMaxSecondaryProgressCounter(spectrumProvider.getSpectrumTitles(fileNameWithoutExtension).length);
+                        }
+
+                        debugWriter.newLine();
+
+                    }
+
+                    debugWriter.flush();
+                    debugWriter.close();
+                    // End of debug part
 
                 }
 
-                for (String spectrumTitle : spectrumProvider.getSpectrumTitles(fileNameWithoutExtension)) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-                    if (DEBUG) {
-                        //System.out.println(new Date() + " recalibrating " + spectrumTitle + "\n");
-                    }
+                    return null;
 
-                    Spectrum recalibratedSpectrum = spectrumRecalibrator.recalibrateSpectrum(
-                            fileNameWithoutExtension,
-                            spectrumTitle,
-                            spectrumProvider,
-                            recalibratePrecursors,
-                            recalibrateFragmentIons
-                    );
-                    String recalibratedSpectrumAsMgf = MgfFileWriter.asMgf(spectrumTitle, recalibratedSpectrum);
-                    writer.write(recalibratedSpectrumAsMgf);
-                    writer.flush();
+                }
+
+                File file = new File(folder, getRecalibratedFileName(fileNameWithoutExtension + ".mgf"));
+
+                try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
 
                     if (waitingHandler != null) {
 
-                        if (waitingHandler.isRunCanceled()) {
+                        waitingHandler.setWaitingText(
+                                "Recalibrating Spectra. Writing Spectra. Please Wait... ("
+                                + progress
+                                + "/"
+                                + spectrumProvider.getOrderedFileNamesWithoutExtensions().length
+                                + ")"
+                        );
+                        waitingHandler.resetSecondaryProgressCounter();
+                        waitingHandler.setMaxSecondaryProgressCounter(spectrumProvider.getSpectrumTitles(fileNameWithoutExtension).length);
+
+                    }
+
+                    String[] spectrumTitles = spectrumProvider.getSpectrumTitles(fileNameWithoutExtension);
+                    String[] recalibratedSpectraAsMgf = new String[Math.min(CHUNK_SIZE, spectrumTitles.length)];
+
+                    for (int chunkStart = 0; chunkStart < spectrumTitles.length; chunkStart += CHUNK_SIZE) {
+
+                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
                             break;
 
                         }
 
-                        waitingHandler.increasePrimaryProgressCounter();
+                        int start = chunkStart;
+                        int end = Math.min(chunkStart + CHUNK_SIZE, spectrumTitles.length);
+
+                        pool.submit(
+                                () -> IntStream.range(start, end)
+                                        .parallel()
+                                        .forEach(
+                                                i -> recalibratedSpectraAsMgf[i - start] = MgfFileWriter.asMgf(
+                                                        spectrumTitles[i],
+                                                        spectrumRecalibrator.recalibrateSpectrum(
+                                                                fileNameWithoutExtension,
+                                                                spectrumTitles[i],
+                                                                spectrumProvider,
+                                                                recalibratePrecursors,
+                                                                recalibrateFragmentIons
+                                                        )
+                                                )
+                                        )
+                        ).join();
+
+                        for (int i = 0; i < end - start; i++) {
+
+                            writer.write(recalibratedSpectraAsMgf[i]);
+
+                            if (waitingHandler != null) {
 
+                                waitingHandler.increasePrimaryProgressCounter();
+
+                            }
+                        }
                     }
+
+                    spectrumRecalibrator.clearErrors(fileNameWithoutExtension);
+
                 }
 
-                spectrumRecalibrator.clearErrors(fileNameWithoutExtension);
+                recalibratedSpectrums.add(file);
 
             }
 
-            recalibratedSpectrums.add(file);
+            return recalibratedSpectrums;
 
-        }
+        } finally {
+
+            // Stop the estimation of the next file if the export did not complete
+            if (nextEstimation != null) {
 
-        return recalibratedSpectrums;
+                nextEstimationWaitingHandler.cancel();
+                nextEstimation.quietlyJoin();
 
+            }
+        }
     }
 
     /**
@@ -0,0 +1,405 @@
+package eu.isas.peptideshaker.gui;
+
+import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import eu.isas.peptideshaker.utils.NGramIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+/**
+ * Index of the text searched by the jump to panel. Protein accessions,
+ * descriptions, and gene names, peptide sequences, and spectrum titles are
+ * indexed by trigrams, modification names are mapped to the peptides
+ * carrying them, and precursor m/z and retention times are stored per file.
+ *
+ * The index only narrows down the candidates, every candidate must be
+ * verified by the caller. The validation and hidden status of the matches is
+ * not indexed and must also be checked by the caller.
+ *
+ * @author Marc Vaudel
+ */
+public class JumpToIndex {
+
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The protein details provider.
+     */
+    private final ProteinDetailsProvider proteinDetailsProvider;
+    /**
+     * The sequence matching parameters used to index the peptide sequences.
+     */
+    private final SequenceMatchingParameters sequenceMatchingParameters;
+    /**
+     * The keys of the target proteins.
+     */
+    private final long[] proteinKeys;
+    /**
+     * The index of the protein accessions, descriptions, and gene names.
+     */
+    private final NGramIndex proteinIndex;
+    /**
+     * The keys of the peptides.
+     */
+    private final long[] peptideKeys;
+    /**
+     * The index of the peptide matching sequences.
+     */
+    private final NGramIndex peptideIndex;
+    /**
+     * The keys of the peptides carrying each variable modification.
+     */
+    private final HashMap<String, long[]> modificationsMap;
+    /**
+     * The spectrum titles of each spectrum file.
+     */
+    private final HashMap<String, String[]> spectrumTitles = new HashMap<>();
+    /**
+     * The index of the spectrum titles of each spectrum file.
+     */
+    private final HashMap<String, NGramIndex> spectrumTitlesIndexes = new HashMap<>();
+    /**
+     * The precursor m/z of the spectra of each spectrum file.
+     */
+    private final HashMap<String, double[]> precursorMzs = new HashMap<>();
+    /**
+     * The precursor retention times of the spectra of each spectrum file.
+     */
+    private final HashMap<String, double[]> precursorRts = new HashMap<>();
+
+    /**
+     * Constructor. Indexes the given identification and spectra.
+     *
+     * @param identification the identification
+     * @param proteinDetailsProvider the protein details provider
+     * @param spectrumProvider the spectrum provider
+     * @param sequenceMatchingParameters the sequence matching parameters
+     */
+    public JumpToIndex(
+            Identification identification,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SpectrumProvider spectrumProvider,
+            SequenceMatchingParameters sequenceMatchingParameters
+    ) {
+
+        this.identification = identification;
+        this.proteinDetailsProvider = proteinDetailsProvider;
+        this.sequenceMatchingParameters = sequenceMatchingParameters;
+
+        // Proteins
+        ArrayList<Long> targetProteinKeys = new ArrayList<>(identification.getProteinIdentification().size());
+        NGramIndex.Builder proteinIndexBuilder = new NGramIndex.Builder();
+
+        ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(null);
+        ProteinMatch proteinMatch;
+
+        while ((proteinMatch = proteinMatchesIterator.next()) != null) {
+
+            if (!proteinMatch.isDecoy()) {
+
+                int item = targetProteinKeys.size();
+                targetProteinKeys.add(proteinMatch.getKey());
+
+                for (String accession : proteinMatch.getAccessions()) {
+
+                    proteinIndexBuilder.add(item, accession);
+                    proteinIndexBuilder.add(item, proteinDetailsProvider.getDescription(accession));
+                    proteinIndexBuilder.add(item, proteinDetailsProvider.getGeneName(accession));
+
+                }
+            }
+        }
+
+        proteinKeys = targetProteinKeys.stream()
+                .mapToLong(a -> a)
+                .toArray();
+        proteinIndex = proteinIndexBuilder.build();
+
+        // Peptides
+        ArrayList<Long> allPeptideKeys = new ArrayList<>(identification.getPeptideIdentification().size());
+        NGramIndex.Builder peptideIndexBuilder = new NGramIndex.Builder();
+        HashMap<String, HashSet<Long>> modificationsPeptides = new HashMap<>();
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(null);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            long peptideKey = peptideMatch.getKey();
+
+            int item = allPeptideKeys.size();
+            allPeptideKeys.add(peptideKey);
+
+            peptideIndexBuilder.add(item, getMatchingSequence(peptideMatch));
+
+            for (ModificationMatch modificationMatch : peptideMatch.getPeptide().getVariableModifications()) {
+
+                HashSet<Long> modificationPeptides = modificationsPeptides.get(modificationMatch.getModification());
+
+                if (modificationPeptides == null) {
+
+                    modificationPeptides = new HashSet<>();
+                    modificationsPeptides.put(modificationMatch.getModification(), modificationPeptides);
+
+                }
+
+                modificationPeptides.add(peptideKey);
+
+            }
+        }
+
+        peptideKeys = allPeptideKeys.stream()
+                .mapToLong(a -> a)
+                .toArray();
+        peptideIndex = peptideIndexBuilder.build();
+
+        modificationsMap = new HashMap<>(modificationsPeptides.size());
+
+        for (Entry<String, HashSet<Long>> entry : modificationsPeptides.entrySet()) {
+
+            modificationsMap.put(
+                    entry.getKey(),
+                    entry.getValue().stream()
+                            .mapToLong(a -> a)
+                            .sorted()
+                            .toArray()
+            );
+        }
+
+        // Spectra
+        for (String spectrumFile : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
+
+            String[] fileTitles = spectrumProvider.getSpectrumTitles(spectrumFile);
+            NGramIndex.Builder titlesIndexBuilder = new NGramIndex.Builder();
+            double[] fileMzs = new double[fileTitles.length];
+            double[] fileRts = new double[fileTitles.length];
+
+            for (int i = 0; i < fileTitles.length; i++) {
+
+                titlesIndexBuilder.add(i, fileTitles[i]);
+                fileMzs[i] = spectrumProvider.getPrecursorMz(spectrumFile, fileTitles[i]);
+                fileRts[i] = spectrumProvider.getPrecursorRt(spectrumFile, fileTitles[i]);
+
+            }
+
+            spectrumTitles.put(spectrumFile, fileTitles);
+            spectrumTitlesIndexes.put(spectrumFile, titlesIndexBuilder.build());
+            precursorMzs.put(spectrumFile, fileMzs);
+            precursorRts.put(spectrumFile, fileRts);
+
+        }
+    }
+
+    /**
+     * Returns the keys of the target proteins having an accession,
+     * description, or gene name containing the given input.
+     *
+     * @param inputLowerCase the input in lower case
+     *
+     * @return the keys of the matching proteins
+     */
+    public ArrayList<Long> getProteinMatches(
+            String inputLowerCase
+    ) {
+
+        ArrayList<Long> result = new ArrayList<>();
+        int[] candidates = proteinIndex.getCandidates(inputLowerCase, proteinKeys.length);
+
+        for (int item : candidates) {
+
+            long proteinKey = proteinKeys[item];
+            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+
+            if (Arrays.stream(proteinMatch.getAccessions())
+                    .anyMatch(
+                            accession -> contains(accession, inputLowerCase)
+                            || contains(proteinDetailsProvider.getDescription(accession), inputLowerCase)
+                            || contains(proteinDetailsProvider.getGeneName(accession), inputLowerCase)
+                    )) {
+
+                result.add(proteinKey);
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the keys of the peptides having a matching sequence containing
+     * the given matching input.
+     *
+     * @param matchingInput the input as matching sequence
+     *
+     * @return the keys of the matching peptides
+     */
+    public HashSet<Long> getPeptideSequenceMatches(
+            String matchingInput
+    ) {
+
+        HashSet<Long> result = new HashSet<>();
+        int[] candidates = peptideIndex.getCandidates(matchingInput.toLowerCase(), peptideKeys.length);
+
+        for (int item : candidates) {
+
+            long peptideKey = peptideKeys[item];
+            PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+
+            if (getMatchingSequence(peptideMatch).contains(matchingInput)) {
+
+                result.add(peptideKey);
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the keys of the peptides carrying a variable modification whose
+     * name contains the given matching input.
+     *
+     * @param matchingInput the input as matching sequence
+     *
+     * @return the keys of the matching peptides
+     */
+    public HashSet<Long> getPeptideModificationMatches(
+            String matchingInput
+    ) {
+
+        HashSet<Long> result = new HashSet<>();
+
+        for (Entry<String, long[]> entry : modificationsMap.entrySet()) {
+
+            if (entry.getKey().contains(matchingInput)) {
+
+                for (long peptideKey : entry.getValue()) {
+
+                    result.add(peptideKey);
+
+                }
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the titles of the spectra of the given file whose title or file
+     * name contain the given input, or whose precursor m/z or retention time
+     * start with the given input. Titles are returned in the order of the
+     * file.
+     *
+     * @param spectrumFile the name of the spectrum file without extension
+     * @param inputLowerCase the input in lower case
+     *
+     * @return the titles of the matching spectra
+     */
+    public ArrayList<String> getSpectrumMatches(
+            String spectrumFile,
+            String inputLowerCase
+    ) {
+
+        String[] fileTitles = spectrumTitles.get(spectrumFile);
+
+        if (fileTitles == null) {
+
+            return new ArrayList<>(0);
+
+        }
+
+        if (spectrumFile.toLowerCase().contains(inputLowerCase)) {
+
+            return new ArrayList<>(Arrays.asList(fileTitles));
+
+        }
+
+        boolean[] matches = new boolean[fileTitles.length];
+
+        for (int item : spectrumTitlesIndexes.get(spectrumFile).getCandidates(inputLowerCase, fileTitles.length)) {
+
+            matches[item] = fileTitles[item].toLowerCase().contains(inputLowerCase);
+
+        }
+
+        // Double.toString only writes digits, dots, minus signs, and upper case letters
+        if (inputLowerCase.chars().allMatch(c -> c >= '0' && c <= '9' || c == '.' || c == '-')) {
+
+            double[] fileMzs = precursorMzs.get(spectrumFile);
+            double[] fileRts = precursorRts.get(spectrumFile);
+
+            for (int i = 0; i < fileTitles.length; i++) {
+
+                matches[i] = matches[i]
+                        || Double.toString(fileMzs[i]).startsWith(inputLowerCase)
+                        || Double.toString(fileRts[i]).startsWith(inputLowerCase);
+
+            }
+        }
+
+        ArrayList<String> result = new ArrayList<>();
+
+        for (int i = 0; i < fileTitles.length; i++) {
+
+            if (matches[i]) {
+
+                result.add(fileTitles[i]);
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the matching sequence of the given peptide match.
+     *
+     * @param peptideMatch the peptide match
+     *
+     * @return the matching sequence of the peptide
+     */
+    private String getMatchingSequence(
+            PeptideMatch peptideMatch
+    ) {
+
+        return AminoAcid.getMatchingSequence(
+                peptideMatch.getPeptide().getSequence(),
+                sequenceMatchingParameters
+        );
+    }
+
+    /**
+     * Returns a boolean indicating whether the given text in lower case
+     * contains the given input. Null texts contain nothing.
+     *
+     * @param text the text
+     * @param inputLowerCase the input in lower case
+     *
+     * @return a boolean indicating whether the text contains the input
+     */
+    private static boolean contains(
+            String text,
+            String inputLowerCase
+    ) {
+
+        return text != null && text.toLowerCase().contains(inputLowerCase);
+
+    }
+}
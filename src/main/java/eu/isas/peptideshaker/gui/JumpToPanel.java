@@ -1,14 +1,11 @@
 package eu.isas.peptideshaker.gui;
 
 import com.compomics.util.experiment.biology.aminoacids.AminoAcid;
-import com.compomics.util.experiment.biology.proteins.Peptide;
 import com.compomics.util.experiment.identification.Identification;
-import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
-import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import static com.compomics.util.experiment.personalization.ExperimentObject.NO_KEY;
 import com.compomics.util.threading.SimpleSemaphore;
 import java.awt.Color;
@@ -16,9 +13,11 @@ import java.awt.event.KeyEvent;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A Jump To panel for use in the menu bar in the main frame.
@@ -81,6 +80,10 @@ public class JumpToPanel extends javax.swing.JPanel {
      * Splitter between spectrum file and spectrum title.
      */
     private final String SPECTRUM_FILENAME_SPLITTER = "_spectrum_file_name_splitter_";
+    /**
+     * The index of the searched text, null if not built.
+     */
+    private CompletableFuture<JumpToIndex> jumpToIndex = null;
 
     /**
      * Creates a new JumpToPanel.
@@ -113,6 +116,94 @@ public class JumpToPanel extends javax.swing.JPanel {
         }
     }
 
+    /**
+     * Starts building the index of the searched text in a background thread.
+     * The index should be built once the project is loaded.
+     */
+    public synchronized void buildIndex() {
+
+        Identification identification = peptideShakerGUI.getIdentification();
+
+        if (identification == null) {
+
+            jumpToIndex = null;
+            return;
+
+        }
+
+        CompletableFuture<JumpToIndex> future = new CompletableFuture<>();
+        jumpToIndex = future;
+
+        Thread indexThread = new Thread(
+                () -> {
+
+                    try {
+
+                        future.complete(
+                                new JumpToIndex(
+                                        identification,
+                                        peptideShakerGUI.getProteinDetailsProvider(),
+                                        peptideShakerGUI.getSpectrumProvider(),
+                                        peptideShakerGUI.getIdentificationParameters().getSequenceMatchingParameters()
+                                )
+                        );
+
+                    } catch (Throwable e) {
+
+                        future.completeExceptionally(e);
+
+                    }
+                },
+                "JumpToIndexThread"
+        );
+        indexThread.setDaemon(true);
+        indexThread.start();
+
+    }
+
+    /**
+     * Clears the index of the searched text.
+     */
+    public synchronized void clearIndex() {
+
+        jumpToIndex = null;
+
+    }
+
+    /**
+     * Returns the index of the searched text, waiting for it to be built if
+     * needed.
+     *
+     * @return the index of the searched text
+     *
+     * @throws Exception exception thrown if the index could not be built
+     */
+    private JumpToIndex getIndex() throws Exception {
+
+        CompletableFuture<JumpToIndex> future;
+
+        synchronized (this) {
+
+            if (jumpToIndex == null) {
+
+                buildIndex();
+
+            }
+
+            future = jumpToIndex;
+
+        }
+
+        if (!future.isDone()) {
+
+            indexLabel.setText("Indexing...");
+
+        }
+
+        return future.get();
+
+    }
+
     /**
      * Move the focus to the Jump To text field and select all the content.
      */
@@ -508,8 +599,7 @@ public class JumpToPanel extends javax.swing.JPanel {
 
                             }
 
-                            String doubleString,
-                                    inputLowerCase = inputTxt.getText().trim().toLowerCase(),
+                            String inputLowerCase = inputTxt.getText().trim().toLowerCase(),
                                     inputUpperCase = inputLowerCase.toUpperCase();
 
                             if (!inputLowerCase.equals("")) {
@@ -517,6 +607,17 @@ public class JumpToPanel extends javax.swing.JPanel {
                                 peptideShakerGUI.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
                                 inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.WAIT_CURSOR));
 
+                                JumpToIndex index = getIndex();
+
+                                if (newInput) {
+
+                                    peptideShakerGUI.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+                                    inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+                                    inputTxt.requestFocus();
+
+                                    return;
+                                }
+
                                 boolean proteinFound = false;
                                 boolean peptidefound = false;
 
@@ -526,8 +627,16 @@ public class JumpToPanel extends javax.swing.JPanel {
                                     TreeSet<Long> proteinKeysFound = new TreeSet<>();
                                     TreeSet<Long> peptideKeysFound = new TreeSet<>();
 
+                                    HashSet<Long> processedProteinKeys = new HashSet<>();
+
                                     for (long proteinKey : peptideShakerGUI.getIdentificationFeaturesGenerator().getProcessedProteinKeys(null, peptideShakerGUI.getFilterParameters(), false)) {
 
+                                        processedProteinKeys.add(proteinKey);
+
+                                    }
+
+                                    for (long proteinKey : index.getProteinMatches(inputLowerCase)) {
+
                                         if (newInput) {
 
                                             peptideShakerGUI.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
@@ -537,27 +646,18 @@ public class JumpToPanel extends javax.swing.JPanel {
                                             return;
                                         }
 
-                                        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
-
-                                        if (!proteinMatch.isDecoy()) {
+                                        if (processedProteinKeys.contains(proteinKey)) {
 
-                                            if (Arrays.stream(proteinMatch.getAccessions())
-                                                    .map(accession -> accession.toLowerCase())
-                                                    .anyMatch(accession -> accession.contains(inputLowerCase))
-                                                    || Arrays.stream(proteinMatch.getAccessions())
-                                                            .map(accession -> peptideShakerGUI.getProteinDetailsProvider().getDescription(accession))
-                                                            .map(description -> description.toLowerCase())
-                                                            .anyMatch(description -> description.contains(inputLowerCase))) {
+                                            ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
 
-                                                proteinFound = true;
+                                            proteinFound = true;
 
-                                                proteinKeysFound.add(proteinKey);
+                                            proteinKeysFound.add(proteinKey);
 
-                                                for (long peptideKey : proteinMatch.getPeptideMatchesKeys()) {
+                                            for (long peptideKey : proteinMatch.getPeptideMatchesKeys()) {
 
-                                                    peptideKeysFound.add(peptideKey);
+                                                peptideKeysFound.add(peptideKey);
 
-                                                }
                                             }
                                         }
                                     }
@@ -617,7 +717,12 @@ public class JumpToPanel extends javax.swing.JPanel {
                                             TreeMap<Long, TreeSet<Long>> sequencesMatchesMap = new TreeMap<>();
                                             TreeMap<Long, TreeSet<Long>> modificationsMatchesMap = new TreeMap<>();
 
-                                            for (long peptideKey : identification.getPeptideIdentification()) {
+                                            HashSet<Long> sequenceMatches = validPeptideSequence ? index.getPeptideSequenceMatches(matchingInput) : new HashSet<>(0);
+                                            HashSet<Long> modificationMatches = possibleMod ? index.getPeptideModificationMatches(matchingInput) : new HashSet<>(0);
+                                            TreeSet<Long> candidatePeptideKeys = new TreeSet<>(sequenceMatches);
+                                            candidatePeptideKeys.addAll(modificationMatches);
+
+                                            for (long peptideKey : candidatePeptideKeys) {
 
                                                 if (newInput) {
 
@@ -634,13 +739,8 @@ public class JumpToPanel extends javax.swing.JPanel {
 
                                                 if (!psParameter.getHidden()) {
 
-                                                    Peptide peptide = peptideMatch.getPeptide();
-                                                    String matchingSequence = AminoAcid.getMatchingSequence(peptide.getSequence(), peptideShakerGUI.getIdentificationParameters().getSequenceMatchingParameters());
-
-                                                    boolean sequenceMatch = validPeptideSequence && matchingSequence.contains(matchingInput);
-                                                    boolean modMatch = possibleMod && Arrays.stream(peptideMatch.getPeptide().getVariableModifications())
-                                                            .map(ModificationMatch::getModification)
-                                                            .anyMatch(modName -> modName.contains(matchingInput));
+                                                    boolean sequenceMatch = sequenceMatches.contains(peptideKey);
+                                                    boolean modMatch = modificationMatches.contains(peptideKey);
 
                                                     if (sequenceMatch || modMatch) {
 
@@ -750,53 +850,23 @@ public class JumpToPanel extends javax.swing.JPanel {
                                     // See if the input is contained by a spectrum title or corresponds to a precursor mass or RT
                                     TreeSet<String> spectrumTitles = new TreeSet<>();
 
-                                    SpectrumProvider spectrumProvider = peptideShakerGUI.getSpectrumProvider();
-
-                                    String[] spectrumFiles = spectrumfile == null ? spectrumProvider.getOrderedFileNamesWithoutExtensions() : new String[]{spectrumfile};
+                                    String[] spectrumFiles = spectrumfile == null ? peptideShakerGUI.getSpectrumProvider().getOrderedFileNamesWithoutExtensions() : new String[]{spectrumfile};
 
                                     for (String fileNameWithoutExtension : spectrumFiles) {
-                                        for (String spectrumTitle : spectrumProvider.getSpectrumTitles(fileNameWithoutExtension)) {
-
-                                            if (newInput) {
-
-                                                peptideShakerGUI.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
-                                                inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
-                                                inputTxt.requestFocus();
-
-                                                return;
-                                            }
-
-                                            if (spectrumTitle.toLowerCase().contains(inputLowerCase)
-                                                    || fileNameWithoutExtension.toLowerCase().contains(inputLowerCase)) {
-
-                                                spectrumTitles.add(fileNameWithoutExtension + SPECTRUM_FILENAME_SPLITTER + spectrumTitle);
-
-                                            } else {
-
-                                                double precusorMz = spectrumProvider.getPrecursorMz(
-                                                        fileNameWithoutExtension,
-                                                        spectrumTitle
-                                                );
-                                                doubleString = Double.toString(precusorMz);
 
-                                                if (doubleString.startsWith(inputLowerCase)) {
+                                        if (newInput) {
 
-                                                    spectrumTitles.add(fileNameWithoutExtension + SPECTRUM_FILENAME_SPLITTER + spectrumTitle);
+                                            peptideShakerGUI.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+                                            inputTxt.setCursor(new java.awt.Cursor(java.awt.Cursor.DEFAULT_CURSOR));
+                                            inputTxt.requestFocus();
 
-                                                } else {
+                                            return;
+                                        }
 
-                                                    double precusorRt = spectrumProvider.getPrecursorRt(
-                                                            fileNameWithoutExtension,
-                                                            spectrumTitle
-                                                    );
-                                                    doubleString = Double.toString(precusorRt);
-                                                    if (doubleString.startsWith(inputLowerCase)) {
+                                        for (String spectrumTitle : index.getSpectrumMatches(fileNameWithoutExtension, inputLowerCase)) {
 
-                                                        spectrumTitles.add(fileNameWithoutExtension + SPECTRUM_FILENAME_SPLITTER + spectrumTitle);
+                                            spectrumTitles.add(fileNameWithoutExtension + SPECTRUM_FILENAME_SPLITTER + spectrumTitle);
 
-                                                    }
-                                                }
-                                            }
                                         }
 
                                         if (!spectrumTitles.isEmpty()) {
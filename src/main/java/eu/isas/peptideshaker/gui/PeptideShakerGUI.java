@@ -50,6 +50,7 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Annotati
 import com.compomics.util.parameters.UtilitiesUserParameters;
 import com.compomics.util.gui.parameters.identification.search.SearchParametersDialog;
 import eu.isas.peptideshaker.PeptideShaker;
+import eu.isas.peptideshaker.gui.tablemodels.ProteinTableModel;
 import eu.isas.peptideshaker.gui.tabpanels.AnnotationPanel;
 import eu.isas.peptideshaker.gui.tabpanels.GOEAPanel;
 import eu.isas.peptideshaker.gui.tabpanels.OverviewPanel;
@@ -104,6 +105,7 @@ import eu.isas.peptideshaker.gui.export.MethodsSectionDialog;
 import eu.isas.peptideshaker.gui.export.MzIdentMLExportDialog;
 import eu.isas.peptideshaker.gui.pride.PrideReshakeGUI;
 import eu.isas.peptideshaker.scoring.PSMaps;
+import eu.isas.peptideshaker.scoring.QcHistograms;
 import eu.isas.peptideshaker.preferences.PeptideShakerPathParameters;
 import eu.isas.peptideshaker.preferences.PeptideShakerPathParameters.PeptideShakerPathKey;
 import eu.isas.peptideshaker.ptm.ModificationLocalizationScorer;
@@ -121,6 +123,7 @@ import com.compomics.util.gui.parameters.identification.advanced.BackgroundSpeci
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.io.flat.SimpleFileWriter;
 import eu.isas.peptideshaker.utils.PsZipUtils;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
 import eu.isas.peptideshaker.utils.StarHider;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.awt.*;
@@ -2805,6 +2808,13 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
                 setSpectrumCountingParameters(newSpectrumCountingParameters);
                 getIdentificationFeaturesGenerator().clearSpectrumCounting();
+
+                QcHistograms qcHistograms = (QcHistograms) getIdentification().getUrParam(QcHistograms.dummy);
+
+                if (qcHistograms != null) {
+                    qcHistograms.remove(QcHistograms.Metric.proteinSpectrumCounting);
+                }
+
                 setUpdated(PeptideShakerGUI.OVER_VIEW_TAB_INDEX, false);
                 setUpdated(PeptideShakerGUI.STRUCTURES_TAB_INDEX, false);
                 setUpdated(PeptideShakerGUI.QC_PLOTS_TAB_INDEX, false);
@@ -4104,6 +4114,7 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
 
             // enable the menu items depending on a project being open
             jumpToPanel.setEnabled(true);
+            jumpToPanel.buildIndex();
             saveMenuItem.setEnabled(true);
             identificationFeaturesMenuItem.setEnabled(true);
             followUpAnalysisMenuItem.setEnabled(true);
@@ -5050,6 +5061,8 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
         psdbParent.setProjectDetails(null);
 
         resetIdentificationFeaturesGenerator();
+        SpectrumAnnotationCache.clear();
+        jumpToPanel.clearIndex();
 
         if (updateGuiComponents) {
 
@@ -7928,11 +7941,75 @@ public class PeptideShakerGUI extends JFrame implements ClipboardOwner, JavaHome
                     getProcessingParameters().getnThreads(),
                     exceptionHandler
             );
+            starHider.addHideListener(() -> updateProteinTableProjections());
         }
 
         return starHider;
     }
 
+    /**
+     * Rebuilds the projections of the protein tables with the current hidden
+     * status and validation of the matches. This method should be called
+     * after matches were hidden, unhidden or their validation changed.
+     */
+    public void updateProteinTableProjections() {
+
+        final JTable[] proteinTables = new JTable[]{
+            overviewPanel.getProteinTable(),
+            proteinFractionsPanel.getProteinTable(),
+            proteinStructurePanel.getProteinTable()
+        };
+
+        final ProgressDialogX projectionProgressDialog = new ProgressDialogX(this,
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker.gif")),
+                Toolkit.getDefaultToolkit().getImage(getClass().getResource("/icons/peptide-shaker-orange.gif")),
+                true);
+        projectionProgressDialog.setPrimaryProgressCounterIndeterminate(true);
+        projectionProgressDialog.setTitle("Updating Protein Tables. Please Wait...");
+
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    projectionProgressDialog.setVisible(true);
+                } catch (IndexOutOfBoundsException e) {
+                    // ignore
+                }
+            }
+        }, "ProgressDialog").start();
+
+        new Thread("DisplayThread") {
+            @Override
+            public void run() {
+
+                try {
+
+                    for (JTable proteinTable : proteinTables) {
+
+                        if (projectionProgressDialog.isRunCanceled()) {
+                            break;
+                        }
+
+                        if (proteinTable.getModel() instanceof ProteinTableModel
+                                && ((ProteinTableModel) proteinTable.getModel()).isInstantiated()) {
+
+                            ((ProteinTableModel) proteinTable.getModel()).rebuildProjection(projectionProgressDialog);
+
+                        }
+                    }
+
+                } catch (Exception e) {
+
+                    catchException(e);
+
+                } finally {
+
+                    projectionProgressDialog.setRunFinished();
+
+                }
+            }
+        }.start();
+    }
+
     /**
      * Returns the identification features generator.
      *
@@ -1568,6 +1568,7 @@ public class FollowUpExportDialog extends javax.swing.JDialog {
                                 peptideShakerGUI.getSequenceProvider(),
                                 peptideShakerGUI.getSpectrumProvider(),
                                 peptideShakerGUI.getIdentificationParameters(), 
+                                peptideShakerGUI.getProcessingParameters().getnThreads(),
                                 progressDialog
                         );
 
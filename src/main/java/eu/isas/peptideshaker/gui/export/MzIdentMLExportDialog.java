@@ -735,7 +735,8 @@ public class MzIdentMLExportDialog extends javax.swing.JDialog {
                             finalOutputFile,
                             includeSequencesCheckBox.isSelected(),
                             progressDialog,
-                            true
+                            true,
+                            peptideShakerGUI.getProcessingParameters().getnThreads()
                     );
                     mzIdentMLExport.createMzIdentMLFile(mzIdentMLVersion);
 
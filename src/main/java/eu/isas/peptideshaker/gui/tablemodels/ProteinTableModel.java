@@ -19,8 +19,14 @@ import java.awt.Component;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.swing.ImageIcon;
 import javax.swing.JTable;
+import javax.swing.SwingUtilities;
 import javax.swing.table.DefaultTableColumnModel;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -43,6 +49,16 @@ import org.jfree.chart.plot.PlotOrientation;
  */
 public class ProteinTableModel extends SelfUpdatingTableModel {
 
+    /**
+     * The executor building the projections of the protein tables.
+     */
+    private static final ExecutorService PROJECTION_EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "ProteinTableProjection");
+                thread.setDaemon(true);
+                return thread;
+            }
+    );
     /**
      * The identification of this project.
      */
@@ -80,6 +96,20 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
      * If true the scores will be shown.
      */
     private boolean showScores = false;
+    /**
+     * The columnar projection of the displayed proteins, null if not built
+     * yet.
+     */
+    private volatile ProteinTableProjection projection = null;
+    /**
+     * The number of projections requested, used to discard outdated
+     * projections.
+     */
+    private int projectionRequests = 0;
+    /**
+     * The task building the projection, null if none was submitted.
+     */
+    private Future<?> projectionTask = null;
 
     /**
      * Constructor for an empty table
@@ -127,6 +157,9 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.exceptionHandler = exceptionHandler;
         this.proteinKeys = proteinKeys;
+
+        buildProjection();
+
     }
 
     /**
@@ -160,6 +193,169 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
         this.geneMaps = geneMaps;
         this.displayFeaturesGenerator = displayFeaturesGenerator;
         this.proteinKeys = proteinKeys;
+
+        buildProjection();
+
+    }
+
+    /**
+     * Builds the projection of the displayed proteins in the background.
+     * Until the projection is available, the values are retrieved from the
+     * identification. Once available, the table is notified that its rows
+     * were updated.
+     */
+    private void buildProjection() {
+
+        submitProjection(null);
+
+    }
+
+    /**
+     * Discards the current projection and builds it again with the current
+     * content of the identification. This method should be called when the
+     * hidden status or the validation of matches changed. The method waits
+     * for the projection to be built and should not be called from the event
+     * dispatch thread.
+     *
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process
+     *
+     * @throws InterruptedException exception thrown if the thread was
+     * interrupted while waiting for the projection
+     * @throws ExecutionException exception thrown if an error occurred while
+     * building the projection
+     */
+    public void rebuildProjection(
+            WaitingHandler waitingHandler
+    ) throws InterruptedException, ExecutionException {
+
+        Future<?> task = submitProjection(waitingHandler);
+
+        if (task != null) {
+
+            try {
+
+                task.get();
+
+            } catch (CancellationException e) {
+
+                // a newer projection was requested in the meantime
+
+            }
+        }
+    }
+
+    /**
+     * Discards the current projection and submits the building of a new one
+     * to the projection executor. Tasks building outdated projections are
+     * canceled.
+     *
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the task building the projection, null if there is nothing to
+     * project
+     */
+    private synchronized Future<?> submitProjection(
+            WaitingHandler waitingHandler
+    ) {
+
+        projection = null;
+        int request = ++projectionRequests;
+
+        if (projectionTask != null) {
+            projectionTask.cancel(false);
+            projectionTask = null;
+        }
+
+        if (identification == null || proteinKeys == null) {
+            return null;
+        }
+
+        long[] keys = proteinKeys;
+        Identification projectedIdentification = identification;
+        IdentificationFeaturesGenerator projectedFeaturesGenerator = identificationFeaturesGenerator;
+        ProteinDetailsProvider projectedDetailsProvider = proteinDetailsProvider;
+        SequenceProvider projectedSequenceProvider = sequenceProvider;
+        GeneMaps projectedGeneMaps = geneMaps;
+        DisplayFeaturesGenerator projectedDisplayFeaturesGenerator = displayFeaturesGenerator;
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(keys.length);
+        }
+
+        projectionTask = PROJECTION_EXECUTOR.submit(() -> {
+
+            try {
+
+                ProteinTableProjection newProjection = ProteinTableProjection.build(
+                        keys,
+                        projectedIdentification,
+                        projectedFeaturesGenerator,
+                        projectedDetailsProvider,
+                        projectedSequenceProvider,
+                        projectedGeneMaps,
+                        projectedDisplayFeaturesGenerator,
+                        waitingHandler
+                );
+
+                if (newProjection == null) {
+                    return;
+                }
+
+                synchronized (ProteinTableModel.this) {
+
+                    if (request != projectionRequests) {
+                        return;
+                    }
+
+                    projection = newProjection;
+
+                }
+
+                SwingUtilities.invokeLater(() -> {
+
+                    if (projection == newProjection && keys.length > 0) {
+
+                        fireTableRowsUpdated(0, keys.length - 1);
+
+                    }
+                });
+
+            } catch (Exception e) {
+
+                if (exceptionHandler != null) {
+                    exceptionHandler.catchException(e);
+                }
+            }
+        });
+
+        return projectionTask;
+
+    }
+
+    /**
+     * Refreshes the star and hide flags of the given protein in the table.
+     * This method should be called after the protein was starred, unstarred,
+     * hidden or unhidden.
+     *
+     * @param proteinKey the key of the protein match
+     */
+    public void updateStarHide(long proteinKey) {
+
+        ProteinTableProjection currentProjection = projection;
+
+        if (currentProjection != null) {
+
+            int row = currentProjection.updateStarHide(proteinKey, identification);
+
+            if (row != -1) {
+
+                fireTableRowsUpdated(row, row);
+
+            }
+        }
     }
 
     /**
@@ -175,8 +371,14 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
     /**
      * Reset the protein keys.
      */
-    public void reset() {
+    public synchronized void reset() {
         proteinKeys = null;
+        projection = null;
+        projectionRequests++;
+        if (projectionTask != null) {
+            projectionTask.cancel(false);
+            projectionTask = null;
+        }
     }
 
     @Override
@@ -246,6 +448,14 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
 //                dataMissingAtRow(row);
 //                return DisplayParameters.LOADING_MESSAGE;
 //            }
+            ProteinTableProjection currentProjection = projection;
+
+            if (currentProjection != null && currentProjection.getProteinKeys() == proteinKeys) {
+
+                return getProjectedValue(currentProjection, viewIndex, column);
+
+            }
+
             long proteinKey = proteinKeys[viewIndex];
 
             ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
@@ -351,6 +561,76 @@ public class ProteinTableModel extends SelfUpdatingTableModel {
 
     }
 
+    /**
+     * Returns the value of the given cell from the projection.
+     *
+     * @param currentProjection the projection
+     * @param row the index of the row in the projection
+     * @param column the index of the column
+     *
+     * @return the value of the cell
+     */
+    private Object getProjectedValue(
+            ProteinTableProjection currentProjection,
+            int row,
+            int column
+    ) {
+
+        switch (column) {
+
+            case 1:
+
+                return currentProjection.isStarred(row);
+
+            case 2:
+
+                return currentProjection.getProteinInferenceClass(row);
+
+            case 3:
+
+                return isScrolling ? currentProjection.getAccession(row) : currentProjection.getDatabaseLink(row);
+
+            case 4:
+
+                return currentProjection.getDescription(row);
+
+            case 5:
+
+                return new Chromosome(currentProjection.getChromosome(row));
+
+            case 6:
+
+                return currentProjection.getCoverage(row);
+
+            case 7:
+
+                return currentProjection.getNPeptides(row);
+
+            case 8:
+
+                return currentProjection.getNSpectra(row);
+
+            case 9:
+
+                return currentProjection.getSpectrumCounting(row);
+
+            case 10:
+
+                return currentProjection.getMolecularWeight(row);
+
+            case 11:
+
+                return showScores ? currentProjection.getScore(row) : currentProjection.getConfidence(row);
+
+            case 12:
+
+                return currentProjection.getValidationLevel(row);
+
+            default:
+                return null;
+        }
+    }
+
     /**
      * Indicates whether the table content was instantiated.
      *
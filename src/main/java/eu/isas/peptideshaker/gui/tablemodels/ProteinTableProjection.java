@@ -0,0 +1,502 @@
+package eu.isas.peptideshaker.gui.tablemodels;
+
+import com.compomics.util.experiment.biology.genes.GeneMaps;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.utils.ProteinUtils;
+import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
+import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.stream.IntStream;
+import no.uib.jsparklines.data.ArrrayListDataPoints;
+import no.uib.jsparklines.renderers.JSparklinesArrayListBarChartTableCellRenderer;
+
+/**
+ * Columnar projection of the content of the protein table. The values
+ * displayed are stored in arrays indexed by row so that the table can be
+ * painted without querying the database or allocating objects.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinTableProjection {
+
+    /**
+     * The number of values of the coverage column.
+     */
+    public static final int N_COVERAGE_VALUES = 4;
+    /**
+     * The number of values of the peptide and spectrum count columns.
+     */
+    public static final int N_COUNT_VALUES = 3;
+    /**
+     * The keys of the protein matches in the order of the rows.
+     */
+    private final long[] proteinKeys;
+    /**
+     * The index of the rows indexed by protein key.
+     */
+    private final HashMap<Long, Integer> rowIndexes;
+    /**
+     * Indicates for every row whether the protein is starred.
+     */
+    private final boolean[] starred;
+    /**
+     * Indicates for every row whether the protein is hidden.
+     */
+    private final boolean[] hidden;
+    /**
+     * The protein inference class of every row.
+     */
+    private final int[] proteinInferenceClasses;
+    /**
+     * The leading accession of every row.
+     */
+    private final String[] accessions;
+    /**
+     * The database link of the leading accession of every row.
+     */
+    private final String[] databaseLinks;
+    /**
+     * The description of every row.
+     */
+    private final String[] descriptions;
+    /**
+     * The chromosome of every row, null if not available.
+     */
+    private final String[] chromosomes;
+    /**
+     * The confident, doubtful, not validated and not covered observable
+     * coverage in percent of every row.
+     */
+    private final ArrrayListDataPoints[] coverage;
+    /**
+     * The number of confident, doubtful and not validated peptides of every
+     * row.
+     */
+    private final ArrrayListDataPoints[] nPeptides;
+    /**
+     * The number of confident, doubtful and not validated spectra of every
+     * row.
+     */
+    private final ArrrayListDataPoints[] nSpectra;
+    /**
+     * The normalized spectrum counting of every row.
+     */
+    private final double[] spectrumCounting;
+    /**
+     * The molecular weight of every row.
+     */
+    private final double[] molecularWeights;
+    /**
+     * The score of every row.
+     */
+    private final double[] scores;
+    /**
+     * The confidence of every row.
+     */
+    private final double[] confidences;
+    /**
+     * The validation level index of every row.
+     */
+    private final int[] validationLevels;
+
+    /**
+     * Constructor allocating the columns.
+     *
+     * @param proteinKeys the keys of the protein matches in the order of the
+     * rows
+     */
+    private ProteinTableProjection(
+            long[] proteinKeys
+    ) {
+
+        int nRows = proteinKeys.length;
+
+        this.proteinKeys = proteinKeys;
+        this.rowIndexes = new HashMap<>(nRows);
+
+        for (int i = 0; i < nRows; i++) {
+
+            rowIndexes.put(proteinKeys[i], i);
+
+        }
+
+        starred = new boolean[nRows];
+        hidden = new boolean[nRows];
+        proteinInferenceClasses = new int[nRows];
+        accessions = new String[nRows];
+        databaseLinks = new String[nRows];
+        descriptions = new String[nRows];
+        chromosomes = new String[nRows];
+        coverage = new ArrrayListDataPoints[nRows];
+        nPeptides = new ArrrayListDataPoints[nRows];
+        nSpectra = new ArrrayListDataPoints[nRows];
+        spectrumCounting = new double[nRows];
+        molecularWeights = new double[nRows];
+        scores = new double[nRows];
+        confidences = new double[nRows];
+        validationLevels = new int[nRows];
+
+    }
+
+    /**
+     * Builds the projection of the given proteins. The rows are filled in
+     * parallel, this method should not be called from the event dispatch
+     * thread.
+     *
+     * @param proteinKeys the keys of the protein matches in the order of the
+     * rows
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param proteinDetailsProvider the protein details provider
+     * @param sequenceProvider the protein sequences provider
+     * @param geneMaps the gene maps
+     * @param displayFeaturesGenerator the display features generator
+     * @param waitingHandler a waiting handler displaying progress and allowing
+     * canceling the process, can be null
+     *
+     * @return the projection, null if the process was canceled
+     */
+    public static ProteinTableProjection build(
+            long[] proteinKeys,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SequenceProvider sequenceProvider,
+            GeneMaps geneMaps,
+            DisplayFeaturesGenerator displayFeaturesGenerator,
+            WaitingHandler waitingHandler
+    ) {
+
+        ProteinTableProjection projection = new ProteinTableProjection(proteinKeys);
+
+        IntStream.range(0, proteinKeys.length)
+                .parallel()
+                .forEach(
+                        row -> {
+
+                            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                return;
+                            }
+
+                            projection.fillRow(
+                                    row,
+                                    identification,
+                                    identificationFeaturesGenerator,
+                                    proteinDetailsProvider,
+                                    sequenceProvider,
+                                    geneMaps,
+                                    displayFeaturesGenerator
+                            );
+
+                            if (waitingHandler != null) {
+                                waitingHandler.increaseSecondaryProgressCounter();
+                            }
+                        }
+                );
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return null;
+        }
+
+        return projection;
+
+    }
+
+    /**
+     * Fills the given row with the values of its protein match.
+     *
+     * @param row the index of the row
+     * @param identification the identification
+     * @param identificationFeaturesGenerator the identification features
+     * generator
+     * @param proteinDetailsProvider the protein details provider
+     * @param sequenceProvider the protein sequences provider
+     * @param geneMaps the gene maps
+     * @param displayFeaturesGenerator the display features generator
+     */
+    private void fillRow(
+            int row,
+            Identification identification,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            ProteinDetailsProvider proteinDetailsProvider,
+            SequenceProvider sequenceProvider,
+            GeneMaps geneMaps,
+            DisplayFeaturesGenerator displayFeaturesGenerator
+    ) {
+
+        long proteinKey = proteinKeys[row];
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+        String accession = proteinMatch.getLeadingAccession();
+
+        starred[row] = psParameter.getStarred();
+        hidden[row] = psParameter.getHidden();
+        proteinInferenceClasses[row] = psParameter.getProteinInferenceGroupClass();
+        scores[row] = psParameter.getTransformedScore();
+        confidences[row] = psParameter.getConfidence();
+        validationLevels[row] = psParameter.getMatchValidationLevel().getIndex();
+
+        accessions[row] = accession;
+        databaseLinks[row] = displayFeaturesGenerator.getDatabaseLink(accession);
+        descriptions[row] = proteinDetailsProvider.getSimpleDescription(accession);
+
+        String chromosomeName = geneMaps.getChromosome(proteinDetailsProvider.getGeneName(accession));
+        chromosomes[row] = chromosomeName == null || chromosomeName.length() == 0 ? null : chromosomeName;
+
+        HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+        double coverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
+        double coverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
+        double coverageNotValidated = 100 * sequenceCoverage.get(MatchValidationLevel.not_validated.getIndex());
+        double possibleCoverage = 100 * identificationFeaturesGenerator.getObservableCoverage(proteinKey);
+
+        ArrayList<Double> coverageValues = new ArrayList<>(N_COVERAGE_VALUES);
+        coverageValues.add(coverageConfident);
+        coverageValues.add(coverageDoubtful);
+        coverageValues.add(coverageNotValidated);
+        coverageValues.add(possibleCoverage - coverageConfident - coverageDoubtful - coverageNotValidated);
+
+        coverage[row] = new ArrrayListDataPoints(coverageValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumExceptLastNumber);
+
+        int nConfidentPeptides = identificationFeaturesGenerator.getNConfidentPeptides(proteinKey);
+        int nDoubtfulPeptides = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey) - nConfidentPeptides;
+
+        ArrayList<Double> peptideValues = new ArrayList<>(N_COUNT_VALUES);
+        peptideValues.add((double) nConfidentPeptides);
+        peptideValues.add((double) nDoubtfulPeptides);
+        peptideValues.add((double) (proteinMatch.getPeptideCount() - nConfidentPeptides - nDoubtfulPeptides));
+
+        nPeptides[row] = new ArrrayListDataPoints(peptideValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
+
+        int nConfidentPsms = identificationFeaturesGenerator.getNConfidentSpectra(proteinKey);
+        int nDoubtfulPsms = identificationFeaturesGenerator.getNValidatedSpectra(proteinKey) - nConfidentPsms;
+
+        ArrayList<Double> spectrumValues = new ArrayList<>(N_COUNT_VALUES);
+        spectrumValues.add((double) nConfidentPsms);
+        spectrumValues.add((double) nDoubtfulPsms);
+        spectrumValues.add((double) (identificationFeaturesGenerator.getNSpectra(proteinKey) - nConfidentPsms - nDoubtfulPsms));
+
+        nSpectra[row] = new ArrrayListDataPoints(spectrumValues, JSparklinesArrayListBarChartTableCellRenderer.ValueDisplayType.sumOfNumbers);
+
+        spectrumCounting[row] = identificationFeaturesGenerator.getNormalizedSpectrumCounting(proteinKey);
+        molecularWeights[row] = ProteinUtils.computeMolecularWeight(sequenceProvider.getSequence(accession));
+
+    }
+
+    /**
+     * Refreshes the star and hide flags of the given protein. Nothing is done
+     * if the protein is not in the projection.
+     *
+     * @param proteinKey the key of the protein match
+     * @param identification the identification
+     *
+     * @return the index of the row updated, -1 if the protein is not in the
+     * projection
+     */
+    public int updateStarHide(
+            long proteinKey,
+            Identification identification
+    ) {
+
+        Integer row = rowIndexes.get(proteinKey);
+
+        if (row == null) {
+            return -1;
+        }
+
+        ProteinMatch proteinMatch = identification.getProteinMatch(proteinKey);
+        PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+
+        starred[row] = psParameter.getStarred();
+        hidden[row] = psParameter.getHidden();
+
+        return row;
+
+    }
+
+    /**
+     * Returns the keys of the protein matches in the order of the rows.
+     *
+     * @return the keys of the protein matches in the order of the rows
+     */
+    public long[] getProteinKeys() {
+        return proteinKeys;
+    }
+
+    /**
+     * Returns a boolean indicating whether the protein at the given row is
+     * starred.
+     *
+     * @param row the index of the row
+     *
+     * @return a boolean indicating whether the protein is starred
+     */
+    public boolean isStarred(int row) {
+        return starred[row];
+    }
+
+    /**
+     * Returns a boolean indicating whether the protein at the given row is
+     * hidden.
+     *
+     * @param row the index of the row
+     *
+     * @return a boolean indicating whether the protein is hidden
+     */
+    public boolean isHidden(int row) {
+        return hidden[row];
+    }
+
+    /**
+     * Returns the protein inference class of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the protein inference class
+     */
+    public int getProteinInferenceClass(int row) {
+        return proteinInferenceClasses[row];
+    }
+
+    /**
+     * Returns the leading accession of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the leading accession
+     */
+    public String getAccession(int row) {
+        return accessions[row];
+    }
+
+    /**
+     * Returns the database link of the leading accession of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the database link
+     */
+    public String getDatabaseLink(int row) {
+        return databaseLinks[row];
+    }
+
+    /**
+     * Returns the description of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the description
+     */
+    public String getDescription(int row) {
+        return descriptions[row];
+    }
+
+    /**
+     * Returns the chromosome of the given row, null if not available.
+     *
+     * @param row the index of the row
+     *
+     * @return the chromosome
+     */
+    public String getChromosome(int row) {
+        return chromosomes[row];
+    }
+
+    /**
+     * Returns the coverage of the given row: confident, doubtful, not
+     * validated and not covered observable coverage in percent.
+     *
+     * @param row the index of the row
+     *
+     * @return the coverage
+     */
+    public ArrrayListDataPoints getCoverage(int row) {
+        return coverage[row];
+    }
+
+    /**
+     * Returns the number of peptides of the given row: confident, doubtful
+     * and not validated.
+     *
+     * @param row the index of the row
+     *
+     * @return the number of peptides
+     */
+    public ArrrayListDataPoints getNPeptides(int row) {
+        return nPeptides[row];
+    }
+
+    /**
+     * Returns the number of spectra of the given row: confident, doubtful and
+     * not validated.
+     *
+     * @param row the index of the row
+     *
+     * @return the number of spectra
+     */
+    public ArrrayListDataPoints getNSpectra(int row) {
+        return nSpectra[row];
+    }
+
+    /**
+     * Returns the normalized spectrum counting of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the normalized spectrum counting
+     */
+    public double getSpectrumCounting(int row) {
+        return spectrumCounting[row];
+    }
+
+    /**
+     * Returns the molecular weight of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the molecular weight
+     */
+    public double getMolecularWeight(int row) {
+        return molecularWeights[row];
+    }
+
+    /**
+     * Returns the score of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the score
+     */
+    public double getScore(int row) {
+        return scores[row];
+    }
+
+    /**
+     * Returns the confidence of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the confidence
+     */
+    public double getConfidence(int row) {
+        return confidences[row];
+    }
+
+    /**
+     * Returns the validation level index of the given row.
+     *
+     * @param row the index of the row
+     *
+     * @return the validation level index
+     */
+    public int getValidationLevel(int row) {
+        return validationLevels[row];
+    }
+}
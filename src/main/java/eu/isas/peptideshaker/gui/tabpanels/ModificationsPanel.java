@@ -13,10 +13,8 @@ import com.compomics.util.experiment.identification.spectrum_annotation.Spectrum
 import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
 import com.compomics.util.experiment.identification.matches.IonMatch;
 import static com.compomics.util.experiment.personalization.ExperimentObject.NO_KEY;
-import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
-import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
 import com.compomics.util.experiment.mass_spectrometry.spectra.Precursor;
 import com.compomics.util.gui.TableProperties;
 import com.compomics.util.gui.error_handlers.HelpDialog;
@@ -40,6 +38,7 @@ import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import eu.isas.peptideshaker.gui.protein_inference.ProteinInferencePeptideLevelDialog;
 import eu.isas.peptideshaker.gui.ModificationSiteInferenceDialog;
+import eu.isas.peptideshaker.utils.PeptideSequenceIndex;
 import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import java.awt.*;
@@ -121,9 +120,9 @@ public class ModificationsPanel extends javax.swing.JPanel {
      */
     private final PeptideShakerGUI peptideShakerGUI;
     /**
-     * Map of all peptide keys indexed by their modification status.
+     * Index of the peptide sequences and modifications of the project.
      */
-    private final HashMap<String, HashSet<Long>> peptideMap = new HashMap<>();
+    private PeptideSequenceIndex peptideSequenceIndex;
     /**
      * The modification name for no modification.
      */
@@ -3262,60 +3261,45 @@ public class ModificationsPanel extends javax.swing.JPanel {
     }
 
     /**
-     * Creates the peptide map.
+     * Loads the peptide sequence index of the project. The index is built if
+     * not available, e.g. for projects created with older versions.
      *
      * @param progressDialog a progress dialog. Can be null.
      */
-    private void createPeptideMap(ProgressDialogX progressDialogX) {
+    private void loadPeptideSequenceIndex(ProgressDialogX progressDialogX) {
 
-        HashSet<Long> notModifiedPeptides = new HashSet<>();
-        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(progressDialogX);
-        PeptideMatch peptideMatch;
+        peptideSequenceIndex = (PeptideSequenceIndex) identification.getUrParam(PeptideSequenceIndex.dummy);
 
-        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+        if (peptideSequenceIndex == null) {
 
-            long peptideKey = peptideMatch.getKey();
-            Peptide peptide = peptideMatch.getPeptide();
-
-            if (!PeptideUtils.isDecoy(peptide, peptideShakerGUI.getSequenceProvider())) {
-
-                if (peptide.getVariableModifications().length == 0) {
-
-                    notModifiedPeptides.add(peptideKey);
-
-                } else {
-
-                    for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
-
-                        String modName = modificationMatch.getModification();
-                        HashSet<Long> peptideKeysForModifications = peptideMap.get(modName);
-
-                        if (peptideKeysForModifications == null) {
-
-                            peptideKeysForModifications = new HashSet<>();
-                            peptideMap.put(modName, peptideKeysForModifications);
-
-                        }
-
-                        peptideKeysForModifications.add(peptideKey);
-
-                    }
-                }
-            }
-            if (progressDialogX != null) {
-
-                if (progressDialogX.isRunCanceled()) {
-
-                    return;
+            peptideSequenceIndex = new PeptideSequenceIndex(
+                    identification,
+                    peptideShakerGUI.getSequenceProvider(),
+                    progressDialogX
+            );
 
-                }
+            if (progressDialogX == null || !progressDialogX.isRunCanceled()) {
 
-                progressDialogX.increasePrimaryProgressCounter();
+                identification.addUrParam(peptideSequenceIndex);
 
             }
         }
+    }
 
-        peptideMap.put(NO_MODIFICATION, notModifiedPeptides);
+    /**
+     * Returns the keys of the target peptides carrying the given variable
+     * modification, null if none.
+     *
+     * @param modification the modification name, or NO_MODIFICATION for
+     * peptides without variable modification
+     *
+     * @return the keys of the target peptides carrying the modification
+     */
+    private long[] getModificationPeptides(String modification) {
+
+        return modification.equals(NO_MODIFICATION)
+                ? peptideSequenceIndex.getUnmodifiedPeptides()
+                : peptideSequenceIndex.getModifiedPeptides(modification);
 
     }
 
@@ -3401,7 +3385,7 @@ public class ModificationsPanel extends javax.swing.JPanel {
                             );
 
                     identification = peptideShakerGUI.getIdentification();
-                    createPeptideMap(progressDialog);
+                    loadPeptideSequenceIndex(progressDialog);
 
                     DefaultTableModel dm = (DefaultTableModel) modificationJTable.getModel();
                     dm.getDataVector().removeAllElements();
@@ -3416,12 +3400,12 @@ public class ModificationsPanel extends javax.swing.JPanel {
                     }
 
                     for (String modification : allVariableMods) {
-                        if (!modification.equalsIgnoreCase(NO_MODIFICATION) && peptideMap.containsKey(modification)) {
+                        if (!modification.equalsIgnoreCase(NO_MODIFICATION) && getModificationPeptides(modification) != null) {
                             ((DefaultTableModel) modificationJTable.getModel()).addRow(
                                     new Object[]{
                                         new Color(modificationProfile.getColor(modification)),
                                         modification,
-                                        peptideMap.get(modification).size()
+                                        getModificationPeptides(modification).length
                                     });
                         }
                     }
@@ -3430,7 +3414,7 @@ public class ModificationsPanel extends javax.swing.JPanel {
                             new Object[]{
                                 Color.lightGray,
                                 NO_MODIFICATION,
-                                peptideMap.get(NO_MODIFICATION).size()
+                                getModificationPeptides(NO_MODIFICATION).length
                             });
 
                     ((TitledBorder) modificationLayeredPanel.getBorder()).setTitle(
@@ -3715,13 +3699,13 @@ public class ModificationsPanel extends javax.swing.JPanel {
             TreeMap<Double, TreeSet<Long>> scoreToPeptideMap = new TreeMap<>();
 
             String modKey = (String) modificationJTable.getValueAt(modificationJTable.getSelectedRow(), modificationJTable.getColumn("Modification").getModelIndex());
-            HashSet<Long> modKeys = peptideMap.get(modKey);
+            long[] modKeys = getModificationPeptides(modKey);
 
             if (modKeys != null) {
 
                 progressDialog.setPrimaryProgressCounterIndeterminate(false);
                 progressDialog.setValue(0);
-                progressDialog.setMaxPrimaryProgressCounter(modKeys.size());
+                progressDialog.setMaxPrimaryProgressCounter(modKeys.length);
 
                 for (long peptideKey : modKeys) {
 
@@ -3855,9 +3839,10 @@ public class ModificationsPanel extends javax.swing.JPanel {
 
         progressDialog.setPrimaryProgressCounterIndeterminate(false);
         progressDialog.setValue(0);
-        progressDialog.setMaxPrimaryProgressCounter(identification.getPeptideIdentification().size());
+        long[] relatedPeptideKeys = peptideSequenceIndex.getRelatedPeptides(referenceSequence);
+        progressDialog.setMaxPrimaryProgressCounter(relatedPeptideKeys.length);
 
-        for (long newKey : identification.getPeptideIdentification()) {
+        for (long newKey : relatedPeptideKeys) {
 
             if (progressDialog.isRunCanceled()) {
                 break;
@@ -3871,26 +3856,21 @@ public class ModificationsPanel extends javax.swing.JPanel {
 
             if (!psParameter.getHidden()) {
 
-                String newSequence = newMatch.getPeptide().getSequence();
-
-                if (newSequence.contains(referenceSequence) || referenceSequence.contains(newSequence)) {
-
-                    if (newKey != peptideKey) {
+                if (newKey != peptideKey) {
 
-                        double p = psParameter.getProbability();
+                    double p = psParameter.getProbability();
 
-                        TreeSet keysAtScore = scoreToKeyMap.get(p);
+                    TreeSet keysAtScore = scoreToKeyMap.get(p);
 
-                        if (keysAtScore == null) {
+                    if (keysAtScore == null) {
 
-                            keysAtScore = new TreeSet<>();
-                            scoreToKeyMap.put(p, keysAtScore);
+                        keysAtScore = new TreeSet<>();
+                        scoreToKeyMap.put(p, keysAtScore);
 
-                        }
+                    }
 
-                        keysAtScore.add(newKey);
+                    keysAtScore.add(newKey);
 
-                    }
                 }
             }
         }
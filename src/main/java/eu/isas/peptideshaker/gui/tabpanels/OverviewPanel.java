@@ -2149,6 +2149,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     updatePsmPanelTitle();
                     peptidesPanel.repaint();
                     proteinsLayeredPanel.repaint();
+                    peptideShakerGUI.updateProteinTableProjections();
                 }
             }
 
@@ -2209,6 +2210,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                     } else {
                         peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                     }
+                    ((ProteinTableModel) proteinTable.getModel()).updateStarHide(proteinKey);
                     peptideShakerGUI.setDataSaved(false);
                 }
 
@@ -2246,6 +2248,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                             peptideShakerGUI.getIdentificationParameters(), peptideShakerGUI.getProjectDetails().getFastaFile(), MatchType.PROTEIN);
                     if (matchValidationDialog.isValidationChanged()) {
                         updateProteinPanelTitle();
+                        peptideShakerGUI.updateProteinTableProjections();
                     }
                 }
             }
@@ -2324,6 +2327,7 @@ public class OverviewPanel extends javax.swing.JPanel implements ProteinSequence
                 if (matchValidationDialog.isValidationChanged()) {
                     updateProteinPanelTitle();
                     updatePeptidePanelTitle();
+                    peptideShakerGUI.updateProteinTableProjections();
                 }
             }
 
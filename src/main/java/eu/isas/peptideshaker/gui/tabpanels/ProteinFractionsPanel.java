@@ -803,6 +803,15 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
 
     }
 
+    /**
+     * Returns the protein table.
+     *
+     * @return the protein table
+     */
+    public JTable getProteinTable() {
+        return proteinTable;
+    }
+
     /**
      * Clear all the data.
      */
@@ -1369,6 +1378,7 @@ public class ProteinFractionsPanel extends javax.swing.JPanel implements Protein
                     } else {
                         peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                     }
+                    ((ProteinTableModel) proteinTable.getModel()).updateStarHide(proteinKey);
                     peptideShakerGUI.setDataSaved(false);
                 }
 
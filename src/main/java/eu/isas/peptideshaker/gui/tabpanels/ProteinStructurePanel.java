@@ -1611,6 +1611,7 @@ public class ProteinStructurePanel extends javax.swing.JPanel {
                         peptideShakerGUI.getStarHider().unStarProtein(proteinKey);
                     }
 
+                    ((ProteinTableModel) proteinTable.getModel()).updateStarHide(proteinKey);
                     peptideShakerGUI.setDataSaved(false);
                 }
             }
@@ -1,7 +1,5 @@
 package eu.isas.peptideshaker.gui.tabpanels;
 
-import com.compomics.util.Util;
-import com.compomics.util.experiment.biology.enzymes.Enzyme;
 import com.compomics.util.experiment.biology.modifications.Modification;
 import com.compomics.util.experiment.biology.modifications.ModificationFactory;
 import com.compomics.util.experiment.biology.proteins.Peptide;
@@ -21,14 +19,15 @@ import com.compomics.util.parameters.identification.search.ModificationParameter
 import com.compomics.util.parameters.identification.search.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.utils.ModificationUtils;
-import com.compomics.util.experiment.identification.utils.PeptideUtils;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.parameters.identification.search.DigestionParameters;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import eu.isas.peptideshaker.gui.PeptideShakerGUI;
+import eu.isas.peptideshaker.scoring.QcHistogram;
+import eu.isas.peptideshaker.scoring.QcHistograms;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
-import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
 import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
 import com.compomics.util.parameters.peptide_shaker.ProjectType;
 import java.awt.Color;
@@ -68,29 +67,9 @@ public class QCPanel extends javax.swing.JPanel {
      */
     private static ProgressDialogX progressDialog;
     /**
-     * Values of the validated target hits.
+     * The histogram of the values to be plotted.
      */
-    public ArrayList<Double> validatedValues;
-    /**
-     * Values of the doubtful validated target hits.
-     */
-    public ArrayList<Double> validatedDoubtfulValues;
-    /**
-     * Values of the non validated target hits.
-     */
-    public ArrayList<Double> nonValidatedValues;
-    /**
-     * Values of the validated decoy hits.
-     */
-    public ArrayList<Double> validatedDecoyValues;
-    /**
-     * Values of the non validated decoy hits.
-     */
-    public ArrayList<Double> nonValidatedDecoyValues;
-    /**
-     * The current maximum value to be plotted.
-     */
-    private double maxValue = Double.MAX_VALUE;
+    private QcHistogram histogram;
 
     /**
      * The list of supported plot types.
@@ -1142,7 +1121,7 @@ public class QCPanel extends javax.swing.JPanel {
 
         if (peptideShakerGUI.getIdentification() != null
                 && peptideShakerGUI.getSelectedTab() == PeptideShakerGUI.QC_PLOTS_TAB_INDEX
-                && validatedValues != null) {
+                && histogram != null) {
 
             switch (tabbedPane.getSelectedIndex()) {
                 case 0:
@@ -1352,67 +1331,40 @@ public class QCPanel extends javax.swing.JPanel {
 
                     if (proteinSpectrumCountingScoreJRadioButton.isSelected()) {
 
-                        double tempMaxValue; // @TODO: support scientific x-axis for spectrum counting plot?
-
-                        // try to find a suitable range
-                        if (maxValue < 0.25) {
-                            tempMaxValue = 0.25;
-                        } else if (maxValue < 0.5) {
-                            tempMaxValue = 0.5;
-                        } else if (maxValue < 1) {
-                            tempMaxValue = 1;
-                        } else if (maxValue < 5) {
-                            tempMaxValue = 5;
-                        } else if (maxValue < 10) {
-                            tempMaxValue = 10;
-                        } else if (maxValue < 25) {
-                            tempMaxValue = 25;
-                        } else if (maxValue < 50) {
-                            tempMaxValue = 50;
-                        } else if (maxValue < 100) {
-                            tempMaxValue = 100;
-                        } else {
-                            tempMaxValue = Math.ceil(maxValue);
-                        }
+                        // the bins of the spectrum counting histogram are set from the maximal spectrum counting
+                        double[] upperBounds = histogram.getUpperBounds();
 
-                        int nBins = 20;
-                        for (int i = 0; i <= nBins; i++) {
-                            double bin = i * tempMaxValue / nBins;
-                            bins.add(Util.roundDouble(bin, 4));
+                        if (upperBounds != null) {
+                            for (double bin : upperBounds) {
+                                bins.add(bin);
+                            }
+                        } else {
+                            bins.addAll(QcHistograms.getSpectrumCountingBins(0));
                         }
 
-//                        getBinData(bins, validatedValues, dataset, "Confident True Positives", false);
-//                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful True Positives", false);
-//                        getBinData(bins, validatedDecoyValues, dataset, "False Positives", false);
-//                        getBinData(bins, nonValidatedValues, dataset, "False Negatives", false);
-//                        getBinData(bins, nonValidatedDecoyValues, dataset, "True Negatives", false);
-                        getBinData(bins, validatedValues, dataset, "Confident", false);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", false);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", false);
+//                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident True Positives", false);
+//                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful True Positives", false);
+//                        getBinData(bins, QcHistogram.VALIDATED_DECOY, dataset, "False Positives", false);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "False Negatives", false);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED_DECOY, dataset, "True Negatives", false);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", false);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", false);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", false);
 
                         currentProteinPlotType = PlotType.Protein_MS2_QuantScores;
 
                     } else if (proteinSequenceCoverageJRadioButton.isSelected()) {
 
-                        bins.add(0.0);
-                        bins.add(10.0);
-                        bins.add(20.0);
-                        bins.add(30.0);
-                        bins.add(40.0);
-                        bins.add(50.0);
-                        bins.add(60.0);
-                        bins.add(70.0);
-                        bins.add(80.0);
-                        bins.add(90.0);
-
-//                        getBinData(bins, validatedValues, dataset, "Confident True Positives", "%", true);
-//                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful True Positives", "%", true);
-//                        getBinData(bins, validatedDecoyValues, dataset, "False Positives", "%", true);
-//                        getBinData(bins, nonValidatedValues, dataset, "False Negatives", "%", true);
-//                        getBinData(bins, nonValidatedDecoyValues, dataset, "True Negatives", "%", true);
-                        getBinData(bins, validatedValues, dataset, "Confident", "%", true);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", "%", true);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", "%", true);
+                        bins.addAll(QcHistograms.getSequenceCoverageBins());
+
+//                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident True Positives", "%", true);
+//                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful True Positives", "%", true);
+//                        getBinData(bins, QcHistogram.VALIDATED_DECOY, dataset, "False Positives", "%", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "False Negatives", "%", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED_DECOY, dataset, "True Negatives", "%", true);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", "%", true);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", "%", true);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", "%", true);
 
                         currentProteinPlotType = PlotType.Protein_Sequence_Coverage;
 
@@ -1430,14 +1382,14 @@ public class QCPanel extends javax.swing.JPanel {
                         bins.add(200.0);
                         bins.add(500.0);
 
-//                        getBinData(bins, validatedValues, dataset, "Confident True Positives", true);
-//                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful True Positives", true);
-//                        getBinData(bins, validatedDecoyValues, dataset, "False Positives", true);
-//                        getBinData(bins, nonValidatedValues, dataset, "False Negatives", true);
-//                        getBinData(bins, nonValidatedDecoyValues, dataset, "True Negatives", true);
-                        getBinData(bins, validatedValues, dataset, "Confident", true);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+//                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident True Positives", true);
+//                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful True Positives", true);
+//                        getBinData(bins, QcHistogram.VALIDATED_DECOY, dataset, "False Positives", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "False Negatives", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED_DECOY, dataset, "True Negatives", true);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                         currentProteinPlotType = PlotType.Protein_Validated_Peptides;
 
@@ -1453,14 +1405,14 @@ public class QCPanel extends javax.swing.JPanel {
                         bins.add(2500.0);
                         bins.add(3000.0);
 
-//                        getBinData(bins, validatedValues, dataset, "Confident True Positives", true);
-//                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful True Positives", true);
-//                        getBinData(bins, validatedDecoyValues, dataset, "False Positives", true);
-//                        getBinData(bins, nonValidatedValues, dataset, "False Negatives", true);
-//                        getBinData(bins, nonValidatedDecoyValues, dataset, "True Negatives", true);
-                        getBinData(bins, validatedValues, dataset, "Confident", true);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+//                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident True Positives", true);
+//                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful True Positives", true);
+//                        getBinData(bins, QcHistogram.VALIDATED_DECOY, dataset, "False Positives", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "False Negatives", true);
+//                        getBinData(bins, QcHistogram.NOT_VALIDATED_DECOY, dataset, "True Negatives", true);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                         currentProteinPlotType = PlotType.Protein_Sequence_Length;
                     }
@@ -1618,9 +1570,9 @@ public class QCPanel extends javax.swing.JPanel {
                             bins.add(200.0);
                             bins.add(500.0);
 
-                            getBinData(bins, validatedValues, dataset, "Confident", true);
-                            getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                            getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+                            getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                            getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                            getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                             currentPeptidePlotType = PlotType.Peptide_Validated_PSMs;
 
@@ -1631,9 +1583,9 @@ public class QCPanel extends javax.swing.JPanel {
                             bins.add(2.0);
                             bins.add(3.0);
 
-                            getBinData(bins, validatedValues, dataset, "Confident", true);
-                            getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                            getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+                            getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                            getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                            getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                             currentPeptidePlotType = PlotType.Peptide_Missed_Cleavages;
 
@@ -1652,9 +1604,9 @@ public class QCPanel extends javax.swing.JPanel {
                                 bins.add(Double.valueOf(i));
                             }
 
-                            getBinData(bins, validatedValues, dataset, "Confident", true);
-                            getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                            getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+                            getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                            getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                            getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                             currentPeptidePlotType = PlotType.Peptide_Length;
                         } else if (peptideModificationsJRadioButton.isSelected()) {
@@ -1801,15 +1753,11 @@ public class QCPanel extends javax.swing.JPanel {
                     if (psmPrecursorMassErrorJRadioButton.isSelected()) {
 
                         double prec = peptideShakerGUI.getIdentificationParameters().getSearchParameters().getPrecursorAccuracy();
-                        int nBins = 20;
-                        for (int i = -nBins; i <= nBins; i++) {
-                            double bin = i * prec / nBins;
-                            bins.add(bin);
-                        }
+                        bins.addAll(QcHistograms.getPrecursorErrorBins(prec));
 
-                        getBinData(bins, validatedValues, dataset, "Confident", false);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", false);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", false);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", false);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", false);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", false);
 
                         currentPsmPlotType = PlotType.PSM_Precursor_Mass_Error;
 
@@ -1821,9 +1769,9 @@ public class QCPanel extends javax.swing.JPanel {
                             bins.add((double) i);
                         }
 
-                        getBinData(bins, validatedValues, dataset, "Confident", true);
-                        getBinData(bins, validatedDoubtfulValues, dataset, "Doubtful", true);
-                        getBinData(bins, nonValidatedValues, dataset, "Not Validated", true);
+                        getBinData(bins, QcHistogram.CONFIDENT, dataset, "Confident", true);
+                        getBinData(bins, QcHistogram.DOUBTFUL, dataset, "Doubtful", true);
+                        getBinData(bins, QcHistogram.NOT_VALIDATED, dataset, "Not Validated", true);
 
                         currentPsmPlotType = PlotType.PSM_Precursor_Charge;
                     }
@@ -1892,416 +1840,218 @@ public class QCPanel extends javax.swing.JPanel {
     }
 
     /**
-     * Returns the dataset to use for the protein QC plot.
+     * Sets the histogram to use for the protein QC plot.
      */
     private void getProteinDataset() {
 
-        progressDialog.setPrimaryProgressCounterIndeterminate(false);
-        progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getProteinIdentification().size());
-        progressDialog.setValue(0);
-
-        IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
-
-        maxValue = Double.MIN_VALUE;
-
-        validatedValues = new ArrayList<>();
-        validatedDoubtfulValues = new ArrayList<>();
-        nonValidatedValues = new ArrayList<>();
-        validatedDecoyValues = new ArrayList<>();
-        nonValidatedDecoyValues = new ArrayList<>();
-
-        ProteinMatchesIterator proteinMatchesIterator = peptideShakerGUI.getIdentification().getProteinMatchesIterator(progressDialog);
-        ProteinMatch proteinMatch;
-
-        while ((proteinMatch = proteinMatchesIterator.next()) != null) {
-
-            long proteinKey = proteinMatch.getKey();
-
-            if (progressDialog.isRunCanceled()) {
-                break;
-            }
-
-            double value = 0;
-
-            if (proteinNumberValidatedPeptidesJRadioButton.isSelected()) {
-                value = identificationFeaturesGenerator.getNValidatedPeptides(proteinKey);
-            } else if (proteinSpectrumCountingScoreJRadioButton.isSelected()) {
-                value = identificationFeaturesGenerator.getSpectrumCounting(proteinKey);
-            } else if (proteinSequenceCoverageJRadioButton.isSelected()) {
-                HashMap<Integer, Double> sequenceCoverage = peptideShakerGUI.getIdentificationFeaturesGenerator().getSequenceCoverage(proteinKey);
-                Double sequenceCoverageConfident = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex());
-                Double sequenceCoverageDoubtful = 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
-                value = sequenceCoverageConfident + sequenceCoverageDoubtful;
-            } else if (proteinSequenceLengthJRadioButton.isSelected()) {
-                String proteinSequence = peptideShakerGUI.getSequenceProvider().getSequence(proteinMatch.getLeadingAccession());
-                value = proteinSequence.length();
-            }
-
-            PSParameter proteinParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
-
-            if (!proteinParameter.getHidden()) {
-
-                if (value > maxValue) {
-                    maxValue = value;
-                }
-                if (!proteinMatch.isDecoy()) {
-                    if (proteinParameter.getMatchValidationLevel().isValidated()) {
-                        if (proteinParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                            validatedValues.add(value);
-                        } else {
-                            validatedDoubtfulValues.add(value);
-                        }
-                    } else {
-                        nonValidatedValues.add(value);
-                    }
-                }
-            }
-
-            progressDialog.increasePrimaryProgressCounter();
+        if (proteinNumberValidatedPeptidesJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.proteinValidatedPeptides);
+        } else if (proteinSpectrumCountingScoreJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.proteinSpectrumCounting);
+        } else if (proteinSequenceCoverageJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.proteinSequenceCoverage);
+        } else if (proteinSequenceLengthJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.proteinSequenceLength);
         }
+
     }
 
     /**
-     * Returns the dataset to use for the peptide QC plot.
+     * Sets the histogram to use for the peptide QC plot.
      */
     private void getPeptideDataset() {
 
-        maxValue = Double.MIN_VALUE;
-
-        SequenceProvider sequenceProvider = peptideShakerGUI.getSequenceProvider();
-
         if (peptideValidatedPsmsJRadioButton.isSelected()) {
-
-            progressDialog.setPrimaryProgressCounterIndeterminate(false);
-            progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-            progressDialog.setValue(0);
-
-            // values for the number of validated PSMs
-            validatedValues = new ArrayList<>();
-            validatedDoubtfulValues = new ArrayList<>();
-            nonValidatedValues = new ArrayList<>();
-            validatedDecoyValues = new ArrayList<>();
-            nonValidatedDecoyValues = new ArrayList<>();
-
-            PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(progressDialog);
-            PeptideMatch peptideMatch;
-
-            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
-
-                if (progressDialog.isRunCanceled()) {
-                    break;
-                }
-
-                double value = 0;
-
-                for (long spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
-
-                    if (progressDialog.isRunCanceled()) {
-                        break;
-                    }
-
-                    SpectrumMatch spectrumMatch = peptideShakerGUI.getIdentification().getSpectrumMatch(spectrumMatchKey);
-
-                    PSParameter spectrumParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
-
-                    if (spectrumParameter.getMatchValidationLevel().isValidated() && !spectrumParameter.getHidden()) {
-                        value = value + 1;
-                    }
-                }
-                if (value > maxValue) {
-                    maxValue = value;
-                }
-
-                PSParameter peptideParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
-
-                if (!peptideParameter.getHidden()) {
-
-                    if (!PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
-                        if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                            if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(value);
-                            } else {
-                                validatedDoubtfulValues.add(value);
-                            }
-                        } else {
-                            nonValidatedValues.add(value);
-                        }
-                    } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                        validatedDecoyValues.add(value);
-                    } else {
-                        nonValidatedDecoyValues.add(value);
-                    }
-                }
-
-                progressDialog.increasePrimaryProgressCounter();
-            }
+            histogram = getHistogram(QcHistograms.Metric.peptideValidatedPsms);
         } else if (peptideMissedCleavagesJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.peptideMissedCleavages);
+        } else if (peptideLengthJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.peptideLength);
+        } else {
+            return;
+        }
 
-            progressDialog.setPrimaryProgressCounterIndeterminate(false);
-            progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-            progressDialog.setValue(0);
-
-            // Values for the missed cleavages
-            validatedValues = new ArrayList<>();
-            validatedDoubtfulValues = new ArrayList<>();
-            nonValidatedValues = new ArrayList<>();
-            validatedDecoyValues = new ArrayList<>();
-            nonValidatedDecoyValues = new ArrayList<>();
-
-            PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(progressDialog);
-            PeptideMatch peptideMatch;
+    }
 
-            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+    /**
+     * Sets the histogram to use for the PSM QC plot.
+     */
+    private void getPsmDataset() {
 
-                if (progressDialog.isRunCanceled()) {
-                    break;
-                }
+        if (psmPrecursorMassErrorJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.psmPrecursorError);
+        } else if (psmPrecursorChargeJRadioButton.isSelected()) {
+            histogram = getHistogram(QcHistograms.Metric.psmPrecursorCharge);
+        }
 
-                PSParameter peptideParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+    }
 
-                if (!peptideParameter.getHidden()) {
+    /**
+     * Returns the histogram of the given metric. The histograms are gathered
+     * during validation, updated when hiding matches, and stored in the
+     * identification. If not available, e.g. for the spectrum counting, the
+     * histograms of the level of the metric are gathered by iterating the
+     * matches and stored in the identification.
+     *
+     * @param metric the metric
+     *
+     * @return the histogram of the metric
+     */
+    private QcHistogram getHistogram(
+            QcHistograms.Metric metric
+    ) {
 
-                    Double value = null;
-                    DigestionParameters digestionParameters = peptideShakerGUI.getIdentificationParameters().getSearchParameters().getDigestionParameters();
+        Identification identification = peptideShakerGUI.getIdentification();
+        SearchParameters searchParameters = peptideShakerGUI.getIdentificationParameters().getSearchParameters();
+        QcHistograms qcHistograms = (QcHistograms) identification.getUrParam(QcHistograms.dummy);
 
-                    if (digestionParameters.getCleavageParameter() == DigestionParameters.CleavageParameter.enzyme) {
+        if (qcHistograms == null) {
 
-                        for (Enzyme enzyme : digestionParameters.getEnzymes()) {
+            qcHistograms = new QcHistograms(searchParameters);
+            identification.addUrParam(qcHistograms);
 
-                            int enzymeMissedCleavages = enzyme.getNmissedCleavages(peptideMatch.getPeptide().getSequence());
+        }
 
-                            if (value == null || enzymeMissedCleavages < value) {
-                                value = Double.valueOf(enzymeMissedCleavages);
-                            }
-                        }
+        QcHistogram result = qcHistograms.get(metric);
 
-                    }
+        if (result != null) {
+            return result;
+        }
 
-                    if (value == null) {
-                        value = 0.0;
-                    }
+        progressDialog.setPrimaryProgressCounterIndeterminate(false);
+        progressDialog.setValue(0);
 
-                    if (value > 0) {
-                        if (value > maxValue) {
-                            maxValue = value;
-                        }
-                    }
+        QcHistograms levelHistograms = new QcHistograms(searchParameters);
+        QcHistograms.Metric[] levelMetrics;
+        SequenceProvider sequenceProvider = peptideShakerGUI.getSequenceProvider();
 
-                    if (!PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
+        switch (metric) {
 
-                        if (peptideParameter.getMatchValidationLevel().isValidated()) {
+            case proteinSpectrumCounting:
 
-                            if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(value);
-                            } else {
-                                validatedDoubtfulValues.add(value);
-                            }
+                progressDialog.setMaxPrimaryProgressCounter(identification.getProteinIdentification().size());
 
-                        } else {
-                            nonValidatedValues.add(value);
-                        }
+                levelHistograms.setProteinSpectrumCounting(
+                        identification.getProteinMatchesIterator(progressDialog),
+                        peptideShakerGUI.getIdentificationFeaturesGenerator(),
+                        progressDialog
+                );
 
-                    } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                        validatedDecoyValues.add(value);
-                    } else {
-                        nonValidatedDecoyValues.add(value);
-                    }
-                }
+                levelMetrics = new QcHistograms.Metric[]{QcHistograms.Metric.proteinSpectrumCounting};
+                break;
 
-                progressDialog.increasePrimaryProgressCounter();
-            }
-        } else if (peptideLengthJRadioButton.isSelected()) {
+            case proteinValidatedPeptides:
+            case proteinSequenceCoverage:
+            case proteinSequenceLength:
 
-            progressDialog.setPrimaryProgressCounterIndeterminate(false);
-            progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getPeptideIdentification().size());
-            progressDialog.setValue(0);
+                progressDialog.setMaxPrimaryProgressCounter(identification.getProteinIdentification().size());
 
-            // values for the peptide length
-            validatedValues = new ArrayList<>();
-            validatedDoubtfulValues = new ArrayList<>();
-            nonValidatedValues = new ArrayList<>();
-            validatedDecoyValues = new ArrayList<>();
-            nonValidatedDecoyValues = new ArrayList<>();
+                IdentificationFeaturesGenerator identificationFeaturesGenerator = peptideShakerGUI.getIdentificationFeaturesGenerator();
+                ProteinMatchesIterator proteinMatchesIterator = identification.getProteinMatchesIterator(progressDialog);
+                ProteinMatch proteinMatch;
 
-            PeptideMatchesIterator peptideMatchesIterator = peptideShakerGUI.getIdentification().getPeptideMatchesIterator(progressDialog);
-            PeptideMatch peptideMatch;
+                while ((proteinMatch = proteinMatchesIterator.next()) != null && !progressDialog.isRunCanceled()) {
 
-            while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+                    levelHistograms.addProteinMatch(proteinMatch, identificationFeaturesGenerator, sequenceProvider);
+                    progressDialog.increasePrimaryProgressCounter();
 
-                if (progressDialog.isRunCanceled()) {
-                    break;
                 }
 
-                PSParameter peptideParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
-
-                if (!peptideParameter.getHidden()) {
-
-                    double length = peptideMatch.getPeptide().getSequence().length();
-                    if (length > 0) {
-                        if (length > maxValue) {
-                            maxValue = length;
-                        }
-                    }
+                levelMetrics = new QcHistograms.Metric[]{
+                    QcHistograms.Metric.proteinValidatedPeptides,
+                    QcHistograms.Metric.proteinSequenceCoverage,
+                    QcHistograms.Metric.proteinSequenceLength
+                };
+                break;
 
-                    if (!PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)) {
-                        if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                            if (peptideParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(length);
-                            } else {
-                                validatedDoubtfulValues.add(length);
-                            }
-                        } else {
-                            nonValidatedValues.add(length);
-                        }
-                    } else if (peptideParameter.getMatchValidationLevel().isValidated()) {
-                        validatedDecoyValues.add(length);
-                    } else {
-                        nonValidatedDecoyValues.add(length);
-                    }
-                }
+            case peptideValidatedPsms:
+            case peptideMissedCleavages:
+            case peptideLength:
 
-                progressDialog.increasePrimaryProgressCounter();
-            }
-        }
-    }
+                progressDialog.setMaxPrimaryProgressCounter(identification.getPeptideIdentification().size());
 
-    /**
-     * Returns the dataset to use for the PSM QC plot.
-     */
-    private void getPsmDataset() {
+                DigestionParameters digestionParameters = searchParameters.getDigestionParameters();
+                PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(progressDialog);
+                PeptideMatch peptideMatch;
 
-        progressDialog.setPrimaryProgressCounterIndeterminate(false);
-        progressDialog.setMaxPrimaryProgressCounter(peptideShakerGUI.getIdentification().getSpectrumIdentificationSize());
-        progressDialog.setValue(0);
+                while ((peptideMatch = peptideMatchesIterator.next()) != null && !progressDialog.isRunCanceled()) {
 
-        maxValue = Double.MIN_VALUE;
+                    int nValidatedPsms = QcHistograms.getNValidatedPsms(peptideMatch, identification);
+                    levelHistograms.addPeptideMatch(peptideMatch, nValidatedPsms, sequenceProvider, digestionParameters);
+                    progressDialog.increasePrimaryProgressCounter();
 
-        if (psmPrecursorMassErrorJRadioButton.isSelected()) {
+                }
 
-            // values for the precursor mass deviation
-            validatedValues = new ArrayList<>();
-            validatedDoubtfulValues = new ArrayList<>();
-            nonValidatedValues = new ArrayList<>();
-            validatedDecoyValues = new ArrayList<>();
-            nonValidatedDecoyValues = new ArrayList<>();
+                levelMetrics = new QcHistograms.Metric[]{
+                    QcHistograms.Metric.peptideValidatedPsms,
+                    QcHistograms.Metric.peptideMissedCleavages,
+                    QcHistograms.Metric.peptideLength
+                };
+                break;
 
-            SpectrumMatchesIterator psmIterator = peptideShakerGUI.getIdentification().getSpectrumMatchesIterator(progressDialog);
-            SpectrumMatch spectrumMatch;
+            default:
 
-            while ((spectrumMatch = psmIterator.next()) != null) {
+                progressDialog.setMaxPrimaryProgressCounter(identification.getSpectrumIdentificationSize());
 
-                if (progressDialog.isRunCanceled()) {
-                    break;
-                }
+                SpectrumProvider spectrumProvider = peptideShakerGUI.getSpectrumProvider();
+                SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(progressDialog);
+                SpectrumMatch spectrumMatch;
 
-                PSParameter psmParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+                while ((spectrumMatch = psmIterator.next()) != null && !progressDialog.isRunCanceled()) {
 
-                if (!psmParameter.getHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
+                    PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
-                    String spectrumFile = spectrumMatch.getSpectrumFile();
-                    String spectrumTitle = spectrumMatch.getSpectrumTitle();
-                    double precursorMz = peptideShakerGUI.getSpectrumProvider()
-                            .getPrecursorMz(spectrumFile, spectrumTitle);
+                    if (!psParameter.getHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
 
-                    SearchParameters searchParameters = peptideShakerGUI.getIdentificationParameters().getSearchParameters();
-                    double value = spectrumMatch.getBestPeptideAssumption().getDeltaMz(
-                            precursorMz,
-                            searchParameters.isPrecursorAccuracyTypePpm(),
-                            searchParameters.getMinIsotopicCorrection(),
-                            searchParameters.getMaxIsotopicCorrection()
-                    );
-                    if (value > maxValue) {
-                        maxValue = value;
-                    }
+                        double precursorError = QcHistograms.getPrecursorError(spectrumMatch, spectrumProvider, searchParameters);
+                        levelHistograms.addSpectrumMatch(spectrumMatch, precursorError, sequenceProvider);
 
-                    if (!PeptideUtils.isDecoy(spectrumMatch.getBestPeptideAssumption().getPeptide(), peptideShakerGUI.getSequenceProvider())) {
-                        if (psmParameter.getMatchValidationLevel().isValidated()) {
-                            if (psmParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(value);
-                            } else {
-                                validatedDoubtfulValues.add(value);
-                            }
-                        } else {
-                            nonValidatedValues.add(value);
-                        }
-                    } else if (psmParameter.getMatchValidationLevel().isValidated()) {
-                        validatedDecoyValues.add(value);
-                    } else {
-                        nonValidatedDecoyValues.add(value);
                     }
-                }
 
-                progressDialog.increasePrimaryProgressCounter();
-            }
-        } else if (psmPrecursorChargeJRadioButton.isSelected()) {
-
-            // values for the precursor charge
-            validatedValues = new ArrayList<>();
-            validatedDoubtfulValues = new ArrayList<>();
-            nonValidatedValues = new ArrayList<>();
-            validatedDecoyValues = new ArrayList<>();
-            nonValidatedDecoyValues = new ArrayList<>();
+                    progressDialog.increasePrimaryProgressCounter();
 
-            SpectrumMatchesIterator psmIterator = peptideShakerGUI.getIdentification().getSpectrumMatchesIterator(progressDialog);
-            SpectrumMatch spectrumMatch;
+                }
 
-            while ((spectrumMatch = psmIterator.next()) != null) {
+                levelMetrics = new QcHistograms.Metric[]{
+                    QcHistograms.Metric.psmPrecursorError,
+                    QcHistograms.Metric.psmPrecursorCharge
+                };
+                break;
+        }
 
-                if (progressDialog.isRunCanceled()) {
-                    break;
-                }
+        // store complete histograms only
+        if (!progressDialog.isRunCanceled()) {
 
-                PSParameter psmParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+            qcHistograms.set(levelHistograms, levelMetrics);
 
-                if (!psmParameter.getHidden() && spectrumMatch.getBestPeptideAssumption() != null) {
+        }
 
-                    double value = spectrumMatch.getBestPeptideAssumption().getIdentificationCharge();
-                    if (value > maxValue) {
-                        maxValue = value;
-                    }
+        result = levelHistograms.get(metric);
 
-                    if (!PeptideUtils.isDecoy(spectrumMatch.getBestPeptideAssumption().getPeptide(), peptideShakerGUI.getSequenceProvider())) {
-                        if (psmParameter.getMatchValidationLevel().isValidated()) {
-                            if (psmParameter.getMatchValidationLevel() == MatchValidationLevel.confident) {
-                                validatedValues.add(value);
-                            } else {
-                                validatedDoubtfulValues.add(value);
-                            }
-                        } else {
-                            nonValidatedValues.add(value);
-                        }
-                    } else if (psmParameter.getMatchValidationLevel().isValidated()) {
-                        validatedDecoyValues.add(value);
-                    } else {
-                        nonValidatedDecoyValues.add(value);
-                    }
-                }
+        return result != null ? result : new QcHistogram();
 
-                progressDialog.increasePrimaryProgressCounter();
-            }
-        }
     }
 
     /**
-     * Calculates the number of values in each bin given the values and the bin
-     * sizes.
+     * Calculates the number of values of the current histogram in each bin
+     * given the category and the bin sizes.
      *
      * @param bins the bins to use
-     * @param values the values to put into the bins
+     * @param category the category of the histogram to put into the bins
      * @param dataset the dataset to add the values to
      * @param categoryLabel the category label
      * @param integerBins if true the values will be shown as integers
      */
     private void getBinData(
             ArrayList<Double> bins,
-            ArrayList<Double> values,
+            int category,
             DefaultCategoryDataset dataset,
             String categoryLabel,
             boolean integerBins
     ) {
         getBinData(
                 bins,
-                values,
+                category,
                 dataset,
                 categoryLabel,
                 "",
@@ -2310,11 +2060,11 @@ public class QCPanel extends javax.swing.JPanel {
     }
 
     /**
-     * Calculates the number of values in each bin given the values and the bin
-     * sizes.
+     * Calculates the number of values of the current histogram in each bin
+     * given the category and the bin sizes.
      *
      * @param bins the bins to use
-     * @param values the values to put into the bins
+     * @param category the category of the histogram to put into the bins
      * @param dataset the dataset to add the values to
      * @param categoryLabel the category label
      * @param dataType added to the bin labels after the values, e.g. %
@@ -2322,30 +2072,14 @@ public class QCPanel extends javax.swing.JPanel {
      */
     private void getBinData(
             ArrayList<Double> bins,
-            ArrayList<Double> values,
+            int category,
             DefaultCategoryDataset dataset,
             String categoryLabel,
             String dataType,
             boolean integerBins
     ) {
 
-        int[] binData = new int[bins.size() + 1];
-
-        for (int i = 0; i < values.size() && !progressDialog.isRunCanceled(); i++) {
-
-            boolean binFound = false;
-
-            for (int j = 0; j < bins.size() && !binFound && !progressDialog.isRunCanceled(); j++) {
-                if (values.get(i) <= bins.get(j)) {
-                    binData[j]++;
-                    binFound = true;
-                }
-            }
-
-            if (!binFound) {
-                binData[binData.length - 1]++;
-            }
-        }
+        int[] binData = histogram.getBinCounts(category, bins);
 
         for (int i = 0; i < bins.size() + 1 && !progressDialog.isRunCanceled(); i++) {
             if (i == 0) {
@@ -59,6 +59,7 @@ import com.compomics.util.experiment.identification.validation.MatchValidationLe
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.utils.DisplayFeaturesGenerator;
+import eu.isas.peptideshaker.utils.SpectrumTitleIndex;
 import java.awt.Rectangle;
 import java.awt.event.MouseAdapter;
 import java.text.DecimalFormat;
@@ -66,7 +67,6 @@ import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.stream.IntStream;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
@@ -2899,14 +2899,11 @@ public class SpectrumIdentificationPanel extends javax.swing.JPanel {
                 fileSelected = (String) fileNamesCmb.getSelectedItem();
             }
 
-            String[] spectrumTitles = peptideShakerGUI.getSpectrumProvider().getSpectrumTitles(spectrumFile);
-
-            int spectrumIndex = IntStream.range(0, spectrumTitles.length)
-                    .filter(
-                            i -> spectrumTitles[i].equals(spectrumTitle)
-                    )
-                    .findAny()
-                    .orElse(-1);
+            int spectrumIndex = SpectrumTitleIndex.getIndex(
+                    peptideShakerGUI.getSpectrumProvider(),
+                    spectrumFile,
+                    spectrumTitle
+            );
 
             if (spectrumIndex >= 0) {
 
@@ -10,10 +10,10 @@ import com.compomics.util.waiting.WaitingHandler;
 import static eu.isas.peptideshaker.PeptideShaker.TIMEOUT_DAYS;
 import eu.isas.peptideshaker.ptm.ModificationLocalizationScorer;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -84,11 +84,68 @@ public class PsmProcessor {
             ExceptionHandler exceptionHandler
     ) throws InterruptedException, TimeoutException {
 
-        ConcurrentLinkedQueue<Long> spectrumMatchKeysIterator
-                = new ConcurrentLinkedQueue<>(identification.getSpectrumIdentificationKeys());
+        // Process the matches in the order of the spectrum files while reading the spectra ahead
+        try ( SpectrumMatchKeysQueue spectrumMatchKeysQueue = new SpectrumMatchKeysQueue(identification, spectrumProvider)) {
+
+            spectrumMatchKeysQueue.startPrefetching(spectrumProvider);
+
+            processPsms(
+                    spectrumMatchKeysQueue,
+                    inputMap,
+                    identificationParameters,
+                    matchesValidator,
+                    modificationLocalizationScorer,
+                    sequenceProvider,
+                    spectrumProvider,
+                    modificationProvider,
+                    proteinCount,
+                    nThreads,
+                    waitingHandler,
+                    exceptionHandler
+            );
+        }
+    }
+
+    /**
+     * Processes the PSMs of the given queue.
+     *
+     * @param spectrumMatchKeysQueue The queue of spectrum match keys.
+     * @param inputMap The input map.
+     * @param identificationParameters The identification parameters.
+     * @param matchesValidator The matches validator.
+     * @param modificationLocalizationScorer Post-translational modification
+     * localization scorer.
+     * @param sequenceProvider The protein sequence provider.
+     * @param spectrumProvider The spectrum provider.
+     * @param modificationProvider The modification provider to use.
+     * @param proteinCount Map of the protein occurrence.
+     * @param nThreads The number of threads to use.
+     * @param waitingHandler Waiting handler to display progress and allow
+     * canceling the import.
+     * @param exceptionHandler The handler of exceptions.
+     *
+     * @throws java.lang.InterruptedException Exception thrown if a thread is
+     * interrupted.
+     * @throws java.util.concurrent.TimeoutException Exception thrown if the
+     * process timed out.
+     */
+    private void processPsms(
+            SpectrumMatchKeysQueue spectrumMatchKeysQueue,
+            InputMap inputMap,
+            IdentificationParameters identificationParameters,
+            MatchesValidator matchesValidator,
+            ModificationLocalizationScorer modificationLocalizationScorer,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            ModificationProvider modificationProvider,
+            HashMap<String, Integer> proteinCount,
+            int nThreads,
+            WaitingHandler waitingHandler,
+            ExceptionHandler exceptionHandler
+    ) throws InterruptedException, TimeoutException {
 
         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-        waitingHandler.setMaxSecondaryProgressCounter(spectrumMatchKeysIterator.size());
+        waitingHandler.setMaxSecondaryProgressCounter(spectrumMatchKeysQueue.size());
 
         ExecutorService importPool = Executors.newFixedThreadPool(nThreads);
 
@@ -98,7 +155,7 @@ public class PsmProcessor {
 
             importRunnables.add(
                     new PsmProcessorRunnable(
-                            spectrumMatchKeysIterator,
+                            spectrumMatchKeysQueue,
                             identification,
                             identificationParameters,
                             inputMap,
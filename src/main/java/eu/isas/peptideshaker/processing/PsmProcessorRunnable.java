@@ -20,12 +20,12 @@ import eu.isas.peptideshaker.protein_inference.PeptideChecker;
 import eu.isas.peptideshaker.ptm.ModificationLocalizationScorer;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.psm_scoring.BestMatchSelection;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
 import eu.isas.peptideshaker.validation.MatchesValidator;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * This class processes PSMs.
@@ -35,9 +35,9 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 public class PsmProcessorRunnable implements Runnable {
 
     /**
-     * Iterator for the spectrum matches to import.
+     * Queue of the keys of the spectrum matches to process.
      */
-    private final ConcurrentLinkedQueue<Long> spectrumMatchKeysQueue;
+    private final SpectrumMatchKeysQueue spectrumMatchKeysQueue;
     /**
      * The identification object.
      */
@@ -90,7 +90,7 @@ public class PsmProcessorRunnable implements Runnable {
     /**
      * Constructor.
      *
-     * @param spectrumMatchKeysIterator Iterator for the spectrum match keys.
+     * @param spectrumMatchKeysQueue Queue of the spectrum match keys.
      * @param identification The identification object.
      * @param identificationParameters The identification parameters.
      * @param inputMap The input map.
@@ -105,7 +105,7 @@ public class PsmProcessorRunnable implements Runnable {
      * @param exceptionHandler The exception handler.
      */
     public PsmProcessorRunnable(
-            ConcurrentLinkedQueue<Long> spectrumMatchKeysIterator,
+            SpectrumMatchKeysQueue spectrumMatchKeysQueue,
             Identification identification,
             IdentificationParameters identificationParameters,
             InputMap inputMap,
@@ -119,7 +119,7 @@ public class PsmProcessorRunnable implements Runnable {
             ExceptionHandler exceptionHandler
     ) {
 
-        this.spectrumMatchKeysQueue = spectrumMatchKeysIterator;
+        this.spectrumMatchKeysQueue = spectrumMatchKeysQueue;
         this.identification = identification;
         this.identificationParameters = identificationParameters;
         this.inputMap = inputMap;
@@ -145,17 +145,20 @@ public class PsmProcessorRunnable implements Runnable {
 
         try {
 
-            Long spectrumMatchKey;
-            while ((spectrumMatchKey = spectrumMatchKeysQueue.poll()) != null) {
+            long[] spectrumMatchKeys;
+            while ((spectrumMatchKeys = spectrumMatchKeysQueue.pollBlock()) != null) {
 
-                processPsm(spectrumMatchKey);
+                for (long spectrumMatchKey : spectrumMatchKeys) {
 
-                if (waitingHandler.isRunCanceled()) {
-                    return;
-                }
+                    processPsm(spectrumMatchKey);
+
+                    if (waitingHandler.isRunCanceled()) {
+                        return;
+                    }
 
-                waitingHandler.increaseSecondaryProgressCounter();
+                    waitingHandler.increaseSecondaryProgressCounter();
 
+                }
             }
 
         } catch (Exception e) {
@@ -0,0 +1,270 @@
+package eu.isas.peptideshaker.processing;
+
+import com.compomics.util.io.json.JsonMarshaller;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Resources used by a processing stage.
+ *
+ * @author Marc Vaudel
+ */
+public class StageMetrics {
+
+    /**
+     * The name of the stage.
+     */
+    private final String name;
+    /**
+     * The wall time in nanoseconds.
+     */
+    private long wallTime = 0;
+    /**
+     * The CPU time used by the process in nanoseconds, -1 if not available.
+     */
+    private long cpuTime = -1;
+    /**
+     * The number of bytes allocated on the heap, -1 if not available.
+     */
+    private long allocatedBytes = -1;
+    /**
+     * The peak heap use during the stage in bytes, -1 if not available.
+     */
+    private long peakHeapBytes = -1;
+    /**
+     * The share of the available processors used during the stage, -1 if not
+     * available.
+     */
+    private double threadUtilisation = -1;
+    /**
+     * The number of items processed, -1 if not available.
+     */
+    private long nItems = -1;
+    /**
+     * The number of items processed per second, -1 if not available.
+     */
+    private double itemsPerSecond = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param name the name of the stage
+     */
+    public StageMetrics(
+            String name
+    ) {
+
+        this.name = name;
+
+    }
+
+    /**
+     * Returns the name of the stage.
+     *
+     * @return the name of the stage
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the wall time in nanoseconds.
+     *
+     * @return the wall time in nanoseconds
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * Sets the wall time in nanoseconds.
+     *
+     * @param wallTime the wall time in nanoseconds
+     */
+    public void setWallTime(long wallTime) {
+        this.wallTime = wallTime;
+    }
+
+    /**
+     * Returns the CPU time used by the process in nanoseconds, -1 if not
+     * available.
+     *
+     * @return the CPU time used by the process in nanoseconds
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Sets the CPU time used by the process in nanoseconds.
+     *
+     * @param cpuTime the CPU time used by the process in nanoseconds
+     */
+    public void setCpuTime(long cpuTime) {
+        this.cpuTime = cpuTime;
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap, -1 if not available.
+     *
+     * @return the number of bytes allocated on the heap
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Sets the number of bytes allocated on the heap.
+     *
+     * @param allocatedBytes the number of bytes allocated on the heap
+     */
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns the peak heap use during the stage in bytes, -1 if not
+     * available.
+     *
+     * @return the peak heap use during the stage in bytes
+     */
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    /**
+     * Sets the peak heap use during the stage in bytes.
+     *
+     * @param peakHeapBytes the peak heap use during the stage in bytes
+     */
+    public void setPeakHeapBytes(long peakHeapBytes) {
+        this.peakHeapBytes = peakHeapBytes;
+    }
+
+    /**
+     * Returns the share of the available processors used during the stage,
+     * -1 if not available.
+     *
+     * @return the share of the available processors used during the stage
+     */
+    public double getThreadUtilisation() {
+        return threadUtilisation;
+    }
+
+    /**
+     * Sets the share of the available processors used during the stage.
+     *
+     * @param threadUtilisation the share of the available processors used
+     * during the stage
+     */
+    public void setThreadUtilisation(double threadUtilisation) {
+        this.threadUtilisation = threadUtilisation;
+    }
+
+    /**
+     * Returns the number of items processed, -1 if not available.
+     *
+     * @return the number of items processed
+     */
+    public long getnItems() {
+        return nItems;
+    }
+
+    /**
+     * Returns the number of items processed per second, -1 if not available.
+     *
+     * @return the number of items processed per second
+     */
+    public double getItemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    /**
+     * Sets the number of items processed. The wall time must be set first.
+     *
+     * @param nItems the number of items processed
+     */
+    public void setnItems(long nItems) {
+
+        this.nItems = nItems;
+
+        if (nItems >= 0 && wallTime > 0) {
+
+            itemsPerSecond = 1e9 * nItems / wallTime;
+
+        }
+    }
+
+    /**
+     * Saves the given stage metrics to a json file.
+     *
+     * @param stageMetrics the stage metrics
+     * @param file the json file
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public static void saveToJson(
+            ArrayList<StageMetrics> stageMetrics,
+            File file
+    ) throws IOException {
+
+        JsonMarshaller jsonMarshaller = new JsonMarshaller();
+        jsonMarshaller.saveObjectToJson(stageMetrics, file);
+
+    }
+
+    @Override
+    public String toString() {
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(name)
+                .append(": ")
+                .append(wallTime / 1000000)
+                .append(" ms");
+
+        if (cpuTime >= 0) {
+
+            sb.append(", CPU ")
+                    .append(cpuTime / 1000000)
+                    .append(" ms");
+
+        }
+
+        if (allocatedBytes >= 0) {
+
+            sb.append(", allocated ")
+                    .append(allocatedBytes >> 20)
+                    .append(" MB");
+
+        }
+
+        if (peakHeapBytes >= 0) {
+
+            sb.append(", peak heap ")
+                    .append(peakHeapBytes >> 20)
+                    .append(" MB");
+
+        }
+
+        if (threadUtilisation >= 0) {
+
+            sb.append(", utilisation ")
+                    .append(Math.round(100 * threadUtilisation))
+                    .append("%");
+
+        }
+
+        if (itemsPerSecond >= 0) {
+
+            sb.append(", ")
+                    .append(Math.round(itemsPerSecond))
+                    .append(" items/s");
+
+        }
+
+        return sb.toString();
+
+    }
+}
@@ -0,0 +1,821 @@
+package eu.isas.peptideshaker.processing;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.waiting.WaitingHandler;
+import static eu.isas.peptideshaker.PeptideShaker.TIMEOUT_DAYS;
+import eu.isas.peptideshaker.utils.StageWaitingHandler;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Runs the processing stages of a project, commits the database after each
+ * stage, and records the resources used by every stage. Stages that do not
+ * depend on each other can be run concurrently on the work-stealing pool of
+ * the scheduler. Concurrent stages each get their own waiting handler: their
+ * secondary progress is summed on the waiting handler of the scheduler, and
+ * they are canceled when a sibling stage fails.
+ *
+ * @author Marc Vaudel
+ */
+public class StageScheduler {
+
+    /**
+     * A processing stage.
+     */
+    @FunctionalInterface
+    public interface Stage {
+
+        /**
+         * Runs the stage.
+         *
+         * @throws InterruptedException exception thrown if a thread gets
+         * interrupted
+         * @throws TimeoutException exception thrown if the stage times out
+         * @throws IOException exception thrown if an error occurred while
+         * reading or writing a file
+         */
+        public void run() throws InterruptedException, TimeoutException, IOException;
+
+    }
+
+    /**
+     * A processing stage that can be run concurrently with other stages.
+     */
+    @FunctionalInterface
+    public interface ConcurrentStage {
+
+        /**
+         * Runs the stage.
+         *
+         * @param waitingHandler the waiting handler of the stage
+         *
+         * @throws InterruptedException exception thrown if a thread gets
+         * interrupted
+         * @throws TimeoutException exception thrown if the stage times out
+         * @throws IOException exception thrown if an error occurred while
+         * reading or writing a file
+         */
+        public void run(
+                WaitingHandler waitingHandler
+        ) throws InterruptedException, TimeoutException, IOException;
+
+    }
+
+    /**
+     * The number of bytes reclaimed by the garbage collectors since the
+     * listeners were registered.
+     */
+    private static final AtomicLong RECLAIMED_BYTES = new AtomicLong();
+    /**
+     * Indicates whether the garbage collection listeners could be registered.
+     */
+    private static final boolean GC_LISTENERS_REGISTERED = registerGcListeners();
+    /**
+     * The identification.
+     */
+    private final Identification identification;
+    /**
+     * The waiting handler.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * The pool used to run concurrent stages.
+     */
+    private final ForkJoinPool pool;
+    /**
+     * The metrics of the stages run.
+     */
+    private final ArrayList<StageMetrics> stageMetrics = new ArrayList<>();
+
+    /**
+     * Constructor.
+     *
+     * @param identification the identification
+     * @param waitingHandler the waiting handler
+     * @param nThreads the number of threads to use for concurrent stages
+     */
+    public StageScheduler(
+            Identification identification,
+            WaitingHandler waitingHandler,
+            int nThreads
+    ) {
+
+        this.identification = identification;
+        this.waitingHandler = waitingHandler;
+        this.pool = new ForkJoinPool(Math.max(nThreads, 1));
+
+    }
+
+    /**
+     * Runs a stage, commits the database and records the resources used.
+     *
+     * @param name the name of the stage
+     * @param stage the stage
+     *
+     * @return a boolean indicating whether the processing should continue,
+     * false if it was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the stage times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public boolean run(
+            String name,
+            Stage stage
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        return run(name, null, stage);
+
+    }
+
+    /**
+     * Runs a stage, commits the database and records the resources used as
+     * well as the number of items processed.
+     *
+     * @param name the name of the stage
+     * @param nItems supplier for the number of items processed, evaluated
+     * after the stage, can be null
+     * @param stage the stage
+     *
+     * @return a boolean indicating whether the processing should continue,
+     * false if it was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if the stage times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public boolean run(
+            String name,
+            LongSupplier nItems,
+            Stage stage
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        return runConcurrently(name, nItems, stageWaitingHandler -> stage.run());
+
+    }
+
+    /**
+     * Runs stages that do not depend on each other concurrently, commits the
+     * database when all are done and records the resources used. The first
+     * stage is run on the calling thread. If a stage fails, the other stages
+     * are canceled and the exception is thrown once they returned.
+     *
+     * @param name the name of the group of stages
+     * @param stages the stages
+     *
+     * @return a boolean indicating whether the processing should continue,
+     * false if it was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if a stage times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public boolean runConcurrently(
+            String name,
+            ConcurrentStage... stages
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        return runConcurrently(name, null, stages);
+
+    }
+
+    /**
+     * Runs stages that do not depend on each other concurrently, commits the
+     * database when all are done and records the resources used. The first
+     * stage is run on the calling thread. If a stage fails, the other stages
+     * are canceled and the exception is thrown once they returned.
+     *
+     * @param name the name of the group of stages
+     * @param nItems supplier for the number of items processed, evaluated
+     * after the stages, can be null
+     * @param stages the stages
+     *
+     * @return a boolean indicating whether the processing should continue,
+     * false if it was canceled
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if a stage times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public boolean runConcurrently(
+            String name,
+            LongSupplier nItems,
+            ConcurrentStage... stages
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        StageMetrics metrics = new StageMetrics(name);
+
+        resetPeakHeap();
+
+        long startTime = System.nanoTime();
+        long startCpu = getProcessCpuTime();
+        long startAllocated = getAllocatedBytes();
+
+        StageGroup stageGroup = new StageGroup(waitingHandler, stages.length);
+        ArrayList<ForkJoinTask<Void>> tasks = new ArrayList<>(Math.max(stages.length - 1, 0));
+
+        for (int i = 1; i < stages.length; i++) {
+
+            ConcurrentStage stage = stages[i];
+            WaitingHandler stageWaitingHandler = stageGroup.getWaitingHandler(i);
+            tasks.add(
+                    pool.submit(
+                            () -> {
+
+                                try {
+
+                                    stage.run(stageWaitingHandler);
+
+                                } catch (Throwable t) {
+
+                                    stageGroup.fail(t);
+                                    throw t;
+
+                                }
+
+                                return null;
+
+                            }
+                    )
+            );
+
+        }
+
+        if (stages.length > 0) {
+
+            try {
+
+                stages[0].run(stageGroup.getWaitingHandler(0));
+
+            } catch (Throwable t) {
+
+                stageGroup.fail(t);
+
+            }
+        }
+
+        for (ForkJoinTask<Void> task : tasks) {
+
+            if (stageGroup.getFailure() != null) {
+
+                break;
+
+            }
+
+            try {
+
+                task.get(TIMEOUT_DAYS, TimeUnit.DAYS);
+
+            } catch (ExecutionException e) {
+
+                stageGroup.fail(e.getCause());
+
+            } catch (InterruptedException e) {
+
+                stageGroup.fail(e);
+
+            } catch (TimeoutException e) {
+
+                stageGroup.fail(new TimeoutException("Analysis timed out (time out: " + TIMEOUT_DAYS + " days)"));
+
+            }
+        }
+
+        if (stageGroup.getFailure() != null) {
+
+            // the other stages see the cancellation on their waiting handler, wait for them to return
+            for (ForkJoinTask<Void> task : tasks) {
+
+                task.quietlyJoin();
+
+            }
+
+            rethrow(stageGroup.getFailure());
+
+        }
+
+        identification.getObjectsDB().commit();
+
+        long wallTime = System.nanoTime() - startTime;
+        metrics.setWallTime(wallTime);
+
+        if (startCpu >= 0) {
+
+            long cpuTime = getProcessCpuTime() - startCpu;
+            metrics.setCpuTime(cpuTime);
+
+            if (wallTime > 0) {
+
+                metrics.setThreadUtilisation(((double) cpuTime) / wallTime / Runtime.getRuntime().availableProcessors());
+
+            }
+        }
+
+        metrics.setPeakHeapBytes(getPeakHeap());
+
+        if (nItems != null) {
+
+            metrics.setnItems(nItems.getAsLong());
+
+        }
+
+        if (startAllocated >= 0) {
+
+            metrics.setAllocatedBytes(Math.max(getAllocatedBytes() - startAllocated, 0));
+
+        }
+
+        stageMetrics.add(metrics);
+
+        return !waitingHandler.isRunCanceled();
+
+    }
+
+    /**
+     * Throws the given exception of a stage.
+     *
+     * @param failure the exception thrown by the stage
+     *
+     * @throws InterruptedException exception thrown if a thread gets
+     * interrupted
+     * @throws TimeoutException exception thrown if a stage times out
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private static void rethrow(
+            Throwable failure
+    ) throws InterruptedException, TimeoutException, IOException {
+
+        if (failure instanceof InterruptedException) {
+            throw (InterruptedException) failure;
+        } else if (failure instanceof TimeoutException) {
+            throw (TimeoutException) failure;
+        } else if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+
+        throw new RuntimeException(failure);
+
+    }
+
+    /**
+     * Returns the metrics of the stages run so far in the order they were
+     * run.
+     *
+     * @return the metrics of the stages run so far
+     */
+    public ArrayList<StageMetrics> getStageMetrics() {
+        return stageMetrics;
+    }
+
+    /**
+     * Shuts down the pool of the scheduler.
+     */
+    public void shutdown() {
+
+        pool.shutdown();
+
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools.
+     */
+    private static void resetPeakHeap() {
+
+        for (MemoryPoolMXBean poolBean : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (poolBean.getType() == MemoryType.HEAP) {
+
+                poolBean.resetPeakUsage();
+
+            }
+        }
+    }
+
+    /**
+     * Returns the peak heap use since the last reset as the sum of the peak
+     * use of the heap memory pools. Pools peak at different times, this is
+     * therefore an upper bound of the actual peak.
+     *
+     * @return the peak heap use in bytes
+     */
+    private static long getPeakHeap() {
+
+        long peak = 0;
+
+        for (MemoryPoolMXBean poolBean : ManagementFactory.getMemoryPoolMXBeans()) {
+
+            if (poolBean.getType() == MemoryType.HEAP) {
+
+                peak += poolBean.getPeakUsage().getUsed();
+
+            }
+        }
+
+        return peak;
+
+    }
+
+    /**
+     * Returns the CPU time used by the process in nanoseconds, -1 if not
+     * available.
+     *
+     * @return the CPU time used by the process in nanoseconds
+     */
+    private static long getProcessCpuTime() {
+
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap since the garbage
+     * collection listeners were registered, estimated as the heap currently
+     * used plus the memory reclaimed by the garbage collectors. -1 if not
+     * available.
+     *
+     * @return the number of bytes allocated on the heap
+     */
+    private static long getAllocatedBytes() {
+
+        if (!GC_LISTENERS_REGISTERED) {
+            return -1;
+        }
+
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() + RECLAIMED_BYTES.get();
+
+    }
+
+    /**
+     * Registers listeners on the garbage collectors counting the memory
+     * reclaimed.
+     *
+     * @return a boolean indicating whether the listeners could be registered
+     */
+    private static boolean registerGcListeners() {
+
+        try {
+
+            for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+                if (gcBean instanceof NotificationEmitter) {
+
+                    ((NotificationEmitter) gcBean).addNotificationListener(
+                            (notification, handback) -> {
+
+                                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+
+                                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                                    long reclaimed = 0;
+
+                                    for (String poolName : info.getGcInfo().getMemoryUsageBeforeGc().keySet()) {
+
+                                        MemoryUsage before = info.getGcInfo().getMemoryUsageBeforeGc().get(poolName);
+                                        MemoryUsage after = info.getGcInfo().getMemoryUsageAfterGc().get(poolName);
+
+                                        if (after != null) {
+
+                                            reclaimed += before.getUsed() - after.getUsed();
+
+                                        }
+                                    }
+
+                                    if (reclaimed > 0) {
+
+                                        RECLAIMED_BYTES.addAndGet(reclaimed);
+
+                                    }
+                                }
+                            },
+                            null,
+                            null
+                    );
+                }
+            }
+
+            return true;
+
+        } catch (Throwable e) {
+
+            // not supported by this virtual machine
+            return false;
+
+        }
+    }
+
+    /**
+     * A group of stages run concurrently. Every stage gets a waiting handler
+     * forwarding to the waiting handler of the scheduler, except for the
+     * secondary progress which is kept per stage and summed on the waiting
+     * handler of the scheduler. The waiting handlers of the stages are
+     * canceled when a stage of the group failed.
+     */
+    private static class StageGroup {
+
+        /**
+         * The waiting handler of the scheduler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The waiting handlers of the stages.
+         */
+        private final GroupWaitingHandler[] stageWaitingHandlers;
+        /**
+         * The secondary progress of every stage.
+         */
+        private final long[] progress;
+        /**
+         * The maximal secondary progress of every stage.
+         */
+        private final long[] maxProgress;
+        /**
+         * The first exception thrown by a stage, null if none failed.
+         */
+        private volatile Throwable failure = null;
+
+        /**
+         * Constructor.
+         *
+         * @param waitingHandler the waiting handler of the scheduler
+         * @param nStages the number of stages in the group
+         */
+        private StageGroup(
+                WaitingHandler waitingHandler,
+                int nStages
+        ) {
+
+            this.waitingHandler = waitingHandler;
+            this.progress = new long[nStages];
+            this.maxProgress = new long[nStages];
+            this.stageWaitingHandlers = new GroupWaitingHandler[nStages];
+
+            for (int i = 0; i < nStages; i++) {
+
+                stageWaitingHandlers[i] = new GroupWaitingHandler(this, i);
+
+            }
+        }
+
+        /**
+         * Records the failure of a stage and cancels the other stages. Only
+         * the first failure is kept.
+         *
+         * @param t the exception thrown by the stage
+         */
+        private synchronized void fail(
+                Throwable t
+        ) {
+
+            if (failure == null) {
+
+                failure = t;
+
+                for (GroupWaitingHandler stageWaitingHandler : stageWaitingHandlers) {
+
+                    stageWaitingHandler.cancel();
+
+                }
+            }
+        }
+
+        /**
+         * Returns the first exception thrown by a stage, null if none failed.
+         *
+         * @return the first exception thrown by a stage
+         */
+        private Throwable getFailure() {
+
+            return failure;
+
+        }
+
+        /**
+         * Returns the waiting handler of the stage at the given index.
+         *
+         * @param stageIndex the index of the stage
+         *
+         * @return the waiting handler of the stage
+         */
+        private WaitingHandler getWaitingHandler(
+                int stageIndex
+        ) {
+
+            if (progress.length == 1) {
+
+                return waitingHandler;
+
+            }
+
+            return stageWaitingHandlers[stageIndex];
+
+        }
+
+        /**
+         * Updates the secondary progress of a stage and displays the sum of
+         * the progress of the stages on the waiting handler of the scheduler.
+         *
+         * @param stageIndex the index of the stage
+         * @param value the value to add to the progress of the stage, or the
+         * new progress if set is true
+         * @param set if true the progress is set to the value, otherwise the
+         * value is added to the progress
+         * @param stageMaxProgress the new maximal progress of the stage, -1 to
+         * keep the current maximum
+         */
+        private synchronized void updateProgress(
+                int stageIndex,
+                long value,
+                boolean set,
+                long stageMaxProgress
+        ) {
+
+            progress[stageIndex] = set ? value : progress[stageIndex] + value;
+
+            boolean maxChanged = stageMaxProgress >= 0 && stageMaxProgress != maxProgress[stageIndex];
+
+            if (maxChanged) {
+
+                maxProgress[stageIndex] = stageMaxProgress;
+
+            }
+
+            long totalProgress = 0, totalMax = 0;
+
+            for (int i = 0; i < progress.length; i++) {
+
+                totalProgress += Math.min(progress[i], maxProgress[i]);
+                totalMax += maxProgress[i];
+
+            }
+
+            if (maxChanged) {
+
+                waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+                waitingHandler.setMaxSecondaryProgressCounter((int) Math.min(totalMax, Integer.MAX_VALUE));
+
+            }
+
+            waitingHandler.setSecondaryProgressCounter((int) Math.min(totalProgress, Integer.MAX_VALUE));
+
+        }
+
+        /**
+         * Returns the value of a stage in the given progress array.
+         *
+         * @param stageIndex the index of the stage
+         * @param values the progress array
+         *
+         * @return the value of the stage
+         */
+        private synchronized int getProgress(
+                int stageIndex,
+                long[] values
+        ) {
+
+            return (int) Math.min(values[stageIndex], Integer.MAX_VALUE);
+
+        }
+    }
+
+    /**
+     * Waiting handler of a stage in a group. The secondary progress is
+     * recorded in the group, the secondary progress text and indeterminate
+     * state are shared by the stages and not forwarded.
+     */
+    private static class GroupWaitingHandler extends StageWaitingHandler {
+
+        /**
+         * The group of the stage.
+         */
+        private final StageGroup stageGroup;
+        /**
+         * The index of the stage in the group.
+         */
+        private final int stageIndex;
+
+        /**
+         * Constructor.
+         *
+         * @param stageGroup the group of the stage
+         * @param stageIndex the index of the stage in the group
+         */
+        private GroupWaitingHandler(
+                StageGroup stageGroup,
+                int stageIndex
+        ) {
+
+            super(stageGroup.waitingHandler, true);
+
+            this.stageGroup = stageGroup;
+            this.stageIndex = stageIndex;
+
+        }
+
+        @Override
+        public void setMaxSecondaryProgressCounter(
+                int maxProgressValue
+        ) {
+
+            stageGroup.updateProgress(stageIndex, 0, false, maxProgressValue);
+
+        }
+
+        @Override
+        public void resetSecondaryProgressCounter() {
+
+            stageGroup.updateProgress(stageIndex, 0, true, -1);
+
+        }
+
+        @Override
+        public void increaseSecondaryProgressCounter() {
+
+            stageGroup.updateProgress(stageIndex, 1, false, -1);
+
+        }
+
+        @Override
+        public void setSecondaryProgressCounter(
+                int value
+        ) {
+
+            stageGroup.updateProgress(stageIndex, value, true, -1);
+
+        }
+
+        @Override
+        public void increaseSecondaryProgressCounter(
+                int value
+        ) {
+
+            stageGroup.updateProgress(stageIndex, value, false, -1);
+
+        }
+
+        @Override
+        public void setSecondaryProgressCounterIndeterminate(
+                boolean indeterminate
+        ) {
+
+            // the secondary progress is shared by the stages of the group
+        }
+
+        @Override
+        public void setSecondaryProgressText(
+                String text
+        ) {
+
+            // the secondary progress is shared by the stages of the group
+        }
+
+        @Override
+        public int getSecondaryProgressCounter() {
+
+            return stageGroup.getProgress(stageIndex, stageGroup.progress);
+
+        }
+
+        @Override
+        public int getMaxSecondaryProgressCounter() {
+
+            return stageGroup.getProgress(stageIndex, stageGroup.maxProgress);
+
+        }
+    }
+}
@@ -9,13 +9,14 @@ import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.parameters.identification.IdentificationParameters;
 import com.compomics.util.parameters.identification.advanced.ProteinInferenceParameters;
 import com.compomics.util.parameters.identification.search.DigestionParameters;
-import com.compomics.util.threading.SimpleSemaphore;
 import com.compomics.util.waiting.WaitingHandler;
 import com.google.common.collect.Sets;
 import static eu.isas.peptideshaker.protein_inference.ProteinInference.KEYWORDS_UNCHARACTERIZED;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -33,13 +34,17 @@ public class GroupSimplification {
     private final int[] nDeleted = new int[ProteinInference.GroupSimplificationOption.values().length];
 
     /**
-     * Remove groups that can be explained by a simpler group.
+     * Remove groups that can be explained by a simpler group. The groups are
+     * split into connected components of groups sharing proteins, and the
+     * components are simplified independently in parallel using the given
+     * number of threads.
      *
      * @param identification the identification class containing all
      * identification matches
      * @param identificationParameters the identification parameters
      * @param sequenceProvider the sequence provider
      * @param proteinDetailsProvider the protein details provider
+     * @param nThreads the number of threads to use
      * @param waitingHandler the handler displaying feedback to the user
      */
     public void removeRedundantGroups(
@@ -47,6 +52,7 @@ public class GroupSimplification {
             IdentificationParameters identificationParameters,
             SequenceProvider sequenceProvider,
             ProteinDetailsProvider proteinDetailsProvider,
+            int nThreads,
             WaitingHandler waitingHandler
     ) {
 
@@ -60,34 +66,41 @@ public class GroupSimplification {
 
         }
 
-        HashSet<Long> proteinGroupKeys = identification.getProteinIdentification();
-        HashSet<Long> toDelete = new HashSet<>();
-        HashMap<Long, long[]> processedKeys = new HashMap<>();
-        SimpleSemaphore mutex = new SimpleSemaphore(1);
-
-        proteinGroupKeys.stream()
-                .filter(
-                        key -> !processedKeys.containsKey(key)
-                )
-                .map(
-                        key -> identification.getProteinMatch(key)
-                )
-                .filter(
-                        proteinMatch -> proteinMatch.getNProteins() > 1
-                )
-                .forEach(
-                        proteinSharedGroup -> removeRedundantGroups(
-                                identification,
-                                identificationParameters,
-                                sequenceProvider,
-                                proteinDetailsProvider,
-                                proteinSharedGroup,
-                                processedKeys,
-                                toDelete,
-                                mutex,
-                                waitingHandler
-                        )
-                );
+        ArrayList<long[]> components = getConnectedComponents(identification);
+
+        ForkJoinPool pool = new ForkJoinPool(nThreads);
+        HashSet<Long> toDelete;
+
+        try {
+
+            toDelete = pool.submit(
+                    () -> components.parallelStream()
+                            .flatMap(
+                                    component -> removeRedundantGroups(
+                                            identification,
+                                            identificationParameters,
+                                            sequenceProvider,
+                                            proteinDetailsProvider,
+                                            component,
+                                            waitingHandler
+                                    ).stream()
+                            )
+                            .collect(
+                                    Collectors.toCollection(HashSet::new)
+                            )
+            ).join();
+
+        } finally {
+
+            pool.shutdown();
+
+        }
+
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+
+            return;
+
+        }
 
         int totalSimplified = Arrays.stream(nDeleted).sum();
 
@@ -117,102 +130,267 @@ public class GroupSimplification {
 
             }
 
-            toDelete.stream()
-                    .forEach(key -> {
+            // Remove the groups in key order to access the database sequentially
+            long[] sortedKeys = toDelete.stream()
+                    .mapToLong(Long::longValue)
+                    .sorted()
+                    .toArray();
 
-                        identification.removeObject(key);
+            for (long key : sortedKeys) {
 
-                        if (waitingHandler != null) {
+                identification.removeObject(key);
 
-                            if (waitingHandler.isRunCanceled()) {
+                if (waitingHandler != null) {
 
-                                return;
+                    if (waitingHandler.isRunCanceled()) {
 
-                            }
+                        return;
 
-                            waitingHandler.increaseSecondaryProgressCounter();
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the connected components of the graph of the protein groups
+     * where groups are connected when they share a protein. A group can only
+     * be simplified by groups of its component. Components made of a single
+     * group cannot be simplified and are not returned. The keys of every
+     * component are in the iteration order of the protein identification so
+     * that the simplification does not depend on the split.
+     *
+     * @param identification the identification
+     *
+     * @return the connected components of more than one group
+     */
+    private ArrayList<long[]> getConnectedComponents(
+            Identification identification
+    ) {
+
+        HashSet<Long> proteinGroupKeys = identification.getProteinIdentification();
+        long[] keys = new long[proteinGroupKeys.size()];
+        HashMap<Long, Integer> keyIndexes = new HashMap<>(proteinGroupKeys.size());
+
+        int index = 0;
+
+        for (long key : proteinGroupKeys) {
+
+            keys[index] = key;
+            keyIndexes.put(key, index);
+            index++;
+
+        }
+
+        // Union-find of the groups sharing a protein
+        int[] parents = new int[keys.length];
+
+        for (int i = 0; i < parents.length; i++) {
+
+            parents[i] = i;
+
+        }
+
+        for (HashSet<Long> groupKeys : identification.getProteinMap().values()) {
+
+            int root = -1;
+
+            for (long groupKey : groupKeys) {
+
+                Integer groupIndex = keyIndexes.get(groupKey);
+
+                if (groupIndex != null) {
+
+                    int groupRoot = getRoot(parents, groupIndex);
+
+                    if (root == -1) {
+
+                        root = groupRoot;
+
+                    } else if (groupRoot != root) {
+
+                        parents[groupRoot] = root;
+
+                    }
+                }
+            }
+        }
+
+        // Gather the components in the iteration order of the keys
+        int[] componentSizes = new int[keys.length];
+
+        for (int i = 0; i < keys.length; i++) {
+
+            componentSizes[getRoot(parents, i)]++;
+
+        }
+
+        HashMap<Integer, long[]> componentsMap = new HashMap<>();
+        int[] componentFill = new int[keys.length];
+        ArrayList<long[]> components = new ArrayList<>();
+
+        for (int i = 0; i < keys.length; i++) {
+
+            int root = parents[i];
+            int size = componentSizes[root];
+
+            if (size > 1) {
+
+                long[] component = componentsMap.get(root);
+
+                if (component == null) {
+
+                    component = new long[size];
+                    componentsMap.put(root, component);
+                    components.add(component);
+
+                }
+
+                component[componentFill[root]++] = keys[i];
+
+            }
+        }
+
+        // Start with the largest components to balance the load between threads
+        components.sort(
+                (component1, component2) -> Integer.compare(component2.length, component1.length)
+        );
+
+        return components;
+
+    }
+
+    /**
+     * Returns the root of the given element in a union-find forest and
+     * compresses the path to the root.
+     *
+     * @param parents the parents of the elements
+     * @param element the element
+     *
+     * @return the root of the element
+     */
+    private static int getRoot(
+            int[] parents,
+            int element
+    ) {
+
+        int root = element;
+
+        while (parents[root] != root) {
+
+            root = parents[root];
 
-                        }
-                    });
         }
+
+        while (parents[element] != root) {
+
+            int parent = parents[element];
+            parents[element] = root;
+            element = parent;
+
+        }
+
+        return root;
+
     }
 
     /**
-     * Removes the redundant groups for the given protein shared group.
+     * Removes the redundant groups of a connected component of protein
+     * groups and returns the keys of the groups to delete.
      *
      * @param identification The identification object containing the
      * identification matches.
      * @param identificationParameters The identification parameters.
      * @param sequenceProvider The protein sequence provider.
      * @param proteinDetailsProvider The protein details provider.
-     * @param proteinSharedGroup The protein shared group investigated.
-     * @param processedKeys Map of the already processed keys.
-     * @param toDelete Set of the keys to delete.
-     * @param mutex Mutex to synchronize the different threads.
+     * @param component The keys of the protein groups of the component.
      * @param waitingHandler Waiting handler to show progress and interrupt
      * processes.
+     *
+     * @return The keys of the groups to delete.
      */
-    public void removeRedundantGroups(
+    private HashSet<Long> removeRedundantGroups(
             Identification identification,
             IdentificationParameters identificationParameters,
             SequenceProvider sequenceProvider,
             ProteinDetailsProvider proteinDetailsProvider,
-            ProteinMatch proteinSharedGroup,
-            HashMap<Long, long[]> processedKeys,
-            HashSet<Long> toDelete,
-            SimpleSemaphore mutex,
+            long[] component,
             WaitingHandler waitingHandler
     ) {
 
-        if (waitingHandler.isRunCanceled()) {
+        HashSet<Long> toDelete = new HashSet<>(0);
+        HashMap<Long, long[]> processedKeys = new HashMap<>(component.length);
+        int[] componentDeleted = new int[nDeleted.length];
 
-            return;
+        for (long sharedKey : component) {
 
-        }
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
 
-        long sharedKey = proteinSharedGroup.getKey();
+                return toDelete;
 
-        mutex.acquire();
+            }
 
-        if (!processedKeys.containsKey(sharedKey)) {
+            if (!processedKeys.containsKey(sharedKey)) {
 
-            ProteinMatch[] reducedGroups = getSubgroup(
-                    identification,
-                    proteinSharedGroup,
-                    processedKeys,
-                    toDelete,
-                    sequenceProvider,
-                    proteinDetailsProvider,
-                    identificationParameters
-            );
+                ProteinMatch proteinSharedGroup = identification.getProteinMatch(sharedKey);
 
-            if (reducedGroups != null) {
+                if (proteinSharedGroup.getNProteins() > 1) {
 
-                long[] reducedGroupKeys = new long[reducedGroups.length];
-                processedKeys.put(sharedKey, reducedGroupKeys);
+                    ProteinMatch[] reducedGroups = getSubgroup(
+                            identification,
+                            proteinSharedGroup,
+                            processedKeys,
+                            toDelete,
+                            componentDeleted,
+                            sequenceProvider,
+                            proteinDetailsProvider,
+                            identificationParameters
+                    );
 
-                for (int i = 0; i < reducedGroups.length; i++) {
+                    if (reducedGroups != null) {
 
-                    ProteinMatch reducedGroup = reducedGroups[i];
-                    long reducedGroupKey = reducedGroup.getKey();
-                    reducedGroupKeys[i] = reducedGroupKey;
+                        long[] reducedGroupKeys = new long[reducedGroups.length];
+                        processedKeys.put(sharedKey, reducedGroupKeys);
 
+                        for (int i = 0; i < reducedGroups.length; i++) {
+
+                            reducedGroupKeys[i] = reducedGroups[i].getKey();
+
+                        }
+
+                        toDelete.add(sharedKey);
+
+                    } else {
+
+                        long[] reducedGroupKeys = new long[1];
+                        reducedGroupKeys[0] = sharedKey;
+                        processedKeys.put(sharedKey, reducedGroupKeys);
+
+                    }
                 }
+            }
+
+            if (waitingHandler != null) {
+
+                waitingHandler.increaseSecondaryProgressCounter();
+
+            }
+        }
 
-                toDelete.add(sharedKey);
+        synchronized (nDeleted) {
 
-            } else {
+            for (int i = 0; i < nDeleted.length; i++) {
 
-                long[] reducedGroupKeys = new long[1];
-                reducedGroupKeys[0] = sharedKey;
-                processedKeys.put(sharedKey, reducedGroupKeys);
+                nDeleted[i] += componentDeleted[i];
 
             }
         }
 
-        mutex.release();
+        return toDelete;
 
-        waitingHandler.increaseSecondaryProgressCounter();
     }
 
     /**
@@ -226,6 +404,7 @@ public class GroupSimplification {
      * @param processedKeys map of already processed keys and their best smaller
      * key
      * @param toDelete list of keys to delete
+     * @param nDeleted the number of groups deleted indexed by option
      * @param sequenceProvider the sequence provider
      * @param proteinDetailsProvider the protein details provider
      * @param identificationParameters the identification parameters
@@ -237,6 +416,7 @@ public class GroupSimplification {
             ProteinMatch sharedProteinMatch,
             HashMap<Long, long[]> processedKeys,
             HashSet<Long> toDelete,
+            int[] nDeleted,
             SequenceProvider sequenceProvider,
             ProteinDetailsProvider proteinDetailsProvider,
             IdentificationParameters identificationParameters
@@ -276,6 +456,7 @@ public class GroupSimplification {
                                             simplerProteinMatch,
                                             processedKeys,
                                             toDelete,
+                                            nDeleted,
                                             sequenceProvider,
                                             proteinDetailsProvider,
                                             identificationParameters
@@ -11,17 +11,12 @@ import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
 import com.compomics.util.parameters.identification.IdentificationParameters;
-import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
-import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
-import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
-import com.compomics.util.parameters.identification.search.ModificationParameters;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 /**
  * This class computes the mz deviations for a a given run (i.e. file).
@@ -31,22 +26,27 @@ import java.util.TreeMap;
 public class RunMzDeviation {
 
     /**
-     * The precursor slopes.
+     * The retention times of the precursor bins, sorted.
      */
-    private HashMap<Double, Double> precursorSlopes = new HashMap<>();
+    private double[] precursorRts;
     /**
-     * The precursor offsets.
+     * The precursor slopes, indexed like the retention time bins.
      */
-    private HashMap<Double, Double> precursorOffsets = new HashMap<>();
+    private double[] precursorSlopes;
     /**
-     * The precursor RT list.
+     * The precursor offsets, indexed like the retention time bins.
      */
-    private ArrayList<Double> precursorRTList;
+    private double[] precursorOffsets;
     /**
-     * The fragments errors binned by mz and rt. error = experimental value -
-     * theoretic (identification) value.
+     * The m/z of the fragment bins at every retention time bin, sorted.
      */
-    private HashMap<Double, TreeMap<Double, Double>> fragmentsRtDeviations = new HashMap<>();
+    private double[][] fragmentMzs;
+    /**
+     * The fragments errors at every retention time bin, indexed like the
+     * fragment m/z bins. error = experimental value - theoretic
+     * (identification) value.
+     */
+    private double[][] fragmentErrors;
     /**
      * The bin size used for ms2 correction.
      */
@@ -59,28 +59,35 @@ public class RunMzDeviation {
      * The bin size in m/z in number of MS/MS spectra.
      */
     public static final int mzBinSize = 101;
+    /**
+     * The number of PSMs inspected together when estimating the deviations.
+     */
+    public static final int CHUNK_SIZE = 1000;
+    /**
+     * A spectrum annotator per thread inspecting the PSMs.
+     */
+    private static final ThreadLocal<PeptideSpectrumAnnotator> spectrumAnnotators = ThreadLocal.withInitial(PeptideSpectrumAnnotator::new);
 
     /**
-     * Returns the list of precursor retention time bins.
+     * Returns the precursor retention time bins, sorted.
      *
-     * @return the list of precursor retention time bins
+     * @return the precursor retention time bins
      */
-    public ArrayList<Double> getPrecursorRTList() {
-        return precursorRTList;
+    public double[] getPrecursorRts() {
+        return precursorRts;
     }
 
     /**
-     * Returns the list for fragment ion m/z bins at a given retention time
-     * point.
+     * Returns the fragment ion m/z bins at a given retention time bin, sorted.
      *
-     * @param precursorRT the precursor retention time
+     * @param precursorRT the precursor retention time bin
      *
-     * @return the list for fragment ion m/z bins
+     * @return the fragment ion m/z bins
      */
-    public ArrayList<Double> getFragmentMZList(
+    public double[] getFragmentMzs(
             double precursorRT
     ) {
-        return new ArrayList<>(fragmentsRtDeviations.get(precursorRT).keySet());
+        return fragmentMzs[getRtIndex(precursorRT)];
     }
 
     /**
@@ -94,7 +101,7 @@ public class RunMzDeviation {
     public double getSlope(
             double rtBin
     ) {
-        return precursorSlopes.get(rtBin);
+        return precursorSlopes[getRtIndex(rtBin)];
     }
 
     /**
@@ -108,7 +115,28 @@ public class RunMzDeviation {
     public double getOffset(
             double rtBin
     ) {
-        return precursorOffsets.get(rtBin);
+        return precursorOffsets[getRtIndex(rtBin)];
+    }
+
+    /**
+     * Returns the index of the given retention time bin.
+     *
+     * @param rtBin the retention time bin
+     *
+     * @return the index of the retention time bin
+     */
+    private int getRtIndex(
+            double rtBin
+    ) {
+
+        int index = Arrays.binarySearch(precursorRts, rtBin);
+
+        if (index < 0) {
+            throw new IllegalArgumentException("No retention time bin found at " + rtBin + ".");
+        }
+
+        return index;
+
     }
 
     /**
@@ -125,29 +153,11 @@ public class RunMzDeviation {
             double precursorRT
     ) {
 
-        double key1 = precursorRTList.get(0);
-        double key2 = key1;
-
-        if (precursorRT > key1) {
-            key1 = precursorRTList.get(precursorRTList.size() - 1);
-            key2 = key1;
-            if (precursorRT < key1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    key1 = precursorRTList.get(i);
-                    if (precursorRT == key1) {
-                        key2 = precursorRT;
-                        break;
-                    }
-                    key2 = precursorRTList.get(i + 1);
-                    if (key1 < precursorRT && precursorRT < key2) {
-                        break;
-                    }
-                }
-            }
-        }
+        int index1 = getLowerIndex(precursorRts, precursorRT);
+        int index2 = getUpperIndex(precursorRts, precursorRT, index1);
 
-        double slope = (precursorSlopes.get(key1) + precursorSlopes.get(key2)) / 2;
-        double offset = (precursorOffsets.get(key1) + precursorOffsets.get(key2)) / 2;
+        double slope = (precursorSlopes[index1] + precursorSlopes[index2]) / 2;
+        double offset = (precursorOffsets[index1] + precursorOffsets[index2]) / 2;
         return slope * precursorMz + offset;
 
     }
@@ -165,82 +175,93 @@ public class RunMzDeviation {
             double fragmentMZ
     ) {
 
-        double rtKey1 = precursorRTList.get(0);
-        double rtKey2 = rtKey1;
-
-        if (precursorRT > rtKey1) {
-            rtKey1 = precursorRTList.get(precursorRTList.size() - 1);
-            rtKey2 = rtKey1;
-            if (precursorRT < rtKey1) {
-                for (int i = 0; i < precursorRTList.size() - 1; i++) {
-                    rtKey1 = precursorRTList.get(i);
-                    if (precursorRT == rtKey1) {
-                        rtKey2 = precursorRT;
-                        break;
-                    }
-                    rtKey2 = precursorRTList.get(i + 1);
-                    if (rtKey1 < precursorRT && precursorRT < rtKey2) {
-                        break;
-                    }
-                }
-            }
+        int rtIndex1 = getLowerIndex(precursorRts, precursorRT);
+        int rtIndex2 = getUpperIndex(precursorRts, precursorRT, rtIndex1);
+        double rtKey1 = precursorRts[rtIndex1];
+        double rtKey2 = precursorRts[rtIndex2];
+
+        double correction1 = getFragmentMzError(rtIndex1, fragmentMZ);
+        double correction2 = getFragmentMzError(rtIndex2, fragmentMZ);
+
+        return correction1 * rtKey1 / (rtKey1 + rtKey2) + correction2 * rtKey2 / (rtKey1 + rtKey2);
+    }
+
+    /**
+     * Returns the fragment error at the given retention time bin and fragment
+     * m/z.
+     *
+     * @param rtIndex the index of the retention time bin
+     * @param fragmentMZ the fragment m/z
+     *
+     * @return the error found
+     */
+    private double getFragmentMzError(
+            int rtIndex,
+            double fragmentMZ
+    ) {
+
+        double[] mzs = fragmentMzs[rtIndex];
+        double[] errors = fragmentErrors[rtIndex];
+
+        int mzIndex1 = getLowerIndex(mzs, fragmentMZ);
+        int mzIndex2 = getUpperIndex(mzs, fragmentMZ, mzIndex1);
+        double mzKey1 = mzs[mzIndex1];
+        double mzKey2 = mzs[mzIndex2];
+
+        return errors[mzIndex1] * mzKey1 / (mzKey1 + mzKey2) + errors[mzIndex2] * mzKey2 / (mzKey1 + mzKey2);
+
+    }
+
+    /**
+     * Returns the index of the last key lower than or equal to the given
+     * value. Values outside the keys are attributed to the first or last key.
+     *
+     * @param keys the keys, sorted
+     * @param value the value
+     *
+     * @return the index of the last key lower than or equal to the value
+     */
+    private static int getLowerIndex(
+            double[] keys,
+            double value
+    ) {
+
+        if (!(value > keys[0])) {
+            return 0;
         }
 
-        ArrayList<Double> mzList = new ArrayList<>(fragmentsRtDeviations.get(rtKey1).keySet());
-        Collections.sort(mzList);
-        double mzKey1 = mzList.get(0);
-        double mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
+        if (!(value < keys[keys.length - 1])) {
+            return keys.length - 1;
         }
 
-        double correction11 = fragmentsRtDeviations.get(rtKey1).get(mzKey1);
-        double correction12 = fragmentsRtDeviations.get(rtKey1).get(mzKey2);
-        double correction1 = correction11 * mzKey1 / (mzKey1 + mzKey2) + correction12 * mzKey2 / (mzKey1 + mzKey2);
-
-        mzList = new ArrayList<>(fragmentsRtDeviations.get(rtKey2).keySet());
-        Collections.sort(mzList);
-        mzKey1 = mzList.get(0);
-        mzKey2 = mzKey1;
-
-        if (fragmentMZ > mzKey1) {
-            mzKey1 = mzList.get(mzList.size() - 1);
-            mzKey2 = mzKey1;
-            if (fragmentMZ < mzKey1) {
-                for (int i = 0; i < mzList.size() - 1; i++) {
-                    mzKey1 = mzList.get(i);
-                    if (fragmentMZ == mzKey1) {
-                        mzKey2 = fragmentMZ;
-                        break;
-                    }
-                    mzKey2 = mzList.get(i + 1);
-                    if (mzKey1 < fragmentMZ && fragmentMZ < mzKey2) {
-                        break;
-                    }
-                }
-            }
+        int index = Arrays.binarySearch(keys, value);
+
+        return index >= 0 ? index : -index - 2;
+
+    }
+
+    /**
+     * Returns the index of the first key greater than or equal to the given
+     * value. Values outside the keys are attributed to the first or last key.
+     *
+     * @param keys the keys, sorted
+     * @param value the value
+     * @param lowerIndex the index returned by getLowerIndex for this value
+     *
+     * @return the index of the first key greater than or equal to the value
+     */
+    private static int getUpperIndex(
+            double[] keys,
+            double value,
+            int lowerIndex
+    ) {
+
+        if (!(value > keys[0]) || keys[lowerIndex] == value || lowerIndex == keys.length - 1) {
+            return lowerIndex;
         }
 
-        double correction21 = fragmentsRtDeviations.get(rtKey2).get(mzKey1);
-        double correction22 = fragmentsRtDeviations.get(rtKey2).get(mzKey2);
-        double correction2 = correction21 * mzKey1 / (mzKey1 + mzKey2) + correction22 * mzKey2 / (mzKey1 + mzKey2);
+        return lowerIndex + 1;
 
-        return correction1 * rtKey1 / (rtKey1 + rtKey2) + correction2 * rtKey2 / (rtKey1 + rtKey2);
     }
 
     /**
@@ -290,137 +311,142 @@ public class RunMzDeviation {
             WaitingHandler waitingHandler
     ) {
 
+        this(
+                spectrumFileNameWithoutExtension,
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                identificationParameters,
+                null,
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Creates a map of m/z deviations for a given run. The PSMs are inspected
+     * in chunks on the given pool, and their deviations are binned in the
+     * order of the PSMs.
+     *
+     * @param spectrumFileNameWithoutExtension the name of the file of the run
+     * @param identification the corresponding identification
+     * @param sequenceProvider the protein sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param identificationParameters the identification parameters
+     * @param pool the pool to use to inspect the PSMs, null to inspect them on
+     * the calling thread
+     * @param waitingHandler a waiting handler displaying the progress and
+     * allowing the user to cancel the process. Can be null
+     */
+    public RunMzDeviation(
+            String spectrumFileNameWithoutExtension,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) {
+
         AnnotationParameters annotationPreferences = identificationParameters.getAnnotationParameters();
-        PeptideSpectrumAnnotator spectrumAnnotator = new PeptideSpectrumAnnotator();
         ms2Bin = 100 * annotationPreferences.getFragmentIonAccuracy();
-        HashMap<Double, HashMap<Double, ArrayList<Double>>> precursorRawMap = new HashMap<>();
-        HashMap<Double, HashMap<Double, ArrayList<Double>>> fragmentRawMap = new HashMap<>();
-        HashMap<Double, ArrayList<Double>> spectrumFragmentMap;
-
-        PSParameter psParameter = new PSParameter();
+        long annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                annotationPreferences,
+                identificationParameters.getSearchParameters().getModificationParameters(),
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+        );
 
         if (waitingHandler != null) {
             waitingHandler.resetSecondaryProgressCounter();
             waitingHandler.setMaxSecondaryProgressCounter(spectrumProvider.getSpectrumTitles(spectrumFileNameWithoutExtension).length);
         }
 
-        for (long spectrumKey : identification.getSpectrumIdentification().get(spectrumFileNameWithoutExtension)) {
+        long[] spectrumKeys = identification.getSpectrumIdentification().get(spectrumFileNameWithoutExtension).stream()
+                .mapToLong(Long::longValue)
+                .toArray();
+        PsmDeviation[] psmDeviations = new PsmDeviation[Math.min(CHUNK_SIZE, spectrumKeys.length)];
+
+        double[] psmRts = new double[spectrumKeys.length];
+        int nPsms = 0;
+        Deviations precursorDeviations = new Deviations();
+        Deviations fragmentDeviations = new Deviations();
+
+        for (int chunkStart = 0; chunkStart < spectrumKeys.length; chunkStart += CHUNK_SIZE) {
 
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
                 break;
             }
 
-            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-
-            String spectrumTitle = spectrumMatch.getSpectrumTitle();
+            int start = chunkStart;
+            int end = Math.min(chunkStart + CHUNK_SIZE, spectrumKeys.length);
 
-            psParameter = (PSParameter) spectrumMatch.getUrParam(psParameter);
+            if (pool == null) {
 
-            if (psParameter.getMatchValidationLevel().isValidated()) {
+                for (int i = start; i < end; i++) {
 
-                double precursorMz = spectrumProvider.getPrecursorMz(
-                        spectrumFileNameWithoutExtension,
-                        spectrumTitle
-                );
-                double precursorRT = spectrumProvider.getPrecursorRt(
-                        spectrumFileNameWithoutExtension,
-                        spectrumTitle
-                );
-
-                if (!precursorRawMap.containsKey(precursorRT)) {
-
-                    precursorRawMap.put(precursorRT, new HashMap<>(1));
-
-                }
-                if (!precursorRawMap.get(precursorRT).containsKey(precursorMz)) {
-
-                    precursorRawMap.get(precursorRT).put(precursorMz, new ArrayList<>(1));
+                    psmDeviations[i - start] = getPsmDeviation(
+                            spectrumKeys[i],
+                            spectrumFileNameWithoutExtension,
+                            identification,
+                            sequenceProvider,
+                            spectrumProvider,
+                            identificationParameters,
+                            annotationSettingsKey
+                    );
 
                 }
 
-                PeptideAssumption bestPeptideAssumption = spectrumMatch.getBestPeptideAssumption();
-
-                if (bestPeptideAssumption != null) {
-
-                    SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                    double error = bestPeptideAssumption.getDeltaMz(
-                            precursorMz,
-                            false,
-                            searchParameters.getMinIsotopicCorrection(),
-                            searchParameters.getMaxIsotopicCorrection()
-                    );
-                    precursorRawMap.get(precursorRT).get(precursorMz).add(error);
+            } else {
 
-                    Spectrum spectrum = spectrumProvider.getSpectrum(
-                            spectrumFileNameWithoutExtension,
-                            spectrumTitle
-                    );
-                    ModificationParameters modificationParameters = identificationParameters.getSearchParameters().getModificationParameters();
-                    SequenceMatchingParameters modificationSequenceMatchingParameters = identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters();
-                    SpecificAnnotationParameters specificAnnotationPreferences = annotationPreferences.getSpecificAnnotationParameters(
-                            spectrumFileNameWithoutExtension,
-                            spectrumTitle,
-                            bestPeptideAssumption,
-                            modificationParameters,
-                            sequenceProvider,
-                            modificationSequenceMatchingParameters,
-                            spectrumAnnotator
-                    );
-                    IonMatch[] ionMatches = spectrumAnnotator.getSpectrumAnnotation(
-                            annotationPreferences,
-                            specificAnnotationPreferences,
-                            spectrumFileNameWithoutExtension,
-                            spectrumTitle,
-                            spectrum,
-                            bestPeptideAssumption.getPeptide(),
-                            modificationParameters,
-                            sequenceProvider,
-                            modificationSequenceMatchingParameters
-                    );
+                pool.submit(
+                        () -> IntStream.range(start, end)
+                                .parallel()
+                                .forEach(
+                                        i -> psmDeviations[i - start] = getPsmDeviation(
+                                                spectrumKeys[i],
+                                                spectrumFileNameWithoutExtension,
+                                                identification,
+                                                sequenceProvider,
+                                                spectrumProvider,
+                                                identificationParameters,
+                                                annotationSettingsKey
+                                        )
+                                )
+                ).join();
 
-                    spectrumFragmentMap = new HashMap<>();
+            }
 
-                    for (IonMatch ionMatch : ionMatches) {
+            for (int i = 0; i < end - start; i++) {
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+                PsmDeviation psmDeviation = psmDeviations[i];
 
-                        double fragmentMz = ionMatch.peakMz;
-                        int roundedValue = (int) (fragmentMz / ms2Bin);
-                        double fragmentMzKey = (double) roundedValue * ms2Bin;
+                if (psmDeviation != null) {
 
-                        if (!spectrumFragmentMap.containsKey(fragmentMzKey)) {
-                            spectrumFragmentMap.put(fragmentMzKey, new ArrayList<>(1));
-                        }
+                    psmRts[nPsms++] = psmDeviation.precursorRT;
 
-                        spectrumFragmentMap.get(fragmentMzKey).add(ionMatch.getAbsoluteError());
-                    }
+                    if (psmDeviation.fragmentBins != null) {
 
-                    if (!fragmentRawMap.containsKey(precursorRT)) {
-                        fragmentRawMap.put(precursorRT, new HashMap<>(1));
-                    }
+                        precursorDeviations.add(
+                                psmDeviation.precursorRT,
+                                psmDeviation.precursorMz,
+                                psmDeviation.precursorError
+                        );
 
-                    for (double key : spectrumFragmentMap.keySet()) {
+                        for (int j = 0; j < psmDeviation.fragmentBins.length; j++) {
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+                            fragmentDeviations.add(
+                                    psmDeviation.precursorRT,
+                                    psmDeviation.fragmentBins[j],
+                                    psmDeviation.fragmentErrors[j]
+                            );
 
-                        if (!fragmentRawMap.get(precursorRT).containsKey(key)) {
-                            fragmentRawMap.get(precursorRT).put(key, new ArrayList<>(1));
                         }
-
-                        fragmentRawMap.get(precursorRT)
-                                .get(key)
-                                .add(BasicMathFunctions.median(spectrumFragmentMap.get(key))
-                                );
                     }
                 }
-            }
 
-            if (waitingHandler != null) {
-                waitingHandler.increaseSecondaryProgressCounter();
+                if (waitingHandler != null) {
+                    waitingHandler.increaseSecondaryProgressCounter();
+                }
             }
         }
 
@@ -431,405 +457,705 @@ public class RunMzDeviation {
             waitingHandler.setSecondaryProgressCounterIndeterminate(true);
         }
 
-        ArrayList<Double> keys = new ArrayList<>(precursorRawMap.keySet());
-        if (keys.isEmpty()) {
+        double[] rts = getDistinctSortedValues(psmRts, nPsms);
+        if (rts.length == 0) {
             throw new IllegalArgumentException("No validated PSM found for file " + spectrumFileNameWithoutExtension + ".");
         }
-        Collections.sort(keys);
+
+        // sort the deviations by retention time, the deviations at a given retention time are kept in the order of the PSMs
+        int[] precursorStarts = precursorDeviations.sortByRt(rts);
+        int[] fragmentStarts = fragmentDeviations.sortByRt(rts);
+
+        double[] binRts = new double[rts.length];
+        double[] binSlopes = new double[rts.length];
+        double[] binOffsets = new double[rts.length];
+        double[][] binFragmentMzs = new double[rts.length][];
+        double[][] binFragmentErrors = new double[rts.length][];
+        int nBins = 0;
+
+        // slide a window over the retention times, a bin is made every time the window holds more than rtBinSize precursors
+        int windowStart = 0;
         int cpt1 = 0;
-        TreeMap<Double, HashMap<Double, ArrayList<Double>>> precursorTempMap = new TreeMap<>();
-        HashMap<Double, HashMap<Double, ArrayList<Double>>> fragmentTempMap = new HashMap<>();
 
-        for (double rt : keys) {
+        for (int windowEnd = 0; windowEnd < rts.length; windowEnd++) {
 
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                break;
+                return;
             }
 
-            HashMap<Double, ArrayList<Double>> tempValues = precursorRawMap.get(rt);
-            precursorTempMap.put(rt, tempValues);
-            fragmentTempMap.put(rt, fragmentRawMap.get(rt));
+            cpt1 += precursorStarts[windowEnd + 1] - precursorStarts[windowEnd];
 
-            for (ArrayList<Double> errors : tempValues.values()) {
+            if (cpt1 > rtBinSize) {
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+                double rtRef = BasicMathFunctions.medianSorted(Arrays.copyOfRange(rts, windowStart, windowEnd + 1));
 
-                cpt1 += errors.size();
-            }
+                double[] slopeAndOffset = getSlopeAndOffset(
+                        Arrays.copyOfRange(precursorDeviations.keys, precursorStarts[windowStart], precursorStarts[windowEnd + 1]),
+                        Arrays.copyOfRange(precursorDeviations.errors, precursorStarts[windowStart], precursorStarts[windowEnd + 1])
+                );
 
-            if (cpt1 > rtBinSize) {
+                BinnedErrors fragmentBins = getFragmentBins(
+                        fragmentDeviations,
+                        fragmentStarts[windowStart],
+                        fragmentStarts[windowEnd + 1]
+                );
 
-                double[] rtArray = precursorTempMap.keySet().stream()
-                        .mapToDouble(a -> a)
-                        .toArray();
-                double rtRef = BasicMathFunctions.medianSorted(rtArray);
-                TreeMap<Double, ArrayList<Double>> mzToErrorMap = new TreeMap<>();
+                // the window medians do not decrease, a bin at the same retention time replaces the previous one
+                if (nBins > 0 && binRts[nBins - 1] == rtRef) {
+                    nBins--;
+                }
 
-                for (HashMap<Double, ArrayList<Double>> errors : precursorTempMap.values()) {
+                binRts[nBins] = rtRef;
+                binSlopes[nBins] = slopeAndOffset[0];
+                binOffsets[nBins] = slopeAndOffset[1];
+                binFragmentMzs[nBins] = fragmentBins.getMzs();
+                binFragmentErrors[nBins] = fragmentBins.getErrors();
+                nBins++;
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+                do {
 
-                    for (double mz : errors.keySet()) {
+                    cpt1 -= precursorStarts[windowStart + 1] - precursorStarts[windowStart];
+                    windowStart++;
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+                } while (cpt1 > rtBinSize);
+            }
+        }
 
-                        ArrayList<Double> errorsAtMz = errors.get(mz);
+        if (nBins == 0) {
 
-                        if (!mzToErrorMap.containsKey(mz)) {
+            double rtRef = BasicMathFunctions.medianSorted(rts);
 
-                            mzToErrorMap.put(
-                                    mz,
-                                    new ArrayList<>(errorsAtMz.size())
-                            );
-                        }
+            double[] slopeAndOffset = getSlopeAndOffset(
+                    Arrays.copyOf(precursorDeviations.keys, precursorDeviations.size),
+                    Arrays.copyOf(precursorDeviations.errors, precursorDeviations.size)
+            );
 
-                        mzToErrorMap.get(mz).addAll(errorsAtMz);
-                    }
-                }
+            do {
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
+                cpt1 -= precursorStarts[windowStart + 1] - precursorStarts[windowStart];
+                windowStart++;
 
-                ArrayList<Double> mz1 = new ArrayList<>();
-                ArrayList<Double> mz2 = new ArrayList<>();
-                ArrayList<Double> err1 = new ArrayList<>();
-                ArrayList<Double> err2 = new ArrayList<>();
-                int cpt2 = 0;
+            } while (cpt1 > rtBinSize && windowStart < rts.length);
 
-                for (Entry<Double, ArrayList<Double>> entry : mzToErrorMap.entrySet()) {
+            // the fragment bins are estimated from the precursor errors remaining in the window
+            double[] mzs = Arrays.copyOfRange(precursorDeviations.keys, precursorStarts[windowStart], precursorDeviations.size);
+            double[] errors = Arrays.copyOfRange(precursorDeviations.errors, precursorStarts[windowStart], precursorDeviations.size);
+            sortByMz(mzs, errors);
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+            BinnedErrors fragmentBins = new BinnedErrors();
+            double[] mz1 = new double[mzs.length];
+            double[] err1 = new double[mzs.length];
+            double[] mz2 = new double[mzs.length];
+            double[] err2 = new double[mzs.length];
+            int nMz1 = 0, nErr1 = 0, nMz2 = 0, nErr2 = 0;
 
-                    for (double err : entry.getValue()) {
+            for (int i = 0; i < mzs.length;) {
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+                double mz = mzs[i];
+                mz1[nMz1++] = mz;
 
-                        if (cpt2 < cpt1 / 2) {
-                            mz1.add(entry.getKey());
-                            err1.add(err);
-                            cpt2++;
-                        } else {
-                            mz2.add(entry.getKey());
-                            err2.add(err);
-                        }
-                    }
+                for (; i < mzs.length && Double.compare(mzs[i], mz) == 0; i++) {
+                    err1[nErr1++] = errors[i];
                 }
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
+                if (nErr1 >= mzBinSize) {
 
-                double x1 = BasicMathFunctions.median(mz1);
-                double x2 = BasicMathFunctions.median(mz2);
-                double y1 = BasicMathFunctions.median(err1);
-                double y2 = BasicMathFunctions.median(err2);
-                double slope;
+                    fragmentBins.put(median(mz1, nMz1), median(err1, nErr1));
+
+                    System.arraycopy(mz1, 0, mz2, nMz2, nMz1);
+                    System.arraycopy(err1, 0, err2, nErr2, nErr1);
+                    nMz2 += nMz1;
+                    nErr2 += nErr1;
+                    nMz1 = 0;
+                    nErr1 = 0;
 
-                if (x1 == x2) {
-                    slope = 0;
-                } else {
-                    slope = (y2 - y1) / (x2 - x1);
                 }
+            }
 
-                double offset = (y2 + y1 - slope * (x1 + x2)) / 2;
-                precursorSlopes.put(rtRef, slope);
-                precursorOffsets.put(rtRef, offset);
+            if (nMz1 > 0) {
 
-                fragmentsRtDeviations.put(rtRef, new TreeMap<>());
-                mzToErrorMap = new TreeMap<>();
+                System.arraycopy(mz2, 0, mz1, nMz1, nMz2);
+                System.arraycopy(err2, 0, err1, nErr1, nErr2);
+                fragmentBins.put(median(mz1, nMz1 + nMz2), median(err1, nErr1 + nErr2));
 
-                for (HashMap<Double, ArrayList<Double>> errors : fragmentTempMap.values()) {
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+            }
 
-                    for (double mz : errors.keySet()) {
+            binRts[0] = rtRef;
+            binSlopes[0] = slopeAndOffset[0];
+            binOffsets[0] = slopeAndOffset[1];
+            binFragmentMzs[0] = fragmentBins.getMzs();
+            binFragmentErrors[0] = fragmentBins.getErrors();
+            nBins = 1;
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+        }
 
-                        ArrayList<Double> errorsAtMz = errors.get(mz);
+        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            return;
+        }
 
-                        if (!mzToErrorMap.containsKey(mz)) {
-                            mzToErrorMap.put(mz, new ArrayList<>(errorsAtMz.size()));
-                        }
+        precursorSlopes = Arrays.copyOf(binSlopes, nBins);
+        precursorOffsets = Arrays.copyOf(binOffsets, nBins);
+        fragmentMzs = Arrays.copyOf(binFragmentMzs, nBins);
+        fragmentErrors = Arrays.copyOf(binFragmentErrors, nBins);
+        precursorRts = Arrays.copyOf(binRts, nBins);
 
-                        mzToErrorMap.get(mz).addAll(errorsAtMz);
-                    }
-                }
+    }
 
-                mz1 = new ArrayList<>();
-                mz2 = new ArrayList<>();
-                err1 = new ArrayList<>();
-                err2 = new ArrayList<>();
-                double mzRef = -1;
+    /**
+     * Returns the fragment bins of the fragment deviations between the given
+     * indexes. The deviations are grouped by m/z bin, and a fragment bin is
+     * made every time more than mzBinSize errors are grouped. The remaining
+     * errors are merged with the last fragment bin.
+     *
+     * @param fragmentDeviations the fragment deviations sorted by retention
+     * time
+     * @param start the index of the first deviation
+     * @param end the index after the last deviation
+     *
+     * @return the fragment bins
+     */
+    private BinnedErrors getFragmentBins(
+            Deviations fragmentDeviations,
+            int start,
+            int end
+    ) {
 
-                for (Entry<Double, ArrayList<Double>> entry : mzToErrorMap.entrySet()) {
+        int n = end - start;
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+        // sort the deviations by m/z bin index
+        long[] order = new long[n];
 
-                    mz1.add(entry.getKey());
-                    err1.addAll(entry.getValue());
+        for (int i = 0; i < n; i++) {
 
-                    if (err1.size() >= mzBinSize) {
+            order[i] = ((long) fragmentDeviations.keys[start + i]) << 32 | i;
 
-                        mzRef = BasicMathFunctions.median(mz1);
-                        double error = BasicMathFunctions.median(err1);
-                        fragmentsRtDeviations.get(rtRef).put(mzRef, error);
-                        mz2.clear();
-                        err2.clear();
-                        mz2.addAll(mz1);
-                        err2.addAll(err1);
-                        mz1.clear();
-                        err1.clear();
+        }
 
-                    }
-                }
+        Arrays.sort(order);
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
+        BinnedErrors fragmentBins = new BinnedErrors();
+        double[] mz1 = new double[n];
+        double[] err1 = new double[n];
+        double[] mz2 = new double[n];
+        double[] err2 = new double[n];
+        int nMz1 = 0, nErr1 = 0, nMz2 = 0, nErr2 = 0;
+        double mzRef = -1;
 
-                if (!mz1.isEmpty()) {
+        for (int i = 0; i < n;) {
 
-                    if (fragmentsRtDeviations.get(rtRef) != null) {
-                        fragmentsRtDeviations.get(rtRef).remove(mzRef);
-                    }
+            int bin = (int) (order[i] >>> 32);
+            mz1[nMz1++] = (double) bin * ms2Bin;
 
-                    mz1.addAll(mz2);
-                    err1.addAll(err2);
-                    mzRef = BasicMathFunctions.median(mz1);
-                    double error = BasicMathFunctions.median(err1);
-                    fragmentsRtDeviations.get(rtRef).put(mzRef, error);
-                }
+            for (; i < n && (int) (order[i] >>> 32) == bin; i++) {
+                err1[nErr1++] = fragmentDeviations.errors[start + (int) order[i]];
+            }
 
-                for (double tempRt : rtArray) {
+            if (nErr1 >= mzBinSize) {
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+                mzRef = median(mz1, nMz1);
+                fragmentBins.put(mzRef, median(err1, nErr1));
 
-                    tempValues = precursorTempMap.get(tempRt);
+                System.arraycopy(mz1, 0, mz2, 0, nMz1);
+                System.arraycopy(err1, 0, err2, 0, nErr1);
+                nMz2 = nMz1;
+                nErr2 = nErr1;
+                nMz1 = 0;
+                nErr1 = 0;
 
-                    for (ArrayList<Double> errors : tempValues.values()) {
+            }
+        }
 
-                        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                            break;
-                        }
+        if (nMz1 > 0) {
 
-                        cpt1 -= errors.size();
-                    }
+            fragmentBins.remove(mzRef);
 
-                    precursorTempMap.remove(tempRt);
-                    fragmentTempMap.remove(tempRt);
+            System.arraycopy(mz2, 0, mz1, nMz1, nMz2);
+            System.arraycopy(err2, 0, err1, nErr1, nErr2);
+            fragmentBins.put(median(mz1, nMz1 + nMz2), median(err1, nErr1 + nErr2));
 
-                    if (cpt1 <= rtBinSize) {
-                        break;
-                    }
-                }
-            }
         }
 
-        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-            return;
+        return fragmentBins;
+
+    }
+
+    /**
+     * Returns the slope and offset of the precursor errors. The errors are
+     * split in two halves by m/z, and the line going through the medians of
+     * the halves is returned.
+     *
+     * @param mzs the precursor m/z, sorted in place
+     * @param errors the precursor errors, sorted in place with the m/z
+     *
+     * @return the slope and offset in an array
+     */
+    private static double[] getSlopeAndOffset(
+            double[] mzs,
+            double[] errors
+    ) {
+
+        sortByMz(mzs, errors);
+
+        int half = mzs.length / 2;
+
+        double x1 = median(Arrays.copyOfRange(mzs, 0, half), half);
+        double x2 = median(Arrays.copyOfRange(mzs, half, mzs.length), mzs.length - half);
+        double y1 = median(Arrays.copyOfRange(errors, 0, half), half);
+        double y2 = median(Arrays.copyOfRange(errors, half, errors.length), errors.length - half);
+        double slope;
+
+        if (x1 == x2) {
+            slope = 0;
+        } else {
+            slope = (y2 - y1) / (x2 - x1);
         }
 
-        if (precursorSlopes.isEmpty()) {
+        double offset = (y2 + y1 - slope * (x1 + x2)) / 2;
 
-            double rtRef = BasicMathFunctions.median(keys);
-            TreeMap<Double, ArrayList<Double>> mzToErrorMap = new TreeMap<>();
+        return new double[]{slope, offset};
 
-            for (HashMap<Double, ArrayList<Double>> errors : precursorRawMap.values()) {
+    }
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+    /**
+     * Sorts the given m/z and errors by m/z. The sort is stable, errors at the
+     * same m/z are kept in their order.
+     *
+     * @param mzs the m/z
+     * @param errors the errors
+     */
+    private static void sortByMz(
+            double[] mzs,
+            double[] errors
+    ) {
 
-                for (double mz : errors.keySet()) {
+        for (int i = 1; i < mzs.length; i++) {
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+            double mz = mzs[i];
+            double error = errors[i];
+            int j = i - 1;
 
-                    if (!mzToErrorMap.containsKey(mz)) {
-                        mzToErrorMap.put(mz, new ArrayList<>());
-                    }
-                    mzToErrorMap.get(mz).addAll(errors.get(mz));
-                }
-            }
+            while (j >= 0 && Double.compare(mzs[j], mz) > 0) {
+
+                mzs[j + 1] = mzs[j];
+                errors[j + 1] = errors[j];
+                j--;
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
             }
 
-            ArrayList<Double> mz1 = new ArrayList<>();
-            ArrayList<Double> mz2 = new ArrayList<>();
-            ArrayList<Double> err1 = new ArrayList<>();
-            ArrayList<Double> err2 = new ArrayList<>();
-            int cpt2 = 0;
+            mzs[j + 1] = mz;
+            errors[j + 1] = error;
 
-            for (Entry<Double, ArrayList<Double>> entry : mzToErrorMap.entrySet()) {
+        }
+    }
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+    /**
+     * Returns the median of the first values of the given array. The values
+     * are sorted in place.
+     *
+     * @param values the values
+     * @param n the number of values
+     *
+     * @return the median
+     */
+    private static double median(
+            double[] values,
+            int n
+    ) {
 
-                for (double err : entry.getValue()) {
+        double[] sortedValues = n == values.length ? values : Arrays.copyOf(values, n);
+        Arrays.sort(sortedValues);
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+        return BasicMathFunctions.medianSorted(sortedValues);
 
-                    if (cpt2 < cpt1 / 2) {
-                        mz1.add(entry.getKey());
-                        err1.add(err);
-                        cpt2++;
-                    } else {
-                        mz2.add(entry.getKey());
-                        err2.add(err);
-                    }
-                }
-            }
+    }
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
-            }
+    /**
+     * Returns the distinct values among the first values of the given array,
+     * sorted.
+     *
+     * @param values the values
+     * @param n the number of values
+     *
+     * @return the distinct values
+     */
+    private static double[] getDistinctSortedValues(
+            double[] values,
+            int n
+    ) {
 
-            double x1 = BasicMathFunctions.median(mz1);
-            double x2 = BasicMathFunctions.median(mz2);
-            double y1 = BasicMathFunctions.median(err1);
-            double y2 = BasicMathFunctions.median(err2);
-            double slope;
+        double[] sortedValues = Arrays.copyOf(values, n);
+        Arrays.sort(sortedValues);
 
-            if (x1 == x2) {
-                slope = 0;
-            } else {
-                slope = (y2 - y1) / (x2 - x1);
+        int nDistinct = 0;
+
+        for (int i = 0; i < n; i++) {
+
+            if (nDistinct == 0 || Double.compare(sortedValues[i], sortedValues[nDistinct - 1]) != 0) {
+                sortedValues[nDistinct++] = sortedValues[i];
             }
+        }
 
-            double offset = (y2 + y1 - slope * (x1 + x2)) / 2;
-            precursorSlopes.put(rtRef, slope);
-            precursorOffsets.put(rtRef, offset);
+        return Arrays.copyOf(sortedValues, nDistinct);
 
-            for (double tempRt : keys) {
+    }
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+    /**
+     * Returns the deviations of the given PSM, null if the PSM is not
+     * validated.
+     *
+     * @param spectrumKey the key of the spectrum match
+     * @param spectrumFileNameWithoutExtension the name of the file of the run
+     * @param identification the corresponding identification
+     * @param sequenceProvider the protein sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param identificationParameters the identification parameters
+     * @param annotationSettingsKey the key of the annotation settings in the
+     * spectrum annotation cache
+     *
+     * @return the deviations of the given PSM
+     */
+    private PsmDeviation getPsmDeviation(
+            long spectrumKey,
+            String spectrumFileNameWithoutExtension,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            long annotationSettingsKey
+    ) {
 
-                HashMap<Double, ArrayList<Double>> tempValues = precursorTempMap.get(tempRt);
+        SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+        PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
-                for (ArrayList<Double> errors : tempValues.values()) {
+        if (!psParameter.getMatchValidationLevel().isValidated()) {
+            return null;
+        }
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+        String spectrumTitle = spectrumMatch.getSpectrumTitle();
 
-                    cpt1 -= errors.size();
-                }
+        PsmDeviation psmDeviation = new PsmDeviation();
+        psmDeviation.precursorMz = spectrumProvider.getPrecursorMz(
+                spectrumFileNameWithoutExtension,
+                spectrumTitle
+        );
+        psmDeviation.precursorRT = spectrumProvider.getPrecursorRt(
+                spectrumFileNameWithoutExtension,
+                spectrumTitle
+        );
 
-                precursorTempMap.remove(tempRt);
+        PeptideAssumption bestPeptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+        if (bestPeptideAssumption == null) {
+            return psmDeviation;
+        }
+
+        SearchParameters searchParameters = identificationParameters.getSearchParameters();
+        psmDeviation.precursorError = bestPeptideAssumption.getDeltaMz(
+                psmDeviation.precursorMz,
+                false,
+                searchParameters.getMinIsotopicCorrection(),
+                searchParameters.getMaxIsotopicCorrection()
+        );
+
+        IonMatch[] ionMatches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                annotationSettingsKey,
+                identificationParameters.getAnnotationParameters(),
+                spectrumFileNameWithoutExtension,
+                spectrumTitle,
+                bestPeptideAssumption,
+                searchParameters.getModificationParameters(),
+                sequenceProvider,
+                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters(),
+                spectrumProvider,
+                spectrumAnnotators.get()
+        );
+
+        // bin the fragment errors by m/z, sorting the errors in every bin
+        int nMatches = ionMatches.length;
+        int[] mzBins = new int[nMatches];
+        double[] errors = new double[nMatches];
+
+        for (int i = 0; i < nMatches; i++) {
+
+            IonMatch ionMatch = ionMatches[i];
+            int mzBin = (int) (ionMatch.peakMz / ms2Bin);
+            double error = ionMatch.getAbsoluteError();
+
+            int j = i - 1;
+
+            while (j >= 0 && (mzBins[j] > mzBin || mzBins[j] == mzBin && errors[j] > error)) {
+
+                mzBins[j + 1] = mzBins[j];
+                errors[j + 1] = errors[j];
+                j--;
 
-                if (cpt1 <= rtBinSize) {
-                    break;
-                }
             }
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
+            mzBins[j + 1] = mzBin;
+            errors[j + 1] = error;
+
+        }
+
+        int nBins = 0;
+
+        for (int i = 0; i < nMatches; i++) {
+
+            if (i == 0 || mzBins[i] != mzBins[i - 1]) {
+                nBins++;
             }
+        }
 
-            mzToErrorMap = new TreeMap<>();
+        psmDeviation.fragmentBins = new int[nBins];
+        psmDeviation.fragmentErrors = new double[nBins];
 
-            for (HashMap<Double, ArrayList<Double>> errors : precursorTempMap.values()) {
+        int bin = 0;
+        int binStart = 0;
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+        for (int i = 1; i <= nMatches; i++) {
 
-                for (double mz : errors.keySet()) {
+            if (i == nMatches || mzBins[i] != mzBins[binStart]) {
 
-                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                        break;
-                    }
+                psmDeviation.fragmentBins[bin] = mzBins[binStart];
+                psmDeviation.fragmentErrors[bin] = BasicMathFunctions.medianSorted(Arrays.copyOfRange(errors, binStart, i));
+                bin++;
+                binStart = i;
 
-                    if (!mzToErrorMap.containsKey(mz)) {
-                        mzToErrorMap.put(mz, new ArrayList<>());
-                    }
-                    mzToErrorMap.get(mz).addAll(errors.get(mz));
-                }
             }
+        }
+
+        return psmDeviation;
+
+    }
+
+    /**
+     * The deviations of a PSM.
+     */
+    private static class PsmDeviation {
+
+        /**
+         * The precursor m/z.
+         */
+        private double precursorMz;
+        /**
+         * The precursor retention time.
+         */
+        private double precursorRT;
+        /**
+         * The precursor m/z error of the best peptide assumption.
+         */
+        private double precursorError;
+        /**
+         * The indexes of the fragment m/z bins, null if the PSM has no best
+         * peptide assumption.
+         */
+        private int[] fragmentBins;
+        /**
+         * The median error of the fragments in every bin.
+         */
+        private double[] fragmentErrors;
+
+    }
+
+    /**
+     * Deviations of a run stored in primitive arrays. The key is the precursor
+     * m/z for precursor deviations, and the index of the m/z bin for fragment
+     * deviations.
+     */
+    private static class Deviations {
+
+        /**
+         * The number of deviations.
+         */
+        private int size = 0;
+        /**
+         * The precursor retention times.
+         */
+        private double[] rts = new double[1024];
+        /**
+         * The keys.
+         */
+        private double[] keys = new double[1024];
+        /**
+         * The errors.
+         */
+        private double[] errors = new double[1024];
+
+        /**
+         * Adds a deviation.
+         *
+         * @param rt the precursor retention time
+         * @param key the key
+         * @param error the error
+         */
+        private void add(
+                double rt,
+                double key,
+                double error
+        ) {
+
+            if (size == rts.length) {
+
+                int capacity = 2 * size;
+                rts = Arrays.copyOf(rts, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                errors = Arrays.copyOf(errors, capacity);
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
             }
 
-            fragmentsRtDeviations.put(rtRef, new TreeMap<>());
+            rts[size] = rt;
+            keys[size] = key;
+            errors[size] = error;
+            size++;
 
-            mz1 = new ArrayList<>();
-            mz2 = new ArrayList<>();
-            err1 = new ArrayList<>();
-            err2 = new ArrayList<>();
+        }
 
-            for (Entry<Double, ArrayList<Double>> entry : mzToErrorMap.entrySet()) {
+        /**
+         * Sorts the deviations by retention time and returns the index of the
+         * first deviation at every retention time. Deviations at the same
+         * retention time are kept in their order. The retention times are not
+         * kept.
+         *
+         * @param distinctRts the distinct retention times, sorted
+         *
+         * @return the index of the first deviation at every retention time,
+         * followed by the number of deviations
+         */
+        private int[] sortByRt(
+                double[] distinctRts
+        ) {
+
+            int[] starts = new int[distinctRts.length + 1];
+            int[] rtIndexes = new int[size];
+
+            for (int i = 0; i < size; i++) {
+
+                rtIndexes[i] = Arrays.binarySearch(distinctRts, rts[i]);
+                starts[rtIndexes[i] + 1]++;
 
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    break;
-                }
+            }
 
-                mz1.add(entry.getKey());
-                err1.addAll(entry.getValue());
+            for (int i = 0; i < distinctRts.length; i++) {
 
-                if (err1.size() >= mzBinSize) {
+                starts[i + 1] += starts[i];
 
-                    double mzRef = BasicMathFunctions.median(mz1);
-                    double error = BasicMathFunctions.median(err1);
-                    fragmentsRtDeviations.get(rtRef).put(mzRef, error);
-                    mz2.addAll(mz1);
-                    err2.addAll(err1);
-                    mz1.clear();
-                    err1.clear();
+            }
+
+            int[] positions = Arrays.copyOf(starts, distinctRts.length);
+            double[] sortedKeys = new double[size];
+            double[] sortedErrors = new double[size];
+
+            for (int i = 0; i < size; i++) {
+
+                int position = positions[rtIndexes[i]]++;
+                sortedKeys[position] = keys[i];
+                sortedErrors[position] = errors[i];
 
-                }
             }
 
-            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+            rts = null;
+            keys = sortedKeys;
+            errors = sortedErrors;
+
+            return starts;
+
+        }
+    }
+
+    /**
+     * Errors binned by m/z, sorted by m/z.
+     */
+    private static class BinnedErrors {
+
+        /**
+         * The number of bins.
+         */
+        private int size = 0;
+        /**
+         * The m/z of the bins.
+         */
+        private double[] mzs = new double[16];
+        /**
+         * The errors of the bins.
+         */
+        private double[] errors = new double[16];
+
+        /**
+         * Sets the error of the bin at the given m/z, adding the bin if needed.
+         *
+         * @param mz the m/z of the bin
+         * @param error the error of the bin
+         */
+        private void put(
+                double mz,
+                double error
+        ) {
+
+            int index = Arrays.binarySearch(mzs, 0, size, mz);
+
+            if (index >= 0) {
+
+                errors[index] = error;
                 return;
+
             }
 
-            if (!mz1.isEmpty()) {
+            index = -index - 1;
 
-                TreeMap<Double, Double> rtDeviationAtRtRef = fragmentsRtDeviations.get(rtRef);
+            if (size == mzs.length) {
 
-                mz1.addAll(mz2);
-                err1.addAll(err2);
-                double mzRef = BasicMathFunctions.median(mz1);
-                double error = BasicMathFunctions.median(err1);
-                rtDeviationAtRtRef.put(mzRef, error);
+                mzs = Arrays.copyOf(mzs, 2 * size);
+                errors = Arrays.copyOf(errors, 2 * size);
 
             }
+
+            System.arraycopy(mzs, index, mzs, index + 1, size - index);
+            System.arraycopy(errors, index, errors, index + 1, size - index);
+            mzs[index] = mz;
+            errors[index] = error;
+            size++;
+
         }
 
-        if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-            return;
+        /**
+         * Removes the bin at the given m/z if any.
+         *
+         * @param mz the m/z of the bin
+         */
+        private void remove(
+                double mz
+        ) {
+
+            int index = Arrays.binarySearch(mzs, 0, size, mz);
+
+            if (index >= 0) {
+
+                System.arraycopy(mzs, index + 1, mzs, index, size - index - 1);
+                System.arraycopy(errors, index + 1, errors, index, size - index - 1);
+                size--;
+
+            }
+        }
+
+        /**
+         * Returns the m/z of the bins.
+         *
+         * @return the m/z of the bins
+         */
+        private double[] getMzs() {
+
+            return Arrays.copyOf(mzs, size);
+
         }
 
-        precursorRTList = new ArrayList<>(precursorSlopes.keySet());
-        Collections.sort(precursorRTList);
+        /**
+         * Returns the errors of the bins.
+         *
+         * @return the errors of the bins
+         */
+        private double[] getErrors() {
 
+            return Arrays.copyOf(errors, size);
+
+        }
     }
 }
@@ -8,7 +8,8 @@ import com.compomics.util.experiment.mass_spectrometry.spectra.RecalibrationUtil
 import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.parameters.identification.IdentificationParameters;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This class recalibrates spectra.
@@ -20,7 +21,7 @@ public class SpectrumRecalibrator {
     /**
      * Map of the runs errors.
      */
-    private final HashMap<String, RunMzDeviation> runMzDeviationMap = new HashMap<>();
+    private final ConcurrentHashMap<String, RunMzDeviation> runMzDeviationMap = new ConcurrentHashMap<>();
 
     /**
      * Constructor.
@@ -81,12 +82,50 @@ public class SpectrumRecalibrator {
             WaitingHandler waitingHandler
     ) {
 
+        estimateErrors(
+                spectrumFileNameWithoutExtension,
+                identification,
+                sequenceProvider,
+                spectrumProvider,
+                identificationParameters,
+                null,
+                waitingHandler
+        );
+
+    }
+
+    /**
+     * Estimates the file m/z errors using the given pool and displays the
+     * progress in a waiting handler. Errors of different files can be
+     * estimated concurrently.
+     *
+     * @param spectrumFileNameWithoutExtension the name of the file of the run
+     * @param identification the corresponding identification
+     * @param sequenceProvider the sequence provider
+     * @param spectrumProvider the spectrum provider
+     * @param identificationParameters the identification parameters
+     * @param pool the pool to use to inspect the PSMs, null to inspect them on
+     * the calling thread
+     * @param waitingHandler a waiting handler displaying the progress and
+     * allowing the user to cancel the process. Can be null
+     */
+    public void estimateErrors(
+            String spectrumFileNameWithoutExtension,
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            SpectrumProvider spectrumProvider,
+            IdentificationParameters identificationParameters,
+            ForkJoinPool pool,
+            WaitingHandler waitingHandler
+    ) {
+
         RunMzDeviation fileErrors = new RunMzDeviation(
                 spectrumFileNameWithoutExtension,
                 identification,
                 sequenceProvider,
                 spectrumProvider,
                 identificationParameters,
+                pool,
                 waitingHandler
         );
 
@@ -0,0 +1,372 @@
+package eu.isas.peptideshaker.scoring;
+
+import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Histogram of the values of a quality control metric per validation
+ * category. Values are counted in bins that can be regrouped into the bins of
+ * a plot. Bins are either integer bins, one per integer value, or given by
+ * their upper bounds, with an additional bin for the values greater than all
+ * bounds. A value is counted in the first bin it is lower than or equal to.
+ * The counts in the bins of a plot are hence the same as when binning the
+ * values themselves, as long as the bounds of the plot bins are integers for
+ * integer bins, and are upper bounds of the histogram otherwise.
+ *
+ * @author Marc Vaudel
+ */
+public class QcHistogram implements Serializable {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = -3150743620934813513L;
+    /**
+     * Index of the confident target matches.
+     */
+    public static final int CONFIDENT = 0;
+    /**
+     * Index of the doubtful target matches.
+     */
+    public static final int DOUBTFUL = 1;
+    /**
+     * Index of the target matches not validated.
+     */
+    public static final int NOT_VALIDATED = 2;
+    /**
+     * Index of the validated decoy matches.
+     */
+    public static final int VALIDATED_DECOY = 3;
+    /**
+     * Index of the decoy matches not validated.
+     */
+    public static final int NOT_VALIDATED_DECOY = 4;
+    /**
+     * The number of categories.
+     */
+    public static final int N_CATEGORIES = 5;
+    /**
+     * The upper bounds of the bins in ascending order, null for integer bins.
+     */
+    private final double[] upperBounds;
+    /**
+     * The integer value of the first bin of the counts for integer bins.
+     */
+    private int offset = 0;
+    /**
+     * The number of values per category and per bin.
+     */
+    private int[][] counts;
+
+    /**
+     * Constructor for integer bins.
+     */
+    public QcHistogram() {
+
+        upperBounds = null;
+        counts = new int[N_CATEGORIES][0];
+
+    }
+
+    /**
+     * Constructor for bins given by their upper bounds.
+     *
+     * @param upperBounds The upper bounds of the bins in ascending order.
+     */
+    public QcHistogram(
+            double[] upperBounds
+    ) {
+
+        this.upperBounds = upperBounds;
+        counts = new int[N_CATEGORIES][upperBounds.length + 1];
+
+    }
+
+    /**
+     * Returns the category of a match.
+     *
+     * @param matchValidationLevel The validation level of the match.
+     * @param decoy Boolean indicating whether the match is decoy.
+     *
+     * @return The category of the match.
+     */
+    public static int getCategory(
+            MatchValidationLevel matchValidationLevel,
+            boolean decoy
+    ) {
+
+        if (decoy) {
+
+            return matchValidationLevel.isValidated() ? VALIDATED_DECOY : NOT_VALIDATED_DECOY;
+
+        }
+
+        if (matchValidationLevel.isValidated()) {
+
+            return matchValidationLevel == MatchValidationLevel.confident ? CONFIDENT : DOUBTFUL;
+
+        }
+
+        return NOT_VALIDATED;
+
+    }
+
+    /**
+     * Counts a value.
+     *
+     * @param category The category of the match.
+     * @param value The value.
+     */
+    public void add(
+            int category,
+            double value
+    ) {
+
+        int bin = getBin(value);
+
+        if (upperBounds == null) {
+
+            ensureCapacity(bin);
+            bin -= offset;
+
+        }
+
+        counts[category][bin]++;
+
+    }
+
+    /**
+     * Removes a value previously counted.
+     *
+     * @param category The category of the match.
+     * @param value The value.
+     */
+    public void remove(
+            int category,
+            double value
+    ) {
+
+        int bin = getBin(value);
+
+        if (upperBounds == null) {
+
+            bin -= offset;
+
+            if (bin < 0 || bin >= counts[category].length) {
+
+                throw new IllegalArgumentException("Value " + value + " not found in histogram.");
+
+            }
+        }
+
+        counts[category][bin]--;
+
+    }
+
+    /**
+     * Adds the counts of another histogram with the same bins to this
+     * histogram.
+     *
+     * @param other The other histogram.
+     */
+    public void merge(
+            QcHistogram other
+    ) {
+
+        int otherLength = other.counts[0].length;
+
+        if (upperBounds == null && otherLength > 0) {
+
+            ensureCapacity(other.offset);
+            ensureCapacity(other.offset + otherLength - 1);
+
+        }
+
+        int shift = upperBounds == null ? other.offset - offset : 0;
+
+        for (int category = 0; category < N_CATEGORIES; category++) {
+
+            for (int i = 0; i < otherLength; i++) {
+
+                counts[category][i + shift] += other.counts[category][i];
+
+            }
+        }
+    }
+
+    /**
+     * Returns the number of values of the given category in the bins of a
+     * plot. A value is counted in the first bin it is lower than or equal to,
+     * the last element of the returned array contains the values greater than
+     * all bins.
+     *
+     * @param category The category.
+     * @param bins The upper bounds of the bins in ascending order.
+     *
+     * @return The number of values per bin.
+     */
+    public int[] getBinCounts(
+            int category,
+            ArrayList<Double> bins
+    ) {
+
+        int[] result = new int[bins.size() + 1];
+        int[] categoryCounts = counts[category];
+
+        for (int i = 0; i < categoryCounts.length; i++) {
+
+            if (categoryCounts[i] != 0) {
+
+                int plotBin = bins.size();
+
+                if (upperBounds == null || i < upperBounds.length) {
+
+                    double upperBound = upperBounds == null ? offset + i : upperBounds[i];
+                    plotBin = getPlotBin(upperBound, bins);
+
+                }
+
+                result[plotBin] += categoryCounts[i];
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the upper bounds of the bins, null for integer bins.
+     *
+     * @return The upper bounds of the bins.
+     */
+    public double[] getUpperBounds() {
+
+        return upperBounds;
+
+    }
+
+    /**
+     * Returns the index of the plot bin of the given value.
+     *
+     * @param value The value.
+     * @param bins The upper bounds of the plot bins in ascending order.
+     *
+     * @return The index of the plot bin.
+     */
+    private static int getPlotBin(
+            double value,
+            ArrayList<Double> bins
+    ) {
+
+        for (int j = 0; j < bins.size(); j++) {
+
+            if (value <= bins.get(j)) {
+
+                return j;
+
+            }
+        }
+
+        return bins.size();
+
+    }
+
+    /**
+     * Returns the bin of the given value, for integer bins the integer value
+     * of the bin.
+     *
+     * @param value The value.
+     *
+     * @return The bin of the value.
+     */
+    private int getBin(
+            double value
+    ) {
+
+        if (upperBounds == null) {
+
+            return (int) Math.ceil(value);
+
+        }
+
+        // NaN is not lower than or equal to any bound
+        if (Double.isNaN(value)) {
+
+            return upperBounds.length;
+
+        }
+
+        // first upper bound greater than or equal to the value
+        int low = 0;
+        int high = upperBounds.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (upperBounds[middle] < value) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        return low;
+
+    }
+
+    /**
+     * Makes sure that the counts of integer bins cover the given integer
+     * value.
+     *
+     * @param bin The integer value of the bin.
+     */
+    private void ensureCapacity(
+            int bin
+    ) {
+
+        int length = counts[0].length;
+
+        if (length == 0) {
+
+            offset = bin;
+
+            for (int category = 0; category < N_CATEGORIES; category++) {
+
+                counts[category] = new int[1];
+
+            }
+
+        } else if (bin < offset) {
+
+            int shift = Math.max(offset - bin, length);
+
+            for (int category = 0; category < N_CATEGORIES; category++) {
+
+                int[] newCounts = new int[length + shift];
+                System.arraycopy(counts[category], 0, newCounts, shift, length);
+                counts[category] = newCounts;
+
+            }
+
+            offset -= shift;
+
+        } else if (bin >= offset + length) {
+
+            int newLength = Math.max(bin - offset + 1, 2 * length);
+
+            for (int category = 0; category < N_CATEGORIES; category++) {
+
+                counts[category] = Arrays.copyOf(counts[category], newLength);
+
+            }
+        }
+    }
+}
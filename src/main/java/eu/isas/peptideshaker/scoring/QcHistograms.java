@@ -0,0 +1,766 @@
+package eu.isas.peptideshaker.scoring;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.enzymes.Enzyme;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.features.IdentificationFeaturesGenerator;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
+import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.utils.PeptideUtils;
+import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.parameters.identification.search.DigestionParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+/**
+ * The histograms of the quality control metrics of a project. The histograms
+ * are filled while validating the matches and stored in the project, so that
+ * the quality control plots do not need to iterate the matches. Hidden
+ * matches are not counted, the contribution of a match must hence be removed
+ * before changing its hidden status, and added back after.
+ *
+ * @author Marc Vaudel
+ */
+public class QcHistograms extends ExperimentObject implements UrParameter {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = 6094163985241734521L;
+    /**
+     * The key of the object when stored in a psdb file.
+     */
+    public static final long KEY = ExperimentObject.asLong("PeptideShaker_qc_histograms");
+    /**
+     * Empty histograms to use as key for the identification parameters.
+     */
+    public static final QcHistograms dummy = new QcHistograms();
+    /**
+     * The number of precursor m/z error bins on each side of zero.
+     */
+    private static final int N_PRECURSOR_ERROR_BINS = 20;
+    /**
+     * The number of spectrum counting bins above zero.
+     */
+    private static final int N_SPECTRUM_COUNTING_BINS = 20;
+
+    /**
+     * The quality control metrics.
+     */
+    public enum Metric {
+
+        /**
+         * The precursor m/z error of the PSMs.
+         */
+        psmPrecursorError,
+        /**
+         * The precursor charge of the PSMs.
+         */
+        psmPrecursorCharge,
+        /**
+         * The number of validated PSMs of the peptides.
+         */
+        peptideValidatedPsms,
+        /**
+         * The number of missed cleavages of the peptides.
+         */
+        peptideMissedCleavages,
+        /**
+         * The length of the peptides.
+         */
+        peptideLength,
+        /**
+         * The number of validated peptides of the proteins.
+         */
+        proteinValidatedPeptides,
+        /**
+         * The spectrum counting of the proteins.
+         */
+        proteinSpectrumCounting,
+        /**
+         * The validated sequence coverage of the proteins in percent.
+         */
+        proteinSequenceCoverage,
+        /**
+         * The sequence length of the proteins.
+         */
+        proteinSequenceLength;
+
+    }
+
+    /**
+     * The histograms of the different metrics.
+     */
+    private final EnumMap<Metric, QcHistogram> histograms = new EnumMap<>(Metric.class);
+
+    /**
+     * Empty default constructor.
+     */
+    public QcHistograms() {
+
+    }
+
+    /**
+     * Constructor. Creates empty histograms for all metrics except spectrum
+     * counting, which depends on the spectrum counting parameters and scaling
+     * factors and is hence set separately once these are set.
+     *
+     * @param searchParameters The search parameters.
+     */
+    public QcHistograms(
+            SearchParameters searchParameters
+    ) {
+
+        histograms.put(
+                Metric.psmPrecursorError,
+                new QcHistogram(toArray(getPrecursorErrorBins(searchParameters.getPrecursorAccuracy())))
+        );
+        histograms.put(Metric.psmPrecursorCharge, new QcHistogram());
+        histograms.put(Metric.peptideValidatedPsms, new QcHistogram());
+        histograms.put(Metric.peptideMissedCleavages, new QcHistogram());
+        histograms.put(Metric.peptideLength, new QcHistogram());
+        histograms.put(Metric.proteinValidatedPeptides, new QcHistogram());
+        histograms.put(
+                Metric.proteinSequenceCoverage,
+                new QcHistogram(toArray(getSequenceCoverageBins()))
+        );
+        histograms.put(Metric.proteinSequenceLength, new QcHistogram());
+
+    }
+
+    /**
+     * Returns the bins of the precursor m/z error plot.
+     *
+     * @param precursorAccuracy The precursor m/z tolerance.
+     *
+     * @return The upper bounds of the bins in ascending order.
+     */
+    public static ArrayList<Double> getPrecursorErrorBins(
+            double precursorAccuracy
+    ) {
+
+        ArrayList<Double> bins = new ArrayList<>(2 * N_PRECURSOR_ERROR_BINS + 1);
+
+        for (int i = -N_PRECURSOR_ERROR_BINS; i <= N_PRECURSOR_ERROR_BINS; i++) {
+
+            bins.add(i * precursorAccuracy / N_PRECURSOR_ERROR_BINS);
+
+        }
+
+        return bins;
+
+    }
+
+    /**
+     * Returns the bins of the validated sequence coverage plot in percent.
+     *
+     * @return The upper bounds of the bins in ascending order.
+     */
+    public static ArrayList<Double> getSequenceCoverageBins() {
+
+        ArrayList<Double> bins = new ArrayList<>(10);
+
+        for (int i = 0; i < 10; i++) {
+
+            bins.add(10.0 * i);
+
+        }
+
+        return bins;
+
+    }
+
+    /**
+     * Returns the bins of the spectrum counting plot. The range of the plot
+     * is set from the maximal spectrum counting.
+     *
+     * @param maxValue The maximal spectrum counting.
+     *
+     * @return The upper bounds of the bins in ascending order.
+     */
+    public static ArrayList<Double> getSpectrumCountingBins(
+            double maxValue
+    ) {
+
+        double tempMaxValue; // @TODO: support scientific x-axis for spectrum counting plot?
+
+        // try to find a suitable range
+        if (maxValue < 0.25) {
+            tempMaxValue = 0.25;
+        } else if (maxValue < 0.5) {
+            tempMaxValue = 0.5;
+        } else if (maxValue < 1) {
+            tempMaxValue = 1;
+        } else if (maxValue < 5) {
+            tempMaxValue = 5;
+        } else if (maxValue < 10) {
+            tempMaxValue = 10;
+        } else if (maxValue < 25) {
+            tempMaxValue = 25;
+        } else if (maxValue < 50) {
+            tempMaxValue = 50;
+        } else if (maxValue < 100) {
+            tempMaxValue = 100;
+        } else {
+            tempMaxValue = Math.ceil(maxValue);
+        }
+
+        ArrayList<Double> bins = new ArrayList<>(N_SPECTRUM_COUNTING_BINS + 1);
+
+        for (int i = 0; i <= N_SPECTRUM_COUNTING_BINS; i++) {
+
+            double bin = i * tempMaxValue / N_SPECTRUM_COUNTING_BINS;
+            bins.add(Util.roundDouble(bin, 4));
+
+        }
+
+        return bins;
+
+    }
+
+    /**
+     * Returns the precursor m/z error of the best peptide assumption of the
+     * given spectrum match. The mass of the peptide must be set.
+     *
+     * @param spectrumMatch The spectrum match.
+     * @param spectrumProvider The spectrum provider.
+     * @param searchParameters The search parameters.
+     *
+     * @return The precursor m/z error.
+     */
+    public static double getPrecursorError(
+            SpectrumMatch spectrumMatch,
+            SpectrumProvider spectrumProvider,
+            SearchParameters searchParameters
+    ) {
+
+        double precursorMz = spectrumProvider.getPrecursorMz(
+                spectrumMatch.getSpectrumFile(),
+                spectrumMatch.getSpectrumTitle()
+        );
+
+        return spectrumMatch.getBestPeptideAssumption().getDeltaMz(
+                precursorMz,
+                searchParameters.isPrecursorAccuracyTypePpm(),
+                searchParameters.getMinIsotopicCorrection(),
+                searchParameters.getMaxIsotopicCorrection()
+        );
+    }
+
+    /**
+     * Returns the number of validated PSMs of the given peptide match that
+     * are not hidden.
+     *
+     * @param peptideMatch The peptide match.
+     * @param identification The identification.
+     *
+     * @return The number of validated PSMs that are not hidden.
+     */
+    public static int getNValidatedPsms(
+            PeptideMatch peptideMatch,
+            Identification identification
+    ) {
+
+        int nValidatedPsms = 0;
+
+        for (long spectrumMatchKey : peptideMatch.getSpectrumMatchesKeys()) {
+
+            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumMatchKey);
+            PSParameter spectrumParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+
+            if (spectrumParameter.getMatchValidationLevel().isValidated() && !spectrumParameter.getHidden()) {
+
+                nValidatedPsms++;
+
+            }
+        }
+
+        return nValidatedPsms;
+
+    }
+
+    /**
+     * Counts the metrics of the given spectrum match. Hidden matches and
+     * matches without peptide are ignored.
+     *
+     * @param spectrumMatch The spectrum match.
+     * @param precursorError The precursor m/z error of the best peptide
+     * assumption.
+     * @param sequenceProvider The sequence provider.
+     */
+    public synchronized void addSpectrumMatch(
+            SpectrumMatch spectrumMatch,
+            double precursorError,
+            SequenceProvider sequenceProvider
+    ) {
+
+        countSpectrumMatch(spectrumMatch, precursorError, sequenceProvider, true);
+
+    }
+
+    /**
+     * Removes the metrics of the given spectrum match. Hidden matches and
+     * matches without peptide are ignored.
+     *
+     * @param spectrumMatch The spectrum match.
+     * @param precursorError The precursor m/z error of the best peptide
+     * assumption.
+     * @param sequenceProvider The sequence provider.
+     */
+    public synchronized void removeSpectrumMatch(
+            SpectrumMatch spectrumMatch,
+            double precursorError,
+            SequenceProvider sequenceProvider
+    ) {
+
+        countSpectrumMatch(spectrumMatch, precursorError, sequenceProvider, false);
+
+    }
+
+    /**
+     * Counts the metrics of the given peptide match. Hidden matches are
+     * ignored.
+     *
+     * @param peptideMatch The peptide match.
+     * @param nValidatedPsms The number of validated PSMs of the peptide that
+     * are not hidden.
+     * @param sequenceProvider The sequence provider.
+     * @param digestionParameters The digestion parameters.
+     */
+    public synchronized void addPeptideMatch(
+            PeptideMatch peptideMatch,
+            int nValidatedPsms,
+            SequenceProvider sequenceProvider,
+            DigestionParameters digestionParameters
+    ) {
+
+        countPeptideMatch(peptideMatch, nValidatedPsms, sequenceProvider, digestionParameters, true);
+
+    }
+
+    /**
+     * Removes the metrics of the given peptide match. Hidden matches are
+     * ignored.
+     *
+     * @param peptideMatch The peptide match.
+     * @param nValidatedPsms The number of validated PSMs of the peptide that
+     * are not hidden when the match was counted.
+     * @param sequenceProvider The sequence provider.
+     * @param digestionParameters The digestion parameters.
+     */
+    public synchronized void removePeptideMatch(
+            PeptideMatch peptideMatch,
+            int nValidatedPsms,
+            SequenceProvider sequenceProvider,
+            DigestionParameters digestionParameters
+    ) {
+
+        countPeptideMatch(peptideMatch, nValidatedPsms, sequenceProvider, digestionParameters, false);
+
+    }
+
+    /**
+     * Counts the metrics of the given protein match except spectrum counting.
+     * Hidden and decoy matches are ignored.
+     *
+     * @param proteinMatch The protein match.
+     * @param identificationFeaturesGenerator The identification features
+     * generator.
+     * @param sequenceProvider The sequence provider.
+     */
+    public synchronized void addProteinMatch(
+            ProteinMatch proteinMatch,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider
+    ) {
+
+        countProteinMatch(proteinMatch, identificationFeaturesGenerator, sequenceProvider, true);
+
+    }
+
+    /**
+     * Removes the metrics of the given protein match except spectrum
+     * counting. Hidden and decoy matches are ignored.
+     *
+     * @param proteinMatch The protein match.
+     * @param identificationFeaturesGenerator The identification features
+     * generator.
+     * @param sequenceProvider The sequence provider.
+     */
+    public synchronized void removeProteinMatch(
+            ProteinMatch proteinMatch,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider
+    ) {
+
+        countProteinMatch(proteinMatch, identificationFeaturesGenerator, sequenceProvider, false);
+
+    }
+
+    /**
+     * Sets the histogram of the spectrum counting of the given protein
+     * matches. Hidden matches are ignored, decoy matches are counted as they
+     * can set the range of the plot. The bins depend on the maximal spectrum
+     * counting, the histogram must hence be set again when the hidden status
+     * of protein matches changes. The histogram is not set if the process is
+     * canceled.
+     *
+     * @param proteinMatchesIterator An iterator of the protein matches.
+     * @param identificationFeaturesGenerator The identification features
+     * generator.
+     * @param waitingHandler The waiting handler.
+     */
+    public void setProteinSpectrumCounting(
+            ProteinMatchesIterator proteinMatchesIterator,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            WaitingHandler waitingHandler
+    ) {
+
+        int[] categories = new int[16];
+        double[] values = new double[16];
+        int nValues = 0;
+        double maxValue = Double.MIN_VALUE;
+
+        ProteinMatch proteinMatch;
+
+        while ((proteinMatch = proteinMatchesIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
+            PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+
+            if (!psParameter.getHidden()) {
+
+                double value = identificationFeaturesGenerator.getSpectrumCounting(proteinMatch.getKey());
+
+                if (value > maxValue) {
+
+                    maxValue = value;
+
+                }
+
+                if (nValues == values.length) {
+
+                    categories = Arrays.copyOf(categories, 2 * nValues);
+                    values = Arrays.copyOf(values, 2 * nValues);
+
+                }
+
+                categories[nValues] = QcHistogram.getCategory(psParameter.getMatchValidationLevel(), proteinMatch.isDecoy());
+                values[nValues] = value;
+                nValues++;
+
+            }
+
+            waitingHandler.increasePrimaryProgressCounter();
+
+        }
+
+        if (waitingHandler.isRunCanceled()) {
+
+            return;
+
+        }
+
+        QcHistogram histogram = new QcHistogram(toArray(getSpectrumCountingBins(maxValue)));
+
+        for (int i = 0; i < nValues; i++) {
+
+            histogram.add(categories[i], values[i]);
+
+        }
+
+        synchronized (this) {
+
+            histograms.put(Metric.proteinSpectrumCounting, histogram);
+
+        }
+    }
+
+    /**
+     * Adds the counts of the given histograms to these histograms.
+     *
+     * @param other The other histograms.
+     */
+    public synchronized void merge(
+            QcHistograms other
+    ) {
+
+        for (Entry<Metric, QcHistogram> entry : other.histograms.entrySet()) {
+
+            QcHistogram histogram = histograms.get(entry.getKey());
+
+            if (histogram == null) {
+
+                histograms.put(entry.getKey(), entry.getValue());
+
+            } else {
+
+                histogram.merge(entry.getValue());
+
+            }
+        }
+    }
+
+    /**
+     * Replaces the histograms of the given metrics by the ones of the given
+     * histograms.
+     *
+     * @param other The other histograms.
+     * @param metrics The metrics to replace.
+     */
+    public synchronized void set(
+            QcHistograms other,
+            Metric... metrics
+    ) {
+
+        for (Metric metric : metrics) {
+
+            QcHistogram histogram = other.histograms.get(metric);
+
+            if (histogram == null) {
+
+                histograms.remove(metric);
+
+            } else {
+
+                histograms.put(metric, histogram);
+
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of the given metric, null if not available.
+     *
+     * @param metric The metric.
+     *
+     * @return The histogram of the given metric.
+     */
+    public synchronized QcHistogram get(
+            Metric metric
+    ) {
+
+        return histograms.get(metric);
+
+    }
+
+    /**
+     * Removes the histograms of the given metrics.
+     *
+     * @param metrics The metrics.
+     */
+    public synchronized void remove(
+            Metric... metrics
+    ) {
+
+        for (Metric metric : metrics) {
+
+            histograms.remove(metric);
+
+        }
+    }
+
+    /**
+     * Adds or removes the metrics of the given spectrum match.
+     *
+     * @param spectrumMatch The spectrum match.
+     * @param precursorError The precursor m/z error of the best peptide
+     * assumption.
+     * @param sequenceProvider The sequence provider.
+     * @param add Boolean indicating whether the metrics should be added or
+     * removed.
+     */
+    private void countSpectrumMatch(
+            SpectrumMatch spectrumMatch,
+            double precursorError,
+            SequenceProvider sequenceProvider,
+            boolean add
+    ) {
+
+        PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+        if (psParameter.getHidden() || peptideAssumption == null) {
+
+            return;
+
+        }
+
+        int category = QcHistogram.getCategory(
+                psParameter.getMatchValidationLevel(),
+                PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider)
+        );
+
+        count(Metric.psmPrecursorError, category, precursorError, add);
+        count(Metric.psmPrecursorCharge, category, peptideAssumption.getIdentificationCharge(), add);
+
+    }
+
+    /**
+     * Adds or removes the metrics of the given peptide match.
+     *
+     * @param peptideMatch The peptide match.
+     * @param nValidatedPsms The number of validated PSMs of the peptide that
+     * are not hidden.
+     * @param sequenceProvider The sequence provider.
+     * @param digestionParameters The digestion parameters.
+     * @param add Boolean indicating whether the metrics should be added or
+     * removed.
+     */
+    private void countPeptideMatch(
+            PeptideMatch peptideMatch,
+            int nValidatedPsms,
+            SequenceProvider sequenceProvider,
+            DigestionParameters digestionParameters,
+            boolean add
+    ) {
+
+        PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+
+        if (psParameter.getHidden()) {
+
+            return;
+
+        }
+
+        int category = QcHistogram.getCategory(
+                psParameter.getMatchValidationLevel(),
+                PeptideUtils.isDecoy(peptideMatch.getPeptide(), sequenceProvider)
+        );
+
+        count(Metric.peptideValidatedPsms, category, nValidatedPsms, add);
+
+        String sequence = peptideMatch.getPeptide().getSequence();
+        int missedCleavages = 0;
+
+        if (digestionParameters.getCleavageParameter() == DigestionParameters.CleavageParameter.enzyme) {
+
+            missedCleavages = Integer.MAX_VALUE;
+
+            for (Enzyme enzyme : digestionParameters.getEnzymes()) {
+
+                missedCleavages = Math.min(missedCleavages, enzyme.getNmissedCleavages(sequence));
+
+            }
+
+            if (missedCleavages == Integer.MAX_VALUE) {
+
+                missedCleavages = 0;
+
+            }
+        }
+
+        count(Metric.peptideMissedCleavages, category, missedCleavages, add);
+        count(Metric.peptideLength, category, sequence.length(), add);
+
+    }
+
+    /**
+     * Adds or removes the metrics of the given protein match except spectrum
+     * counting.
+     *
+     * @param proteinMatch The protein match.
+     * @param identificationFeaturesGenerator The identification features
+     * generator.
+     * @param sequenceProvider The sequence provider.
+     * @param add Boolean indicating whether the metrics should be added or
+     * removed.
+     */
+    private void countProteinMatch(
+            ProteinMatch proteinMatch,
+            IdentificationFeaturesGenerator identificationFeaturesGenerator,
+            SequenceProvider sequenceProvider,
+            boolean add
+    ) {
+
+        PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+
+        if (psParameter.getHidden() || proteinMatch.isDecoy()) {
+
+            return;
+
+        }
+
+        long proteinKey = proteinMatch.getKey();
+        int category = QcHistogram.getCategory(psParameter.getMatchValidationLevel(), false);
+
+        count(Metric.proteinValidatedPeptides, category, identificationFeaturesGenerator.getNValidatedPeptides(proteinKey), add);
+
+        HashMap<Integer, Double> sequenceCoverage = identificationFeaturesGenerator.getSequenceCoverage(proteinKey);
+        double validatedCoverage = 100 * sequenceCoverage.get(MatchValidationLevel.confident.getIndex())
+                + 100 * sequenceCoverage.get(MatchValidationLevel.doubtful.getIndex());
+
+        count(Metric.proteinSequenceCoverage, category, validatedCoverage, add);
+        count(Metric.proteinSequenceLength, category, sequenceProvider.getSequence(proteinMatch.getLeadingAccession()).length(), add);
+
+    }
+
+    /**
+     * Adds or removes a value to the histogram of the given metric. Metrics
+     * without histogram are ignored.
+     *
+     * @param metric The metric.
+     * @param category The category of the match.
+     * @param value The value.
+     * @param add Boolean indicating whether the value should be added or
+     * removed.
+     */
+    private void count(
+            Metric metric,
+            int category,
+            double value,
+            boolean add
+    ) {
+
+        QcHistogram histogram = histograms.get(metric);
+
+        if (histogram != null) {
+
+            if (add) {
+
+                histogram.add(category, value);
+
+            } else {
+
+                histogram.remove(category, value);
+
+            }
+        }
+    }
+
+    /**
+     * Returns the given bins as array.
+     *
+     * @param bins The bins.
+     *
+     * @return The bins as array.
+     */
+    private static double[] toArray(
+            ArrayList<Double> bins
+    ) {
+
+        return bins.stream()
+                .mapToDouble(a -> a)
+                .toArray();
+
+    }
+
+    @Override
+    public long getParameterKey() {
+
+        return KEY;
+
+    }
+}
@@ -3,11 +3,16 @@ package eu.isas.peptideshaker.scoring.maps;
 import com.compomics.util.parameters.identification.advanced.PsmScoringParameters;
 import com.compomics.util.waiting.WaitingHandler;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
@@ -55,6 +60,12 @@ public class InputMap implements Serializable {
      * PeptideShaker unique contribution.
      */
     private HashMap<String, Integer> peptideShakerUniqueContribution;
+    /**
+     * The contributions added concurrently and not yet merged in the
+     * contribution maps. Volatile as it is read outside of the lock when
+     * contributions are added.
+     */
+    private transient volatile PendingContributions pendingContributions;
 
     /**
      * Returns true for multiple search engines investigations.
@@ -399,6 +410,8 @@ public class InputMap implements Serializable {
             String fileName
     ) {
 
+        mergePendingContributions();
+
         if (advocateContribution == null) {
 
             advocateContribution = new HashMap<>();
@@ -431,6 +444,8 @@ public class InputMap implements Serializable {
      */
     public void resetAdvocateContributions() {
 
+        mergePendingContributions();
+
         if (advocateContribution == null) {
 
             advocateContribution = new HashMap<>();
@@ -473,102 +488,213 @@ public class InputMap implements Serializable {
     }
 
     /**
-     * Adds an advocate contribution.
+     * Adds an advocate contribution. This method can be called concurrently,
+     * the contributions are merged before being read.
      *
      * @param advocateId the index of the advocate
      * @param fileName the name of the spectrum file of interest
      * @param unique boolean indicating whether the advocate was the only
      * advocate for the considered assumption
      */
-    public synchronized void addAdvocateContribution(
+    public void addAdvocateContribution(
             int advocateId,
             String fileName,
             boolean unique
     ) {
 
-        HashMap<String, Integer> advocateContributions = advocateContribution.get(advocateId);
+        PendingContributions pending = getPendingContributions();
+
+        getCounter(getCounters(pending.advocateContribution, advocateId), fileName).increment();
 
-        if (advocateContributions == null) {
+        if (unique) {
 
-            advocateContributions = new HashMap<>();
-            advocateContribution.put(advocateId, advocateContributions);
+            getCounter(getCounters(pending.advocateUniqueContribution, advocateId), fileName).increment();
 
         }
+    }
 
-        Integer contribution = advocateContributions.get(fileName);
+    /**
+     * Adds a PeptideShaker hit for the given file. This method can be called
+     * concurrently, the hits are merged before being read.
+     *
+     * @param fileName the name of the spectrum file of interest
+     * @param unique boolean indicating whether the advocate was the only
+     * advocate for the considered assumption
+     */
+    public void addPeptideShakerHit(
+            String fileName,
+            boolean unique
+    ) {
 
-        if (contribution == null) {
+        PendingContributions pending = getPendingContributions();
 
-            advocateContributions.put(fileName, 1);
+        getCounter(pending.fileIdRate, fileName).increment();
 
-        } else {
+        if (unique) {
 
-            advocateContributions.put(fileName, contribution + 1);
+            getCounter(pending.peptideShakerUniqueContribution, fileName).increment();
 
         }
+    }
 
-        if (unique) {
+    /**
+     * Returns the pending contributions, creates them if needed.
+     *
+     * @return the pending contributions
+     */
+    private PendingContributions getPendingContributions() {
 
-            HashMap<String, Integer> advocateUniqueContributions = advocateUniqueContribution.get(advocateId);
+        PendingContributions result = pendingContributions;
 
-            if (advocateUniqueContributions == null) {
+        if (result == null) {
 
-                advocateUniqueContributions = new HashMap<>();
-                advocateUniqueContribution.put(advocateId, advocateUniqueContributions);
+            synchronized (this) {
+
+                if (pendingContributions == null) {
+
+                    pendingContributions = new PendingContributions();
+
+                }
+
+                result = pendingContributions;
 
             }
+        }
 
-            Integer uniqueContribution = advocateUniqueContributions.get(fileName);
+        return result;
 
-            if (uniqueContribution == null) {
+    }
 
-                advocateUniqueContributions.put(fileName, 1);
+    /**
+     * Returns the counters of the given advocate, creates them if needed.
+     *
+     * @param advocateCounters the counters of all advocates
+     * @param advocateId the index of the advocate
+     *
+     * @return the counters of the given advocate
+     */
+    private static ConcurrentHashMap<String, LongAdder> getCounters(
+            ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder>> advocateCounters,
+            int advocateId
+    ) {
 
-            } else {
+        ConcurrentHashMap<String, LongAdder> counters = advocateCounters.get(advocateId);
 
-                advocateUniqueContributions.put(fileName, uniqueContribution + 1);
+        return counters != null ? counters
+                : advocateCounters.computeIfAbsent(advocateId, key -> new ConcurrentHashMap<>(2));
 
-            }
-        }
     }
 
     /**
-     * Adds a PeptideShaker hit for the given file.
+     * Returns the counter of the given file, creates it if needed.
      *
-     * @param fileName the name of the spectrum file of interest
-     * @param unique boolean indicating whether the advocate was the only
-     * advocate for the considered assumption
+     * @param counters the counters of all files
+     * @param fileName the name of the spectrum file
+     *
+     * @return the counter of the given file
      */
-    public synchronized void addPeptideShakerHit(
-            String fileName,
-            boolean unique
+    private static LongAdder getCounter(
+            ConcurrentHashMap<String, LongAdder> counters,
+            String fileName
     ) {
 
-        Integer contribution = fileIdRate.get(fileName);
+        LongAdder counter = counters.get(fileName);
 
-        if (contribution == null) {
+        return counter != null ? counter
+                : counters.computeIfAbsent(fileName, key -> new LongAdder());
 
-            fileIdRate.put(fileName, 1);
+    }
 
-        } else {
+    /**
+     * Merges the contributions added concurrently in the contribution maps.
+     * Contributions should not be added while merging.
+     */
+    private synchronized void mergePendingContributions() {
+
+        PendingContributions pending = pendingContributions;
+
+        if (pending == null) {
 
-            fileIdRate.put(fileName, contribution + 1);
+            return;
 
         }
 
-        if (unique) {
+        pendingContributions = null;
+
+        if (advocateContribution == null) {
+
+            advocateContribution = new HashMap<>();
+
+        }
 
-            contribution = peptideShakerUniqueContribution.get(fileName);
+        if (advocateUniqueContribution == null) {
+
+            advocateUniqueContribution = new HashMap<>();
+
+        }
+
+        if (fileIdRate == null) {
+
+            fileIdRate = new HashMap<>();
+
+        }
+
+        if (peptideShakerUniqueContribution == null) {
 
-            if (contribution == null) {
+            peptideShakerUniqueContribution = new HashMap<>();
 
-                peptideShakerUniqueContribution.put(fileName, 1);
+        }
 
-            } else {
+        mergeAdvocateCounters(pending.advocateContribution, advocateContribution);
+        mergeAdvocateCounters(pending.advocateUniqueContribution, advocateUniqueContribution);
+        mergeCounters(pending.fileIdRate, fileIdRate);
+        mergeCounters(pending.peptideShakerUniqueContribution, peptideShakerUniqueContribution);
 
-                peptideShakerUniqueContribution.put(fileName, contribution + 1);
+    }
+
+    /**
+     * Adds the counts of the given advocate counters to the given advocate
+     * contribution map.
+     *
+     * @param advocateCounters the counters of all advocates
+     * @param advocateContributions the contribution map of all advocates
+     */
+    private static void mergeAdvocateCounters(
+            ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder>> advocateCounters,
+            HashMap<Integer, HashMap<String, Integer>> advocateContributions
+    ) {
+
+        for (Entry<Integer, ConcurrentHashMap<String, LongAdder>> entry : advocateCounters.entrySet()) {
+
+            HashMap<String, Integer> contributions = advocateContributions.get(entry.getKey());
+
+            if (contributions == null) {
+
+                contributions = new HashMap<>();
+                advocateContributions.put(entry.getKey(), contributions);
 
             }
+
+            mergeCounters(entry.getValue(), contributions);
+
+        }
+    }
+
+    /**
+     * Adds the counts of the given counters to the given contribution map.
+     *
+     * @param counters the counters of all files
+     * @param contributions the contribution map of all files
+     */
+    private static void mergeCounters(
+            ConcurrentHashMap<String, LongAdder> counters,
+            HashMap<String, Integer> contributions
+    ) {
+
+        for (Entry<String, LongAdder> entry : counters.entrySet()) {
+
+            contributions.merge(entry.getKey(), entry.getValue().intValue(), Integer::sum);
+
         }
     }
 
@@ -586,6 +712,8 @@ public class InputMap implements Serializable {
             String fileName
     ) {
 
+        mergePendingContributions();
+
         HashMap<String, Integer> advocateContributions = advocateContribution.get(advocateId);
 
         if (advocateContributions != null) {
@@ -614,6 +742,8 @@ public class InputMap implements Serializable {
             String fileName
     ) {
 
+        mergePendingContributions();
+
         Integer contribution = fileIdRate.get(fileName);
 
         if (contribution != null) {
@@ -638,6 +768,8 @@ public class InputMap implements Serializable {
             int advocateId
     ) {
 
+        mergePendingContributions();
+
         HashMap<String, Integer> advocateContributions = advocateContribution.get(advocateId);
 
         if (advocateContributions != null) {
@@ -666,6 +798,8 @@ public class InputMap implements Serializable {
      */
     public int getPeptideShakerHits() {
 
+        mergePendingContributions();
+
         int contribution = 0;
 
         for (int tempContribution : fileIdRate.values()) {
@@ -692,6 +826,8 @@ public class InputMap implements Serializable {
             String fileName
     ) {
 
+        mergePendingContributions();
+
         HashMap<String, Integer> advocateContributions = advocateUniqueContribution.get(advocateId);
 
         if (advocateContributions != null) {
@@ -721,6 +857,8 @@ public class InputMap implements Serializable {
             String fileName
     ) {
 
+        mergePendingContributions();
+
         Integer contribution = peptideShakerUniqueContribution.get(fileName);
 
         if (contribution != null) {
@@ -745,6 +883,8 @@ public class InputMap implements Serializable {
             int advocateId
     ) {
 
+        mergePendingContributions();
+
         HashMap<String, Integer> advocateContributions = advocateUniqueContribution.get(advocateId);
 
         return advocateContributions == null ? 0
@@ -761,7 +901,9 @@ public class InputMap implements Serializable {
      * @return the number of validated hits uniquely supported by this advocate
      */
     public int getPeptideShakerUniqueContribution() {
-        
+
+        mergePendingContributions();
+
         return peptideShakerUniqueContribution.values().stream()
                 .mapToInt(a -> a)
                 .sum();
@@ -788,7 +930,9 @@ public class InputMap implements Serializable {
      * present in this map
      */
     public boolean hasAdvocateContribution() {
-        
+
+        mergePendingContributions();
+
         return advocateContribution != null;
     
     }
@@ -957,4 +1101,46 @@ public class InputMap implements Serializable {
     
     }
 
+    /**
+     * Merges the pending contributions before serialization.
+     *
+     * @param outputStream the stream to write to
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the object
+     */
+    private void writeObject(
+            ObjectOutputStream outputStream
+    ) throws IOException {
+
+        mergePendingContributions();
+        outputStream.defaultWriteObject();
+
+    }
+
+    /**
+     * Contributions added concurrently and not yet merged. Counters are
+     * striped to avoid contention between threads.
+     */
+    private static class PendingContributions {
+
+        /**
+         * Advocate Id &gt; Spectrum file name &gt; number of validated hits.
+         */
+        private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder>> advocateContribution = new ConcurrentHashMap<>(4);
+        /**
+         * Advocate Id &gt; Spectrum file name &gt; number of validated hits
+         * found by this advocate only.
+         */
+        private final ConcurrentHashMap<Integer, ConcurrentHashMap<String, LongAdder>> advocateUniqueContribution = new ConcurrentHashMap<>(4);
+        /**
+         * Spectrum file name &gt; PeptideShaker number of validated hits.
+         */
+        private final ConcurrentHashMap<String, LongAdder> fileIdRate = new ConcurrentHashMap<>(2);
+        /**
+         * Spectrum file name &gt; PeptideShaker unique contribution.
+         */
+        private final ConcurrentHashMap<String, LongAdder> peptideShakerUniqueContribution = new ConcurrentHashMap<>(2);
+
+    }
 }
@@ -28,6 +28,7 @@ import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -119,7 +120,8 @@ public class PsmScorer {
         waitingHandler.setMaxSecondaryProgressCounter(identification.getSpectrumIdentificationSize());
 
         ExecutorService pool = Executors.newFixedThreadPool(processingParameters.getnThreads());
-        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(null);
+        long[] spectrumMatchKeys = new SpectrumMatchKeysQueue(identification, spectrumProvider).getKeys();
+        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(spectrumMatchKeys, null);
         ArrayList<PsmScorerRunnable> psmScorerRunnables = new ArrayList<>(processingParameters.getnThreads());
 
         for (int i = 1; i <= processingParameters.getnThreads() && !waitingHandler.isRunCanceled(); i++) {
@@ -1,625 +1,1019 @@
-package eu.isas.peptideshaker.scoring.targetdecoy;
-
-import com.compomics.util.experiment.personalization.ExperimentObject;
-import com.compomics.util.waiting.WaitingHandler;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-
-/**
- * This map contains the information of a target/decoy strategy.
- *
- * @author Marc Vaudel
- */
-public class TargetDecoyMap extends ExperimentObject {
-
-    /**
-     * Serial version UID for post-serialization compatibility.
-     */
-    static final long serialVersionUID = 7333389442377322662L;
-    /**
-     * The hit map containing the indexed target/decoy points.
-     */
-    private HashMap<Double, TargetDecoyPoint> hitMap = new HashMap<>();
-    /**
-     * The scores imported in the map.
-     */
-    private ArrayList<Double> scores;
-    /**
-     * The number of decoy matches to include in the first bin to set the bin
-     * size nmax. Two means that two consecutive decoys will be used.
-     */
-    private Integer minDecoysInBin = 2;
-    /**
-     * The bin size, by default the maximal number of target hits comprised
-     * between minDecoysInBin subsequent decoy hits.
-     */
-    private Integer nmax;
-    /**
-     * The window size for pep estimation.
-     */
-    private Integer windowSize;
-    /**
-     * The number of target hits found before the first decoy hit.
-     */
-    private Integer nTargetOnly;
-    /**
-     * The minimal FDR which can be achieved on the dataset.
-     */
-    private double minFDR = 1.0;
-    /**
-     * The results computed on this map.
-     */
-    private TargetDecoyResults targetDecoyResults = new TargetDecoyResults();
-
-    /**
-     * Constructor.
-     */
-    public TargetDecoyMap() {
-    }
-
-    /**
-     * Constructor.
-     *
-     * @param minDecoysInBin the number of decoy matches to include in the first
-     * bin to set the bin size
-     */
-    public TargetDecoyMap(Integer minDecoysInBin) {
-
-        this.minDecoysInBin = minDecoysInBin;
-
-    }
-
-    /**
-     * Returns the posterior error probability estimated at the given score.
-     *
-     * @param score the given score
-     * @return the estimated posterior error probability
-     */
-    public double getProbability(double score) {
-
-        TargetDecoyPoint point = hitMap.get(score);
-
-        if (point != null) {
-
-            return point.p;
-
-        } else if (score >= scores.get(scores.size() - 1)) {
-
-            return hitMap.get(scores.get(scores.size() - 1)).p;
-
-        } else {
-
-            int indexDown = 0;
-            int indexUp = scores.size() - 1;
-            int indexTemp;
-
-            while (indexUp - indexDown > 1) {
-
-                indexTemp = (indexUp - indexDown) / 2 + indexDown;
-
-                if (scores.get(indexTemp) > score) {
-
-                    indexUp = indexTemp;
-
-                } else {
-
-                    indexDown = indexTemp;
-
-                }
-            }
-
-            return (hitMap.get(scores.get(indexUp)).p + hitMap.get(scores.get(indexDown)).p) / 2;
-
-        }
-    }
-
-    /**
-     * Returns the number of target hits found at the given score.
-     *
-     * @param score the given score
-     * @return the number of target hits found at the given score
-     */
-    public int getNTarget(double score) {
-
-        return hitMap.get(score).nTarget;
-    }
-
-    /**
-     * Returns the number of decoy hits found at the given score.
-     *
-     * @param score the given score
-     * @return the number of decoy hits found at the given score
-     */
-    public int getNDecoy(double score) {
-        return hitMap.get(score).nDecoy;
-    }
-
-    /**
-     * Puts a new point in the target/decoy map at the given score.
-     *
-     * @param score The given score
-     * @param isDecoy boolean indicating whether the hit is decoy
-     */
-    public void put(double score, boolean isDecoy) {
-
-        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-
-        if (targetDecoyPoint == null) {
-
-            targetDecoyPoint = createTargetDecoyPoint(score);
-
-        }
-
-        if (isDecoy) {
-
-            targetDecoyPoint.increaseDecoy();
-
-        } else {
-
-            targetDecoyPoint.increaseTarget();
-
-        }
-    }
-
-    /**
-     * Creates the target decoy point of the map at the given score if no other
-     * thread has done it before.
-     *
-     * @param score the score of interest
-     *
-     * @return the target decoy point of the map at the given score
-     */
-    public synchronized TargetDecoyPoint createTargetDecoyPoint(double score) {
-
-        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-
-        if (targetDecoyPoint == null) {
-
-            targetDecoyPoint = new TargetDecoyPoint();
-            hitMap.put(score, targetDecoyPoint);
-
-        }
-
-        return targetDecoyPoint;
-
-    }
-
-    /**
-     * Removes a point in the target/decoy map at the given score. Note: it is
-     * necessary to run cleanUp() afterwards to clean up the map.
-     *
-     * @param score the given score
-     * @param isDecoy boolean indicating whether the hit is decoy
-     */
-    public void remove(double score, boolean isDecoy) {
-
-        TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-
-        if (!isDecoy) {
-
-            targetDecoyPoint.decreaseTarget();
-
-        } else {
-
-            targetDecoyPoint.decreaseDecoy();
-
-        }
-    }
-
-    /**
-     * Removes empty points and clears dependent metrics if needed.
-     */
-    public synchronized void cleanUp() {
-
-        boolean removed = false;
-
-        HashSet<Double> currentScores = new HashSet<>(hitMap.keySet());
-
-        for (double score : currentScores) {
-
-            TargetDecoyPoint targetDecoyPoint = hitMap.get(score);
-
-            if (targetDecoyPoint.nTarget == 0
-                    && targetDecoyPoint.nDecoy == 0) {
-
-                hitMap.remove(score);
-                removed = true;
-
-            }
-        }
-
-        if (removed) {
-
-            scores = null;
-            nmax = null;
-            windowSize = null;
-
-        }
-    }
-
-    /**
-     * Estimates the metrics of the map: Nmax, NtargetOnly, minFDR. Scores of 1
-     * and above will be skipped for Nmax.
-     */
-    private void estimateNs() {
-
-        if (scores == null) {
-
-            estimateScores();
-
-        }
-
-        boolean onlyTarget = true;
-        nmax = 0;
-        int targetCpt = 0;
-        int decoyCpt = 0;
-        nTargetOnly = 0;
-        int targetCount = 0, decoyCount = 0;
-
-        for (double score : scores) {
-
-            TargetDecoyPoint point = hitMap.get(score);
-
-            if (onlyTarget) {
-
-                if (point.nDecoy > 0) {
-
-                    nTargetOnly += point.nTarget / 2 + point.nTarget % 2;
-                    targetCpt += point.nTarget / 2;
-                    onlyTarget = false;
-                    decoyCpt += point.nDecoy;
-
-                } else {
-
-                    nTargetOnly += point.nTarget;
-
-                }
-
-            } else if (point.nDecoy > 0) {
-
-                targetCpt += point.nTarget / 2 + point.nTarget % 2;
-                decoyCpt += point.nDecoy;
-
-                if (targetCpt > nmax
-                        && score < 1.0
-                        && decoyCpt >= minDecoysInBin) {
-
-                    nmax = targetCpt;
-
-                }
-
-                targetCpt = point.nTarget / 2;
-                decoyCpt = point.nDecoy;
-
-            } else {
-
-                targetCpt += point.nTarget;
-
-            }
-
-            targetCount += point.nTarget;
-            decoyCount += point.nDecoy;
-
-            if (targetCount > 0) {
-
-                double fdr = ((double) decoyCount) / targetCount;
-
-                if (fdr < minFDR) {
-
-                    minFDR = fdr;
-
-                }
-            }
-        }
-    }
-
-    /**
-     * Estimates the posterior error probabilities in this map.
-     *
-     * @param waitingHandler the handler displaying feedback to the user
-     */
-    public void estimateProbabilities(WaitingHandler waitingHandler) {
-
-        if (scores == null) {
-
-            estimateScores();
-
-        }
-
-        if (nmax == null) {
-
-            estimateNs();
-
-        }
-        if (windowSize == null) {
-
-            windowSize = nmax;
-
-        }
-
-        // estimate p
-        double currentScore = scores.get(0);
-        TargetDecoyPoint tempPoint, previousPoint = hitMap.get(currentScore);
-        double nLimit = 0.5 * windowSize;
-        double nTargetUp = 1.5 * previousPoint.nTarget;
-        double nTargetDown = -0.5 * previousPoint.nTarget;
-        double nDecoy = previousPoint.nDecoy;
-        int iDown = 0;
-        int iUp = 1;
-        boolean oneReached = false;
-
-        for (int i = 0; i < scores.size(); i++) {
-
-            currentScore = scores.get(i);
-            TargetDecoyPoint point = hitMap.get(currentScore);
-
-            if (!oneReached) {
-
-                double change = 0.5 * (previousPoint.nTarget + point.nTarget);
-                nTargetDown += change;
-                nTargetUp -= change;
-
-                while (nTargetDown > nLimit) {
-
-                    if (iDown < i) {
-
-                        tempPoint = hitMap.get(scores.get(iDown));
-                        double nTargetDownTemp = nTargetDown - tempPoint.nTarget;
-
-                        if (nTargetDownTemp >= nLimit) {
-
-                            nDecoy -= tempPoint.nDecoy;
-                            nTargetDown = nTargetDownTemp;
-                            iDown++;
-
-                        } else {
-
-                            break;
-
-                        }
-
-                    } else {
-
-                        break;
-
-                    }
-                }
-
-                while (nTargetUp < nLimit && iUp < scores.size()) {
-
-                    tempPoint = hitMap.get(scores.get(iUp));
-                    nTargetUp += tempPoint.nTarget;
-                    nDecoy += tempPoint.nDecoy;
-                    iUp++;
-
-                }
-
-                double nTarget = nTargetDown + nTargetUp;
-                point.p = Math.max(Math.min(nDecoy / nTarget, 1), 0);
-
-                if (point.p >= 0.98) {
-
-                    oneReached = true;
-
-                }
-
-            } else {
-
-                point.p = 1;
-
-            }
-
-            previousPoint = point;
-
-            waitingHandler.increaseSecondaryProgressCounter();
-
-            if (waitingHandler.isRunCanceled()) {
-
-                return;
-
-            }
-        }
-    }
-
-    /**
-     * Returns the Nmax metric.
-     *
-     * @return the Nmax metric
-     */
-    public int getnMax() {
-
-        if (nmax == null) {
-
-            estimateNs();
-
-        }
-
-        return nmax;
-
-    }
-
-    /**
-     * Returns the minimal FDR which can be achieved in this dataset.
-     *
-     * @return the minimal FDR which can be achieved in this dataset
-     */
-    public double getMinFdr() {
-
-        return minFDR;
-
-    }
-
-    /**
-     * Returns the minimal detectable PEP variation in percent.
-     *
-     * @return the minimal detectable PEP variation in percent
-     */
-    public double getResolution() {
-
-        double pmin = 0;
-        int nMax = getnMax();
-
-        if (nMax != 0) {
-
-            pmin = 100.0 / nMax;
-
-        }
-
-        return pmin;
-
-    }
-
-    /**
-     * Returns the number of target hits before the first decoy hit.
-     *
-     * @return the number of target hits before the first decoy hit
-     */
-    public Integer getnTargetOnly() {
-
-        return nTargetOnly;
-
-    }
-
-    /**
-     * Sorts the scores implemented in this map.
-     */
-    private void estimateScores() {
-
-        scores = new ArrayList<>(hitMap.keySet());
-        Collections.sort(scores);
-
-    }
-
-    /**
-     * Returns the sorted scores implemented in this map.
-     *
-     * @return the sorted scores implemented in this map.
-     */
-    public ArrayList<Double> getScores() {
-
-        if (scores == null) {
-
-            estimateScores();
-
-        }
-
-        return scores;
-
-    }
-
-    /**
-     * Adds all the points from another target/decoy map.
-     *
-     * @param anOtherMap another target/decoy map
-     */
-    public void addAll(TargetDecoyMap anOtherMap) {
-
-        for (double score : anOtherMap.getScores()) {
-
-            for (int i = 0; i < anOtherMap.getNDecoy(score); i++) {
-
-                put(score, true);
-
-            }
-
-            for (int i = 0; i < anOtherMap.getNTarget(score); i++) {
-
-                put(score, false);
-
-            }
-        }
-
-        scores = null;
-        nmax = null;
-        windowSize = null;
-
-    }
-
-    /**
-     * Returns a boolean indicating if a suspicious input was detected.
-     *
-     * @param initialFDR the minimal FDR requested for a group
-     *
-     * @return a boolean indicating if a suspicious input was detected
-     */
-    public boolean suspiciousInput(double initialFDR) {
-
-        if (nmax == null) {
-
-            estimateNs();
-
-        }
-
-        if (nmax < 100 || minFDR > initialFDR) {
-
-            return true;
-
-        }
-
-        return false;
-
-    }
-
-    /**
-     * Returns the current target decoy results.
-     *
-     * @return the current target decoy results
-     */
-    public TargetDecoyResults getTargetDecoyResults() {
-
-        return targetDecoyResults;
-
-    }
-
-    /**
-     * Returns the target decoy series.
-     *
-     * @return the target decoy series
-     */
-    public TargetDecoySeries getTargetDecoySeries() {
-
-        return new TargetDecoySeries(hitMap);
-
-    }
-
-    /**
-     * Returns the window size used for pep estimation.
-     *
-     * @return the window size used for pep estimation
-     */
-    public int getWindowSize() {
-
-        if (windowSize == null) {
-
-            windowSize = getnMax();
-
-        }
-
-        return windowSize;
-
-    }
-
-    /**
-     * Sets the window size used for pep estimation.
-     *
-     * @param windowSize the window size used for pep estimation
-     */
-    public void setWindowSize(int windowSize) {
-
-        this.windowSize = windowSize;
-
-    }
-
-    /**
-     * Returns the size of the map.
-     *
-     * @return the size of the map
-     */
-    public int getMapSize() {
-
-        return hitMap.size();
-
-    }
-}
+package eu.isas.peptideshaker.scoring.targetdecoy;
+
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.waiting.WaitingHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This map contains the information of a target/decoy strategy.
+ *
+ * @author Marc Vaudel
+ */
+public class TargetDecoyMap extends ExperimentObject {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = 7333389442377322662L;
+    /**
+     * The hit map of projects saved with previous versions, converted to the
+     * points arrays when the map is first used.
+     */
+    private HashMap<Double, TargetDecoyPoint> hitMap;
+    /**
+     * The scores of the points of the map in ascending order.
+     */
+    private double[] pointScores;
+    /**
+     * The number of target hits at every point.
+     */
+    private int[] pointTargets;
+    /**
+     * The number of decoy hits at every point.
+     */
+    private int[] pointDecoys;
+    /**
+     * The posterior error probability at every point.
+     */
+    private double[] pointProbabilities;
+    /**
+     * The number of decoy matches to include in the first bin to set the bin
+     * size nmax. Two means that two consecutive decoys will be used.
+     */
+    private Integer minDecoysInBin = 2;
+    /**
+     * The bin size, by default the maximal number of target hits comprised
+     * between minDecoysInBin subsequent decoy hits.
+     */
+    private Integer nmax;
+    /**
+     * The window size for pep estimation.
+     */
+    private Integer windowSize;
+    /**
+     * The number of target hits found before the first decoy hit.
+     */
+    private Integer nTargetOnly;
+    /**
+     * The minimal FDR which can be achieved on the dataset.
+     */
+    private double minFDR = 1.0;
+    /**
+     * The results computed on this map.
+     */
+    private TargetDecoyResults targetDecoyResults = new TargetDecoyResults();
+    /**
+     * The number of stripes of pending hits. Must be a power of two.
+     */
+    private static final int N_STRIPES = 16;
+    /**
+     * The hits put in or removed from the map and not yet merged in the
+     * points, striped by thread.
+     */
+    private transient volatile PendingHits[] pendingHits;
+    /**
+     * The type of a pending target hit.
+     */
+    private static final byte PENDING_TARGET = 1;
+    /**
+     * The type of a pending decoy hit.
+     */
+    private static final byte PENDING_DECOY = 2;
+    /**
+     * The sorted scores and probabilities of the map frozen after the
+     * estimation of probabilities, null if not estimated or if the map was
+     * changed since.
+     */
+    private transient volatile FrozenProbabilities frozenProbabilities;
+
+    /**
+     * Constructor.
+     */
+    public TargetDecoyMap() {
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param minDecoysInBin the number of decoy matches to include in the first
+     * bin to set the bin size
+     */
+    public TargetDecoyMap(Integer minDecoysInBin) {
+
+        this.minDecoysInBin = minDecoysInBin;
+
+    }
+
+    /**
+     * Returns the posterior error probability estimated at the given score.
+     * Once the probabilities are estimated, the lookup does not lock nor
+     * allocate. If the map is empty, the probability is one.
+     *
+     * @param score the given score
+     * @return the estimated posterior error probability
+     */
+    public double getProbability(double score) {
+
+        FrozenProbabilities frozen = frozenProbabilities;
+
+        if (frozen != null) {
+
+            return getProbability(frozen.scores, frozen.probabilities, score);
+
+        }
+
+        return getMapProbability(score);
+
+    }
+
+    /**
+     * Returns the posterior error probability estimated at the given score
+     * using the points of the map.
+     *
+     * @param score the given score
+     * @return the estimated posterior error probability
+     */
+    private synchronized double getMapProbability(double score) {
+
+        mergePendingPoints();
+
+        return getProbability(pointScores, pointProbabilities, score);
+
+    }
+
+    /**
+     * Returns the probability at the given score, interpolated between the
+     * closest scores if not found, one if no score is available.
+     *
+     * @param scores the scores in ascending order
+     * @param probabilities the probability at every score
+     * @param score the score
+     *
+     * @return the probability at the given score
+     */
+    private static double getProbability(
+            double[] scores,
+            double[] probabilities,
+            double score
+    ) {
+
+        if (scores.length == 0) {
+
+            return 1.0;
+
+        }
+
+        int index = Arrays.binarySearch(scores, score);
+
+        if (index >= 0) {
+
+            return probabilities[index];
+
+        }
+
+        int lastIndex = scores.length - 1;
+
+        if (score >= scores[lastIndex]) {
+
+            return probabilities[lastIndex];
+
+        }
+
+        int indexDown = 0;
+        int indexUp = lastIndex;
+        int indexTemp;
+
+        while (indexUp - indexDown > 1) {
+
+            indexTemp = (indexUp - indexDown) / 2 + indexDown;
+
+            if (scores[indexTemp] > score) {
+
+                indexUp = indexTemp;
+
+            } else {
+
+                indexDown = indexTemp;
+
+            }
+        }
+
+        return (probabilities[indexUp] + probabilities[indexDown]) / 2;
+
+    }
+
+    /**
+     * Returns the number of target hits found at the given score.
+     *
+     * @param score the given score
+     * @return the number of target hits found at the given score
+     */
+    public synchronized int getNTarget(double score) {
+
+        mergePendingPoints();
+
+        int index = Arrays.binarySearch(pointScores, score);
+
+        return index >= 0 ? pointTargets[index] : 0;
+
+    }
+
+    /**
+     * Returns the number of decoy hits found at the given score.
+     *
+     * @param score the given score
+     * @return the number of decoy hits found at the given score
+     */
+    public synchronized int getNDecoy(double score) {
+
+        mergePendingPoints();
+
+        int index = Arrays.binarySearch(pointScores, score);
+
+        return index >= 0 ? pointDecoys[index] : 0;
+
+    }
+
+    /**
+     * Puts a new point in the target/decoy map at the given score. This method
+     * can be called concurrently, the points are merged in the map before it
+     * is read.
+     *
+     * @param score The given score
+     * @param isDecoy boolean indicating whether the hit is decoy
+     */
+    public void put(double score, boolean isDecoy) {
+
+        addPendingHit(score, isDecoy ? PENDING_DECOY : PENDING_TARGET);
+
+    }
+
+    /**
+     * Removes a point in the target/decoy map at the given score. Note: it is
+     * necessary to run cleanUp() afterwards to clean up the map. This method
+     * can be called concurrently, the points are merged in the map before it
+     * is read.
+     *
+     * @param score the given score
+     * @param isDecoy boolean indicating whether the hit is decoy
+     */
+    public void remove(double score, boolean isDecoy) {
+
+        addPendingHit(score, (byte) -(isDecoy ? PENDING_DECOY : PENDING_TARGET));
+
+    }
+
+    /**
+     * Appends a hit to the pending hits of the stripe of the current thread.
+     * Threads only contend on the lock of their stripe, not on the lock of the
+     * map.
+     *
+     * @param score the score of the hit
+     * @param type the type of the hit, negative if the hit is removed
+     */
+    private void addPendingHit(double score, byte type) {
+
+        if (frozenProbabilities != null) {
+
+            frozenProbabilities = null;
+
+        }
+
+        PendingHits[] stripes = pendingHits;
+
+        if (stripes == null) {
+
+            stripes = createPendingHits();
+
+        }
+
+        int stripe = (int) (Thread.currentThread().getId() & (N_STRIPES - 1));
+        stripes[stripe].add(score, type);
+
+    }
+
+    /**
+     * Creates the stripes of pending hits if no other thread has done it
+     * before.
+     *
+     * @return the stripes of pending hits
+     */
+    private synchronized PendingHits[] createPendingHits() {
+
+        if (pendingHits == null) {
+
+            PendingHits[] stripes = new PendingHits[N_STRIPES];
+
+            for (int i = 0; i < N_STRIPES; i++) {
+
+                stripes[i] = new PendingHits();
+
+            }
+
+            pendingHits = stripes;
+
+        }
+
+        return pendingHits;
+
+    }
+
+    /**
+     * Merges the hits put or removed concurrently in the points of the map.
+     */
+    private synchronized void mergePendingPoints() {
+
+        if (pointScores == null) {
+
+            convertHitMap();
+
+        }
+
+        PendingHits[] stripes = pendingHits;
+
+        if (stripes == null) {
+
+            return;
+
+        }
+
+        double[] scores = null;
+        byte[] types = null;
+        int nPending = 0;
+
+        for (PendingHits stripe : stripes) {
+
+            synchronized (stripe) {
+
+                if (stripe.size > 0) {
+
+                    if (scores == null) {
+
+                        scores = new double[stripe.size];
+                        types = new byte[stripe.size];
+
+                    } else if (nPending + stripe.size > scores.length) {
+
+                        scores = Arrays.copyOf(scores, nPending + stripe.size);
+                        types = Arrays.copyOf(types, nPending + stripe.size);
+
+                    }
+
+                    System.arraycopy(stripe.scores, 0, scores, nPending, stripe.size);
+                    System.arraycopy(stripe.types, 0, types, nPending, stripe.size);
+                    nPending += stripe.size;
+                    stripe.size = 0;
+
+                }
+            }
+        }
+
+        if (nPending == 0) {
+
+            return;
+
+        }
+
+        // group the pending hits by score
+        double[] sortedScores = Arrays.copyOf(scores, nPending);
+        Arrays.sort(sortedScores);
+        int nScores = 0;
+
+        for (int i = 0; i < nPending; i++) {
+
+            if (nScores == 0 || Double.compare(sortedScores[nScores - 1], sortedScores[i]) != 0) {
+
+                sortedScores[nScores++] = sortedScores[i];
+
+            }
+        }
+
+        int[] deltaTargets = new int[nScores];
+        int[] deltaDecoys = new int[nScores];
+
+        for (int i = 0; i < nPending; i++) {
+
+            int index = Arrays.binarySearch(sortedScores, 0, nScores, scores[i]);
+
+            switch (types[i]) {
+
+                case PENDING_TARGET:
+                    deltaTargets[index]++;
+                    break;
+
+                case -PENDING_TARGET:
+                    deltaTargets[index]--;
+                    break;
+
+                case PENDING_DECOY:
+                    deltaDecoys[index]++;
+                    break;
+
+                default:
+                    deltaDecoys[index]--;
+
+            }
+        }
+
+        addPoints(sortedScores, deltaTargets, deltaDecoys, nScores);
+
+    }
+
+    /**
+     * Adds the given numbers of hits to the points of the map, creating the
+     * points missing.
+     *
+     * @param scores the scores of the hits in ascending order without
+     * duplicates
+     * @param deltaTargets the number of target hits to add at every score
+     * @param deltaDecoys the number of decoy hits to add at every score
+     * @param nScores the number of scores
+     */
+    private void addPoints(
+            double[] scores,
+            int[] deltaTargets,
+            int[] deltaDecoys,
+            int nScores
+    ) {
+
+        int nPoints = pointScores.length;
+        double[] newScores = new double[nPoints + nScores];
+        int[] newTargets = new int[newScores.length];
+        int[] newDecoys = new int[newScores.length];
+        double[] newProbabilities = new double[newScores.length];
+        int i = 0, j = 0, k = 0;
+
+        while (i < nPoints || j < nScores) {
+
+            int comparison = i == nPoints ? 1
+                    : j == nScores ? -1
+                    : Double.compare(pointScores[i], scores[j]);
+
+            if (comparison <= 0) {
+
+                newScores[k] = pointScores[i];
+                newTargets[k] = pointTargets[i];
+                newDecoys[k] = pointDecoys[i];
+                newProbabilities[k] = pointProbabilities[i];
+                i++;
+
+            } else {
+
+                newScores[k] = scores[j];
+
+            }
+
+            if (comparison >= 0) {
+
+                newTargets[k] += deltaTargets[j];
+                newDecoys[k] += deltaDecoys[j];
+                j++;
+
+            }
+
+            k++;
+
+        }
+
+        pointScores = Arrays.copyOf(newScores, k);
+        pointTargets = Arrays.copyOf(newTargets, k);
+        pointDecoys = Arrays.copyOf(newDecoys, k);
+        pointProbabilities = Arrays.copyOf(newProbabilities, k);
+
+    }
+
+    /**
+     * Converts the hit map of projects saved with previous versions to the
+     * points arrays.
+     */
+    private void convertHitMap() {
+
+        pointScores = hitMap == null ? new double[0]
+                : hitMap.keySet().stream()
+                        .mapToDouble(
+                                score -> score
+                        )
+                        .sorted()
+                        .toArray();
+
+        pointTargets = new int[pointScores.length];
+        pointDecoys = new int[pointScores.length];
+        pointProbabilities = new double[pointScores.length];
+
+        for (int i = 0; i < pointScores.length; i++) {
+
+            TargetDecoyPoint point = hitMap.get(pointScores[i]);
+            pointTargets[i] = point.nTarget;
+            pointDecoys[i] = point.nDecoy;
+            pointProbabilities[i] = point.p;
+
+        }
+
+        hitMap = null;
+
+    }
+
+    /**
+     * Removes empty points and clears dependent metrics if needed.
+     */
+    public synchronized void cleanUp() {
+
+        mergePendingPoints();
+
+        int nPoints = 0;
+
+        for (int i = 0; i < pointScores.length; i++) {
+
+            if (pointTargets[i] != 0 || pointDecoys[i] != 0) {
+
+                pointScores[nPoints] = pointScores[i];
+                pointTargets[nPoints] = pointTargets[i];
+                pointDecoys[nPoints] = pointDecoys[i];
+                pointProbabilities[nPoints] = pointProbabilities[i];
+                nPoints++;
+
+            }
+        }
+
+        if (nPoints < pointScores.length) {
+
+            pointScores = Arrays.copyOf(pointScores, nPoints);
+            pointTargets = Arrays.copyOf(pointTargets, nPoints);
+            pointDecoys = Arrays.copyOf(pointDecoys, nPoints);
+            pointProbabilities = Arrays.copyOf(pointProbabilities, nPoints);
+
+            nmax = null;
+            windowSize = null;
+            frozenProbabilities = null;
+
+        }
+    }
+
+    /**
+     * Estimates the metrics of the map: Nmax, NtargetOnly, minFDR. Scores of 1
+     * and above will be skipped for Nmax.
+     */
+    private synchronized void estimateNs() {
+
+        mergePendingPoints();
+
+        boolean onlyTarget = true;
+        nmax = 0;
+        int targetCpt = 0;
+        int decoyCpt = 0;
+        nTargetOnly = 0;
+        int targetCount = 0, decoyCount = 0;
+
+        for (int i = 0; i < pointScores.length; i++) {
+
+            double score = pointScores[i];
+            int nTarget = pointTargets[i];
+            int nDecoy = pointDecoys[i];
+
+            if (onlyTarget) {
+
+                if (nDecoy > 0) {
+
+                    nTargetOnly += nTarget / 2 + nTarget % 2;
+                    targetCpt += nTarget / 2;
+                    onlyTarget = false;
+                    decoyCpt += nDecoy;
+
+                } else {
+
+                    nTargetOnly += nTarget;
+
+                }
+
+            } else if (nDecoy > 0) {
+
+                targetCpt += nTarget / 2 + nTarget % 2;
+                decoyCpt += nDecoy;
+
+                if (targetCpt > nmax
+                        && score < 1.0
+                        && decoyCpt >= minDecoysInBin) {
+
+                    nmax = targetCpt;
+
+                }
+
+                targetCpt = nTarget / 2;
+                decoyCpt = nDecoy;
+
+            } else {
+
+                targetCpt += nTarget;
+
+            }
+
+            targetCount += nTarget;
+            decoyCount += nDecoy;
+
+            if (targetCount > 0) {
+
+                double fdr = ((double) decoyCount) / targetCount;
+
+                if (fdr < minFDR) {
+
+                    minFDR = fdr;
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the posterior error probabilities in this map. The hits put
+     * concurrently are merged beforehand.
+     *
+     * @param waitingHandler the handler displaying feedback to the user
+     */
+    public synchronized void estimateProbabilities(WaitingHandler waitingHandler) {
+
+        mergePendingPoints();
+        frozenProbabilities = null;
+
+        if (pointScores.length == 0) {
+
+            frozenProbabilities = new FrozenProbabilities(pointScores, pointProbabilities);
+            return;
+
+        }
+
+        if (nmax == null) {
+
+            estimateNs();
+
+        }
+        if (windowSize == null) {
+
+            windowSize = nmax;
+
+        }
+
+        // estimate p
+        int previousIndex = 0;
+        double nLimit = 0.5 * windowSize;
+        double nTargetUp = 1.5 * pointTargets[0];
+        double nTargetDown = -0.5 * pointTargets[0];
+        double nDecoy = pointDecoys[0];
+        int iDown = 0;
+        int iUp = 1;
+        boolean oneReached = false;
+
+        for (int i = 0; i < pointScores.length; i++) {
+
+            if (!oneReached) {
+
+                double change = 0.5 * (pointTargets[previousIndex] + pointTargets[i]);
+                nTargetDown += change;
+                nTargetUp -= change;
+
+                while (nTargetDown > nLimit) {
+
+                    if (iDown < i) {
+
+                        double nTargetDownTemp = nTargetDown - pointTargets[iDown];
+
+                        if (nTargetDownTemp >= nLimit) {
+
+                            nDecoy -= pointDecoys[iDown];
+                            nTargetDown = nTargetDownTemp;
+                            iDown++;
+
+                        } else {
+
+                            break;
+
+                        }
+
+                    } else {
+
+                        break;
+
+                    }
+                }
+
+                while (nTargetUp < nLimit && iUp < pointScores.length) {
+
+                    nTargetUp += pointTargets[iUp];
+                    nDecoy += pointDecoys[iUp];
+                    iUp++;
+
+                }
+
+                double nTarget = nTargetDown + nTargetUp;
+                pointProbabilities[i] = Math.max(Math.min(nDecoy / nTarget, 1), 0);
+
+                if (pointProbabilities[i] >= 0.98) {
+
+                    oneReached = true;
+
+                }
+
+            } else {
+
+                pointProbabilities[i] = 1;
+
+            }
+
+            previousIndex = i;
+
+            waitingHandler.increaseSecondaryProgressCounter();
+
+            if (waitingHandler.isRunCanceled()) {
+
+                return;
+
+            }
+        }
+
+        frozenProbabilities = new FrozenProbabilities(pointScores, pointProbabilities);
+
+    }
+
+    /**
+     * Returns the Nmax metric.
+     *
+     * @return the Nmax metric
+     */
+    public int getnMax() {
+
+        if (nmax == null) {
+
+            estimateNs();
+
+        }
+
+        return nmax;
+
+    }
+
+    /**
+     * Returns the minimal FDR which can be achieved in this dataset.
+     *
+     * @return the minimal FDR which can be achieved in this dataset
+     */
+    public double getMinFdr() {
+
+        return minFDR;
+
+    }
+
+    /**
+     * Returns the minimal detectable PEP variation in percent.
+     *
+     * @return the minimal detectable PEP variation in percent
+     */
+    public double getResolution() {
+
+        double pmin = 0;
+        int nMax = getnMax();
+
+        if (nMax != 0) {
+
+            pmin = 100.0 / nMax;
+
+        }
+
+        return pmin;
+
+    }
+
+    /**
+     * Returns the number of target hits before the first decoy hit.
+     *
+     * @return the number of target hits before the first decoy hit
+     */
+    public Integer getnTargetOnly() {
+
+        return nTargetOnly;
+
+    }
+
+    /**
+     * Returns the sorted scores implemented in this map.
+     *
+     * @return the sorted scores implemented in this map.
+     */
+    public synchronized ArrayList<Double> getScores() {
+
+        mergePendingPoints();
+
+        ArrayList<Double> scores = new ArrayList<>(pointScores.length);
+
+        for (double score : pointScores) {
+
+            scores.add(score);
+
+        }
+
+        return scores;
+
+    }
+
+    /**
+     * Adds all the points from another target/decoy map.
+     *
+     * @param anOtherMap another target/decoy map
+     */
+    public void addAll(TargetDecoyMap anOtherMap) {
+
+        double[] scores;
+        int[] targets;
+        int[] decoys;
+
+        synchronized (anOtherMap) {
+
+            anOtherMap.mergePendingPoints();
+
+            scores = anOtherMap.pointScores.clone();
+            targets = anOtherMap.pointTargets.clone();
+            decoys = anOtherMap.pointDecoys.clone();
+
+        }
+
+        synchronized (this) {
+
+            mergePendingPoints();
+            addPoints(scores, targets, decoys, scores.length);
+
+            nmax = null;
+            windowSize = null;
+            frozenProbabilities = null;
+
+        }
+    }
+
+    /**
+     * Returns a boolean indicating if a suspicious input was detected.
+     *
+     * @param initialFDR the minimal FDR requested for a group
+     *
+     * @return a boolean indicating if a suspicious input was detected
+     */
+    public boolean suspiciousInput(double initialFDR) {
+
+        if (nmax == null) {
+
+            estimateNs();
+
+        }
+
+        if (nmax < 100 || minFDR > initialFDR) {
+
+            return true;
+
+        }
+
+        return false;
+
+    }
+
+    /**
+     * Returns the current target decoy results.
+     *
+     * @return the current target decoy results
+     */
+    public TargetDecoyResults getTargetDecoyResults() {
+
+        return targetDecoyResults;
+
+    }
+
+    /**
+     * Returns the target decoy series.
+     *
+     * @return the target decoy series
+     */
+    public synchronized TargetDecoySeries getTargetDecoySeries() {
+
+        mergePendingPoints();
+
+        return new TargetDecoySeries(
+                pointScores,
+                pointTargets,
+                pointDecoys,
+                pointProbabilities
+        );
+
+    }
+
+    /**
+     * Returns the window size used for pep estimation.
+     *
+     * @return the window size used for pep estimation
+     */
+    public int getWindowSize() {
+
+        if (windowSize == null) {
+
+            windowSize = getnMax();
+
+        }
+
+        return windowSize;
+
+    }
+
+    /**
+     * Sets the window size used for pep estimation.
+     *
+     * @param windowSize the window size used for pep estimation
+     */
+    public void setWindowSize(int windowSize) {
+
+        this.windowSize = windowSize;
+
+    }
+
+    /**
+     * Returns the size of the map.
+     *
+     * @return the size of the map
+     */
+    public synchronized int getMapSize() {
+
+        mergePendingPoints();
+
+        return pointScores.length;
+
+    }
+
+    /**
+     * The hits put in or removed from a stripe of the map as primitive
+     * arrays.
+     */
+    private static class PendingHits {
+
+        /**
+         * The scores of the hits.
+         */
+        private double[] scores = new double[256];
+        /**
+         * The type of each hit, see PENDING_TARGET and PENDING_DECOY, negated
+         * if the hit was removed.
+         */
+        private byte[] types = new byte[256];
+        /**
+         * The number of hits.
+         */
+        private int size = 0;
+
+        /**
+         * Appends a hit.
+         *
+         * @param score the score of the hit
+         * @param type the type of the hit
+         */
+        private synchronized void add(double score, byte type) {
+
+            if (size == scores.length) {
+
+                scores = Arrays.copyOf(scores, 2 * size);
+                types = Arrays.copyOf(types, 2 * size);
+
+            }
+
+            scores[size] = score;
+            types[size] = type;
+            size++;
+
+        }
+    }
+
+    /**
+     * The scores of a map and the associated probabilities as sorted primitive
+     * arrays.
+     */
+    private static class FrozenProbabilities {
+
+        /**
+         * The sorted scores.
+         */
+        private final double[] scores;
+        /**
+         * The probability at each score.
+         */
+        private final double[] probabilities;
+
+        /**
+         * Constructor.
+         *
+         * @param scores the sorted scores
+         * @param probabilities the probability at every score
+         */
+        private FrozenProbabilities(
+                double[] scores,
+                double[] probabilities
+        ) {
+
+            this.scores = scores.clone();
+            this.probabilities = probabilities.clone();
+
+        }
+    }
+}
@@ -2,7 +2,6 @@ package eu.isas.peptideshaker.scoring.targetdecoy;
 
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import java.util.Arrays;
-import java.util.HashMap;
 
 /**
  * This class will contain the PEP, FDR and FNR values of a target decoy map
@@ -76,25 +75,32 @@ public class TargetDecoySeries {
     /**
      * Constructor.
      *
-     * @param hitMap a map as present in target decoy maps
+     * @param pointScores the scores of the points of a target decoy map in
+     * ascending order
+     * @param pointTargets the number of target hits at every point
+     * @param pointDecoys the number of decoy hits at every point
+     * @param pointProbabilities the posterior error probability at every
+     * point
      */
-    public TargetDecoySeries(HashMap<Double, TargetDecoyPoint> hitMap) {
-
-        scores = new double[hitMap.size()];
+    public TargetDecoySeries(
+            double[] pointScores,
+            int[] pointTargets,
+            int[] pointDecoys,
+            double[] pointProbabilities
+    ) {
+
+        scores = new double[pointScores.length];
         scoresLog = new double[scores.length];
         probaNTotal = 0;
-        int counter = 0;
-        TargetDecoyPoint currentPoint;
         double minScore = 0, maxScore = 100;
 
-        for (double score : hitMap.keySet()) {
+        for (int counter = 0; counter < pointScores.length; counter++) {
             
-            currentPoint = hitMap.get(score);
+            double score = pointScores[counter];
             double scoreLog = PSParameter.transformScore(score);
             scores[counter] = score;
             scoresLog[counter] = scoreLog;
-            probaNTotal += (1 - currentPoint.p) * currentPoint.nTarget;
-            counter++;
+            probaNTotal += (1 - pointProbabilities[counter]) * pointTargets[counter];
             
             if (scoreLog < minScore) {
             
@@ -113,7 +119,6 @@ public class TargetDecoySeries {
         int histogramScoreMax = (int) maxScore;
         initiateTDHistogram(histogramScoreMin, histogramScoreMax);
 
-        Arrays.sort(scores);
         Arrays.sort(scoresLog);
 
         confidence = new double[scores.length];
@@ -132,15 +137,12 @@ public class TargetDecoySeries {
 
         for (int i = 0; i < scores.length; i++) {
             
-            double score = scores[i];
-            
-            currentPoint = hitMap.get(score);
-            nTemp += currentPoint.nTarget;
-            fpTemp += currentPoint.nDecoy;
-            probaTP += currentPoint.nTarget * (1 - currentPoint.p);
+            nTemp += pointTargets[i];
+            fpTemp += pointDecoys[i];
+            probaTP += pointTargets[i] * (1 - pointProbabilities[i]);
             fnrTemp = 100.0 * (probaNTotal - probaTP) / probaNTotal;
-            pep[i] = 100.0 * currentPoint.p;
-            double confidenceAtI = 100 * (1 - currentPoint.p);
+            pep[i] = 100.0 * pointProbabilities[i];
+            double confidenceAtI = 100 * (1 - pointProbabilities[i]);
             confidence[i] = confidenceAtI;
             int iInvert = scores.length - i - 1;
             confidenceLog[iInvert] = confidenceAtI;
@@ -148,12 +150,12 @@ public class TargetDecoySeries {
             fp[i] = fpTemp;
             fdr[i] = 100.0 * fpTemp / nTemp;
             fnr[i] = fnrTemp;
-            decoy[i] = currentPoint.nTarget == 0;
+            decoy[i] = pointTargets[i] == 0;
 
             double scoreLog = scoresLog[iInvert];
             int bin = ((int) (Math.round((scoreLog - histogramScoreMin) / binSize)));
-            nDecoy[bin] += currentPoint.nDecoy;
-            nTarget[bin] += currentPoint.nTarget;
+            nDecoy[bin] += pointDecoys[i];
+            nTarget[bin] += pointTargets[i];
             
         }
     }
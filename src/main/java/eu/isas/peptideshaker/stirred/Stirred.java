@@ -21,7 +21,9 @@ import eu.isas.peptideshaker.PeptideShaker;
 import eu.isas.peptideshaker.fileimport.PsmImporter;
 import eu.isas.peptideshaker.stirred.modules.IdImporter;
 import eu.isas.peptideshaker.stirred.modules.StirRunnable;
+import eu.isas.peptideshaker.utils.FMIndexCache;
 import eu.isas.peptideshaker.utils.PsZipUtils;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -376,7 +378,7 @@ public class Stirred {
 
             // Import fasta file
             cliLogger.logMessage("    Importing protein sequences from " + dataFasta);
-            FMIndex fmIndex = new FMIndex(
+            FMIndex fmIndex = FMIndexCache.getFMIndex(
                     dataFasta,
                     identificationParameters.getFastaParameters(),
                     waitingHandler,
@@ -458,7 +460,7 @@ public class Stirred {
 
             // Import fasta file
             cliLogger.logMessage("    Importing protein sequences from " + fastaFile);
-            FMIndex fmIndex = new FMIndex(
+            FMIndex fmIndex = FMIndexCache.getFMIndex(
                     fastaFile,
                     identificationParameters.getFastaParameters(),
                     waitingHandler,
@@ -614,6 +616,8 @@ public class Stirred {
                 false
         )) {
 
+            // Process the matches in the order of the spectrum files
+            SpectrumMatchKeysQueue.sort(spectrumMatches, msFileHandler);
             ConcurrentLinkedQueue<SpectrumMatch> spectrumMatchesQueue = new ConcurrentLinkedQueue<>(spectrumMatches);
 
             ExecutorService pool = Executors.newFixedThreadPool(nThreads);
@@ -0,0 +1,517 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.io.flat.SimpleFileReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The retention times predicted by DeepLC indexed by peptide key. The
+ * retention times of all peptides are stored in primitive buffers, the
+ * retention times of a peptide are contiguous in the order of the file, the
+ * peptides are sorted by the hash of their key. The keys themselves are
+ * stored as well and compared upon lookup, so that peptides with colliding
+ * hashes are not confused. The buffers are either backed by arrays or memory
+ * mapped from an index file.
+ *
+ * @author Marc Vaudel
+ */
+public class DeepLcPrediction {
+
+    /**
+     * The magic number identifying DeepLC index files.
+     */
+    private static final long MAGIC_NUMBER = 0x5053446565704C43L;
+    /**
+     * The sorted hashes of the peptide keys.
+     */
+    private final LongBuffer keys;
+    /**
+     * The index of the first retention time of every peptide, followed by the
+     * total number of retention times.
+     */
+    private final IntBuffer offsets;
+    /**
+     * The predicted retention times.
+     */
+    private final DoubleBuffer[] rts;
+    /**
+     * The index of the first byte of the key of every peptide, followed by
+     * the total number of bytes.
+     */
+    private final IntBuffer nameOffsets;
+    /**
+     * The keys of the peptides as UTF-8 bytes.
+     */
+    private final ByteBuffer names;
+
+    /**
+     * Constructor.
+     *
+     * @param keys The sorted hashes of the peptide keys.
+     * @param offsets The index of the first retention time of every peptide,
+     * followed by the total number of retention times.
+     * @param rts The predicted retention times.
+     * @param nameOffsets The index of the first byte of the key of every
+     * peptide, followed by the total number of bytes.
+     * @param names The keys of the peptides as UTF-8 bytes.
+     */
+    public DeepLcPrediction(
+            long[] keys,
+            int[] offsets,
+            double[] rts,
+            int[] nameOffsets,
+            byte[] names
+    ) {
+
+        this(
+                LongBuffer.wrap(keys),
+                IntBuffer.wrap(offsets),
+                PredictionUtils.wrap(rts),
+                IntBuffer.wrap(nameOffsets),
+                ByteBuffer.wrap(names)
+        );
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keys The sorted hashes of the peptide keys.
+     * @param offsets The index of the first retention time of every peptide,
+     * followed by the total number of retention times.
+     * @param rts The predicted retention times in segments.
+     * @param nameOffsets The index of the first byte of the key of every
+     * peptide, followed by the total number of bytes.
+     * @param names The keys of the peptides as UTF-8 bytes.
+     */
+    private DeepLcPrediction(
+            LongBuffer keys,
+            IntBuffer offsets,
+            DoubleBuffer[] rts,
+            IntBuffer nameOffsets,
+            ByteBuffer names
+    ) {
+
+        this.keys = keys;
+        this.offsets = offsets;
+        this.rts = rts;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+
+    }
+
+    /**
+     * Returns the prediction of the given DeepLC file. The prediction is
+     * memory mapped from the index of the file if available and up to date.
+     * Otherwise, the file is parsed and the index written for the next
+     * exports.
+     *
+     * @param deepLcFile File with RT predictions from DeepLC.
+     *
+     * @return The prediction.
+     */
+    public static DeepLcPrediction getPrediction(
+            File deepLcFile
+    ) {
+
+        File indexFile = PredictionUtils.getIndexFile(deepLcFile);
+
+        if (indexFile.exists()) {
+
+            try {
+
+                DeepLcPrediction prediction = load(indexFile, deepLcFile);
+
+                if (prediction != null) {
+
+                    return prediction;
+
+                }
+
+            } catch (IOException e) {
+
+                System.out.println("Failed to read the DeepLC index " + indexFile + ", the predictions will be parsed again.");
+                e.printStackTrace();
+
+            }
+        }
+
+        DeepLcPrediction prediction = parse(deepLcFile);
+
+        try {
+
+            prediction.write(indexFile, deepLcFile);
+
+        } catch (IOException e) {
+
+            System.out.println("Failed to write the DeepLC index " + indexFile + ".");
+            e.printStackTrace();
+
+        }
+
+        return prediction;
+
+    }
+
+    /**
+     * Memory maps the prediction from the given index file. Returns null if
+     * the index does not correspond to the current version of the DeepLC
+     * file.
+     *
+     * @param indexFile The index file.
+     * @param deepLcFile The DeepLC file the index was built from.
+     *
+     * @return The prediction.
+     *
+     * @throws IOException Exception thrown if an error occurred while mapping
+     * the file.
+     */
+    public static DeepLcPrediction load(
+            File indexFile,
+            File deepLcFile
+    ) throws IOException {
+
+        try ( RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r")) {
+
+            FileChannel channel = randomAccessFile.getChannel();
+
+            if (channel.size() < PredictionUtils.HEADER_SIZE) {
+
+                return null;
+
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, PredictionUtils.HEADER_SIZE);
+
+            if (!PredictionUtils.isValid(header, MAGIC_NUMBER, deepLcFile)) {
+
+                return null;
+
+            }
+
+            int nKeys = PredictionUtils.getnKeys(header);
+            int nRts = PredictionUtils.getnValues(header);
+
+            long namesPosition = PredictionUtils.HEADER_SIZE
+                    + ((long) Long.BYTES) * nKeys
+                    + ((long) Double.BYTES) * nRts
+                    + 2L * Integer.BYTES * (nKeys + 1);
+
+            if (channel.size() < namesPosition) {
+
+                return null;
+
+            }
+
+            long position = PredictionUtils.HEADER_SIZE;
+
+            LongBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, position, ((long) Long.BYTES) * nKeys).asLongBuffer();
+            position += ((long) Long.BYTES) * nKeys;
+
+            DoubleBuffer[] rts = PredictionUtils.map(channel, position, nRts);
+            position += ((long) Double.BYTES) * nRts;
+
+            IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, ((long) Integer.BYTES) * (nKeys + 1)).asIntBuffer();
+            position += ((long) Integer.BYTES) * (nKeys + 1);
+
+            IntBuffer nameOffsets = channel.map(FileChannel.MapMode.READ_ONLY, position, ((long) Integer.BYTES) * (nKeys + 1)).asIntBuffer();
+            position += ((long) Integer.BYTES) * (nKeys + 1);
+
+            int nNameBytes = nameOffsets.get(nKeys);
+
+            if (nNameBytes < 0 || channel.size() != namesPosition + nNameBytes) {
+
+                return null;
+
+            }
+
+            ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, position, nNameBytes);
+
+            return new DeepLcPrediction(keys, offsets, rts, nameOffsets, names);
+
+        }
+    }
+
+    /**
+     * Writes the prediction to the given index file. The index is written to
+     * a temporary file first, and renamed when complete.
+     *
+     * @param indexFile The index file.
+     * @param deepLcFile The DeepLC file the prediction was parsed from.
+     *
+     * @throws IOException Exception thrown if an error occurred while writing
+     * the file.
+     */
+    public void write(
+            File indexFile,
+            File deepLcFile
+    ) throws IOException {
+
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+
+        try ( DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+
+            int nKeys = keys.limit();
+
+            PredictionUtils.writeHeader(outputStream, MAGIC_NUMBER, deepLcFile, nKeys, offsets.get(nKeys));
+
+            for (int i = 0; i < nKeys; i++) {
+
+                outputStream.writeLong(keys.get(i));
+
+            }
+
+            PredictionUtils.write(outputStream, rts);
+
+            for (int i = 0; i <= nKeys; i++) {
+
+                outputStream.writeInt(offsets.get(i));
+
+            }
+
+            for (int i = 0; i <= nKeys; i++) {
+
+                outputStream.writeInt(nameOffsets.get(i));
+
+            }
+
+            for (int i = 0; i < names.limit(); i++) {
+
+                outputStream.writeByte(names.get(i));
+
+            }
+        }
+
+        if (indexFile.exists() && !indexFile.delete() || !tempFile.renameTo(indexFile)) {
+
+            tempFile.delete();
+
+            throw new IOException("Failed to move " + tempFile + " to " + indexFile + ".");
+
+        }
+    }
+
+    /**
+     * Parses the retention time prediction from DeepLC.
+     *
+     * Expected format: ,seq,modifications,predicted_tr
+     * 0,NSVNGTFPAEPMKGPIAMQSGPKPLFR,12|Oxidation,3878.9216854262777
+     *
+     * @param deepLcFile File with RT predictions from DeepLC.
+     *
+     * @return The prediction.
+     */
+    public static DeepLcPrediction parse(
+            File deepLcFile
+    ) {
+
+        int nLines = 0;
+        long[] lineKeys = new long[1024];
+        String[] lineNames = new String[1024];
+        double[] lineRts = new double[1024];
+
+        try ( SimpleFileReader reader = SimpleFileReader.getFileReader(deepLcFile)) {
+
+            String line = reader.readLine();
+
+            while ((line = reader.readLine()) != null) {
+
+                String[] lineSplit = line.split(",");
+
+                String key = String.join(",", lineSplit[1], lineSplit[2]);
+
+                if (nLines == lineKeys.length) {
+
+                    lineKeys = Arrays.copyOf(lineKeys, 2 * nLines);
+                    lineNames = Arrays.copyOf(lineNames, 2 * nLines);
+                    lineRts = Arrays.copyOf(lineRts, 2 * nLines);
+
+                }
+
+                lineKeys[nLines] = DeepLcUtils.getPeptideKey(key);
+                lineNames[nLines] = key;
+                lineRts[nLines] = Double.parseDouble(lineSplit[4]);
+                nLines++;
+
+            }
+        }
+
+        // Sort the retention times by key, keeping the order of the file for every peptide
+        int[] sortedLines = PredictionUtils.getSortedRows(lineKeys, lineNames, nLines);
+
+        int nKeys = 0;
+
+        for (int i = 0; i < nLines; i++) {
+
+            if (i == 0 || isNewPeptide(lineKeys, lineNames, sortedLines[i], sortedLines[i - 1])) {
+
+                nKeys++;
+
+            }
+        }
+
+        long[] keys = new long[nKeys];
+        int[] offsets = new int[nKeys + 1];
+        double[] rts = new double[nLines];
+        byte[][] keyNames = new byte[nKeys][];
+        int[] nameOffsets = new int[nKeys + 1];
+
+        int keyIndex = -1;
+
+        for (int i = 0; i < nLines; i++) {
+
+            int line = sortedLines[i];
+
+            if (i == 0 || isNewPeptide(lineKeys, lineNames, line, sortedLines[i - 1])) {
+
+                keyIndex++;
+                keys[keyIndex] = lineKeys[line];
+                offsets[keyIndex] = i;
+                keyNames[keyIndex] = lineNames[line].getBytes(StandardCharsets.UTF_8);
+                nameOffsets[keyIndex + 1] = nameOffsets[keyIndex] + keyNames[keyIndex].length;
+
+            }
+
+            rts[i] = lineRts[line];
+
+        }
+
+        offsets[nKeys] = nLines;
+
+        byte[] names = new byte[nameOffsets[nKeys]];
+
+        for (int i = 0; i < nKeys; i++) {
+
+            System.arraycopy(keyNames[i], 0, names, nameOffsets[i], keyNames[i].length);
+
+        }
+
+        return new DeepLcPrediction(keys, offsets, rts, nameOffsets, names);
+
+    }
+
+    /**
+     * Indicates whether the given line of the sorted lines is the first of a
+     * new peptide.
+     *
+     * @param lineKeys The hashes of the keys of the lines.
+     * @param lineNames The keys of the lines.
+     * @param line The index of the line.
+     * @param previousLine The index of the previous line in the sorted lines.
+     *
+     * @return A boolean indicating whether the line is the first of a new
+     * peptide.
+     */
+    private static boolean isNewPeptide(
+            long[] lineKeys,
+            String[] lineNames,
+            int line,
+            int previousLine
+    ) {
+
+        return lineKeys[line] != lineKeys[previousLine]
+                || !lineNames[line].equals(lineNames[previousLine]);
+
+    }
+
+    /**
+     * Returns the predicted retention times of the peptide with the given key,
+     * null if no prediction is available for this peptide.
+     *
+     * @param deepLcKey The DeepLC key of the peptide as sequence and
+     * modifications separated by a comma.
+     *
+     * @return The predicted retention times.
+     */
+    public ArrayList<Double> getPredictedRts(
+            String deepLcKey
+    ) {
+
+        int index = indexOf(deepLcKey);
+
+        if (index < 0) {
+
+            return null;
+
+        }
+
+        int start = offsets.get(index);
+        int end = offsets.get(index + 1);
+
+        ArrayList<Double> predictedRts = new ArrayList<>(end - start);
+
+        for (int i = start; i < end; i++) {
+
+            predictedRts.add(PredictionUtils.get(rts, i));
+
+        }
+
+        return predictedRts;
+
+    }
+
+    /**
+     * Returns the index of the peptide with the given key, a negative value
+     * if not found. The peptides sharing the hash of the key are compared to
+     * the key itself.
+     *
+     * @param deepLcKey The DeepLC key of the peptide.
+     *
+     * @return The index of the peptide with the given key.
+     */
+    private int indexOf(
+            String deepLcKey
+    ) {
+
+        long key = DeepLcUtils.getPeptideKey(deepLcKey);
+        int index = PredictionUtils.binarySearch(keys, key);
+
+        if (index < 0) {
+
+            return -1;
+
+        }
+
+        while (index > 0 && keys.get(index - 1) == key) {
+
+            index--;
+
+        }
+
+        byte[] name = deepLcKey.getBytes(StandardCharsets.UTF_8);
+
+        for (; index < keys.limit() && keys.get(index) == key; index++) {
+
+            if (PredictionUtils.nameEquals(names, nameOffsets, index, name)) {
+
+                return index;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return The number of peptides.
+     */
+    public int size() {
+        return keys.limit();
+    }
+}
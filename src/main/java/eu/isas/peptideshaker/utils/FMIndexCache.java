@@ -0,0 +1,905 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.parameters.UtilitiesUserParameters;
+import com.compomics.util.parameters.identification.advanced.PeptideVariantsParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import com.compomics.util.parameters.identification.search.SearchParameters;
+import com.compomics.util.experiment.io.biology.protein.FastaParameters;
+import com.compomics.util.waiting.WaitingHandler;
+import eu.isas.peptideshaker.PeptideShaker;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Persists the FM index built for a FASTA file in a versioned cache file in
+ * the utilities database folder, and loads it back instead of rebuilding the
+ * index when the FASTA file and the parameters used to build it did not
+ * change.
+ *
+ * Indexes are identified by the path, size and modification time of the
+ * FASTA file, and by the parameters used to build them. The cache files of a
+ * FASTA file that changed since are deleted when its index is requested.
+ *
+ * A cache file consists of a header and a payload. The header holds a magic
+ * number, the format version, the key of the index, the length of the payload
+ * and its SHA-256 digest. The payload holds the serialized index. The file is
+ * mapped read-only, the header is validated before the index is
+ * deserialized, and the digest is computed while deserializing. Only classes
+ * of the utilities and of the core Java packages are deserialized.
+ *
+ * @author Marc Vaudel
+ */
+public class FMIndexCache {
+
+    /**
+     * The version of the cache format. Increment when the format or the
+     * FMIndex class changes in an incompatible way.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The extension of the cache files.
+     */
+    public static final String EXTENSION = ".fmi.cui";
+    /**
+     * The name of the sub-folder of the utilities database folder where the
+     * indexes are stored.
+     */
+    public static final String CACHE_FOLDER_NAME = "fm_index";
+    /**
+     * The extension of the temporary files where cache files are written.
+     */
+    private static final String TEMP_EXTENSION = ".tmp";
+    /**
+     * The age in milliseconds after which a temporary file is considered as
+     * left over by an interrupted write.
+     */
+    private static final long TEMP_FILE_MAX_AGE = 24L * 60 * 60 * 1000;
+    /**
+     * The number of bytes of a digest used in the identifiers of the file
+     * names.
+     */
+    private static final int ID_LENGTH = 8;
+    /**
+     * The magic number starting every cache file.
+     */
+    private static final long MAGIC = 0x5053464D49435549L;
+    /**
+     * The name of the digest algorithm.
+     */
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    /**
+     * The length of a digest in bytes.
+     */
+    private static final int DIGEST_LENGTH = 32;
+    /**
+     * The length of the header in bytes: magic, version, key, payload length
+     * and payload digest.
+     */
+    private static final int HEADER_LENGTH = 8 + 4 + DIGEST_LENGTH + 8 + DIGEST_LENGTH;
+    /**
+     * The maximal size of a mapped segment.
+     */
+    private static final long SEGMENT_SIZE = Integer.MAX_VALUE;
+    /**
+     * The size of the buffers used to write and read the payload.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The prefixes of the classes allowed to be deserialized from a cache
+     * file.
+     */
+    private static final String[] ALLOWED_PACKAGES = new String[]{
+        "com.compomics.util.",
+        "java.lang.",
+        "java.util."
+    };
+
+    /**
+     * Empty default constructor.
+     */
+    private FMIndexCache() {
+
+    }
+
+    /**
+     * Returns the FM index for the given FASTA file. The index is loaded from
+     * the cache if it was built from the same FASTA file, of same size and
+     * modification time, using the same parameters. Otherwise the index is
+     * built and written to the cache, and the cache files of previous versions
+     * of the FASTA file are deleted. Problems with the cache are reported to
+     * the waiting handler and do not prevent building the index.
+     *
+     * @param fastaFile the FASTA file
+     * @param fastaParameters the FASTA parsing parameters
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsParameters the peptide variants parameters
+     * @param searchParameters the search parameters
+     *
+     * @return the FM index
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     */
+    public static FMIndex getFMIndex(
+            File fastaFile,
+            FastaParameters fastaParameters,
+            WaitingHandler waitingHandler,
+            boolean displayProgress,
+            PeptideVariantsParameters peptideVariantsParameters,
+            SearchParameters searchParameters
+    ) throws IOException {
+
+        byte[] key = getKey(
+                fastaFile,
+                fastaParameters,
+                peptideVariantsParameters,
+                searchParameters
+        );
+
+        File cacheFile = getCacheFile(fastaFile, key);
+
+        if (cacheFile.exists()) {
+
+            try {
+
+                Object cachedIndex = readCacheFile(cacheFile, key);
+
+                if (cachedIndex instanceof FMIndex) {
+
+                    return (FMIndex) cachedIndex;
+
+                }
+
+                report(waitingHandler, "The cached FM index " + cacheFile + " does not match " + fastaFile.getName() + ", the index will be rebuilt.");
+
+            } catch (Exception e) {
+
+                report(waitingHandler, "The cached FM index " + cacheFile + " could not be read (" + e.getMessage() + "), the index will be rebuilt.");
+
+            }
+        }
+
+        FMIndex fmIndex = new FMIndex(
+                fastaFile,
+                fastaParameters,
+                waitingHandler,
+                displayProgress,
+                peptideVariantsParameters,
+                searchParameters
+        );
+
+        if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+
+            try {
+
+                writeCacheFile(fmIndex, cacheFile, key);
+
+            } catch (Exception e) {
+
+                report(waitingHandler, "The FM index could not be saved to " + cacheFile + " (" + e.getMessage() + ").");
+
+            }
+
+            evictStaleFiles(fastaFile, cacheFile.getParentFile());
+
+        }
+
+        return fmIndex;
+
+    }
+
+    /**
+     * Returns the folder where the indexes are cached, a sub-folder of the
+     * utilities database folder, or of the matches folder if the database
+     * folder is not set.
+     *
+     * @return the folder where the indexes are cached
+     */
+    public static File getCacheFolder() {
+
+        File dbFolder = UtilitiesUserParameters.loadUserParameters().getDbFolder();
+
+        if (dbFolder == null) {
+
+            dbFolder = PeptideShaker.getMatchesFolder();
+
+        }
+
+        return new File(dbFolder, CACHE_FOLDER_NAME);
+
+    }
+
+    /**
+     * Returns the cache file of the index with the given key built from the
+     * given FASTA file. The name of the file starts with the identifier of the
+     * path of the FASTA file followed by the identifier of its size and
+     * modification time.
+     *
+     * @param fastaFile the FASTA file
+     * @param key the key of the index
+     *
+     * @return the cache file
+     *
+     * @throws IOException exception thrown if the canonical path of the FASTA
+     * file could not be resolved
+     */
+    public static File getCacheFile(
+            File fastaFile,
+            byte[] key
+    ) throws IOException {
+
+        return new File(
+                getCacheFolder(),
+                getFilePrefix(fastaFile) + toHex(key) + EXTENSION
+        );
+
+    }
+
+    /**
+     * Returns the prefix of the names of the cache files of the given FASTA
+     * file in its current version: the identifier of the path of the file and
+     * the identifier of its size and modification time, each followed by a
+     * dash.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the prefix of the names of the cache files
+     *
+     * @throws IOException exception thrown if the canonical path of the FASTA
+     * file could not be resolved
+     */
+    private static String getFilePrefix(
+            File fastaFile
+    ) throws IOException {
+
+        String path = fastaFile.getCanonicalPath();
+        String state = fastaFile.length() + "," + fastaFile.lastModified();
+
+        return getId(path) + "-" + getId(state) + "-";
+
+    }
+
+    /**
+     * Returns a short identifier of the given text made of the first bytes of
+     * its digest in hexadecimal.
+     *
+     * @param text the text
+     *
+     * @return the identifier of the text
+     */
+    private static String getId(
+            String text
+    ) {
+
+        byte[] digest = getDigest().digest(text.getBytes(StandardCharsets.UTF_8));
+
+        return toHex(Arrays.copyOf(digest, ID_LENGTH));
+
+    }
+
+    /**
+     * Deletes the cache files of the given FASTA file built from another
+     * version of the file, the cache files of previous formats, and the
+     * temporary files left over by interrupted writes.
+     *
+     * @param fastaFile the FASTA file
+     * @param cacheFolder the folder of the cache files
+     */
+    private static void evictStaleFiles(
+            File fastaFile,
+            File cacheFolder
+    ) {
+
+        File[] files = cacheFolder.listFiles();
+
+        if (files == null) {
+
+            return;
+
+        }
+
+        try {
+
+            String currentPrefix = getFilePrefix(fastaFile);
+            String pathPrefix = currentPrefix.substring(0, 2 * ID_LENGTH + 1);
+            int nameLength = currentPrefix.length() + 2 * DIGEST_LENGTH + EXTENSION.length();
+
+            for (File file : files) {
+
+                String name = file.getName();
+
+                boolean stale = name.endsWith(EXTENSION)
+                        && (name.length() != nameLength
+                        || name.startsWith(pathPrefix) && !name.startsWith(currentPrefix));
+
+                boolean leftOver = name.endsWith(TEMP_EXTENSION)
+                        && name.contains(EXTENSION)
+                        && System.currentTimeMillis() - file.lastModified() > TEMP_FILE_MAX_AGE;
+
+                if (stale || leftOver) {
+
+                    file.delete();
+
+                }
+            }
+
+        } catch (IOException e) {
+
+            // the cache files are evicted at the next attempt
+
+        }
+    }
+
+    /**
+     * Returns the key identifying an index built from the given FASTA file
+     * with the given parameters: the SHA-256 digest of the format version,
+     * the canonical path, size and modification time of the FASTA file, and
+     * the parameters used to build the index. The content of the FASTA file
+     * is not read.
+     *
+     * @param fastaFile the FASTA file
+     * @param fastaParameters the FASTA parsing parameters
+     * @param peptideVariantsParameters the peptide variants parameters
+     * @param searchParameters the search parameters
+     *
+     * @return the key
+     *
+     * @throws IOException exception thrown if the canonical path of the FASTA
+     * file could not be resolved
+     */
+    public static byte[] getKey(
+            File fastaFile,
+            FastaParameters fastaParameters,
+            PeptideVariantsParameters peptideVariantsParameters,
+            SearchParameters searchParameters
+    ) throws IOException {
+
+        MessageDigest digest = getDigest();
+        digest.update(
+                Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8)
+        );
+
+        digest.update(
+                ("\nfile:" + fastaFile.getCanonicalPath()
+                        + "," + fastaFile.length()
+                        + "," + fastaFile.lastModified()).getBytes(StandardCharsets.UTF_8)
+        );
+
+        digest.update(
+                getParametersDescription(
+                        fastaParameters,
+                        peptideVariantsParameters,
+                        searchParameters
+                ).getBytes(StandardCharsets.UTF_8)
+        );
+
+        return digest.digest();
+
+    }
+
+    /**
+     * Returns a description of the parameters used to build an index.
+     *
+     * @param fastaParameters the FASTA parsing parameters
+     * @param peptideVariantsParameters the peptide variants parameters
+     * @param searchParameters the search parameters
+     *
+     * @return a description of the parameters used to build an index
+     */
+    private static String getParametersDescription(
+            FastaParameters fastaParameters,
+            PeptideVariantsParameters peptideVariantsParameters,
+            SearchParameters searchParameters
+    ) {
+
+        StringBuilder description = new StringBuilder();
+
+        if (fastaParameters != null) {
+
+            description.append("\nfasta:")
+                    .append(fastaParameters.isTargetDecoy()).append(',')
+                    .append(fastaParameters.getDecoyFlag()).append(',')
+                    .append(fastaParameters.isDecoySuffix());
+
+        }
+
+        if (peptideVariantsParameters != null) {
+
+            description.append("\nvariants:")
+                    .append(peptideVariantsParameters.getnVariants()).append(',')
+                    .append(peptideVariantsParameters.getnAaDeletions()).append(',')
+                    .append(peptideVariantsParameters.getnAaInsertions()).append(',')
+                    .append(peptideVariantsParameters.getnAaSubstitutions()).append(',')
+                    .append(peptideVariantsParameters.getnAaSwap()).append(',')
+                    .append(peptideVariantsParameters.getVariantType());
+
+        }
+
+        if (searchParameters != null) {
+
+            description.append("\nprecursor:")
+                    .append(searchParameters.getPrecursorAccuracy()).append(',')
+                    .append(searchParameters.isPrecursorAccuracyTypePpm()).append(',')
+                    .append(searchParameters.getMinIsotopicCorrection()).append(',')
+                    .append(searchParameters.getMaxIsotopicCorrection());
+
+            ModificationParameters modificationParameters = searchParameters.getModificationParameters();
+
+            if (modificationParameters != null) {
+
+                ArrayList<String> fixedModifications = new ArrayList<>(modificationParameters.getFixedModifications());
+                Collections.sort(fixedModifications);
+
+                ArrayList<String> variableModifications = new ArrayList<>(modificationParameters.getAllNotFixedModifications());
+                Collections.sort(variableModifications);
+
+                description.append("\nfixed:").append(String.join(",", fixedModifications))
+                        .append("\nvariable:").append(String.join(",", variableModifications));
+
+            }
+        }
+
+        return description.toString();
+
+    }
+
+    /**
+     * Writes the given object to a cache file with the given key. The object
+     * is first written to a temporary file in the same folder which is then
+     * moved in place, atomically if supported by the file system, so that
+     * concurrent readers never see a partial file.
+     *
+     * @param object the object to write
+     * @param cacheFile the cache file
+     * @param key the key of the object
+     *
+     * @throws IOException exception thrown if an error occurred while writing
+     * the file
+     */
+    public static void writeCacheFile(
+            Serializable object,
+            File cacheFile,
+            byte[] key
+    ) throws IOException {
+
+        if (key.length != DIGEST_LENGTH) {
+
+            throw new IllegalArgumentException("Cache keys must be " + DIGEST_LENGTH + " bytes long.");
+
+        }
+
+        File folder = cacheFile.getAbsoluteFile().getParentFile();
+
+        if (!folder.exists() && !folder.mkdirs()) {
+
+            throw new IOException("Impossible to create folder " + folder.getAbsolutePath() + ".");
+
+        }
+
+        File tempFile = File.createTempFile(cacheFile.getName(), TEMP_EXTENSION, folder);
+
+        try {
+
+            MessageDigest digest = getDigest();
+
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+
+                channel.position(HEADER_LENGTH);
+
+                OutputStream payloadStream = new DigestOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE),
+                        digest
+                );
+
+                try (ObjectOutputStream oos = new ObjectOutputStream(payloadStream)) {
+
+                    oos.writeObject(object);
+
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+
+                long payloadLength = channel.size() - HEADER_LENGTH;
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putLong(MAGIC);
+                header.putInt(VERSION);
+                header.put(key);
+                header.putLong(payloadLength);
+                header.put(digest.digest());
+                header.flip();
+
+                while (header.hasRemaining()) {
+
+                    channel.write(header, header.position());
+
+                }
+
+                channel.force(true);
+
+            }
+
+            try {
+
+                Files.move(
+                        tempFile.toPath(),
+                        cacheFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE
+                );
+
+            } catch (AtomicMoveNotSupportedException e) {
+
+                // the header is only written once the payload is complete, a
+                // partial file is rejected by the readers
+                Files.move(
+                        tempFile.toPath(),
+                        cacheFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                );
+
+            }
+
+        } finally {
+
+            if (tempFile.exists()) {
+
+                tempFile.delete();
+
+            }
+        }
+    }
+
+    /**
+     * Reads the object from the given cache file. The file is mapped
+     * read-only and its header is validated. The payload is then deserialized
+     * allowing only classes of the utilities and core Java packages, and its
+     * digest is computed in the same pass and validated before the object is
+     * returned.
+     *
+     * @param cacheFile the cache file
+     * @param key the expected key
+     *
+     * @return the object, null if the file was written for another key
+     *
+     * @throws IOException exception thrown if the file could not be read, is
+     * corrupted, or contains classes that are not allowed or not found
+     */
+    public static Object readCacheFile(
+            File cacheFile,
+            byte[] key
+    ) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+
+            long fileSize = channel.size();
+
+            if (fileSize < HEADER_LENGTH) {
+
+                throw new IOException("Truncated header.");
+
+            }
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+
+            if (header.getLong() != MAGIC) {
+
+                throw new IOException("Not an FM index cache file.");
+
+            }
+
+            int version = header.getInt();
+
+            if (version != VERSION) {
+
+                throw new IOException("Unsupported format version " + version + ".");
+
+            }
+
+            byte[] fileKey = new byte[DIGEST_LENGTH];
+            header.get(fileKey);
+
+            if (!Arrays.equals(fileKey, key)) {
+
+                return null;
+
+            }
+
+            long payloadLength = header.getLong();
+
+            if (payloadLength != fileSize - HEADER_LENGTH) {
+
+                throw new IOException("Truncated payload.");
+
+            }
+
+            byte[] expectedDigest = new byte[DIGEST_LENGTH];
+            header.get(expectedDigest);
+
+            ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+
+            for (long start = HEADER_LENGTH; start < fileSize; start += SEGMENT_SIZE) {
+
+                segments.add(
+                        channel.map(
+                                FileChannel.MapMode.READ_ONLY,
+                                start,
+                                Math.min(SEGMENT_SIZE, fileSize - start)
+                        )
+                );
+            }
+
+            MessageDigest digest = getDigest();
+            InputStream payloadStream = new DigestInputStream(new MappedInputStream(segments), digest);
+            Object object;
+
+            try (ObjectInputStream ois = new FilteredObjectInputStream(payloadStream)) {
+
+                object = ois.readObject();
+
+                // the digest covers the bytes not read by the deserialization
+                byte[] buffer = new byte[BUFFER_SIZE];
+
+                while (payloadStream.read(buffer) != -1) {
+                }
+
+            } catch (ClassNotFoundException | RuntimeException e) {
+
+                throw new IOException("Corrupted payload.", e);
+
+            }
+
+            if (!MessageDigest.isEqual(digest.digest(), expectedDigest)) {
+
+                throw new IOException("Checksum mismatch.");
+
+            }
+
+            return object;
+
+        }
+    }
+
+    /**
+     * Reports a problem with the cache to the waiting handler if any.
+     *
+     * @param waitingHandler the waiting handler
+     * @param message the message to report
+     */
+    private static void report(
+            WaitingHandler waitingHandler,
+            String message
+    ) {
+
+        if (waitingHandler != null) {
+
+            waitingHandler.appendReport(message, true, true);
+
+        }
+    }
+
+    /**
+     * Returns a new instance of the digest.
+     *
+     * @return a new instance of the digest
+     */
+    private static MessageDigest getDigest() {
+
+        try {
+
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException e) {
+
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not available.", e);
+
+        }
+    }
+
+    /**
+     * Returns the hexadecimal representation of the given bytes.
+     *
+     * @param bytes the bytes
+     *
+     * @return the hexadecimal representation of the given bytes
+     */
+    private static String toHex(
+            byte[] bytes
+    ) {
+
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+
+        for (byte b : bytes) {
+
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+
+        }
+
+        return sb.toString();
+
+    }
+
+    /**
+     * Object input stream only resolving the classes of the allowed packages,
+     * arrays of these classes, and primitive arrays.
+     */
+    private static class FilteredObjectInputStream extends ObjectInputStream {
+
+        /**
+         * Constructor.
+         *
+         * @param in the stream to read from
+         *
+         * @throws IOException exception thrown if the stream header could not
+         * be read
+         */
+        public FilteredObjectInputStream(
+                InputStream in
+        ) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(
+                ObjectStreamClass desc
+        ) throws IOException, ClassNotFoundException {
+
+            String className = desc.getName();
+            String componentName = className.replaceFirst("^\\[+L?", "").replaceFirst(";$", "");
+
+            if (componentName.length() > 1) {
+
+                boolean allowed = false;
+
+                for (String allowedPackage : ALLOWED_PACKAGES) {
+
+                    if (componentName.startsWith(allowedPackage)) {
+
+                        allowed = true;
+                        break;
+
+                    }
+                }
+
+                if (!allowed) {
+
+                    throw new InvalidClassException(className, "Class not allowed in an FM index cache file.");
+
+                }
+            }
+
+            return super.resolveClass(desc);
+
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(
+                String[] interfaces
+        ) throws IOException {
+
+            throw new InvalidClassException("Proxy classes are not allowed in an FM index cache file.");
+
+        }
+    }
+
+    /**
+     * Input stream reading from consecutive memory-mapped buffers.
+     */
+    private static class MappedInputStream extends InputStream {
+
+        /**
+         * The mapped buffers.
+         */
+        private final ArrayList<MappedByteBuffer> segments;
+        /**
+         * The index of the buffer currently read.
+         */
+        private int segmentIndex = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param segments the mapped buffers
+         */
+        public MappedInputStream(
+                ArrayList<MappedByteBuffer> segments
+        ) {
+            this.segments = segments;
+        }
+
+        /**
+         * Returns the buffer to read from, null if all buffers are read.
+         *
+         * @return the buffer to read from
+         */
+        private MappedByteBuffer getSegment() {
+
+            while (segmentIndex < segments.size()) {
+
+                MappedByteBuffer segment = segments.get(segmentIndex);
+
+                if (segment.hasRemaining()) {
+
+                    return segment;
+
+                }
+
+                segmentIndex++;
+
+            }
+
+            return null;
+
+        }
+
+        @Override
+        public int read() {
+
+            MappedByteBuffer segment = getSegment();
+
+            return segment == null ? -1 : segment.get() & 0xFF;
+
+        }
+
+        @Override
+        public int read(
+                byte[] bytes,
+                int offset,
+                int length
+        ) {
+
+            if (length == 0) {
+                return 0;
+            }
+
+            MappedByteBuffer segment = getSegment();
+
+            if (segment == null) {
+                return -1;
+            }
+
+            int toRead = Math.min(length, segment.remaining());
+            segment.get(bytes, offset, toRead);
+
+            return toRead;
+
+        }
+
+        @Override
+        public int available() {
+
+            MappedByteBuffer segment = getSegment();
+
+            return segment == null ? 0 : segment.remaining();
+
+        }
+    }
+}
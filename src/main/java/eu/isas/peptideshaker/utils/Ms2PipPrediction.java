@@ -0,0 +1,603 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.mass_spectrometry.spectra.Spectrum;
+import com.compomics.util.io.flat.SimpleFileReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The fragmentation predicted by ms2pip indexed by peptide key. The peaks of
+ * all peptides are stored in primitive buffers, the peaks of a peptide are
+ * contiguous and sorted by m/z, the peptides are sorted by key. The buffers
+ * are either backed by arrays or memory mapped from an index file.
+ *
+ * @author Marc Vaudel
+ */
+public class Ms2PipPrediction {
+
+    /**
+     * Ion type of peaks that are neither b nor y.
+     */
+    public static final byte OTHER_ION = 0;
+    /**
+     * Ion type of b ion peaks.
+     */
+    public static final byte B_ION = 1;
+    /**
+     * Ion type of y ion peaks.
+     */
+    public static final byte Y_ION = 2;
+    /**
+     * The magic number identifying ms2pip index files.
+     */
+    private static final long MAGIC_NUMBER = 0x50534D5332504950L;
+    /**
+     * The sorted peptide keys.
+     */
+    private final LongBuffer keys;
+    /**
+     * The index of the first peak of every peptide, followed by the total
+     * number of peaks.
+     */
+    private final IntBuffer offsets;
+    /**
+     * The m/z of the peaks.
+     */
+    private final DoubleBuffer[] mzs;
+    /**
+     * The predicted intensities of the peaks.
+     */
+    private final DoubleBuffer[] intensities;
+    /**
+     * The ion type of the peaks.
+     */
+    private final ByteBuffer ionTypes;
+
+    /**
+     * Constructor.
+     *
+     * @param keys The sorted peptide keys.
+     * @param offsets The index of the first peak of every peptide, followed by
+     * the total number of peaks.
+     * @param mzs The m/z of the peaks.
+     * @param intensities The predicted intensities of the peaks.
+     * @param ionTypes The ion type of the peaks.
+     */
+    public Ms2PipPrediction(
+            long[] keys,
+            int[] offsets,
+            double[] mzs,
+            double[] intensities,
+            byte[] ionTypes
+    ) {
+
+        this(
+                LongBuffer.wrap(keys),
+                IntBuffer.wrap(offsets),
+                PredictionUtils.wrap(mzs),
+                PredictionUtils.wrap(intensities),
+                ByteBuffer.wrap(ionTypes)
+        );
+
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param keys The sorted peptide keys.
+     * @param offsets The index of the first peak of every peptide, followed by
+     * the total number of peaks.
+     * @param mzs The m/z of the peaks in segments.
+     * @param intensities The predicted intensities of the peaks in segments.
+     * @param ionTypes The ion type of the peaks.
+     */
+    private Ms2PipPrediction(
+            LongBuffer keys,
+            IntBuffer offsets,
+            DoubleBuffer[] mzs,
+            DoubleBuffer[] intensities,
+            ByteBuffer ionTypes
+    ) {
+
+        this.keys = keys;
+        this.offsets = offsets;
+        this.mzs = mzs;
+        this.intensities = intensities;
+        this.ionTypes = ionTypes;
+
+    }
+
+    /**
+     * Returns the prediction of the given ms2pip file. The prediction is
+     * memory mapped from the index of the file if available and up to date.
+     * Otherwise, the file is parsed and the index written for the next
+     * exports.
+     *
+     * @param ms2pipFile File with spectra fragmentation predictions from
+     * ms2pip.
+     *
+     * @return The prediction.
+     */
+    public static Ms2PipPrediction getPrediction(
+            File ms2pipFile
+    ) {
+
+        File indexFile = PredictionUtils.getIndexFile(ms2pipFile);
+
+        if (indexFile.exists()) {
+
+            try {
+
+                Ms2PipPrediction prediction = load(indexFile, ms2pipFile);
+
+                if (prediction != null) {
+
+                    return prediction;
+
+                }
+
+            } catch (IOException e) {
+
+                System.out.println("Failed to read the ms2pip index " + indexFile + ", the predictions will be parsed again.");
+                e.printStackTrace();
+
+            }
+        }
+
+        Ms2PipPrediction prediction = parse(ms2pipFile);
+
+        try {
+
+            prediction.write(indexFile, ms2pipFile);
+
+        } catch (IOException e) {
+
+            System.out.println("Failed to write the ms2pip index " + indexFile + ".");
+            e.printStackTrace();
+
+        }
+
+        return prediction;
+
+    }
+
+    /**
+     * Memory maps the prediction from the given index file. Returns null if
+     * the index does not correspond to the current version of the ms2pip
+     * file.
+     *
+     * @param indexFile The index file.
+     * @param ms2pipFile The ms2pip file the index was built from.
+     *
+     * @return The prediction.
+     *
+     * @throws IOException Exception thrown if an error occurred while mapping
+     * the file.
+     */
+    public static Ms2PipPrediction load(
+            File indexFile,
+            File ms2pipFile
+    ) throws IOException {
+
+        try ( RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r")) {
+
+            FileChannel channel = randomAccessFile.getChannel();
+
+            if (channel.size() < PredictionUtils.HEADER_SIZE) {
+
+                return null;
+
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, PredictionUtils.HEADER_SIZE);
+
+            if (!PredictionUtils.isValid(header, MAGIC_NUMBER, ms2pipFile)) {
+
+                return null;
+
+            }
+
+            int nKeys = PredictionUtils.getnKeys(header);
+            int nPeaks = PredictionUtils.getnValues(header);
+
+            long expectedSize = PredictionUtils.HEADER_SIZE
+                    + ((long) Long.BYTES) * nKeys
+                    + 2L * Double.BYTES * nPeaks
+                    + ((long) Integer.BYTES) * (nKeys + 1)
+                    + nPeaks;
+
+            if (channel.size() != expectedSize) {
+
+                return null;
+
+            }
+
+            long position = PredictionUtils.HEADER_SIZE;
+
+            LongBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, position, ((long) Long.BYTES) * nKeys).asLongBuffer();
+            position += ((long) Long.BYTES) * nKeys;
+
+            DoubleBuffer[] mzs = PredictionUtils.map(channel, position, nPeaks);
+            position += ((long) Double.BYTES) * nPeaks;
+
+            DoubleBuffer[] intensities = PredictionUtils.map(channel, position, nPeaks);
+            position += ((long) Double.BYTES) * nPeaks;
+
+            IntBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, ((long) Integer.BYTES) * (nKeys + 1)).asIntBuffer();
+            position += ((long) Integer.BYTES) * (nKeys + 1);
+
+            ByteBuffer ionTypes = channel.map(FileChannel.MapMode.READ_ONLY, position, nPeaks);
+
+            return new Ms2PipPrediction(keys, offsets, mzs, intensities, ionTypes);
+
+        }
+    }
+
+    /**
+     * Writes the prediction to the given index file. The index is written to
+     * a temporary file first, and renamed when complete.
+     *
+     * @param indexFile The index file.
+     * @param ms2pipFile The ms2pip file the prediction was parsed from.
+     *
+     * @throws IOException Exception thrown if an error occurred while writing
+     * the file.
+     */
+    public void write(
+            File indexFile,
+            File ms2pipFile
+    ) throws IOException {
+
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + "_temp");
+
+        try ( DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+
+            int nKeys = keys.limit();
+
+            PredictionUtils.writeHeader(outputStream, MAGIC_NUMBER, ms2pipFile, nKeys, offsets.get(nKeys));
+
+            for (int i = 0; i < nKeys; i++) {
+
+                outputStream.writeLong(keys.get(i));
+
+            }
+
+            PredictionUtils.write(outputStream, mzs);
+            PredictionUtils.write(outputStream, intensities);
+
+            for (int i = 0; i <= nKeys; i++) {
+
+                outputStream.writeInt(offsets.get(i));
+
+            }
+
+            for (int i = 0; i < ionTypes.limit(); i++) {
+
+                outputStream.writeByte(ionTypes.get(i));
+
+            }
+        }
+
+        if (indexFile.exists() && !indexFile.delete() || !tempFile.renameTo(indexFile)) {
+
+            tempFile.delete();
+
+            throw new IOException("Failed to move " + tempFile + " to " + indexFile + ".");
+
+        }
+    }
+
+    /**
+     * Parses the peaks intensities prediction from ms2pip. If a peptide is
+     * found multiple times, the last prediction is retained.
+     *
+     * Expected format:
+     * predicted_spectrum_key,charge,ion,ionnumber,mz,prediction
+     * 2238942014911164193,3,B,1,138.066,0
+     *
+     * @param ms2pipFile File with spectra fragmentation predictions from
+     * ms2pip.
+     *
+     * @return The prediction.
+     */
+    public static Ms2PipPrediction parse(
+            File ms2pipFile
+    ) {
+
+        int nPeaks = 0;
+        double[] fileMzs = new double[1024];
+        double[] fileIntensities = new double[1024];
+        byte[] fileIonTypes = new byte[1024];
+
+        int nBlocks = 0;
+        long[] blockKeys = new long[1024];
+        int[] blockStarts = new int[1025];
+
+        try ( SimpleFileReader reader = SimpleFileReader.getFileReader(ms2pipFile)) {
+
+            String line = reader.readLine();
+            String blockKey = null;
+
+            while ((line = reader.readLine()) != null) {
+
+                String[] lineSplit = line.split(",");
+
+                String key = lineSplit[0];
+
+                if (!key.equals(blockKey)) {
+
+                    if (blockKey != null) {
+
+                        sortPeaks(fileMzs, fileIntensities, fileIonTypes, blockStarts[nBlocks - 1], nPeaks);
+
+                    }
+
+                    if (nBlocks == blockKeys.length) {
+
+                        blockKeys = Arrays.copyOf(blockKeys, 2 * nBlocks);
+                        blockStarts = Arrays.copyOf(blockStarts, 2 * nBlocks + 1);
+
+                    }
+
+                    blockKeys[nBlocks] = Long.parseLong(key);
+                    blockStarts[nBlocks] = nPeaks;
+                    nBlocks++;
+
+                    blockKey = key;
+
+                }
+
+                if (nPeaks == fileMzs.length) {
+
+                    fileMzs = Arrays.copyOf(fileMzs, 2 * nPeaks);
+                    fileIntensities = Arrays.copyOf(fileIntensities, 2 * nPeaks);
+                    fileIonTypes = Arrays.copyOf(fileIonTypes, 2 * nPeaks);
+
+                }
+
+                fileMzs[nPeaks] = Double.parseDouble(lineSplit[4]);
+                fileIntensities[nPeaks] = Double.parseDouble(lineSplit[5]);
+                fileIonTypes[nPeaks] = getIonType(lineSplit[2]);
+                nPeaks++;
+
+            }
+
+            if (blockKey != null) {
+
+                sortPeaks(fileMzs, fileIntensities, fileIonTypes, blockStarts[nBlocks - 1], nPeaks);
+
+            }
+        }
+
+        blockStarts[nBlocks] = nPeaks;
+
+        // Sort the peptides by key, retaining the last prediction of duplicate keys
+        int[] sortedBlocks = PredictionUtils.getSortedRows(blockKeys, nBlocks);
+
+        int nKeys = 0;
+        int nSortedPeaks = 0;
+
+        for (int i = 0; i < nBlocks; i++) {
+
+            int block = sortedBlocks[i];
+
+            if (i == nBlocks - 1 || blockKeys[sortedBlocks[i + 1]] != blockKeys[block]) {
+
+                nKeys++;
+                nSortedPeaks += blockStarts[block + 1] - blockStarts[block];
+
+            }
+        }
+
+        long[] keys = new long[nKeys];
+        int[] offsets = new int[nKeys + 1];
+        double[] mzs = new double[nSortedPeaks];
+        double[] intensities = new double[nSortedPeaks];
+        byte[] ionTypes = new byte[nSortedPeaks];
+
+        int keyIndex = 0;
+        int peakIndex = 0;
+
+        for (int i = 0; i < nBlocks; i++) {
+
+            int block = sortedBlocks[i];
+
+            if (i == nBlocks - 1 || blockKeys[sortedBlocks[i + 1]] != blockKeys[block]) {
+
+                int start = blockStarts[block];
+                int length = blockStarts[block + 1] - start;
+
+                keys[keyIndex] = blockKeys[block];
+                offsets[keyIndex] = peakIndex;
+
+                System.arraycopy(fileMzs, start, mzs, peakIndex, length);
+                System.arraycopy(fileIntensities, start, intensities, peakIndex, length);
+                System.arraycopy(fileIonTypes, start, ionTypes, peakIndex, length);
+
+                keyIndex++;
+                peakIndex += length;
+
+            }
+        }
+
+        offsets[nKeys] = peakIndex;
+
+        return new Ms2PipPrediction(keys, offsets, mzs, intensities, ionTypes);
+
+    }
+
+    /**
+     * Returns the ion type corresponding to the ion name in the ms2pip
+     * results.
+     *
+     * @param ion The ion name.
+     *
+     * @return The ion type.
+     */
+    private static byte getIonType(
+            String ion
+    ) {
+
+        if (ion.equals("B") || ion.equals("B2")) {
+
+            return B_ION;
+
+        } else if (ion.equals("Y") || ion.equals("Y2")) {
+
+            return Y_ION;
+
+        }
+
+        return OTHER_ION;
+
+    }
+
+    /**
+     * Sorts the peaks between the given indexes by m/z. Peaks of a peptide are
+     * few and mostly sorted already, they are sorted by insertion.
+     *
+     * @param mzs The m/z of the peaks.
+     * @param intensities The intensities of the peaks.
+     * @param ionTypes The ion types of the peaks.
+     * @param start The index of the first peak, inclusive.
+     * @param end The index of the last peak, exclusive.
+     */
+    private static void sortPeaks(
+            double[] mzs,
+            double[] intensities,
+            byte[] ionTypes,
+            int start,
+            int end
+    ) {
+
+        for (int i = start + 1; i < end; i++) {
+
+            double mz = mzs[i];
+            double intensity = intensities[i];
+            byte ionType = ionTypes[i];
+
+            int j = i - 1;
+
+            while (j >= start && mzs[j] > mz) {
+
+                mzs[j + 1] = mzs[j];
+                intensities[j + 1] = intensities[j];
+                ionTypes[j + 1] = ionTypes[j];
+                j--;
+
+            }
+
+            mzs[j + 1] = mz;
+            intensities[j + 1] = intensity;
+            ionTypes[j + 1] = ionType;
+
+        }
+    }
+
+    /**
+     * Returns the predicted spectra of the peptide with the given key: the
+     * spectrum with all peaks, the spectrum of the b ions, and the spectrum of
+     * the y ions. Null if no prediction is available for this peptide.
+     *
+     * @param peptideKey The key of the peptide as given by
+     * Ms2PipUtils.getPeptideKey.
+     *
+     * @return The predicted spectra.
+     */
+    public ArrayList<Spectrum> getPredictedSpectra(
+            long peptideKey
+    ) {
+
+        int index = PredictionUtils.binarySearch(keys, peptideKey);
+
+        if (index < 0) {
+
+            return null;
+
+        }
+
+        int start = offsets.get(index);
+        int end = offsets.get(index + 1);
+
+        int nB = 0;
+        int nY = 0;
+
+        for (int i = start; i < end; i++) {
+
+            byte ionType = ionTypes.get(i);
+
+            if (ionType == B_ION) {
+
+                nB++;
+
+            } else if (ionType == Y_ION) {
+
+                nY++;
+
+            }
+        }
+
+        double[] mzsAll = new double[end - start];
+        double[] intensitiesAll = new double[end - start];
+        double[] mzsB = new double[nB];
+        double[] intensitiesB = new double[nB];
+        double[] mzsY = new double[nY];
+        double[] intensitiesY = new double[nY];
+
+        int iB = 0;
+        int iY = 0;
+
+        for (int i = start; i < end; i++) {
+
+            double mz = PredictionUtils.get(mzs, i);
+            double intensity = PredictionUtils.get(intensities, i);
+            byte ionType = ionTypes.get(i);
+
+            mzsAll[i - start] = mz;
+            intensitiesAll[i - start] = intensity;
+
+            if (ionType == B_ION) {
+
+                mzsB[iB] = mz;
+                intensitiesB[iB] = intensity;
+                iB++;
+
+            } else if (ionType == Y_ION) {
+
+                mzsY[iY] = mz;
+                intensitiesY[iY] = intensity;
+                iY++;
+
+            }
+        }
+
+        ArrayList<Spectrum> predictedSpectra = new ArrayList<>(3);
+        predictedSpectra.add(new Spectrum(null, mzsAll, intensitiesAll, 2));
+        predictedSpectra.add(new Spectrum(null, mzsB, intensitiesB, 2));
+        predictedSpectra.add(new Spectrum(null, mzsY, intensitiesY, 2));
+
+        return predictedSpectra;
+
+    }
+
+    /**
+     * Returns the number of peptides.
+     *
+     * @return The number of peptides.
+     */
+    public int size() {
+        return keys.limit();
+    }
+}
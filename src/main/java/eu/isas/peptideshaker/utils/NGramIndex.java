@@ -0,0 +1,332 @@
+package eu.isas.peptideshaker.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+
+/**
+ * Inverted index of the n-grams of the texts of items. Items are numbered
+ * from zero, the posting list of every n-gram is stored as variable length
+ * deltas between item numbers. N-grams are indexed in lower case.
+ *
+ * @author Marc Vaudel
+ */
+public class NGramIndex {
+
+    /**
+     * The length of the n-grams indexed.
+     */
+    public static final int N_GRAM = 3;
+    /**
+     * The posting lists of the n-grams.
+     */
+    private final HashMap<String, byte[]> postings;
+    /**
+     * The number of items in the posting lists.
+     */
+    private final HashMap<String, Integer> postingsSizes;
+
+    /**
+     * Constructor.
+     *
+     * @param postings the posting lists of the n-grams
+     * @param postingsSizes the number of items in the posting lists
+     */
+    private NGramIndex(
+            HashMap<String, byte[]> postings,
+            HashMap<String, Integer> postingsSizes
+    ) {
+
+        this.postings = postings;
+        this.postingsSizes = postingsSizes;
+
+    }
+
+    /**
+     * Returns the items whose text may contain the given input in lower
+     * case, in increasing order. If the input is shorter than an n-gram,
+     * all items are returned.
+     *
+     * @param inputLowerCase the input in lower case
+     * @param nItems the number of items
+     *
+     * @return the candidate items
+     */
+    public int[] getCandidates(
+            String inputLowerCase,
+            int nItems
+    ) {
+
+        if (inputLowerCase.length() < N_GRAM) {
+
+            int[] result = new int[nItems];
+
+            for (int i = 0; i < nItems; i++) {
+
+                result[i] = i;
+
+            }
+
+            return result;
+
+        }
+
+        // Intersect the posting lists from the shortest
+        String[] nGrams = getNGrams(inputLowerCase).stream()
+                .sorted((nGram1, nGram2) -> Integer.compare(postingsSizes.getOrDefault(nGram1, 0), postingsSizes.getOrDefault(nGram2, 0)))
+                .toArray(String[]::new);
+
+        int[] result = null;
+
+        for (String nGram : nGrams) {
+
+            byte[] posting = postings.get(nGram);
+
+            if (posting == null) {
+
+                return new int[0];
+
+            }
+
+            int[] items = decode(posting, postingsSizes.get(nGram));
+            result = result == null ? items : intersect(result, items);
+
+            if (result.length == 0) {
+
+                break;
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the distinct n-grams of the given text.
+     *
+     * @param text the text
+     *
+     * @return the distinct n-grams of the text
+     */
+    private static HashSet<String> getNGrams(
+            String text
+    ) {
+
+        HashSet<String> nGrams = new HashSet<>(text.length());
+
+        for (int i = 0; i + N_GRAM <= text.length(); i++) {
+
+            nGrams.add(text.substring(i, i + N_GRAM));
+
+        }
+
+        return nGrams;
+
+    }
+
+    /**
+     * Decodes the given posting list.
+     *
+     * @param posting the posting list
+     * @param size the number of items in the posting list
+     *
+     * @return the items of the posting list
+     */
+    private static int[] decode(
+            byte[] posting,
+            int size
+    ) {
+
+        int[] items = new int[size];
+        int item = 0;
+        int position = 0;
+
+        for (int i = 0; i < size; i++) {
+
+            int delta = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+
+                b = posting[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+
+            } while ((b & 0x80) != 0);
+
+            item += delta;
+            items[i] = item;
+
+        }
+
+        return items;
+
+    }
+
+    /**
+     * Returns the intersection of the given sorted arrays.
+     *
+     * @param items1 the first array
+     * @param items2 the second array
+     *
+     * @return the intersection of the arrays
+     */
+    private static int[] intersect(
+            int[] items1,
+            int[] items2
+    ) {
+
+        int[] result = new int[Math.min(items1.length, items2.length)];
+        int i1 = 0, i2 = 0, n = 0;
+
+        while (i1 < items1.length && i2 < items2.length) {
+
+            if (items1[i1] < items2[i2]) {
+
+                i1++;
+
+            } else if (items1[i1] > items2[i2]) {
+
+                i2++;
+
+            } else {
+
+                result[n++] = items1[i1];
+                i1++;
+                i2++;
+
+            }
+        }
+
+        return Arrays.copyOf(result, n);
+
+    }
+
+    /**
+     * Builder for an n-gram index. Items must be added in increasing
+     * order.
+     */
+    public static class Builder {
+
+        /**
+         * The posting lists being built.
+         */
+        private final HashMap<String, Posting> postings = new HashMap<>();
+
+        /**
+         * Adds the n-grams of the given text to the given item. Null
+         * texts are ignored.
+         *
+         * @param item the item
+         * @param text the text
+         */
+        public void add(
+                int item,
+                String text
+        ) {
+
+            if (text == null) {
+                return;
+            }
+
+            for (String nGram : getNGrams(text.toLowerCase())) {
+
+                Posting posting = postings.get(nGram);
+
+                if (posting == null) {
+
+                    posting = new Posting();
+                    postings.put(nGram, posting);
+
+                }
+
+                posting.add(item);
+
+            }
+        }
+
+        /**
+         * Builds the index.
+         *
+         * @return the index
+         */
+        public NGramIndex build() {
+
+            HashMap<String, byte[]> compactPostings = new HashMap<>(postings.size());
+            HashMap<String, Integer> postingsSizes = new HashMap<>(postings.size());
+
+            for (Entry<String, Posting> entry : postings.entrySet()) {
+
+                Posting posting = entry.getValue();
+                compactPostings.put(entry.getKey(), Arrays.copyOf(posting.bytes, posting.length));
+                postingsSizes.put(entry.getKey(), posting.size);
+
+            }
+
+            return new NGramIndex(compactPostings, postingsSizes);
+
+        }
+    }
+
+    /**
+     * A posting list being built.
+     */
+    private static class Posting {
+
+        /**
+         * The encoded deltas between items.
+         */
+        private byte[] bytes = new byte[4];
+        /**
+         * The number of bytes used.
+         */
+        private int length = 0;
+        /**
+         * The number of items.
+         */
+        private int size = 0;
+        /**
+         * The last item added.
+         */
+        private int lastItem = 0;
+
+        /**
+         * Adds an item to the posting list if different from the last
+         * item added.
+         *
+         * @param item the item
+         */
+        private void add(
+                int item
+        ) {
+
+            if (size > 0 && item == lastItem) {
+                return;
+            }
+
+            int delta = item - lastItem;
+
+            if (length + 5 > bytes.length) {
+
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length + 5);
+
+            }
+
+            while ((delta & ~0x7F) != 0) {
+
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+
+            }
+
+            bytes[length++] = (byte) delta;
+
+            lastItem = item;
+            size++;
+
+        }
+    }
+}
@@ -0,0 +1,715 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.biology.proteins.Peptide;
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches_iterators.PeptideMatchesIterator;
+import com.compomics.util.experiment.identification.utils.PeptideUtils;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import com.compomics.util.waiting.WaitingHandler;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the peptide sequences and modifications of a project. The
+ * sequences are indexed in a generalized suffix array, allowing the retrieval
+ * of the peptides related to a sequence without iterating all peptides. The
+ * target peptides are also indexed by variable modification.
+ *
+ * The index is built once the peptides are final, i.e. after modification
+ * localization, and stored in the project. The validation and hidden status
+ * of the peptides is not indexed.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideSequenceIndex extends ExperimentObject implements UrParameter {
+
+    /**
+     * Serial version UID for post-serialization compatibility.
+     */
+    static final long serialVersionUID = 4920178375463011862L;
+    /**
+     * The key of the object when stored in a psdb file.
+     */
+    public static final long KEY = ExperimentObject.asLong("PeptideShaker_peptide_sequence_index");
+    /**
+     * Empty index to use as key for the identification parameters.
+     */
+    public static final PeptideSequenceIndex dummy = new PeptideSequenceIndex();
+    /**
+     * The byte ending every sequence in the text.
+     */
+    private static final byte SEPARATOR = 0;
+    /**
+     * The size under which suffixes are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_SIZE = 16;
+    /**
+     * The distinct peptide sequences in lexicographic order, every sequence
+     * is followed by a separator.
+     */
+    private byte[] text;
+    /**
+     * The start of every sequence in the text.
+     */
+    private int[] sequenceStarts;
+    /**
+     * The start of every suffix of the sequences in lexicographic order.
+     */
+    private int[] suffixArray;
+    /**
+     * The index of the first peptide key of every sequence in the peptide
+     * keys.
+     */
+    private int[] sequencePeptides;
+    /**
+     * The keys of all peptides grouped by sequence.
+     */
+    private long[] peptideKeys;
+    /**
+     * The keys of the target peptides carrying each variable modification.
+     */
+    private HashMap<String, long[]> modifiedPeptides;
+    /**
+     * The keys of the target peptides without variable modification.
+     */
+    private long[] unmodifiedPeptides;
+
+    /**
+     * Empty default constructor.
+     */
+    public PeptideSequenceIndex() {
+
+    }
+
+    /**
+     * Constructor. Indexes the peptides of the given identification.
+     *
+     * @param identification the identification
+     * @param sequenceProvider the sequence provider
+     * @param waitingHandler a waiting handler, can be null
+     */
+    public PeptideSequenceIndex(
+            Identification identification,
+            SequenceProvider sequenceProvider,
+            WaitingHandler waitingHandler
+    ) {
+
+        TreeMap<String, ArrayList<Long>> sequencesMap = new TreeMap<>();
+        HashMap<String, ArrayList<Long>> modificationsMap = new HashMap<>();
+        ArrayList<Long> unmodifiedPeptidesList = new ArrayList<>();
+
+        PeptideMatchesIterator peptideMatchesIterator = identification.getPeptideMatchesIterator(waitingHandler);
+        PeptideMatch peptideMatch;
+
+        while ((peptideMatch = peptideMatchesIterator.next()) != null) {
+
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+
+            long peptideKey = peptideMatch.getKey();
+            Peptide peptide = peptideMatch.getPeptide();
+
+            ArrayList<Long> sequencePeptideKeys = sequencesMap.get(peptide.getSequence());
+
+            if (sequencePeptideKeys == null) {
+
+                sequencePeptideKeys = new ArrayList<>(1);
+                sequencesMap.put(peptide.getSequence(), sequencePeptideKeys);
+
+            }
+
+            sequencePeptideKeys.add(peptideKey);
+
+            if (!PeptideUtils.isDecoy(peptide, sequenceProvider)) {
+
+                if (peptide.getVariableModifications().length == 0) {
+
+                    unmodifiedPeptidesList.add(peptideKey);
+
+                } else {
+
+                    HashSet<String> modifications = new HashSet<>(peptide.getVariableModifications().length);
+
+                    for (ModificationMatch modificationMatch : peptide.getVariableModifications()) {
+
+                        modifications.add(modificationMatch.getModification());
+
+                    }
+
+                    for (String modification : modifications) {
+
+                        ArrayList<Long> modificationPeptideKeys = modificationsMap.get(modification);
+
+                        if (modificationPeptideKeys == null) {
+
+                            modificationPeptideKeys = new ArrayList<>();
+                            modificationsMap.put(modification, modificationPeptideKeys);
+
+                        }
+
+                        modificationPeptideKeys.add(peptideKey);
+
+                    }
+                }
+            }
+        }
+
+        index(
+                sequencesMap,
+                modificationsMap,
+                unmodifiedPeptidesList
+        );
+
+    }
+
+    /**
+     * Constructor. Indexes the given peptide keys.
+     *
+     * @param sequencesMap the keys of all peptides indexed by sequence
+     * @param modificationsMap the keys of the target peptides indexed by
+     * variable modification
+     * @param unmodifiedPeptidesList the keys of the target peptides without
+     * variable modification
+     */
+    public PeptideSequenceIndex(
+            TreeMap<String, ArrayList<Long>> sequencesMap,
+            HashMap<String, ArrayList<Long>> modificationsMap,
+            ArrayList<Long> unmodifiedPeptidesList
+    ) {
+
+        index(
+                sequencesMap,
+                modificationsMap,
+                unmodifiedPeptidesList
+        );
+
+    }
+
+    /**
+     * Builds the index from the given peptide keys.
+     *
+     * @param sequencesMap the keys of all peptides indexed by sequence
+     * @param modificationsMap the keys of the target peptides indexed by
+     * variable modification
+     * @param unmodifiedPeptidesList the keys of the target peptides without
+     * variable modification
+     */
+    private void index(
+            TreeMap<String, ArrayList<Long>> sequencesMap,
+            HashMap<String, ArrayList<Long>> modificationsMap,
+            ArrayList<Long> unmodifiedPeptidesList
+    ) {
+
+        // Concatenate the sequences
+        int nSequences = sequencesMap.size();
+        int textLength = sequencesMap.keySet().stream()
+                .mapToInt(sequence -> sequence.length() + 1)
+                .sum();
+        int nPeptides = sequencesMap.values().stream()
+                .mapToInt(ArrayList::size)
+                .sum();
+
+        text = new byte[textLength];
+        sequenceStarts = new int[nSequences + 1];
+        sequencePeptides = new int[nSequences + 1];
+        peptideKeys = new long[nPeptides];
+
+        int sequenceIndex = 0, position = 0, peptideIndex = 0;
+
+        for (Entry<String, ArrayList<Long>> entry : sequencesMap.entrySet()) {
+
+            sequenceStarts[sequenceIndex] = position;
+            sequencePeptides[sequenceIndex] = peptideIndex;
+
+            byte[] sequence = entry.getKey().getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(sequence, 0, text, position, sequence.length);
+            position += sequence.length;
+            text[position++] = SEPARATOR;
+
+            for (long peptideKey : entry.getValue()) {
+
+                peptideKeys[peptideIndex++] = peptideKey;
+
+            }
+
+            sequenceIndex++;
+
+        }
+
+        sequenceStarts[nSequences] = position;
+        sequencePeptides[nSequences] = peptideIndex;
+
+        // Sort the suffixes
+        suffixArray = new int[textLength - nSequences];
+        int suffixIndex = 0;
+
+        for (int i = 0; i < textLength; i++) {
+
+            if (text[i] != SEPARATOR) {
+
+                suffixArray[suffixIndex++] = i;
+
+            }
+        }
+
+        sortSuffixes(0, suffixArray.length, 0);
+
+        // Modifications
+        modifiedPeptides = new HashMap<>(modificationsMap.size());
+
+        for (Entry<String, ArrayList<Long>> entry : modificationsMap.entrySet()) {
+
+            modifiedPeptides.put(
+                    entry.getKey(),
+                    entry.getValue().stream()
+                            .mapToLong(a -> a)
+                            .toArray()
+            );
+        }
+
+        unmodifiedPeptides = unmodifiedPeptidesList.stream()
+                .mapToLong(a -> a)
+                .toArray();
+
+    }
+
+    /**
+     * Returns the keys of the peptides whose sequence contains the given
+     * sequence or is contained in the given sequence, including the peptides
+     * of the given sequence.
+     *
+     * @param sequence the amino acid sequence
+     *
+     * @return the keys of the related peptides
+     */
+    public long[] getRelatedPeptides(
+            String sequence
+    ) {
+
+        byte[] pattern = sequence.getBytes(StandardCharsets.US_ASCII);
+        BitSet sequences = new BitSet(sequenceStarts.length);
+
+        // Sequences containing the given sequence
+        int start = getFirstSuffix(pattern, false);
+        int end = getFirstSuffix(pattern, true);
+
+        for (int i = start; i < end; i++) {
+
+            sequences.set(getSequenceIndex(suffixArray[i]));
+
+        }
+
+        // Sequences contained in the given sequence
+        for (int i = 0; i < pattern.length; i++) {
+
+            for (int j = i + 1; j <= pattern.length; j++) {
+
+                int sequenceIndex = getSequenceIndex(pattern, i, j);
+
+                if (sequenceIndex >= 0) {
+
+                    sequences.set(sequenceIndex);
+
+                }
+            }
+        }
+
+        int nPeptides = sequences.stream()
+                .map(sequenceIndex -> sequencePeptides[sequenceIndex + 1] - sequencePeptides[sequenceIndex])
+                .sum();
+
+        long[] result = new long[nPeptides];
+        int resultIndex = 0;
+
+        for (int sequenceIndex = sequences.nextSetBit(0); sequenceIndex >= 0; sequenceIndex = sequences.nextSetBit(sequenceIndex + 1)) {
+
+            for (int i = sequencePeptides[sequenceIndex]; i < sequencePeptides[sequenceIndex + 1]; i++) {
+
+                result[resultIndex++] = peptideKeys[i];
+
+            }
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the keys of the target peptides carrying the given variable
+     * modification, null if none.
+     *
+     * @param modification the name of the modification
+     *
+     * @return the keys of the target peptides carrying the modification
+     */
+    public long[] getModifiedPeptides(
+            String modification
+    ) {
+
+        return modifiedPeptides.get(modification);
+
+    }
+
+    /**
+     * Returns the names of the variable modifications found on target
+     * peptides.
+     *
+     * @return the names of the variable modifications
+     */
+    public Set<String> getModifications() {
+
+        return modifiedPeptides.keySet();
+
+    }
+
+    /**
+     * Returns the keys of the target peptides without variable modification.
+     *
+     * @return the keys of the target peptides without variable modification
+     */
+    public long[] getUnmodifiedPeptides() {
+
+        return unmodifiedPeptides;
+
+    }
+
+    /**
+     * Returns the index of the first suffix greater than the given pattern,
+     * or greater or equal if strict is false, considering only the length of
+     * the pattern.
+     *
+     * @param pattern the pattern
+     * @param strict boolean indicating whether suffixes starting with the
+     * pattern should be skipped
+     *
+     * @return the index of the first suffix after the pattern
+     */
+    private int getFirstSuffix(
+            byte[] pattern,
+            boolean strict
+    ) {
+
+        int low = 0, high = suffixArray.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+            int comparison = comparePrefix(suffixArray[middle], pattern);
+
+            if (comparison < 0 || strict && comparison == 0) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        return low;
+
+    }
+
+    /**
+     * Compares the suffix starting at the given position to the given pattern,
+     * considering only the length of the pattern.
+     *
+     * @param position the start of the suffix
+     * @param pattern the pattern
+     *
+     * @return a negative integer, zero, or a positive integer as the suffix
+     * is less than, starts with, or is greater than the pattern
+     */
+    private int comparePrefix(
+            int position,
+            byte[] pattern
+    ) {
+
+        for (int k = 0; k < pattern.length; k++) {
+
+            int comparison = text[position + k] - pattern[k];
+
+            if (comparison != 0) {
+
+                return comparison;
+
+            }
+        }
+
+        return 0;
+
+    }
+
+    /**
+     * Returns the index of the sequence containing the given position in the
+     * text.
+     *
+     * @param position the position in the text
+     *
+     * @return the index of the sequence
+     */
+    private int getSequenceIndex(
+            int position
+    ) {
+
+        int index = Arrays.binarySearch(sequenceStarts, position);
+
+        return index >= 0 ? index : -index - 2;
+
+    }
+
+    /**
+     * Returns the index of the sequence equal to the given portion of the
+     * pattern, -1 if not found.
+     *
+     * @param pattern the pattern
+     * @param from the start of the portion, inclusive
+     * @param to the end of the portion, exclusive
+     *
+     * @return the index of the sequence
+     */
+    private int getSequenceIndex(
+            byte[] pattern,
+            int from,
+            int to
+    ) {
+
+        int low = 0, high = sequenceStarts.length - 2;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+            int position = sequenceStarts[middle];
+            int comparison = 0;
+
+            for (int k = from; k <= to && comparison == 0; k++) {
+
+                int patternByte = k < to ? pattern[k] : SEPARATOR;
+                comparison = text[position + k - from] - patternByte;
+
+            }
+
+            if (comparison < 0) {
+
+                low = middle + 1;
+
+            } else if (comparison > 0) {
+
+                high = middle - 1;
+
+            } else {
+
+                return middle;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Returns the byte of the suffix starting at the given position at the
+     * given depth.
+     *
+     * @param position the start of the suffix
+     * @param depth the depth
+     *
+     * @return the byte at the given depth
+     */
+    private int byteAt(
+            int position,
+            int depth
+    ) {
+
+        return text[position + depth];
+
+    }
+
+    /**
+     * Sorts the suffixes in the given range of the suffix array, all sharing
+     * their first depth bytes, using a multikey quicksort.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param depth the number of bytes shared by the suffixes
+     */
+    private void sortSuffixes(
+            int from,
+            int to,
+            int depth
+    ) {
+
+        while (to - from > INSERTION_SORT_SIZE) {
+
+            int pivot = medianOfThree(from, (from + to) >>> 1, to - 1, depth);
+
+            // Partition in lower, equal, and greater than the pivot
+            int lt = from, gt = to - 1, i = from;
+
+            while (i <= gt) {
+
+                int b = byteAt(suffixArray[i], depth);
+
+                if (b < pivot) {
+
+                    swap(lt++, i++);
+
+                } else if (b > pivot) {
+
+                    swap(i, gt--);
+
+                } else {
+
+                    i++;
+
+                }
+            }
+
+            sortSuffixes(from, lt, depth);
+            sortSuffixes(gt + 1, to, depth);
+
+            if (pivot == SEPARATOR) {
+                return;
+            }
+
+            from = lt;
+            to = gt + 1;
+            depth++;
+
+        }
+
+        insertionSort(from, to, depth);
+
+    }
+
+    /**
+     * Returns the median of the bytes of the suffixes at the given indexes of
+     * the suffix array at the given depth.
+     *
+     * @param i1 the first index
+     * @param i2 the second index
+     * @param i3 the third index
+     * @param depth the depth
+     *
+     * @return the median byte
+     */
+    private int medianOfThree(
+            int i1,
+            int i2,
+            int i3,
+            int depth
+    ) {
+
+        int b1 = byteAt(suffixArray[i1], depth);
+        int b2 = byteAt(suffixArray[i2], depth);
+        int b3 = byteAt(suffixArray[i3], depth);
+
+        return Math.max(Math.min(b1, b2), Math.min(Math.max(b1, b2), b3));
+
+    }
+
+    /**
+     * Sorts the suffixes in the given range of the suffix array, all sharing
+     * their first depth bytes, by insertion.
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, exclusive
+     * @param depth the number of bytes shared by the suffixes
+     */
+    private void insertionSort(
+            int from,
+            int to,
+            int depth
+    ) {
+
+        for (int i = from + 1; i < to; i++) {
+
+            int suffix = suffixArray[i];
+            int j = i;
+
+            while (j > from && compareSuffixes(suffixArray[j - 1], suffix, depth) > 0) {
+
+                suffixArray[j] = suffixArray[j - 1];
+                j--;
+
+            }
+
+            suffixArray[j] = suffix;
+
+        }
+    }
+
+    /**
+     * Compares the suffixes starting at the given positions from the given
+     * depth. Suffixes are compared until the end of their sequence.
+     *
+     * @param position1 the start of the first suffix
+     * @param position2 the start of the second suffix
+     * @param depth the depth
+     *
+     * @return a negative integer, zero, or a positive integer as the first
+     * suffix is less than, equal to, or greater than the second
+     */
+    private int compareSuffixes(
+            int position1,
+            int position2,
+            int depth
+    ) {
+
+        for (int k = depth;; k++) {
+
+            int b1 = byteAt(position1, k);
+            int b2 = byteAt(position2, k);
+
+            if (b1 != b2) {
+
+                return b1 - b2;
+
+            }
+
+            if (b1 == SEPARATOR) {
+
+                return 0;
+
+            }
+        }
+    }
+
+    /**
+     * Swaps two entries of the suffix array.
+     *
+     * @param i the first index
+     * @param j the second index
+     */
+    private void swap(
+            int i,
+            int j
+    ) {
+
+        int temp = suffixArray[i];
+        suffixArray[i] = suffixArray[j];
+        suffixArray[j] = temp;
+
+    }
+
+    @Override
+    public long getParameterKey() {
+
+        return KEY;
+
+    }
+}
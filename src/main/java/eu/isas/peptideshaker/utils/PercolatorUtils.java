@@ -9,7 +9,6 @@ import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
-import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.identification.utils.PeptideUtils;
@@ -163,6 +162,8 @@ public class PercolatorUtils {
      * @param sequenceProvider The sequence provider.
      * @param sequenceMatchingParameters The sequence matching parameters.
      * @param annotationParameters The annotation parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
      * @param modificationLocalizationParameters The modification localization
      * parameters.
      * @param modificationFactory The factory containing the modification
@@ -181,6 +182,7 @@ public class PercolatorUtils {
             SequenceProvider sequenceProvider,
             SequenceMatchingParameters sequenceMatchingParameters,
             AnnotationParameters annotationParameters,
+            long annotationSettingsKey,
             ModificationLocalizationParameters modificationLocalizationParameters,
             ModificationFactory modificationFactory,
             SpectrumProvider spectrumProvider,
@@ -265,6 +267,7 @@ public class PercolatorUtils {
                     peptideAssumption,
                     searchParameters,
                     annotationParameters,
+                    annotationSettingsKey,
                     modificationLocalizationParameters,
                     sequenceProvider,
                     spectrumProvider
@@ -1280,6 +1283,8 @@ public class PercolatorUtils {
      * @param peptideAssumption The peptide assumption object.
      * @param searchParameters The search parameters.
      * @param annotationParameters The annotation parameters.
+     * @param annotationSettingsKey The key of the annotation settings in the
+     * spectrum annotation cache.
      * @param modificationLocalizationParameters The modification localization
      * parameters.
      * @param sequenceProvider The sequence provider to use for protein
@@ -1293,35 +1298,27 @@ public class PercolatorUtils {
             PeptideAssumption peptideAssumption,
             SearchParameters searchParameters,
             AnnotationParameters annotationParameters,
+            long annotationSettingsKey,
             ModificationLocalizationParameters modificationLocalizationParameters,
             SequenceProvider sequenceProvider,
             SpectrumProvider spectrumProvider
     ) {
 
-        PeptideSpectrumAnnotator peptideSpectrumAnnotator = new PeptideSpectrumAnnotator();
         String spectrumFile = spectrumMatch.getSpectrumFile();
         String spectrumTitle = spectrumMatch.getSpectrumTitle();
         Spectrum spectrum = spectrumProvider.getSpectrum(spectrumFile, spectrumTitle);
 
-        SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+        IonMatch[] matches = SpectrumAnnotationCache.getSpectrumAnnotation(
+                annotationSettingsKey,
+                annotationParameters,
                 spectrumFile,
                 spectrumTitle,
                 peptideAssumption,
                 searchParameters.getModificationParameters(),
                 sequenceProvider,
                 modificationLocalizationParameters.getSequenceMatchingParameters(),
-                peptideSpectrumAnnotator
-        );
-
-        IonMatch[] matches = peptideSpectrumAnnotator.getSpectrumAnnotation(annotationParameters,
-                specificAnnotationParameters,
-                spectrumFile,
-                spectrumTitle,
-                spectrum,
-                peptideAssumption.getPeptide(),
-                searchParameters.getModificationParameters(),
-                sequenceProvider,
-                modificationLocalizationParameters.getSequenceMatchingParameters()
+                spectrumProvider,
+                new PeptideSpectrumAnnotator()
         );
 
         double coveredIntensity = Arrays.stream(matches)
@@ -0,0 +1,447 @@
+package eu.isas.peptideshaker.utils;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Utilities for the indexing of predictions by peptide key.
+ *
+ * Prediction indexes can be saved to a binary file and memory mapped. The
+ * file starts with a header of HEADER_SIZE bytes: a magic number identifying
+ * the type of prediction (long), the version of the format (int), the size
+ * (long) and last modification time (long) of the file the predictions were
+ * parsed from, the number of peptides (int), and the number of values (int).
+ * The columns of the index follow.
+ *
+ * @author Marc Vaudel
+ */
+public class PredictionUtils {
+
+    /**
+     * The extension appended to the name of a prediction file to get the name
+     * of its index.
+     */
+    public static final String INDEX_EXTENSION = ".psindex";
+    /**
+     * The version of the index format.
+     */
+    public static final int INDEX_VERSION = 2;
+    /**
+     * The size of the header of an index file in bytes.
+     */
+    public static final int HEADER_SIZE = 40;
+    /**
+     * The number of bits used to index values within a segment.
+     */
+    private static final int SEGMENT_BITS = 27;
+    /**
+     * The maximal number of doubles in a segment, segments need to be mapped
+     * separately as a buffer cannot exceed 2 GB.
+     */
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    /**
+     * The mask to use to get the index of a value in its segment.
+     */
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Returns the indexes of the first n rows sorted by key. The sorting is
+     * stable: rows with the same key keep the order they were added in.
+     *
+     * @param keys The keys of the rows.
+     * @param n The number of rows.
+     *
+     * @return The indexes of the rows sorted by key.
+     */
+    public static int[] getSortedRows(
+            long[] keys,
+            int n
+    ) {
+
+        return getSortedRows(keys, null, n);
+
+    }
+
+    /**
+     * Returns the indexes of the first n rows sorted by key, and by name for
+     * rows with the same key. The sorting is stable: rows with the same key
+     * and name keep the order they were added in.
+     *
+     * @param keys The keys of the rows.
+     * @param names The names of the rows, ignored if null.
+     * @param n The number of rows.
+     *
+     * @return The indexes of the rows sorted by key and name.
+     */
+    public static int[] getSortedRows(
+            long[] keys,
+            String[] names,
+            int n
+    ) {
+
+        int[] rows = new int[n];
+
+        for (int i = 0; i < n; i++) {
+
+            rows[i] = i;
+
+        }
+
+        int[] buffer = new int[n];
+
+        for (int width = 1; width < n; width *= 2) {
+
+            for (int start = 0; start < n - width; start += 2 * width) {
+
+                int middle = start + width;
+                int end = Math.min(start + 2 * width, n);
+
+                int i = start;
+                int j = middle;
+                int k = start;
+
+                while (i < middle && j < end) {
+
+                    buffer[k++] = compare(keys, names, rows[j], rows[i]) < 0 ? rows[j++] : rows[i++];
+
+                }
+
+                while (i < middle) {
+
+                    buffer[k++] = rows[i++];
+
+                }
+
+                while (j < end) {
+
+                    buffer[k++] = rows[j++];
+
+                }
+
+                System.arraycopy(buffer, start, rows, start, end - start);
+
+            }
+        }
+
+        return rows;
+
+    }
+
+    /**
+     * Compares two rows by key, and by name if the keys are equal.
+     *
+     * @param keys The keys of the rows.
+     * @param names The names of the rows, ignored if null.
+     * @param row1 The index of the first row.
+     * @param row2 The index of the second row.
+     *
+     * @return A negative value, zero, or a positive value if the first row is
+     * respectively sorted before, with, or after the second row.
+     */
+    private static int compare(
+            long[] keys,
+            String[] names,
+            int row1,
+            int row2
+    ) {
+
+        int result = Long.compare(keys[row1], keys[row2]);
+
+        if (result == 0 && names != null) {
+
+            result = names[row1].compareTo(names[row2]);
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Indicates whether the name at the given index equals the given name.
+     *
+     * @param names The names as UTF-8 bytes.
+     * @param nameOffsets The index of the first byte of every name, followed
+     * by the total number of bytes.
+     * @param index The index of the name.
+     * @param name The name to compare to as UTF-8 bytes.
+     *
+     * @return A boolean indicating whether the names are equal.
+     */
+    public static boolean nameEquals(
+            ByteBuffer names,
+            IntBuffer nameOffsets,
+            int index,
+            byte[] name
+    ) {
+
+        int start = nameOffsets.get(index);
+        int end = nameOffsets.get(index + 1);
+
+        if (end - start != name.length) {
+
+            return false;
+
+        }
+
+        for (int i = 0; i < name.length; i++) {
+
+            if (names.get(start + i) != name[i]) {
+
+                return false;
+
+            }
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Returns the index of the given key in the sorted keys, a negative value
+     * if not found.
+     *
+     * @param keys The sorted keys.
+     * @param key The key to look for.
+     *
+     * @return The index of the given key.
+     */
+    public static int binarySearch(
+            LongBuffer keys,
+            long key
+    ) {
+
+        int low = 0;
+        int high = keys.limit() - 1;
+
+        while (low <= high) {
+
+            int middle = (low + high) >>> 1;
+            long middleKey = keys.get(middle);
+
+            if (middleKey < key) {
+
+                low = middle + 1;
+
+            } else if (middleKey > key) {
+
+                high = middle - 1;
+
+            } else {
+
+                return middle;
+
+            }
+        }
+
+        return -(low + 1);
+
+    }
+
+    /**
+     * Returns the index file corresponding to the given prediction file.
+     *
+     * @param predictionFile The prediction file.
+     *
+     * @return The index file.
+     */
+    public static File getIndexFile(
+            File predictionFile
+    ) {
+
+        return new File(predictionFile.getParentFile(), predictionFile.getName() + INDEX_EXTENSION);
+
+    }
+
+    /**
+     * Writes the header of an index file.
+     *
+     * @param outputStream The stream to write to.
+     * @param magicNumber The magic number of the type of prediction.
+     * @param predictionFile The file the predictions were parsed from.
+     * @param nKeys The number of peptides.
+     * @param nValues The number of values.
+     *
+     * @throws IOException Exception thrown if an error occurred while writing
+     * the file.
+     */
+    public static void writeHeader(
+            DataOutputStream outputStream,
+            long magicNumber,
+            File predictionFile,
+            int nKeys,
+            int nValues
+    ) throws IOException {
+
+        outputStream.writeLong(magicNumber);
+        outputStream.writeInt(INDEX_VERSION);
+        outputStream.writeLong(predictionFile.length());
+        outputStream.writeLong(predictionFile.lastModified());
+        outputStream.writeInt(nKeys);
+        outputStream.writeInt(nValues);
+        outputStream.writeInt(0);
+
+    }
+
+    /**
+     * Indicates whether the given header corresponds to the given type of
+     * prediction, to the current version of the format, and to the current
+     * version of the prediction file.
+     *
+     * @param header The header.
+     * @param magicNumber The magic number of the type of prediction.
+     * @param predictionFile The file the predictions were parsed from.
+     *
+     * @return A boolean indicating whether the index can be used.
+     */
+    public static boolean isValid(
+            ByteBuffer header,
+            long magicNumber,
+            File predictionFile
+    ) {
+
+        return header.getLong(0) == magicNumber
+                && header.getInt(8) == INDEX_VERSION
+                && header.getLong(12) == predictionFile.length()
+                && header.getLong(20) == predictionFile.lastModified();
+
+    }
+
+    /**
+     * Returns the number of peptides in the index.
+     *
+     * @param header The header of the index.
+     *
+     * @return The number of peptides in the index.
+     */
+    public static int getnKeys(
+            ByteBuffer header
+    ) {
+
+        return header.getInt(28);
+
+    }
+
+    /**
+     * Returns the number of values in the index.
+     *
+     * @param header The header of the index.
+     *
+     * @return The number of values in the index.
+     */
+    public static int getnValues(
+            ByteBuffer header
+    ) {
+
+        return header.getInt(32);
+
+    }
+
+    /**
+     * Returns the given values as segments of buffers.
+     *
+     * @param values The values.
+     *
+     * @return The values as segments of buffers.
+     */
+    public static DoubleBuffer[] wrap(
+            double[] values
+    ) {
+
+        int nSegments = Math.max((values.length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS, 1);
+        DoubleBuffer[] segments = new DoubleBuffer[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+
+            int start = i << SEGMENT_BITS;
+            int length = Math.min(SEGMENT_SIZE, values.length - start);
+
+            segments[i] = DoubleBuffer.wrap(values, start, length).slice();
+
+        }
+
+        return segments;
+
+    }
+
+    /**
+     * Maps n doubles from the given file channel as segments of buffers.
+     *
+     * @param channel The file channel.
+     * @param position The position of the first double in the file.
+     * @param n The number of doubles.
+     *
+     * @return The doubles as segments of buffers.
+     *
+     * @throws IOException Exception thrown if an error occurred while mapping
+     * the file.
+     */
+    public static DoubleBuffer[] map(
+            FileChannel channel,
+            long position,
+            int n
+    ) throws IOException {
+
+        int nSegments = Math.max((n + SEGMENT_SIZE - 1) >>> SEGMENT_BITS, 1);
+        DoubleBuffer[] segments = new DoubleBuffer[nSegments];
+
+        for (int i = 0; i < nSegments; i++) {
+
+            long start = ((long) i) << SEGMENT_BITS;
+            long length = Math.min(SEGMENT_SIZE, n - start);
+
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + Double.BYTES * start, Double.BYTES * length).asDoubleBuffer();
+
+        }
+
+        return segments;
+
+    }
+
+    /**
+     * Returns the value at the given index.
+     *
+     * @param segments The segments of buffers containing the values.
+     * @param index The index of the value.
+     *
+     * @return The value at the given index.
+     */
+    public static double get(
+            DoubleBuffer[] segments,
+            int index
+    ) {
+
+        return segments[index >>> SEGMENT_BITS].get(index & SEGMENT_MASK);
+
+    }
+
+    /**
+     * Writes the values contained in the given segments.
+     *
+     * @param outputStream The stream to write to.
+     * @param segments The segments of buffers containing the values.
+     *
+     * @throws IOException Exception thrown if an error occurred while writing
+     * the file.
+     */
+    public static void write(
+            DataOutputStream outputStream,
+            DoubleBuffer[] segments
+    ) throws IOException {
+
+        for (DoubleBuffer segment : segments) {
+
+            for (int i = 0; i < segment.limit(); i++) {
+
+                outputStream.writeDouble(segment.get(i));
+
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.compomics.util.experiment.io.temp.TempFilesManager;
 import com.compomics.util.io.compression.ZipUtils;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.parameters.identification.IdentificationParameters;
+import eu.isas.peptideshaker.export.AtomicFileCopy;
 import eu.isas.peptideshaker.export.PsdbExporter;
 import eu.isas.peptideshaker.parameters.PeptideShakerParameters;
 import eu.isas.peptideshaker.preferences.DisplayParameters;
@@ -33,6 +34,7 @@ import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.io.IoUtil;
 import com.compomics.util.parameters.peptide_shaker.ProjectType;
 import eu.isas.peptideshaker.scoring.PSMaps;
+import eu.isas.peptideshaker.scoring.QcHistograms;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -118,6 +120,12 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
      * Import from szip
      */
     private boolean importFromZip = false;
+    /**
+     * If true, the psdb file is opened where it is instead of being copied to
+     * the database folder. Changes to the project are then not meant to be
+     * saved.
+     */
+    private boolean openInPlace = false;
 
     /**
      * Empty constructor for instantiation purposes.
@@ -214,19 +222,33 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
             }
         }
 
-        SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss");
-        String dbName = "tempDB-" + df.format(new Date()) + ".psdb";
+        ObjectsDB objectsDB;
 
-        File destinationFile = new File(dbFolder.getAbsolutePath(), dbName);
+        if (openInPlace) {
 
-        IoUtil.copyFile(psdbFile, destinationFile);
-        //GzUtils.gunzipFile(psdbFile, destinationFile, false); // @TODO: re-add when the zipping works
+            objectsDB = new ObjectsDB(
+                    psdbFile.getAbsoluteFile().getParent(),
+                    psdbFile.getName(),
+                    false
+            );
 
-        ObjectsDB objectsDB = new ObjectsDB(
-                dbFolder.getAbsolutePath(),
-                destinationFile.getName(),
-                false
-        );
+        } else {
+
+            SimpleDateFormat df = new SimpleDateFormat("yyyyMMdd-HHmmss");
+            String dbName = "tempDB-" + df.format(new Date()) + ".psdb";
+
+            File destinationFile = new File(dbFolder.getAbsolutePath(), dbName);
+
+            AtomicFileCopy.copy(psdbFile, destinationFile);
+            //GzUtils.gunzipFile(psdbFile, destinationFile, false); // @TODO: re-add when the zipping works
+
+            objectsDB = new ObjectsDB(
+                    dbFolder.getAbsolutePath(),
+                    destinationFile.getName(),
+                    false
+            );
+
+        }
 
         // get the PeptideShaker parameters
         PeptideShakerParameters psParameters = (PeptideShakerParameters) objectsDB.retrieveObject(PeptideShakerParameters.KEY);
@@ -252,7 +274,7 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
 
                 if (file.getAbsoluteFile().toString().toLowerCase().endsWith(".fasta")) {
 
-                    fmIndex = new FMIndex(
+                    fmIndex = FMIndexCache.getFMIndex(
                             file,
                             psParameters.getIdentificationParameters().getFastaParameters(),
                             waitingHandler,
@@ -286,7 +308,7 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
 
                 File fastaFile = new File(psParameters.getProjectDetails().getFastaFile());
 
-                fmIndex = new FMIndex(
+                fmIndex = FMIndexCache.getFMIndex(
                         fastaFile,
                         psParameters.getIdentificationParameters().getFastaParameters(),
                         waitingHandler,
@@ -305,7 +327,10 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
         sequenceProvider = fmIndex;
         proteinDetailsProvider = fmIndex;
 
-        objectsDB.updateObject(PeptideShakerParameters.KEY, psParameters);
+        // the providers are not written to a project opened in place
+        if (!openInPlace) {
+            objectsDB.updateObject(PeptideShakerParameters.KEY, psParameters);
+        }
 
         projectParameters = (ProjectParameters) objectsDB.retrieveObject(ProjectParameters.key);
         identification = new Identification(objectsDB);
@@ -318,6 +343,20 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
         psMaps = (PSMaps) objectsDB.retrieveObject(psMaps.getParameterKey());
         identification.addUrParam(psMaps);
 
+        // the peptide sequence index is built when needed for older projects
+        if (identification.contains(PeptideSequenceIndex.KEY)) {
+
+            identification.addUrParam((PeptideSequenceIndex) identification.retrieveObject(PeptideSequenceIndex.KEY));
+
+        }
+
+        // the quality control histograms are gathered when needed for older projects
+        if (identification.contains(QcHistograms.KEY)) {
+
+            identification.addUrParam((QcHistograms) identification.retrieveObject(QcHistograms.KEY));
+
+        }
+
         // set up the spectrum provider
         msFileHandler = new MsFileHandler();
 
@@ -743,6 +782,35 @@ public class PsdbParent extends UserPreferencesParent implements AutoCloseable {
 
     }
 
+    /**
+     * Returns a boolean indicating whether the psdb file is opened in place
+     * instead of being copied to the database folder.
+     *
+     * @return a boolean indicating whether the psdb file is opened in place
+     */
+    public boolean isOpenInPlace() {
+
+        return openInPlace;
+
+    }
+
+    /**
+     * Sets whether the psdb file should be opened in place instead of being
+     * copied to the database folder. This avoids duplicating the project on
+     * disk when it is only read, e.g. for exports. Projects opened in place
+     * are not meant to be saved.
+     *
+     * @param openInPlace a boolean indicating whether the psdb file should be
+     * opened in place
+     */
+    public void setOpenInPlace(
+            boolean openInPlace
+    ) {
+
+        this.openInPlace = openInPlace;
+
+    }
+
     /**
      * Sets the identification feature generator.
      *
@@ -0,0 +1,600 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.identification.matches.IonMatch;
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.SpecificAnnotationParameters;
+import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Cache for the annotation of spectra by peptide assumptions shared by the
+ * different processing steps and exports. Annotations are indexed by
+ * spectrum, peptide, charge, and annotation settings. The cache is bounded by
+ * the total number of ion matches it holds, the least recently used
+ * annotations are evicted first.
+ *
+ * The annotation settings are identified by the content of the annotation,
+ * modification, and sequence matching parameters. A copy of every combination
+ * of settings used is kept, and parameters edited in place are compared to
+ * these copies, so that annotations made with other settings are not returned.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumAnnotationCache {
+
+    /**
+     * The default maximal number of ion matches held by the cache.
+     */
+    public static final int DEFAULT_CAPACITY = 2000000;
+    /**
+     * The number of bits used to select a segment.
+     */
+    private static final int SEGMENT_BITS = 4;
+    /**
+     * The number of segments, every segment is locked independently.
+     */
+    private static final int N_SEGMENTS = 1 << SEGMENT_BITS;
+    /**
+     * The segments of the cache.
+     */
+    private static final Segment[] segments = new Segment[N_SEGMENTS];
+    /**
+     * The key returned for settings that cannot be copied, annotations made
+     * with these settings are not cached.
+     */
+    public static final long NO_KEY = -1;
+    /**
+     * The settings used for annotation.
+     */
+    private static final CopyOnWriteArrayList<AnnotationSettings> settingsList = new CopyOnWriteArrayList<>();
+    /**
+     * The next key to attribute to settings.
+     */
+    private static long nextSettingsKey = 0;
+
+    static {
+
+        for (int i = 0; i < N_SEGMENTS; i++) {
+
+            segments[i] = new Segment(DEFAULT_CAPACITY / N_SEGMENTS);
+
+        }
+    }
+
+    /**
+     * Empty default constructor.
+     */
+    private SpectrumAnnotationCache() {
+
+    }
+
+    /**
+     * Returns the annotation of the given spectrum by the given peptide
+     * assumption. The annotation is taken from the cache if available,
+     * otherwise the spectrum is annotated and the annotation cached. The key
+     * of the settings is resolved once per processing stage or export using
+     * getSettingsKey, the settings must not be edited while it is in use.
+     *
+     * @param settingsKey the key of the annotation settings as returned by
+     * getSettingsKey for the given parameters
+     * @param annotationParameters the annotation parameters
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     * @param peptideAssumption the peptide assumption
+     * @param modificationParameters the modification parameters
+     * @param sequenceProvider the sequence provider
+     * @param modificationSequenceMatchingParameters the sequence matching
+     * parameters to use for modifications
+     * @param spectrumProvider the spectrum provider
+     * @param spectrumAnnotator the spectrum annotator to use on cache miss
+     *
+     * @return the ion matches
+     */
+    public static IonMatch[] getSpectrumAnnotation(
+            long settingsKey,
+            AnnotationParameters annotationParameters,
+            String spectrumFile,
+            String spectrumTitle,
+            PeptideAssumption peptideAssumption,
+            ModificationParameters modificationParameters,
+            SequenceProvider sequenceProvider,
+            SequenceMatchingParameters modificationSequenceMatchingParameters,
+            SpectrumProvider spectrumProvider,
+            PeptideSpectrumAnnotator spectrumAnnotator
+    ) {
+
+        AnnotationKey key = new AnnotationKey(
+                getSpectrumKey(spectrumFile, spectrumTitle),
+                peptideAssumption.getPeptide().getKey(),
+                peptideAssumption.getIdentificationCharge(),
+                settingsKey
+        );
+        Segment segment = segments[key.hashCode() & (N_SEGMENTS - 1)];
+
+        IonMatch[] ionMatches = settingsKey == NO_KEY ? null : segment.get(key);
+
+        if (ionMatches == null) {
+
+            SpecificAnnotationParameters specificAnnotationParameters = annotationParameters.getSpecificAnnotationParameters(
+                    spectrumFile,
+                    spectrumTitle,
+                    peptideAssumption,
+                    modificationParameters,
+                    sequenceProvider,
+                    modificationSequenceMatchingParameters,
+                    spectrumAnnotator
+            );
+            ionMatches = spectrumAnnotator.getSpectrumAnnotation(
+                    annotationParameters,
+                    specificAnnotationParameters,
+                    spectrumFile,
+                    spectrumTitle,
+                    spectrumProvider.getSpectrum(
+                            spectrumFile,
+                            spectrumTitle
+                    ),
+                    peptideAssumption.getPeptide(),
+                    modificationParameters,
+                    sequenceProvider,
+                    modificationSequenceMatchingParameters
+            );
+
+            if (settingsKey != NO_KEY) {
+
+                segment.put(key, ionMatches);
+
+            }
+        }
+
+        return ionMatches;
+
+    }
+
+    /**
+     * Sets the maximal number of ion matches held by the cache. Annotations
+     * are evicted if needed.
+     *
+     * @param capacity the maximal number of ion matches
+     */
+    public static void setCapacity(
+            int capacity
+    ) {
+
+        for (Segment segment : segments) {
+
+            segment.setCapacity(capacity / N_SEGMENTS);
+
+        }
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public static void clear() {
+
+        for (Segment segment : segments) {
+
+            segment.clear();
+
+        }
+
+        settingsList.clear();
+
+    }
+
+    /**
+     * Returns the key of the given spectrum.
+     *
+     * @param spectrumFile the name of the spectrum file
+     * @param spectrumTitle the title of the spectrum
+     *
+     * @return the key of the spectrum
+     */
+    private static long getSpectrumKey(
+            String spectrumFile,
+            String spectrumTitle
+    ) {
+
+        return ExperimentObject.asLong(String.join("_cus_", spectrumFile, spectrumTitle));
+
+    }
+
+    /**
+     * Returns the key of the given annotation settings. Settings with the same
+     * content get the same key, also when the parameters were edited in place.
+     * NO_KEY is returned if the settings cannot be copied. The parameters are
+     * compared to all settings used so far, the key should therefore be
+     * resolved once per processing stage or export and not per spectrum.
+     *
+     * @param annotationParameters the annotation parameters
+     * @param modificationParameters the modification parameters
+     * @param modificationSequenceMatchingParameters the sequence matching
+     * parameters to use for modifications
+     *
+     * @return the key of the annotation settings
+     */
+    public static long getSettingsKey(
+            AnnotationParameters annotationParameters,
+            ModificationParameters modificationParameters,
+            SequenceMatchingParameters modificationSequenceMatchingParameters
+    ) {
+
+        for (AnnotationSettings settings : settingsList) {
+
+            if (settings.isSameAs(annotationParameters, modificationParameters, modificationSequenceMatchingParameters)) {
+
+                return settings.key;
+
+            }
+        }
+
+        synchronized (settingsList) {
+
+            for (AnnotationSettings settings : settingsList) {
+
+                if (settings.isSameAs(annotationParameters, modificationParameters, modificationSequenceMatchingParameters)) {
+
+                    return settings.key;
+
+                }
+            }
+
+            try {
+
+                AnnotationSettings settings = new AnnotationSettings(
+                        nextSettingsKey++,
+                        copy(annotationParameters),
+                        copy(modificationParameters),
+                        copy(modificationSequenceMatchingParameters)
+                );
+                settingsList.add(settings);
+
+                return settings.key;
+
+            } catch (IOException | ClassNotFoundException e) {
+
+                return NO_KEY;
+
+            }
+        }
+    }
+
+    /**
+     * Returns a deep copy of the given parameters.
+     *
+     * @param <T> the type of parameters
+     * @param parameters the parameters, can be null
+     *
+     * @return a copy of the parameters
+     *
+     * @throws IOException exception thrown if the parameters could not be
+     * serialized
+     * @throws ClassNotFoundException exception thrown if the parameters could
+     * not be deserialized
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(
+            T parameters
+    ) throws IOException, ClassNotFoundException {
+
+        if (parameters == null) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+
+            outputStream.writeObject(parameters);
+
+        }
+
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+
+            return (T) inputStream.readObject();
+
+        }
+    }
+
+    /**
+     * A copy of the settings used for annotation.
+     */
+    private static class AnnotationSettings {
+
+        /**
+         * The key of the settings.
+         */
+        private final long key;
+        /**
+         * The annotation parameters.
+         */
+        private final AnnotationParameters annotationParameters;
+        /**
+         * The modification parameters.
+         */
+        private final ModificationParameters modificationParameters;
+        /**
+         * The sequence matching parameters to use for modifications.
+         */
+        private final SequenceMatchingParameters sequenceMatchingParameters;
+
+        /**
+         * Constructor.
+         *
+         * @param key the key of the settings
+         * @param annotationParameters a copy of the annotation parameters
+         * @param modificationParameters a copy of the modification parameters
+         * @param sequenceMatchingParameters a copy of the sequence matching
+         * parameters to use for modifications
+         */
+        private AnnotationSettings(
+                long key,
+                AnnotationParameters annotationParameters,
+                ModificationParameters modificationParameters,
+                SequenceMatchingParameters sequenceMatchingParameters
+        ) {
+
+            this.key = key;
+            this.annotationParameters = annotationParameters;
+            this.modificationParameters = modificationParameters;
+            this.sequenceMatchingParameters = sequenceMatchingParameters;
+
+        }
+
+        /**
+         * Indicates whether these settings have the same content as the given
+         * parameters.
+         *
+         * @param annotationParameters the annotation parameters
+         * @param modificationParameters the modification parameters
+         * @param sequenceMatchingParameters the sequence matching parameters
+         * to use for modifications
+         *
+         * @return a boolean indicating whether these settings have the same
+         * content as the given parameters
+         */
+        private boolean isSameAs(
+                AnnotationParameters annotationParameters,
+                ModificationParameters modificationParameters,
+                SequenceMatchingParameters sequenceMatchingParameters
+        ) {
+
+            if (annotationParameters == null || this.annotationParameters == null) {
+
+                if (annotationParameters != this.annotationParameters) {
+                    return false;
+                }
+
+            } else if (!this.annotationParameters.isSameAs(annotationParameters)) {
+                return false;
+            }
+
+            if (modificationParameters == null || this.modificationParameters == null) {
+
+                if (modificationParameters != this.modificationParameters) {
+                    return false;
+                }
+
+            } else if (!this.modificationParameters.getFixedModifications().equals(modificationParameters.getFixedModifications())
+                    || !this.modificationParameters.getVariableModifications().equals(modificationParameters.getVariableModifications())
+                    || !this.modificationParameters.getRefinementFixedModifications().equals(modificationParameters.getRefinementFixedModifications())
+                    || !this.modificationParameters.getRefinementVariableModifications().equals(modificationParameters.getRefinementVariableModifications())) {
+                return false;
+            }
+
+            if (sequenceMatchingParameters == null || this.sequenceMatchingParameters == null) {
+
+                return sequenceMatchingParameters == this.sequenceMatchingParameters;
+
+            }
+
+            return this.sequenceMatchingParameters.isSameAs(sequenceMatchingParameters);
+
+        }
+    }
+
+    /**
+     * The key of an annotation.
+     */
+    private static class AnnotationKey {
+
+        /**
+         * The key of the spectrum.
+         */
+        private final long spectrumKey;
+        /**
+         * The key of the peptide.
+         */
+        private final long peptideKey;
+        /**
+         * The identification charge.
+         */
+        private final int charge;
+        /**
+         * The key of the annotation settings.
+         */
+        private final long settingsKey;
+
+        /**
+         * Constructor.
+         *
+         * @param spectrumKey the key of the spectrum
+         * @param peptideKey the key of the peptide
+         * @param charge the identification charge
+         * @param settingsKey the key of the annotation settings
+         */
+        private AnnotationKey(
+                long spectrumKey,
+                long peptideKey,
+                int charge,
+                long settingsKey
+        ) {
+
+            this.spectrumKey = spectrumKey;
+            this.peptideKey = peptideKey;
+            this.charge = charge;
+            this.settingsKey = settingsKey;
+
+        }
+
+        @Override
+        public int hashCode() {
+
+            long hash = spectrumKey;
+            hash = 31 * hash + peptideKey;
+            hash = 31 * hash + charge;
+            hash = 31 * hash + settingsKey;
+
+            return (int) (hash ^ (hash >>> 32));
+
+        }
+
+        @Override
+        public boolean equals(
+                Object obj
+        ) {
+
+            if (!(obj instanceof AnnotationKey)) {
+                return false;
+            }
+
+            AnnotationKey other = (AnnotationKey) obj;
+
+            return spectrumKey == other.spectrumKey
+                    && peptideKey == other.peptideKey
+                    && charge == other.charge
+                    && settingsKey == other.settingsKey;
+
+        }
+    }
+
+    /**
+     * A segment of the cache holding annotations in the order of access.
+     */
+    private static class Segment {
+
+        /**
+         * The annotations in the order of access.
+         */
+        private final LinkedHashMap<AnnotationKey, IonMatch[]> annotations = new LinkedHashMap<>(16, 0.75f, true);
+        /**
+         * The maximal number of ion matches in this segment.
+         */
+        private int capacity;
+        /**
+         * The number of ion matches in this segment.
+         */
+        private int size = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the maximal number of ion matches in this segment
+         */
+        private Segment(
+                int capacity
+        ) {
+
+            this.capacity = capacity;
+
+        }
+
+        /**
+         * Returns the annotation for the given key, null if not cached.
+         *
+         * @param key the key of the annotation
+         *
+         * @return the ion matches
+         */
+        private synchronized IonMatch[] get(
+                AnnotationKey key
+        ) {
+
+            return annotations.get(key);
+
+        }
+
+        /**
+         * Caches the given annotation.
+         *
+         * @param key the key of the annotation
+         * @param ionMatches the ion matches
+         */
+        private synchronized void put(
+                AnnotationKey key,
+                IonMatch[] ionMatches
+        ) {
+
+            if (ionMatches.length > capacity) {
+                return;
+            }
+
+            IonMatch[] previous = annotations.put(key, ionMatches);
+
+            if (previous != null) {
+
+                size -= previous.length;
+
+            }
+
+            size += ionMatches.length;
+
+            evict();
+
+        }
+
+        /**
+         * Sets the maximal number of ion matches in this segment.
+         *
+         * @param capacity the maximal number of ion matches
+         */
+        private synchronized void setCapacity(
+                int capacity
+        ) {
+
+            this.capacity = capacity;
+
+            evict();
+
+        }
+
+        /**
+         * Empties this segment.
+         */
+        private synchronized void clear() {
+
+            annotations.clear();
+            size = 0;
+
+        }
+
+        /**
+         * Evicts the least recently used annotations until the number of ion
+         * matches is within capacity.
+         */
+        private void evict() {
+
+            Iterator<IonMatch[]> iterator = annotations.values().iterator();
+
+            while (size > capacity && iterator.hasNext()) {
+
+                size -= iterator.next().length;
+                iterator.remove();
+
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.identification.Identification;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Queue of spectrum match keys ordered by spectrum file and by position of
+ * the spectrum in the file. Workers poll contiguous blocks of keys, and an
+ * optional background thread reads the spectra ahead of the workers, so that
+ * spectrum files are read sequentially.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumMatchKeysQueue implements AutoCloseable {
+
+    /**
+     * The number of keys polled at once by a worker.
+     */
+    public static final int BLOCK_SIZE = 64;
+    /**
+     * The number of spectra read ahead of the workers.
+     */
+    public static final int PREFETCH_SIZE = 2048;
+    /**
+     * The time the prefetcher waits for the workers in nanoseconds.
+     */
+    private static final long PREFETCH_WAIT = 10000000L;
+    /**
+     * The spectrum match keys in the order of the spectrum files.
+     */
+    private final long[] keys;
+    /**
+     * The spectrum file of every key.
+     */
+    private final String[] spectrumFiles;
+    /**
+     * The spectrum title of every key, null if not found in the spectrum
+     * provider.
+     */
+    private final String[] spectrumTitles;
+    /**
+     * The index of the next key to poll.
+     */
+    private final AtomicInteger cursor = new AtomicInteger(0);
+    /**
+     * The thread reading spectra ahead of the workers.
+     */
+    private Thread prefetcher = null;
+    /**
+     * Boolean indicating whether the queue was closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor. Orders the keys of the spectrum matches of the given
+     * identification by spectrum file and by position in the file.
+     *
+     * @param identification The identification.
+     * @param spectrumProvider The spectrum provider.
+     */
+    public SpectrumMatchKeysQueue(
+            Identification identification,
+            SpectrumProvider spectrumProvider
+    ) {
+
+        int nKeys = identification.getSpectrumIdentification().values().stream()
+                .mapToInt(HashSet::size)
+                .sum();
+
+        long[] keys = new long[nKeys];
+        String[] spectrumFiles = new String[nKeys];
+        String[] spectrumTitles = new String[nKeys];
+
+        int index = 0;
+        HashSet<String> orderedFiles = new HashSet<>();
+
+        for (String spectrumFile : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
+
+            HashSet<Long> fileKeys = identification.getSpectrumIdentification().get(spectrumFile);
+
+            if (fileKeys == null || !orderedFiles.add(spectrumFile)) {
+                continue;
+            }
+
+            // Keys are removed when emitted so that duplicate titles are queued once
+            HashSet<Long> remainingKeys = new HashSet<>(fileKeys);
+
+            for (String spectrumTitle : spectrumProvider.getSpectrumTitles(spectrumFile)) {
+
+                long key = SpectrumMatch.getKey(spectrumFile, spectrumTitle);
+
+                if (remainingKeys.remove(key)) {
+
+                    keys[index] = key;
+                    spectrumFiles[index] = spectrumFile;
+                    spectrumTitles[index] = spectrumTitle;
+                    index++;
+
+                }
+            }
+
+            // Matches of spectra unknown to the spectrum provider come last in the file
+            for (long key : remainingKeys) {
+
+                keys[index] = key;
+                spectrumFiles[index] = spectrumFile;
+                index++;
+
+            }
+        }
+
+        // Matches of files unknown to the spectrum provider come last
+        for (String spectrumFile : identification.getSpectrumIdentification().keySet()) {
+
+            if (!orderedFiles.contains(spectrumFile)) {
+
+                for (long key : identification.getSpectrumIdentification().get(spectrumFile)) {
+
+                    keys[index] = key;
+                    spectrumFiles[index] = spectrumFile;
+                    index++;
+
+                }
+            }
+        }
+
+        this.keys = index == nKeys ? keys : Arrays.copyOf(keys, index);
+        this.spectrumFiles = index == nKeys ? spectrumFiles : Arrays.copyOf(spectrumFiles, index);
+        this.spectrumTitles = index == nKeys ? spectrumTitles : Arrays.copyOf(spectrumTitles, index);
+
+    }
+
+    /**
+     * Sorts the given spectrum matches by spectrum file and by position of the
+     * spectrum in the file. Matches of spectra unknown to the spectrum
+     * provider come last in their original order.
+     *
+     * @param spectrumMatches The spectrum matches.
+     * @param spectrumProvider The spectrum provider.
+     */
+    public static void sort(
+            ArrayList<SpectrumMatch> spectrumMatches,
+            SpectrumProvider spectrumProvider
+    ) {
+
+        HashMap<Long, Integer> positions = new HashMap<>(spectrumMatches.size());
+
+        for (SpectrumMatch spectrumMatch : spectrumMatches) {
+
+            positions.put(spectrumMatch.getKey(), Integer.MAX_VALUE);
+
+        }
+
+        int position = 0;
+
+        for (String spectrumFile : spectrumProvider.getOrderedFileNamesWithoutExtensions()) {
+
+            for (String spectrumTitle : spectrumProvider.getSpectrumTitles(spectrumFile)) {
+
+                long key = SpectrumMatch.getKey(spectrumFile, spectrumTitle);
+
+                if (positions.containsKey(key)) {
+
+                    positions.put(key, position++);
+
+                }
+            }
+        }
+
+        spectrumMatches.sort(
+                Comparator.comparingInt(
+                        spectrumMatch -> positions.get(spectrumMatch.getKey())
+                )
+        );
+    }
+
+    /**
+     * Starts reading the spectra ahead of the workers in a background thread.
+     *
+     * @param spectrumProvider The spectrum provider.
+     */
+    public void startPrefetching(
+            SpectrumProvider spectrumProvider
+    ) {
+
+        prefetcher = new Thread(
+                () -> prefetch(spectrumProvider),
+                "Spectrum prefetcher"
+        );
+        prefetcher.setDaemon(true);
+        prefetcher.start();
+
+    }
+
+    /**
+     * Reads the spectra ahead of the workers until all spectra are read or
+     * the queue is closed.
+     *
+     * @param spectrumProvider The spectrum provider.
+     */
+    private void prefetch(
+            SpectrumProvider spectrumProvider
+    ) {
+
+        try {
+
+            int prefetchIndex = 0;
+
+            while (!closed && prefetchIndex < keys.length) {
+
+                int workersIndex = cursor.get();
+                prefetchIndex = Math.max(prefetchIndex, workersIndex);
+
+                if (prefetchIndex >= Math.min(workersIndex + PREFETCH_SIZE, keys.length)) {
+
+                    LockSupport.parkNanos(this, PREFETCH_WAIT);
+                    continue;
+
+                }
+
+                if (spectrumTitles[prefetchIndex] != null) {
+
+                    spectrumProvider.getSpectrum(
+                            spectrumFiles[prefetchIndex],
+                            spectrumTitles[prefetchIndex]
+                    );
+                }
+
+                prefetchIndex++;
+
+            }
+
+        } catch (Exception e) {
+
+            // Prefetching is only an optimization, the workers read the spectra themselves.
+            e.printStackTrace();
+
+        }
+    }
+
+    /**
+     * Returns the next block of contiguous keys, null if all keys were
+     * polled.
+     *
+     * @return The next block of keys.
+     */
+    public long[] pollBlock() {
+
+        int start = cursor.getAndAdd(BLOCK_SIZE);
+
+        if (start >= keys.length) {
+
+            return null;
+
+        }
+
+        if (prefetcher != null) {
+
+            LockSupport.unpark(prefetcher);
+
+        }
+
+        return Arrays.copyOfRange(keys, start, Math.min(start + BLOCK_SIZE, keys.length));
+
+    }
+
+    /**
+     * Returns the keys in the order of the spectrum files.
+     *
+     * @return The keys in the order of the spectrum files.
+     */
+    public long[] getKeys() {
+
+        return keys;
+
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return The number of keys.
+     */
+    public int size() {
+
+        return keys.length;
+
+    }
+
+    @Override
+    public void close() {
+
+        closed = true;
+
+        if (prefetcher != null) {
+
+            LockSupport.unpark(prefetcher);
+
+        }
+    }
+}
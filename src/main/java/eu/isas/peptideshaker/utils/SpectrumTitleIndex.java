@@ -0,0 +1,331 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the position of the spectrum titles in their file. For every file,
+ * the 64-bit hashes of the titles are stored in a sorted array together with
+ * the position of the title, titles with colliding hashes are told apart
+ * using the titles of the spectrum provider. The indexes are shared per
+ * spectrum provider and built upon first use of a file.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumTitleIndex {
+
+    /**
+     * The number of elements under which arrays are sorted by insertion.
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    /**
+     * The indexes of the files of every spectrum provider.
+     */
+    private static final Map<SpectrumProvider, ConcurrentHashMap<String, SpectrumTitleIndex>> indexes = Collections.synchronizedMap(new WeakHashMap<>());
+    /**
+     * The titles of the spectra in the order of the file.
+     */
+    private final String[] titles;
+    /**
+     * The hashes of the titles in ascending order.
+     */
+    private final long[] hashes;
+    /**
+     * The position in the file of the title of every hash.
+     */
+    private final int[] positions;
+
+    /**
+     * Constructor.
+     *
+     * @param titles The titles of the spectra in the order of the file.
+     */
+    public SpectrumTitleIndex(
+            String[] titles
+    ) {
+
+        this.titles = titles;
+
+        hashes = new long[titles.length];
+        positions = new int[titles.length];
+
+        for (int i = 0; i < titles.length; i++) {
+
+            hashes[i] = hash(titles[i]);
+            positions[i] = i;
+
+        }
+
+        sort(0, titles.length);
+
+    }
+
+    /**
+     * Returns the position of the given spectrum in its file, -1 if not
+     * found. If a title is present multiple times in a file, the first
+     * position is returned.
+     *
+     * @param spectrumProvider The spectrum provider.
+     * @param spectrumFile The name of the spectrum file.
+     * @param spectrumTitle The title of the spectrum.
+     *
+     * @return The position of the spectrum in its file.
+     */
+    public static int getIndex(
+            SpectrumProvider spectrumProvider,
+            String spectrumFile,
+            String spectrumTitle
+    ) {
+
+        SpectrumTitleIndex fileIndex = getFileIndex(spectrumProvider, spectrumFile);
+
+        return fileIndex == null ? -1 : fileIndex.getIndex(spectrumTitle);
+
+    }
+
+    /**
+     * Returns a boolean indicating whether the given spectrum is present in
+     * the spectrum provider.
+     *
+     * @param spectrumProvider The spectrum provider.
+     * @param spectrumFile The name of the spectrum file.
+     * @param spectrumTitle The title of the spectrum.
+     *
+     * @return A boolean indicating whether the given spectrum is present.
+     */
+    public static boolean contains(
+            SpectrumProvider spectrumProvider,
+            String spectrumFile,
+            String spectrumTitle
+    ) {
+
+        return getIndex(spectrumProvider, spectrumFile, spectrumTitle) >= 0;
+
+    }
+
+    /**
+     * Returns the index of the given file, null if the file is not found.
+     *
+     * @param spectrumProvider The spectrum provider.
+     * @param spectrumFile The name of the spectrum file.
+     *
+     * @return The index of the given file.
+     */
+    private static SpectrumTitleIndex getFileIndex(
+            SpectrumProvider spectrumProvider,
+            String spectrumFile
+    ) {
+
+        ConcurrentHashMap<String, SpectrumTitleIndex> providerIndexes = indexes.computeIfAbsent(
+                spectrumProvider,
+                key -> new ConcurrentHashMap<>(2)
+        );
+
+        SpectrumTitleIndex fileIndex = providerIndexes.get(spectrumFile);
+
+        if (fileIndex == null) {
+
+            String[] fileTitles = spectrumProvider.getSpectrumTitles(spectrumFile);
+
+            if (fileTitles == null) {
+
+                return null;
+
+            }
+
+            fileIndex = providerIndexes.computeIfAbsent(
+                    spectrumFile,
+                    key -> new SpectrumTitleIndex(fileTitles)
+            );
+        }
+
+        return fileIndex;
+
+    }
+
+    /**
+     * Returns the position of the given title, -1 if not found. If a title is
+     * present multiple times, the first position is returned.
+     *
+     * @param spectrumTitle The title of the spectrum.
+     *
+     * @return The position of the given title.
+     */
+    public int getIndex(
+            String spectrumTitle
+    ) {
+
+        long hash = hash(spectrumTitle);
+
+        // find the first entry of the hash
+        int low = 0;
+        int high = hashes.length;
+
+        while (low < high) {
+
+            int middle = (low + high) >>> 1;
+
+            if (hashes[middle] < hash) {
+
+                low = middle + 1;
+
+            } else {
+
+                high = middle;
+
+            }
+        }
+
+        for (int i = low; i < hashes.length && hashes[i] == hash; i++) {
+
+            int position = positions[i];
+
+            if (titles[position].equals(spectrumTitle)) {
+
+                return position;
+
+            }
+        }
+
+        return -1;
+
+    }
+
+    /**
+     * Sorts the hashes and positions between the given indexes by hash and
+     * position.
+     *
+     * @param start The first index, inclusive.
+     * @param end The last index, exclusive.
+     */
+    private void sort(
+            int start,
+            int end
+    ) {
+
+        while (end - start > INSERTION_SORT_THRESHOLD) {
+
+            int middle = (start + end) >>> 1;
+            long pivotHash = hashes[middle];
+            int pivotPosition = positions[middle];
+
+            int i = start;
+            int j = end - 1;
+
+            while (i <= j) {
+
+                while (compare(i, pivotHash, pivotPosition) < 0) {
+                    i++;
+                }
+
+                while (compare(j, pivotHash, pivotPosition) > 0) {
+                    j--;
+                }
+
+                if (i <= j) {
+
+                    swap(i, j);
+                    i++;
+                    j--;
+
+                }
+            }
+
+            // recurse on the smaller part to bound the stack depth
+            if (j - start < end - i) {
+
+                sort(start, j + 1);
+                start = i;
+
+            } else {
+
+                sort(i, end);
+                end = j + 1;
+
+            }
+        }
+
+        for (int i = start + 1; i < end; i++) {
+
+            for (int j = i; j > start && compare(j, hashes[j - 1], positions[j - 1]) < 0; j--) {
+
+                swap(j, j - 1);
+
+            }
+        }
+    }
+
+    /**
+     * Compares the entry at the given index to the given hash and position.
+     *
+     * @param i The index of the entry.
+     * @param hash The hash.
+     * @param position The position.
+     *
+     * @return A negative number, zero, or a positive number if the entry is
+     * lower, equal, or greater.
+     */
+    private int compare(
+            int i,
+            long hash,
+            int position
+    ) {
+
+        int result = Long.compare(hashes[i], hash);
+
+        return result != 0 ? result : Integer.compare(positions[i], position);
+
+    }
+
+    /**
+     * Swaps the entries at the given indexes.
+     *
+     * @param i The first index.
+     * @param j The second index.
+     */
+    private void swap(
+            int i,
+            int j
+    ) {
+
+        long hash = hashes[i];
+        hashes[i] = hashes[j];
+        hashes[j] = hash;
+
+        int position = positions[i];
+        positions[i] = positions[j];
+        positions[j] = position;
+
+    }
+
+    /**
+     * Returns the 64-bit hash of the given title.
+     *
+     * @param title The title.
+     *
+     * @return The hash of the title.
+     */
+    private static long hash(
+            String title
+    ) {
+
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < title.length(); i++) {
+
+            hash ^= title.charAt(i);
+            hash *= 0x100000001b3L;
+
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+
+        return hash;
+
+    }
+}
@@ -0,0 +1,395 @@
+package eu.isas.peptideshaker.utils;
+
+import com.compomics.util.waiting.WaitingHandler;
+
+/**
+ * Waiting handler of a task run alongside other tasks. Reports and
+ * cancellations are forwarded to the waiting handler of the process, progress
+ * only if displayed. The task can be canceled on its own using cancel(), it
+ * is then reported as canceled without canceling the process.
+ *
+ * @author Marc Vaudel
+ */
+public class StageWaitingHandler implements WaitingHandler {
+
+    /**
+     * The waiting handler of the process, can be null.
+     */
+    private final WaitingHandler waitingHandler;
+    /**
+     * Boolean indicating whether the progress is forwarded to the waiting
+     * handler of the process.
+     */
+    private boolean displayProgress;
+    /**
+     * Boolean indicating whether the task was canceled.
+     */
+    private volatile boolean canceled = false;
+    /**
+     * Boolean indicating whether the task is finished.
+     */
+    private volatile boolean finished = false;
+    /**
+     * The primary progress of the task.
+     */
+    private int primaryProgress = 0;
+    /**
+     * The maximal primary progress of the task.
+     */
+    private int maxPrimaryProgress = 0;
+    /**
+     * The secondary progress of the task.
+     */
+    private int secondaryProgress = 0;
+    /**
+     * The maximal secondary progress of the task.
+     */
+    private int maxSecondaryProgress = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param waitingHandler the waiting handler of the process, can be null
+     * @param displayProgress boolean indicating whether the progress is
+     * forwarded to the waiting handler of the process
+     */
+    public StageWaitingHandler(
+            WaitingHandler waitingHandler,
+            boolean displayProgress
+    ) {
+
+        this.waitingHandler = waitingHandler;
+        this.displayProgress = displayProgress;
+
+    }
+
+    /**
+     * Cancels the task without canceling the process.
+     */
+    public void cancel() {
+
+        canceled = true;
+
+    }
+
+    /**
+     * Returns the waiting handler of the process, null if not set.
+     *
+     * @return the waiting handler of the process
+     */
+    public WaitingHandler getWaitingHandler() {
+
+        return waitingHandler;
+
+    }
+
+    /**
+     * Returns a boolean indicating whether calls on the progress are forwarded
+     * to the waiting handler of the process.
+     *
+     * @return a boolean indicating whether the progress is forwarded
+     */
+    private boolean forwardProgress() {
+
+        return displayProgress && waitingHandler != null;
+
+    }
+
+    @Override
+    public void setPrimaryProgressCounterIndeterminate(
+            boolean indeterminate
+    ) {
+
+        if (forwardProgress()) {
+
+            waitingHandler.setPrimaryProgressCounterIndeterminate(indeterminate);
+
+        }
+    }
+
+    @Override
+    public synchronized void setMaxPrimaryProgressCounter(
+            int maxProgressValue
+    ) {
+
+        maxPrimaryProgress = maxProgressValue;
+
+        if (forwardProgress()) {
+
+            waitingHandler.setMaxPrimaryProgressCounter(maxProgressValue);
+
+        }
+    }
+
+    @Override
+    public synchronized void increasePrimaryProgressCounter() {
+
+        primaryProgress++;
+
+        if (forwardProgress()) {
+
+            waitingHandler.increasePrimaryProgressCounter();
+
+        }
+    }
+
+    @Override
+    public synchronized void increasePrimaryProgressCounter(
+            int increment
+    ) {
+
+        primaryProgress += increment;
+
+        if (forwardProgress()) {
+
+            waitingHandler.increasePrimaryProgressCounter(increment);
+
+        }
+    }
+
+    @Override
+    public synchronized void setPrimaryProgressCounter(
+            int value
+    ) {
+
+        primaryProgress = value;
+
+        if (forwardProgress()) {
+
+            waitingHandler.setPrimaryProgressCounter(value);
+
+        }
+    }
+
+    @Override
+    public synchronized void setMaxSecondaryProgressCounter(
+            int maxProgressValue
+    ) {
+
+        maxSecondaryProgress = maxProgressValue;
+
+        if (forwardProgress()) {
+
+            waitingHandler.setMaxSecondaryProgressCounter(maxProgressValue);
+
+        }
+    }
+
+    @Override
+    public synchronized void resetPrimaryProgressCounter() {
+
+        primaryProgress = 0;
+
+        if (forwardProgress()) {
+
+            waitingHandler.resetPrimaryProgressCounter();
+
+        }
+    }
+
+    @Override
+    public synchronized void resetSecondaryProgressCounter() {
+
+        secondaryProgress = 0;
+
+        if (forwardProgress()) {
+
+            waitingHandler.resetSecondaryProgressCounter();
+
+        }
+    }
+
+    @Override
+    public synchronized void increaseSecondaryProgressCounter() {
+
+        secondaryProgress++;
+
+        if (forwardProgress()) {
+
+            waitingHandler.increaseSecondaryProgressCounter();
+
+        }
+    }
+
+    @Override
+    public synchronized void setSecondaryProgressCounter(
+            int value
+    ) {
+
+        secondaryProgress = value;
+
+        if (forwardProgress()) {
+
+            waitingHandler.setSecondaryProgressCounter(value);
+
+        }
+    }
+
+    @Override
+    public synchronized void increaseSecondaryProgressCounter(
+            int value
+    ) {
+
+        secondaryProgress += value;
+
+        if (forwardProgress()) {
+
+            waitingHandler.increaseSecondaryProgressCounter(value);
+
+        }
+    }
+
+    @Override
+    public void setSecondaryProgressCounterIndeterminate(
+            boolean indeterminate
+    ) {
+
+        if (forwardProgress()) {
+
+            waitingHandler.setSecondaryProgressCounterIndeterminate(indeterminate);
+
+        }
+    }
+
+    @Override
+    public void setRunFinished() {
+
+        finished = true;
+
+    }
+
+    @Override
+    public void setRunCanceled() {
+
+        canceled = true;
+
+        if (waitingHandler != null) {
+
+            waitingHandler.setRunCanceled();
+
+        }
+    }
+
+    @Override
+    public void appendReport(
+            String report,
+            boolean includeDate,
+            boolean addNewLine
+    ) {
+
+        if (waitingHandler != null) {
+
+            waitingHandler.appendReport(report, includeDate, addNewLine);
+
+        }
+    }
+
+    @Override
+    public void appendReportNewLineNoDate() {
+
+        if (waitingHandler != null) {
+
+            waitingHandler.appendReportNewLineNoDate();
+
+        }
+    }
+
+    @Override
+    public void appendReportEndLine() {
+
+        if (waitingHandler != null) {
+
+            waitingHandler.appendReportEndLine();
+
+        }
+    }
+
+    @Override
+    public boolean isRunCanceled() {
+
+        return canceled || waitingHandler != null && waitingHandler.isRunCanceled();
+
+    }
+
+    @Override
+    public boolean isRunFinished() {
+
+        return finished;
+
+    }
+
+    @Override
+    public void setSecondaryProgressText(
+            String text
+    ) {
+
+        if (forwardProgress()) {
+
+            waitingHandler.setSecondaryProgressText(text);
+
+        }
+    }
+
+    @Override
+    public boolean isReport() {
+
+        return waitingHandler != null && waitingHandler.isReport();
+
+    }
+
+    @Override
+    public void setWaitingText(
+            String text
+    ) {
+
+        if (forwardProgress()) {
+
+            waitingHandler.setWaitingText(text);
+
+        }
+    }
+
+    @Override
+    public void setDisplayProgress(
+            boolean displayProgress
+    ) {
+
+        this.displayProgress = displayProgress;
+
+    }
+
+    @Override
+    public boolean getDisplayProgress() {
+
+        return displayProgress;
+
+    }
+
+    @Override
+    public synchronized int getPrimaryProgressCounter() {
+
+        return primaryProgress;
+
+    }
+
+    @Override
+    public synchronized int getMaxPrimaryProgressCounter() {
+
+        return maxPrimaryProgress;
+
+    }
+
+    @Override
+    public synchronized int getSecondaryProgressCounter() {
+
+        return secondaryProgress;
+
+    }
+
+    @Override
+    public synchronized int getMaxSecondaryProgressCounter() {
+
+        return maxSecondaryProgress;
+
+    }
+}
@@ -8,6 +8,7 @@ import com.compomics.util.experiment.identification.Identification;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
 import com.compomics.util.experiment.identification.matches.ProteinMatch;
 import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
 import com.compomics.util.experiment.identification.matches_iterators.ProteinMatchesIterator;
 import com.compomics.util.experiment.identification.spectrum_annotation.spectrum_annotators.PeptideSpectrumAnnotator;
 import com.compomics.util.experiment.identification.utils.ProteinUtils;
@@ -15,6 +16,7 @@ import com.compomics.util.experiment.io.biology.protein.ProteinDetailsProvider;
 import com.compomics.util.experiment.io.biology.protein.SequenceProvider;
 import com.compomics.util.gui.waiting.waitinghandlers.ProgressDialogX;
 import com.compomics.util.parameters.identification.IdentificationParameters;
+import com.compomics.util.parameters.identification.search.DigestionParameters;
 import com.compomics.util.waiting.WaitingHandler;
 import com.compomics.util.experiment.identification.filtering.MatchFilter;
 import com.compomics.util.experiment.identification.filtering.PeptideFilter;
@@ -23,8 +25,10 @@ import com.compomics.util.experiment.identification.filtering.PsmFilter;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
 import com.compomics.util.experiment.mass_spectrometry.SpectrumProvider;
 import com.compomics.util.gui.filtering.FilterParameters;
+import eu.isas.peptideshaker.scoring.QcHistograms;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -86,6 +90,10 @@ public class StarHider {
      * The exception handler.
      */
     private final ExceptionHandler exceptionHandler;
+    /**
+     * The listeners notified when the hidden status of matches changed.
+     */
+    private final CopyOnWriteArrayList<Runnable> hideListeners = new CopyOnWriteArrayList<>();
 
     /**
      * Constructor.
@@ -218,6 +226,8 @@ public class StarHider {
 
                     progressDialog.setRunFinished();
 
+                    notifyHideListeners();
+
                 } catch (Exception e) {
 
                     exceptionHandler.catchException(e);
@@ -382,7 +392,8 @@ public class StarHider {
 
         }
 
-        psParameter.setHidden(true);
+        setProteinHidden(getQcHistograms(), proteinMatch, psParameter, true);
+        notifyHideListeners();
 
     }
 
@@ -420,7 +431,8 @@ public class StarHider {
             }
         }
 
-        psParameter.setHidden(true);
+        setProteinHidden(getQcHistograms(), proteinMatch, psParameter, true);
+        notifyHideListeners();
 
     }
 
@@ -575,7 +587,8 @@ public class StarHider {
 
         }
 
-        psParameter.setHidden(true);
+        setPeptideHidden(peptideMatch, psParameter, true);
+        notifyHideListeners();
 
     }
 
@@ -613,7 +626,8 @@ public class StarHider {
             }
         }
 
-        psParameter.setHidden(false);
+        setPeptideHidden(peptideMatch, psParameter, false);
+        notifyHideListeners();
 
     }
 
@@ -767,7 +781,8 @@ public class StarHider {
 
         }
 
-        psParameter.setHidden(true);
+        setPsmHidden(spectrumMatch, psParameter, true);
+        notifyHideListeners();
 
     }
 
@@ -805,7 +820,226 @@ public class StarHider {
             }
         }
 
-        psParameter.setHidden(false);
+        setPsmHidden(spectrumMatch, psParameter, false);
+        notifyHideListeners();
+
+    }
+
+    /**
+     * Adds a listener notified when the hidden status of matches changed.
+     *
+     * @param listener the listener
+     */
+    public void addHideListener(
+            Runnable listener
+    ) {
+
+        hideListeners.add(listener);
+
+    }
+
+    /**
+     * Notifies the listeners that the hidden status of matches changed.
+     */
+    private void notifyHideListeners() {
+
+        for (Runnable listener : hideListeners) {
+
+            listener.run();
+
+        }
+    }
+
+    /**
+     * Returns the histograms of the quality control metrics, null if not
+     * gathered yet.
+     *
+     * @return the histograms of the quality control metrics
+     */
+    private QcHistograms getQcHistograms() {
+
+        return (QcHistograms) identification.getUrParam(QcHistograms.dummy);
+
+    }
+
+    /**
+     * Sets the hidden status of a PSM and updates the histograms of the
+     * quality control metrics of the PSM and of its peptide.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param psParameter the PeptideShaker parameter of the spectrum match
+     * @param hidden the hidden status
+     */
+    private void setPsmHidden(
+            SpectrumMatch spectrumMatch,
+            PSParameter psParameter,
+            boolean hidden
+    ) {
+
+        QcHistograms qcHistograms = getQcHistograms();
+        PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
+
+        if (qcHistograms == null || peptideAssumption == null || psParameter.getHidden() == hidden) {
+
+            psParameter.setHidden(hidden);
+            return;
+
+        }
+
+        long peptideKey = peptideAssumption.getPeptide().getMatchingKey(identificationParameters.getSequenceMatchingParameters());
+        PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
+
+        if (peptideMatch == null || !psParameter.getMatchValidationLevel().isValidated()) {
+
+            setPsmHidden(qcHistograms, spectrumMatch, psParameter, hidden);
+            return;
+
+        }
+
+        int oldNValidatedPsms = QcHistograms.getNValidatedPsms(peptideMatch, identification);
+        int nValidatedPsms = hidden ? oldNValidatedPsms - 1 : oldNValidatedPsms + 1;
+
+        setPsmHidden(qcHistograms, spectrumMatch, psParameter, hidden);
+
+        PSParameter peptideParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+        setPeptideHidden(qcHistograms, peptideMatch, peptideParameter, peptideParameter.getHidden(), oldNValidatedPsms, nValidatedPsms);
+
+    }
+
+    /**
+     * Sets the hidden status of a PSM and updates the histograms of the
+     * quality control metrics of the PSM if the status changed.
+     *
+     * @param qcHistograms the histograms of the quality control metrics, can
+     * be null
+     * @param spectrumMatch the spectrum match
+     * @param psParameter the PeptideShaker parameter of the spectrum match
+     * @param hidden the hidden status
+     */
+    private void setPsmHidden(
+            QcHistograms qcHistograms,
+            SpectrumMatch spectrumMatch,
+            PSParameter psParameter,
+            boolean hidden
+    ) {
+
+        if (qcHistograms == null || psParameter.getHidden() == hidden || spectrumMatch.getBestPeptideAssumption() == null) {
+
+            psParameter.setHidden(hidden);
+            return;
+
+        }
+
+        double precursorError = QcHistograms.getPrecursorError(
+                spectrumMatch,
+                spectrumProvider,
+                identificationParameters.getSearchParameters()
+        );
+
+        qcHistograms.removeSpectrumMatch(spectrumMatch, precursorError, sequenceProvider);
+        psParameter.setHidden(hidden);
+        qcHistograms.addSpectrumMatch(spectrumMatch, precursorError, sequenceProvider);
+
+    }
+
+    /**
+     * Sets the hidden status of a peptide and updates the histograms of the
+     * quality control metrics of the peptide.
+     *
+     * @param peptideMatch the peptide match
+     * @param psParameter the PeptideShaker parameter of the peptide match
+     * @param hidden the hidden status
+     */
+    private void setPeptideHidden(
+            PeptideMatch peptideMatch,
+            PSParameter psParameter,
+            boolean hidden
+    ) {
+
+        QcHistograms qcHistograms = getQcHistograms();
+
+        if (qcHistograms == null || psParameter.getHidden() == hidden) {
+
+            psParameter.setHidden(hidden);
+            return;
+
+        }
+
+        int nValidatedPsms = QcHistograms.getNValidatedPsms(peptideMatch, identification);
+        setPeptideHidden(qcHistograms, peptideMatch, psParameter, hidden, nValidatedPsms, nValidatedPsms);
+
+    }
+
+    /**
+     * Sets the hidden status of a peptide and updates the histograms of the
+     * quality control metrics of the peptide if the status or the number of
+     * validated PSMs changed.
+     *
+     * @param qcHistograms the histograms of the quality control metrics, can
+     * be null
+     * @param peptideMatch the peptide match
+     * @param psParameter the PeptideShaker parameter of the peptide match
+     * @param hidden the hidden status
+     * @param oldNValidatedPsms the number of validated PSMs that were not
+     * hidden before the change
+     * @param nValidatedPsms the number of validated PSMs that are not hidden
+     * after the change
+     */
+    private void setPeptideHidden(
+            QcHistograms qcHistograms,
+            PeptideMatch peptideMatch,
+            PSParameter psParameter,
+            boolean hidden,
+            int oldNValidatedPsms,
+            int nValidatedPsms
+    ) {
+
+        if (qcHistograms == null || psParameter.getHidden() == hidden && oldNValidatedPsms == nValidatedPsms) {
+
+            psParameter.setHidden(hidden);
+            return;
+
+        }
+
+        DigestionParameters digestionParameters = identificationParameters.getSearchParameters().getDigestionParameters();
+
+        qcHistograms.removePeptideMatch(peptideMatch, oldNValidatedPsms, sequenceProvider, digestionParameters);
+        psParameter.setHidden(hidden);
+        qcHistograms.addPeptideMatch(peptideMatch, nValidatedPsms, sequenceProvider, digestionParameters);
+
+    }
+
+    /**
+     * Sets the hidden status of a protein and updates the histograms of the
+     * quality control metrics of the protein if the status changed. The bins
+     * of the spectrum counting depend on all the proteins that are not
+     * hidden, its histogram is hence removed to be gathered again when
+     * needed.
+     *
+     * @param qcHistograms the histograms of the quality control metrics, can
+     * be null
+     * @param proteinMatch the protein match
+     * @param psParameter the PeptideShaker parameter of the protein match
+     * @param hidden the hidden status
+     */
+    private void setProteinHidden(
+            QcHistograms qcHistograms,
+            ProteinMatch proteinMatch,
+            PSParameter psParameter,
+            boolean hidden
+    ) {
+
+        if (qcHistograms == null || psParameter.getHidden() == hidden) {
+
+            psParameter.setHidden(hidden);
+            return;
+
+        }
+
+        qcHistograms.removeProteinMatch(proteinMatch, identificationFeaturesGenerator, sequenceProvider);
+        psParameter.setHidden(hidden);
+        qcHistograms.addProteinMatch(proteinMatch, identificationFeaturesGenerator, sequenceProvider);
+        qcHistograms.remove(QcHistograms.Metric.proteinSpectrumCounting);
 
     }
 
@@ -1021,6 +1255,8 @@ public class StarHider {
         public void run() {
             try {
 
+                QcHistograms qcHistograms = getQcHistograms();
+
                 ProteinMatch proteinMatch;
                 while ((proteinMatch = proteinMatchesIterator.next()) != null && !progressDialog.isRunCanceled()) {
 
@@ -1031,61 +1267,72 @@ public class StarHider {
                     for (long peptideKey : proteinMatch.getPeptideMatchesKeys()) {
 
                         PeptideMatch peptideMatch = identification.getPeptideMatch(peptideKey);
-                        boolean psmpassed = false;
-
-                        for (long spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
 
-                            SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
-                            PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+                        // shared peptides can be processed by multiple threads, the histograms must be updated once
+                        synchronized (peptideMatch) {
 
-                            if (isPsmHidden(spectrumKey)) {
+                            boolean psmpassed = false;
+                            int oldNValidatedPsms = 0;
+                            int nValidatedPsms = 0;
 
-                                psParameter.setHidden(true);
+                            for (long spectrumKey : peptideMatch.getSpectrumMatchesKeys()) {
 
-                            } else {
+                                SpectrumMatch spectrumMatch = identification.getSpectrumMatch(spectrumKey);
+                                PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+                                boolean hidden = isPsmHidden(spectrumKey);
 
-                                psParameter.setHidden(false);
-                                psmpassed = true;
+                                if (psParameter.getMatchValidationLevel().isValidated()) {
 
-                            }
+                                    if (!psParameter.getHidden()) {
 
-                            psParameter.setStarred(isPsmStarred(spectrumKey));
+                                        oldNValidatedPsms++;
 
-                        }
+                                    }
 
-                        PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+                                    if (!hidden) {
 
-                        if (!psmpassed) {
+                                        nValidatedPsms++;
 
-                            psParameter.setHidden(true);
+                                    }
+                                }
 
-                        } else if (isPeptideHidden(peptideKey)) {
+                                setPsmHidden(qcHistograms, spectrumMatch, psParameter, hidden);
 
-                            psParameter.setHidden(true);
+                                if (!hidden) {
 
-                        } else {
+                                    psmpassed = true;
 
-                            psParameter.setHidden(false);
-                            peptidePassed = true;
+                                }
 
-                        }
+                                psParameter.setStarred(isPsmStarred(spectrumKey));
 
-                        psParameter.setStarred(isPeptideStarred(peptideKey));
+                            }
 
-                    }
+                            PSParameter psParameter = (PSParameter) peptideMatch.getUrParam(PSParameter.dummy);
+                            boolean hidden = !psmpassed || isPeptideHidden(peptideKey);
 
-                    PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+                            setPeptideHidden(qcHistograms, peptideMatch, psParameter, hidden, oldNValidatedPsms, nValidatedPsms);
 
-                    if (!peptidePassed) {
+                            if (!hidden) {
 
-                        psParameter.setHidden(true);
+                                peptidePassed = true;
 
-                    } else {
+                            }
 
-                        psParameter.setHidden(isProteinHidden(proteinKey));
+                            psParameter.setStarred(isPeptideStarred(peptideKey));
 
+                        }
                     }
 
+                    PSParameter psParameter = (PSParameter) proteinMatch.getUrParam(PSParameter.dummy);
+
+                    setProteinHidden(
+                            qcHistograms,
+                            proteinMatch,
+                            psParameter,
+                            !peptidePassed || isProteinHidden(proteinKey)
+                    );
+
                     psParameter.setStarred(isProteinStarred(proteinKey));
 
                     // update the observed fractional molecular weights per fraction
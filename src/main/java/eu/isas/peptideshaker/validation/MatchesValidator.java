@@ -35,6 +35,7 @@ import com.compomics.util.experiment.identification.filtering.items.AssumptionFi
 import com.compomics.util.experiment.identification.filtering.items.PeptideFilterItem;
 import com.compomics.util.experiment.identification.filtering.items.ProteinFilterItem;
 import com.compomics.util.experiment.identification.peptide_shaker.PSParameter;
+import eu.isas.peptideshaker.scoring.QcHistograms;
 import eu.isas.peptideshaker.scoring.maps.InputMap;
 import com.compomics.util.experiment.identification.validation.MatchValidationLevel;
 import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
@@ -48,10 +49,13 @@ import com.compomics.util.parameters.identification.advanced.IdMatchValidationPa
 import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
 import com.compomics.util.parameters.peptide_shaker.ProjectType;
 import eu.isas.peptideshaker.utils.PercolatorUtils;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import eu.isas.peptideshaker.utils.SpectrumMatchKeysQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -102,7 +106,9 @@ public class MatchesValidator {
 
     /**
      * This method validates the identification matches of an identification
-     * object. Target Decoy thresholds must be set.
+     * object. Target Decoy thresholds must be set. The histograms of the
+     * quality control metrics are gathered while validating and stored in the
+     * identification.
      *
      * @param identification The identification class containing the matches to
      * validate.
@@ -189,7 +195,7 @@ public class MatchesValidator {
                 + 2 * identification.getSpectrumIdentificationSize()
         );
 
-        // validate the spectrum matches
+        // gather the precursor m/z deviations of the spectrum matches validated without quality control
         inputMap.resetAdvocateContributions();
 
         AnnotationParameters annotationParameters = identificationParameters.getAnnotationParameters();
@@ -198,27 +204,30 @@ public class MatchesValidator {
 
         ExecutorService pool = Executors.newFixedThreadPool(processingParameters.getnThreads());
 
-        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(waitingHandler);
+        // iterate the matches in the order of the spectrum files
+        long[] spectrumMatchKeys = new SpectrumMatchKeysQueue(identification, spectrumProvider).getKeys();
+        SpectrumMatchesIterator psmIterator = identification.getSpectrumMatchesIterator(spectrumMatchKeys, waitingHandler);
 
-        ArrayList<PsmValidatorRunnable> psmRunnables = new ArrayList<>(processingParameters.getnThreads());
+        // the precursor m/z errors of the best peptide assumptions, indexed by the position of the keys in the sorted keys
+        long[] sortedSpectrumMatchKeys = Arrays.copyOf(spectrumMatchKeys, spectrumMatchKeys.length);
+        Arrays.sort(sortedSpectrumMatchKeys);
+        double[] precursorMzErrors = new double[sortedSpectrumMatchKeys.length];
+        Arrays.fill(precursorMzErrors, Double.NaN);
+
+        ArrayList<PsmDeviationRunnable> psmRunnables = new ArrayList<>(processingParameters.getnThreads());
 
         for (int i = 1; i <= processingParameters.getnThreads(); i++) {
 
-            PsmValidatorRunnable runnable = new PsmValidatorRunnable(
+            PsmDeviationRunnable runnable = new PsmDeviationRunnable(
                     psmIterator,
-                    identification,
-                    identificationFeaturesGenerator,
+                    sortedSpectrumMatchKeys,
+                    precursorMzErrors,
                     sequenceProvider,
-                    proteinDetailsProvider,
                     spectrumProvider,
-                    geneMaps,
                     identificationParameters,
-                    processingParameters,
                     waitingHandler,
                     exceptionHandler,
-                    inputMap,
-                    false,
-                    true
+                    inputMap
             );
 
             pool.submit(runnable);
@@ -242,23 +251,21 @@ public class MatchesValidator {
         }
 
         // combine the precursor mz deviations from the different threads into one map 
-        HashMap<String, ArrayList<Double>> precursorMzDeviations = new HashMap<>(identification.getSpectrumIdentification().size());
-
-        for (PsmValidatorRunnable runnable : psmRunnables) {
+        HashMap<String, DeviationBuffer> precursorMzDeviations = new HashMap<>(identification.getSpectrumIdentification().size());
 
-            for (String spectrumFileName : runnable.getThreadPrecursorMzDeviations().keySet()) {
+        for (PsmDeviationRunnable runnable : psmRunnables) {
 
-                ArrayList<Double> threadPrecursorMzDeviations = runnable.getThreadPrecursorMzDeviations().get(spectrumFileName);
+            for (Entry<String, DeviationBuffer> entry : runnable.getThreadPrecursorMzDeviations().entrySet()) {
 
-                ArrayList<Double> filePrecursorMzDeviations = precursorMzDeviations.get(spectrumFileName);
+                DeviationBuffer filePrecursorMzDeviations = precursorMzDeviations.get(entry.getKey());
 
                 if (filePrecursorMzDeviations != null) {
 
-                    filePrecursorMzDeviations.addAll(threadPrecursorMzDeviations);
+                    filePrecursorMzDeviations.addAll(entry.getValue());
 
                 } else {
 
-                    precursorMzDeviations.put(spectrumFileName, threadPrecursorMzDeviations);
+                    precursorMzDeviations.put(entry.getKey(), entry.getValue());
 
                 }
             }
@@ -266,9 +273,7 @@ public class MatchesValidator {
 
         for (String spectrumFileName : precursorMzDeviations.keySet()) {
 
-            double[] precursorMzDeviationsFile = precursorMzDeviations.get(spectrumFileName).stream()
-                    .mapToDouble(a -> a)
-                    .toArray();
+            double[] precursorMzDeviationsFile = precursorMzDeviations.get(spectrumFileName).toArray();
 
             if (precursorMzDeviationsFile.length >= 100) {
 
@@ -343,12 +348,15 @@ public class MatchesValidator {
 
         pool = Executors.newFixedThreadPool(processingParameters.getnThreads());
 
-        psmIterator = identification.getSpectrumMatchesIterator(waitingHandler);
+        psmIterator = identification.getSpectrumMatchesIterator(spectrumMatchKeys, waitingHandler);
+        ArrayList<PsmValidatorRunnable> psmValidatorRunnables = new ArrayList<>(processingParameters.getnThreads());
 
         for (int i = 1; i <= processingParameters.getnThreads(); i++) {
 
             PsmValidatorRunnable runnable = new PsmValidatorRunnable(
                     psmIterator,
+                    sortedSpectrumMatchKeys,
+                    precursorMzErrors,
                     identification,
                     identificationFeaturesGenerator,
                     sequenceProvider,
@@ -360,10 +368,10 @@ public class MatchesValidator {
                     waitingHandler,
                     exceptionHandler,
                     inputMap,
-                    true,
-                    false
+                    true
             );
             pool.submit(runnable);
+            psmValidatorRunnables.add(runnable);
 
         }
 
@@ -384,6 +392,20 @@ public class MatchesValidator {
 
         annotationParameters.setIntensityLimit(intensityLimit);
 
+        QcHistograms qcHistograms = new QcHistograms(identificationParameters.getSearchParameters());
+        HashMap<Long, Integer> validatedPsmsPerPeptide = new HashMap<>(identification.getPeptideIdentification().size());
+
+        for (PsmValidatorRunnable runnable : psmValidatorRunnables) {
+
+            qcHistograms.merge(runnable.getQcHistograms());
+
+            for (Entry<Long, Integer> entry : runnable.getValidatedPsmsPerPeptide().entrySet()) {
+
+                validatedPsmsPerPeptide.merge(entry.getKey(), entry.getValue(), Integer::sum);
+
+            }
+        }
+
         if (projectType == ProjectType.peptide || projectType == ProjectType.protein) {
 
             // validate the peptides
@@ -396,6 +418,7 @@ public class MatchesValidator {
 
                 PeptideValidatorRunnable runnable = new PeptideValidatorRunnable(
                         peptideMatchesIterator,
+                        validatedPsmsPerPeptide,
                         identification,
                         identificationFeaturesGenerator,
                         sequenceProvider,
@@ -450,6 +473,7 @@ public class MatchesValidator {
                 }
 
                 validatedPeptideLengths.addAll(runnable.getValidatedPeptideLengths());
+                qcHistograms.merge(runnable.getQcHistograms());
 
             }
 
@@ -515,9 +539,16 @@ public class MatchesValidator {
 
                 metrics.setValidatedTargetProteinKeys(validatedTargetProteinKeys);
 
+                for (ProteinValidatorRunnable runnable : proteinRunnables) {
+
+                    qcHistograms.merge(runnable.getQcHistograms());
+
+                }
             }
         }
 
+        identification.addUrParam(qcHistograms);
+
     }
 
     /**
@@ -1584,6 +1615,15 @@ public class MatchesValidator {
          * An iterator for the PSMs.
          */
         private final SpectrumMatchesIterator psmIterator;
+        /**
+         * The keys of the PSMs in ascending order.
+         */
+        private final long[] sortedSpectrumMatchKeys;
+        /**
+         * The precursor m/z errors of the best peptide assumptions in the
+         * order of the sorted keys.
+         */
+        private final double[] precursorMzErrors;
         /**
          * The identification.
          */
@@ -1622,32 +1662,39 @@ public class MatchesValidator {
          */
         private final ExceptionHandler exceptionHandler;
         /**
-         * List used to store precursor m/z deviations of matches currently
-         * validated.
-         */
-        private final HashMap<String, ArrayList<Double>> threadPrecursorMzDeviations = new HashMap<>(128);
-        /**
-         * If not null, information on search engine agreement will be stored in
-         * the input map.
+         * The target decoy maps of all search engine scores.
          */
         private final InputMap inputMap;
         /**
          * If true, quality control filters will be applied to the matches.
          */
         private final boolean applyQCFilters;
-        /**
-         * If true, advocate contributions will be stored in the input map.
-         */
-        private final boolean storeContributions;
         /**
          * The processing parameters.
          */
         private final ProcessingParameters processingParameters;
+        /**
+         * The histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         */
+        private final QcHistograms qcHistograms;
+        /**
+         * The number of validated PSMs that are not hidden per peptide key.
+         */
+        private final HashMap<Long, Integer> validatedPsmsPerPeptide = new HashMap<>();
+        /**
+         * The key of the annotation settings in the spectrum annotation cache.
+         */
+        private final long annotationSettingsKey;
 
         /**
          * Constructor.
          *
          * @param psmIterator a PSM iterator
+         * @param sortedSpectrumMatchKeys the keys of the PSMs in ascending
+         * order
+         * @param precursorMzErrors the precursor m/z errors of the best
+         * peptide assumptions in the order of the sorted keys
          * @param identification the identification containing the matches
          * @param identificationFeaturesGenerator the identification features
          * generator used to estimate, store and retrieve identification
@@ -1661,15 +1708,14 @@ public class MatchesValidator {
          * @param waitingHandler a waiting handler to display progress and allow
          * canceling the process
          * @param exceptionHandler handler for exceptions
-         * @param inputMap if provided information on search engine agreement
-         * will be stored in the input map
+         * @param inputMap the target decoy maps of all search engine scores
          * @param applyQCFilters boolean indicating whether quality control
          * filters should be used
-         * @param storeContributions boolean indicating whether advocate
-         * contributions should be stored.
          */
         public PsmValidatorRunnable(
                 SpectrumMatchesIterator psmIterator,
+                long[] sortedSpectrumMatchKeys,
+                double[] precursorMzErrors,
                 Identification identification,
                 IdentificationFeaturesGenerator identificationFeaturesGenerator,
                 SequenceProvider sequenceProvider,
@@ -1681,11 +1727,12 @@ public class MatchesValidator {
                 WaitingHandler waitingHandler,
                 ExceptionHandler exceptionHandler,
                 InputMap inputMap,
-                boolean applyQCFilters,
-                boolean storeContributions
+                boolean applyQCFilters
         ) {
 
             this.psmIterator = psmIterator;
+            this.sortedSpectrumMatchKeys = sortedSpectrumMatchKeys;
+            this.precursorMzErrors = precursorMzErrors;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
             this.sequenceProvider = sequenceProvider;
@@ -1698,7 +1745,12 @@ public class MatchesValidator {
             this.exceptionHandler = exceptionHandler;
             this.inputMap = inputMap;
             this.applyQCFilters = applyQCFilters;
-            this.storeContributions = storeContributions;
+            this.qcHistograms = new QcHistograms(identificationParameters.getSearchParameters());
+            this.annotationSettingsKey = SpectrumAnnotationCache.getSettingsKey(
+                    identificationParameters.getAnnotationParameters(),
+                    identificationParameters.getSearchParameters().getModificationParameters(),
+                    identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+            );
 
         }
 
@@ -1710,7 +1762,6 @@ public class MatchesValidator {
                 while ((spectrumMatch = psmIterator.next()) != null && !waitingHandler.isRunCanceled()) {
 
                     long spectrumKey = spectrumMatch.getKey();
-                    String spectrumFileName = spectrumMatch.getSpectrumFile();
 
                     if (spectrumMatch.getBestPeptideAssumption() == null) {
 
@@ -1784,6 +1835,7 @@ public class MatchesValidator {
                                             peptideAssumption,
                                             identificationParameters.getSearchParameters(),
                                             identificationParameters.getAnnotationParameters(),
+                                            annotationSettingsKey,
                                             identificationParameters.getModificationLocalizationParameters(),
                                             sequenceProvider,
                                             spectrumProvider
@@ -1796,68 +1848,235 @@ public class MatchesValidator {
                         }
                     }
 
-                    // update search engine agreement
+                    qcHistograms.addSpectrumMatch(
+                            spectrumMatch,
+                            precursorMzErrors[Arrays.binarySearch(sortedSpectrumMatchKeys, spectrumKey)],
+                            sequenceProvider
+                    );
+
                     PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
 
+                    if (psParameter.getMatchValidationLevel().isValidated() && !psParameter.getHidden()) {
+
+                        long peptideKey = spectrumMatch.getBestPeptideAssumption().getPeptide().getMatchingKey(
+                                identificationParameters.getSequenceMatchingParameters()
+                        );
+                        validatedPsmsPerPeptide.merge(peptideKey, 1, Integer::sum);
+
+                    }
+
+                    waitingHandler.increaseSecondaryProgressCounter();
+
+                }
+            } catch (Exception e) {
+                exceptionHandler.catchException(e);
+                waitingHandler.setRunCanceled();
+            }
+        }
+
+        /**
+         * Returns the histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         *
+         * @return the histograms of the quality control metrics
+         */
+        public QcHistograms getQcHistograms() {
+
+            return qcHistograms;
+
+        }
+
+        /**
+         * Returns the number of validated PSMs that are not hidden per peptide
+         * key.
+         *
+         * @return the number of validated PSMs that are not hidden per peptide
+         * key
+         */
+        public HashMap<Long, Integer> getValidatedPsmsPerPeptide() {
+
+            return validatedPsmsPerPeptide;
+
+        }
+    }
+
+    /**
+     * Runnable gathering the precursor m/z deviations of the PSMs passing the
+     * FDR threshold before quality control, and storing the search engine
+     * agreement of these PSMs in the input map. The precursor m/z errors of
+     * all PSMs are stored for the quality control histograms. Matches are not
+     * modified.
+     *
+     * @author Marc Vaudel
+     */
+    private class PsmDeviationRunnable implements Runnable {
+
+        /**
+         * An iterator for the PSMs.
+         */
+        private final SpectrumMatchesIterator psmIterator;
+        /**
+         * The keys of the PSMs in ascending order.
+         */
+        private final long[] sortedSpectrumMatchKeys;
+        /**
+         * The precursor m/z errors of the best peptide assumptions in the
+         * order of the sorted keys, filled by this runnable.
+         */
+        private final double[] precursorMzErrors;
+        /**
+         * The sequence provider.
+         */
+        private final SequenceProvider sequenceProvider;
+        /**
+         * The spectrum provider.
+         */
+        private final SpectrumProvider spectrumProvider;
+        /**
+         * The identification parameters.
+         */
+        private final IdentificationParameters identificationParameters;
+        /**
+         * The waiting handler.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * Handler for the exceptions.
+         */
+        private final ExceptionHandler exceptionHandler;
+        /**
+         * The precursor m/z deviations of the matches processed by this
+         * thread indexed by spectrum file name.
+         */
+        private final HashMap<String, DeviationBuffer> threadPrecursorMzDeviations = new HashMap<>(128);
+        /**
+         * The input map where to store the search engine agreement.
+         */
+        private final InputMap inputMap;
+
+        /**
+         * Constructor.
+         *
+         * @param psmIterator a PSM iterator
+         * @param sortedSpectrumMatchKeys the keys of the PSMs in ascending
+         * order
+         * @param precursorMzErrors the array where to store the precursor m/z
+         * errors of the best peptide assumptions in the order of the sorted
+         * keys
+         * @param sequenceProvider a protein sequence provider
+         * @param spectrumProvider The spectrum provider.
+         * @param identificationParameters the identification parameters
+         * @param waitingHandler a waiting handler to display progress and allow
+         * canceling the process
+         * @param exceptionHandler handler for exceptions
+         * @param inputMap the input map where to store the search engine
+         * agreement
+         */
+        public PsmDeviationRunnable(
+                SpectrumMatchesIterator psmIterator,
+                long[] sortedSpectrumMatchKeys,
+                double[] precursorMzErrors,
+                SequenceProvider sequenceProvider,
+                SpectrumProvider spectrumProvider,
+                IdentificationParameters identificationParameters,
+                WaitingHandler waitingHandler,
+                ExceptionHandler exceptionHandler,
+                InputMap inputMap
+        ) {
+
+            this.psmIterator = psmIterator;
+            this.sortedSpectrumMatchKeys = sortedSpectrumMatchKeys;
+            this.precursorMzErrors = precursorMzErrors;
+            this.sequenceProvider = sequenceProvider;
+            this.spectrumProvider = spectrumProvider;
+            this.identificationParameters = identificationParameters;
+            this.waitingHandler = waitingHandler;
+            this.exceptionHandler = exceptionHandler;
+            this.inputMap = inputMap;
+
+        }
+
+        @Override
+        public void run() {
+            try {
+
+                SearchParameters searchParameters = identificationParameters.getSearchParameters();
+                boolean targetDecoy = identificationParameters.getFastaParameters().isTargetDecoy();
+                boolean noValidated = psmMap == null || psmMap.getTargetDecoyResults().noValidated();
+                double psmThreshold = psmMap == null ? 0 : psmMap.getTargetDecoyResults().getScoreLimit();
+
+                SpectrumMatch spectrumMatch;
+                while ((spectrumMatch = psmIterator.next()) != null && !waitingHandler.isRunCanceled()) {
+
                     PeptideAssumption peptideAssumption = spectrumMatch.getBestPeptideAssumption();
 
-                    if (peptideAssumption != null) {
+                    if (peptideAssumption == null) {
 
-                        peptideAssumption.getPeptide().getMass(
-                                identificationParameters.getSearchParameters().getModificationParameters(),
-                                sequenceProvider,
-                                identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
-                        );
+                        continue;
 
-                        if (psParameter.getMatchValidationLevel().isValidated() && !PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider)) {
+                    }
 
-                            double precursorMz = spectrumProvider.getPrecursorMz(
-                                    spectrumFileName,
-                                    spectrumMatch.getSpectrumTitle()
-                            );
-                            SearchParameters searchParameters = identificationParameters.getSearchParameters();
-                            double precursorMzError = peptideAssumption.getDeltaMz(
-                                    precursorMz,
-                                    searchParameters.isPrecursorAccuracyTypePpm(),
-                                    searchParameters.getMinIsotopicCorrection(),
-                                    searchParameters.getMaxIsotopicCorrection()
-                            );
+                    peptideAssumption.getPeptide().getMass(
+                            searchParameters.getModificationParameters(),
+                            sequenceProvider,
+                            identificationParameters.getModificationLocalizationParameters().getSequenceMatchingParameters()
+                    );
 
-                            ArrayList<Double> fileDeviations = threadPrecursorMzDeviations.get(spectrumFileName);
+                    // the precursor m/z error is stored for the quality control histograms of all matches
+                    String spectrumFileName = spectrumMatch.getSpectrumFile();
+
+                    double precursorMz = spectrumProvider.getPrecursorMz(
+                            spectrumFileName,
+                            spectrumMatch.getSpectrumTitle()
+                    );
+                    double precursorMzError = peptideAssumption.getDeltaMz(
+                            precursorMz,
+                            searchParameters.isPrecursorAccuracyTypePpm(),
+                            searchParameters.getMinIsotopicCorrection(),
+                            searchParameters.getMaxIsotopicCorrection()
+                    );
+
+                    precursorMzErrors[Arrays.binarySearch(sortedSpectrumMatchKeys, spectrumMatch.getKey())] = precursorMzError;
+
+                    // same criterion as updateSpectrumMatchValidationLevel without quality control
+                    PSParameter psParameter = (PSParameter) spectrumMatch.getUrParam(PSParameter.dummy);
+
+                    if (targetDecoy && !noValidated && psParameter.getScore() <= psmThreshold) {
+
+                        if (!PeptideUtils.isDecoy(peptideAssumption.getPeptide(), sequenceProvider)) {
+
+                            DeviationBuffer fileDeviations = threadPrecursorMzDeviations.get(spectrumFileName);
 
                             if (fileDeviations == null) {
 
-                                fileDeviations = new ArrayList<>();
+                                fileDeviations = new DeviationBuffer();
                                 threadPrecursorMzDeviations.put(spectrumFileName, fileDeviations);
 
                             }
 
                             fileDeviations.add(precursorMzError);
 
-                            if (inputMap != null && storeContributions) {
+                            Peptide bestPeptide = peptideAssumption.getPeptide();
+                            int[] agreementAdvocates = spectrumMatch.getPeptideAssumptionsMap().entrySet().stream()
+                                    .filter(
+                                            entry -> !entry.getValue().isEmpty() && hasBestAssumption(entry.getValue(), bestPeptide)
+                                    )
+                                    .mapToInt(
+                                            entry -> entry.getKey()
+                                    )
+                                    .distinct()
+                                    .toArray();
 
-                                Peptide bestPeptide = peptideAssumption.getPeptide();
-                                int[] agreementAdvocates = assumptions.entrySet().stream()
-                                        .filter(
-                                                entry -> !entry.getValue().isEmpty() && hasBestAssumption(entry.getValue(), bestPeptide)
-                                        )
-                                        .mapToInt(
-                                                entry -> entry.getKey()
-                                        )
-                                        .distinct()
-                                        .toArray();
+                            boolean unique = agreementAdvocates.length == 1;
 
-                                boolean unique = agreementAdvocates.length == 1;
+                            for (int advocateId : agreementAdvocates) {
 
-                                for (int advocateId : agreementAdvocates) {
+                                inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
 
-                                    inputMap.addAdvocateContribution(advocateId, spectrumFileName, unique);
-
-                                }
+                            }
 
-                                inputMap.addPeptideShakerHit(spectrumFileName, agreementAdvocates.length == 0);
+                            inputMap.addPeptideShakerHit(spectrumFileName, agreementAdvocates.length == 0);
 
-                            }
                         }
                     }
 
@@ -1900,15 +2119,82 @@ public class MatchesValidator {
         }
 
         /**
-         * Returns the precursor m/z deviations of the validated PSMs.
+         * Returns the precursor m/z deviations of the validated PSMs indexed
+         * by spectrum file name.
          *
          * @return the precursor m/z deviations of the validated PSMs
          */
-        public HashMap<String, ArrayList<Double>> getThreadPrecursorMzDeviations() {
+        public HashMap<String, DeviationBuffer> getThreadPrecursorMzDeviations() {
             return threadPrecursorMzDeviations;
         }
     }
 
+    /**
+     * Growable buffer of primitive doubles used to gather the precursor m/z
+     * deviations without boxing.
+     */
+    private static class DeviationBuffer {
+
+        /**
+         * The values.
+         */
+        private double[] values = new double[1024];
+        /**
+         * The number of values in the buffer.
+         */
+        private int size = 0;
+
+        /**
+         * Adds a value to the buffer.
+         *
+         * @param value the value to add
+         */
+        public void add(
+                double value
+        ) {
+
+            if (size == values.length) {
+
+                values = Arrays.copyOf(values, 2 * size);
+
+            }
+
+            values[size++] = value;
+
+        }
+
+        /**
+         * Adds the values of another buffer to this buffer.
+         *
+         * @param other the other buffer
+         */
+        public void addAll(
+                DeviationBuffer other
+        ) {
+
+            if (size + other.size > values.length) {
+
+                values = Arrays.copyOf(values, Math.max(2 * values.length, size + other.size));
+
+            }
+
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+
+        }
+
+        /**
+         * Returns the values in a new array.
+         *
+         * @return the values in a new array
+         */
+        public double[] toArray() {
+
+            return Arrays.copyOf(values, size);
+
+        }
+    }
+
     /**
      * Runnable validating peptides.
      *
@@ -1920,6 +2206,10 @@ public class MatchesValidator {
          * An iterator for the peptide matches.
          */
         private final PeptideMatchesIterator peptideMatchesIterator;
+        /**
+         * The number of validated PSMs that are not hidden per peptide key.
+         */
+        private final HashMap<Long, Integer> validatedPsmsPerPeptide;
         /**
          * The identification.
          */
@@ -1969,11 +2259,18 @@ public class MatchesValidator {
          * The object used to store metrics on the project.
          */
         private final Metrics metrics;
+        /**
+         * The histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         */
+        private final QcHistograms qcHistograms;
 
         /**
          * Constructor.
          *
          * @param psmIterator a peptide matches iterator
+         * @param validatedPsmsPerPeptide the number of validated PSMs that are
+         * not hidden per peptide key
          * @param identification the identification containing the matches
          * @param identificationFeaturesGenerator the identification features
          * generator used to estimate, store and retrieve identification
@@ -1994,6 +2291,7 @@ public class MatchesValidator {
          */
         public PeptideValidatorRunnable(
                 PeptideMatchesIterator peptideMatchesIterator,
+                HashMap<Long, Integer> validatedPsmsPerPeptide,
                 Identification identification,
                 IdentificationFeaturesGenerator identificationFeaturesGenerator,
                 SequenceProvider sequenceProvider,
@@ -2007,6 +2305,7 @@ public class MatchesValidator {
         ) {
 
             this.peptideMatchesIterator = peptideMatchesIterator;
+            this.validatedPsmsPerPeptide = validatedPsmsPerPeptide;
             this.identification = identification;
             this.identificationFeaturesGenerator = identificationFeaturesGenerator;
             this.sequenceProvider = sequenceProvider;
@@ -2017,6 +2316,7 @@ public class MatchesValidator {
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
             this.metrics = metrics;
+            this.qcHistograms = new QcHistograms(identificationParameters.getSearchParameters());
 
         }
 
@@ -2123,6 +2423,13 @@ public class MatchesValidator {
                         psParameter.setPrecursorIntensityPerFraction(precursorIntensitesPerFractionPeptideLevel);
                     }
 
+                    qcHistograms.addPeptideMatch(
+                            peptideMatch,
+                            validatedPsmsPerPeptide.getOrDefault(peptideKey, 0),
+                            sequenceProvider,
+                            identificationParameters.getSearchParameters().getDigestionParameters()
+                    );
+
                     identification.updateObject(peptideKey, peptideMatch);
                     waitingHandler.increaseSecondaryProgressCounter();
 
@@ -2180,6 +2487,18 @@ public class MatchesValidator {
             return validatedTotalPeptidesPerFraction;
 
         }
+
+        /**
+         * Returns the histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         *
+         * @return the histograms of the quality control metrics
+         */
+        public QcHistograms getQcHistograms() {
+
+            return qcHistograms;
+
+        }
     }
 
     /**
@@ -2242,6 +2561,11 @@ public class MatchesValidator {
          * Keep track of the validated target protein matches.
          */
         private final HashSet<Long> validatedProteinMatches = new HashSet<>();
+        /**
+         * The histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         */
+        private final QcHistograms qcHistograms;
 
         /**
          * Constructor.
@@ -2287,6 +2611,7 @@ public class MatchesValidator {
             this.waitingHandler = waitingHandler;
             this.exceptionHandler = exceptionHandler;
             this.validationQCParameters = identificationParameters.getIdValidationParameters().getValidationQCParameters();
+            this.qcHistograms = new QcHistograms(identificationParameters.getSearchParameters());
 
         }
 
@@ -2445,6 +2770,12 @@ public class MatchesValidator {
                         }
                     }
 
+                    qcHistograms.addProteinMatch(
+                            proteinMatch,
+                            identificationFeaturesGenerator,
+                            sequenceProvider
+                    );
+
                     identification.updateObject(proteinKey, proteinMatch);
                     waitingHandler.increaseSecondaryProgressCounter();
 
@@ -2517,5 +2848,15 @@ public class MatchesValidator {
         public HashSet<Long> getValidatedProteinMatches() {
             return validatedProteinMatches;
         }
+
+        /**
+         * Returns the histograms of the quality control metrics of the matches
+         * validated by this runnable.
+         *
+         * @return the histograms of the quality control metrics
+         */
+        public QcHistograms getQcHistograms() {
+            return qcHistograms;
+        }
     }
 }
@@ -0,0 +1,193 @@
+package eu.isas.peptideshaker.test.export;
+
+import eu.isas.peptideshaker.export.AtomicFileCopy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the atomic copy of files.
+ *
+ * @author Marc Vaudel
+ */
+public class AtomicFileCopyTest extends TestCase {
+
+    /**
+     * The size of the blocks compared by the copy.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /**
+     * The length of the test files.
+     */
+    private static final int LENGTH = 5 * BLOCK_SIZE + 123;
+
+    /**
+     * Tests the update of a destination with a source of the same size
+     * differing by a single byte.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testSameSize() throws IOException {
+
+        byte[] content = getContent(LENGTH, 1);
+        byte[] newContent = Arrays.copyOf(content, content.length);
+        newContent[2 * BLOCK_SIZE + 7]++;
+
+        testUpdate(content, newContent);
+
+    }
+
+    /**
+     * Tests the update of a destination with a source that grew.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testGrown() throws IOException {
+
+        byte[] content = getContent(LENGTH, 2);
+        byte[] newContent = Arrays.copyOf(content, content.length + 3 * BLOCK_SIZE + 11);
+        newContent[newContent.length - 1] = 42;
+
+        testUpdate(content, newContent);
+
+    }
+
+    /**
+     * Tests the update of a destination with a source that shrunk.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testShrunk() throws IOException {
+
+        byte[] content = getContent(LENGTH, 3);
+        byte[] newContent = Arrays.copyOf(content, BLOCK_SIZE + 5);
+
+        testUpdate(content, newContent);
+
+    }
+
+    /**
+     * Tests that a destination with the content of the source is not
+     * rewritten, and that a missing destination is created.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testUnchanged() throws IOException {
+
+        File folder = Files.createTempDirectory("incremental_copy_test").toFile();
+
+        try {
+
+            File source = new File(folder, "source.psdb");
+            File destination = new File(folder, "destination.psdb");
+            byte[] content = getContent(LENGTH, 4);
+            Files.write(source.toPath(), content);
+
+            Assert.assertTrue(AtomicFileCopy.update(source, destination));
+            Assert.assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+
+            Assert.assertFalse(AtomicFileCopy.update(source, destination));
+            Assert.assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+
+            Files.write(source.toPath(), new byte[0]);
+
+            Assert.assertTrue(AtomicFileCopy.update(source, destination));
+            Assert.assertEquals(0, destination.length());
+
+        } finally {
+
+            deleteFolder(folder);
+
+        }
+    }
+
+    /**
+     * Copies the given content to a destination, updates it with the new
+     * content, and checks that the destination has the new content and that
+     * no temporary file is left.
+     *
+     * @param content the initial content
+     * @param newContent the new content
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private static void testUpdate(
+            byte[] content,
+            byte[] newContent
+    ) throws IOException {
+
+        File folder = Files.createTempDirectory("incremental_copy_test").toFile();
+
+        try {
+
+            File source = new File(folder, "source.psdb");
+            File destination = new File(folder, "destination.psdb");
+
+            Files.write(source.toPath(), content);
+            AtomicFileCopy.copy(source, destination);
+
+            Assert.assertArrayEquals(content, Files.readAllBytes(destination.toPath()));
+
+            Files.write(source.toPath(), newContent);
+
+            Assert.assertFalse(AtomicFileCopy.haveSameContent(source, destination));
+            Assert.assertTrue(AtomicFileCopy.update(source, destination));
+            Assert.assertArrayEquals(newContent, Files.readAllBytes(destination.toPath()));
+            Assert.assertTrue(AtomicFileCopy.haveSameContent(source, destination));
+            Assert.assertEquals(2, folder.listFiles().length);
+
+        } finally {
+
+            deleteFolder(folder);
+
+        }
+    }
+
+    /**
+     * Returns random content of the given length.
+     *
+     * @param length the length of the content
+     * @param seed the seed of the random generator
+     *
+     * @return random content of the given length
+     */
+    private static byte[] getContent(
+            int length,
+            long seed
+    ) {
+
+        byte[] content = new byte[length];
+        new Random(seed).nextBytes(content);
+
+        return content;
+
+    }
+
+    /**
+     * Deletes the given folder and its files.
+     *
+     * @param folder the folder
+     */
+    private static void deleteFolder(
+            File folder
+    ) {
+
+        for (File file : folder.listFiles()) {
+
+            file.delete();
+
+        }
+
+        folder.delete();
+
+    }
+}
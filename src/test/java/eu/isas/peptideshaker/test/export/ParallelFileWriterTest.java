@@ -0,0 +1,261 @@
+package eu.isas.peptideshaker.test.export;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import eu.isas.peptideshaker.export.ParallelFileWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPInputStream;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests that the files written in parallel chunks are identical to the files
+ * written serially.
+ *
+ * @author Marc Vaudel
+ */
+public class ParallelFileWriterTest extends TestCase {
+
+    /**
+     * The number of items to write.
+     */
+    private static final int N_ITEMS = 10007;
+
+    /**
+     * Tests that a file written in chunks equals the file written serially.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testPlainText() throws IOException {
+
+        testChunks(false, 100);
+
+    }
+
+    /**
+     * Tests that a gzipped file written in chunks, i.e. made of multiple gzip
+     * members, decompresses to the file written serially.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testGzip() throws IOException {
+
+        testChunks(true, 100);
+
+    }
+
+    /**
+     * Tests chunks larger than the number of items, and chunks of a single
+     * item.
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    public void testChunkSizes() throws IOException {
+
+        testChunks(true, 2 * N_ITEMS);
+        testChunks(true, 1);
+
+    }
+
+    /**
+     * Writes the test items serially and in chunks of the given size, and
+     * checks that the content of the files is the same.
+     *
+     * @param gzip boolean indicating whether the file written in chunks
+     * should be gzipped
+     * @param chunkSize the number of items per chunk
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * or writing a file
+     */
+    private static void testChunks(
+            boolean gzip,
+            int chunkSize
+    ) throws IOException {
+
+        File folder = Files.createTempDirectory("parallel_file_writer_test").toFile();
+        ForkJoinPool pool = new ForkJoinPool(4);
+
+        try {
+
+            File serialFile = new File(folder, "serial.txt");
+
+            try (ParallelFileWriter writer = new ParallelFileWriter(serialFile, false)) {
+
+                writeHeader(writer);
+
+                IntConsumer itemWriter = getItemWriter(writer);
+
+                for (int i = 0; i < N_ITEMS; i++) {
+
+                    itemWriter.accept(i);
+
+                }
+
+                writeFooter(writer);
+
+            }
+
+            File parallelFile = new File(folder, gzip ? "parallel.txt.gz" : "parallel.txt");
+
+            try (ParallelFileWriter writer = new ParallelFileWriter(parallelFile, gzip)) {
+
+                writeHeader(writer);
+                writer.writeChunks(
+                        N_ITEMS,
+                        chunkSize,
+                        getItemWriter(writer),
+                        pool,
+                        new WaitingHandlerCLIImpl()
+                );
+                writeFooter(writer);
+
+            }
+
+            byte[] expected = Files.readAllBytes(serialFile.toPath());
+            byte[] actual = gzip ? gunzip(parallelFile) : Files.readAllBytes(parallelFile.toPath());
+
+            Assert.assertTrue(expected.length > 0);
+            Assert.assertArrayEquals(expected, actual);
+
+        } finally {
+
+            pool.shutdown();
+
+            for (File file : folder.listFiles()) {
+
+                file.delete();
+
+            }
+
+            folder.delete();
+
+        }
+    }
+
+    /**
+     * Writes the text preceding the items.
+     *
+     * @param writer the writer
+     */
+    private static void writeHeader(
+            ParallelFileWriter writer
+    ) {
+
+        writer.writeLine("<list>");
+        writer.increaseIndent();
+
+    }
+
+    /**
+     * Writes the text following the items.
+     *
+     * @param writer the writer
+     */
+    private static void writeFooter(
+            ParallelFileWriter writer
+    ) {
+
+        writer.decreaseIndent();
+        Assert.assertEquals(0, writer.getIndent());
+        writer.writeLine("</list>");
+
+    }
+
+    /**
+     * Returns a writer of items indenting the text according to the
+     * indentation level of the writer.
+     *
+     * @param writer the writer
+     *
+     * @return a writer of items
+     */
+    private static IntConsumer getItemWriter(
+            ParallelFileWriter writer
+    ) {
+
+        return i -> {
+
+            writer.write(getIndent(writer.getIndent()));
+            writer.writeLine("<item id=\"" + i + "\">");
+            writer.increaseIndent();
+
+            for (int j = 0; j < i % 4; j++) {
+
+                writer.write(getIndent(writer.getIndent()));
+                writer.writeLine("<value>" + (i * 31 + j) + " \u00e9</value>");
+
+            }
+
+            writer.decreaseIndent();
+            writer.write(getIndent(writer.getIndent()));
+            writer.writeLine("</item>");
+
+        };
+    }
+
+    /**
+     * Returns the indentation for the given level.
+     *
+     * @param level the indentation level
+     *
+     * @return the indentation
+     */
+    private static String getIndent(
+            int level
+    ) {
+
+        StringBuilder indent = new StringBuilder(2 * level);
+
+        for (int i = 0; i < level; i++) {
+
+            indent.append("  ");
+
+        }
+
+        return indent.toString();
+
+    }
+
+    /**
+     * Returns the decompressed content of the given gzipped file, reading all
+     * gzip members.
+     *
+     * @param file the file
+     *
+     * @return the decompressed content
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the file
+     */
+    private static byte[] gunzip(
+            File file
+    ) throws IOException {
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+
+            byte[] buffer = new byte[1 << 16];
+            int length;
+
+            while ((length = inputStream.read(buffer)) != -1) {
+
+                content.write(buffer, 0, length);
+
+            }
+        }
+
+        return content.toByteArray();
+
+    }
+}
@@ -0,0 +1,310 @@
+package eu.isas.peptideshaker.test.scoring;
+
+import eu.isas.peptideshaker.scoring.QcHistogram;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests that the quality control histograms give the same counts as binning
+ * the values in the bins of the plots.
+ *
+ * @author Marc Vaudel
+ */
+public class QcHistogramTest extends TestCase {
+
+    /**
+     * Tests integer bins with values equal to the bounds of the plot bins, and
+     * random values against binning the values.
+     */
+    public void testIntegerBins() {
+
+        QcHistogram histogram = new QcHistogram();
+        ArrayList<Double> values = new ArrayList<>();
+
+        for (double value : new double[]{0, 1, 2, 2, 3, 5, -1, 7}) {
+
+            histogram.add(QcHistogram.CONFIDENT, value);
+            values.add(value);
+
+        }
+
+        ArrayList<Double> bins = getBins(0, 4, 1);
+
+        Assert.assertArrayEquals(new int[]{2, 1, 2, 1, 0, 2}, histogram.getBinCounts(QcHistogram.CONFIDENT, bins));
+        Assert.assertArrayEquals(getExpectedCounts(values, bins), histogram.getBinCounts(QcHistogram.CONFIDENT, bins));
+        Assert.assertArrayEquals(new int[bins.size() + 1], histogram.getBinCounts(QcHistogram.DOUBTFUL, bins));
+
+        Random random = new Random(42);
+        histogram = new QcHistogram();
+        values.clear();
+
+        for (int i = 0; i < 10000; i++) {
+
+            double value = random.nextInt(60) - 10;
+            histogram.add(QcHistogram.NOT_VALIDATED, value);
+            values.add(value);
+
+        }
+
+        bins = getBins(0, 40, 1);
+        Assert.assertArrayEquals(getExpectedCounts(values, bins), histogram.getBinCounts(QcHistogram.NOT_VALIDATED, bins));
+
+        bins = getBins(0, 40, 5);
+        Assert.assertArrayEquals(getExpectedCounts(values, bins), histogram.getBinCounts(QcHistogram.NOT_VALIDATED, bins));
+
+        bins = getBins(-2.5, 22.5, 2.5);
+        Assert.assertArrayEquals(getExpectedCounts(values, bins), histogram.getBinCounts(QcHistogram.NOT_VALIDATED, bins));
+
+    }
+
+    /**
+     * Tests bins given by their upper bounds with the bins of the precursor
+     * m/z error plot, values equal to the bounds, and random values.
+     */
+    public void testUpperBounds() {
+
+        ArrayList<Double> bins = new ArrayList<>();
+
+        for (int i = -20; i <= 20; i++) {
+
+            bins.add(i * 10.0 / 20);
+
+        }
+
+        QcHistogram histogram = new QcHistogram(toArray(bins));
+        ArrayList<Double> values = new ArrayList<>();
+
+        for (double bin : bins) {
+
+            histogram.add(QcHistogram.DOUBTFUL, bin);
+            values.add(bin);
+
+        }
+
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+
+            double value = 25 * (random.nextDouble() - 0.5);
+            histogram.add(QcHistogram.DOUBTFUL, value);
+            values.add(value);
+
+        }
+
+        int[] binCounts = histogram.getBinCounts(QcHistogram.DOUBTFUL, bins);
+
+        Assert.assertArrayEquals(getExpectedCounts(values, bins), binCounts);
+        Assert.assertTrue(binCounts[0] > 1);
+        Assert.assertTrue(binCounts[bins.size()] > 0);
+
+    }
+
+    /**
+     * Tests that the values greater than all bounds and NaN are counted in the
+     * last bin of the plot.
+     */
+    public void testOverflow() {
+
+        QcHistogram histogram = new QcHistogram(new double[]{0.0, 10.0, 20.0});
+
+        histogram.add(QcHistogram.CONFIDENT, 20.0);
+        histogram.add(QcHistogram.CONFIDENT, 20.5);
+        histogram.add(QcHistogram.CONFIDENT, Double.POSITIVE_INFINITY);
+        histogram.add(QcHistogram.CONFIDENT, Double.NaN);
+        histogram.add(QcHistogram.CONFIDENT, Double.NEGATIVE_INFINITY);
+
+        ArrayList<Double> bins = getBins(0, 20, 10);
+
+        Assert.assertArrayEquals(new int[]{1, 0, 1, 3}, histogram.getBinCounts(QcHistogram.CONFIDENT, bins));
+
+        // the overflow bin is counted in the last bin of a plot with fewer bins
+        bins.remove(2);
+
+        Assert.assertArrayEquals(new int[]{1, 0, 4}, histogram.getBinCounts(QcHistogram.CONFIDENT, bins));
+
+    }
+
+    /**
+     * Tests the merging of integer histograms covering different ranges and of
+     * histograms with upper bounds.
+     */
+    public void testMerge() {
+
+        Random random = new Random(42);
+        QcHistogram all = new QcHistogram();
+        QcHistogram low = new QcHistogram();
+        QcHistogram high = new QcHistogram();
+        QcHistogram empty = new QcHistogram();
+
+        for (int i = 0; i < 1000; i++) {
+
+            int category = random.nextInt(QcHistogram.N_CATEGORIES);
+            double lowValue = random.nextInt(6) - 3;
+            double highValue = random.nextInt(6) + 100;
+
+            low.add(category, lowValue);
+            high.add(category, highValue);
+            all.add(category, lowValue);
+            all.add(category, highValue);
+
+        }
+
+        QcHistogram lowHigh = new QcHistogram();
+        lowHigh.merge(empty);
+        lowHigh.merge(low);
+        lowHigh.merge(high);
+
+        QcHistogram highLow = new QcHistogram();
+        highLow.merge(high);
+        highLow.merge(low);
+        highLow.merge(empty);
+
+        ArrayList<Double> bins = getBins(-5, 110, 1);
+
+        for (int category = 0; category < QcHistogram.N_CATEGORIES; category++) {
+
+            int[] expected = all.getBinCounts(category, bins);
+
+            Assert.assertArrayEquals(expected, lowHigh.getBinCounts(category, bins));
+            Assert.assertArrayEquals(expected, highLow.getBinCounts(category, bins));
+
+        }
+
+        double[] upperBounds = new double[]{0.0, 10.0, 20.0};
+        QcHistogram histogram1 = new QcHistogram(upperBounds);
+        QcHistogram histogram2 = new QcHistogram(upperBounds);
+
+        histogram1.add(QcHistogram.VALIDATED_DECOY, 5.0);
+        histogram2.add(QcHistogram.VALIDATED_DECOY, 5.0);
+        histogram2.add(QcHistogram.VALIDATED_DECOY, 30.0);
+        histogram1.merge(histogram2);
+
+        Assert.assertArrayEquals(new int[]{0, 2, 0, 1}, histogram1.getBinCounts(QcHistogram.VALIDATED_DECOY, getBins(0, 20, 10)));
+
+    }
+
+    /**
+     * Tests that removing values restores the counts, and that removing
+     * values never counted in integer bins throws an exception.
+     */
+    public void testRemove() {
+
+        QcHistogram histogram = new QcHistogram();
+        ArrayList<Double> bins = getBins(0, 10, 1);
+
+        histogram.add(QcHistogram.NOT_VALIDATED_DECOY, 2);
+        histogram.add(QcHistogram.NOT_VALIDATED_DECOY, 3);
+        histogram.add(QcHistogram.NOT_VALIDATED_DECOY, 8);
+        histogram.remove(QcHistogram.NOT_VALIDATED_DECOY, 3);
+        histogram.add(QcHistogram.NOT_VALIDATED_DECOY, 4);
+        histogram.remove(QcHistogram.NOT_VALIDATED_DECOY, 8);
+
+        QcHistogram expected = new QcHistogram();
+        expected.add(QcHistogram.NOT_VALIDATED_DECOY, 2);
+        expected.add(QcHistogram.NOT_VALIDATED_DECOY, 4);
+
+        Assert.assertArrayEquals(
+                expected.getBinCounts(QcHistogram.NOT_VALIDATED_DECOY, bins),
+                histogram.getBinCounts(QcHistogram.NOT_VALIDATED_DECOY, bins)
+        );
+
+        try {
+
+            histogram.remove(QcHistogram.NOT_VALIDATED_DECOY, 20);
+            fail("Removing a value out of the range of the histogram should throw an exception.");
+
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        histogram = new QcHistogram(new double[]{0.0, 10.0});
+        histogram.add(QcHistogram.CONFIDENT, 5.0);
+        histogram.add(QcHistogram.CONFIDENT, Double.NaN);
+        histogram.remove(QcHistogram.CONFIDENT, 5.0);
+        histogram.remove(QcHistogram.CONFIDENT, Double.NaN);
+
+        Assert.assertArrayEquals(new int[3], histogram.getBinCounts(QcHistogram.CONFIDENT, getBins(0, 10, 10)));
+
+    }
+
+    /**
+     * Returns the bins from the given first bin to the given last bin.
+     *
+     * @param first the first bin
+     * @param last the last bin
+     * @param step the distance between bins
+     *
+     * @return the bins
+     */
+    private static ArrayList<Double> getBins(
+            double first,
+            double last,
+            double step
+    ) {
+
+        ArrayList<Double> bins = new ArrayList<>();
+
+        for (int i = 0; first + i * step <= last; i++) {
+
+            bins.add(first + i * step);
+
+        }
+
+        return bins;
+
+    }
+
+    /**
+     * Returns the number of values per plot bin, where a value is counted in
+     * the first bin it is lower than or equal to, and in the last element if
+     * greater than all bins.
+     *
+     * @param values the values
+     * @param bins the bins
+     *
+     * @return the number of values per bin
+     */
+    private static int[] getExpectedCounts(
+            ArrayList<Double> values,
+            ArrayList<Double> bins
+    ) {
+
+        int[] result = new int[bins.size() + 1];
+
+        for (double value : values) {
+
+            int bin = 0;
+
+            while (bin < bins.size() && !(value <= bins.get(bin))) {
+
+                bin++;
+
+            }
+
+            result[bin]++;
+
+        }
+
+        return result;
+
+    }
+
+    /**
+     * Returns the given bins as array.
+     *
+     * @param bins the bins
+     *
+     * @return the bins as array
+     */
+    private static double[] toArray(
+            ArrayList<Double> bins
+    ) {
+
+        return bins.stream()
+                .mapToDouble(a -> a)
+                .toArray();
+
+    }
+}
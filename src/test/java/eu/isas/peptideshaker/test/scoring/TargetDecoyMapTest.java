@@ -0,0 +1,221 @@
+package eu.isas.peptideshaker.test.scoring;
+
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import eu.isas.peptideshaker.scoring.targetdecoy.TargetDecoyMap;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the estimation of probabilities in the target/decoy map.
+ *
+ * @author Marc Vaudel
+ */
+public class TargetDecoyMapTest extends TestCase {
+
+    /**
+     * The number of hits in the test dataset.
+     */
+    private static final int N_HITS = 5000;
+    /**
+     * The scores at which the probabilities are queried.
+     */
+    private static final double[] QUERY_SCORES = new double[]{0.0, 0.0125, 0.1, 0.2505, 0.5, 0.75, 0.9999, 1.5};
+    /**
+     * The probabilities expected at the query scores, as estimated by the
+     * original implementation of the map.
+     */
+    private static final double[] EXPECTED_PROBABILITIES = new double[]{
+        0.0,
+        0.010530983261279239,
+        0.07222222222222222,
+        0.21870112206732406,
+        0.4107142857142857,
+        0.9580838323353293,
+        1.0,
+        1.0
+    };
+
+    /**
+     * Tests that the frozen probabilities match the values of the original
+     * implementation.
+     */
+    public void testFrozenProbabilities() {
+
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+
+        for (double[] hit : getHits()) {
+
+            targetDecoyMap.put(hit[0], hit[1] == 1.0);
+
+        }
+
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        Assert.assertEquals(846, targetDecoyMap.getMapSize());
+        Assert.assertEquals(166, targetDecoyMap.getnMax());
+
+        for (int i = 0; i < QUERY_SCORES.length; i++) {
+
+            Assert.assertEquals(EXPECTED_PROBABILITIES[i], targetDecoyMap.getProbability(QUERY_SCORES[i]), 0.0);
+
+        }
+    }
+
+    /**
+     * Tests that hits put concurrently give the same probabilities as hits put
+     * sequentially.
+     *
+     * @throws InterruptedException exception thrown if a thread is interrupted
+     */
+    public void testConcurrentPut() throws InterruptedException {
+
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+        ArrayList<double[]> hits = getHits();
+        int nThreads = 4;
+        ArrayList<Thread> threads = new ArrayList<>(nThreads);
+
+        for (int i = 0; i < nThreads; i++) {
+
+            int threadIndex = i;
+
+            threads.add(new Thread(() -> {
+
+                for (int j = threadIndex; j < hits.size(); j += nThreads) {
+
+                    double[] hit = hits.get(j);
+                    targetDecoyMap.put(hit[0], hit[1] == 1.0);
+
+                    if (j % 10 == 0) {
+
+                        targetDecoyMap.getMapSize();
+
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+
+            thread.start();
+
+        }
+
+        for (Thread thread : threads) {
+
+            thread.join();
+
+        }
+
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        for (int i = 0; i < QUERY_SCORES.length; i++) {
+
+            Assert.assertEquals(EXPECTED_PROBABILITIES[i], targetDecoyMap.getProbability(QUERY_SCORES[i]), 0.0);
+
+        }
+    }
+
+    /**
+     * Tests that probabilities can be queried when hits are added after the
+     * estimation and when the map is empty.
+     */
+    public void testProbabilityLookup() {
+
+        TargetDecoyMap targetDecoyMap = new TargetDecoyMap();
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        Assert.assertEquals(1.0, targetDecoyMap.getProbability(0.5), 0.0);
+
+        for (double[] hit : getHits()) {
+
+            targetDecoyMap.put(hit[0], hit[1] == 1.0);
+
+        }
+
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        targetDecoyMap.put(0.12345, false);
+
+        Assert.assertEquals(EXPECTED_PROBABILITIES[2], targetDecoyMap.getProbability(QUERY_SCORES[2]), 0.0);
+        Assert.assertEquals(847, targetDecoyMap.getScores().size());
+
+        targetDecoyMap.remove(0.12345, false);
+        targetDecoyMap.cleanUp();
+        targetDecoyMap.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        Assert.assertEquals(846, targetDecoyMap.getMapSize());
+
+        for (int i = 0; i < QUERY_SCORES.length; i++) {
+
+            Assert.assertEquals(EXPECTED_PROBABILITIES[i], targetDecoyMap.getProbability(QUERY_SCORES[i]), 0.0);
+
+        }
+    }
+
+    /**
+     * Tests that the hits of a map added to another map give the same counts
+     * and probabilities as the hits put in a single map.
+     */
+    public void testAddAll() {
+
+        ArrayList<double[]> hits = getHits();
+        TargetDecoyMap firstHalf = new TargetDecoyMap();
+        TargetDecoyMap secondHalf = new TargetDecoyMap();
+        int nTarget = 0, nDecoy = 0;
+
+        for (int i = 0; i < hits.size(); i++) {
+
+            double[] hit = hits.get(i);
+            boolean decoy = hit[1] == 1.0;
+            (i % 2 == 0 ? firstHalf : secondHalf).put(hit[0], decoy);
+
+            if (hit[0] == 0.1) {
+
+                if (decoy) {
+                    nDecoy++;
+                } else {
+                    nTarget++;
+                }
+            }
+        }
+
+        firstHalf.addAll(secondHalf);
+        firstHalf.estimateProbabilities(new WaitingHandlerCLIImpl());
+
+        Assert.assertEquals(846, firstHalf.getMapSize());
+        Assert.assertEquals(nTarget, firstHalf.getNTarget(0.1));
+        Assert.assertEquals(nDecoy, firstHalf.getNDecoy(0.1));
+        Assert.assertEquals(0, firstHalf.getNTarget(0.12345));
+
+        for (int i = 0; i < QUERY_SCORES.length; i++) {
+
+            Assert.assertEquals(EXPECTED_PROBABILITIES[i], firstHalf.getProbability(QUERY_SCORES[i]), 0.0);
+
+        }
+    }
+
+    /**
+     * Returns the hits of the test dataset as score and decoy flag, one for
+     * decoy and zero for target.
+     *
+     * @return the hits of the test dataset
+     */
+    private static ArrayList<double[]> getHits() {
+
+        ArrayList<double[]> hits = new ArrayList<>(N_HITS);
+        Random random = new Random(42);
+
+        for (int i = 0; i < N_HITS; i++) {
+
+            double score = Math.round(random.nextDouble() * random.nextDouble() * 1000) / 1000.0;
+            boolean decoy = random.nextDouble() < score * 0.6;
+            hits.add(new double[]{score, decoy ? 1.0 : 0.0});
+
+        }
+
+        return hits;
+
+    }
+}
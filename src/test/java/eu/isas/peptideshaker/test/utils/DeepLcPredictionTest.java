@@ -0,0 +1,153 @@
+package eu.isas.peptideshaker.test.utils;
+
+import eu.isas.peptideshaker.utils.DeepLcPrediction;
+import eu.isas.peptideshaker.utils.DeepLcUtils;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the lookup of the retention times predicted by DeepLC.
+ *
+ * @author Marc Vaudel
+ */
+public class DeepLcPredictionTest extends TestCase {
+
+    /**
+     * Key of the first peptide.
+     */
+    private static final String PEPTIDE_1 = "NSVNGTFPAEPMKGPIAMQSGPKPLFR,12|Oxidation";
+    /**
+     * Key of the second peptide.
+     */
+    private static final String PEPTIDE_2 = "LVNELTEFAK,";
+
+    /**
+     * Tests that peptides sharing the hash of their key are told apart by
+     * their key.
+     */
+    public void testHashCollision() {
+
+        long hash = DeepLcUtils.getPeptideKey(PEPTIDE_1);
+
+        DeepLcPrediction prediction = getPrediction(
+                new long[]{hash, hash},
+                new String[]{PEPTIDE_1, PEPTIDE_2},
+                new double[][]{{1.0, 2.0}, {3.0}}
+        );
+
+        assertRts(new double[]{1.0, 2.0}, prediction.getPredictedRts(PEPTIDE_1));
+
+        // Only another peptide with the same hash: no prediction
+        prediction = getPrediction(
+                new long[]{hash},
+                new String[]{PEPTIDE_2},
+                new double[][]{{3.0}}
+        );
+
+        Assert.assertNull(prediction.getPredictedRts(PEPTIDE_1));
+
+    }
+
+    /**
+     * Tests that the keys are checked after the prediction was written to an
+     * index and mapped back.
+     *
+     * @throws Exception exception thrown if an error occurred
+     */
+    public void testIndexRoundTrip() throws Exception {
+
+        File deepLcFile = File.createTempFile("deepLcPredictionTest", ".csv");
+        File indexFile = File.createTempFile("deepLcPredictionTest", ".psindex");
+
+        try {
+
+            long hash = DeepLcUtils.getPeptideKey(PEPTIDE_1);
+
+            DeepLcPrediction prediction = getPrediction(
+                    new long[]{hash, hash},
+                    new String[]{PEPTIDE_1, PEPTIDE_2},
+                    new double[][]{{1.0, 2.0}, {3.0}}
+            );
+
+            prediction.write(indexFile, deepLcFile);
+
+            DeepLcPrediction loadedPrediction = DeepLcPrediction.load(indexFile, deepLcFile);
+
+            Assert.assertNotNull(loadedPrediction);
+            Assert.assertEquals(2, loadedPrediction.size());
+            assertRts(new double[]{1.0, 2.0}, loadedPrediction.getPredictedRts(PEPTIDE_1));
+            Assert.assertNull(loadedPrediction.getPredictedRts("PEPTIDE,"));
+
+        } finally {
+
+            deepLcFile.delete();
+            indexFile.delete();
+
+        }
+    }
+
+    /**
+     * Returns a prediction for the given peptides.
+     *
+     * @param keys the sorted hashes of the keys of the peptides
+     * @param names the keys of the peptides
+     * @param peptideRts the retention times of every peptide
+     *
+     * @return a prediction for the given peptides
+     */
+    private static DeepLcPrediction getPrediction(
+            long[] keys,
+            String[] names,
+            double[][] peptideRts
+    ) {
+
+        int[] offsets = new int[keys.length + 1];
+        int[] nameOffsets = new int[keys.length + 1];
+
+        for (int i = 0; i < keys.length; i++) {
+
+            offsets[i + 1] = offsets[i] + peptideRts[i].length;
+            nameOffsets[i + 1] = nameOffsets[i] + names[i].getBytes(StandardCharsets.UTF_8).length;
+
+        }
+
+        double[] rts = new double[offsets[keys.length]];
+        byte[] nameBytes = new byte[nameOffsets[keys.length]];
+
+        for (int i = 0; i < keys.length; i++) {
+
+            System.arraycopy(peptideRts[i], 0, rts, offsets[i], peptideRts[i].length);
+
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(name, 0, nameBytes, nameOffsets[i], name.length);
+
+        }
+
+        return new DeepLcPrediction(keys, offsets, rts, nameOffsets, nameBytes);
+
+    }
+
+    /**
+     * Asserts that the given retention times are as expected.
+     *
+     * @param expected the expected retention times
+     * @param actual the retention times
+     */
+    private static void assertRts(
+            double[] expected,
+            ArrayList<Double> actual
+    ) {
+
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.length, actual.size());
+
+        for (int i = 0; i < expected.length; i++) {
+
+            Assert.assertEquals(expected[i], actual.get(i), 0.0);
+
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package eu.isas.peptideshaker.test.utils;
+
+import eu.isas.peptideshaker.utils.FMIndexCache;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the format of the FM index cache files.
+ *
+ * @author Marc Vaudel
+ */
+public class FMIndexCacheTest extends TestCase {
+
+    /**
+     * Tests that an object written to a cache file is read back with the same
+     * key, and ignored with another key.
+     *
+     * @throws Exception exception thrown if an error occurred
+     */
+    public void testRoundTrip() throws Exception {
+
+        File cacheFile = getTempFile();
+
+        try {
+
+            HashMap<String, int[]> object = getObject();
+            FMIndexCache.writeCacheFile(object, cacheFile, getKey("key"));
+
+            @SuppressWarnings("unchecked")
+            HashMap<String, int[]> readObject = (HashMap<String, int[]>) FMIndexCache.readCacheFile(cacheFile, getKey("key"));
+
+            Assert.assertEquals(object.keySet(), readObject.keySet());
+
+            for (String key : object.keySet()) {
+
+                Assert.assertArrayEquals(object.get(key), readObject.get(key));
+
+            }
+
+            Assert.assertNull(FMIndexCache.readCacheFile(cacheFile, getKey("other key")));
+
+        } finally {
+
+            cacheFile.delete();
+
+        }
+    }
+
+    /**
+     * Tests that corrupted and truncated cache files are rejected.
+     *
+     * @throws Exception exception thrown if an error occurred
+     */
+    public void testCorruptedFile() throws Exception {
+
+        File cacheFile = getTempFile();
+
+        try {
+
+            FMIndexCache.writeCacheFile(getObject(), cacheFile, getKey("key"));
+
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+
+                long position = raf.length() - 10;
+                raf.seek(position);
+                int value = raf.read();
+                raf.seek(position);
+                raf.write(value ^ 0xFF);
+
+            }
+
+            assertRejected(cacheFile);
+
+            FMIndexCache.writeCacheFile(getObject(), cacheFile, getKey("key"));
+
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+
+                raf.setLength(raf.length() - 1);
+
+            }
+
+            assertRejected(cacheFile);
+
+            try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+
+                raf.setLength(10);
+
+            }
+
+            assertRejected(cacheFile);
+
+        } finally {
+
+            cacheFile.delete();
+
+        }
+    }
+
+    /**
+     * Tests that classes outside the allowed packages are not deserialized.
+     *
+     * @throws Exception exception thrown if an error occurred
+     */
+    public void testFilteredClasses() throws Exception {
+
+        File cacheFile = getTempFile();
+
+        try {
+
+            ArrayList<Object> object = new ArrayList<>();
+            object.add(new SimpleDateFormat("yyyy"));
+
+            FMIndexCache.writeCacheFile(object, cacheFile, getKey("key"));
+
+            assertRejected(cacheFile);
+
+        } finally {
+
+            cacheFile.delete();
+
+        }
+    }
+
+    /**
+     * Tests that the key of an index changes with the modification time and
+     * size of the FASTA file.
+     *
+     * @throws Exception exception thrown if an error occurred
+     */
+    public void testKey() throws Exception {
+
+        File fastaFile = File.createTempFile("fm_index_cache_test", ".fasta");
+
+        try {
+
+            Files.write(fastaFile.toPath(), ">P1\nPEPTIDE\n".getBytes(StandardCharsets.UTF_8));
+            fastaFile.setLastModified(1000000000000L);
+
+            byte[] key = FMIndexCache.getKey(fastaFile, null, null, null);
+
+            Assert.assertArrayEquals(key, FMIndexCache.getKey(fastaFile, null, null, null));
+            Assert.assertTrue(FMIndexCache.getCacheFile(fastaFile, key).getName().endsWith(FMIndexCache.EXTENSION));
+
+            fastaFile.setLastModified(2000000000000L);
+
+            Assert.assertFalse(Arrays.equals(key, FMIndexCache.getKey(fastaFile, null, null, null)));
+
+            Files.write(fastaFile.toPath(), ">P1\nPEPTIDES\n".getBytes(StandardCharsets.UTF_8));
+            fastaFile.setLastModified(1000000000000L);
+
+            Assert.assertFalse(Arrays.equals(key, FMIndexCache.getKey(fastaFile, null, null, null)));
+
+        } finally {
+
+            fastaFile.delete();
+
+        }
+    }
+
+    /**
+     * Asserts that reading the given cache file throws an exception.
+     *
+     * @param cacheFile the cache file
+     *
+     * @throws Exception exception thrown if an unexpected error occurred
+     */
+    private static void assertRejected(
+            File cacheFile
+    ) throws Exception {
+
+        try {
+
+            FMIndexCache.readCacheFile(cacheFile, getKey("key"));
+            Assert.fail("Invalid cache file accepted.");
+
+        } catch (IOException e) {
+
+            // expected
+
+        }
+    }
+
+    /**
+     * Returns a temporary file for the test.
+     *
+     * @return a temporary file for the test
+     *
+     * @throws IOException exception thrown if the file could not be created
+     */
+    private static File getTempFile() throws IOException {
+
+        File file = File.createTempFile("fm_index_cache_test", FMIndexCache.EXTENSION);
+        file.delete();
+
+        return file;
+
+    }
+
+    /**
+     * Returns a key made from the given text.
+     *
+     * @param text the text
+     *
+     * @return a key made from the given text
+     *
+     * @throws Exception exception thrown if the digest is not available
+     */
+    private static byte[] getKey(
+            String text
+    ) throws Exception {
+
+        return MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+
+    }
+
+    /**
+     * Returns the object used for the tests.
+     *
+     * @return the object used for the tests
+     */
+    private static HashMap<String, int[]> getObject() {
+
+        HashMap<String, int[]> object = new HashMap<>();
+
+        for (int i = 0; i < 100; i++) {
+
+            int[] values = new int[i];
+
+            for (int j = 0; j < i; j++) {
+
+                values[j] = i * j;
+
+            }
+
+            object.put("entry" + i, values);
+
+        }
+
+        return object;
+
+    }
+}
@@ -0,0 +1,123 @@
+package eu.isas.peptideshaker.test.utils;
+
+import eu.isas.peptideshaker.utils.NGramIndex;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the n-gram index used by the jump to panel.
+ *
+ * @author Marc Vaudel
+ */
+public class NGramIndexTest extends TestCase {
+
+    /**
+     * Tests that the candidates contain every item whose text contains the
+     * input, in increasing order.
+     */
+    public void testCandidates() {
+
+        Random random = new Random(42);
+        String alphabet = "ACDEFGHIKLMNPQRSTVWY";
+        int nItems = 2000;
+        String[] texts = new String[nItems];
+        NGramIndex.Builder builder = new NGramIndex.Builder();
+
+        for (int i = 0; i < nItems; i++) {
+
+            StringBuilder text = new StringBuilder();
+            int length = 5 + random.nextInt(20);
+
+            for (int j = 0; j < length; j++) {
+
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+
+            }
+
+            texts[i] = text.toString();
+            builder.add(i, texts[i]);
+
+        }
+
+        NGramIndex index = builder.build();
+
+        for (int query = 0; query < 200; query++) {
+
+            String text = texts[random.nextInt(nItems)];
+            int start = random.nextInt(text.length() - NGramIndex.N_GRAM);
+            int end = start + NGramIndex.N_GRAM + random.nextInt(text.length() - start - NGramIndex.N_GRAM + 1);
+            String input = text.substring(start, end).toLowerCase();
+
+            int[] candidates = index.getCandidates(input, nItems);
+
+            for (int i = 1; i < candidates.length; i++) {
+
+                Assert.assertTrue(candidates[i - 1] < candidates[i]);
+
+            }
+
+            ArrayList<Integer> candidatesList = new ArrayList<>(candidates.length);
+
+            for (int candidate : candidates) {
+
+                candidatesList.add(candidate);
+
+            }
+
+            for (int i = 0; i < nItems; i++) {
+
+                if (texts[i].toLowerCase().contains(input)) {
+
+                    Assert.assertTrue(candidatesList.contains(i));
+
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that item numbers needing several bytes in the posting lists are
+     * decoded, and that texts are indexed in lower case.
+     */
+    public void testLargeItems() {
+
+        int[] items = new int[]{0, 1, 130, 20000, 3000000, 3000001};
+        NGramIndex.Builder builder = new NGramIndex.Builder();
+
+        for (int item : items) {
+
+            builder.add(item, "Keratin");
+            builder.add(item, "KERATIN type II");
+
+        }
+
+        builder.add(3000002, "Albumin");
+
+        NGramIndex index = builder.build();
+
+        Assert.assertArrayEquals(items, index.getCandidates("keratin", 3000003));
+        Assert.assertArrayEquals(new int[]{3000002}, index.getCandidates("bumi", 3000003));
+
+    }
+
+    /**
+     * Tests short inputs, unknown n-grams, and null texts.
+     */
+    public void testEdgeCases() {
+
+        NGramIndex.Builder builder = new NGramIndex.Builder();
+        builder.add(0, "ALBU_HUMAN");
+        builder.add(1, null);
+        builder.add(2, "TRFE_HUMAN");
+
+        NGramIndex index = builder.build();
+
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, index.getCandidates("hu", 3));
+        Assert.assertArrayEquals(new int[0], index.getCandidates("xyz", 3));
+        Assert.assertArrayEquals(new int[]{0, 2}, index.getCandidates("_human", 3));
+        Assert.assertArrayEquals(new int[]{2}, index.getCandidates("trfe", 3));
+
+    }
+}
@@ -0,0 +1,149 @@
+package eu.isas.peptideshaker.test.utils;
+
+import eu.isas.peptideshaker.utils.PeptideSequenceIndex;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the retrieval of related peptides from the peptide sequence index.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideSequenceIndexTest extends TestCase {
+
+    /**
+     * Tests the related peptides of a few sequences.
+     */
+    public void testRelatedPeptides() {
+
+        TreeMap<String, ArrayList<Long>> sequencesMap = new TreeMap<>();
+        sequencesMap.put("PEPTIDE", new ArrayList<>(Arrays.asList(0L, 1L)));
+        sequencesMap.put("PEPTIDER", new ArrayList<>(Arrays.asList(2L)));
+        sequencesMap.put("TIDE", new ArrayList<>(Arrays.asList(3L)));
+        sequencesMap.put("ELVISK", new ArrayList<>(Arrays.asList(4L)));
+
+        PeptideSequenceIndex index = new PeptideSequenceIndex(sequencesMap, new HashMap<>(), new ArrayList<>());
+
+        // The sequence itself, sequences containing it, and sequences contained in it
+        Assert.assertArrayEquals(new long[]{0L, 1L, 2L, 3L}, sorted(index.getRelatedPeptides("PEPTIDE")));
+        Assert.assertArrayEquals(new long[]{0L, 1L, 2L, 3L}, sorted(index.getRelatedPeptides("TIDE")));
+        Assert.assertArrayEquals(new long[]{0L, 1L, 2L, 3L}, sorted(index.getRelatedPeptides("PEPTIDER")));
+        Assert.assertArrayEquals(new long[]{0L, 1L, 2L}, sorted(index.getRelatedPeptides("PEP")));
+        Assert.assertArrayEquals(new long[]{4L}, sorted(index.getRelatedPeptides("ELVISK")));
+        Assert.assertArrayEquals(new long[]{4L}, sorted(index.getRelatedPeptides("LVIS")));
+        Assert.assertArrayEquals(new long[]{4L}, sorted(index.getRelatedPeptides("AELVISKR")));
+
+        // Unrelated sequences
+        Assert.assertEquals(0, index.getRelatedPeptides("WWW").length);
+        Assert.assertEquals(0, index.getRelatedPeptides("PEPTIK").length);
+
+    }
+
+    /**
+     * Tests the related peptides against a linear scan of random sequences,
+     * enough for the suffixes to be sorted by multikey quicksort.
+     */
+    public void testRandomSequences() {
+
+        Random random = new Random(42);
+        String aminoAcids = "ACDE";
+
+        TreeMap<String, ArrayList<Long>> sequencesMap = new TreeMap<>();
+        long peptideKey = 0;
+
+        for (int i = 0; i < 500; i++) {
+
+            int length = 1 + random.nextInt(12);
+            StringBuilder sequence = new StringBuilder(length);
+
+            for (int j = 0; j < length; j++) {
+
+                sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+
+            }
+
+            ArrayList<Long> keys = sequencesMap.get(sequence.toString());
+
+            if (keys == null) {
+
+                keys = new ArrayList<>(1);
+                sequencesMap.put(sequence.toString(), keys);
+
+            }
+
+            keys.add(peptideKey++);
+
+        }
+
+        PeptideSequenceIndex index = new PeptideSequenceIndex(sequencesMap, new HashMap<>(), new ArrayList<>());
+
+        ArrayList<String> queries = new ArrayList<>(sequencesMap.keySet());
+        queries.addAll(Arrays.asList("A", "CD", "DEAC", "ACDEACDEACDEACDE"));
+
+        for (String query : queries) {
+
+            ArrayList<Long> expected = new ArrayList<>();
+
+            for (Entry<String, ArrayList<Long>> entry : sequencesMap.entrySet()) {
+
+                if (entry.getKey().contains(query) || query.contains(entry.getKey())) {
+
+                    expected.addAll(entry.getValue());
+
+                }
+            }
+
+            long[] expectedArray = expected.stream()
+                    .mapToLong(a -> a)
+                    .sorted()
+                    .toArray();
+
+            Assert.assertArrayEquals(query, expectedArray, sorted(index.getRelatedPeptides(query)));
+
+        }
+    }
+
+    /**
+     * Tests the indexing of the target peptides by modification.
+     */
+    public void testModifications() {
+
+        TreeMap<String, ArrayList<Long>> sequencesMap = new TreeMap<>();
+        sequencesMap.put("PEPTIDE", new ArrayList<>(Arrays.asList(0L, 1L, 2L)));
+
+        HashMap<String, ArrayList<Long>> modificationsMap = new HashMap<>();
+        modificationsMap.put("Oxidation of M", new ArrayList<>(Arrays.asList(1L)));
+
+        PeptideSequenceIndex index = new PeptideSequenceIndex(sequencesMap, modificationsMap, new ArrayList<>(Arrays.asList(0L)));
+
+        Assert.assertArrayEquals(new long[]{1L}, index.getModifiedPeptides("Oxidation of M"));
+        Assert.assertNull(index.getModifiedPeptides("Phosphorylation of S"));
+        Assert.assertArrayEquals(new long[]{0L}, index.getUnmodifiedPeptides());
+        Assert.assertEquals(1, index.getModifications().size());
+
+    }
+
+    /**
+     * Returns a sorted copy of the given keys.
+     *
+     * @param keys the keys
+     *
+     * @return a sorted copy of the keys
+     */
+    private static long[] sorted(
+            long[] keys
+    ) {
+
+        long[] result = Arrays.copyOf(keys, keys.length);
+        Arrays.sort(result);
+
+        return result;
+
+    }
+}
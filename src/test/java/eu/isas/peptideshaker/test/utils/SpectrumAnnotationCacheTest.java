@@ -0,0 +1,68 @@
+package eu.isas.peptideshaker.test.utils;
+
+import com.compomics.util.experiment.identification.spectrum_annotation.AnnotationParameters;
+import com.compomics.util.parameters.identification.advanced.SequenceMatchingParameters;
+import com.compomics.util.parameters.identification.search.ModificationParameters;
+import eu.isas.peptideshaker.utils.SpectrumAnnotationCache;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the keys of the annotation settings in the spectrum annotation cache.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumAnnotationCacheTest extends TestCase {
+
+    /**
+     * Tests that annotation parameters edited in place get another key, and
+     * get their key back when the edit is reverted.
+     */
+    public void testParametersEditedInPlace() {
+
+        SpectrumAnnotationCache.clear();
+
+        AnnotationParameters annotationParameters = new AnnotationParameters();
+        ModificationParameters modificationParameters = new ModificationParameters();
+        SequenceMatchingParameters sequenceMatchingParameters = new SequenceMatchingParameters();
+
+        long key = SpectrumAnnotationCache.getSettingsKey(annotationParameters, modificationParameters, sequenceMatchingParameters);
+
+        Assert.assertTrue(key != SpectrumAnnotationCache.NO_KEY);
+        Assert.assertEquals(key, SpectrumAnnotationCache.getSettingsKey(annotationParameters, modificationParameters, sequenceMatchingParameters));
+
+        // Edit in place, as done before exporting mzIdentML files
+        double intensityLimit = annotationParameters.getAnnotationIntensityLimit();
+        annotationParameters.setIntensityLimit(intensityLimit == 0.0 ? 0.5 : 0.0);
+
+        long editedKey = SpectrumAnnotationCache.getSettingsKey(annotationParameters, modificationParameters, sequenceMatchingParameters);
+
+        Assert.assertTrue(editedKey != SpectrumAnnotationCache.NO_KEY);
+        Assert.assertTrue(editedKey != key);
+
+        // Revert the edit
+        annotationParameters.setIntensityLimit(intensityLimit);
+
+        Assert.assertEquals(key, SpectrumAnnotationCache.getSettingsKey(annotationParameters, modificationParameters, sequenceMatchingParameters));
+
+        SpectrumAnnotationCache.clear();
+
+    }
+
+    /**
+     * Tests that different instances with the same content share their key.
+     */
+    public void testSameContent() {
+
+        SpectrumAnnotationCache.clear();
+
+        long key1 = SpectrumAnnotationCache.getSettingsKey(new AnnotationParameters(), new ModificationParameters(), new SequenceMatchingParameters());
+        long key2 = SpectrumAnnotationCache.getSettingsKey(new AnnotationParameters(), new ModificationParameters(), new SequenceMatchingParameters());
+
+        Assert.assertTrue(key1 != SpectrumAnnotationCache.NO_KEY);
+        Assert.assertEquals(key1, key2);
+
+        SpectrumAnnotationCache.clear();
+
+    }
+}
@@ -0,0 +1,73 @@
+package eu.isas.peptideshaker.test.utils;
+
+import eu.isas.peptideshaker.utils.SpectrumTitleIndex;
+import java.util.HashMap;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.junit.Assert;
+
+/**
+ * Tests the retrieval of the position of spectrum titles.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumTitleIndexTest extends TestCase {
+
+    /**
+     * Tests the positions of a few titles.
+     */
+    public void testPositions() {
+
+        SpectrumTitleIndex index = new SpectrumTitleIndex(
+                new String[]{"scan=3", "scan=1", "scan=2", "", "scan=1"}
+        );
+
+        Assert.assertEquals(0, index.getIndex("scan=3"));
+        Assert.assertEquals(2, index.getIndex("scan=2"));
+        Assert.assertEquals(3, index.getIndex(""));
+
+        // Titles present multiple times return their first position
+        Assert.assertEquals(1, index.getIndex("scan=1"));
+
+        // Missing titles
+        Assert.assertEquals(-1, index.getIndex("scan=4"));
+        Assert.assertEquals(-1, index.getIndex("scan=10"));
+
+        Assert.assertEquals(-1, new SpectrumTitleIndex(new String[0]).getIndex("scan=1"));
+
+    }
+
+    /**
+     * Tests the positions of random titles with duplicates against a map,
+     * enough for the hashes to be sorted by quicksort.
+     */
+    public void testRandomTitles() {
+
+        Random random = new Random(42);
+        String[] titles = new String[20000];
+        HashMap<String, Integer> firstPositions = new HashMap<>(titles.length);
+
+        for (int i = 0; i < titles.length; i++) {
+
+            titles[i] = "File: run.raw, NativeID: controllerType=0 controllerNumber=1 scan=" + random.nextInt(15000);
+            firstPositions.putIfAbsent(titles[i], i);
+
+        }
+
+        SpectrumTitleIndex index = new SpectrumTitleIndex(titles);
+
+        for (int i = 0; i < titles.length; i++) {
+
+            Assert.assertEquals(firstPositions.get(titles[i]).intValue(), index.getIndex(titles[i]));
+
+        }
+
+        for (int i = 0; i < 1000; i++) {
+
+            String title = "File: run.raw, NativeID: controllerType=0 controllerNumber=1 scan=" + (15000 + i);
+
+            Assert.assertEquals(-1, index.getIndex(title));
+
+        }
+    }
+}